@@ -63,6 +63,16 @@ public final class FDBRecordStoreProperties {
     public static final RecordLayerPropertyKey<Boolean> LOAD_RECORDS_VIA_GETS = RecordLayerPropertyKey.booleanPropertyKey(
             "com.apple.foundationdb.record.recordstore.load_records_via_gets", false);
 
+    /**
+     * Whether in-memory sorts of query results should use a {@link com.apple.foundationdb.record.sorting.ParallelMemorySorter},
+     * which orders records by their serialized sort keys and splits sorting large sets of records across the store's
+     * {@linkplain com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore#getExecutor() executor},
+     * instead of a {@link com.apple.foundationdb.record.sorting.MemorySorter}. Both return records in the same order.
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public static final RecordLayerPropertyKey<Boolean> PARALLEL_MEMORY_SORT = RecordLayerPropertyKey.booleanPropertyKey(
+            "com.apple.foundationdb.record.recordstore.parallel_memory_sort", false);
+
     private FDBRecordStoreProperties() {
         throw new RecordCoreException("should not instantiate class of static prop");
     }
@@ -34,6 +34,8 @@ import com.apple.foundationdb.record.cursors.ListCursor;
 import com.apple.foundationdb.record.cursors.MapPipelinedCursor;
 import com.apple.foundationdb.record.cursors.MapResultCursor;
 import com.apple.foundationdb.record.cursors.OrElseCursor;
+import com.apple.foundationdb.record.cursors.PublisherCursor;
+import com.apple.foundationdb.record.cursors.RecordCursorPublisher;
 import com.apple.foundationdb.record.cursors.RowLimitedCursor;
 import com.apple.foundationdb.record.cursors.SkipCursor;
 import com.apple.foundationdb.record.logging.CompletionExceptionLogHelper;
@@ -53,6 +55,7 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
@@ -102,6 +105,13 @@ import java.util.stream.StreamSupport;
  */
 @API(API.Status.STABLE)
 public interface RecordCursor<T> extends AutoCloseable {
+    /**
+     * The maximum number of results that methods like {@link #forEachResult} ask for at once from
+     * {@link #onNextBatch(int)}.
+     */
+    @API(API.Status.EXPERIMENTAL)
+    int DEFAULT_BATCH_SIZE = 1000;
+
     /**
      * The reason that {@link RecordCursorResult#hasNext()} returned <code>false</code>.
      */
@@ -225,6 +235,29 @@ public interface RecordCursor<T> extends AutoCloseable {
     @Nonnull
     CompletableFuture<RecordCursorResult<T>> onNext();
 
+    /**
+     * Asynchronously return as many of the next results from this cursor as are available together.
+     *
+     * <p>
+     * The results are exactly those that repeated calls to {@link #onNext()} would return, in the same order and with
+     * the same continuations, and calls to the two methods can be interleaved. The returned list is never empty, and
+     * only its last element can be a result without a value. A cursor that can produce several results without any
+     * further asynchronous work, such as a scan whose next range-read chunk is already in hand, returns them together,
+     * saving a future and its callbacks for each; cursors that filter or map their inner cursor's results then
+     * process the whole batch in a single step. The default implementation returns the single result of
+     * {@link #onNext()}.
+     * </p>
+     *
+     * @param maxBatchSize the maximum number of results to return
+     * @return a future for the next results from this cursor
+     * @see #onNext()
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default CompletableFuture<List<RecordCursorResult<T>>> onNextBatch(int maxBatchSize) {
+        return onNext().thenApply(Collections::singletonList);
+    }
+
     /**
      * Get the next result from this cursor. In many cases, this is a blocking operation and should <em>not</em> be
      * called within asynchronous contexts. The non-blocking version of this function, {@link #onNext()}, should
@@ -746,13 +779,16 @@ public interface RecordCursor<T> extends AutoCloseable {
     @Nonnull
     default CompletableFuture<RecordCursorResult<T>> forEachResult(@Nonnull Consumer<RecordCursorResult<T>> consumer) {
         final AtomicReference<RecordCursorResult<T>> holder = new AtomicReference<>(RecordCursorResult.exhausted());
-        return AsyncUtil.whileTrue(() -> onNext().thenApply(result -> {
-            if (result.hasNext()) {
-                consumer.accept(result);
-            } else {
-                holder.set(result);
+        return AsyncUtil.whileTrue(() -> onNextBatch(DEFAULT_BATCH_SIZE).thenApply(results -> {
+            for (RecordCursorResult<T> result : results) {
+                if (result.hasNext()) {
+                    consumer.accept(result);
+                } else {
+                    holder.set(result);
+                    return false;
+                }
             }
-            return result.hasNext();
+            return true;
         }), getExecutor()).thenApply(vignore -> holder.get());
     }
 
@@ -925,6 +961,34 @@ public interface RecordCursor<T> extends AutoCloseable {
                 function, null, continuation, 1);
     }
 
+    /**
+     * Get a new cursor that returns the elements of a reactive streams publisher.
+     * @param publisher the publisher of the elements
+     * @param <T> the type of elements of the publisher
+     * @return a new cursor that subscribes to {@code publisher} and produces the elements it publishes
+     * @see PublisherCursor
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    static <T> RecordCursor<T> fromPublisher(@Nonnull Flow.Publisher<T> publisher) {
+        return fromPublisher(ForkJoinPool.commonPool(), publisher, PublisherCursor.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Get a new cursor that returns the elements of a reactive streams publisher.
+     * @param executor an executor in which to continue after waiting for the publisher
+     * @param publisher the publisher of the elements
+     * @param bufferSize the maximum number of elements to request ahead of those returned by the cursor
+     * @param <T> the type of elements of the publisher
+     * @return a new cursor that subscribes to {@code publisher} and produces the elements it publishes
+     * @see PublisherCursor
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    static <T> RecordCursor<T> fromPublisher(@Nonnull Executor executor, @Nonnull Flow.Publisher<T> publisher, int bufferSize) {
+        return new PublisherCursor<>(executor, publisher, bufferSize);
+    }
+
     /**
      * Get a new cursor that does not return any records.
      * @param <T> the type of elements of the cursor
@@ -975,6 +1039,18 @@ public interface RecordCursor<T> extends AutoCloseable {
         }), getExecutor()).thenApply(vignore -> holder.get());
     }
 
+    /**
+     * Get a reactive streams publisher of the elements of this cursor. The cursor is only advanced as the subscriber
+     * requests elements, and it is closed when the stream stops.
+     * @return a new publisher of the elements of this cursor, which accepts a single subscriber
+     * @see RecordCursorPublisher
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    default RecordCursorPublisher<T> asPublisher() {
+        return new RecordCursorPublisher<>(this);
+    }
+
     /**
      * Retrieve a sequential stream of type T that registers an on-close handler that will close this RecordCursor when the
      * stream is closed.
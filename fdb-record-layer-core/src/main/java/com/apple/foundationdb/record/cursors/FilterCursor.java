@@ -28,6 +28,9 @@ import com.apple.foundationdb.record.RecordCursorVisitor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.function.Function;
@@ -64,6 +67,30 @@ public class FilterCursor<T> implements RecordCursor<T> {
         }), getExecutor()).thenApply(vignore -> nextResult);
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<List<RecordCursorResult<T>>> onNextBatch(int maxBatchSize) {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(Collections.singletonList(nextResult));
+        }
+        final List<RecordCursorResult<T>> results = new ArrayList<>();
+        // Keep asking for batches until one has a result that passes or the inner cursor stops.
+        return AsyncUtil.whileTrue(() -> inner.onNextBatch(maxBatchSize).thenApply(innerResults -> {
+            for (RecordCursorResult<T> innerResult : innerResults) {
+                nextResult = innerResult;
+                if (!innerResult.hasNext()) {
+                    results.add(innerResult);
+                    return false;
+                }
+                hasNext = Boolean.TRUE.equals(pred.apply(innerResult.get()));
+                if (hasNext) {
+                    results.add(innerResult);
+                }
+            }
+            return results.isEmpty();
+        }), getExecutor()).thenApply(vignore -> results);
+    }
+
     @Override
     public void close() {
         inner.close();
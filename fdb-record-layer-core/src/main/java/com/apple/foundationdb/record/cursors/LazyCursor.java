@@ -28,6 +28,8 @@ import com.apple.foundationdb.record.RecordCursorVisitor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
@@ -91,6 +93,22 @@ public class LazyCursor<T> implements RecordCursor<T> {
         }
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<List<RecordCursorResult<T>>> onNextBatch(int maxBatchSize) {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(Collections.singletonList(nextResult));
+        }
+        if (inner == null) {
+            return futureCursor.thenAccept(cursor -> inner = cursor).thenCompose(vignore -> this.onNextBatch(maxBatchSize));
+        } else {
+            return inner.onNextBatch(maxBatchSize).thenApply(results -> {
+                nextResult = results.get(results.size() - 1);
+                return results;
+            });
+        }
+    }
+
     @Override
     public void close() {
         if (inner != null) {
@@ -22,6 +22,7 @@ package com.apple.foundationdb.record.cursors;
 
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.async.MoreAsyncUtil;
 import com.apple.foundationdb.record.RecordCursor;
 import com.apple.foundationdb.record.RecordCursorContinuation;
 import com.apple.foundationdb.record.RecordCursorResult;
@@ -30,7 +31,9 @@ import com.apple.foundationdb.record.RecordCursorVisitor;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
@@ -56,9 +59,12 @@ public class MapPipelinedCursor<T, V> implements RecordCursor<V> {
     @Nonnull
     private final Queue<CompletableFuture<RecordCursorResult<V>>> pipeline;
     private boolean innerExhausted = false;
+    // Results from the last batch of the inner cursor that have not been added to the pipeline yet.
+    @Nonnull
+    private final Queue<RecordCursorResult<T>> innerResults = new ArrayDeque<>();
 
     @Nullable
-    private CompletableFuture<RecordCursorResult<T>> waitInnerFuture = null;
+    private CompletableFuture<List<RecordCursorResult<T>>> waitInnerFuture = null;
     @Nullable
     private RecordCursorResult<V> nextResult = null;
 
@@ -88,11 +94,46 @@ public class MapPipelinedCursor<T, V> implements RecordCursor<V> {
                 });
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<List<RecordCursorResult<V>>> onNextBatch(int maxBatchSize) {
+        return onNext().thenApply(first -> {
+            final List<RecordCursorResult<V>> results = new ArrayList<>();
+            results.add(first);
+            RecordCursorResult<V> result = first;
+            while (result.hasNext() && results.size() < maxBatchSize) {
+                CompletableFuture<RecordCursorResult<V>> nextEntry = pipeline.peek();
+                if (nextEntry == null || !nextEntry.isDone()) {
+                    // Start work on whatever the inner cursor already has, which may make the next entry ready.
+                    try {
+                        tryToFillPipeline();
+                    } catch (RuntimeException ex) {
+                        // The inner cursor failed, which the next call will report.
+                        break;
+                    }
+                    nextEntry = pipeline.peek();
+                }
+                // Anything that is not ready, including a failure, is left to the next call.
+                if (nextEntry == null || !MoreAsyncUtil.isCompletedNormally(nextEntry)) {
+                    break;
+                }
+                result = nextEntry.join();
+                if (result.hasNext()) {
+                    pipeline.remove();
+                }
+                nextResult = result;
+                results.add(result);
+            }
+            return results;
+        });
+    }
+
     @Override
     public void close() {
         while (!pipeline.isEmpty()) {
             pipeline.remove().cancel(false);
         }
+        innerResults.clear();
         inner.close();
     }
 
@@ -122,11 +163,17 @@ public class MapPipelinedCursor<T, V> implements RecordCursor<V> {
     protected CompletableFuture<Boolean> tryToFillPipeline() {
         while (!innerExhausted && pipeline.size() < pipelineSize) {
             // try to add a future to the pipeline
-            if (waitInnerFuture == null) {
-                waitInnerFuture = inner.onNext();
-            }
+            final RecordCursorResult<T> innerResult = innerResults.poll();
+            if (innerResult == null) {
+                if (waitInnerFuture == null) {
+                    waitInnerFuture = inner.onNextBatch(pipelineSize - pipeline.size());
+                }
+                if (waitInnerFuture.isDone()) {
+                    innerResults.addAll(waitInnerFuture.join()); // future is ready, doesn't block
+                    waitInnerFuture = null;
+                    continue;
+                }
 
-            if (!waitInnerFuture.isDone()) {
                 // still waiting for inner future, check back once something has finished
                 CompletableFuture<RecordCursorResult<V>> nextEntry = pipeline.peek();
                 if (nextEntry == null) {
@@ -137,11 +184,9 @@ public class MapPipelinedCursor<T, V> implements RecordCursor<V> {
                 }
             }
 
-            final RecordCursorResult<T> innerResult = waitInnerFuture.join(); // future is ready, doesn't block
             pipeline.add(innerResult.mapAsync(func));
 
             if (innerResult.hasNext()) { // just added something to the pipeline, so pipeline will contain an entry
-                waitInnerFuture = null; // done with this future, should advanced cursor next time
                 if (pipeline.peek().isDone()) { //
                     return AsyncUtil.READY_FALSE; // next entry ready, don't loop
                 }
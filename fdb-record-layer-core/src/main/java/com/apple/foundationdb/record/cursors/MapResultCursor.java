@@ -27,6 +27,9 @@ import com.apple.foundationdb.record.RecordCursorVisitor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.function.Function;
@@ -75,6 +78,22 @@ public class MapResultCursor<T, V> implements RecordCursor<V> {
                 });
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<List<RecordCursorResult<V>>> onNextBatch(int maxBatchSize) {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(Collections.singletonList(nextResult));
+        }
+        return inner.onNextBatch(maxBatchSize).thenApply(innerResults -> {
+            final List<RecordCursorResult<V>> results = new ArrayList<>(innerResults.size());
+            for (RecordCursorResult<T> innerResult : innerResults) {
+                results.add(func.apply(innerResult));
+            }
+            nextResult = results.get(results.size() - 1);
+            return results;
+        });
+    }
+
     @Override
     public void close() {
         inner.close();
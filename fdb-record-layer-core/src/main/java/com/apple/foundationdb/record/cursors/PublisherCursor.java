@@ -0,0 +1,239 @@
+/*
+ * PublisherCursor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.ByteArrayContinuation;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+/**
+ * A cursor that returns the elements of a {@link Flow.Publisher}.
+ *
+ * <p>
+ * The cursor subscribes when it is first advanced and requests up to {@code bufferSize} elements ahead of what has
+ * been consumed, requesting more in batches as the buffer drains, so that elements can already be available for
+ * pipelined operations such as {@link RecordCursor#mapPipelined}. The cursor's continuations only count the elements
+ * returned: a publisher cannot in general be resumed from the middle, so they are mostly useful to tell whether the
+ * cursor was exhausted. Closing the cursor cancels the subscription, and any pending {@link #onNext} completes as
+ * exhausted.
+ * </p>
+ *
+ * @param <T> the type of elements of the cursor
+ */
+@API(API.Status.EXPERIMENTAL)
+public class PublisherCursor<T> implements RecordCursor<T> {
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    @Nonnull
+    private final Executor executor;
+    @Nonnull
+    private final Flow.Publisher<T> publisher;
+    private final int bufferSize;
+    private final int requestBatchSize;
+
+    // The following are guarded by synchronizing on the buffer, since they are changed by the publisher's signals.
+    @Nonnull
+    private final Queue<T> buffer;
+    @Nullable
+    private Flow.Subscription subscription;
+    private boolean complete;
+    @Nullable
+    private Throwable error;
+    @Nullable
+    private CompletableFuture<Void> waiting;
+
+    // The following are only accessed by the consumer of the cursor.
+    private boolean subscribed;
+    private boolean closed;
+    private int consumedSinceRequest;
+    private int valuesSeen;
+    @Nullable
+    private RecordCursorResult<T> nextResult;
+
+    public PublisherCursor(@Nonnull Executor executor, @Nonnull Flow.Publisher<T> publisher, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new RecordCoreArgumentException("buffer size must be positive")
+                    .addLogInfo("bufferSize", bufferSize);
+        }
+        this.executor = executor;
+        this.publisher = publisher;
+        this.bufferSize = bufferSize;
+        this.requestBatchSize = Math.max(1, bufferSize / 2);
+        this.buffer = new ArrayDeque<>(bufferSize);
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorResult<T>> onNext() {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        if (!subscribed) {
+            subscribed = true;
+            publisher.subscribe(new BufferingSubscriber());
+        }
+        synchronized (buffer) {
+            final T value = buffer.poll();
+            if (value != null) {
+                nextResult = RecordCursorResult.withNextValue(value, ByteArrayContinuation.fromInt(++valuesSeen));
+            } else if (error != null) {
+                return CompletableFuture.failedFuture(error);
+            } else if (complete) {
+                nextResult = RecordCursorResult.exhausted();
+                return CompletableFuture.completedFuture(nextResult);
+            } else {
+                final CompletableFuture<Void> waitFor = new CompletableFuture<>();
+                waiting = waitFor;
+                return waitFor.thenComposeAsync(vignore -> onNext(), executor);
+            }
+        }
+        // Ask for more outside the lock, since the publisher may deliver synchronously.
+        if (++consumedSinceRequest >= requestBatchSize) {
+            final int batch = consumedSinceRequest;
+            consumedSinceRequest = 0;
+            requestMore(batch);
+        }
+        return CompletableFuture.completedFuture(nextResult);
+    }
+
+    private void requestMore(long n) {
+        final Flow.Subscription currentSubscription;
+        synchronized (buffer) {
+            currentSubscription = subscription;
+        }
+        if (currentSubscription != null) {
+            currentSubscription.request(n);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        final Flow.Subscription currentSubscription;
+        final CompletableFuture<Void> toComplete;
+        synchronized (buffer) {
+            currentSubscription = subscription;
+            complete = true;
+            buffer.clear();
+            toComplete = waiting;
+            waiting = null;
+        }
+        if (currentSubscription != null) {
+            currentSubscription.cancel();
+        }
+        // Any pending onNext will now find the cursor exhausted, since no more elements will be delivered.
+        if (toComplete != null) {
+            toComplete.complete(null);
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Nonnull
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+        visitor.visitEnter(this);
+        return visitor.visitLeave(this);
+    }
+
+    private class BufferingSubscriber implements Flow.Subscriber<T> {
+        @Override
+        public void onSubscribe(@Nonnull Flow.Subscription newSubscription) {
+            final boolean cancel;
+            synchronized (buffer) {
+                cancel = subscription != null || complete;
+                if (!cancel) {
+                    subscription = newSubscription;
+                }
+            }
+            if (cancel) {
+                // Rule 2.5: already subscribed (or closed).
+                newSubscription.cancel();
+            } else {
+                newSubscription.request(bufferSize);
+            }
+        }
+
+        @Override
+        public void onNext(@Nonnull T item) {
+            final CompletableFuture<Void> toComplete;
+            synchronized (buffer) {
+                if (complete) {
+                    return;
+                }
+                buffer.add(item);
+                toComplete = waiting;
+                waiting = null;
+            }
+            if (toComplete != null) {
+                toComplete.complete(null);
+            }
+        }
+
+        @Override
+        public void onError(@Nonnull Throwable throwable) {
+            final CompletableFuture<Void> toComplete;
+            synchronized (buffer) {
+                error = throwable;
+                toComplete = waiting;
+                waiting = null;
+            }
+            if (toComplete != null) {
+                toComplete.complete(null);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            final CompletableFuture<Void> toComplete;
+            synchronized (buffer) {
+                complete = true;
+                toComplete = waiting;
+                waiting = null;
+            }
+            if (toComplete != null) {
+                toComplete.complete(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * RecordCursorPublisher.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorResult;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Publisher} of the elements of a {@link RecordCursor}.
+ *
+ * <p>
+ * The cursor is only advanced while the subscriber has outstanding demand. Results that the cursor has already
+ * completed are delivered in a loop on the current thread, so a subscriber that requests many elements gets them in a
+ * batch, with an asynchronous hop only when the cursor actually has to wait. Signals to the subscriber are serialized
+ * and asynchronous completions are delivered on the cursor's {@linkplain RecordCursor#getExecutor executor}.
+ * </p>
+ *
+ * <p>
+ * Since a cursor can only be iterated once, the publisher accepts a single subscriber. Once the stream stops, whether
+ * because the cursor had no more elements, the subscription was cancelled or the cursor failed, the cursor is closed
+ * and {@link #getContinuation()} completes with where to resume.
+ * </p>
+ *
+ * @param <T> the type of elements of the cursor
+ */
+@API(API.Status.EXPERIMENTAL)
+public class RecordCursorPublisher<T> implements Flow.Publisher<T> {
+    @Nonnull
+    private final RecordCursor<T> cursor;
+    @Nonnull
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    @Nonnull
+    private final CompletableFuture<RecordCursorContinuation> continuation = new CompletableFuture<>();
+
+    public RecordCursorPublisher(@Nonnull RecordCursor<T> cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public void subscribe(@Nonnull Flow.Subscriber<? super T> subscriber) {
+        if (subscribed.compareAndSet(false, true)) {
+            final CursorSubscription subscription = new CursorSubscription(subscriber);
+            subscriber.onSubscribe(subscription);
+        } else {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    // Nothing will be delivered.
+                }
+
+                @Override
+                public void cancel() {
+                    // Nothing to cancel.
+                }
+            });
+            subscriber.onError(new IllegalStateException("record cursor publisher only allows a single subscriber"));
+        }
+    }
+
+    /**
+     * Get the continuation from which to resume the cursor after the stream stops.
+     * <ul>
+     *     <li>If the cursor had no more elements, this is the continuation of its last result, which
+     *     {@linkplain RecordCursorContinuation#isEnd is the end} unless the cursor stopped because of a limit.</li>
+     *     <li>If the subscription was cancelled, this is the continuation after the last element delivered to the
+     *     subscriber, or {@code null} if no element was delivered, in which case the cursor should be restarted from
+     *     wherever it originally started.</li>
+     *     <li>If the cursor failed, this completes exceptionally.</li>
+     * </ul>
+     * @return a future that completes with the continuation once the stream stops
+     */
+    @Nonnull
+    public CompletableFuture<RecordCursorContinuation> getContinuation() {
+        return continuation;
+    }
+
+    private class CursorSubscription implements Flow.Subscription {
+        @Nonnull
+        private final Flow.Subscriber<? super T> subscriber;
+        @Nonnull
+        private final AtomicLong requested = new AtomicLong();
+        // Number of times that drain has been asked to run; only the caller that raises it from zero actually runs it.
+        @Nonnull
+        private final AtomicInteger drainRequests = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean invalidRequest;
+        // Set by the completion of an onNext that had to wait, before it calls drain.
+        @Nullable
+        private volatile RecordCursorResult<T> pendingResult;
+        @Nullable
+        private volatile Throwable pendingError;
+
+        // The following are only accessed from drain, which is never run concurrently.
+        private boolean inFlight;
+        private boolean done;
+        @Nullable
+        private RecordCursorContinuation lastContinuation;
+
+        CursorSubscription(@Nonnull Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = true;
+            } else {
+                requested.getAndUpdate(r -> r + n < 0 ? Long.MAX_VALUE : r + n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (drainRequests.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                drainLoop();
+                missed = drainRequests.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drainLoop() {
+            while (!done) {
+                if (inFlight) {
+                    final Throwable error = pendingError;
+                    final RecordCursorResult<T> result = pendingResult;
+                    if (error == null && result == null) {
+                        // Still waiting; the completion will drain again.
+                        return;
+                    }
+                    inFlight = false;
+                    pendingError = null;
+                    pendingResult = null;
+                    if (!cancelled) {
+                        if (error != null) {
+                            fail(error);
+                        } else {
+                            deliver(result);
+                        }
+                        continue;
+                    }
+                }
+                if (cancelled) {
+                    stop(lastContinuation, null);
+                    return;
+                }
+                if (invalidRequest) {
+                    // Rule 3.9 of the reactive streams specification.
+                    fail(new IllegalArgumentException("non-positive number of elements requested"));
+                    return;
+                }
+                if (requested.get() == 0) {
+                    return;
+                }
+                final CompletableFuture<RecordCursorResult<T>> future = cursor.onNext();
+                if (future.isDone()) {
+                    final RecordCursorResult<T> result;
+                    try {
+                        result = future.join();
+                    } catch (CompletionException ex) {
+                        fail(ex.getCause() == null ? ex : ex.getCause());
+                        return;
+                    } catch (RuntimeException ex) {
+                        fail(ex);
+                        return;
+                    }
+                    deliver(result);
+                } else {
+                    inFlight = true;
+                    future.whenCompleteAsync((result, error) -> {
+                        if (error != null) {
+                            pendingError = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        } else {
+                            pendingResult = result;
+                        }
+                        drain();
+                    }, cursor.getExecutor());
+                    return;
+                }
+            }
+        }
+
+        private void deliver(@Nonnull RecordCursorResult<T> result) {
+            if (!result.hasNext()) {
+                stop(result.getContinuation(), null);
+                subscriber.onComplete();
+                return;
+            }
+            requested.getAndUpdate(r -> r == Long.MAX_VALUE ? r : r - 1);
+            lastContinuation = result.getContinuation();
+            try {
+                subscriber.onNext(result.get());
+            } catch (RuntimeException ex) {
+                // Rule 2.13: the subscriber is broken, so just stop.
+                stop(null, ex);
+            }
+        }
+
+        private void fail(@Nonnull Throwable error) {
+            stop(null, error);
+            subscriber.onError(error);
+        }
+
+        private void stop(@Nullable RecordCursorContinuation resumeFrom, @Nullable Throwable error) {
+            done = true;
+            cursor.close();
+            if (error != null) {
+                continuation.completeExceptionally(error);
+            } else {
+                continuation.complete(resumeFrom);
+            }
+        }
+    }
+}
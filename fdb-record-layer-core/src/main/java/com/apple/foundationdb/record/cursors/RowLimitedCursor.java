@@ -27,6 +27,8 @@ import com.apple.foundationdb.record.RecordCursorVisitor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
@@ -71,6 +73,20 @@ public class RowLimitedCursor<T> implements RecordCursor<T> {
         }
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<List<RecordCursorResult<T>>> onNextBatch(int maxBatchSize) {
+        if ((nextResult != null && !nextResult.hasNext()) || limitReached()) {
+            return onNext().thenApply(Collections::singletonList);
+        }
+        // Never ask the inner cursor for more than the limit allows.
+        return inner.onNextBatch(Math.min(maxBatchSize, limit - soFar)).thenApply(results -> {
+            soFar += results.size();
+            nextResult = results.get(results.size() - 1);
+            return results;
+        });
+    }
+
     protected boolean limitReached() {
         return soFar >= limit;
     }
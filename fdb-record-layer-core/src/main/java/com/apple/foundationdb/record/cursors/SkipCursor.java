@@ -28,6 +28,9 @@ import com.apple.foundationdb.record.RecordCursorVisitor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
@@ -71,6 +74,26 @@ public class SkipCursor<T> implements RecordCursor<T> {
         }), getExecutor()).thenApply(vignore -> nextResult);
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<List<RecordCursorResult<T>>> onNextBatch(int maxBatchSize) {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(Collections.singletonList(nextResult));
+        }
+        final List<RecordCursorResult<T>> results = new ArrayList<>();
+        return AsyncUtil.whileTrue(() -> inner.onNextBatch((int)Math.min(Integer.MAX_VALUE, (long)maxBatchSize + skipRemaining)).thenApply(innerResults -> {
+            for (RecordCursorResult<T> innerResult : innerResults) {
+                nextResult = innerResult;
+                if (innerResult.hasNext() && skipRemaining > 0) {
+                    skipRemaining--;
+                } else {
+                    results.add(innerResult);
+                }
+            }
+            return results.isEmpty();
+        }), getExecutor()).thenApply(vignore -> results);
+    }
+
     @Override
     public void close() {
         inner.close();
@@ -0,0 +1,285 @@
+/*
+ * ColumnAccumulator.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors.aggregate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * The states of one {@link HashAggregateColumn} for all the groups of a hash aggregate table, held in primitive arrays
+ * indexed by group number.
+ *
+ * <p>
+ * Like {@link LongState} and {@link DoubleState}, this uses primitive math so that accumulating does not box. In
+ * addition, the states of all groups are stored together, so that there is no object per group and column. Every
+ * state keeps a count of the values accumulated, which is the result of {@code COUNT}, the divisor of {@code AVG},
+ * and how the other functions tell that there were no values. Two states of the same group can be combined, which is
+ * how partial states from spill files and continuations are merged.
+ * </p>
+ */
+final class ColumnAccumulator {
+    private static final int INITIAL_CAPACITY = 16;
+
+    @Nonnull
+    private final HashAggregateColumn.Operation operation;
+    private final boolean floatingPoint;
+    @Nonnull
+    private long[] counts;
+    @Nullable
+    private long[] longValues;
+    @Nullable
+    private double[] doubleValues;
+    private int size;
+
+    ColumnAccumulator(@Nonnull HashAggregateColumn.Operation operation, boolean floatingPoint) {
+        this.operation = operation;
+        this.floatingPoint = floatingPoint;
+        this.counts = new long[INITIAL_CAPACITY];
+        if (operation != HashAggregateColumn.Operation.COUNT) {
+            if (floatingPoint) {
+                doubleValues = new double[INITIAL_CAPACITY];
+            } else {
+                longValues = new long[INITIAL_CAPACITY];
+            }
+        }
+    }
+
+    /**
+     * Add the state of a new group, which will be numbered the number of groups already added.
+     */
+    void addGroup() {
+        if (size == counts.length) {
+            final int capacity = size * 2;
+            counts = Arrays.copyOf(counts, capacity);
+            if (longValues != null) {
+                longValues = Arrays.copyOf(longValues, capacity);
+            }
+            if (doubleValues != null) {
+                doubleValues = Arrays.copyOf(doubleValues, capacity);
+            }
+        }
+        counts[size] = 0;
+        if (longValues != null) {
+            longValues[size] = operation == HashAggregateColumn.Operation.MIN ? Long.MAX_VALUE
+                               : operation == HashAggregateColumn.Operation.MAX ? Long.MIN_VALUE : 0L;
+        }
+        if (doubleValues != null) {
+            doubleValues[size] = operation == HashAggregateColumn.Operation.MIN ? Double.POSITIVE_INFINITY
+                                 : operation == HashAggregateColumn.Operation.MAX ? Double.NEGATIVE_INFINITY : 0.0;
+        }
+        size++;
+    }
+
+    /**
+     * Count every row of a slice of a vector.
+     * @param groups the group of each row
+     * @param from the first row
+     * @param to the row after the last
+     */
+    void countAll(@Nonnull int[] groups, int from, int to) {
+        for (int i = from; i < to; i++) {
+            counts[groups[i]]++;
+        }
+    }
+
+    /**
+     * Accumulate a slice of a vector of {@code long} values.
+     * @param groups the group of each row
+     * @param values the value of each row
+     * @param present whether each row has a value
+     * @param from the first row
+     * @param to the row after the last
+     */
+    void accumulate(@Nonnull int[] groups, @Nonnull long[] values, @Nonnull boolean[] present, int from, int to) {
+        switch (operation) {
+            case COUNT:
+                for (int i = from; i < to; i++) {
+                    if (present[i]) {
+                        counts[groups[i]]++;
+                    }
+                }
+                break;
+            case SUM:
+            case AVG:
+                for (int i = from; i < to; i++) {
+                    if (present[i]) {
+                        final int group = groups[i];
+                        longValues[group] = Math.addExact(longValues[group], values[i]);
+                        counts[group]++;
+                    }
+                }
+                break;
+            case MIN:
+                for (int i = from; i < to; i++) {
+                    if (present[i]) {
+                        final int group = groups[i];
+                        longValues[group] = Math.min(longValues[group], values[i]);
+                        counts[group]++;
+                    }
+                }
+                break;
+            case MAX:
+                for (int i = from; i < to; i++) {
+                    if (present[i]) {
+                        final int group = groups[i];
+                        longValues[group] = Math.max(longValues[group], values[i]);
+                        counts[group]++;
+                    }
+                }
+                break;
+            default:
+                throw new IllegalStateException("unknown operation " + operation);
+        }
+    }
+
+    /**
+     * Accumulate a slice of a vector of {@code double} values.
+     * @param groups the group of each row
+     * @param values the value of each row
+     * @param present whether each row has a value
+     * @param from the first row
+     * @param to the row after the last
+     */
+    void accumulate(@Nonnull int[] groups, @Nonnull double[] values, @Nonnull boolean[] present, int from, int to) {
+        switch (operation) {
+            case COUNT:
+                for (int i = from; i < to; i++) {
+                    if (present[i]) {
+                        counts[groups[i]]++;
+                    }
+                }
+                break;
+            case SUM:
+            case AVG:
+                for (int i = from; i < to; i++) {
+                    if (present[i]) {
+                        final int group = groups[i];
+                        doubleValues[group] += values[i];
+                        counts[group]++;
+                    }
+                }
+                break;
+            case MIN:
+                for (int i = from; i < to; i++) {
+                    if (present[i]) {
+                        final int group = groups[i];
+                        doubleValues[group] = Math.min(doubleValues[group], values[i]);
+                        counts[group]++;
+                    }
+                }
+                break;
+            case MAX:
+                for (int i = from; i < to; i++) {
+                    if (present[i]) {
+                        final int group = groups[i];
+                        doubleValues[group] = Math.max(doubleValues[group], values[i]);
+                        counts[group]++;
+                    }
+                }
+                break;
+            default:
+                throw new IllegalStateException("unknown operation " + operation);
+        }
+    }
+
+    /**
+     * Get the partial state of a group's value, for combining with another state of it later.
+     * @param group the group number
+     * @return the accumulated value or {@code null} if there is none
+     */
+    @Nullable
+    Object getPartialValue(int group) {
+        if (counts[group] == 0) {
+            return null;
+        } else if (longValues != null) {
+            return longValues[group];
+        } else if (doubleValues != null) {
+            return doubleValues[group];
+        } else {
+            return null;
+        }
+    }
+
+    long getCount(int group) {
+        return counts[group];
+    }
+
+    /**
+     * Combine a partial state into that of a group.
+     * @param group the group number
+     * @param partialValue a value from {@link #getPartialValue}
+     * @param count a count from {@link #getCount}
+     */
+    void merge(int group, @Nullable Object partialValue, long count) {
+        counts[group] += count;
+        if (partialValue == null) {
+            return;
+        }
+        if (longValues != null) {
+            final long value = ((Number)partialValue).longValue();
+            switch (operation) {
+                case MIN:
+                    longValues[group] = Math.min(longValues[group], value);
+                    break;
+                case MAX:
+                    longValues[group] = Math.max(longValues[group], value);
+                    break;
+                default:
+                    longValues[group] = Math.addExact(longValues[group], value);
+                    break;
+            }
+        } else if (doubleValues != null) {
+            final double value = ((Number)partialValue).doubleValue();
+            switch (operation) {
+                case MIN:
+                    doubleValues[group] = Math.min(doubleValues[group], value);
+                    break;
+                case MAX:
+                    doubleValues[group] = Math.max(doubleValues[group], value);
+                    break;
+                default:
+                    doubleValues[group] += value;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Get the final result for a group.
+     * @param group the group number
+     * @return the aggregate value, which is {@code null} if no values were accumulated, except for {@code COUNT}
+     */
+    @Nullable
+    Object getResult(int group) {
+        final long count = counts[group];
+        if (operation == HashAggregateColumn.Operation.COUNT) {
+            return count;
+        }
+        if (count == 0) {
+            return null;
+        }
+        if (operation == HashAggregateColumn.Operation.AVG) {
+            return (floatingPoint ? doubleValues[group] : (double)longValues[group]) / count;
+        }
+        return floatingPoint ? (Object)doubleValues[group] : (Object)longValues[group];
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * GroupTable.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors.aggregate;
+
+import com.apple.foundationdb.tuple.Tuple;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table from grouping keys to group numbers, which are assigned consecutively from zero as
+ * keys are added. The numbers index the states in {@link ColumnAccumulator}s.
+ *
+ * <p>
+ * Slots are probed linearly in a power-of-two sized array, which is doubled when it is half full. There are
+ * specializations for {@code long} keys, which are stored without boxing, and for {@link Tuple} keys.
+ * </p>
+ */
+abstract class GroupTable {
+    private static final int INITIAL_SLOTS = 32;
+
+    // Group number plus one in each slot, so that zero is empty.
+    @Nonnull
+    protected int[] slotGroups;
+    protected int mask;
+    protected int size;
+
+    protected GroupTable() {
+        slotGroups = new int[INITIAL_SLOTS];
+        mask = INITIAL_SLOTS - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the key of a group, as stored in a {@link Tuple}.
+     * @param group the group number
+     * @return a {@code Long} or {@code Tuple} key
+     */
+    @Nonnull
+    abstract Object getKey(int group);
+
+    /**
+     * Find or add the group for a key as returned by {@link #getKey}.
+     * @param key the key of a group
+     * @return the group number
+     */
+    abstract int groupForKey(@Nonnull Object key);
+
+    protected abstract void rehash(int slotCount);
+
+    protected void growIfNeeded() {
+        if (size * 2 >= slotGroups.length) {
+            rehash(slotGroups.length * 2);
+        }
+    }
+
+    /**
+     * Spread the bits of a hash code, so that keys that differ only in their high bits do not all probe the same slots.
+     * @param hash a hash code
+     * @return a well-mixed hash code
+     */
+    static int mix(long hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int)(h ^ (h >>> 29));
+    }
+
+    /**
+     * A table of {@code long} keys.
+     */
+    static final class LongKeys extends GroupTable {
+        @Nonnull
+        private long[] slotKeys;
+        @Nonnull
+        private long[] groupKeys;
+
+        LongKeys() {
+            slotKeys = new long[slotGroups.length];
+            groupKeys = new long[slotGroups.length / 2];
+        }
+
+        /**
+         * Find or add the group for a key.
+         * @param key the key of a group
+         * @return the group number
+         */
+        int groupFor(long key) {
+            int slot = mix(key) & mask;
+            while (true) {
+                final int group = slotGroups[slot];
+                if (group == 0) {
+                    break;
+                }
+                if (slotKeys[slot] == key) {
+                    return group - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == groupKeys.length) {
+                groupKeys = Arrays.copyOf(groupKeys, size * 2);
+            }
+            groupKeys[size] = key;
+            slotKeys[slot] = key;
+            slotGroups[slot] = ++size;
+            growIfNeeded();
+            return size - 1;
+        }
+
+        @Nonnull
+        @Override
+        Object getKey(int group) {
+            return groupKeys[group];
+        }
+
+        @Override
+        int groupForKey(@Nonnull Object key) {
+            return groupFor(((Number)key).longValue());
+        }
+
+        @Override
+        protected void rehash(int slotCount) {
+            slotGroups = new int[slotCount];
+            slotKeys = new long[slotCount];
+            mask = slotCount - 1;
+            for (int group = 0; group < size; group++) {
+                final long key = groupKeys[group];
+                int slot = mix(key) & mask;
+                while (slotGroups[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slotKeys[slot] = key;
+                slotGroups[slot] = group + 1;
+            }
+        }
+    }
+
+    /**
+     * A table of {@link Tuple} keys.
+     */
+    static final class TupleKeys extends GroupTable {
+        @Nonnull
+        private Tuple[] slotKeys;
+        @Nonnull
+        private int[] slotHashes;
+        @Nonnull
+        private Tuple[] groupKeys;
+
+        TupleKeys() {
+            slotKeys = new Tuple[slotGroups.length];
+            slotHashes = new int[slotGroups.length];
+            groupKeys = new Tuple[slotGroups.length / 2];
+        }
+
+        /**
+         * Find or add the group for a key.
+         * @param key the key of a group
+         * @return the group number
+         */
+        int groupFor(@Nonnull Tuple key) {
+            final int hash = mix(key.hashCode());
+            int slot = hash & mask;
+            while (true) {
+                final int group = slotGroups[slot];
+                if (group == 0) {
+                    break;
+                }
+                if (slotHashes[slot] == hash && slotKeys[slot].equals(key)) {
+                    return group - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == groupKeys.length) {
+                groupKeys = Arrays.copyOf(groupKeys, size * 2);
+            }
+            groupKeys[size] = key;
+            slotKeys[slot] = key;
+            slotHashes[slot] = hash;
+            slotGroups[slot] = ++size;
+            growIfNeeded();
+            return size - 1;
+        }
+
+        @Nonnull
+        @Override
+        Object getKey(int group) {
+            return groupKeys[group];
+        }
+
+        @Override
+        int groupForKey(@Nonnull Object key) {
+            return groupFor((Tuple)key);
+        }
+
+        @Override
+        protected void rehash(int slotCount) {
+            final int[] oldHashes = slotHashes;
+            final int[] oldGroups = slotGroups;
+            slotGroups = new int[slotCount];
+            slotKeys = new Tuple[slotCount];
+            slotHashes = new int[slotCount];
+            mask = slotCount - 1;
+            for (int oldSlot = 0; oldSlot < oldGroups.length; oldSlot++) {
+                final int group = oldGroups[oldSlot];
+                if (group == 0) {
+                    continue;
+                }
+                final int hash = oldHashes[oldSlot];
+                int slot = hash & mask;
+                while (slotGroups[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slotKeys[slot] = groupKeys[group - 1];
+                slotHashes[slot] = hash;
+                slotGroups[slot] = group;
+            }
+        }
+    }
+}
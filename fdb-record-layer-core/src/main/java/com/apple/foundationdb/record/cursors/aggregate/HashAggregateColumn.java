@@ -0,0 +1,242 @@
+/*
+ * HashAggregateColumn.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors.aggregate;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * One aggregate computed by a {@link HashAggregateCursor}.
+ *
+ * <p>
+ * A column reads a {@code long} or {@code double} value from each input element into a primitive vector, so that
+ * a batch of elements is accumulated one column at a time without boxing. As in SQL, elements without a value
+ * are ignored, except by {@link #count()}, which counts every element.
+ * </p>
+ *
+ * @param <T> the type of input elements
+ */
+@API(API.Status.EXPERIMENTAL)
+public class HashAggregateColumn<T> {
+    /**
+     * The aggregate function of a column.
+     */
+    public enum Operation {
+        /** The sum of the values, of the column's type. */
+        SUM,
+        /** The number of values, as a {@code long}. */
+        COUNT,
+        /** The least value, of the column's type. */
+        MIN,
+        /** The greatest value, of the column's type. */
+        MAX,
+        /** The mean of the values, as a {@code double}. */
+        AVG
+    }
+
+    /**
+     * Read a {@code long} value from an element.
+     * @param <T> the type of input elements
+     */
+    @FunctionalInterface
+    public interface LongReader<T> {
+        /**
+         * Store the value of an element in a vector.
+         * @param element the input element
+         * @param values the vector of values for the batch
+         * @param position the element's position in the batch
+         * @return {@code true} if the element has a value
+         */
+        boolean read(@Nonnull T element, @Nonnull long[] values, int position);
+    }
+
+    /**
+     * Read a {@code double} value from an element.
+     * @param <T> the type of input elements
+     */
+    @FunctionalInterface
+    public interface DoubleReader<T> {
+        /**
+         * Store the value of an element in a vector.
+         * @param element the input element
+         * @param values the vector of values for the batch
+         * @param position the element's position in the batch
+         * @return {@code true} if the element has a value
+         */
+        boolean read(@Nonnull T element, @Nonnull double[] values, int position);
+    }
+
+    @Nonnull
+    private final Operation operation;
+    @Nullable
+    private final LongReader<T> longReader;
+    @Nullable
+    private final DoubleReader<T> doubleReader;
+
+    private HashAggregateColumn(@Nonnull Operation operation, @Nullable LongReader<T> longReader, @Nullable DoubleReader<T> doubleReader) {
+        this.operation = operation;
+        this.longReader = longReader;
+        this.doubleReader = doubleReader;
+    }
+
+    @Nonnull
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Get whether the values of this column are {@code double}s rather than {@code long}s.
+     * @return {@code true} if this is a floating point column
+     */
+    public boolean isFloatingPoint() {
+        return doubleReader != null;
+    }
+
+    /**
+     * Get whether this column counts every element, whatever its values.
+     * @return {@code true} if this column is {@code COUNT(*)}
+     */
+    public boolean isCountAll() {
+        return longReader == null && doubleReader == null;
+    }
+
+    @Nullable
+    LongReader<T> getLongReader() {
+        return longReader;
+    }
+
+    @Nullable
+    DoubleReader<T> getDoubleReader() {
+        return doubleReader;
+    }
+
+    /**
+     * Create a column counting all input elements.
+     * @param <T> the type of input elements
+     * @return a new column
+     */
+    @Nonnull
+    public static <T> HashAggregateColumn<T> count() {
+        return new HashAggregateColumn<>(Operation.COUNT, null, null);
+    }
+
+    /**
+     * Create a column aggregating {@code long} values read directly into a vector.
+     * @param operation the aggregate function
+     * @param reader a reader of the value of an element
+     * @param <T> the type of input elements
+     * @return a new column
+     */
+    @Nonnull
+    public static <T> HashAggregateColumn<T> ofLong(@Nonnull Operation operation, @Nonnull LongReader<T> reader) {
+        return new HashAggregateColumn<>(operation, reader, null);
+    }
+
+    /**
+     * Create a column aggregating a {@code long} value that every element has.
+     * @param operation the aggregate function
+     * @param function a function giving the value of an element
+     * @param <T> the type of input elements
+     * @return a new column
+     */
+    @Nonnull
+    public static <T> HashAggregateColumn<T> ofLong(@Nonnull Operation operation, @Nonnull ToLongFunction<? super T> function) {
+        return ofLong(operation, (T element, long[] values, int position) -> {
+            values[position] = function.applyAsLong(element);
+            return true;
+        });
+    }
+
+    /**
+     * Create a column aggregating an integral value that some elements may not have.
+     * @param operation the aggregate function
+     * @param function a function giving the value of an element or {@code null} if it does not have one
+     * @param <T> the type of input elements
+     * @return a new column
+     */
+    @Nonnull
+    public static <T> HashAggregateColumn<T> ofNullableLong(@Nonnull Operation operation, @Nonnull Function<? super T, ? extends Number> function) {
+        return ofLong(operation, (T element, long[] values, int position) -> {
+            final Number value = function.apply(element);
+            if (value == null) {
+                return false;
+            }
+            values[position] = value.longValue();
+            return true;
+        });
+    }
+
+    /**
+     * Create a column aggregating {@code double} values read directly into a vector.
+     * @param operation the aggregate function
+     * @param reader a reader of the value of an element
+     * @param <T> the type of input elements
+     * @return a new column
+     */
+    @Nonnull
+    public static <T> HashAggregateColumn<T> ofDouble(@Nonnull Operation operation, @Nonnull DoubleReader<T> reader) {
+        return new HashAggregateColumn<>(operation, null, reader);
+    }
+
+    /**
+     * Create a column aggregating a {@code double} value that every element has.
+     * @param operation the aggregate function
+     * @param function a function giving the value of an element
+     * @param <T> the type of input elements
+     * @return a new column
+     */
+    @Nonnull
+    public static <T> HashAggregateColumn<T> ofDouble(@Nonnull Operation operation, @Nonnull ToDoubleFunction<? super T> function) {
+        return ofDouble(operation, (T element, double[] values, int position) -> {
+            values[position] = function.applyAsDouble(element);
+            return true;
+        });
+    }
+
+    /**
+     * Create a column aggregating a floating point value that some elements may not have.
+     * @param operation the aggregate function
+     * @param function a function giving the value of an element or {@code null} if it does not have one
+     * @param <T> the type of input elements
+     * @return a new column
+     */
+    @Nonnull
+    public static <T> HashAggregateColumn<T> ofNullableDouble(@Nonnull Operation operation, @Nonnull Function<? super T, ? extends Number> function) {
+        return ofDouble(operation, (T element, double[] values, int position) -> {
+            final Number value = function.apply(element);
+            if (value == null) {
+                return false;
+            }
+            values[position] = value.doubleValue();
+            return true;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return operation + (isCountAll() ? "(*)" : isFloatingPoint() ? "(double)" : "(long)");
+    }
+}
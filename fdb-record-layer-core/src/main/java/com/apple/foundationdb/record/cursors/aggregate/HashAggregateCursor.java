@@ -0,0 +1,923 @@
+/*
+ * HashAggregateCursor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors.aggregate;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.ByteArrayContinuation;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorStartContinuation;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cursor that groups the elements of an inner cursor that are in no particular order and returns one aggregated
+ * result per group.
+ *
+ * <p>
+ * Unlike {@link AggregateCursor}, which needs its input ordered by the grouping key, this collects every group in a
+ * hash table before returning any. The table is open-addressing, with a specialization for a single {@code long}
+ * grouping key, and the states of each {@link HashAggregateColumn} are held in primitive arrays indexed by group, as
+ * in {@link LongState} and {@link DoubleState}, but without an object per group. The inner cursor is read
+ * with {@link RecordCursor#onNextBatch(int)} and each batch is accumulated a column at a time from primitive vectors.
+ * </p>
+ *
+ * <p>
+ * The groups are divided into a number of partitions by the hash of their key. When more than a given number of groups
+ * are in memory, the partition with the most groups has their partial states written to a temporary file and is
+ * cleared. At the end of the input, the groups still in memory are returned, and then each spilled partition is read
+ * back, merging the partial states of each group, and returned in turn. So memory is bounded by the limit plus one
+ * partition's distinct groups.
+ * </p>
+ *
+ * <p>
+ * Each result is a {@link Tuple} of the grouping key's elements followed by the result of each column: a {@code long}
+ * for {@code COUNT}, a {@code double} for {@code AVG}, and a value of the column's type for the others, which is
+ * {@code null} if no element in the group had a value. Without a grouping key, all elements are in a single group,
+ * which is returned even when there are none.
+ * </p>
+ *
+ * <p>
+ * If the inner cursor stops before it is exhausted, the partial states of the groups in memory are included in the
+ * continuation, as with a {@link com.apple.foundationdb.record.sorting.MemorySortCursor}, and the names of any spill
+ * files, as with a {@link com.apple.foundationdb.record.sorting.FileSortCursor}, and aggregation carries on
+ * when it is resumed. Spill files are deleted when the cursor is exhausted.
+ * </p>
+ *
+ * @param <T> the type of input elements
+ */
+@API(API.Status.EXPERIMENTAL)
+public class HashAggregateCursor<T> implements RecordCursor<Tuple> {
+    /** The default number of groups kept in memory before spilling partitions to files. */
+    public static final int DEFAULT_MAX_GROUPS_IN_MEMORY = 100_000;
+    /** The default number of partitions into which the groups are divided. */
+    public static final int DEFAULT_PARTITION_COUNT = 16;
+
+    private static final String SPILL_FILE_PREFIX = "fdb-hash-aggregate";
+    private static final Tuple GLOBAL_KEY = Tuple.from();
+
+    @Nonnull
+    private final RecordCursor<T> inner;
+    @Nullable
+    private final ToLongFunction<? super T> longKeyFunction;
+    @Nullable
+    private final Function<? super T, Tuple> keyFunction;
+    @Nonnull
+    private final List<HashAggregateColumn<T>> columns;
+    private final int maxGroupsInMemory;
+    private final int batchSize;
+    @Nullable
+    private final FDBStoreTimer timer;
+    @Nonnull
+    private final List<Partition> partitions;
+    @Nonnull
+    private final List<Partition> spilled;
+    private int groupsInMemory;
+    private boolean inputExhausted;
+
+    // Output position: a partition and group within it while returning the groups in memory,
+    // then a spilled partition and group within it once those are done.
+    private int outputPartition;
+    private int spilledPosition = -1;
+    private int groupPosition;
+    @Nullable
+    private Partition loaded;
+
+    // Vectors for a batch, ordered by partition.
+    @Nonnull
+    private Object[] elementVector = new Object[0];
+    @Nonnull
+    private long[] longKeyVector = new long[0];
+    @Nonnull
+    private Tuple[] keyVector = new Tuple[0];
+    @Nonnull
+    private int[] partitionVector = new int[0];
+    @Nonnull
+    private int[] groupVector = new int[0];
+    @Nonnull
+    private long[] longVector = new long[0];
+    @Nonnull
+    private double[] doubleVector = new double[0];
+    @Nonnull
+    private boolean[] presentVector = new boolean[0];
+    @Nonnull
+    private final int[] partitionStarts;
+
+    @Nullable
+    private RecordCursorResult<Tuple> nextResult;
+    private boolean closed;
+
+    @SuppressWarnings("squid:S00107") // There are just that many parameters to the aggregation.
+    private HashAggregateCursor(@Nonnull Function<byte[], RecordCursor<T>> inputFunction,
+                                @Nullable ToLongFunction<? super T> longKeyFunction,
+                                @Nullable Function<? super T, Tuple> keyFunction,
+                                @Nonnull List<HashAggregateColumn<T>> columns,
+                                int maxGroupsInMemory, int partitionCount, int batchSize,
+                                @Nullable FDBStoreTimer timer,
+                                @Nullable byte[] continuation) {
+        this.longKeyFunction = longKeyFunction;
+        this.keyFunction = keyFunction;
+        this.columns = columns;
+        this.maxGroupsInMemory = maxGroupsInMemory;
+        this.batchSize = batchSize;
+        this.timer = timer;
+        this.partitions = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(new Partition(i));
+        }
+        this.partitionStarts = new int[partitionCount + 1];
+        this.spilled = new ArrayList<>();
+        RecordCursorContinuation inputContinuation = RecordCursorStartContinuation.START;
+        if (continuation != null) {
+            final RecordCursorProto.HashAggregateContinuation parsed;
+            try {
+                parsed = RecordCursorProto.HashAggregateContinuation.parseFrom(continuation);
+            } catch (InvalidProtocolBufferException ex) {
+                throw new RecordCoreException("error parsing continuation", ex)
+                        .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+            }
+            if (parsed.hasInputContinuation()) {
+                inputContinuation = ByteArrayContinuation.fromNullable(parsed.getInputContinuation().toByteArray());
+            }
+            inputExhausted = parsed.getInputExhausted();
+            for (RecordCursorProto.HashAggregateContinuation.SpilledPartition spilledPartition : parsed.getSpilledPartitionList()) {
+                if (spilledPartition.getPartition() < 0 || spilledPartition.getPartition() >= partitions.size()) {
+                    throw new RecordCoreException("spilled partition in continuation out of range")
+                            .addLogInfo("partition", spilledPartition.getPartition());
+                }
+                final Partition partition = partitions.get(spilledPartition.getPartition());
+                partition.file = new File(spilledPartition.getFile());
+                partition.fileLength = spilledPartition.getFileLength();
+                spilled.add(partition);
+            }
+            for (ByteString group : parsed.getGroupList()) {
+                final Tuple state = Tuple.fromBytes(group.toByteArray());
+                final Partition partition = partitions.get(partitionFor(state.get(0)));
+                partition.merge(state);
+            }
+            if (parsed.hasSpilledPosition()) {
+                spilledPosition = parsed.getSpilledPosition();
+                groupPosition = parsed.getGroupPosition();
+            }
+        }
+        this.inner = inputExhausted ? RecordCursor.empty() : inputFunction.apply(inputContinuation.toBytes());
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorResult<Tuple>> onNext() {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        if (!inputExhausted) {
+            return AsyncUtil.whileTrue(() -> inner.onNextBatch(batchSize).thenApply(this::aggregateBatch), getExecutor())
+                    .thenApply(vignore -> inputExhausted ? nextOutput() : nextResult);
+        }
+        return CompletableFuture.completedFuture(nextOutput());
+    }
+
+    // Accumulate a batch from the inner cursor and return whether there is more input to read.
+    private boolean aggregateBatch(@Nonnull List<RecordCursorResult<T>> results) {
+        final RecordCursorResult<T> last = results.get(results.size() - 1);
+        final int rows = last.hasNext() ? results.size() : results.size() - 1;
+        if (rows > 0) {
+            aggregate(results, rows);
+            while (groupsInMemory > maxGroupsInMemory) {
+                if (!spillLargestPartition()) {
+                    break;
+                }
+            }
+        }
+        if (last.hasNext()) {
+            return true;
+        }
+        if (last.getNoNextReason().isSourceExhausted()) {
+            finishInput();
+        } else {
+            // Stopped by a limit: save everything so far in the continuation.
+            for (Partition partition : spilled) {
+                partition.closeWriter();
+            }
+            nextResult = RecordCursorResult.withoutNextValue(new HashAggregateContinuation(this, last.getContinuation()),
+                    last.getNoNextReason());
+        }
+        return false;
+    }
+
+    private void aggregate(@Nonnull List<RecordCursorResult<T>> results, int rows) {
+        increment(FDBStoreTimer.Counts.HASH_AGGREGATE_INPUT_RECORDS, rows);
+        if (elementVector.length < rows) {
+            elementVector = new Object[rows];
+            partitionVector = new int[rows];
+            groupVector = new int[rows];
+            presentVector = new boolean[rows];
+            if (longKeyFunction != null) {
+                longKeyVector = new long[rows];
+            } else {
+                keyVector = new Tuple[rows];
+            }
+        }
+        // Counting sort of the batch by partition, so that each partition's rows are a contiguous slice.
+        final int[] counts = new int[partitions.size()];
+        if (longKeyFunction != null) {
+            for (int i = 0; i < rows; i++) {
+                final long key = longKeyFunction.applyAsLong(results.get(i).get());
+                longKeyVector[i] = key;
+                partitionVector[i] = partitionFor(key);
+                counts[partitionVector[i]]++;
+            }
+        } else {
+            for (int i = 0; i < rows; i++) {
+                final Tuple key = keyFunction == null ? GLOBAL_KEY : keyFunction.apply(results.get(i).get());
+                keyVector[i] = key;
+                partitionVector[i] = partitionFor(key);
+                counts[partitionVector[i]]++;
+            }
+        }
+        partitionStarts[0] = 0;
+        for (int p = 0; p < partitions.size(); p++) {
+            partitionStarts[p + 1] = partitionStarts[p] + counts[p];
+            counts[p] = partitionStarts[p];
+        }
+        final long[] sortedLongKeys = longKeyFunction != null ? new long[rows] : null;
+        final Tuple[] sortedKeys = longKeyFunction == null ? new Tuple[rows] : null;
+        for (int i = 0; i < rows; i++) {
+            final int position = counts[partitionVector[i]]++;
+            elementVector[position] = results.get(i).get();
+            if (sortedLongKeys != null) {
+                sortedLongKeys[position] = longKeyVector[i];
+            } else {
+                sortedKeys[position] = keyVector[i];
+            }
+        }
+        for (int p = 0; p < partitions.size(); p++) {
+            final Partition partition = partitions.get(p);
+            for (int i = partitionStarts[p]; i < partitionStarts[p + 1]; i++) {
+                groupVector[i] = sortedLongKeys != null ? partition.groupFor(sortedLongKeys[i]) : partition.groupFor(sortedKeys[i]);
+            }
+        }
+        for (int c = 0; c < columns.size(); c++) {
+            accumulateColumn(c, rows);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void accumulateColumn(int column, int rows) {
+        final HashAggregateColumn<T> aggregateColumn = columns.get(column);
+        final HashAggregateColumn.LongReader<T> longReader = aggregateColumn.getLongReader();
+        final HashAggregateColumn.DoubleReader<T> doubleReader = aggregateColumn.getDoubleReader();
+        if (longReader != null) {
+            if (longVector.length < rows) {
+                longVector = new long[rows];
+            }
+            for (int i = 0; i < rows; i++) {
+                presentVector[i] = longReader.read((T)elementVector[i], longVector, i);
+            }
+        } else if (doubleReader != null) {
+            if (doubleVector.length < rows) {
+                doubleVector = new double[rows];
+            }
+            for (int i = 0; i < rows; i++) {
+                presentVector[i] = doubleReader.read((T)elementVector[i], doubleVector, i);
+            }
+        }
+        for (int p = 0; p < partitions.size(); p++) {
+            final int from = partitionStarts[p];
+            final int to = partitionStarts[p + 1];
+            if (from == to) {
+                continue;
+            }
+            final ColumnAccumulator accumulator = partitions.get(p).accumulators[column];
+            if (longReader != null) {
+                accumulator.accumulate(groupVector, longVector, presentVector, from, to);
+            } else if (doubleReader != null) {
+                accumulator.accumulate(groupVector, doubleVector, presentVector, from, to);
+            } else {
+                accumulator.countAll(groupVector, from, to);
+            }
+        }
+    }
+
+    private int partitionFor(long key) {
+        return partitionForHash(GroupTable.mix(key));
+    }
+
+    private int partitionFor(@Nonnull Tuple key) {
+        return partitionForHash(GroupTable.mix(key.hashCode()));
+    }
+
+    private int partitionFor(@Nonnull Object key) {
+        return key instanceof Tuple ? partitionFor((Tuple)key) : partitionFor(((Number)key).longValue());
+    }
+
+    // Use the high bits, since the tables use the low bits to choose a slot. Keys' hashes, including those of
+    // tuples, which are based on their packed form, are stable, so that spilled partitions can be resumed.
+    private int partitionForHash(int hash) {
+        return (int)(((hash & 0xFFFFFFFFL) * partitions.size()) >>> 32);
+    }
+
+    private boolean spillLargestPartition() {
+        Partition largest = null;
+        for (Partition partition : partitions) {
+            if (partition.table.size() > 0 && (largest == null || partition.table.size() > largest.table.size())) {
+                largest = partition;
+            }
+        }
+        if (largest == null) {
+            return false;
+        }
+        largest.spill();
+        return true;
+    }
+
+    private void finishInput() {
+        inputExhausted = true;
+        if (keyFunction == null && longKeyFunction == null && groupsInMemory == 0 && spilled.isEmpty()) {
+            // The single group of an aggregate without a key is returned even for no input.
+            partitions.get(partitionFor(GLOBAL_KEY)).groupFor(GLOBAL_KEY);
+        }
+        // Spilled partitions are returned from their files, so add what has been accumulated since.
+        for (Partition partition : spilled) {
+            if (partition.table.size() > 0) {
+                partition.spill();
+            }
+            partition.closeWriter();
+        }
+    }
+
+    @Nonnull
+    private RecordCursorResult<Tuple> nextOutput() {
+        if (spilledPosition < 0) {
+            while (outputPartition < partitions.size()) {
+                final Partition partition = partitions.get(outputPartition);
+                if (partition.file == null && groupPosition < partition.table.size()) {
+                    final Tuple result = partition.result(groupPosition++);
+                    nextResult = RecordCursorResult.withNextValue(result, new HashAggregateContinuation(this, null));
+                    return nextResult;
+                }
+                outputPartition++;
+                groupPosition = 0;
+            }
+            spilledPosition = 0;
+            groupPosition = 0;
+        }
+        while (spilledPosition < spilled.size()) {
+            if (loaded == null) {
+                loaded = spilled.get(spilledPosition).load();
+            }
+            if (groupPosition < loaded.table.size()) {
+                final Tuple result = loaded.result(groupPosition++);
+                nextResult = RecordCursorResult.withNextValue(result, new HashAggregateContinuation(this, null));
+                return nextResult;
+            }
+            loaded = null;
+            spilledPosition++;
+            groupPosition = 0;
+        }
+        deleteFiles();
+        nextResult = RecordCursorResult.exhausted();
+        return nextResult;
+    }
+
+    private void deleteFiles() {
+        for (Partition partition : spilled) {
+            try {
+                Files.deleteIfExists(partition.file.toPath());
+            } catch (IOException ex) {
+                throw new RecordCoreException("error deleting hash aggregate spill file", ex)
+                        .addLogInfo("file", partition.file.getPath());
+            }
+        }
+    }
+
+    private void increment(@Nonnull FDBStoreTimer.Count count, int amount) {
+        if (timer != null) {
+            timer.increment(count, amount);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        inner.close();
+        // Flush what has been written, since the continuations returned so far count it.
+        for (Partition partition : spilled) {
+            partition.closeWriter();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Nonnull
+    @Override
+    public Executor getExecutor() {
+        return inner.getExecutor();
+    }
+
+    @Override
+    public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+        if (visitor.visitEnter(this)) {
+            inner.accept(visitor);
+        }
+        return visitor.visitLeave(this);
+    }
+
+    /**
+     * Create a builder for a hash aggregate cursor.
+     * @param inputFunction a function to produce the inner cursor from a continuation
+     * @param <T> the type of input elements
+     * @return a new builder
+     */
+    @Nonnull
+    public static <T> Builder<T> newBuilder(@Nonnull Function<byte[], RecordCursor<T>> inputFunction) {
+        return new Builder<>(inputFunction);
+    }
+
+    /**
+     * A builder for {@link HashAggregateCursor}.
+     * @param <T> the type of input elements
+     */
+    public static class Builder<T> {
+        @Nonnull
+        private final Function<byte[], RecordCursor<T>> inputFunction;
+        @Nullable
+        private ToLongFunction<? super T> longKeyFunction;
+        @Nullable
+        private Function<? super T, Tuple> keyFunction;
+        @Nonnull
+        private final List<HashAggregateColumn<T>> columns = new ArrayList<>();
+        private int maxGroupsInMemory = DEFAULT_MAX_GROUPS_IN_MEMORY;
+        private int partitionCount = DEFAULT_PARTITION_COUNT;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        @Nullable
+        private FDBStoreTimer timer;
+
+        private Builder(@Nonnull Function<byte[], RecordCursor<T>> inputFunction) {
+            this.inputFunction = inputFunction;
+        }
+
+        /**
+         * Group by a key of one or more values.
+         * @param keyFunction a function giving the grouping key of an element
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> setGroupKey(@Nonnull Function<? super T, Tuple> keyFunction) {
+            this.keyFunction = keyFunction;
+            this.longKeyFunction = null;
+            return this;
+        }
+
+        /**
+         * Group by a single {@code long} key, which is stored in the hash table without boxing.
+         * @param longKeyFunction a function giving the grouping key of an element
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> setLongGroupKey(@Nonnull ToLongFunction<? super T> longKeyFunction) {
+            this.longKeyFunction = longKeyFunction;
+            this.keyFunction = null;
+            return this;
+        }
+
+        /**
+         * Add an aggregate, whose result follows those of the columns added before it.
+         * @param column the aggregate column
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> addColumn(@Nonnull HashAggregateColumn<T> column) {
+            columns.add(column);
+            return this;
+        }
+
+        /**
+         * Set the number of groups to keep in memory before spilling partitions to files.
+         * @param maxGroupsInMemory the maximum number of groups in memory
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> setMaxGroupsInMemory(int maxGroupsInMemory) {
+            if (maxGroupsInMemory < 0) {
+                throw new RecordCoreArgumentException("hash aggregate memory limit must not be negative");
+            }
+            this.maxGroupsInMemory = maxGroupsInMemory;
+            return this;
+        }
+
+        /**
+         * Set the number of partitions into which the groups are divided, each of which is spilled to its own file.
+         * This must be the same when resuming from a continuation.
+         * @param partitionCount the number of partitions
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> setPartitionCount(int partitionCount) {
+            if (partitionCount < 1) {
+                throw new RecordCoreArgumentException("hash aggregate must have at least one partition");
+            }
+            this.partitionCount = partitionCount;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of input elements accumulated together.
+         * @param batchSize the maximum batch size
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> setBatchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new RecordCoreArgumentException("hash aggregate batch size must be positive");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        @Nonnull
+        public Builder<T> setTimer(@Nullable FDBStoreTimer timer) {
+            this.timer = timer;
+            return this;
+        }
+
+        /**
+         * Build the cursor.
+         * @param continuation any continuation from a previous cursor built the same way
+         * @return a new cursor
+         */
+        @Nonnull
+        public HashAggregateCursor<T> build(@Nullable byte[] continuation) {
+            return new HashAggregateCursor<>(inputFunction, longKeyFunction, keyFunction, new ArrayList<>(columns),
+                    maxGroupsInMemory, partitionCount, batchSize, timer, continuation);
+        }
+    }
+
+    /**
+     * The groups of one partition of the table.
+     */
+    private final class Partition {
+        private final int number;
+        @Nonnull
+        private GroupTable table;
+        @Nonnull
+        private ColumnAccumulator[] accumulators;
+        private int groupCount;
+        @Nullable
+        private File file;
+        private long fileLength;
+        @Nullable
+        private SpillWriter writer;
+
+        private Partition(int number) {
+            this.number = number;
+            this.table = newTable();
+            this.accumulators = newAccumulators();
+        }
+
+        @Nonnull
+        private GroupTable newTable() {
+            return longKeyFunction != null ? new GroupTable.LongKeys() : new GroupTable.TupleKeys();
+        }
+
+        @Nonnull
+        private ColumnAccumulator[] newAccumulators() {
+            final ColumnAccumulator[] result = new ColumnAccumulator[columns.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = new ColumnAccumulator(columns.get(i).getOperation(), columns.get(i).isFloatingPoint());
+            }
+            return result;
+        }
+
+        private int groupFor(long key) {
+            return added(((GroupTable.LongKeys)table).groupFor(key));
+        }
+
+        private int groupFor(@Nonnull Tuple key) {
+            return added(((GroupTable.TupleKeys)table).groupFor(key));
+        }
+
+        // Add column states for a group that has just been added to the table.
+        private int added(int group) {
+            if (group == groupCount) {
+                groupCount++;
+                for (ColumnAccumulator accumulator : accumulators) {
+                    accumulator.addGroup();
+                }
+                groupsInMemory++;
+            }
+            return group;
+        }
+
+        @Nonnull
+        private Tuple partialState(int group) {
+            final List<Object> items = new ArrayList<>(1 + 2 * accumulators.length);
+            items.add(table.getKey(group));
+            for (ColumnAccumulator accumulator : accumulators) {
+                items.add(accumulator.getPartialValue(group));
+                items.add(accumulator.getCount(group));
+            }
+            return Tuple.fromList(items);
+        }
+
+        private void merge(@Nonnull Tuple partialState) {
+            final int group = added(table.groupForKey(partialState.get(0)));
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i].merge(group, partialState.get(1 + 2 * i), partialState.getLong(2 + 2 * i));
+            }
+        }
+
+        @Nonnull
+        private Tuple result(int group) {
+            increment(FDBStoreTimer.Counts.HASH_AGGREGATE_GROUPS, 1);
+            final Object key = table.getKey(group);
+            final List<Object> items = new ArrayList<>();
+            if (key instanceof Tuple) {
+                items.addAll(((Tuple)key).getItems());
+            } else {
+                items.add(key);
+            }
+            for (ColumnAccumulator accumulator : accumulators) {
+                items.add(accumulator.getResult(group));
+            }
+            return Tuple.fromList(items);
+        }
+
+        // Append the partial states of this partition's groups to its file and clear them from memory.
+        private void spill() {
+            if (file == null) {
+                try {
+                    file = File.createTempFile(SPILL_FILE_PREFIX, ".groups");
+                } catch (IOException ex) {
+                    throw new RecordCoreException("error creating hash aggregate spill file", ex);
+                }
+                fileLength = 0;
+                spilled.add(this);
+                increment(FDBStoreTimer.Counts.HASH_AGGREGATE_SPILLED_PARTITIONS, 1);
+            }
+            if (writer == null) {
+                writer = new SpillWriter(file, fileLength);
+            }
+            final int size = table.size();
+            for (int group = 0; group < size; group++) {
+                writer.write(partialState(group).pack());
+            }
+            fileLength = writer.getLength();
+            increment(FDBStoreTimer.Counts.HASH_AGGREGATE_SPILLED_GROUPS, size);
+            groupsInMemory -= size;
+            table = newTable();
+            accumulators = newAccumulators();
+            groupCount = 0;
+        }
+
+        private void closeWriter() {
+            if (writer != null) {
+                writer.close();
+                fileLength = writer.getLength();
+                writer = null;
+            }
+        }
+
+        // Read this partition's file into a new table, combining the partial states of each group.
+        @Nonnull
+        private Partition load() {
+            final Partition result = new Partition(number);
+            try (SpillReader reader = new SpillReader(file, fileLength)) {
+                byte[] partialState;
+                while ((partialState = reader.read()) != null) {
+                    result.merge(Tuple.fromBytes(partialState));
+                }
+            }
+            // Loaded groups are not limited.
+            groupsInMemory -= result.table.size();
+            return result;
+        }
+    }
+
+    /**
+     * Append partial group states to a spill file.
+     */
+    private static final class SpillWriter implements AutoCloseable {
+        @Nonnull
+        private final FileOutputStream fileStream;
+        @Nonnull
+        private final CodedOutputStream stream;
+        private final long start;
+
+        private SpillWriter(@Nonnull File file, long start) {
+            try {
+                fileStream = new FileOutputStream(file, true);
+                fileStream.getChannel().truncate(start);
+            } catch (IOException ex) {
+                throw new RecordCoreException("error opening hash aggregate spill file", ex)
+                        .addLogInfo("file", file.getPath());
+            }
+            this.stream = CodedOutputStream.newInstance(fileStream);
+            this.start = start;
+        }
+
+        private void write(@Nonnull byte[] partialState) {
+            try {
+                stream.writeByteArrayNoTag(partialState);
+            } catch (IOException ex) {
+                throw new RecordCoreException("error writing hash aggregate spill file", ex);
+            }
+        }
+
+        private long getLength() {
+            return start + stream.getTotalBytesWritten();
+        }
+
+        @Override
+        public void close() {
+            try {
+                stream.flush();
+                fileStream.close();
+            } catch (IOException ex) {
+                throw new RecordCoreException("error closing hash aggregate spill file", ex);
+            }
+        }
+    }
+
+    /**
+     * Read partial group states from a spill file.
+     */
+    private static final class SpillReader implements AutoCloseable {
+        @Nonnull
+        private final FileInputStream fileStream;
+        @Nonnull
+        private final CodedInputStream stream;
+        private final long end;
+
+        private SpillReader(@Nonnull File file, long end) {
+            try {
+                fileStream = new FileInputStream(file);
+            } catch (IOException ex) {
+                throw new RecordCoreException("error opening hash aggregate spill file", ex)
+                        .addLogInfo("file", file.getPath());
+            }
+            this.stream = CodedInputStream.newInstance(fileStream);
+            this.end = end;
+        }
+
+        @Nullable
+        private byte[] read() {
+            try {
+                if (stream.getTotalBytesRead() >= end || stream.isAtEnd()) {
+                    return null;
+                }
+                return stream.readByteArray();
+            } catch (IOException ex) {
+                throw new RecordCoreException("error reading hash aggregate spill file", ex);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                fileStream.close();
+            } catch (IOException ex) {
+                throw new RecordCoreException("error closing hash aggregate spill file", ex);
+            }
+        }
+    }
+
+    /**
+     * The continuation of a {@link HashAggregateCursor}.
+     */
+    private static class HashAggregateContinuation implements RecordCursorContinuation {
+        @Nonnull
+        private final HashAggregateCursor<?> cursor;
+        @Nullable
+        private final RecordCursorContinuation inputContinuation;
+        private final int outputPartition;
+        private final int spilledPosition;
+        private final int groupPosition;
+        @Nonnull
+        private final RecordCursorProto.HashAggregateContinuation.SpilledPartition[] spilledPartitions;
+        @Nullable
+        private ByteString cachedByteString;
+
+        // The input continuation is given if the input is not exhausted.
+        private HashAggregateContinuation(@Nonnull HashAggregateCursor<?> cursor, @Nullable RecordCursorContinuation inputContinuation) {
+            this.cursor = cursor;
+            this.inputContinuation = inputContinuation;
+            this.outputPartition = cursor.outputPartition;
+            this.spilledPosition = cursor.spilledPosition;
+            this.groupPosition = cursor.groupPosition;
+            this.spilledPartitions = new RecordCursorProto.HashAggregateContinuation.SpilledPartition[cursor.spilled.size()];
+            for (int i = 0; i < spilledPartitions.length; i++) {
+                final HashAggregateCursor<?>.Partition partition = cursor.spilled.get(i);
+                spilledPartitions[i] = RecordCursorProto.HashAggregateContinuation.SpilledPartition.newBuilder()
+                        .setPartition(partition.number)
+                        .setFile(partition.file.getPath())
+                        .setFileLength(partition.fileLength)
+                        .build();
+            }
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            return toByteString().toByteArray();
+        }
+
+        @Nonnull
+        @Override
+        public ByteString toByteString() {
+            if (cachedByteString == null) {
+                final RecordCursorProto.HashAggregateContinuation.Builder builder = RecordCursorProto.HashAggregateContinuation.newBuilder();
+                for (RecordCursorProto.HashAggregateContinuation.SpilledPartition spilledPartition : spilledPartitions) {
+                    builder.addSpilledPartition(spilledPartition);
+                }
+                if (inputContinuation != null) {
+                    // The groups in memory do not change once the cursor has stopped.
+                    if (!inputContinuation.toByteString().isEmpty()) {
+                        builder.setInputContinuation(inputContinuation.toByteString());
+                    }
+                    for (HashAggregateCursor<?>.Partition partition : cursor.partitions) {
+                        addGroups(builder, partition, 0);
+                    }
+                } else {
+                    builder.setInputExhausted(true);
+                    if (spilledPosition < 0) {
+                        // Nor do those not spilled once the input is exhausted.
+                        for (int p = outputPartition; p < cursor.partitions.size(); p++) {
+                            final HashAggregateCursor<?>.Partition partition = cursor.partitions.get(p);
+                            if (partition.file == null) {
+                                addGroups(builder, partition, p == outputPartition ? groupPosition : 0);
+                            }
+                        }
+                    } else {
+                        builder.setSpilledPosition(spilledPosition);
+                        builder.setGroupPosition(groupPosition);
+                    }
+                }
+                cachedByteString = builder.build().toByteString();
+            }
+            return cachedByteString;
+        }
+
+        private static void addGroups(@Nonnull RecordCursorProto.HashAggregateContinuation.Builder builder,
+                                      @Nonnull HashAggregateCursor<?>.Partition partition, int start) {
+            final int size = partition.table.size();
+            for (int group = start; group < size; group++) {
+                builder.addGroup(ByteString.copyFrom(partition.partialState(group).pack()));
+            }
+        }
+
+        @Override
+        public boolean isEnd() {
+            return false;
+        }
+    }
+}
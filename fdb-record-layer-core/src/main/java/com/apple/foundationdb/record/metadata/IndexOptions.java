@@ -155,6 +155,16 @@ public class IndexOptions {
      */
     public static final String BITMAP_VALUE_ENTRY_SIZE_OPTION = "bitmapValueEntrySize";
 
+    /**
+     * How each position bitmap for {@link IndexTypes#BITMAP_VALUE} indexes is stored.
+     *
+     * The default is {@code uncompressed}, which stores a fixed-size bitmap that can always be updated with atomic mutations.
+     * {@code roaring} stores sparse or mostly contiguous bitmaps as arrays or runs of positions instead.
+     *
+     * @see com.apple.foundationdb.record.provider.foundationdb.indexes.BitmapValueIndexMaintainer
+     */
+    public static final String BITMAP_VALUE_ENCODING_OPTION = "bitmapValueEncoding";
+
     /**
      * Whether to remove index entry for {@link IndexTypes#COUNT} type indexes when they decrement to zero.
      *
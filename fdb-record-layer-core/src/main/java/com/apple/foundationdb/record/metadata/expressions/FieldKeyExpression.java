@@ -130,15 +130,15 @@ public class FieldKeyExpression extends BaseKeyExpression implements AtomKeyExpr
         if (message == null) {
             return getNullResult();
         }
-        Descriptors.Descriptor recordDescriptor = message.getDescriptorForType();
-        Descriptors.FieldDescriptor fieldDescriptor = recordDescriptor.findFieldByName(fieldName);
+        final MessageFieldAccessor fieldAccessor = MessageFieldAccessor.of(message, fieldName);
+        Descriptors.FieldDescriptor fieldDescriptor = fieldAccessor.getFieldDescriptor();
         // TODO: Part of this is working around a deficiency in DynamicMessage.getField() prior
         //  to 2.5, where a repeated message field returns an empty message instead of an
         //  empty collection.
         if (fieldDescriptor != null && fieldDescriptor.isRepeated()) {
             List<Object> values;
-            if (message.getRepeatedFieldCount(fieldDescriptor) > 0) {
-                values = (List<Object>)message.getField(fieldDescriptor);
+            if (fieldAccessor.getRepeatedFieldCount(message) > 0) {
+                values = (List<Object>)fieldAccessor.getField(message);
             } else {
                 values = Collections.emptyList();
             }
@@ -153,8 +153,8 @@ public class FieldKeyExpression extends BaseKeyExpression implements AtomKeyExpr
                 default:
                     throw new RecordCoreException(String.format("unknown fan type: %s", fanType));
             }
-        } else if (fieldDescriptor != null && (nullStandin == Key.Evaluated.NullStandin.NOT_NULL || message.hasField(fieldDescriptor))) {
-            Object value = message.getField(fieldDescriptor);
+        } else if (fieldDescriptor != null && (nullStandin == Key.Evaluated.NullStandin.NOT_NULL || fieldAccessor.hasField(message))) {
+            Object value = fieldAccessor.getField(message);
             if (fieldDescriptor.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE &&
                     TupleFieldsHelper.isTupleField(fieldDescriptor.getMessageType())) {
                 value = TupleFieldsHelper.fromProto((Message)value, fieldDescriptor.getMessageType());
@@ -0,0 +1,54 @@
+/*
+ * KeyExpressionEvaluationCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.metadata.expressions;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.metadata.Key;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A cache of the results of evaluating key expressions against parts of a single record.
+ *
+ * <p>
+ * When an {@link com.apple.foundationdb.record.provider.foundationdb.FDBRecord} passed to
+ * {@link KeyExpression#evaluateMessage} also implements this interface, expressions that traverse nested messages,
+ * such as {@link NestingKeyExpression}, look up their results here first. This lets all the indexes on a record
+ * type that share the same nested fields share the work of getting them when the record is saved.
+ * </p>
+ */
+@API(API.Status.INTERNAL)
+public interface KeyExpressionEvaluationCache {
+    /**
+     * Get the result of evaluating an expression against a message, computing it if this is the first time.
+     * The message is compared by identity and the expression by equality.
+     * @param expression the key expression being evaluated
+     * @param message the message against which it is being evaluated
+     * @param evaluation the evaluation itself
+     * @return the evaluated keys
+     */
+    @Nonnull
+    List<Key.Evaluated> computeIfAbsent(@Nonnull KeyExpression expression, @Nonnull Message message,
+                                        @Nonnull Supplier<List<Key.Evaluated>> evaluation);
+}
@@ -0,0 +1,244 @@
+/*
+ * MessageFieldAccessor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.metadata.expressions;
+
+import com.apple.foundationdb.record.RecordCoreException;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Access to a single field of messages of a single class, resolved once.
+ *
+ * <p>
+ * For generated message classes, the field is read through {@link MethodHandle}s for the generated accessor methods,
+ * which avoids the reflective {@link Message#getField} path. For {@link DynamicMessage} or when the generated methods
+ * cannot be found or do not return what {@code getField} would (such as for enums), the generic {@link Message}
+ * methods are used, but the field descriptor lookup is still only done once.
+ * </p>
+ *
+ * <p>
+ * Accessors for generated classes are cached with the class, whose descriptor never changes, so that key expressions
+ * themselves hold no state. {@code DynamicMessage} descriptors can come and go with meta-data, so accessors for
+ * them are not cached.
+ * </p>
+ */
+final class MessageFieldAccessor {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Message.class);
+    private static final MethodType HAS_TYPE = MethodType.methodType(boolean.class, Message.class);
+    private static final MethodType COUNT_TYPE = MethodType.methodType(int.class, Message.class);
+    private static final ClassValue<ConcurrentMap<String, MessageFieldAccessor>> GENERATED_ACCESSORS = new ClassValue<>() {
+        @Override
+        protected ConcurrentMap<String, MessageFieldAccessor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    @Nonnull
+    private final Class<?> messageClass;
+    @Nullable
+    private final Descriptors.FieldDescriptor fieldDescriptor;
+    @Nullable
+    private final MethodHandle getter;
+    @Nullable
+    private final MethodHandle hasMethod;
+    @Nullable
+    private final MethodHandle countMethod;
+
+    private MessageFieldAccessor(@Nonnull Message message, @Nonnull String fieldName) {
+        this.messageClass = message.getClass();
+        this.fieldDescriptor = message.getDescriptorForType().findFieldByName(fieldName);
+        if (fieldDescriptor == null || message instanceof DynamicMessage || fieldDescriptor.getJavaType() == Descriptors.FieldDescriptor.JavaType.ENUM) {
+            getter = null;
+            hasMethod = null;
+            countMethod = null;
+        } else {
+            final String javaName = javaName(fieldName);
+            if (fieldDescriptor.isRepeated()) {
+                getter = findMethod("get" + javaName + "List", List.class, GETTER_TYPE);
+                hasMethod = null;
+                countMethod = getter == null ? null : findMethod("get" + javaName + "Count", int.class, COUNT_TYPE);
+            } else {
+                getter = findMethod("get" + javaName, javaType(fieldDescriptor), GETTER_TYPE);
+                hasMethod = getter == null ? null : findMethod("has" + javaName, boolean.class, HAS_TYPE);
+                countMethod = null;
+            }
+        }
+    }
+
+    /**
+     * Get an accessor for the given field of messages like the given one.
+     * @param message a message of the type to be accessed
+     * @param fieldName the name of the field
+     * @return a cached accessor for generated messages or a new one for dynamic messages
+     */
+    @Nonnull
+    static MessageFieldAccessor of(@Nonnull Message message, @Nonnull String fieldName) {
+        if (message instanceof DynamicMessage) {
+            return new MessageFieldAccessor(message, fieldName);
+        }
+        return GENERATED_ACCESSORS.get(message.getClass()).computeIfAbsent(fieldName, name -> new MessageFieldAccessor(message, name));
+    }
+
+    @Nullable
+    Descriptors.FieldDescriptor getFieldDescriptor() {
+        return fieldDescriptor;
+    }
+
+    @Nonnull
+    Object getField(@Nonnull Message message) {
+        if (getter == null) {
+            return message.getField(fieldDescriptor);
+        }
+        try {
+            return (Object)getter.invokeExact(message);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new RecordCoreException("failed to get field", t);
+        }
+    }
+
+    boolean hasField(@Nonnull Message message) {
+        if (hasMethod == null) {
+            return message.hasField(fieldDescriptor);
+        }
+        try {
+            return (boolean)hasMethod.invokeExact(message);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new RecordCoreException("failed to check field", t);
+        }
+    }
+
+    int getRepeatedFieldCount(@Nonnull Message message) {
+        if (countMethod == null) {
+            return message.getRepeatedFieldCount(fieldDescriptor);
+        }
+        try {
+            return (int)countMethod.invokeExact(message);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new RecordCoreException("failed to count field", t);
+        }
+    }
+
+    @Nullable
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
+    private MethodHandle findMethod(@Nonnull String name, @Nonnull Class<?> returnType, @Nonnull MethodType type) {
+        try {
+            final Method method = messageClass.getMethod(name);
+            // protoc renames the accessors of fields that would collide with a method every message has, such as
+            // getSerializedSize_() for serialized_size, so a method of that name is not the field's. Generated classes
+            // override some of those methods, so it is not enough that the method is declared by the class itself.
+            if (method.getDeclaringClass() != messageClass || isInheritedMethod(name)) {
+                return null;
+            }
+            // Generated getters for message fields return the specific generated class and for repeated fields
+            // some subtype of List.
+            final Class<?> actualReturnType = method.getReturnType();
+            if (returnType.isPrimitive() || returnType == String.class || returnType == ByteString.class
+                    ? actualReturnType != returnType : !returnType.isAssignableFrom(actualReturnType)) {
+                return null;
+            }
+            return MethodHandles.publicLookup().unreflect(method).asType(type);
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            return null;
+        }
+    }
+
+    private boolean isInheritedMethod(@Nonnull String name) {
+        final Class<?> superclass = messageClass.getSuperclass();
+        if (superclass == null) {
+            return false;
+        }
+        try {
+            superclass.getMethod(name);
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    // The Java type returned by generated accessors for the same values as getField.
+    @Nonnull
+    private static Class<?> javaType(@Nonnull Descriptors.FieldDescriptor fieldDescriptor) {
+        switch (fieldDescriptor.getJavaType()) {
+            case INT:
+                return int.class;
+            case LONG:
+                return long.class;
+            case FLOAT:
+                return float.class;
+            case DOUBLE:
+                return double.class;
+            case BOOLEAN:
+                return boolean.class;
+            case STRING:
+                return String.class;
+            case BYTE_STRING:
+                return ByteString.class;
+            case MESSAGE:
+                return Message.class;
+            default:
+                return Void.class;
+        }
+    }
+
+    /**
+     * Convert a field name to the camel case used by protoc for accessor methods.
+     * @param fieldName the field name from the descriptor
+     * @return the name of the field in accessor methods
+     */
+    @Nonnull
+    static String javaName(@Nonnull String fieldName) {
+        final StringBuilder result = new StringBuilder(fieldName.length());
+        boolean capitalizeNext = true;
+        for (int i = 0; i < fieldName.length(); i++) {
+            final char c = fieldName.charAt(i);
+            if (c == '_') {
+                capitalizeNext = true;
+            } else if (Character.isDigit(c)) {
+                result.append(c);
+                capitalizeNext = true;
+            } else if (capitalizeNext) {
+                result.append(Character.toUpperCase(c));
+                capitalizeNext = false;
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
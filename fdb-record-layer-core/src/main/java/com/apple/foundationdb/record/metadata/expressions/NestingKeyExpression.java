@@ -71,7 +71,21 @@ public class NestingKeyExpression extends BaseKeyExpression implements KeyExpres
     @Nonnull
     @Override
     public <M extends Message> List<Key.Evaluated> evaluateMessage(@Nullable FDBRecord<M> record, @Nullable Message message) {
-        final List<Key.Evaluated> parentKeys = parent.evaluateMessage(record, message);
+        if (record instanceof KeyExpressionEvaluationCache && message != null) {
+            return ((KeyExpressionEvaluationCache)record).computeIfAbsent(this, message, () -> evaluateNested(record, message));
+        }
+        return evaluateNested(record, message);
+    }
+
+    @Nonnull
+    private <M extends Message> List<Key.Evaluated> evaluateNested(@Nullable FDBRecord<M> record, @Nullable Message message) {
+        final List<Key.Evaluated> parentKeys;
+        if (record instanceof KeyExpressionEvaluationCache && message != null) {
+            // Also share the traversal to the nested messages with other expressions that start from the same parent.
+            parentKeys = ((KeyExpressionEvaluationCache)record).computeIfAbsent(parent, message, () -> parent.evaluateMessage(record, message));
+        } else {
+            parentKeys = parent.evaluateMessage(record, message);
+        }
         List<Key.Evaluated> result = new ArrayList<>();
         // TODO make this more type safe. But those components should always be single messages
         for (Key.Evaluated value : parentKeys) {
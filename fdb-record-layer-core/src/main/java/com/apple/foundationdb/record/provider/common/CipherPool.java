@@ -21,6 +21,7 @@
 package com.apple.foundationdb.record.provider.common;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.crypto.Cipher;
 import java.security.GeneralSecurityException;
 
@@ -31,7 +32,7 @@ public class CipherPool {
     // AES with 128 bits key
     public static final String DEFAULT_CIPHER = "AES/CBC/PKCS5Padding";
     public static final int IV_SIZE = 16;
-    public static final MappedPool<String, Cipher, GeneralSecurityException> MAPPED_POOL = new MappedPool<>(Cipher::getInstance);
+    public static final MappedPool<String, Cipher, GeneralSecurityException> MAPPED_POOL = new StripedMappedPool<>(Cipher::getInstance);
 
     private CipherPool() {
     }
@@ -44,6 +45,10 @@ public class CipherPool {
         return MAPPED_POOL.poll(cipherName);
     }
 
+    public static Cipher borrowCipher(@Nonnull String cipherName, @Nullable StoreTimer timer) throws GeneralSecurityException {
+        return MAPPED_POOL.poll(cipherName, timer);
+    }
+
     public static void returnCipher(@Nonnull Cipher cipher) {
         MAPPED_POOL.offer(cipher.getAlgorithm(), cipher);
     }
@@ -0,0 +1,74 @@
+/*
+ * CompressionCodec.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.zip.DataFormatException;
+
+/**
+ * A compression algorithm used by a {@link TransformedRecordSerializer}.
+ *
+ * <p>
+ * Each compressed record starts with the {@linkplain #getCompressionVersion compression version} of the codec that
+ * compressed it, followed by the length of the uncompressed data. When deserializing, the serializer uses that
+ * version to find the codec that can decompress the rest, so a serializer can read records written with any of the
+ * codecs it knows about, while writing with just one.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public interface CompressionCodec {
+    /**
+     * Get the version number written before data compressed by this codec. No two codecs that might be used
+     * by the same serializer can have the same version, which must be between {@code 1} and {@code 127}.
+     * @return the compression version of this codec
+     */
+    int getCompressionVersion();
+
+    /**
+     * Compress data into the given buffer.
+     * @param input buffer containing the data to compress
+     * @param offset position of the data within {@code input}
+     * @param length length of the data
+     * @param output buffer for the compressed data
+     * @param outputOffset position within {@code output} at which to start writing
+     * @param maxLength the maximum number of bytes to write
+     * @param timer timer to instrument compression or {@code null}
+     * @return the length of the compressed data or {@code -1} if it would not fit in {@code maxLength} bytes
+     */
+    int compress(@Nonnull byte[] input, int offset, int length,
+                 @Nonnull byte[] output, int outputOffset, int maxLength,
+                 @Nullable StoreTimer timer);
+
+    /**
+     * Decompress data written by {@link #compress}.
+     * @param input buffer containing the compressed data
+     * @param offset position of the compressed data within {@code input}
+     * @param length length of the compressed data
+     * @param output buffer for the decompressed data, whose length is the length of the uncompressed data
+     * @param timer timer to instrument decompression or {@code null}
+     * @throws DataFormatException if the compressed data is corrupt
+     */
+    void decompress(@Nonnull byte[] input, int offset, int length, @Nonnull byte[] output,
+                    @Nullable StoreTimer timer) throws DataFormatException;
+}
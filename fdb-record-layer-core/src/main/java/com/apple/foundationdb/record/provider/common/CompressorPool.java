@@ -0,0 +1,66 @@
+/*
+ * CompressorPool.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Helper class for pooling {@link Deflater} and {@link Inflater}, which hold native memory that is otherwise
+ * allocated and freed for every record.
+ *
+ * A borrowed compressor must be returned once its output has been consumed. It is reset when returned and
+ * {@linkplain Deflater#end ended} if the pool is already full.
+ */
+public class CompressorPool {
+    public static final MappedPool<Integer, Deflater, RuntimeException> DEFLATER_POOL = new StripedMappedPool<>(Deflater::new);
+    // Keyed by whether to omit the zlib header, as with Inflater(boolean).
+    public static final MappedPool<Boolean, Inflater, RuntimeException> INFLATER_POOL = new StripedMappedPool<>(Inflater::new);
+
+    private CompressorPool() {
+    }
+
+    @Nonnull
+    public static Deflater borrowDeflater(int compressionLevel, @Nullable StoreTimer timer) {
+        return DEFLATER_POOL.poll(compressionLevel, timer);
+    }
+
+    public static void returnDeflater(int compressionLevel, @Nonnull Deflater deflater) {
+        deflater.reset();
+        if (!DEFLATER_POOL.offer(compressionLevel, deflater)) {
+            deflater.end();
+        }
+    }
+
+    @Nonnull
+    public static Inflater borrowInflater(@Nullable StoreTimer timer) {
+        return INFLATER_POOL.poll(false, timer);
+    }
+
+    public static void returnInflater(@Nonnull Inflater inflater) {
+        inflater.reset();
+        if (!INFLATER_POOL.offer(false, inflater)) {
+            inflater.end();
+        }
+    }
+}
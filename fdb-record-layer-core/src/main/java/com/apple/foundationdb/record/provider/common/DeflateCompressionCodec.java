@@ -0,0 +1,85 @@
+/*
+ * DeflateCompressionCodec.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link CompressionCodec} using {@link Deflater} and {@link Inflater}. This is the original compression of the
+ * {@link TransformedRecordSerializer}, with compression version {@value COMPRESSION_VERSION}.
+ */
+@API(API.Status.EXPERIMENTAL)
+public class DeflateCompressionCodec implements CompressionCodec {
+    public static final int COMPRESSION_VERSION = 1;
+
+    private final int compressionLevel;
+
+    /**
+     * Create a new codec.
+     * @param compressionLevel the {@link Deflater} compression level (0-9)
+     */
+    public DeflateCompressionCodec(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    @Override
+    public int getCompressionVersion() {
+        return COMPRESSION_VERSION;
+    }
+
+    @Override
+    public int compress(@Nonnull byte[] input, int offset, int length,
+                        @Nonnull byte[] output, int outputOffset, int maxLength,
+                        @Nullable StoreTimer timer) {
+        Deflater compressor = CompressorPool.borrowDeflater(compressionLevel, timer);
+        int compressedLength;
+        try {
+            compressor.setInput(input, offset, length);
+            compressedLength = compressor.deflate(output, outputOffset, maxLength, Deflater.FULL_FLUSH);
+        } finally {
+            CompressorPool.returnDeflater(compressionLevel, compressor);
+        }
+        // Filling the buffer means that the output may have been truncated.
+        return compressedLength == maxLength ? -1 : compressedLength;
+    }
+
+    @Override
+    public void decompress(@Nonnull byte[] input, int offset, int length, @Nonnull byte[] output,
+                           @Nullable StoreTimer timer) throws DataFormatException {
+        Inflater decompressor = CompressorPool.borrowInflater(timer);
+        try {
+            decompressor.setInput(input, offset, length);
+            decompressor.inflate(output);
+        } finally {
+            CompressorPool.returnInflater(decompressor);
+        }
+    }
+}
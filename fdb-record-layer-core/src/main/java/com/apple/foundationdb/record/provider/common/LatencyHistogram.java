@@ -0,0 +1,187 @@
+/*
+ * LatencyHistogram.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of nanosecond durations, for computing percentiles of the times recorded by a {@link StoreTimer}.
+ *
+ * <p>
+ * Buckets are log-linear, as in an HDR histogram: each power of two is divided into {@value #SUB_BUCKET_COUNT} equal
+ * sub-buckets, so any percentile is reported to within about {@code 1/}{@value #SUB_BUCKET_COUNT} of the true value,
+ * using a fixed number of counters regardless of how many durations are recorded. Durations longer than about
+ * {@value #MAX_TRACKABLE_SECONDS} seconds are counted in the last bucket.
+ * </p>
+ *
+ * <p>
+ * Recording is a single atomic increment. Histograms can be {@linkplain #add added} together and
+ * {@linkplain #subtract subtracted}, which is how they are combined by {@link StoreTimer#add} and
+ * {@link StoreTimer#getDifference}.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    public static final int MAX_TRACKABLE_SECONDS = (int)((1L << (MAX_EXPONENT + 1)) / 1_000_000_000L);
+    public static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS;
+
+    @Nonnull
+    private final AtomicLongArray counts;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    private LatencyHistogram(@Nonnull long[] counts) {
+        this.counts = new AtomicLongArray(counts);
+    }
+
+    /**
+     * Get the bucket that would count the given duration.
+     * @param nanos the duration
+     * @return the index of the bucket for {@code nanos}
+     */
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKET_COUNT) {
+            return nanos < 0 ? 0 : (int)nanos;
+        }
+        final int exponent = Math.min(63 - Long.numberOfLeadingZeros(nanos), MAX_EXPONENT);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int)Math.min((nanos >>> shift) - SUB_BUCKET_COUNT, SUB_BUCKET_COUNT - 1);
+        return ((shift + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * Get the largest duration that would be counted in the given bucket.
+     * @param index the index of a bucket
+     * @return the upper bound of durations in that bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index >> SUB_BUCKET_BITS) - 1;
+        final long subBucket = index & (SUB_BUCKET_COUNT - 1);
+        return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a single duration.
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketIndex(nanos));
+    }
+
+    /**
+     * Get the total number of durations recorded.
+     * @return the number of recorded durations
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Get the duration below which the given percentage of the recorded durations fall. The result is the largest
+     * duration in the bucket containing that percentile, so is never less than the true value.
+     * @param percentile the percentile, between {@code 0} and {@code 100}
+     * @return the duration in nanoseconds at that percentile or {@code 0} if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new RecordCoreArgumentException("percentile out of range")
+                    .addLogInfo("percentile", percentile);
+        }
+        final long[] snapshot = getBucketCounts();
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0L;
+        }
+        final long rank = Math.max(1L, (long)Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(snapshot.length - 1);
+    }
+
+    /**
+     * Add the durations recorded in another histogram into this one.
+     * @param other the histogram to add
+     */
+    public void add(@Nonnull LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+    /**
+     * Get a new histogram with the durations in this one that are not in an earlier copy of it.
+     * @param earlier an earlier copy of this histogram
+     * @return the durations recorded since {@code earlier}
+     */
+    @Nonnull
+    public LatencyHistogram subtract(@Nonnull LatencyHistogram earlier) {
+        final long[] difference = getBucketCounts();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            difference[i] = Math.max(0L, difference[i] - earlier.counts.get(i));
+        }
+        return new LatencyHistogram(difference);
+    }
+
+    /**
+     * Get a copy of this histogram, which is not affected by durations recorded in this one afterwards.
+     * @return a new histogram with the same counts
+     */
+    @Nonnull
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(getBucketCounts());
+    }
+
+    @Nonnull
+    private long[] getBucketCounts() {
+        final long[] result = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Lz4CompressionCodec.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * A {@link CompressionCodec} that writes the LZ4 block format, implemented in Java.
+ *
+ * <p>
+ * LZ4 only replaces repeated byte sequences with back-references, without any entropy coding, so it compresses
+ * less than {@link DeflateCompressionCodec} but is several times faster in both directions. This makes it
+ * suitable when compression is on the critical path of saving records.
+ * </p>
+ *
+ * <p>
+ * Records are usually small, so often have few repeats within themselves. A shared dictionary of byte sequences
+ * that are common across records, such as field names and enum values, can be given, which each record
+ * is then allowed to refer back into. Records compressed with a dictionary have compression version
+ * {@value DICTIONARY_COMPRESSION_VERSION} and are prefixed with an identifier of the dictionary, so that they
+ * can only be decompressed by a codec with the same dictionary. One can be built from a sample of records using
+ * {@link #trainDictionary}. Records compressed without a dictionary have compression version
+ * {@value COMPRESSION_VERSION}.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class Lz4CompressionCodec implements CompressionCodec {
+    public static final int COMPRESSION_VERSION = 2;
+    public static final int DICTIONARY_COMPRESSION_VERSION = 3;
+    /**
+     * The maximum size of a dictionary, since matches can only refer this far back.
+     */
+    public static final int MAX_DICTIONARY_SIZE = 65535;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_DISTANCE = 65535;
+    // The last match must start this far from the end and the block must end with this many literals.
+    private static final int MF_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int HASH_LOG = 12;
+    private static final int DICTIONARY_ID_SIZE = 4;
+    // For training dictionaries.
+    private static final int GRAM_SIZE = 8;
+    private static final int SEGMENT_SIZE = 32;
+
+    @Nullable
+    private final byte[] dictionary;
+    private final int dictionaryId;
+    @Nullable
+    private final int[] dictionaryTable;
+
+    /**
+     * Create a new codec without a dictionary.
+     */
+    public Lz4CompressionCodec() {
+        this(null);
+    }
+
+    /**
+     * Create a new codec with a shared dictionary.
+     * @param dictionary the dictionary or {@code null} for none
+     */
+    public Lz4CompressionCodec(@Nullable byte[] dictionary) {
+        if (dictionary != null && dictionary.length > MAX_DICTIONARY_SIZE) {
+            throw new RecordCoreArgumentException("compression dictionary is too large")
+                    .addLogInfo(LogMessageKeys.VALUE_SIZE, dictionary.length);
+        }
+        if (dictionary == null || dictionary.length == 0) {
+            this.dictionary = null;
+            this.dictionaryId = 0;
+            this.dictionaryTable = null;
+        } else {
+            this.dictionary = Arrays.copyOf(dictionary, dictionary.length);
+            this.dictionaryId = dictionaryId(dictionary);
+            // Positions in the dictionary are the same for every record, so only index it once.
+            this.dictionaryTable = newHashTable();
+            indexHistory(this.dictionary, 0, this.dictionary.length, dictionaryTable);
+        }
+    }
+
+    /**
+     * Get the identifier of the dictionary, which is written with each record compressed using it.
+     * @return the dictionary identifier or {@code 0} if there is no dictionary
+     */
+    public int getDictionaryId() {
+        return dictionaryId;
+    }
+
+    @Override
+    public int getCompressionVersion() {
+        return dictionary == null ? COMPRESSION_VERSION : DICTIONARY_COMPRESSION_VERSION;
+    }
+
+    @Override
+    public int compress(@Nonnull byte[] input, int offset, int length,
+                        @Nonnull byte[] output, int outputOffset, int maxLength,
+                        @Nullable StoreTimer timer) {
+        if (dictionary == null) {
+            return compressBlock(input, offset, offset, offset + length, newHashTable(), output, outputOffset, outputOffset + maxLength);
+        }
+        if (maxLength <= DICTIONARY_ID_SIZE) {
+            return -1;
+        }
+        writeInt(output, outputOffset, dictionaryId);
+        // Put the dictionary right before the input, so that matches can refer back into it.
+        final byte[] withHistory = new byte[dictionary.length + length];
+        System.arraycopy(dictionary, 0, withHistory, 0, dictionary.length);
+        System.arraycopy(input, offset, withHistory, dictionary.length, length);
+        final int compressedLength = compressBlock(withHistory, 0, dictionary.length, withHistory.length,
+                Arrays.copyOf(dictionaryTable, dictionaryTable.length),
+                output, outputOffset + DICTIONARY_ID_SIZE, outputOffset + maxLength);
+        return compressedLength < 0 ? -1 : compressedLength + DICTIONARY_ID_SIZE;
+    }
+
+    @Override
+    public void decompress(@Nonnull byte[] input, int offset, int length, @Nonnull byte[] output,
+                           @Nullable StoreTimer timer) throws DataFormatException {
+        if (dictionary == null) {
+            decompressBlock(input, offset, offset + length, output, 0, 0, output.length);
+            return;
+        }
+        if (length < DICTIONARY_ID_SIZE) {
+            throw new DataFormatException("missing compression dictionary identifier");
+        }
+        final int recordDictionaryId = readInt(input, offset);
+        if (recordDictionaryId != dictionaryId) {
+            throw new RecordSerializationException("unknown compression dictionary")
+                    .addLogInfo("dictionaryId", recordDictionaryId)
+                    .addLogInfo("expectedDictionaryId", dictionaryId);
+        }
+        final byte[] withHistory = new byte[dictionary.length + output.length];
+        System.arraycopy(dictionary, 0, withHistory, 0, dictionary.length);
+        decompressBlock(input, offset + DICTIONARY_ID_SIZE, offset + length, withHistory, 0, dictionary.length, withHistory.length);
+        System.arraycopy(withHistory, dictionary.length, output, 0, output.length);
+    }
+
+    @Nonnull
+    private static int[] newHashTable() {
+        final int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(@Nonnull byte[] buffer, int position) {
+        return (buffer[position] & 0xFF) | (buffer[position + 1] & 0xFF) << 8 |
+               (buffer[position + 2] & 0xFF) << 16 | (buffer[position + 3] & 0xFF) << 24;
+    }
+
+    private static void writeInt(@Nonnull byte[] buffer, int position, int value) {
+        buffer[position] = (byte)value;
+        buffer[position + 1] = (byte)(value >>> 8);
+        buffer[position + 2] = (byte)(value >>> 16);
+        buffer[position + 3] = (byte)(value >>> 24);
+    }
+
+    private static void indexHistory(@Nonnull byte[] source, int start, int end, @Nonnull int[] table) {
+        for (int position = Math.max(start, end - MAX_DISTANCE); position + MIN_MATCH <= end; position++) {
+            table[hash(readInt(source, position))] = position;
+        }
+    }
+
+    /**
+     * Compress {@code source[start, end)} as a single LZ4 block, allowing matches back to {@code historyStart}.
+     * @return the length of the block or {@code -1} if it does not fit before {@code destinationEnd}
+     */
+    private static int compressBlock(@Nonnull byte[] source, int historyStart, int start, int end, @Nonnull int[] table,
+                                     @Nonnull byte[] destination, int destinationStart, int destinationEnd) {
+        final int matchLimit = end - LAST_LITERALS;
+        final int matchStartLimit = end - MF_LIMIT;
+        int anchor = start;
+        int position = start;
+        int output = destinationStart;
+        while (position < matchStartLimit) {
+            final int sequence = readInt(source, position);
+            final int bucket = hash(sequence);
+            int reference = table[bucket];
+            table[bucket] = position;
+            if (reference < historyStart || position - reference > MAX_DISTANCE || readInt(source, reference) != sequence) {
+                position++;
+                continue;
+            }
+            int matchStart = position;
+            while (matchStart > anchor && reference > historyStart && source[matchStart - 1] == source[reference - 1]) {
+                matchStart--;
+                reference--;
+            }
+            int matchLength = position + MIN_MATCH - matchStart;
+            while (matchStart + matchLength < matchLimit && source[reference + matchLength] == source[matchStart + matchLength]) {
+                matchLength++;
+            }
+            output = writeSequence(source, anchor, matchStart - anchor, matchStart - reference, matchLength,
+                    destination, output, destinationEnd);
+            if (output < 0) {
+                return -1;
+            }
+            position = matchStart + matchLength;
+            anchor = position;
+            if (position - 2 + MIN_MATCH <= end) {
+                table[hash(readInt(source, position - 2))] = position - 2;
+            }
+        }
+        output = writeSequence(source, anchor, end - anchor, 0, 0, destination, output, destinationEnd);
+        return output < 0 ? -1 : output - destinationStart;
+    }
+
+    /**
+     * Write literals followed by a match, or just literals if {@code matchLength} is zero.
+     * @return the new output position or {@code -1} if there is not enough room
+     */
+    private static int writeSequence(@Nonnull byte[] source, int literalStart, int literalLength, int matchOffset, int matchLength,
+                                     @Nonnull byte[] destination, int output, int destinationEnd) {
+        final int needed = 1 + literalLength + literalLength / 255 + 1 + (matchLength == 0 ? 0 : 2 + (matchLength - MIN_MATCH) / 255 + 1);
+        if (output + needed > destinationEnd) {
+            return -1;
+        }
+        final int tokenPosition = output++;
+        int token;
+        if (literalLength >= 15) {
+            token = 15 << 4;
+            output = writeLength(destination, output, literalLength - 15);
+        } else {
+            token = literalLength << 4;
+        }
+        System.arraycopy(source, literalStart, destination, output, literalLength);
+        output += literalLength;
+        if (matchLength > 0) {
+            destination[output++] = (byte)matchOffset;
+            destination[output++] = (byte)(matchOffset >>> 8);
+            final int extraLength = matchLength - MIN_MATCH;
+            if (extraLength >= 15) {
+                token |= 15;
+                output = writeLength(destination, output, extraLength - 15);
+            } else {
+                token |= extraLength;
+            }
+        }
+        destination[tokenPosition] = (byte)token;
+        return output;
+    }
+
+    private static int writeLength(@Nonnull byte[] destination, int output, int length) {
+        int remaining = length;
+        while (remaining >= 255) {
+            destination[output++] = (byte)255;
+            remaining -= 255;
+        }
+        destination[output++] = (byte)remaining;
+        return output;
+    }
+
+    /**
+     * Decompress an LZ4 block into {@code destination[start, end)}, allowing matches back to {@code historyStart}.
+     */
+    private static void decompressBlock(@Nonnull byte[] source, int sourceStart, int sourceEnd,
+                                        @Nonnull byte[] destination, int historyStart, int start, int end) throws DataFormatException {
+        int input = sourceStart;
+        int output = start;
+        while (true) {
+            if (input >= sourceEnd) {
+                throw new DataFormatException("truncated LZ4 block");
+            }
+            final int token = source[input++] & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int next;
+                do {
+                    if (input >= sourceEnd) {
+                        throw new DataFormatException("truncated LZ4 literal length");
+                    }
+                    next = source[input++] & 0xFF;
+                    literalLength += next;
+                } while (next == 255);
+            }
+            if (literalLength > sourceEnd - input || literalLength > end - output) {
+                throw new DataFormatException("LZ4 literals out of bounds");
+            }
+            System.arraycopy(source, input, destination, output, literalLength);
+            input += literalLength;
+            output += literalLength;
+            if (input == sourceEnd) {
+                break;
+            }
+            if (sourceEnd - input < 2) {
+                throw new DataFormatException("truncated LZ4 match offset");
+            }
+            final int matchOffset = (source[input] & 0xFF) | (source[input + 1] & 0xFF) << 8;
+            input += 2;
+            if (matchOffset == 0 || matchOffset > output - historyStart) {
+                throw new DataFormatException("LZ4 match offset out of bounds");
+            }
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int next;
+                do {
+                    if (input >= sourceEnd) {
+                        throw new DataFormatException("truncated LZ4 match length");
+                    }
+                    next = source[input++] & 0xFF;
+                    matchLength += next;
+                } while (next == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > end - output) {
+                throw new DataFormatException("LZ4 match out of bounds");
+            }
+            final int matchStart = output - matchOffset;
+            if (matchOffset >= matchLength) {
+                System.arraycopy(destination, matchStart, destination, output, matchLength);
+            } else {
+                // Overlapping match, which repeats the last matchOffset bytes.
+                for (int i = 0; i < matchLength; i++) {
+                    destination[output + i] = destination[matchStart + i];
+                }
+            }
+            output += matchLength;
+        }
+        if (output != end) {
+            throw new DataFormatException("LZ4 block has wrong decompressed length");
+        }
+    }
+
+    private static int dictionaryId(@Nonnull byte[] dictionary) {
+        final CRC32 crc = new CRC32();
+        crc.update(dictionary);
+        final int id = (int)crc.getValue();
+        return id == 0 ? 1 : id;
+    }
+
+    /**
+     * Build a dictionary from a sample of serialized records. The dictionary is made up of the segments of
+     * the samples that contain the most byte sequences that also appear in other samples, with the most
+     * useful ones last, where they are closest to the record that refers to them.
+     * @param samples serialized records that are typical of those that will be compressed
+     * @param maxSize the maximum size of the dictionary, which cannot be more than {@value MAX_DICTIONARY_SIZE}
+     * @return a new dictionary, which may be empty if the samples have nothing in common
+     */
+    @Nonnull
+    public static byte[] trainDictionary(@Nonnull Collection<byte[]> samples, int maxSize) {
+        final int size = Math.min(maxSize, MAX_DICTIONARY_SIZE);
+        // Count how many samples each sequence appears in.
+        final Map<Long, Integer> gramCounts = new HashMap<>();
+        for (byte[] sample : samples) {
+            final Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + GRAM_SIZE <= sample.length; i++) {
+                final long gram = readGram(sample, i);
+                if (seen.add(gram)) {
+                    gramCounts.merge(gram, 1, Integer::sum);
+                }
+            }
+        }
+        // Choose segments greedily, lowering the score of the remaining ones as their sequences are covered.
+        final PriorityQueue<Segment> candidates = new PriorityQueue<>((s1, s2) -> Long.compare(s2.score, s1.score));
+        for (byte[] sample : samples) {
+            for (int start = 0; start + GRAM_SIZE <= sample.length; start += SEGMENT_SIZE / 2) {
+                final Segment segment = new Segment(sample, start, Math.min(start + SEGMENT_SIZE, sample.length));
+                segment.score = segment.score(gramCounts);
+                if (segment.score > 0) {
+                    candidates.add(segment);
+                }
+            }
+        }
+        final List<Segment> chosen = new ArrayList<>();
+        int total = 0;
+        while (total < size && !candidates.isEmpty()) {
+            final Segment best = candidates.poll();
+            final long score = best.score(gramCounts);
+            if (score <= 0) {
+                continue;
+            }
+            if (score < best.score) {
+                // Some of its sequences have already been covered; see whether it is still the best.
+                best.score = score;
+                candidates.add(best);
+                continue;
+            }
+            final int length = Math.min(best.end - best.start, size - total);
+            chosen.add(new Segment(best.sample, best.start, best.start + length));
+            total += length;
+            for (int i = best.start; i + GRAM_SIZE <= best.end; i++) {
+                gramCounts.remove(readGram(best.sample, i));
+            }
+        }
+        final byte[] dictionary = new byte[total];
+        int position = total;
+        for (Segment segment : chosen) {
+            position -= segment.end - segment.start;
+            System.arraycopy(segment.sample, segment.start, dictionary, position, segment.end - segment.start);
+        }
+        return dictionary;
+    }
+
+    private static long readGram(@Nonnull byte[] buffer, int position) {
+        return (readInt(buffer, position) & 0xFFFFFFFFL) | ((long)readInt(buffer, position + 4) << 32);
+    }
+
+    private static class Segment {
+        @Nonnull
+        private final byte[] sample;
+        private final int start;
+        private final int end;
+        private long score;
+
+        Segment(@Nonnull byte[] sample, int start, int end) {
+            this.sample = sample;
+            this.start = start;
+            this.end = end;
+        }
+
+        long score(@Nonnull Map<Long, Integer> gramCounts) {
+            long result = 0;
+            for (int i = start; i + GRAM_SIZE <= end; i++) {
+                final int count = gramCounts.getOrDefault(readGram(sample, i), 0);
+                // A sequence only in one sample is not worth sharing.
+                if (count > 1) {
+                    result += count;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -65,11 +66,45 @@ public class MappedPool<K, V, E extends Exception> {
     }
 
     public V poll(@Nonnull K key) throws E {
+        V next = pollPooled(key);
+        return next == null ? mappedPoolProvider.get(key) : next;
+    }
+
+    /**
+     * Take a value from the pool, creating one if the pool for the key is empty, and record the time taken and
+     * whether a new value was needed.
+     *
+     * @param key key
+     * @param timer timer to record {@link Events#BORROW_FROM_POOL} and {@link Counts#POOL_MISS} or {@code null}
+     * @return a pooled or new value
+     * @throws E if a new value cannot be created
+     */
+    public V poll(@Nonnull K key, @Nullable StoreTimer timer) throws E {
+        if (timer == null) {
+            return poll(key);
+        }
+        final long startTime = System.nanoTime();
+        V next = pollPooled(key);
+        if (next == null) {
+            timer.increment(Counts.POOL_MISS);
+            next = mappedPoolProvider.get(key);
+        }
+        timer.recordSinceNanoTime(Events.BORROW_FROM_POOL, startTime);
+        return next;
+    }
+
+    /**
+     * Take a value from the pool without creating one.
+     *
+     * @param key key
+     * @return a pooled value or {@code null} if there are none for the key
+     */
+    @Nullable
+    protected V pollPooled(@Nonnull K key) {
         try {
-            V next = pool.get(key, loader).poll();
-            return next == null ? mappedPoolProvider.get(key) : next;
+            return pool.get(key, loader).poll();
         } catch (ExecutionException ee) {
-            return mappedPoolProvider.get(key);
+            return null;
         }
     }
 
@@ -114,4 +149,75 @@ public class MappedPool<K, V, E extends Exception> {
         V get(K key) throws E;
     }
 
+    /**
+     * Instrumentation events related to pooling.
+     */
+    @API(API.Status.UNSTABLE)
+    public enum Events implements StoreTimer.DetailEvent {
+        /** The amount of time spent taking a value from a pool, including creating one when the pool is empty. */
+        BORROW_FROM_POOL("borrow from pool"),
+        ;
+
+        private final String title;
+        private final String logKey;
+
+        Events(String title, String logKey) {
+            this.title = title;
+            this.logKey = (logKey != null) ? logKey : StoreTimer.DetailEvent.super.logKey();
+        }
+
+        Events(String title) {
+            this(title, null);
+        }
+
+        @Override
+        public String title() {
+            return title;
+        }
+
+        @Override
+        @Nonnull
+        public String logKey() {
+            return this.logKey;
+        }
+    }
+
+    /**
+     * Instrumentation counts related to pooling.
+     */
+    @API(API.Status.UNSTABLE)
+    public enum Counts implements StoreTimer.Count {
+        /** The number of times that a pool was empty and a new value had to be created. */
+        POOL_MISS("pool miss"),
+        ;
+
+        private final String title;
+        private final String logKey;
+
+        Counts(String title, String logKey) {
+            this.title = title;
+            this.logKey = (logKey != null) ? logKey : StoreTimer.Count.super.logKey();
+        }
+
+        Counts(String title) {
+            this(title, null);
+        }
+
+        @Override
+        public String title() {
+            return title;
+        }
+
+        @Override
+        public boolean isSize() {
+            return false;
+        }
+
+        @Override
+        @Nonnull
+        public String logKey() {
+            return this.logKey;
+        }
+    }
+
 }
@@ -35,6 +35,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
@@ -45,6 +46,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -69,6 +71,8 @@ public class StoreTimer {
     protected long lastReset;
     @Nonnull
     protected final UUID uuid;
+    private final boolean stripedCounters;
+    private volatile boolean histogramsEnabled;
 
     /**
      * Confirm that there is no naming conflict among the event names that will be used.
@@ -134,7 +138,13 @@ public class StoreTimer {
 
                 // Do not add events that weren't changed since the snapshot
                 if (count > 0) {
-                    differenceCounters.put(event, new Counter(count, counter.getTimeNanos() - snapShotCounter.getTimeNanos()));
+                    final Counter difference = new Counter(count, counter.getTimeNanos() - snapShotCounter.getTimeNanos());
+                    @Nullable final LatencyHistogram histogram = counter.getHistogram();
+                    if (histogram != null) {
+                        @Nullable final LatencyHistogram snapshotHistogram = snapShotCounter.getHistogram();
+                        difference.histogram = snapshotHistogram == null ? histogram.copy() : histogram.subtract(snapshotHistogram);
+                    }
+                    differenceCounters.put(event, difference);
                 }
             }
         }
@@ -172,7 +182,7 @@ public class StoreTimer {
             return counter;
         } else {
             if (createIfNotExists) {
-                return MapUtils.computeIfAbsent(counters, event, evignore -> new Counter());
+                return MapUtils.computeIfAbsent(counters, event, evignore -> newCounter());
             }
             return counters.get(event);
         }
@@ -192,7 +202,7 @@ public class StoreTimer {
     @Nullable
     protected Counter getTimeoutCounter(@Nonnull Event event, boolean createIfNotExists) {
         if (createIfNotExists) {
-            return MapUtils.computeIfAbsent(timeoutCounters, event, evignore -> new Counter());
+            return MapUtils.computeIfAbsent(timeoutCounters, event, evignore -> newCounter());
         }
         return timeoutCounters.get(event);
     }
@@ -394,6 +404,8 @@ public class StoreTimer {
         private final AtomicLong timeNanos;
         private final AtomicInteger count;
         private boolean immutable;
+        @Nullable
+        private volatile LatencyHistogram histogram;
 
         private Counter() {
             this(false);
@@ -405,6 +417,10 @@ public class StoreTimer {
 
         private Counter(Counter counter, boolean immutable) {
             this(counter.getCount(), counter.getTimeNanos(), immutable);
+            final LatencyHistogram otherHistogram = counter.histogram;
+            if (otherHistogram != null) {
+                this.histogram = otherHistogram.copy();
+            }
         }
 
         public Counter(boolean immutable) {
@@ -439,6 +455,18 @@ public class StoreTimer {
             return timeNanos.get();
         }
 
+        /**
+         * Get the distribution of times spent on the associated event, if it is being tracked.
+         *
+         * @return the histogram of times or {@code null} if histograms are not enabled for this counter
+         * @see StoreTimer#setHistogramsEnabled
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nullable
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
         /**
          * Add additional time spent performing the associated event.
          *
@@ -448,6 +476,10 @@ public class StoreTimer {
             checkImmutable();
             timeNanos.addAndGet(timeDifference);
             count.incrementAndGet();
+            final LatencyHistogram currentHistogram = histogram;
+            if (currentHistogram != null) {
+                currentHistogram.record(timeDifference);
+            }
         }
 
         /**
@@ -469,6 +501,26 @@ public class StoreTimer {
             checkImmutable();
             timeNanos.addAndGet(counter.getTimeNanos());
             count.addAndGet(counter.getCount());
+            final LatencyHistogram otherHistogram = counter.histogram;
+            if (otherHistogram != null) {
+                enableHistogram().add(otherHistogram);
+            }
+        }
+
+        @Nonnull
+        private LatencyHistogram enableHistogram() {
+            checkImmutable();
+            LatencyHistogram currentHistogram = histogram;
+            if (currentHistogram == null) {
+                synchronized (this) {
+                    currentHistogram = histogram;
+                    if (currentHistogram == null) {
+                        currentHistogram = new LatencyHistogram();
+                        histogram = currentHistogram;
+                    }
+                }
+            }
+            return currentHistogram;
         }
 
         /**
@@ -490,11 +542,94 @@ public class StoreTimer {
         }
     }
 
+    /**
+     * A {@link Counter} whose count and time are spread over several cells, like a {@link LongAdder}, so that
+     * threads updating the same event concurrently do not contend. Reading the count or time sums the cells.
+     */
+    private static class StripedCounter extends Counter {
+        private final LongAdder stripedTimeNanos = new LongAdder();
+        private final LongAdder stripedCount = new LongAdder();
+
+        private StripedCounter() {
+            super(false);
+        }
+
+        @Override
+        public int getCount() {
+            return (int)stripedCount.sum();
+        }
+
+        @Override
+        public long getTimeNanos() {
+            return stripedTimeNanos.sum();
+        }
+
+        @Override
+        public void record(long timeDifference) {
+            super.checkImmutable();
+            stripedTimeNanos.add(timeDifference);
+            stripedCount.increment();
+            final LatencyHistogram currentHistogram = getHistogram();
+            if (currentHistogram != null) {
+                currentHistogram.record(timeDifference);
+            }
+        }
+
+        @Override
+        public void increment(int amount) {
+            super.checkImmutable();
+            stripedCount.add(amount);
+        }
+
+        @Override
+        public void add(@Nonnull Counter counter) {
+            super.checkImmutable();
+            stripedTimeNanos.add(counter.getTimeNanos());
+            stripedCount.add(counter.getCount());
+            final LatencyHistogram otherHistogram = counter.getHistogram();
+            if (otherHistogram != null) {
+                super.enableHistogram().add(otherHistogram);
+            }
+        }
+    }
+
     public StoreTimer() {
+        this(false);
+    }
+
+    /**
+     * Create a new timer, optionally with striped counters.
+     * <p>
+     * Striped counters spread each event's count and time over several cells, in the manner of {@link LongAdder},
+     * so that many threads sharing one timer can record the same events without contending for a single
+     * cache line. This costs more memory per event and makes reading a count or time somewhat slower, so it
+     * is only worthwhile for timers that are shared across many concurrent transactions.
+     *
+     * @param stripedCounters whether to use striped counters
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public StoreTimer(boolean stripedCounters) {
         counters = new ConcurrentHashMap<>();
         timeoutCounters = new ConcurrentHashMap<>();
         lastReset = System.nanoTime();
         uuid = UUID.randomUUID();
+        this.stripedCounters = stripedCounters;
+    }
+
+    /**
+     * Get whether this timer uses striped counters.
+     *
+     * @return {@code true} if this timer's counters are striped
+     * @see #StoreTimer(boolean)
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public boolean isStripedCounters() {
+        return stripedCounters;
+    }
+
+    @Nonnull
+    private Counter newCounter() {
+        return stripedCounters ? new StripedCounter() : new Counter();
     }
 
     /**
@@ -507,6 +642,29 @@ public class StoreTimer {
         return uuid;
     }
 
+    /**
+     * Get whether this timer keeps a {@link LatencyHistogram} of the times recorded for each event.
+     *
+     * @return {@code true} if histograms are being kept
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public boolean isHistogramsEnabled() {
+        return histogramsEnabled;
+    }
+
+    /**
+     * Set whether this timer keeps a {@link LatencyHistogram} of the times recorded for each event, from which
+     * {@linkplain #getTimeNanosAtPercentile percentiles} can be computed. This adds a fixed amount of memory to
+     * each timed event, but does not allocate when recording. Only times recorded after histograms are enabled are
+     * included in them.
+     *
+     * @param histogramsEnabled whether to keep histograms
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public void setHistogramsEnabled(boolean histogramsEnabled) {
+        this.histogramsEnabled = histogramsEnabled;
+    }
+
     /**
      * Record the amount of time each element in a set of events took to run.
      * This applies the same time difference to each event in the set.
@@ -529,7 +687,11 @@ public class StoreTimer {
      * @param timeDifferenceNanos the time that instrumented event took to run
      */
     public void record(Event event, long timeDifferenceNanos) {
-        getCounter(event, true).record(timeDifferenceNanos);
+        final Counter counter = getCounter(event, true);
+        if (histogramsEnabled) {
+            counter.enableHistogram();
+        }
+        counter.record(timeDifferenceNanos);
     }
 
     /**
@@ -622,6 +784,23 @@ public class StoreTimer {
         return counter == null ? 0 : counter.getCount();
     }
 
+    /**
+     * Get the time below which a given percentage of the occurrences of an event completed.
+     * This requires that {@linkplain #setHistogramsEnabled histograms be enabled}.
+     *
+     * @param event the event to get time information for
+     * @param percentile the percentile, between {@code 0} and {@code 100}, such as {@code 99.9}
+     *
+     * @return the number of nanoseconds at the percentile, or {@code 0} if no histogram was recorded for the event
+     * @see LatencyHistogram#getValueAtPercentile
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public long getTimeNanosAtPercentile(Event event, double percentile) {
+        @Nullable Counter counter = getCounter(event, false);
+        @Nullable LatencyHistogram histogram = counter == null ? null : counter.getHistogram();
+        return histogram == null ? 0L : histogram.getValueAtPercentile(percentile);
+    }
+
     /**
      * Get the total time spent for a given event that timed out.
      *
@@ -702,9 +881,10 @@ public class StoreTimer {
         for (Map.Entry<Event, Counter> entry : counters.entrySet()) {
             Event event = entry.getKey();
             Counter counter = entry.getValue();
-            result.put(event.logKeyWithSuffix("_count"), counter.count.get());
+            result.put(event.logKeyWithSuffix("_count"), counter.getCount());
             if (!(event instanceof Count)) {
-                result.put(event.logKeyWithSuffix("_micros"), counter.timeNanos.get() / 1000L);
+                result.put(event.logKeyWithSuffix("_micros"), counter.getTimeNanos() / 1000L);
+                addPercentiles(result, event, counter);
             }
         }
 
@@ -717,9 +897,10 @@ public class StoreTimer {
         for (Aggregate aggregate : getAggregates()) {
             @Nullable Counter counter = aggregate.compute(this);
             if (counter != null) {
-                result.put(aggregate.logKeyWithSuffix("_count"), counter.count.get());
+                result.put(aggregate.logKeyWithSuffix("_count"), counter.getCount());
                 if (!(aggregate instanceof Count)) {
-                    result.put(aggregate.logKeyWithSuffix("_micros"), counter.timeNanos.get() / 1000L);
+                    result.put(aggregate.logKeyWithSuffix("_micros"), counter.getTimeNanos() / 1000L);
+                    addPercentiles(result, aggregate, counter);
                 }
             }
         }
@@ -727,6 +908,15 @@ public class StoreTimer {
         return result;
     }
 
+    private static void addPercentiles(@Nonnull Map<String, Number> result, @Nonnull Event event, @Nonnull Counter counter) {
+        @Nullable LatencyHistogram histogram = counter.getHistogram();
+        if (histogram != null) {
+            result.put(event.logKeyWithSuffix("_p50_micros"), histogram.getValueAtPercentile(50.0) / 1000L);
+            result.put(event.logKeyWithSuffix("_p99_micros"), histogram.getValueAtPercentile(99.0) / 1000L);
+            result.put(event.logKeyWithSuffix("_p999_micros"), histogram.getValueAtPercentile(99.9) / 1000L);
+        }
+    }
+
     /**
      * Clear all recorded timing information.
      */
@@ -831,7 +1021,8 @@ public class StoreTimer {
 
     /**
      * Instrument an asynchronous cursor.
-     * Timing information is recorded for each invocation of the {@link RecordCursor#onNext()} asynchronous method.
+     * Timing information is recorded for each invocation of the {@link RecordCursor#onNext()} asynchronous method,
+     * or of {@link RecordCursor#onNextBatch(int)}, in which case it covers the whole batch.
      *
      * @param event the event type to use to record timing
      * @param inner the cursor to record timing information for
@@ -852,6 +1043,15 @@ public class StoreTimer {
                 });
             }
 
+            @Nonnull
+            @Override
+            public CompletableFuture<List<RecordCursorResult<T>>> onNextBatch(int maxBatchSize) {
+                return instrument(event, inner.onNextBatch(maxBatchSize), inner.getExecutor()).thenApply(results -> {
+                    nextResult = results.get(results.size() - 1);
+                    return results;
+                });
+            }
+
             @Override
             public void close() {
                 inner.close();
@@ -181,10 +181,14 @@ public final class StoreTimerSnapshot {
     public static class CounterSnapshot {
         private final long timeNanos;
         private final int count;
+        @Nullable
+        private final LatencyHistogram histogram;
 
         private CounterSnapshot(@Nonnull StoreTimer.Counter c) {
             timeNanos = c.getTimeNanos();
             count = c.getCount();
+            @Nullable final LatencyHistogram counterHistogram = c.getHistogram();
+            histogram = counterHistogram == null ? null : counterHistogram.copy();
         }
 
         /**
@@ -216,5 +220,17 @@ public final class StoreTimerSnapshot {
         public long getTimeNanos() {
             return timeNanos;
         }
+
+        /**
+         * Get the distribution of times spent on the associated event as of the snapshot, if it was being tracked.
+         * The returned histogram should not be modified.
+         *
+         * @return the histogram of times or {@code null} if the counter did not have one
+         */
+        @API(API.Status.EXPERIMENTAL)
+        @Nullable
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
     }
 }
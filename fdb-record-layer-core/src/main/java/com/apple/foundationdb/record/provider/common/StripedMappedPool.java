@@ -0,0 +1,137 @@
+/*
+ * StripedMappedPool.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.annotation.API;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link MappedPool} that puts a lock-free striped layer in front of each key's shared queue.
+ *
+ * Each key has a fixed number of stripes, each of a few slots. A thread polls and offers values in the stripe
+ * chosen by its id, so that threads rarely contend for the same slot, and only falls back to the shared queue
+ * when its stripe is empty or full. The number of values retained for each key is therefore bounded by
+ * the number of slots in all the stripes plus the size of the shared queue.
+ *
+ * @param <K> key
+ * @param <V> value type to be pooled
+ * @param <E> exception that can be throw, must extend Exception
+ */
+@API(API.Status.EXPERIMENTAL)
+public class StripedMappedPool<K, V, E extends Exception> extends MappedPool<K, V, E> {
+    protected static final int DEFAULT_SLOTS_PER_STRIPE = 2;
+    private final Cache<K, AtomicReferenceArray<V>> stripes;
+    private final int stripeMask;
+    private final int slotsPerStripe;
+
+    public StripedMappedPool(MappedPoolProvider<K, V, E> mappedPoolProvider) {
+        this(mappedPoolProvider, defaultStripeCount(), DEFAULT_SLOTS_PER_STRIPE, DEFAULT_POOL_SIZE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Create a striped pool.
+     *
+     * @param mappedPoolProvider function to create new values
+     * @param stripeCount number of stripes for each key, which is rounded up to a power of two
+     * @param slotsPerStripe number of values retained in each stripe
+     * @param defaultPoolSize number of values retained in each key's shared queue
+     * @param maxEntries maximum number of keys
+     */
+    public StripedMappedPool(MappedPoolProvider<K, V, E> mappedPoolProvider, int stripeCount, int slotsPerStripe,
+                             int defaultPoolSize, int maxEntries) {
+        super(mappedPoolProvider, defaultPoolSize, maxEntries);
+        this.stripes = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+        this.stripeMask = stripeCount <= 1 ? 0 : Integer.highestOneBit(stripeCount - 1) * 2 - 1;
+        this.slotsPerStripe = slotsPerStripe;
+    }
+
+    private static int defaultStripeCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @Nullable
+    @Override
+    protected V pollPooled(@Nonnull K key) {
+        final AtomicReferenceArray<V> slots = getSlots(key);
+        if (slots != null) {
+            final int start = stripeStart();
+            for (int i = start; i < start + slotsPerStripe; i++) {
+                if (slots.get(i) != null) {
+                    final V value = slots.getAndSet(i, null);
+                    if (value != null) {
+                        return value;
+                    }
+                }
+            }
+        }
+        return super.pollPooled(key);
+    }
+
+    @Override
+    public boolean offer(@Nonnull K key, @Nonnull V value) {
+        final AtomicReferenceArray<V> slots = getSlots(key);
+        if (slots != null) {
+            final int start = stripeStart();
+            for (int i = start; i < start + slotsPerStripe; i++) {
+                if (slots.get(i) == null && slots.compareAndSet(i, null, value)) {
+                    return true;
+                }
+            }
+        }
+        return super.offer(key, value);
+    }
+
+    @Override
+    public int getPoolSize(K key) {
+        int size = super.getPoolSize(key);
+        final AtomicReferenceArray<V> slots = stripes.getIfPresent(key);
+        if (slots != null) {
+            for (int i = 0; i < slots.length(); i++) {
+                if (slots.get(i) != null) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Nullable
+    private AtomicReferenceArray<V> getSlots(@Nonnull K key) {
+        try {
+            return stripes.get(key, () -> new AtomicReferenceArray<>((stripeMask + 1) * slotsPerStripe));
+        } catch (ExecutionException ee) {
+            return null;
+        }
+    }
+
+    private int stripeStart() {
+        final long id = Thread.currentThread().getId();
+        // Spread sequential thread ids, which are common, across the stripes.
+        final int hash = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & stripeMask) * slotsPerStripe;
+    }
+}
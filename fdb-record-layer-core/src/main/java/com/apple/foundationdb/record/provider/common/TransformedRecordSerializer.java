@@ -36,10 +36,15 @@ import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 /**
  * A {@link RecordSerializer} implementation that transforms the bytes produced
@@ -95,15 +100,45 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
     protected final boolean compressWhenSerializing;
     protected final int compressionLevel;
     protected final boolean encryptWhenSerializing;
+    @Nonnull
+    protected final CompressionCodec compressionCodec;
+    @Nonnull
+    protected final Map<Integer, CompressionCodec> decompressionCodecs;
 
     protected TransformedRecordSerializer(@Nonnull RecordSerializer<M> inner,
                                           boolean compressWhenSerializing,
                                           int compressionLevel,
                                           boolean encryptWhenSerializing) {
+        this(inner, compressWhenSerializing, compressionLevel, encryptWhenSerializing,
+                new DeflateCompressionCodec(compressionLevel), Collections.emptyList());
+    }
+
+    protected TransformedRecordSerializer(@Nonnull RecordSerializer<M> inner,
+                                          boolean compressWhenSerializing,
+                                          int compressionLevel,
+                                          boolean encryptWhenSerializing,
+                                          @Nonnull CompressionCodec compressionCodec,
+                                          @Nonnull Collection<CompressionCodec> additionalDecompressionCodecs) {
         this.inner = inner;
         this.compressWhenSerializing = compressWhenSerializing;
         this.compressionLevel = compressionLevel;
         this.encryptWhenSerializing = encryptWhenSerializing;
+        this.compressionCodec = compressionCodec;
+        this.decompressionCodecs = decompressionCodecs(compressionCodec, additionalDecompressionCodecs);
+    }
+
+    @Nonnull
+    private static Map<Integer, CompressionCodec> decompressionCodecs(@Nonnull CompressionCodec compressionCodec,
+                                                                      @Nonnull Collection<CompressionCodec> additionalDecompressionCodecs) {
+        // The level does not matter when decompressing.
+        final Map<Integer, CompressionCodec> codecs = new HashMap<>();
+        codecs.put(DeflateCompressionCodec.COMPRESSION_VERSION, new DeflateCompressionCodec(DEFAULT_COMPRESSION_LEVEL));
+        codecs.put(Lz4CompressionCodec.COMPRESSION_VERSION, new Lz4CompressionCodec());
+        for (CompressionCodec codec : additionalDecompressionCodecs) {
+            codecs.put(codec.getCompressionVersion(), codec);
+        }
+        codecs.put(compressionCodec.getCompressionVersion(), compressionCodec);
+        return Collections.unmodifiableMap(codecs);
     }
 
     @SpotBugsSuppressWarnings("EI_EXPOSE_REP")
@@ -161,17 +196,18 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
 
         // Write compression version number and uncompressed size as these
         // meta-data are needed when decompressing.
-        compressed[0] = (byte) MAX_COMPRESSION_VERSION;
-        ByteBuffer.wrap(compressed, 1, 4).order(ByteOrder.BIG_ENDIAN).putInt(state.length);
-
-        // Actually compress. If we end up filling the buffer, then just
-        // return the uncompressed value because it's pointless to compress
-        // if we actually increase the amount of data.
-        Deflater compressor = new Deflater(compressionLevel);
-        compressor.setInput(state.data, state.offset, state.length);
-        int compressedLength = compressor.deflate(compressed, 5, compressed.length - 5, Deflater.FULL_FLUSH);
-        compressor.end();
-        if (compressedLength == compressed.length - 5) {
+        int compressedLength = -1;
+        if (state.length > 5) {
+            compressed[0] = (byte) compressionCodec.getCompressionVersion();
+            ByteBuffer.wrap(compressed, 1, 4).order(ByteOrder.BIG_ENDIAN).putInt(state.length);
+
+            // Actually compress. If we end up filling the buffer, then just
+            // return the uncompressed value because it's pointless to compress
+            // if we actually increase the amount of data.
+            compressedLength = compressionCodec.compress(state.data, state.offset, state.length,
+                    compressed, 5, compressed.length - 5, timer);
+        }
+        if (compressedLength < 0) {
             increment(timer, Counts.RECORD_BYTES_AFTER_COMPRESSION, state.length);
             state.compressed = false;
         } else {
@@ -246,12 +282,10 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
     protected void decompress(@Nonnull TransformState state, @Nullable StoreTimer timer) throws DataFormatException {
         long startTime = System.nanoTime();
 
-        // At the moment, there is only one compression version, so
-        // we after we've verified it is in the right range, we
-        // can just move on. If we ever introduce a new format version,
-        // we will need to make this code more complicated.
+        // The compression version says which codec compressed the data.
         int compressionVersion = state.data[state.offset];
-        if (compressionVersion < MIN_COMPRESSION_VERSION || compressionVersion > MAX_COMPRESSION_VERSION) {
+        CompressionCodec codec = decompressionCodecs.get(compressionVersion);
+        if (codec == null) {
             throw new RecordSerializationException("unknown compression version")
                     .addLogInfo("compressionVersion", compressionVersion);
         }
@@ -259,10 +293,7 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
         int decompressedLength = ByteBuffer.wrap(state.data, state.offset + 1, 4).order(ByteOrder.BIG_ENDIAN).getInt();
         byte[] decompressed = new byte[decompressedLength];
 
-        Inflater decompressor = new Inflater();
-        decompressor.setInput(state.data, state.offset + 5, state.length - 5);
-        decompressor.inflate(decompressed);
-        decompressor.end();
+        codec.decompress(state.data, state.offset + 5, state.length - 5, decompressed, timer);
         state.setDataArray(decompressed);
 
         if (timer != null) {
@@ -332,7 +363,8 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
     @Nonnull
     @Override
     public RecordSerializer<Message> widen() {
-        return new TransformedRecordSerializer<>(inner.widen(), compressWhenSerializing, compressionLevel, encryptWhenSerializing);
+        return new TransformedRecordSerializer<>(inner.widen(), compressWhenSerializing, compressionLevel, encryptWhenSerializing,
+                compressionCodec, decompressionCodecs.values());
     }
 
     @Nonnull
@@ -382,6 +414,10 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
         protected boolean compressWhenSerializing;
         protected int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
         protected boolean encryptWhenSerializing;
+        @Nullable
+        protected CompressionCodec compressionCodec;
+        @Nonnull
+        protected final List<CompressionCodec> additionalDecompressionCodecs = new ArrayList<>();
 
         protected Builder(@Nonnull RecordSerializer<M> inner) {
             this.inner = inner;
@@ -419,6 +455,38 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
             return this;
         }
 
+        /**
+         * Codec to use if compressing. The default, if none is set here, is a {@link DeflateCompressionCodec}
+         * with the {@linkplain #setCompressionLevel compression level}. Records compressed with any of
+         * the built-in codecs without a dictionary, or with this codec, or with one added by
+         * {@link #addDecompressionCodec}, can always be deserialized. Setting this does <i>not</i>
+         * automatically enable compression when serializing.
+         * @param compressionCodec the codec to compress with
+         * @return this <code>Builder</code>
+         * @see Lz4CompressionCodec
+         */
+        public Builder<M> setCompressionCodec(@Nonnull CompressionCodec compressionCodec) {
+            this.compressionCodec = compressionCodec;
+            return this;
+        }
+
+        /**
+         * Add a codec that is only used to decompress records, such as one with a different dictionary
+         * that records were previously compressed with. It replaces any other codec with the same
+         * compression version, apart from the one set by {@link #setCompressionCodec}.
+         * @param compressionCodec the codec to decompress with
+         * @return this <code>Builder</code>
+         */
+        public Builder<M> addDecompressionCodec(@Nonnull CompressionCodec compressionCodec) {
+            this.additionalDecompressionCodecs.add(compressionCodec);
+            return this;
+        }
+
+        @Nonnull
+        protected CompressionCodec getCompressionCodec() {
+            return compressionCodec == null ? new DeflateCompressionCodec(compressionLevel) : compressionCodec;
+        }
+
         /**
          * Whether to encrypt records after serializing. Should
          * compression and encryption both be set, then data
@@ -452,7 +520,9 @@ public class TransformedRecordSerializer<M extends Message> implements RecordSer
                     inner,
                     compressWhenSerializing,
                     compressionLevel,
-                    encryptWhenSerializing
+                    encryptWhenSerializing,
+                    getCompressionCodec(),
+                    additionalDecompressionCodecs
             );
         }
     }
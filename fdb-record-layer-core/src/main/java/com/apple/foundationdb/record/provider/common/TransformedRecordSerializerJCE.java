@@ -31,6 +31,8 @@ import javax.crypto.spec.IvParameterSpec;
 import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Collections;
 
 /**
  * An extension of {@link TransformedRecordSerializer} to use JCE to encrypt and decrypt records.
@@ -53,7 +55,22 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
                                              @Nullable String cipherName,
                                              @Nullable Key encryptionKey,
                                              @Nullable SecureRandom secureRandom) {
-        super(inner, compressWhenSerializing, compressionLevel, encryptWhenSerializing);
+        this(inner, compressWhenSerializing, compressionLevel, encryptWhenSerializing,
+                new DeflateCompressionCodec(compressionLevel), Collections.emptyList(),
+                cipherName, encryptionKey, secureRandom);
+    }
+
+    protected TransformedRecordSerializerJCE(@Nonnull RecordSerializer<M> inner,
+                                             boolean compressWhenSerializing,
+                                             int compressionLevel,
+                                             boolean encryptWhenSerializing,
+                                             @Nonnull CompressionCodec compressionCodec,
+                                             @Nonnull Collection<CompressionCodec> additionalDecompressionCodecs,
+                                             @Nullable String cipherName,
+                                             @Nullable Key encryptionKey,
+                                             @Nullable SecureRandom secureRandom) {
+        super(inner, compressWhenSerializing, compressionLevel, encryptWhenSerializing,
+                compressionCodec, additionalDecompressionCodecs);
         this.cipherName = cipherName;
         this.encryptionKey = encryptionKey;
         this.secureRandom = secureRandom;
@@ -69,7 +86,7 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
         byte[] ivData = new byte[CipherPool.IV_SIZE];
         secureRandom.nextBytes(ivData);
         IvParameterSpec iv = new IvParameterSpec(ivData);
-        Cipher cipher = CipherPool.borrowCipher(cipherName);
+        Cipher cipher = CipherPool.borrowCipher(cipherName, timer);
         try {
             cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, iv);
 
@@ -103,7 +120,7 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
 
         byte[] cipherText = new byte[state.length - CipherPool.IV_SIZE];
         System.arraycopy(state.data, state.offset + CipherPool.IV_SIZE, cipherText, 0, cipherText.length);
-        Cipher cipher = CipherPool.borrowCipher(cipherName);
+        Cipher cipher = CipherPool.borrowCipher(cipherName, timer);
         try {
             cipher.init(Cipher.DECRYPT_MODE, encryptionKey, iv);
 
@@ -177,6 +194,18 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
             return this;
         }
 
+        @Override
+        public Builder<M> setCompressionCodec(@Nonnull CompressionCodec compressionCodec) {
+            super.setCompressionCodec(compressionCodec);
+            return this;
+        }
+
+        @Override
+        public Builder<M> addDecompressionCodec(@Nonnull CompressionCodec compressionCodec) {
+            super.addDecompressionCodec(compressionCodec);
+            return this;
+        }
+
         /**
          * Whether to encrypt records after serializing. Should
          * compression and encryption both be set, then data
@@ -283,6 +312,8 @@ public class TransformedRecordSerializerJCE<M extends Message> extends Transform
                     compressWhenSerializing,
                     compressionLevel,
                     encryptWhenSerializing,
+                    getCompressionCodec(),
+                    additionalDecompressionCodecs,
                     cipherName,
                     encryptionKey,
                     secureRandom
@@ -38,6 +38,7 @@ import com.apple.foundationdb.record.provider.foundationdb.keyspace.ResolverResu
 import com.apple.foundationdb.record.provider.foundationdb.keyspace.ScopedValue;
 import com.apple.foundationdb.record.provider.foundationdb.storestate.FDBRecordStoreStateCache;
 import com.apple.foundationdb.record.provider.foundationdb.storestate.PassThroughRecordStoreStateCache;
+import com.apple.foundationdb.record.query.plan.RecordQueryPlanCache;
 import com.apple.foundationdb.tuple.Tuple;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
@@ -134,6 +135,10 @@ public class FDBDatabase {
     private final long reverseDirectoryMaxMillisPerTransaction;
     @Nonnull
     private FDBRecordStoreStateCache storeStateCache = PassThroughRecordStoreStateCache.instance();
+    @Nullable
+    private RecordQueryPlanCache queryPlanCache;
+    @Nullable
+    private FDBDatabaseRecordCache recordCache;
     private final Supplier<Boolean> transactionIsTracedSupplier;
     private final long warnAndCloseOpenContextsAfterSeconds;
     // The number of cache entries to maintain in memory
@@ -711,6 +716,57 @@ public class FDBDatabase {
         this.storeStateCache = storeStateCache;
     }
 
+    /**
+     * Get the query plan cache for this database. If set, this cache is used by record stores associated with this
+     * database to reuse plans across transactions.
+     *
+     * @return the query plan cache for this database or {@code null} if plans are not cached
+     * @see RecordQueryPlanCache
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nullable
+    public RecordQueryPlanCache getQueryPlanCache() {
+        return queryPlanCache;
+    }
+
+    /**
+     * Set the query plan cache for this database. The provided cache will be consulted by
+     * {@link FDBRecordStore#planQuery} before invoking the planner.
+     * By default, there is no plan cache and every query is planned from scratch.
+     *
+     * @param queryPlanCache the query plan cache or {@code null} to disable plan caching
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public void setQueryPlanCache(@Nullable RecordQueryPlanCache queryPlanCache) {
+        this.queryPlanCache = queryPlanCache;
+    }
+
+    /**
+     * Get the record cache for this database. If set, this cache is used by record stores associated with this
+     * database to share records loaded by one transaction with later ones.
+     *
+     * @return the record cache for this database or {@code null} if records are not cached across transactions
+     * @see FDBDatabaseRecordCache
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nullable
+    public FDBDatabaseRecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    /**
+     * Set the record cache for this database. The provided cache will be consulted by
+     * {@link FDBRecordStore#loadRecordAsync} for stores whose records have been marked
+     * {@linkplain FDBRecordStore#setRecordCacheabilityAsync(boolean) cacheable}.
+     * By default, there is no record cache and every record is read from the database.
+     *
+     * @param recordCache the record cache or {@code null} to disable record caching
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public void setRecordCache(@Nullable FDBDatabaseRecordCache recordCache) {
+        this.recordCache = recordCache;
+    }
+
     @VisibleForTesting
     @API(API.Status.INTERNAL)
     public void clearCaches() {
@@ -718,6 +774,12 @@ public class FDBDatabase {
         clearForwardDirectoryCache();
         clearReverseDirectoryCache();
         storeStateCache.clear();
+        if (queryPlanCache != null) {
+            queryPlanCache.clear();
+        }
+        if (recordCache != null) {
+            recordCache.clear();
+        }
     }
 
     public synchronized void close() {
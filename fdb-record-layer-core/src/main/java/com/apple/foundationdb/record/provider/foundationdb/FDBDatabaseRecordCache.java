@@ -0,0 +1,217 @@
+/*
+ * FDBDatabaseRecordCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordMetaData;
+import com.apple.foundationdb.record.provider.common.RecordSerializer;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A bounded cache of deserialized records that is shared by all the transactions of an {@link FDBDatabase}.
+ *
+ * <p>
+ * Only records from stores that have opted in with {@link FDBRecordStore#setRecordCacheabilityAsync(boolean)}
+ * are cached. Every change to the records of such a store sets a per-store key to the committing transaction's
+ * version-stamp, in the same way that a cacheable store state updates the
+ * {@linkplain FDBRecordContext#getMetaDataVersionStampAsync meta-data version-stamp}. Each cached record
+ * remembers the value of that key when it was read, and is only returned to a transaction that reads the same
+ * value. Because that read is done at the same isolation level as the record load, a transaction that uses a
+ * cached record conflicts with any concurrent change to the store, just as if it had read the record itself.
+ * This does mean that, for a store whose records change frequently, the cache will rarely hit and will add
+ * conflicts between transactions that would otherwise touch different records. It is intended for small sets of
+ * records that are read far more often than they are written.
+ * </p>
+ *
+ * <p>
+ * A transaction that has itself changed the records of a store does not use or populate the cache for that store.
+ * Records are also keyed by the {@link RecordMetaData} (by identity) and the {@link RecordSerializer} that
+ * deserialized them, so that a record is never returned with a different interpretation. Entries are evicted in
+ * least-recently-used order once the cache reaches its maximum size.
+ * </p>
+ *
+ * @see FDBDatabase#setRecordCache(FDBDatabaseRecordCache)
+ */
+@API(API.Status.EXPERIMENTAL)
+public class FDBDatabaseRecordCache {
+    /**
+     * The default maximum number of records to retain.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+
+    @Nonnull
+    private final Cache<Key, Entry> cache;
+
+    public FDBDatabaseRecordCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public FDBDatabaseRecordCache(long maxSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Get a cached record, if one was read at the given version of its store.
+     *
+     * @param subspace the subspace of the record store
+     * @param primaryKey the primary key of the record
+     * @param cacheVersion the current value of the store's record cache version key
+     * @param metaData the meta-data of the record store
+     * @param serializer the serializer the record is to be deserialized with
+     * @param <M> type used to represent stored records
+     * @return a cache entry, whose record may be {@code null} if the record was found not to exist, or {@code null}
+     * if there is no usable entry
+     */
+    @Nullable
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
+    <M extends Message> Entry get(@Nonnull Subspace subspace, @Nonnull Tuple primaryKey, @Nonnull byte[] cacheVersion,
+                                  @Nonnull RecordMetaData metaData, @Nonnull RecordSerializer<M> serializer) {
+        final Entry entry = cache.getIfPresent(new Key(subspace, primaryKey));
+        if (entry != null && Arrays.equals(entry.cacheVersion, cacheVersion) &&
+                entry.metaData == metaData && entry.metaDataVersion == metaData.getVersion() && entry.serializer == serializer) {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Add a record that was read at the given version of its store. An existing entry read at a later version
+     * is kept instead.
+     *
+     * @param subspace the subspace of the record store
+     * @param primaryKey the primary key of the record
+     * @param cacheVersion the value of the store's record cache version key when the record was read
+     * @param metaData the meta-data of the record store
+     * @param serializer the serializer the record was deserialized with
+     * @param record the record or {@code null} if it does not exist
+     * @param <M> type used to represent stored records
+     */
+    <M extends Message> void put(@Nonnull Subspace subspace, @Nonnull Tuple primaryKey, @Nonnull byte[] cacheVersion,
+                                 @Nonnull RecordMetaData metaData, @Nonnull RecordSerializer<M> serializer,
+                                 @Nullable FDBStoredRecord<M> record) {
+        final Entry entry = new Entry(cacheVersion, metaData, serializer, record);
+        cache.asMap().merge(new Key(subspace, primaryKey), entry,
+                (entry1, entry2) -> ByteArrayUtil.compareUnsigned(entry1.cacheVersion, entry2.cacheVersion) > 0 ? entry1 : entry2);
+    }
+
+    /**
+     * Get the approximate number of records in the cache.
+     * @return the number of cached records
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the hit and miss statistics of this cache. These count lookups of any entry for a record, including ones
+     * that turn out to have been read at a different version of the store.
+     * @return the cache statistics
+     */
+    @Nonnull
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Remove all records from the cache.
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * A cached record.
+     */
+    static final class Entry {
+        @Nonnull
+        private final byte[] cacheVersion;
+        @Nonnull
+        private final RecordMetaData metaData;
+        private final int metaDataVersion;
+        @Nonnull
+        private final RecordSerializer<?> serializer;
+        @Nullable
+        private final FDBStoredRecord<?> record;
+
+        private Entry(@Nonnull byte[] cacheVersion, @Nonnull RecordMetaData metaData, @Nonnull RecordSerializer<?> serializer,
+                      @Nullable FDBStoredRecord<?> record) {
+            this.cacheVersion = cacheVersion;
+            this.metaData = metaData;
+            this.metaDataVersion = metaData.getVersion();
+            this.serializer = serializer;
+            this.record = record;
+        }
+
+        /**
+         * Get the cached record.
+         * @param <M> type used to represent stored records, which matches the serializer the entry was found with
+         * @return the record or {@code null} if it did not exist
+         */
+        @Nullable
+        @SuppressWarnings("unchecked")
+        <M extends Message> FDBStoredRecord<M> getRecord() {
+            return (FDBStoredRecord<M>)record;
+        }
+    }
+
+    private static final class Key {
+        @Nonnull
+        private final Subspace subspace;
+        @Nonnull
+        private final Tuple primaryKey;
+
+        private Key(@Nonnull Subspace subspace, @Nonnull Tuple primaryKey) {
+            this.subspace = subspace;
+            this.primaryKey = primaryKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key that = (Key)o;
+            return subspace.equals(that.subspace) && primaryKey.equals(that.primaryKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(subspace, primaryKey);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * FDBKeyEvaluationSharingRecord.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.metadata.Key;
+import com.apple.foundationdb.record.metadata.RecordType;
+import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
+import com.apple.foundationdb.record.metadata.expressions.KeyExpressionEvaluationCache;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A record being indexed that remembers the evaluation of nested key expressions, so that the maintainers of all the
+ * indexes on its record type can share the traversal of nested fields.
+ * @param <M> type used to represent stored records
+ * @see KeyExpressionEvaluationCache
+ */
+@API(API.Status.INTERNAL)
+class FDBKeyEvaluationSharingRecord<M extends Message> implements FDBIndexableRecord<M>, KeyExpressionEvaluationCache {
+    @Nonnull
+    private final FDBIndexableRecord<M> record;
+    // Created on first use, since many record types do not have any nested indexes.
+    @Nullable
+    private Map<CacheKey, List<Key.Evaluated>> evaluated;
+
+    FDBKeyEvaluationSharingRecord(@Nonnull FDBIndexableRecord<M> record) {
+        this.record = record;
+    }
+
+    @Nullable
+    static <M extends Message> FDBIndexableRecord<M> wrap(@Nullable FDBIndexableRecord<M> record) {
+        return record == null ? null : new FDBKeyEvaluationSharingRecord<>(record);
+    }
+
+    @Nonnull
+    @Override
+    public List<Key.Evaluated> computeIfAbsent(@Nonnull KeyExpression expression, @Nonnull Message message,
+                                               @Nonnull Supplier<List<Key.Evaluated>> evaluation) {
+        final CacheKey key = new CacheKey(expression, message);
+        synchronized (this) {
+            if (evaluated != null) {
+                final List<Key.Evaluated> existing = evaluated.get(key);
+                if (existing != null) {
+                    return new ArrayList<>(existing);
+                }
+            }
+        }
+        // Evaluate without holding the lock, since the evaluation will itself look up nested expressions.
+        final List<Key.Evaluated> result = evaluation.get();
+        synchronized (this) {
+            if (evaluated == null) {
+                evaluated = new HashMap<>();
+            }
+            // Callers are free to modify the returned list, so keep a separate copy.
+            evaluated.putIfAbsent(key, new ArrayList<>(result));
+        }
+        return result;
+    }
+
+    @Nonnull
+    @Override
+    public Tuple getPrimaryKey() {
+        return record.getPrimaryKey();
+    }
+
+    @Nonnull
+    @Override
+    public RecordType getRecordType() {
+        return record.getRecordType();
+    }
+
+    @Nonnull
+    @Override
+    public M getRecord() {
+        return record.getRecord();
+    }
+
+    @Override
+    public boolean hasVersion() {
+        return record.hasVersion();
+    }
+
+    @Nullable
+    @Override
+    public FDBRecordVersion getVersion() {
+        return record.getVersion();
+    }
+
+    @Override
+    public int getKeyCount() {
+        return record.getKeyCount();
+    }
+
+    @Override
+    public int getKeySize() {
+        return record.getKeySize();
+    }
+
+    @Override
+    public int getValueSize() {
+        return record.getValueSize();
+    }
+
+    @Override
+    public boolean isSplit() {
+        return record.isSplit();
+    }
+
+    @Override
+    public boolean isVersionedInline() {
+        return record.isVersionedInline();
+    }
+
+    @Override
+    public String toString() {
+        return record.toString();
+    }
+
+    private static final class CacheKey {
+        @Nonnull
+        private final KeyExpression expression;
+        @Nonnull
+        private final Message message;
+
+        CacheKey(@Nonnull KeyExpression expression, @Nonnull Message message) {
+            this.expression = expression;
+            this.message = message;
+        }
+
+        @Override
+        @SuppressWarnings("PMD.CompareObjectsWithEquals")
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final CacheKey that = (CacheKey)o;
+            return message == that.message && expression.equals(that.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(message) + expression.hashCode();
+        }
+    }
+}
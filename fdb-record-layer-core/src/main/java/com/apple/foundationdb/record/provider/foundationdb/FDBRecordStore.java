@@ -20,6 +20,8 @@
 
 package com.apple.foundationdb.record.provider.foundationdb;
 
+import com.apple.foundationdb.FDBError;
+import com.apple.foundationdb.FDBException;
 import com.apple.foundationdb.KeyValue;
 import com.apple.foundationdb.MappedKeyValue;
 import com.apple.foundationdb.MutationType;
@@ -40,6 +42,7 @@ import com.apple.foundationdb.record.EndpointType;
 import com.apple.foundationdb.record.EvaluationContext;
 import com.apple.foundationdb.record.ExecuteProperties;
 import com.apple.foundationdb.record.ExecuteState;
+import com.apple.foundationdb.record.FDBRecordStoreProperties;
 import com.apple.foundationdb.record.FunctionNames;
 import com.apple.foundationdb.record.IndexBuildProto;
 import com.apple.foundationdb.record.IndexEntry;
@@ -78,6 +81,7 @@ import com.apple.foundationdb.record.metadata.expressions.EmptyKeyExpression;
 import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
 import com.apple.foundationdb.record.provider.common.DynamicMessageRecordSerializer;
 import com.apple.foundationdb.record.provider.common.RecordSerializer;
+import com.apple.foundationdb.record.provider.foundationdb.cursors.ParallelScanCursor;
 import com.apple.foundationdb.record.provider.foundationdb.indexing.IndexingRangeSet;
 import com.apple.foundationdb.record.provider.foundationdb.keyspace.KeySpacePath;
 import com.apple.foundationdb.record.provider.foundationdb.storestate.FDBRecordStoreStateCache;
@@ -89,6 +93,7 @@ import com.apple.foundationdb.record.query.expressions.AndComponent;
 import com.apple.foundationdb.record.query.expressions.Query;
 import com.apple.foundationdb.record.query.expressions.QueryComponent;
 import com.apple.foundationdb.record.query.expressions.RecordTypeKeyComparison;
+import com.apple.foundationdb.record.query.plan.RecordQueryPlanCache;
 import com.apple.foundationdb.record.query.plan.RecordQueryPlanner;
 import com.apple.foundationdb.record.query.plan.RecordQueryPlannerConfiguration;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
@@ -115,6 +120,7 @@ import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -194,9 +200,11 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     public static final int READABLE_UNIQUE_PENDING_FORMAT_VERSION = 9;
     // 10 - check index build type during update
     public static final int CHECK_INDEX_BUILD_TYPE_DURING_UPDATE_FORMAT_VERSION = 10;
+    // 11 - allow records to be cached across transactions and invalidated with a per-store version-stamp key
+    public static final int RECORD_CACHE_FORMAT_VERSION = 11;
 
     // The current code can read and write up to the format version below
-    public static final int MAX_SUPPORTED_FORMAT_VERSION = CHECK_INDEX_BUILD_TYPE_DURING_UPDATE_FORMAT_VERSION;
+    public static final int MAX_SUPPORTED_FORMAT_VERSION = RECORD_CACHE_FORMAT_VERSION;
 
     // By default, record stores attempt to upgrade to this version
     // NOTE: Updating this can break certain users during upgrades.
@@ -223,6 +231,8 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     protected static final Object INDEX_UNIQUENESS_VIOLATIONS_KEY = FDBRecordStoreKeyspace.INDEX_UNIQUENESS_VIOLATIONS_SPACE.key();
     protected static final Object RECORD_VERSION_KEY = FDBRecordStoreKeyspace.RECORD_VERSION_SPACE.key();
     protected static final Object INDEX_BUILD_SPACE_KEY = FDBRecordStoreKeyspace.INDEX_BUILD_SPACE.key();
+    protected static final Object INDEX_STATISTICS_SPACE_KEY = FDBRecordStoreKeyspace.INDEX_STATISTICS_SPACE.key();
+    protected static final Object RECORD_CACHE_VERSION_KEY = FDBRecordStoreKeyspace.RECORD_CACHE_VERSION.key();
 
     @SuppressWarnings("squid:S2386")
     @SpotBugsSuppressWarnings("MS_MUTABLE_ARRAY")
@@ -233,6 +243,8 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     @SuppressWarnings("squid:S2386")
     @SpotBugsSuppressWarnings("MS_MUTABLE_ARRAY")
     public static final byte[] INT64_ZERO = { 0, 0, 0, 0, 0, 0, 0, 0 };
+    // An incomplete version-stamp followed by its (little-endian) offset within the value.
+    private static final byte[] RECORD_CACHE_VERSION_STAMP_VALUE = new byte[FDBRecordVersion.GLOBAL_VERSION_LENGTH + Integer.BYTES];
 
     protected int formatVersion;
     protected int userVersion;
@@ -444,6 +456,7 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         recordBuilder.setVersion(recordVersion);
         final Tuple primaryKey = primaryKeyExpression.evaluateSingleton(recordBuilder).toTuple();
         recordBuilder.setPrimaryKey(primaryKey);
+        invalidateRecordCache();
 
         final CompletableFuture<FDBStoredRecord<M>> result = loadExistingRecord(typedSerializer, primaryKey).thenCompose(oldRecord -> {
             if (oldRecord == null) {
@@ -574,13 +587,16 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         } else {
             sameRecordType = null;
         }
+        // Let the maintainers of all the indexes on the record share the evaluation of nested key expressions.
+        final FDBIndexableRecord<M> indexedOldRecord = FDBKeyEvaluationSharingRecord.wrap(oldRecord);
+        final FDBIndexableRecord<M> indexedNewRecord = FDBKeyEvaluationSharingRecord.wrap(newRecord);
         beginRecordStoreStateRead();
         boolean haveFuture = false;
         try {
             if (sameRecordType != null) {
-                updateSecondaryIndexes(oldRecord, newRecord, futures, getEnabledIndexes(sameRecordType));
-                updateSecondaryIndexes(oldRecord, newRecord, futures, getEnabledUniversalIndexes());
-                updateSecondaryIndexes(oldRecord, newRecord, futures, getEnabledMultiTypeIndexes(sameRecordType));
+                updateSecondaryIndexes(indexedOldRecord, indexedNewRecord, futures, getEnabledIndexes(sameRecordType));
+                updateSecondaryIndexes(indexedOldRecord, indexedNewRecord, futures, getEnabledUniversalIndexes());
+                updateSecondaryIndexes(indexedOldRecord, indexedNewRecord, futures, getEnabledMultiTypeIndexes(sameRecordType));
             } else {
                 final List<Index> oldIndexes = new ArrayList<>();
                 if (oldRecord != null) {
@@ -600,9 +616,9 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                 commonIndexes.retainAll(newIndexes);
                 oldIndexes.removeAll(commonIndexes);
                 newIndexes.removeAll(commonIndexes);
-                updateSecondaryIndexes(oldRecord, null, futures, oldIndexes);
-                updateSecondaryIndexes(null, newRecord, futures, newIndexes);
-                updateSecondaryIndexes(oldRecord, newRecord, futures, commonIndexes);
+                updateSecondaryIndexes(indexedOldRecord, null, futures, oldIndexes);
+                updateSecondaryIndexes(null, indexedNewRecord, futures, newIndexes);
+                updateSecondaryIndexes(indexedOldRecord, indexedNewRecord, futures, commonIndexes);
             }
             if (!getRecordMetaData().getSyntheticRecordTypes().isEmpty()) {
                 updateSyntheticIndexes(oldRecord, newRecord, futures);
@@ -848,6 +864,17 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         return getSubspace().subspace(Tuple.from(INDEX_BUILD_SPACE_KEY, index.getSubspaceTupleKey()));
     }
 
+    /**
+     * Key under which the {@link IndexStatistics} of the given index are stored.
+     * @param index the index to retrieve the statistics key for
+     * @return the key for the statistics of the given index
+     * @see IndexStatisticsCollector
+     */
+    @Nonnull
+    public byte[] indexStatisticsKey(@Nonnull Index index) {
+        return getSubspace().pack(Tuple.from(INDEX_STATISTICS_SPACE_KEY, index.getSubspaceTupleKey()));
+    }
+
     /**
      * Get the maintainer for a given index.
      * @param index the required index
@@ -898,6 +925,50 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                                                                                         @Nonnull final Tuple primaryKey,
                                                                                         @Nonnull ExecuteState executeState,
                                                                                         final boolean snapshot) {
+        final FDBDatabaseRecordCache recordCache = isRecordCacheableInternal() ? context.getDatabase().getRecordCache() : null;
+        final CompletableFuture<FDBStoredRecord<M>> result;
+        if (recordCache == null) {
+            result = loadTypedRecordFromDatabase(typedSerializer, primaryKey, executeState, snapshot);
+        } else {
+            result = loadTypedRecordThroughCache(recordCache, typedSerializer, primaryKey, executeState, snapshot);
+        }
+        return context.instrument(FDBStoreTimer.Events.LOAD_RECORD, result);
+    }
+
+    @Nonnull
+    private <M extends Message> CompletableFuture<FDBStoredRecord<M>> loadTypedRecordThroughCache(@Nonnull FDBDatabaseRecordCache recordCache,
+                                                                                                  @Nonnull RecordSerializer<M> typedSerializer,
+                                                                                                  @Nonnull final Tuple primaryKey,
+                                                                                                  @Nonnull ExecuteState executeState,
+                                                                                                  final boolean snapshot) {
+        final RecordMetaData metaData = metaDataProvider.getRecordMetaData();
+        return loadRecordCacheVersionAsync(snapshot).thenCompose(cacheVersion -> {
+            if (cacheVersion == null) {
+                // This transaction has changed the records, so what it reads cannot be shared.
+                return loadTypedRecordFromDatabase(typedSerializer, primaryKey, executeState, snapshot);
+            }
+            final FDBDatabaseRecordCache.Entry entry = recordCache.get(getSubspace(), primaryKey, cacheVersion, metaData, typedSerializer);
+            if (entry != null) {
+                increment(FDBStoreTimer.Counts.RECORD_CACHE_HIT);
+                return CompletableFuture.completedFuture(entry.<M>getRecord());
+            }
+            increment(FDBStoreTimer.Counts.RECORD_CACHE_MISS);
+            return loadTypedRecordFromDatabase(typedSerializer, primaryKey, executeState, snapshot)
+                    .thenCompose(rec -> loadRecordCacheVersionAsync(snapshot).thenApply(currentCacheVersion -> {
+                        // Check again in case this transaction changed the records while the record was being loaded.
+                        if (currentCacheVersion != null && Arrays.equals(cacheVersion, currentCacheVersion)) {
+                            recordCache.put(getSubspace(), primaryKey, cacheVersion, metaData, typedSerializer, rec);
+                        }
+                        return rec;
+                    }));
+        });
+    }
+
+    @Nonnull
+    private <M extends Message> CompletableFuture<FDBStoredRecord<M>> loadTypedRecordFromDatabase(@Nonnull RecordSerializer<M> typedSerializer,
+                                                                                                  @Nonnull final Tuple primaryKey,
+                                                                                                  @Nonnull ExecuteState executeState,
+                                                                                                  final boolean snapshot) {
         final RecordMetaData metaData = metaDataProvider.getRecordMetaData();
 
         final Optional<CompletableFuture<FDBRecordVersion>> versionFutureOptional;
@@ -908,7 +979,7 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         }
 
         final SplitHelper.SizeInfo sizeInfo = new SplitHelper.SizeInfo();
-        CompletableFuture<FDBStoredRecord<M>> result = loadRawRecordAsync(primaryKey, sizeInfo, snapshot)
+        return loadRawRecordAsync(primaryKey, sizeInfo, snapshot)
                 .thenCompose(rawRecord -> {
                     final ByteScanLimiter byteScanLimiter = executeState.getByteScanLimiter();
                     if (byteScanLimiter != null) {
@@ -917,7 +988,156 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                     return rawRecord == null ? CompletableFuture.completedFuture(null) :
                             deserializeRecord(typedSerializer, rawRecord, metaData, versionFutureOptional);
                 });
-        return context.instrument(FDBStoreTimer.Events.LOAD_RECORD, result);
+    }
+
+    @Override
+    @Nonnull
+    public CompletableFuture<List<FDBStoredRecord<Message>>> loadRecordsInternal(@Nonnull final List<Tuple> primaryKeys,
+                                                                                 @Nonnull final ExecuteState executeState,
+                                                                                 final boolean snapshot) {
+        return loadTypedRecords(serializer, primaryKeys, executeState, snapshot);
+    }
+
+    @Nonnull
+    protected <M extends Message> CompletableFuture<List<FDBStoredRecord<M>>> loadTypedRecords(@Nonnull RecordSerializer<M> typedSerializer,
+                                                                                              @Nonnull final List<Tuple> primaryKeys,
+                                                                                              @Nonnull final ExecuteState executeState,
+                                                                                              final boolean snapshot) {
+        final CompletableFuture<List<FDBStoredRecord<M>>> result = RecordCursor.fromList(getExecutor(), adjacentPrimaryKeyRuns(primaryKeys))
+                .mapPipelined(run -> loadTypedRecordRun(typedSerializer, run, executeState, snapshot), getPipelineSize(PipelineOperation.KEY_TO_RECORD))
+                .asList()
+                .thenApply(loadedRuns -> {
+                    final Map<Tuple, FDBStoredRecord<M>> loaded = new HashMap<>();
+                    for (List<FDBStoredRecord<M>> loadedRun : loadedRuns) {
+                        for (FDBStoredRecord<M> rec : loadedRun) {
+                            loaded.put(rec.getPrimaryKey(), rec);
+                        }
+                    }
+                    final List<FDBStoredRecord<M>> records = new ArrayList<>(primaryKeys.size());
+                    for (Tuple primaryKey : primaryKeys) {
+                        records.add(loaded.get(primaryKey));
+                    }
+                    return records;
+                });
+        return context.instrument(FDBStoreTimer.Events.LOAD_RECORDS, result);
+    }
+
+    /**
+     * Sort the given primary keys and group them into runs that can each be read with a single range read.
+     * @param primaryKeys the primary keys to be loaded
+     * @return a list of runs of distinct primary keys
+     */
+    @Nonnull
+    private List<List<Tuple>> adjacentPrimaryKeyRuns(@Nonnull final List<Tuple> primaryKeys) {
+        // Keys that may be cached are loaded one at a time, as are all of them if range reads have been turned off.
+        // A range between adjacent keys of one length might include a longer key, unless all keys have the same length.
+        final boolean useRecordCache = isRecordCacheableInternal() && context.getDatabase().getRecordCache() != null;
+        final boolean coalesce = !useRecordCache &&
+                !Boolean.TRUE.equals(context.getPropertyStorage().getPropertyValue(FDBRecordStoreProperties.LOAD_RECORDS_VIA_GETS)) &&
+                RecordMetaData.commonPrimaryKeyLength(getRecordMetaData().getRecordTypes().values()) > 0;
+        final List<Tuple> sortedKeys = primaryKeys.stream().distinct().sorted().collect(Collectors.toList());
+        final List<List<Tuple>> runs = new ArrayList<>();
+        List<Tuple> run = null;
+        for (Tuple primaryKey : sortedKeys) {
+            if (!coalesce || preloadCache.get(primaryKey) != null) {
+                runs.add(Collections.singletonList(primaryKey));
+                run = null;
+            } else if (run != null && isAdjacentPrimaryKey(run.get(run.size() - 1), primaryKey)) {
+                run.add(primaryKey);
+            } else {
+                run = new ArrayList<>();
+                run.add(primaryKey);
+                runs.add(run);
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Determine whether no other primary key can sort between the given ones, because they only differ by one in
+     * their final, integral element. Provided that every primary key has the same length, a range read from the
+     * first to the second then only returns those two records.
+     * @param previous the lesser primary key
+     * @param next the greater primary key
+     * @return {@code true} if the primary keys are adjacent
+     */
+    private static boolean isAdjacentPrimaryKey(@Nonnull Tuple previous, @Nonnull Tuple next) {
+        final int size = previous.size();
+        if (size == 0 || next.size() != size) {
+            return false;
+        }
+        final Object previousLast = previous.get(size - 1);
+        final Object nextLast = next.get(size - 1);
+        if (!isIntegral(previousLast) || !isIntegral(nextLast)) {
+            return false;
+        }
+        final long previousValue = ((Number)previousLast).longValue();
+        if (previousValue == Long.MAX_VALUE || ((Number)nextLast).longValue() != previousValue + 1) {
+            return false;
+        }
+        return size == 1 || previous.popBack().equals(next.popBack());
+    }
+
+    private static boolean isIntegral(@Nullable Object element) {
+        return element instanceof Long || element instanceof Integer || element instanceof Short || element instanceof Byte;
+    }
+
+    @Nonnull
+    private <M extends Message> CompletableFuture<List<FDBStoredRecord<M>>> loadTypedRecordRun(@Nonnull RecordSerializer<M> typedSerializer,
+                                                                                               @Nonnull final List<Tuple> run,
+                                                                                               @Nonnull final ExecuteState executeState,
+                                                                                               final boolean snapshot) {
+        if (run.size() == 1) {
+            return loadTypedRecord(typedSerializer, run.get(0), executeState, snapshot)
+                    .thenApply(rec -> rec == null ? Collections.emptyList() : Collections.singletonList(rec));
+        }
+        final ScanProperties scanProperties = new ScanProperties(ExecuteProperties.newBuilder()
+                .setIsolationLevel(snapshot ? IsolationLevel.SNAPSHOT : IsolationLevel.SERIALIZABLE)
+                .setDefaultCursorStreamingMode(CursorStreamingMode.WANT_ALL)
+                .build());
+        return scanTypedRecords(typedSerializer, run.get(0), run.get(run.size() - 1),
+                EndpointType.RANGE_INCLUSIVE, EndpointType.RANGE_INCLUSIVE, null, scanProperties)
+                .asList()
+                .thenApply(records -> {
+                    // As with loading each record, the bytes are counted without stopping the read part way.
+                    final ByteScanLimiter byteScanLimiter = executeState.getByteScanLimiter();
+                    if (byteScanLimiter != null) {
+                        for (FDBStoredRecord<M> rec : records) {
+                            byteScanLimiter.registerScannedBytes((long)rec.getKeySize() + (long)rec.getValueSize());
+                        }
+                    }
+                    return records;
+                });
+    }
+
+    /**
+     * Read the key that is set to the version-stamp of the last transaction to change the records in this store,
+     * while the store's records are {@linkplain #setRecordCacheabilityAsync(boolean) cacheable}.
+     * @param snapshot whether to snapshot read
+     * @return a future that completes with the value of the key or {@code null} if it is unset or has been set
+     * during the course of this transaction
+     */
+    @Nonnull
+    private CompletableFuture<byte[]> loadRecordCacheVersionAsync(final boolean snapshot) {
+        final ReadTransaction tr = snapshot ? ensureContextActive().snapshot() : ensureContextActive();
+        return tr.get(getSubspace().pack(RECORD_CACHE_VERSION_KEY)).handle((val, err) -> {
+            if (err == null) {
+                return val;
+            }
+            final FDBException fdbCause = FDBExceptions.getFDBCause(err);
+            if (fdbCause != null && fdbCause.getCode() == FDBError.ACCESSED_UNREADABLE.code()) {
+                // The key was set with a version-stamp earlier in this transaction.
+                return null;
+            }
+            throw context.getDatabase().mapAsyncToSyncException(err);
+        });
+    }
+
+    private void invalidateRecordCache() {
+        if (isRecordCacheableInternal()) {
+            ensureContextActive().mutate(MutationType.SET_VERSIONSTAMPED_VALUE, getSubspace().pack(RECORD_CACHE_VERSION_KEY),
+                    RECORD_CACHE_VERSION_STAMP_VALUE);
+        }
     }
 
     /**
@@ -1498,6 +1718,7 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     protected <M extends Message> CompletableFuture<Boolean> deleteTypedRecord(@Nonnull RecordSerializer<M> typedSerializer,
                                                                                @Nonnull Tuple primaryKey) {
         preloadCache.invalidate(primaryKey);
+        invalidateRecordCache();
         final RecordMetaData metaData = metaDataProvider.getRecordMetaData();
         CompletableFuture<Boolean> result = loadTypedRecord(typedSerializer, primaryKey, false).thenCompose(oldRecord -> {
             if (oldRecord == null) {
@@ -1583,11 +1804,13 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         Range indexStateRange = indexStateSubspace().range();
         tr.clear(recordsSubspace().getKey(), indexStateRange.begin);
         tr.clear(indexStateRange.end, getSubspace().range().end);
+        invalidateRecordCache();
     }
 
     @Override
     public CompletableFuture<Void> deleteRecordsWhereAsync(@Nonnull QueryComponent component) {
         preloadCache.invalidateAll();
+        invalidateRecordCache();
         return new RecordsWhereDeleter(component).run();
     }
 
@@ -1944,7 +2167,7 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
     @Nonnull
     public RecordQueryPlan planQuery(@Nonnull RecordQuery query, @Nonnull ParameterRelationshipGraph parameterRelationshipGraph) {
         final RecordQueryPlanner planner = new RecordQueryPlanner(getRecordMetaData(), getRecordStoreState());
-        return planner.plan(query, parameterRelationshipGraph);
+        return planQuery(planner, query, parameterRelationshipGraph);
     }
 
     @Override
@@ -1953,7 +2176,17 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
                                      @Nonnull RecordQueryPlannerConfiguration plannerConfiguration) {
         final RecordQueryPlanner planner = new RecordQueryPlanner(getRecordMetaData(), getRecordStoreState());
         planner.setConfiguration(plannerConfiguration);
-        return planner.plan(query, parameterRelationshipGraph);
+        return planQuery(planner, query, parameterRelationshipGraph);
+    }
+
+    @Nonnull
+    private RecordQueryPlan planQuery(@Nonnull RecordQueryPlanner planner, @Nonnull RecordQuery query,
+                                      @Nonnull ParameterRelationshipGraph parameterRelationshipGraph) {
+        final RecordQueryPlanCache planCache = getContext().getDatabase().getQueryPlanCache();
+        if (planCache == null) {
+            return planner.plan(query, parameterRelationshipGraph);
+        }
+        return planCache.plan(planner, query, parameterRelationshipGraph, getTimer());
     }
 
     /**
@@ -2531,6 +2764,7 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         tr.clear(getSubspace().range(Tuple.from(INDEX_SECONDARY_SPACE_KEY)));
         tr.clear(getSubspace().range(Tuple.from(INDEX_RANGE_SPACE_KEY)));
         tr.clear(getSubspace().range(Tuple.from(INDEX_UNIQUENESS_VIOLATIONS_KEY)));
+        tr.clear(getSubspace().range(Tuple.from(INDEX_STATISTICS_SPACE_KEY)));
         List<CompletableFuture<Void>> work = new LinkedList<>();
         addRebuildRecordCountsJob(work);
         return rebuildIndexes(getRecordMetaData().getIndexesToBuildSince(-1), Collections.emptyMap(), work, RebuildIndexReason.REBUILD_ALL, null);
@@ -2703,6 +2937,56 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         return context.asyncToSync(FDBStoreTimer.Waits.WAIT_SET_STATE_CACHEABILITY, setStateCacheabilityAsync(cacheable));
     }
 
+    /**
+     * Set whether the records in this store can be cached across transactions by the database's
+     * {@linkplain FDBDatabase#getRecordCache() record cache}. When they can, every change to the store's records
+     * also sets a per-store key to the committing transaction's version-stamp, which the cache checks to
+     * determine whether a cached record is current. By default, records are <em>not</em> cacheable, because a
+     * transaction that gets a record through the cache conflicts with a concurrent change to <em>any</em> record
+     * in the store, rather than just that record. It is best suited to stores whose records are rarely updated.
+     *
+     * @param cacheable whether this store's records should be cacheable
+     * @return a future that will complete to {@code true} if the records' cacheability has changed
+     * @see FDBDatabaseRecordCache
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public CompletableFuture<Boolean> setRecordCacheabilityAsync(boolean cacheable) {
+        if (recordStoreStateRef.get() == null) {
+            return preloadRecordStoreStateAsync().thenCompose(vignore -> setRecordCacheabilityAsync(cacheable));
+        }
+        if (formatVersion < RECORD_CACHE_FORMAT_VERSION) {
+            throw recordCoreException("cannot mark records cacheable at format version " + formatVersion);
+        }
+        if (isRecordCacheableInternal() == cacheable) {
+            return AsyncUtil.READY_FALSE;
+        } else {
+            // Changes made while the records were not cacheable did not set the key, so set it now.
+            ensureContextActive().mutate(MutationType.SET_VERSIONSTAMPED_VALUE, getSubspace().pack(RECORD_CACHE_VERSION_KEY),
+                    RECORD_CACHE_VERSION_STAMP_VALUE);
+            return updateStoreHeaderAsync(headerBuilder -> headerBuilder.setRecordsCacheable(cacheable))
+                    .thenApply(ignore -> true);
+        }
+    }
+
+    /**
+     * Set whether the records in this store are cacheable. This operation might block if the record store state has
+     * not yet been loaded. Use {@link #setRecordCacheabilityAsync(boolean)} in asynchronous contexts.
+     *
+     * @param cacheable whether this store's records should be cacheable
+     * @return whether the records' cacheability has changed
+     * @see #setRecordCacheabilityAsync(boolean)
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public boolean setRecordCacheability(boolean cacheable) {
+        return context.asyncToSync(FDBStoreTimer.Waits.WAIT_SET_RECORD_CACHEABILITY, setRecordCacheabilityAsync(cacheable));
+    }
+
+    private boolean isRecordCacheableInternal() {
+        final RecordStoreState recordStoreState = recordStoreStateRef.get();
+        return recordStoreState != null && recordStoreState.getStoreHeader().getRecordsCacheable();
+    }
+
     private boolean isStateCacheableInternal() {
         if (recordStoreStateRef.get() == null) {
             throw uninitializedStoreException("cannot check record store state cacheability on uninitialized store");
@@ -4410,6 +4694,7 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         Transaction tr = ensureContextActive();
         tr.clear(Range.startsWith(indexSubspace(index).pack())); // startsWith to handle ungrouped aggregate indexes
         tr.clear(indexSecondarySubspace(index).range());
+        tr.clear(indexStatisticsKey(index));
         IndexingRangeSet.forIndexBuild(this, index).clear();
         if (index.isUnique()) {
             tr.clear(indexUniquenessViolationsSubspace(index).range());
@@ -4442,6 +4727,7 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         tr.clear(getSubspace().range(Tuple.from(INDEX_RANGE_SPACE_KEY, formerIndex.getSubspaceTupleKey())));
         tr.clear(getSubspace().pack(Tuple.from(INDEX_STATE_SPACE_KEY, formerIndex.getSubspaceTupleKey())));
         tr.clear(getSubspace().range(Tuple.from(INDEX_UNIQUENESS_VIOLATIONS_KEY, formerIndex.getSubspaceTupleKey())));
+        tr.clear(getSubspace().pack(Tuple.from(INDEX_STATISTICS_SPACE_KEY, formerIndex.getSubspaceTupleKey())));
         if (getTimer() != null) {
             getTimer().recordSinceNanoTime(FDBStoreTimer.Events.REMOVE_FORMER_INDEX, startTime);
         }
@@ -4565,24 +4851,107 @@ public class FDBRecordStore extends FDBStoreBase implements FDBRecordStoreBase<M
         return getPrimaryKeyBoundaries(range.begin, range.end);
     }
 
-    @SuppressWarnings("PMD.CloseResource")
     private RecordCursor<Tuple> getPrimaryKeyBoundaries(byte[] rangeStart, byte[] rangeEnd) {
+        return getKeyBoundaries(recordsSubspace(), rangeStart, rangeEnd, hasSplitRecordSuffix());
+    }
+
+    @SuppressWarnings("PMD.CloseResource")
+    private RecordCursor<Tuple> getKeyBoundaries(@Nonnull Subspace subspace, byte[] rangeStart, byte[] rangeEnd, boolean hasSplitRecordSuffix) {
         final Transaction transaction = ensureContextActive();
         CloseableAsyncIterator<byte[]> cursor = context.getDatabase().getLocalityProvider().getBoundaryKeys(transaction, rangeStart, rangeEnd);
-        final boolean hasSplitRecordSuffix = hasSplitRecordSuffix();
         DistinctFilterCursorClosure closure = new DistinctFilterCursorClosure();
         return RecordCursor.flatMapPipelined(ignore -> RecordCursor.fromIterator(getExecutor(), cursor),
                 (result, ignore) -> RecordCursor.fromIterator(getExecutor(),
                         transaction.snapshot().getRange(result, rangeEnd, 1).iterator()),
                 null, DEFAULT_PIPELINE_SIZE)
                 .map(keyValue -> {
-                    Tuple recordKey = recordsSubspace().unpack(keyValue.getKey());
-                    return hasSplitRecordSuffix ? recordKey.popBack() : recordKey;
+                    Tuple key = subspace.unpack(keyValue.getKey());
+                    return hasSplitRecordSuffix ? key.popBack() : key;
                 })
                 // The input stream is expected to be sorted so this filter can work to de-duplicate the data.
                 .filter(closure::pred);
     }
 
+    /**
+     * Scan the records in a range by scanning several sub-ranges of it concurrently. The range is divided at the
+     * {@linkplain #getPrimaryKeyBoundaries(TupleRange) primary key boundaries}, so that each sub-range is stored on as
+     * few servers as possible. See {@link ParallelScanCursor} for how the sub-ranges are read and how limits apply.
+     *
+     * <p>
+     * The skip and returned row limit of {@code scanProperties} apply to the whole scan. Other limits are shared by
+     * all the sub-range scans.
+     * </p>
+     *
+     * @param range the range of primary keys to scan
+     * @param continuation any continuation from a previous scan with the same range and parallelism
+     * @param scanProperties skip, limit and other scan properties
+     * @param parallelism the maximum number of sub-ranges to scan at the same time
+     * @param ordered whether records must be returned in primary key order
+     * @return a cursor that will scan the records in the range
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public RecordCursor<FDBStoredRecord<Message>> scanRecordsParallel(@Nonnull TupleRange range, @Nullable byte[] continuation,
+                                                                      @Nonnull ScanProperties scanProperties,
+                                                                      int parallelism, boolean ordered) {
+        final ScanProperties subRangeScanProperties = scanProperties.with(ExecuteProperties::clearSkipAndLimit);
+        final RecordCursor<FDBStoredRecord<Message>> cursor = new ParallelScanCursor.Builder<FDBStoredRecord<Message>>(getExecutor(), range,
+                (subRange, subRangeContinuation) -> scanRecords(subRange, subRangeContinuation, subRangeScanProperties))
+                .setSplitPoints(() -> getPrimaryKeyBoundaries(range).asList())
+                .setParallelism(parallelism)
+                .setOrdered(ordered)
+                .setReverse(scanProperties.isReverse())
+                .setContinuation(continuation)
+                .build();
+        return cursor.skip(scanProperties.getExecuteProperties().getSkip())
+                .limitRowsTo(scanProperties.getExecuteProperties().getReturnedRowLimit());
+    }
+
+    /**
+     * Scan the entries of a value index in a range by scanning several sub-ranges of it concurrently. The range is
+     * divided at the boundaries between the keys stored on each server. See {@link ParallelScanCursor} for how the
+     * sub-ranges are read and how limits apply.
+     *
+     * <p>
+     * The skip and returned row limit of {@code scanProperties} apply to the whole scan. Other limits are shared by
+     * all the sub-range scans.
+     * </p>
+     *
+     * @param index the index to scan
+     * @param range the range of index keys to scan, as for an {@link IndexScanType#BY_VALUE} scan
+     * @param continuation any continuation from a previous scan with the same range and parallelism
+     * @param scanProperties skip, limit and other scan properties
+     * @param parallelism the maximum number of sub-ranges to scan at the same time
+     * @param ordered whether entries must be returned in index order
+     * @return a cursor that will scan the index entries in the range
+     */
+    @API(API.Status.EXPERIMENTAL)
+    @Nonnull
+    public RecordCursor<IndexEntry> scanIndexParallel(@Nonnull Index index, @Nonnull TupleRange range, @Nullable byte[] continuation,
+                                                      @Nonnull ScanProperties scanProperties,
+                                                      int parallelism, boolean ordered) {
+        if (!isIndexScannable(index)) {
+            throw new ScanNonReadableIndexException("Cannot scan non-readable index",
+                    LogMessageKeys.INDEX_NAME, index.getName(),
+                    subspaceProvider.logKey(), subspaceProvider.toString(context));
+        }
+        final ScanProperties subRangeScanProperties = scanProperties.with(ExecuteProperties::clearSkipAndLimit);
+        final Subspace indexSubspace = indexSubspace(index);
+        final RecordCursor<IndexEntry> cursor = new ParallelScanCursor.Builder<IndexEntry>(getExecutor(), range,
+                (subRange, subRangeContinuation) -> scanIndex(index, IndexScanType.BY_VALUE, subRange, subRangeContinuation, subRangeScanProperties))
+                .setSplitPoints(() -> {
+                    final Range keyRange = range.toRange(indexSubspace);
+                    return getKeyBoundaries(indexSubspace, keyRange.begin, keyRange.end, false).asList();
+                })
+                .setParallelism(parallelism)
+                .setOrdered(ordered)
+                .setReverse(scanProperties.isReverse())
+                .setContinuation(continuation)
+                .build();
+        return cursor.skip(scanProperties.getExecuteProperties().getSkip())
+                .limitRowsTo(scanProperties.getExecuteProperties().getReturnedRowLimit());
+    }
+
     private static class DistinctFilterCursorClosure {
         private Tuple previousKey = null;
 
@@ -694,6 +694,51 @@ public interface FDBRecordStoreBase<M extends Message> extends RecordMetaDataPro
     @API(API.Status.INTERNAL)
     CompletableFuture<FDBStoredRecord<M>> loadRecordInternal(@Nonnull Tuple primaryKey, @Nonnull ExecuteState executeState, boolean snapshot);
 
+    /**
+     * Load the records with the given primary keys.
+     * @param primaryKeys the primary keys for the records
+     * @return a list with a {@link FDBStoredRecord} or <code>null</code> for each primary key, in the same order
+     * @see #loadRecordsAsync(List, boolean)
+     */
+    @Nonnull
+    @API(API.Status.EXPERIMENTAL)
+    default List<FDBStoredRecord<M>> loadRecords(@Nonnull final List<Tuple> primaryKeys) {
+        return getContext().asyncToSync(FDBStoreTimer.Waits.WAIT_LOAD_RECORD, loadRecordsAsync(primaryKeys));
+    }
+
+    /**
+     * Asynchronously load several records.
+     * @param primaryKeys the primary keys for the records to be loaded
+     * @return a CompletableFuture that will return a list with a record, or null if there was no record with that key,
+     * for each primary key, in the same order
+     * @see #loadRecordsAsync(List, boolean)
+     */
+    @Nonnull
+    @API(API.Status.EXPERIMENTAL)
+    default CompletableFuture<List<FDBStoredRecord<M>>> loadRecordsAsync(@Nonnull final List<Tuple> primaryKeys) {
+        return loadRecordsAsync(primaryKeys, false);
+    }
+
+    /**
+     * Asynchronously load several records. This is equivalent to calling {@link #loadRecordAsync(Tuple, boolean)}
+     * for each key, but the keys are first sorted and runs of keys that are adjacent, so that no other record can
+     * come between them, are read with a single range read. The number of reads in flight at once is bounded by
+     * the {@link PipelineOperation#KEY_TO_RECORD} pipeline size.
+     * @param primaryKeys the primary keys for the records to be loaded, which may contain duplicates
+     * @param snapshot whether to load at snapshot isolation
+     * @return a CompletableFuture that will return a list with a record, or null if there was no record with that key,
+     * for each primary key, in the same order
+     */
+    @Nonnull
+    @API(API.Status.EXPERIMENTAL)
+    default CompletableFuture<List<FDBStoredRecord<M>>> loadRecordsAsync(@Nonnull List<Tuple> primaryKeys, boolean snapshot) {
+        return loadRecordsInternal(primaryKeys, ExecuteState.NO_LIMITS, snapshot);
+    }
+
+    @Nonnull
+    @API(API.Status.INTERNAL)
+    CompletableFuture<List<FDBStoredRecord<M>>> loadRecordsInternal(@Nonnull List<Tuple> primaryKeys, @Nonnull ExecuteState executeState, boolean snapshot);
+
     /**
      * Get record into FDB RYW cache.
      * Caller needs to hold on to result until ready or else there is a chance it will get
@@ -21,6 +21,7 @@
 package com.apple.foundationdb.record.provider.foundationdb;
 
 import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.provider.common.MappedPool;
 import com.apple.foundationdb.record.provider.common.RecordSerializer;
 import com.apple.foundationdb.record.provider.common.StoreTimer;
 import com.apple.foundationdb.record.provider.foundationdb.keyspace.ExtendedDirectoryLayer;
@@ -94,6 +95,8 @@ public class FDBStoreTimer extends StoreTimer {
         COMMIT_FAILURE("commit transaction with failure"),
         /** The amount of time estimating the size of a key range. See {@link FDBRecordStore#estimateStoreSizeAsync()}. */
         ESTIMATE_SIZE("estimate the size of a key range"),
+        /** The amount of time taken sampling an index to collect its statistics. See {@link IndexStatisticsCollector}. */
+        COLLECT_INDEX_STATISTICS("collect index statistics"),
         /** The amount of time taken persisting meta-data to a {@link FDBMetaDataStore}. */
         SAVE_META_DATA("save meta-data"),
         /** The amount of time taken loading meta-data from a {@link FDBMetaDataStore}. */
@@ -119,6 +122,11 @@ public class FDBStoreTimer extends StoreTimer {
          * This time includes fetching from the database and deserialization.
          */
         LOAD_RECORD("load record"),
+        /**
+         * The amount of time taken loading several records at once by their primary keys.
+         * This time includes fetching from the database and deserialization.
+         */
+        LOAD_RECORDS("load records"),
         /** The amount of time taken scanning records directly without any index. */
         SCAN_RECORDS("scan records"),
         /**
@@ -444,6 +452,8 @@ public class FDBStoreTimer extends StoreTimer {
         WAIT_GET_BOUNDARY("wait for boundary result from locality api"),
         /** Wait for setting the store state cacheability. */
         WAIT_SET_STATE_CACHEABILITY("wait to set state cacheability"),
+        /** Wait for setting the record cacheability. */
+        WAIT_SET_RECORD_CACHEABILITY("wait to set record cacheability"),
         /** Wait for initializing a synchronized session. */
         WAIT_INIT_SYNC_SESSION("wait for initializing a synchronized session"),
         /** Wait for checking a synchronized session. */
@@ -498,6 +508,14 @@ public class FDBStoreTimer extends StoreTimer {
         STORE_STATE_CACHE_HIT("store info cache hit", false),
         /** The number of times the store state cache was unable to return a cached result. */
         STORE_STATE_CACHE_MISS("store info cache miss", false),
+        /** The number of times the query plan cache returned a cached plan. */
+        PLAN_QUERY_CACHE_HIT("plan query cache hit", false),
+        /** The number of times the query plan cache did not have a plan and the query needed to be planned. */
+        PLAN_QUERY_CACHE_MISS("plan query cache miss", false),
+        /** The number of times the database record cache returned a record read by an earlier transaction. */
+        RECORD_CACHE_HIT("record cache hit", false),
+        /** The number of times the database record cache had no current entry and the record was read from the database. */
+        RECORD_CACHE_MISS("record cache miss", false),
         /** The number of record key-value pairs saved. */
         SAVE_RECORD_KEY("number of record keys saved", false, null, true),
         /** The size of keys for record key-value pairs saved. */
@@ -625,6 +643,10 @@ public class FDBStoreTimer extends StoreTimer {
         QUERY_INTERSECTION_PLAN_MATCHES("number of matching records found by RecordQueryIntersectionPlan", false),
         /** The number of non-matching records found by {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryIntersectionPlan}. */
         QUERY_INTERSECTION_PLAN_NONMATCHES("number of non-matching records found by RecordQueryIntersectionPlan", false),
+        /** The number of matching left elements found by {@link com.apple.foundationdb.record.provider.foundationdb.cursors.MergeJoinCursor}. */
+        QUERY_MERGE_JOIN_MATCHES("number of matching left elements found by MergeJoinCursor", false),
+        /** The number of elements skipped without a match by {@link com.apple.foundationdb.record.provider.foundationdb.cursors.MergeJoinCursor}. */
+        QUERY_MERGE_JOIN_NONMATCHES("number of non-matching elements found by MergeJoinCursor", false),
         /** The number of duplicate records found by {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryUnorderedDistinctPlan}. */
         QUERY_UNION_PLAN_DUPLICATES("number of duplicates found by RecordQueryUnorderedDistinctPlan", false),
         /** The number of unique records found by {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryUnorderedDistinctPlan}. */
@@ -635,6 +657,26 @@ public class FDBStoreTimer extends StoreTimer {
         QUERY_AGGREGATE_GROUPS("number of aggregate groups", false),
         /** The max size of aggregate group created by {@link RecordQueryStreamingAggregationPlan}. */
         QUERY_AGGREGATE_GROUP_MAX_SIZE("max size of aggregate group", false),
+        /** The number of build side records added to the table of a hash join of synthetic records. */
+        HASH_JOIN_BUILD_RECORDS("number of records added to hash join build tables", false),
+        /** The number of probe side records looked up in the table of a hash join of synthetic records. */
+        HASH_JOIN_PROBE_RECORDS("number of records probed in hash join build tables", false),
+        /** The number of probe side records that found at least one matching build side record in a hash join. */
+        HASH_JOIN_PROBE_HITS("number of hash join probes with matches", false),
+        /** The number of hash join partitions that exceeded the memory limit and were written to files. */
+        HASH_JOIN_SPILLED_PARTITIONS("number of hash join partitions spilled to files", false),
+        /** The number of build and probe side records written to hash join spill files. */
+        HASH_JOIN_SPILLED_RECORDS("number of records spilled to hash join files", false),
+        /** The number of probe side records of a hash join of synthetic records that were joined by a query instead of the table. */
+        HASH_JOIN_LOOKUPS("number of hash join probe records joined by query", false),
+        /** The number of input records aggregated by a {@link com.apple.foundationdb.record.cursors.aggregate.HashAggregateCursor}. */
+        HASH_AGGREGATE_INPUT_RECORDS("number of records aggregated by hash", false),
+        /** The number of groups returned by a {@link com.apple.foundationdb.record.cursors.aggregate.HashAggregateCursor}. */
+        HASH_AGGREGATE_GROUPS("number of hash aggregate groups", false),
+        /** The number of hash aggregate partitions spilled to files. */
+        HASH_AGGREGATE_SPILLED_PARTITIONS("number of hash aggregate partitions spilled to files", false),
+        /** The number of partial group states written to hash aggregate spill files. */
+        HASH_AGGREGATE_SPILLED_GROUPS("number of groups spilled to hash aggregate files", false),
         /** The number of query plans that include a {@link com.apple.foundationdb.record.query.plan.plans.RecordQueryComparatorPlan}. */
         PLAN_COMPARATOR("number of comparator plans", false),
         /** The number of query plans that include a {@link com.apple.foundationdb.record.query.plan.plans.RecordQuerySelectorPlan}. */
@@ -862,7 +904,9 @@ public class FDBStoreTimer extends StoreTimer {
                 Waits.values(),
                 Counts.values(),
                 CountAggregates.values(),
-                RecordSerializer.Events.values()
+                RecordSerializer.Events.values(),
+                MappedPool.Events.values(),
+                MappedPool.Counts.values()
         ).flatMap(Arrays::stream);
     }
 
@@ -874,6 +918,16 @@ public class FDBStoreTimer extends StoreTimer {
         super();
     }
 
+    /**
+     * Create a new timer, optionally with striped counters for sharing among many concurrent transactions.
+     * @param stripedCounters whether to use striped counters
+     * @see StoreTimer#StoreTimer(boolean)
+     */
+    @API(API.Status.EXPERIMENTAL)
+    public FDBStoreTimer(boolean stripedCounters) {
+        super(stripedCounters);
+    }
+
     @Override
     @Nonnull
     public Set<Aggregate> getAggregates() {
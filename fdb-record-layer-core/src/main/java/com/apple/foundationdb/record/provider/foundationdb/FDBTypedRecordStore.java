@@ -143,6 +143,12 @@ public class FDBTypedRecordStore<M extends Message> implements FDBRecordStoreBas
         return untypedStore.loadTypedRecord(typedSerializer, primaryKey, snapshot);
     }
 
+    @Nonnull
+    @Override
+    public CompletableFuture<List<FDBStoredRecord<M>>> loadRecordsInternal(@Nonnull List<Tuple> primaryKeys, @Nonnull ExecuteState executeState, boolean snapshot) {
+        return untypedStore.loadTypedRecords(typedSerializer, primaryKeys, executeState, snapshot);
+    }
+
     @Nonnull
     @Override
     public CompletableFuture<Void> preloadRecordAsync(@Nonnull Tuple primaryKey) {
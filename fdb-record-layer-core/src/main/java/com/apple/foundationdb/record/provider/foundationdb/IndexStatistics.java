@@ -0,0 +1,255 @@
+/*
+ * IndexStatistics.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.TupleRange;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Statistics about the entries of an index, used to estimate the cardinality of index scans.
+ *
+ * <p>
+ * The statistics consist of:
+ * </p>
+ * <ul>
+ *     <li>an estimate of the number of entries in the index and of their total size in bytes</li>
+ *     <li>for each prefix of the index's key columns, an estimate of the number of distinct values of that prefix</li>
+ *     <li>an equi-depth histogram of the key columns, represented by its bucket boundaries, i.e., each pair of
+ *     adjacent boundaries delimits approximately the same number of index entries</li>
+ * </ul>
+ *
+ * <p>
+ * Statistics are gathered by an {@link IndexStatisticsCollector} and persisted in the record store. As they are
+ * only updated when they are collected again, they can become stale and should only be used as an estimate.
+ * </p>
+ *
+ * @see IndexStatisticsCollector
+ */
+@API(API.Status.EXPERIMENTAL)
+public class IndexStatistics {
+    private static final long FORMAT_VERSION = 1L;
+
+    @Nonnull
+    private final String indexName;
+    private final long entryCount;
+    private final long sizeBytes;
+    private final boolean exact;
+    @Nonnull
+    private final List<Long> distinctPrefixCounts;
+    @Nonnull
+    private final List<Tuple> histogramBoundaries;
+
+    public IndexStatistics(@Nonnull String indexName, long entryCount, long sizeBytes, boolean exact,
+                           @Nonnull List<Long> distinctPrefixCounts, @Nonnull List<Tuple> histogramBoundaries) {
+        this.indexName = indexName;
+        this.entryCount = entryCount;
+        this.sizeBytes = sizeBytes;
+        this.exact = exact;
+        this.distinctPrefixCounts = ImmutableList.copyOf(distinctPrefixCounts);
+        this.histogramBoundaries = ImmutableList.copyOf(histogramBoundaries);
+    }
+
+    /**
+     * Get the name of the index that these statistics describe.
+     * @return the index name
+     */
+    @Nonnull
+    public String getIndexName() {
+        return indexName;
+    }
+
+    /**
+     * Get the (estimated) number of entries in the index.
+     * @return the number of index entries
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Get the (estimated) total size of the index entries in bytes.
+     * @return the size of the index in bytes
+     */
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Get whether these statistics were computed from all entries of the index rather than from a sample.
+     * @return {@code true} if the statistics were not extrapolated from a sample
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Get the average size of an index entry in bytes.
+     * @return the average entry size
+     */
+    public double getAverageEntrySize() {
+        return entryCount == 0 ? 0.0 : (double)sizeBytes / entryCount;
+    }
+
+    /**
+     * Get the estimated number of distinct values of each prefix of the index's key columns. The element at
+     * position {@code i} is the number of distinct values of the first {@code i + 1} key columns.
+     * @return the distinct prefix counts
+     */
+    @Nonnull
+    public List<Long> getDistinctPrefixCounts() {
+        return distinctPrefixCounts;
+    }
+
+    /**
+     * Get the bucket boundaries of the equi-depth histogram of the index's key columns, in ascending order.
+     * @return the histogram boundaries
+     */
+    @Nonnull
+    public List<Tuple> getHistogramBoundaries() {
+        return histogramBoundaries;
+    }
+
+    /**
+     * Estimate the fraction of index entries that match equality comparisons on the first {@code prefixSize}
+     * key columns, assuming that values are uniformly distributed.
+     * @param prefixSize the number of key columns compared for equality
+     * @return the estimated selectivity, between {@code 0} and {@code 1}
+     */
+    public double estimateEqualitySelectivity(int prefixSize) {
+        if (prefixSize <= 0 || distinctPrefixCounts.isEmpty()) {
+            return 1.0;
+        }
+        final long distinct = distinctPrefixCounts.get(Math.min(prefixSize, distinctPrefixCounts.size()) - 1);
+        return distinct <= 1 ? 1.0 : 1.0 / distinct;
+    }
+
+    /**
+     * Estimate the fraction of index entries whose key columns fall within the given range using the histogram.
+     * Each bucket that lies entirely within the range counts in full, and each bucket that the range only overlaps
+     * counts as half a bucket, since the histogram does not say how entries are distributed within a bucket.
+     * A range that does not overlap any bucket is still assumed to cover half of a bucket.
+     * @param range a range over the index's key columns
+     * @return the estimated selectivity, between {@code 0} and {@code 1}
+     */
+    public double estimateRangeSelectivity(@Nonnull TupleRange range) {
+        if (histogramBoundaries.size() < 2) {
+            return 1.0;
+        }
+        final Range byteRange = range.toRange();
+        final int buckets = histogramBoundaries.size() - 1;
+        double covered = 0.0;
+        byte[] low = histogramBoundaries.get(0).pack();
+        for (int i = 1; i <= buckets; i++) {
+            final byte[] high = histogramBoundaries.get(i).pack();
+            // A range that only touches a bucket at its boundary does not count as overlapping it.
+            final boolean overlaps = ByteArrayUtil.compareUnsigned(byteRange.begin, high) < 0 &&
+                                     ByteArrayUtil.compareUnsigned(low, byteRange.end) < 0;
+            if (overlaps) {
+                final boolean contained = ByteArrayUtil.compareUnsigned(byteRange.begin, low) <= 0 &&
+                                          ByteArrayUtil.compareUnsigned(high, byteRange.end) < 0;
+                covered += contained ? 1.0 : 0.5;
+            }
+            low = high;
+        }
+        return Math.min(1.0, Math.max(covered, 0.5) / buckets);
+    }
+
+    /**
+     * Encode these statistics for storage in the database.
+     * @return the serialized statistics
+     */
+    @Nonnull
+    public byte[] toBytes() {
+        return Tuple.from(FORMAT_VERSION, indexName, entryCount, sizeBytes, exact,
+                Tuple.fromList(distinctPrefixCounts), Tuple.fromList(histogramBoundaries)).pack();
+    }
+
+    /**
+     * Decode statistics that were serialized with {@link #toBytes()}.
+     * @param bytes the serialized statistics
+     * @return the deserialized statistics
+     */
+    @Nonnull
+    public static IndexStatistics fromBytes(@Nonnull byte[] bytes) {
+        final Tuple tuple = Tuple.fromBytes(bytes);
+        final long formatVersion = tuple.getLong(0);
+        if (formatVersion != FORMAT_VERSION) {
+            throw new RecordCoreException("unknown index statistics format version",
+                    LogMessageKeys.VERSION, formatVersion);
+        }
+        final Tuple distinctTuple = tuple.getNestedTuple(5);
+        final List<Long> distinctPrefixCounts = new ArrayList<>(distinctTuple.size());
+        for (int i = 0; i < distinctTuple.size(); i++) {
+            distinctPrefixCounts.add(distinctTuple.getLong(i));
+        }
+        final Tuple boundariesTuple = tuple.getNestedTuple(6);
+        final List<Tuple> histogramBoundaries = new ArrayList<>(boundariesTuple.size());
+        for (int i = 0; i < boundariesTuple.size(); i++) {
+            histogramBoundaries.add(boundariesTuple.getNestedTuple(i));
+        }
+        return new IndexStatistics(tuple.getString(1), tuple.getLong(2), tuple.getLong(3), tuple.getBoolean(4),
+                distinctPrefixCounts, histogramBoundaries);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final IndexStatistics that = (IndexStatistics)o;
+        return entryCount == that.entryCount &&
+               sizeBytes == that.sizeBytes &&
+               exact == that.exact &&
+               indexName.equals(that.indexName) &&
+               distinctPrefixCounts.equals(that.distinctPrefixCounts) &&
+               histogramBoundaries.equals(that.histogramBoundaries);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(indexName, entryCount, sizeBytes, exact, distinctPrefixCounts, histogramBoundaries);
+    }
+
+    @Override
+    public String toString() {
+        return "IndexStatistics{" + indexName +
+               ", entries=" + entryCount +
+               ", bytes=" + sizeBytes +
+               (exact ? ", exact" : "") +
+               ", distinct=" + distinctPrefixCounts +
+               ", histogram=" + histogramBoundaries +
+               "}";
+    }
+}
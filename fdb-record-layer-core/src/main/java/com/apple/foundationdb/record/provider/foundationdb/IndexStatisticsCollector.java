@@ -0,0 +1,310 @@
+/*
+ * IndexStatisticsCollector.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.async.CloseableAsyncIterator;
+import com.apple.foundationdb.record.IndexState;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.metadata.Index;
+import com.apple.foundationdb.record.metadata.IndexTypes;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleHelpers;
+import com.google.common.annotations.VisibleForTesting;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Collect {@link IndexStatistics} for a {@link IndexTypes#VALUE VALUE} index by sampling its entries and persist them
+ * in the record store.
+ *
+ * <p>
+ * The index's key range is split at the shard boundaries reported by the database's
+ * {@link FDBLocalityProvider locality provider}. As shards are of roughly equal size, reading the same number of
+ * entries from the start of each shard gives a sample that is spread over the whole index while only requiring one
+ * range read per shard. The total size of the index is estimated with
+ * {@link Transaction#getEstimatedRangeSizeBytes(Range)}, in the same way as
+ * {@link FDBRecordStore#estimateRecordsSizeAsync()}, and the number of entries is extrapolated from the average
+ * size of the sampled entries. If every shard has fewer entries than are sampled from it, the whole index has been
+ * read and the statistics are exact. An index that only spans a few shards is sampled from the start of those
+ * shards, so the sample size should be chosen to cover such indexes entirely if accurate statistics are needed.
+ * </p>
+ *
+ * <p>
+ * Collection reads at most the configured number of entries and so fits within a single transaction. It is
+ * intended to be run periodically, for example by a background job calling
+ * {@link FDBDatabaseRunner#runAsync(java.util.function.Function) runAsync} with {@link #collectAndSaveAsync()}
+ * for each index, and does not take any conflict ranges on the index.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class IndexStatisticsCollector {
+    /**
+     * The default maximum number of index entries to sample.
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 1000;
+    /**
+     * The default number of buckets in the equi-depth histogram.
+     */
+    public static final int DEFAULT_HISTOGRAM_BUCKETS = 20;
+
+
+    @Nonnull
+    private final FDBRecordStore store;
+    @Nonnull
+    private final Index index;
+    private final int sampleSize;
+    private final int histogramBuckets;
+
+    public IndexStatisticsCollector(@Nonnull FDBRecordStore store, @Nonnull Index index) {
+        this(store, index, DEFAULT_SAMPLE_SIZE, DEFAULT_HISTOGRAM_BUCKETS);
+    }
+
+    public IndexStatisticsCollector(@Nonnull FDBRecordStore store, @Nonnull Index index, int sampleSize, int histogramBuckets) {
+        if (!IndexTypes.VALUE.equals(index.getType())) {
+            throw new RecordCoreArgumentException("statistics can only be collected for value indexes",
+                    LogMessageKeys.INDEX_NAME, index.getName(),
+                    LogMessageKeys.INDEX_TYPE, index.getType());
+        }
+        if (sampleSize <= 0 || histogramBuckets <= 0) {
+            throw new RecordCoreArgumentException("sample size and number of histogram buckets must be positive");
+        }
+        this.store = store;
+        this.index = index;
+        this.sampleSize = sampleSize;
+        this.histogramBuckets = histogramBuckets;
+    }
+
+    /**
+     * Sample the index and compute its statistics.
+     * @return a future that completes to the statistics of the index
+     */
+    @Nonnull
+    @SuppressWarnings("PMD.CloseResource")
+    public CompletableFuture<IndexStatistics> collectAsync() {
+        final long startTime = System.nanoTime();
+        final Transaction tr = store.getContext().ensureActive();
+        final Subspace indexSubspace = store.indexSubspace(index);
+        final Range range = indexSubspace.range();
+        final CompletableFuture<Long> sizeFuture = tr.getEstimatedRangeSizeBytes(range);
+        final CloseableAsyncIterator<byte[]> boundaryIterator = store.getContext().getDatabase().getLocalityProvider()
+                .getBoundaryKeys(tr, range.begin, range.end);
+        final CompletableFuture<IndexStatistics> result = AsyncUtil.collectRemaining(boundaryIterator)
+                .whenComplete((ignore, err) -> boundaryIterator.close())
+                .thenCombine(sizeFuture, (boundaries, sizeBytes) -> {
+                    final List<byte[]> bounds = new ArrayList<>(boundaries.size() + 2);
+                    bounds.add(range.begin);
+                    for (byte[] boundary : boundaries) {
+                        if (ByteArrayUtil.compareUnsigned(bounds.get(bounds.size() - 1), boundary) < 0 &&
+                                ByteArrayUtil.compareUnsigned(boundary, range.end) < 0) {
+                            bounds.add(boundary);
+                        }
+                    }
+                    bounds.add(range.end);
+                    return collectFromSegments(tr, indexSubspace, bounds, sizeBytes);
+                })
+                .thenCompose(Function.identity());
+        return store.instrument(FDBStoreTimer.Events.COLLECT_INDEX_STATISTICS, result, startTime);
+    }
+
+    @Nonnull
+    private CompletableFuture<IndexStatistics> collectFromSegments(@Nonnull Transaction tr, @Nonnull Subspace indexSubspace,
+                                                                   @Nonnull List<byte[]> bounds, long sizeBytes) {
+        final int segments = bounds.size() - 1;
+        final int perSegment = Math.max(1, sampleSize / segments);
+        final List<CompletableFuture<List<KeyValue>>> segmentReads = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            segmentReads.add(tr.snapshot().getRange(bounds.get(i), bounds.get(i + 1), perSegment).asList());
+        }
+        return AsyncUtil.getAll(segmentReads).thenApply(samples -> {
+            boolean exact = true;
+            long sampleBytes = 0L;
+            final List<Tuple> keys = new ArrayList<>();
+            for (List<KeyValue> sample : samples) {
+                if (sample.size() >= perSegment) {
+                    exact = false;
+                }
+                for (KeyValue kv : sample) {
+                    sampleBytes += kv.getKey().length + kv.getValue().length;
+                    keys.add(TupleHelpers.subTuple(indexSubspace.unpack(kv.getKey()), 0, index.getColumnSize()));
+                }
+            }
+            return fromSample(index.getName(), index.getColumnSize(), keys, sampleBytes, sizeBytes, exact, histogramBuckets);
+        });
+    }
+
+    /**
+     * Sample the index, compute its statistics and save them in the record store.
+     * @return a future that completes to the statistics that were saved
+     */
+    @Nonnull
+    public CompletableFuture<IndexStatistics> collectAndSaveAsync() {
+        return collectAsync().thenApply(statistics -> {
+            save(store, index, statistics);
+            return statistics;
+        });
+    }
+
+    /**
+     * Save statistics for an index in the record store.
+     * @param store the record store containing the index
+     * @param index the index described by the statistics
+     * @param statistics the statistics to save
+     */
+    public static void save(@Nonnull FDBRecordStore store, @Nonnull Index index, @Nonnull IndexStatistics statistics) {
+        store.getContext().ensureActive().set(store.indexStatisticsKey(index), statistics.toBytes());
+    }
+
+    /**
+     * Load the statistics previously saved for an index. The read is done at snapshot isolation, so that the
+     * statistics being updated concurrently does not cause conflicts.
+     * @param store the record store containing the index
+     * @param index the index for which to load statistics
+     * @return a future that completes to the saved statistics or to {@code null} if none have been collected
+     */
+    @Nonnull
+    public static CompletableFuture<IndexStatistics> loadAsync(@Nonnull FDBRecordStore store, @Nonnull Index index) {
+        return store.getContext().readTransaction(true).get(store.indexStatisticsKey(index))
+                .thenApply(bytes -> bytes == null ? null : IndexStatistics.fromBytes(bytes));
+    }
+
+    /**
+     * Load the statistics of all {@linkplain IndexState#READABLE readable} indexes in the record store for which
+     * statistics have been collected, keyed by index name. The result is suitable for passing to
+     * {@link com.apple.foundationdb.record.query.plan.cascades.CascadesPlanner#setIndexStatistics(Map)}.
+     * @param store the record store to load statistics from
+     * @return a future that completes to a map from index name to index statistics
+     */
+    @Nonnull
+    public static CompletableFuture<Map<String, IndexStatistics>> loadAllAsync(@Nonnull FDBRecordStore store) {
+        final List<CompletableFuture<IndexStatistics>> futures = new ArrayList<>();
+        for (Index index : store.getRecordMetaData().getAllIndexes()) {
+            if (IndexTypes.VALUE.equals(index.getType()) && store.isIndexReadable(index)) {
+                futures.add(loadAsync(store, index));
+            }
+        }
+        return AsyncUtil.getAll(futures).thenApply(statisticsList -> {
+            final Map<String, IndexStatistics> result = new HashMap<>();
+            for (IndexStatistics statistics : statisticsList) {
+                if (statistics != null) {
+                    result.put(statistics.getIndexName(), statistics);
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Compute statistics from a sample of the index's key columns.
+     *
+     * <p>
+     * Distinct prefix counts are extrapolated from the sample using the Guaranteed-Error Estimator, which scales
+     * the number of values seen only once in the sample by the square root of the inverse sampling fraction and
+     * counts values seen more than once as is.
+     * </p>
+     *
+     * @param indexName the name of the index
+     * @param columnSize the number of key columns of the index
+     * @param sortedKeys the sampled key columns of index entries, in index order
+     * @param sampleBytes the total size of the sampled index entries
+     * @param estimatedSizeBytes the estimated size of the whole index
+     * @param exact whether the sample contains all entries of the index
+     * @param histogramBuckets the number of histogram buckets
+     * @return the index statistics
+     */
+    @Nonnull
+    @VisibleForTesting
+    static IndexStatistics fromSample(@Nonnull String indexName, int columnSize, @Nonnull List<Tuple> sortedKeys,
+                                      long sampleBytes, long estimatedSizeBytes, boolean exact, int histogramBuckets) {
+        final int sampleCount = sortedKeys.size();
+        final long entryCount;
+        final long sizeBytes;
+        if (exact || sampleCount == 0) {
+            entryCount = sampleCount;
+            sizeBytes = sampleBytes;
+        } else {
+            sizeBytes = Math.max(estimatedSizeBytes, sampleBytes);
+            entryCount = Math.max(sampleCount, Math.round((double)sizeBytes * sampleCount / sampleBytes));
+        }
+
+        final List<Long> distinctPrefixCounts = new ArrayList<>(columnSize);
+        for (int prefixSize = 1; prefixSize <= columnSize; prefixSize++) {
+            distinctPrefixCounts.add(estimateDistinct(sortedKeys, prefixSize, entryCount, exact));
+        }
+
+        final List<Tuple> histogramBoundaries = new ArrayList<>(histogramBuckets + 1);
+        if (sampleCount > 0) {
+            final int buckets = Math.min(histogramBuckets, sampleCount);
+            for (int i = 0; i <= buckets; i++) {
+                final Tuple boundary = sortedKeys.get((int)((long)i * (sampleCount - 1) / buckets));
+                if (histogramBoundaries.isEmpty() || !boundary.equals(histogramBoundaries.get(histogramBoundaries.size() - 1))) {
+                    histogramBoundaries.add(boundary);
+                }
+            }
+        }
+        return new IndexStatistics(indexName, entryCount, sizeBytes, exact, distinctPrefixCounts, histogramBoundaries);
+    }
+
+    private static long estimateDistinct(@Nonnull List<Tuple> sortedKeys, int prefixSize, long entryCount, boolean exact) {
+        long singletons = 0L;
+        long repeated = 0L;
+        @Nullable Tuple previous = null;
+        int runLength = 0;
+        for (Tuple key : sortedKeys) {
+            final Tuple prefix = TupleHelpers.subTuple(key, 0, Math.min(prefixSize, key.size()));
+            if (prefix.equals(previous)) {
+                runLength++;
+            } else {
+                if (runLength == 1) {
+                    singletons++;
+                } else if (runLength > 1) {
+                    repeated++;
+                }
+                previous = prefix;
+                runLength = 1;
+            }
+        }
+        if (runLength == 1) {
+            singletons++;
+        } else if (runLength > 1) {
+            repeated++;
+        }
+        if (exact || sortedKeys.isEmpty()) {
+            return singletons + repeated;
+        }
+        final double scale = Math.sqrt((double)entryCount / sortedKeys.size());
+        return Math.min(entryCount, Math.round(scale * singletons) + repeated);
+    }
+}
@@ -28,6 +28,7 @@ import com.apple.foundationdb.StreamingMode;
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.annotation.SpotBugsSuppressWarnings;
 import com.apple.foundationdb.async.AsyncIterator;
+import com.apple.foundationdb.async.MoreAsyncUtil;
 import com.apple.foundationdb.record.CursorStreamingMode;
 import com.apple.foundationdb.record.EndpointType;
 import com.apple.foundationdb.record.KeyRange;
@@ -46,7 +47,9 @@ import com.google.protobuf.ZeroCopyByteString;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
@@ -91,36 +94,68 @@ public abstract class KeyValueCursorBase<K extends KeyValue> extends AsyncIterat
             // of the tryRecordScan check.
             return CompletableFuture.completedFuture(nextResult);
         } else if (limitManager.tryRecordScan()) {
-            return iterator.onHasNext().thenApply(hasNext -> {
-                if (hasNext) {
-                    K kv = iterator.next();
-                    if (context != null) {
-                        context.increment(FDBStoreTimer.Counts.LOAD_SCAN_ENTRY);
-                        context.increment(FDBStoreTimer.Counts.LOAD_KEY_VALUE);
-                    }
-                    limitManager.reportScannedBytes((long)kv.getKey().length + (long)kv.getValue().length);
-                    // Note that this mutates the pointer and NOT the array.
-                    // If the value of lastKey is mutated, the Continuation class will break.
-                    lastKey = kv.getKey();
-                    valuesSeen++;
-                    nextResult = RecordCursorResult.withNextValue(kv, continuationHelper());
-                } else if (valuesSeen >= valuesLimit) {
-                    // Source iterator hit limit that we passed down.
-                    nextResult = RecordCursorResult.withoutNextValue(continuationHelper(), NoNextReason.RETURN_LIMIT_REACHED);
+            return iterator.onHasNext().thenApply(this::computeNextResultFromIterator);
+        } else { // a limit must have been exceeded
+            return CompletableFuture.completedFuture(computeLimitReachedResult());
+        }
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<List<RecordCursorResult<K>>> onNextBatch(int maxBatchSize) {
+        return onNext().thenApply(first -> {
+            final List<RecordCursorResult<K>> results = new ArrayList<>();
+            results.add(first);
+            RecordCursorResult<K> result = first;
+            while (result.hasNext() && results.size() < maxBatchSize) {
+                // Only take what has already been read from the database; waiting is left to the next call.
+                final CompletableFuture<Boolean> hasNextFuture = iterator.onHasNext();
+                if (!MoreAsyncUtil.isCompletedNormally(hasNextFuture)) {
+                    break;
+                }
+                if (limitManager.tryRecordScan()) {
+                    result = computeNextResultFromIterator(hasNextFuture.join());
                 } else {
-                    // Source iterator is exhausted.
-                    nextResult = RecordCursorResult.exhausted();
+                    result = computeLimitReachedResult();
                 }
-                return nextResult;
-            });
-        } else { // a limit must have been exceeded
-            final Optional<NoNextReason> stoppedReason = limitManager.getStoppedReason();
-            if (!stoppedReason.isPresent()) {
-                throw new RecordCoreException("limit manager stopped KeyValueCursor but did not report a reason");
+                results.add(result);
             }
-            nextResult = RecordCursorResult.withoutNextValue(continuationHelper(), stoppedReason.get());
-            return CompletableFuture.completedFuture(nextResult);
+            return results;
+        });
+    }
+
+    @Nonnull
+    private RecordCursorResult<K> computeNextResultFromIterator(boolean hasNext) {
+        if (hasNext) {
+            K kv = iterator.next();
+            if (context != null) {
+                context.increment(FDBStoreTimer.Counts.LOAD_SCAN_ENTRY);
+                context.increment(FDBStoreTimer.Counts.LOAD_KEY_VALUE);
+            }
+            limitManager.reportScannedBytes((long)kv.getKey().length + (long)kv.getValue().length);
+            // Note that this mutates the pointer and NOT the array.
+            // If the value of lastKey is mutated, the Continuation class will break.
+            lastKey = kv.getKey();
+            valuesSeen++;
+            nextResult = RecordCursorResult.withNextValue(kv, continuationHelper());
+        } else if (valuesSeen >= valuesLimit) {
+            // Source iterator hit limit that we passed down.
+            nextResult = RecordCursorResult.withoutNextValue(continuationHelper(), NoNextReason.RETURN_LIMIT_REACHED);
+        } else {
+            // Source iterator is exhausted.
+            nextResult = RecordCursorResult.exhausted();
+        }
+        return nextResult;
+    }
+
+    @Nonnull
+    private RecordCursorResult<K> computeLimitReachedResult() {
+        final Optional<NoNextReason> stoppedReason = limitManager.getStoppedReason();
+        if (!stoppedReason.isPresent()) {
+            throw new RecordCoreException("limit manager stopped KeyValueCursor but did not report a reason");
         }
+        nextResult = RecordCursorResult.withoutNextValue(continuationHelper(), stoppedReason.get());
+        return nextResult;
     }
 
     @Override
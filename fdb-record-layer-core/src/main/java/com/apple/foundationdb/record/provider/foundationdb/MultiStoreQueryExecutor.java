@@ -0,0 +1,632 @@
+/*
+ * MultiStoreQueryExecutor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.IndexState;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.ScanProperties;
+import com.apple.foundationdb.record.cursors.LazyCursor;
+import com.apple.foundationdb.record.provider.foundationdb.cursors.ParallelReadCursorBase;
+import com.apple.foundationdb.record.provider.foundationdb.keyspace.KeySpacePath;
+import com.apple.foundationdb.record.query.RecordQuery;
+import com.apple.foundationdb.record.query.plan.RecordQueryPlanner;
+import com.apple.foundationdb.record.query.plan.RecordQueryPlannerConfiguration;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Execute a query against every record store under some {@link KeySpacePath}, such as one for each tenant.
+ *
+ * <p>
+ * The stores are found by listing the values of a subdirectory of a parent path. Up to {@code parallelism} stores are
+ * opened and queried at the same time, each reading ahead in batches, with the total number of results read but not
+ * yet returned kept within a buffer budget. Results are returned either as they become available or, if
+ * {@linkplain Builder#setOrdered ordered}, store by store in listing order, each store's results in the order of the
+ * plan, while later stores are read ahead.
+ * </p>
+ *
+ * <p>
+ * The query is planned once for each combination of meta-data version and index states seen among the stores, and
+ * the plan is reused for all stores with the same combination, including in later calls to {@link #execute}.
+ * </p>
+ *
+ * <p>
+ * The continuation records the position in the listing and how far each store that has been started, but not
+ * finished, has been returned. The skip and returned row limit apply to the results from all stores together. Any other
+ * limits are shared by the stores' queries and if one of them stops because of an out-of-band limit, no more reads are
+ * started, the results already read are returned (only those from the current store, if ordered) and then the cursor
+ * stops with the same reason.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class MultiStoreQueryExecutor {
+    public static final int DEFAULT_PARALLELISM = 8;
+    public static final int DEFAULT_BUFFER_SIZE = 1000;
+
+    @Nonnull
+    private final FDBRecordStore.Builder storeBuilder;
+    @Nonnull
+    private final KeySpacePath parentPath;
+    @Nonnull
+    private final String subdirectory;
+    @Nonnull
+    private final Function<KeySpacePath, KeySpacePath> storePathFunction;
+    @Nonnull
+    private final RecordQuery query;
+    @Nullable
+    private final RecordQueryPlannerConfiguration plannerConfiguration;
+    private final int parallelism;
+    private final int bufferSize;
+    private final boolean ordered;
+    @Nonnull
+    private final Map<PlanCacheKey, RecordQueryPlan> planCache = new ConcurrentHashMap<>();
+
+    private MultiStoreQueryExecutor(@Nonnull Builder builder) {
+        this.storeBuilder = builder.storeBuilder.copyBuilder();
+        this.parentPath = builder.parentPath;
+        this.subdirectory = builder.subdirectory;
+        this.storePathFunction = builder.storePathFunction;
+        this.query = builder.query;
+        this.plannerConfiguration = builder.plannerConfiguration;
+        this.parallelism = builder.parallelism;
+        this.bufferSize = builder.bufferSize;
+        this.ordered = builder.ordered;
+    }
+
+    /**
+     * Execute the query against all the stores.
+     * @param context the transaction in which to open and query the stores
+     * @param continuation any continuation from a previous execution of the same query
+     * @param executeProperties limits and other properties of the execution
+     * @return a cursor over the query results from all the stores
+     */
+    @Nonnull
+    public RecordCursor<StoreRecord> execute(@Nonnull FDBRecordContext context, @Nullable byte[] continuation,
+                                             @Nonnull ExecuteProperties executeProperties) {
+        final RecordCursor<StoreRecord> cursor = new MultiStoreCursor(context, continuation, executeProperties.clearSkipAndLimit());
+        return cursor.skip(executeProperties.getSkip())
+                .limitRowsTo(executeProperties.getReturnedRowLimit());
+    }
+
+    /**
+     * Get the plan for the query against the given store, planning it only if no store with the same meta-data
+     * version and index states has been planned for before.
+     * @param store an open record store
+     * @return a plan for the query against {@code store}
+     */
+    @Nonnull
+    public RecordQueryPlan plan(@Nonnull FDBRecordStore store) {
+        final PlanCacheKey key = new PlanCacheKey(store.getRecordMetaData().getVersion(), store.getRecordStoreState().getIndexStates());
+        return planCache.computeIfAbsent(key, k -> {
+            final RecordQueryPlanner planner = new RecordQueryPlanner(store.getRecordMetaData(), store.getRecordStoreState(), store.getTimer());
+            if (plannerConfiguration != null) {
+                planner.setConfiguration(plannerConfiguration);
+            }
+            return planner.plan(query);
+        });
+    }
+
+    /**
+     * Get the number of distinct plans made so far.
+     * @return the number of cached plans
+     */
+    public int getPlanCount() {
+        return planCache.size();
+    }
+
+    @Nonnull
+    private CompletableFuture<RecordCursor<StoreRecord>> executeInStore(@Nonnull FDBRecordContext context, @Nonnull KeySpacePath path,
+                                                                        @Nullable byte[] continuation,
+                                                                        @Nonnull ExecuteProperties executeProperties) {
+        return storeBuilder.copyBuilder()
+                .setContext(context)
+                .setKeySpacePath(storePathFunction.apply(path))
+                .openAsync()
+                .thenApply(store -> store.executeQuery(plan(store), continuation, executeProperties)
+                        .map(queriedRecord -> new StoreRecord(path, queriedRecord)));
+    }
+
+    /**
+     * Create a new builder.
+     * @return a new builder
+     */
+    @Nonnull
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * A query result together with the path of the store it came from.
+     */
+    public static class StoreRecord {
+        @Nonnull
+        private final KeySpacePath path;
+        @Nonnull
+        private final FDBQueriedRecord<Message> record;
+
+        public StoreRecord(@Nonnull KeySpacePath path, @Nonnull FDBQueriedRecord<Message> record) {
+            this.path = path;
+            this.record = record;
+        }
+
+        /**
+         * Get the path of the subdirectory for the store, before any {@linkplain Builder#setStorePath store path
+         * function} is applied.
+         * @return the subdirectory path
+         */
+        @Nonnull
+        public KeySpacePath getPath() {
+            return path;
+        }
+
+        @Nonnull
+        public FDBQueriedRecord<Message> getRecord() {
+            return record;
+        }
+
+        @Override
+        public String toString() {
+            return path + ": " + record;
+        }
+    }
+
+    private static class PlanCacheKey {
+        private final int metaDataVersion;
+        @Nonnull
+        private final Map<String, IndexState> indexStates;
+
+        private PlanCacheKey(int metaDataVersion, @Nonnull Map<String, IndexState> indexStates) {
+            this.metaDataVersion = metaDataVersion;
+            this.indexStates = new HashMap<>(indexStates);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final PlanCacheKey that = (PlanCacheKey)o;
+            return metaDataVersion == that.metaDataVersion && indexStates.equals(that.indexStates);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(metaDataVersion, indexStates);
+        }
+    }
+
+    private final class Store extends ParallelReadCursorBase.Source<StoreRecord> {
+        @Nonnull
+        private final Object value;
+        @Nonnull
+        private final KeySpacePath path;
+        @Nullable
+        private final byte[] startContinuation;
+
+        private Store(@Nonnull Object value, @Nullable byte[] startContinuation) {
+            this.value = value;
+            this.path = parentPath.add(subdirectory, value);
+            this.startContinuation = startContinuation;
+        }
+    }
+
+    /**
+     * The cursor over the results from all stores, which are its sources. The listing is read for more stores whenever
+     * fewer than {@code parallelism} are being read.
+     */
+    private final class MultiStoreCursor extends ParallelReadCursorBase<StoreRecord, Store> {
+        @Nonnull
+        private final FDBRecordContext context;
+        @Nonnull
+        private final ExecuteProperties executeProperties;
+        @Nullable
+        private final RecordCursor<KeySpacePath> listing;
+        // In listing order, without those already exhausted.
+        @Nonnull
+        private final List<Store> stores = new ArrayList<>();
+        @Nullable
+        private byte[] listingStartContinuation;
+        @Nullable
+        private RecordCursorContinuation listingContinuation;
+        private boolean listingReading;
+        private boolean listingEnded;
+
+        private MultiStoreCursor(@Nonnull FDBRecordContext context, @Nullable byte[] continuation,
+                                 @Nonnull ExecuteProperties executeProperties) {
+            super(parallelism, bufferSize, ordered);
+            this.context = context;
+            this.executeProperties = executeProperties;
+            if (continuation != null) {
+                final RecordCursorProto.MultiStoreContinuation parsed;
+                try {
+                    parsed = RecordCursorProto.MultiStoreContinuation.parseFrom(continuation);
+                } catch (InvalidProtocolBufferException ex) {
+                    throw new RecordCoreException("Error parsing MultiStoreQueryExecutor continuation", ex)
+                            .addLogInfo("raw_bytes", ByteArrayUtil2.loggable(continuation));
+                }
+                for (RecordCursorProto.MultiStoreContinuation.StoreState storeState : parsed.getStoreStateList()) {
+                    stores.add(new Store(Tuple.fromBytes(storeState.getPathValue().toByteArray()).get(0),
+                            storeState.hasContinuation() ? storeState.getContinuation().toByteArray() : null));
+                }
+                listingEnded = parsed.getListingExhausted();
+                if (parsed.hasListingContinuation()) {
+                    listingStartContinuation = parsed.getListingContinuation().toByteArray();
+                }
+            }
+            if (listingEnded) {
+                listing = null;
+            } else {
+                listing = parentPath.listSubdirectoryAsync(context, subdirectory, listingStartContinuation, ScanProperties.FORWARD_SCAN)
+                        .map(resolvedPath -> parentPath.add(subdirectory, resolvedPath.getLogicalValue()));
+            }
+        }
+
+        @Nonnull
+        @Override
+        protected List<Store> getSources() {
+            return stores;
+        }
+
+        @Nonnull
+        @Override
+        protected RecordCursor<StoreRecord> openCursor(@Nonnull Store store) {
+            return new LazyCursor<>(executeInStore(context, store.path, store.startContinuation, executeProperties), getExecutor());
+        }
+
+        @Nonnull
+        @Override
+        protected RecordCursorContinuation getCurrentContinuation() {
+            return new MultiStoreContinuation(this);
+        }
+
+        @Override
+        protected boolean mayAddSources() {
+            return !listingEnded;
+        }
+
+        @Override
+        protected boolean isAddingSources() {
+            return listingReading;
+        }
+
+        @Override
+        protected void addSources() {
+            if (!listingEnded && !listingReading) {
+                readListing();
+            }
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            synchronized (lock) {
+                if (listing != null) {
+                    listing.close();
+                }
+            }
+        }
+
+        @Nonnull
+        @Override
+        public Executor getExecutor() {
+            return context.getExecutor();
+        }
+
+        @Override
+        public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+            if (visitor.visitEnter(this)) {
+                final List<RecordCursor<StoreRecord>> children = new ArrayList<>();
+                synchronized (lock) {
+                    for (Store store : stores) {
+                        // A lazy cursor can only be visited once it has been advanced.
+                        if (store.getCursor() != null && !store.isBusy()) {
+                            children.add(store.getCursor());
+                        }
+                    }
+                }
+                for (RecordCursor<StoreRecord> child : children) {
+                    if (!child.accept(visitor)) {
+                        break;
+                    }
+                }
+            }
+            return visitor.visitLeave(this);
+        }
+
+        // Called with the lock held.
+        private void readListing() {
+            listingReading = true;
+            final CompletableFuture<RecordCursorResult<KeySpacePath>> listingFuture = Objects.requireNonNull(listing).onNext();
+            if (listingFuture.isDone()) {
+                listingReading = false;
+                if (addListingResult(listingFuture)) {
+                    startReads();
+                }
+            } else {
+                listingFuture.whenComplete((result, err) -> whenReadCompletes(() -> {
+                    listingReading = false;
+                    if (addListingResult(listingFuture)) {
+                        startReads();
+                    }
+                }));
+            }
+        }
+
+        // Called with the lock held. Returns whether reading can continue.
+        private boolean addListingResult(@Nonnull CompletableFuture<RecordCursorResult<KeySpacePath>> listingFuture) {
+            final RecordCursorResult<KeySpacePath> result;
+            try {
+                result = listingFuture.join();
+            } catch (RuntimeException ex) {
+                fail(ex.getCause() == null ? ex : ex.getCause());
+                return false;
+            }
+            if (isClosed()) {
+                return false;
+            }
+            listingContinuation = result.getContinuation();
+            if (result.hasNext()) {
+                final KeySpacePath path = result.get();
+                stores.add(new Store(path.getValue(), null));
+            } else {
+                listingEnded = true;
+                if (!result.getNoNextReason().isSourceExhausted()) {
+                    stop(result.getNoNextReason());
+                }
+            }
+            return canStartReads();
+        }
+    }
+
+    /**
+     * A snapshot of the listing position and how far each unfinished store has been returned.
+     */
+    private static class MultiStoreContinuation implements RecordCursorContinuation {
+        @Nonnull
+        private final List<Object> values;
+        @Nonnull
+        private final List<Object> continuations;
+        @Nullable
+        private final Object listingContinuation;
+        private final boolean listingEnded;
+        @Nullable
+        private ByteString cachedByteString;
+
+        private MultiStoreContinuation(@Nonnull MultiStoreQueryExecutor.MultiStoreCursor cursor) {
+            values = new ArrayList<>(cursor.stores.size());
+            continuations = new ArrayList<>(cursor.stores.size());
+            for (MultiStoreQueryExecutor.Store store : cursor.stores) {
+                final RecordCursorContinuation lastContinuation = store.getLastContinuation();
+                if (store.isExhausted() || (lastContinuation != null && lastContinuation.isEnd())) {
+                    continue;
+                }
+                values.add(store.value);
+                continuations.add(lastContinuation != null ? lastContinuation : store.startContinuation);
+            }
+            listingContinuation = cursor.listingContinuation != null ? cursor.listingContinuation : cursor.listingStartContinuation;
+            listingEnded = cursor.listingEnded && (cursor.listingContinuation == null || cursor.listingContinuation.isEnd());
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            return toByteString().toByteArray();
+        }
+
+        @Nonnull
+        @Override
+        public ByteString toByteString() {
+            if (cachedByteString == null) {
+                final RecordCursorProto.MultiStoreContinuation.Builder builder = RecordCursorProto.MultiStoreContinuation.newBuilder();
+                for (int i = 0; i < values.size(); i++) {
+                    final RecordCursorProto.MultiStoreContinuation.StoreState.Builder storeState = builder.addStoreStateBuilder()
+                            .setPathValue(ByteString.copyFrom(Tuple.from(values.get(i)).pack()));
+                    final ByteString continuation = toByteString(continuations.get(i));
+                    if (continuation != null) {
+                        storeState.setContinuation(continuation);
+                    }
+                }
+                if (listingEnded) {
+                    builder.setListingExhausted(true);
+                } else {
+                    final ByteString continuation = toByteString(listingContinuation);
+                    if (continuation != null) {
+                        builder.setListingContinuation(continuation);
+                    }
+                }
+                cachedByteString = builder.build().toByteString();
+            }
+            return cachedByteString;
+        }
+
+        // Either the continuation of a result or the bytes that a cursor was started from.
+        @Nullable
+        private static ByteString toByteString(@Nullable Object continuation) {
+            if (continuation instanceof RecordCursorContinuation) {
+                return ((RecordCursorContinuation)continuation).toByteString();
+            } else if (continuation != null) {
+                return ByteString.copyFrom((byte[])continuation);
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean isEnd() {
+            return false;
+        }
+    }
+
+    /**
+     * A builder for {@link MultiStoreQueryExecutor}.
+     */
+    public static class Builder {
+        @Nullable
+        private FDBRecordStore.Builder storeBuilder;
+        @Nullable
+        private KeySpacePath parentPath;
+        @Nullable
+        private String subdirectory;
+        @Nonnull
+        private Function<KeySpacePath, KeySpacePath> storePathFunction = Function.identity();
+        @Nullable
+        private RecordQuery query;
+        @Nullable
+        private RecordQueryPlannerConfiguration plannerConfiguration;
+        private int parallelism = DEFAULT_PARALLELISM;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private boolean ordered;
+
+        private Builder() {
+        }
+
+        /**
+         * Set the builder used to open each store. Its meta-data, serializer and so on are used for all stores, but its
+         * context and path are replaced.
+         * @param storeBuilder a record store builder
+         * @return this builder
+         */
+        @Nonnull
+        public Builder setStoreBuilder(@Nonnull FDBRecordStore.Builder storeBuilder) {
+            this.storeBuilder = storeBuilder;
+            return this;
+        }
+
+        /**
+         * Set where to find the stores: one for each value of the given subdirectory of the given path.
+         * @param parentPath the path whose subdirectory is listed
+         * @param subdirectory the name of the subdirectory with a value for each store
+         * @return this builder
+         */
+        @Nonnull
+        public Builder setPath(@Nonnull KeySpacePath parentPath, @Nonnull String subdirectory) {
+            this.parentPath = parentPath;
+            this.subdirectory = subdirectory;
+            return this;
+        }
+
+        /**
+         * Set a function to get the path of the store from that of its subdirectory, when the store is not at the
+         * subdirectory itself.
+         * @param storePathFunction a function from the subdirectory path to the store path
+         * @return this builder
+         */
+        @Nonnull
+        public Builder setStorePath(@Nonnull Function<KeySpacePath, KeySpacePath> storePathFunction) {
+            this.storePathFunction = storePathFunction;
+            return this;
+        }
+
+        @Nonnull
+        public Builder setQuery(@Nonnull RecordQuery query) {
+            this.query = query;
+            return this;
+        }
+
+        @Nonnull
+        public Builder setPlannerConfiguration(@Nullable RecordQueryPlannerConfiguration plannerConfiguration) {
+            this.plannerConfiguration = plannerConfiguration;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of stores to open and query at the same time.
+         * @param parallelism the number of concurrent store queries
+         * @return this builder
+         */
+        @Nonnull
+        public Builder setParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new RecordCoreArgumentException("parallelism must be positive")
+                        .addLogInfo("parallelism", parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Set the budget for results read ahead but not yet returned, across all stores.
+         * @param bufferSize the maximum number of buffered results
+         * @return this builder
+         */
+        @Nonnull
+        public Builder setBufferSize(int bufferSize) {
+            if (bufferSize < 1) {
+                throw new RecordCoreArgumentException("buffer size must be positive")
+                        .addLogInfo("bufferSize", bufferSize);
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Set whether results are returned store by store in listing order, rather than as they become available.
+         * @param ordered {@code true} to return all of one store's results before the next store's
+         * @return this builder
+         */
+        @Nonnull
+        public Builder setOrdered(boolean ordered) {
+            this.ordered = ordered;
+            return this;
+        }
+
+        @Nonnull
+        public MultiStoreQueryExecutor build() {
+            if (storeBuilder == null) {
+                throw new RecordCoreException("store builder must be supplied");
+            }
+            if (parentPath == null || subdirectory == null) {
+                throw new RecordCoreException("path must be supplied");
+            }
+            if (query == null) {
+                throw new RecordCoreException("query must be supplied");
+            }
+            return new MultiStoreQueryExecutor(this);
+        }
+    }
+}
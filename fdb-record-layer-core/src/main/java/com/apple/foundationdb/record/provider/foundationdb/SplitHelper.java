@@ -30,6 +30,7 @@ import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.async.AsyncIterable;
 import com.apple.foundationdb.async.AsyncIterator;
 import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.async.MoreAsyncUtil;
 import com.apple.foundationdb.record.FDBRecordStoreProperties;
 import com.apple.foundationdb.record.RecordCoreArgumentException;
 import com.apple.foundationdb.record.RecordCoreException;
@@ -51,10 +52,12 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
@@ -749,6 +752,12 @@ public class SplitHelper {
         @Nonnull
         private final CursorLimitManager limitManager;
         private long readLastKeyNanos = 0L; // for logging purposes
+        // Results from the last batch of the inner cursor that have not been appended yet.
+        @Nonnull
+        private final Queue<RecordCursorResult<KeyValue>> innerResults = new ArrayDeque<>();
+        // An onNext started while assembling a batch that could not complete right away.
+        @Nullable
+        private CompletableFuture<RecordCursorResult<FDBRawRecord>> pendingNext;
 
         // for supporting old cursor API
         @Nullable
@@ -776,6 +785,11 @@ public class SplitHelper {
         @Nonnull
         @Override
         public CompletableFuture<RecordCursorResult<FDBRawRecord>> onNext() {
+            if (pendingNext != null) {
+                final CompletableFuture<RecordCursorResult<FDBRawRecord>> next = pendingNext;
+                pendingNext = null;
+                return next;
+            }
             if (nextResult != null && !nextResult.hasNext()) {
                 return CompletableFuture.completedFuture(nextResult);
             }
@@ -839,6 +853,28 @@ public class SplitHelper {
             }
         }
 
+        @Nonnull
+        @Override
+        public CompletableFuture<List<RecordCursorResult<FDBRawRecord>>> onNextBatch(int maxBatchSize) {
+            return onNext().thenApply(first -> {
+                final List<RecordCursorResult<FDBRawRecord>> results = new ArrayList<>();
+                results.add(first);
+                RecordCursorResult<FDBRawRecord> result = first;
+                // Only assemble more records from key-values that have already been read.
+                while (result.hasNext() && results.size() < maxBatchSize && (pending != null || !innerResults.isEmpty())) {
+                    final CompletableFuture<RecordCursorResult<FDBRawRecord>> next = onNext();
+                    if (!MoreAsyncUtil.isCompletedNormally(next)) {
+                        // Part of the record has not been read yet, so leave it for the next call.
+                        pendingNext = next;
+                        break;
+                    }
+                    result = next.join();
+                    results.add(result);
+                }
+                return results;
+            });
+        }
+
         @Nonnull
         @Override
         public RecordCursorResult<FDBRawRecord> getNext() {
@@ -889,37 +925,48 @@ public class SplitHelper {
                         return AsyncUtil.READY_FALSE;
                     }
                 }
-                return inner.onNext().thenApply(innerResult -> {
-                    if (!innerResult.hasNext()) {
-                        if (reverse && next != null && nextIndex != START_SPLIT_RECORD && nextIndex != UNSPLIT_RECORD && nextIndex != RECORD_VERSION) {
-                            throw new FoundSplitWithoutStartException(nextIndex, true)
-                                    .addLogInfo(LogMessageKeys.KEY_TUPLE, nextKey)
-                                    .addLogInfo(LogMessageKeys.SUBSPACE, ByteArrayUtil2.loggable(subspace.pack()));
-                        }
-                        innerNoNextReason = innerResult.getNoNextReason();
-                        // If we already built up some values, then we already cached an appropriate continuation.
-                        // If we haven't the continuation might have changed so we need to refresh it.
-                        if (next == null) {
-                            continuation = innerResult.getContinuation();
-                        }
-                        if (LOGGER.isTraceEnabled()) {
-                            LOGGER.trace(KeyValueLogMessage.of("unsplitter inner cursor stopped",
-                                    LogMessageKeys.NEXT_CONTINUATION, continuation == null ? "null" : ByteArrayUtil2.loggable(continuation.toBytes()),
-                                    LogMessageKeys.NO_NEXT_REASON, innerNoNextReason,
-                                    LogMessageKeys.SUBSPACE, ByteArrayUtil2.loggable(subspace.getKey())
-                            ));
-                        }
-                        return false;
-                    } else {
-                        innerNoNextReason = null; // currently, we have a next value
-                        limitManager.tryRecordScan();
-                        boolean complete = append(innerResult);
-                        return !complete;
-                    }
-                });
+                final RecordCursorResult<KeyValue> innerResult = innerResults.poll();
+                if (innerResult == null) {
+                    // Take as many key-values as the inner cursor already has; loop back to append them.
+                    return inner.onNextBatch(RecordCursor.DEFAULT_BATCH_SIZE).thenApply(results -> {
+                        innerResults.addAll(results);
+                        return true;
+                    });
+                }
+                return appendInnerResult(innerResult) ? AsyncUtil.READY_TRUE : AsyncUtil.READY_FALSE;
             }, inner.getExecutor());
         }
 
+        // Process the next result from the inner cursor; return whether more are needed to complete the record.
+        private boolean appendInnerResult(@Nonnull RecordCursorResult<KeyValue> innerResult) {
+            if (!innerResult.hasNext()) {
+                if (reverse && next != null && nextIndex != START_SPLIT_RECORD && nextIndex != UNSPLIT_RECORD && nextIndex != RECORD_VERSION) {
+                    throw new FoundSplitWithoutStartException(nextIndex, true)
+                            .addLogInfo(LogMessageKeys.KEY_TUPLE, nextKey)
+                            .addLogInfo(LogMessageKeys.SUBSPACE, ByteArrayUtil2.loggable(subspace.pack()));
+                }
+                innerNoNextReason = innerResult.getNoNextReason();
+                // If we already built up some values, then we already cached an appropriate continuation.
+                // If we haven't the continuation might have changed so we need to refresh it.
+                if (next == null) {
+                    continuation = innerResult.getContinuation();
+                }
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace(KeyValueLogMessage.of("unsplitter inner cursor stopped",
+                            LogMessageKeys.NEXT_CONTINUATION, continuation == null ? "null" : ByteArrayUtil2.loggable(continuation.toBytes()),
+                            LogMessageKeys.NO_NEXT_REASON, innerNoNextReason,
+                            LogMessageKeys.SUBSPACE, ByteArrayUtil2.loggable(subspace.getKey())
+                    ));
+                }
+                return false;
+            } else {
+                innerNoNextReason = null; // currently, we have a next value
+                limitManager.tryRecordScan();
+                boolean complete = append(innerResult);
+                return !complete;
+            }
+        }
+
         // Process the next key-value pair from the inner cursor; return whether unsplit complete.
         protected boolean append(@Nonnull RecordCursorResult<KeyValue> resultWithKv) {
             @Nonnull KeyValue kv = resultWithKv.get(); // KeyValue is non-null since we only pass in a result that has one
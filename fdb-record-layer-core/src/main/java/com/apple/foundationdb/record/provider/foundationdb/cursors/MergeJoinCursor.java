@@ -0,0 +1,354 @@
+/*
+ * MergeJoinCursor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.cursors;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.ByteArrayContinuation;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorEndContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorStartContinuation;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * A cursor that implements an inner equi-join of two cursors that are both ordered by their join key.
+ *
+ * <p>
+ * Both children must return elements in the same order by their respective comparison key functions, i.e., ascending if
+ * <code>reverse</code> is <code>false</code> and descending if it is <code>true</code>. The two sides are then
+ * advanced in lock step, as in a merge, and for each left element whose key has at least one equal key on the right,
+ * a {@link Match} is returned containing that left element and every right element with that key. Elements whose keys
+ * contain a {@code null} never match, as with a SQL equi-join. This allows many-to-many joins with only one group of
+ * right elements held in memory at a time, which is why the right side should be the one with fewer duplicate keys.
+ * </p>
+ *
+ * <p>
+ * The continuation records the position of the left cursor before its current element and the position of the right
+ * cursor before the first element of the current group, so that resuming re-reads that group. A group of equal right
+ * keys must therefore fit within a single scan's limits for the cursor to make progress.
+ * </p>
+ *
+ * @param <T> the type of elements returned by each child cursor
+ */
+@API(API.Status.EXPERIMENTAL)
+public class MergeJoinCursor<T> extends MergeCursor<T, MergeJoinCursor.Match<T>, KeyedMergeCursorState<T>> {
+    private final boolean reverse;
+    @Nonnull
+    private final KeyedMergeCursorState<T> leftState;
+    @Nonnull
+    private final KeyedMergeCursorState<T> rightState;
+    @Nullable
+    private List<T> group;
+    @Nullable
+    private List<Object> groupKey;
+    private boolean groupComplete;
+    @Nullable
+    private RecordCursorContinuation groupStartContinuation;
+    private boolean matched;
+    @Nullable
+    private NoNextReason noNextReason;
+
+    private MergeJoinCursor(boolean reverse, @Nonnull List<KeyedMergeCursorState<T>> cursorStates,
+                            @Nullable FDBStoreTimer timer) {
+        super(cursorStates, timer);
+        this.reverse = reverse;
+        this.leftState = cursorStates.get(0);
+        this.rightState = cursorStates.get(1);
+    }
+
+    @Override
+    @Nonnull
+    protected CompletableFuture<List<KeyedMergeCursorState<T>>> computeNextResultStates() {
+        matched = false;
+        return AsyncUtil.whileTrue(this::advance, getExecutor()).thenApply(vignore -> {
+            if (matched) {
+                // Only the left element is consumed; the group is kept for any further left elements with the same key.
+                return Collections.singletonList(leftState);
+            } else {
+                return Collections.emptyList();
+            }
+        });
+    }
+
+    // Make one step of the merge, returning whether another step is needed before a match or a stop.
+    @Nonnull
+    private CompletableFuture<Boolean> advance() {
+        if (group == null) {
+            return whenAll(getCursorStates()).thenApply(vignore -> {
+                if (!leftState.getResult().hasNext() || !rightState.getResult().hasNext()) {
+                    noNextReason = getWeakestNoNextReason(getCursorStates());
+                    return false;
+                }
+                final List<Object> leftKey = leftState.getComparisonKey();
+                final List<Object> rightKey = rightState.getComparisonKey();
+                if (hasNull(leftKey)) {
+                    skip(leftState);
+                    return true;
+                }
+                if (hasNull(rightKey)) {
+                    skip(rightState);
+                    return true;
+                }
+                final int compare = compare(leftKey, rightKey);
+                if (compare < 0) {
+                    skip(leftState);
+                } else if (compare > 0) {
+                    skip(rightState);
+                } else {
+                    group = new ArrayList<>();
+                    groupKey = rightKey;
+                    groupComplete = false;
+                    groupStartContinuation = rightState.getContinuation();
+                    group.add(rightState.getResult().get());
+                    rightState.consume();
+                }
+                return true;
+            });
+        } else if (!groupComplete) {
+            return rightState.getOnNextFuture().thenApply(rightResult -> {
+                if (rightResult.hasNext()) {
+                    if (compare(rightState.getComparisonKey(), groupKey) == 0) {
+                        group.add(rightResult.get());
+                        rightState.consume();
+                    } else {
+                        groupComplete = true;
+                    }
+                    return true;
+                }
+                if (!rightResult.getNoNextReason().isSourceExhausted()) {
+                    // The group may not be complete, so it will be read again from its start when resumed.
+                    noNextReason = rightResult.getNoNextReason();
+                    return false;
+                }
+                groupComplete = true;
+                return true;
+            });
+        } else {
+            return leftState.getOnNextFuture().thenApply(leftResult -> {
+                if (!leftResult.hasNext()) {
+                    noNextReason = leftResult.getNoNextReason();
+                    return false;
+                }
+                final List<Object> leftKey = leftState.getComparisonKey();
+                if (hasNull(leftKey)) {
+                    skip(leftState);
+                    return true;
+                }
+                final int compare = compare(leftKey, groupKey);
+                if (compare == 0) {
+                    matched = true;
+                    if (getTimer() != null) {
+                        getTimer().increment(FDBStoreTimer.Counts.QUERY_MERGE_JOIN_MATCHES);
+                    }
+                    return false;
+                } else if (compare < 0) {
+                    skip(leftState);
+                } else {
+                    // Left has moved past the group, which will not be needed again.
+                    group = null;
+                    groupKey = null;
+                    groupStartContinuation = null;
+                }
+                return true;
+            });
+        }
+    }
+
+    private int compare(@Nullable List<Object> leftKey, @Nullable List<Object> rightKey) {
+        return KeyComparisons.KEY_COMPARATOR.compare(leftKey, rightKey) * (reverse ? -1 : 1);
+    }
+
+    private static boolean hasNull(@Nullable List<Object> key) {
+        return key == null || key.contains(null);
+    }
+
+    private void skip(@Nonnull KeyedMergeCursorState<T> cursorState) {
+        cursorState.consume();
+        if (getTimer() != null) {
+            getTimer().increment(FDBStoreTimer.Counts.QUERY_MERGE_JOIN_NONMATCHES);
+        }
+    }
+
+    @Override
+    @Nonnull
+    protected Match<T> getNextResult(@Nonnull List<KeyedMergeCursorState<T>> resultStates) {
+        return new Match<>(leftState.getResult().get(), Collections.unmodifiableList(group));
+    }
+
+    @Override
+    @Nonnull
+    protected NoNextReason mergeNoNextReasons() {
+        return noNextReason == null ? NoNextReason.SOURCE_EXHAUSTED : noNextReason;
+    }
+
+    @Override
+    @Nonnull
+    protected RecordCursorContinuation getContinuationObject() {
+        if (noNextReason != null && noNextReason.isSourceExhausted()) {
+            return RecordCursorEndContinuation.END;
+        }
+        return new MergeJoinContinuation(leftState.getContinuation(),
+                group == null ? rightState.getContinuation() : groupStartContinuation);
+    }
+
+    /**
+     * Create a merge join cursor from two cursors ordered compatibly by their join keys.
+     *
+     * <p>
+     * The cursors are provided as functions rather than as {@link RecordCursor}s. These functions should create a new
+     * <code>RecordCursor</code> instance with a given continuation appropriate for that cursor type, as with
+     * {@link IntersectionCursor#create(Function, boolean, Function, Function, byte[], FDBStoreTimer)}.
+     * </p>
+     *
+     * @param leftKeyFunction the function evaluated to get the join key of an element from the left cursor
+     * @param rightKeyFunction the function evaluated to get the join key of an element from the right cursor
+     * @param reverse whether both cursors return elements in descending order by their join key
+     * @param left a function to produce the left {@link RecordCursor} from a continuation
+     * @param right a function to produce the right {@link RecordCursor} from a continuation
+     * @param continuation any continuation from a previous scan
+     * @param timer the timer used to instrument events
+     * @param <T> the type of elements returned by the child cursors
+     * @return a cursor of each left element together with the right elements having an equal join key
+     */
+    @Nonnull
+    public static <T> MergeJoinCursor<T> create(
+            @Nonnull Function<? super T, ? extends List<Object>> leftKeyFunction,
+            @Nonnull Function<? super T, ? extends List<Object>> rightKeyFunction,
+            boolean reverse,
+            @Nonnull Function<byte[], RecordCursor<T>> left,
+            @Nonnull Function<byte[], RecordCursor<T>> right,
+            @Nullable byte[] continuation,
+            @Nullable FDBStoreTimer timer) {
+        final RecordCursorContinuation leftContinuation;
+        final RecordCursorContinuation rightContinuation;
+        if (continuation == null) {
+            leftContinuation = RecordCursorStartContinuation.START;
+            rightContinuation = RecordCursorStartContinuation.START;
+        } else {
+            try {
+                final RecordCursorProto.MergeJoinContinuation parsed = RecordCursorProto.MergeJoinContinuation.parseFrom(continuation);
+                leftContinuation = parsed.hasLeftContinuation()
+                                   ? ByteArrayContinuation.fromNullable(parsed.getLeftContinuation().toByteArray())
+                                   : RecordCursorStartContinuation.START;
+                rightContinuation = parsed.hasRightContinuation()
+                                    ? ByteArrayContinuation.fromNullable(parsed.getRightContinuation().toByteArray())
+                                    : RecordCursorStartContinuation.START;
+            } catch (InvalidProtocolBufferException ex) {
+                throw new RecordCoreException("invalid continuation", ex)
+                        .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+            }
+        }
+        final List<KeyedMergeCursorState<T>> cursorStates = ImmutableList.of(
+                KeyedMergeCursorState.from(left, leftContinuation, leftKeyFunction),
+                KeyedMergeCursorState.from(right, rightContinuation, rightKeyFunction));
+        return new MergeJoinCursor<>(reverse, cursorStates, timer);
+    }
+
+    /**
+     * A single result of a {@link MergeJoinCursor}: an element from the left cursor and all the elements from the
+     * right cursor with an equal join key.
+     * @param <T> the type of elements returned by the child cursors
+     */
+    public static class Match<T> {
+        @Nonnull
+        private final T left;
+        @Nonnull
+        private final List<T> right;
+
+        public Match(@Nonnull T left, @Nonnull List<T> right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Nonnull
+        public T getLeft() {
+            return left;
+        }
+
+        @Nonnull
+        public List<T> getRight() {
+            return right;
+        }
+
+        @Override
+        public String toString() {
+            return left + " JOIN " + right;
+        }
+    }
+
+    private static class MergeJoinContinuation implements RecordCursorContinuation {
+        @Nonnull
+        private final RecordCursorContinuation leftContinuation;
+        @Nonnull
+        private final RecordCursorContinuation rightContinuation;
+        @Nullable
+        private ByteString cachedByteString;
+
+        private MergeJoinContinuation(@Nonnull RecordCursorContinuation leftContinuation,
+                                      @Nonnull RecordCursorContinuation rightContinuation) {
+            this.leftContinuation = leftContinuation;
+            this.rightContinuation = rightContinuation;
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            return toByteString().toByteArray();
+        }
+
+        @Nonnull
+        @Override
+        public ByteString toByteString() {
+            if (cachedByteString == null) {
+                final RecordCursorProto.MergeJoinContinuation.Builder builder = RecordCursorProto.MergeJoinContinuation.newBuilder();
+                if (!leftContinuation.toByteString().isEmpty()) {
+                    builder.setLeftContinuation(leftContinuation.toByteString());
+                }
+                if (!rightContinuation.toByteString().isEmpty()) {
+                    builder.setRightContinuation(rightContinuation.toByteString());
+                }
+                cachedByteString = builder.build().toByteString();
+            }
+            return cachedByteString;
+        }
+
+        @Override
+        public boolean isEnd() {
+            return false;
+        }
+    }
+}
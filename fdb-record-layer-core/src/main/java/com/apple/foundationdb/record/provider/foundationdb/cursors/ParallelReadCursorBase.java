@@ -0,0 +1,438 @@
+/*
+ * ParallelReadCursorBase.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.cursors;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorResult;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Common code for cursors that read from several child cursors, called sources, concurrently.
+ *
+ * <p>
+ * Up to {@code parallelism} sources are read at a time, in the order given by {@link #getSources}, each reading ahead
+ * in batches using {@link RecordCursor#onNextBatch}. The total number of results read but not yet returned is kept
+ * within a buffer budget, except that a source whose own buffer is empty is always allowed to read, so that the
+ * cursor cannot stall. If the cursor is ordered, results are returned source by source, while later sources are read
+ * ahead. Otherwise, results are returned from whichever sources have them available.
+ * </p>
+ *
+ * <p>
+ * If any source stops because of an out-of-band limit, no more reads are started, the results already read are
+ * returned (only those from the current source, if ordered) and then the cursor stops with the same reason.
+ * </p>
+ *
+ * <p>
+ * All mutable state, including that of subclasses and sources, is guarded by {@link #lock}, since reads complete on
+ * other threads. Methods that are called with the lock held say so.
+ * </p>
+ *
+ * @param <T> the type of elements of the cursor
+ * @param <S> the type of sources
+ */
+@API(API.Status.INTERNAL)
+public abstract class ParallelReadCursorBase<T, S extends ParallelReadCursorBase.Source<T>> implements RecordCursor<T> {
+    protected final Object lock = new Object();
+    private final int parallelism;
+    private final int bufferSize;
+    private final boolean ordered;
+
+    private int buffered;
+    private int nextIndex;
+    @Nullable
+    private NoNextReason stopReason;
+    @Nullable
+    private Throwable failure;
+    @Nullable
+    private CompletableFuture<Void> waiting;
+    private boolean closed;
+    @Nullable
+    private RecordCursorResult<T> nextResult;
+
+    protected ParallelReadCursorBase(int parallelism, int bufferSize, boolean ordered) {
+        this.parallelism = parallelism;
+        this.bufferSize = bufferSize;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Get the sources that have not been exhausted, in the order in which they are read. Sources are removed from
+     * this list once their last result has been returned. Called with the lock held.
+     * @return a mutable list of sources
+     */
+    @Nonnull
+    protected abstract List<S> getSources();
+
+    /**
+     * Open the cursor for a source, when it is first read. Called with the lock held.
+     * @param source the source to read
+     * @return a cursor over the source's results
+     */
+    @Nonnull
+    protected abstract RecordCursor<T> openCursor(@Nonnull S source);
+
+    /**
+     * Get a continuation for the results returned so far. Called with the lock held.
+     * @return a continuation from which to resume
+     */
+    @Nonnull
+    protected abstract RecordCursorContinuation getCurrentContinuation();
+
+    /**
+     * Get ready to read sources the first time the cursor is advanced, such as by finding what they are.
+     * @return a future that completes when {@link #getSources} can be called
+     */
+    @Nonnull
+    protected CompletableFuture<Void> prepare() {
+        return AsyncUtil.DONE;
+    }
+
+    /**
+     * Get whether sources might still be added to those returned by {@link #getSources}. Called with the lock held.
+     * @return {@code true} if more sources may come
+     */
+    protected boolean mayAddSources() {
+        return false;
+    }
+
+    /**
+     * Get whether a source is being looked for, in which case the cursor waits for it rather than stopping.
+     * Called with the lock held.
+     * @return {@code true} if a source is about to be added
+     */
+    protected boolean isAddingSources() {
+        return false;
+    }
+
+    /**
+     * Start looking for more sources, because fewer than {@code parallelism} are being read. Any found should be
+     * added to those returned by {@link #getSources} inside {@link #whenReadCompletes}. Called with the lock held.
+     */
+    protected void addSources() {
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorResult<T>> onNext() {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        return prepare().thenCompose(vignore -> AsyncUtil.whileTrue(() -> {
+            final CompletableFuture<Void> wait;
+            synchronized (lock) {
+                if (failure != null) {
+                    return CompletableFuture.failedFuture(failure);
+                }
+                final RecordCursorResult<T> result = computeNextResult();
+                if (failure != null) {
+                    return CompletableFuture.failedFuture(failure);
+                }
+                if (result != null) {
+                    nextResult = result;
+                    return AsyncUtil.READY_FALSE;
+                }
+                wait = new CompletableFuture<>();
+                waiting = wait;
+            }
+            return wait.thenApply(vignore2 -> true);
+        }, getExecutor())).thenApply(vignore -> nextResult);
+    }
+
+    @Override
+    public void close() {
+        final CompletableFuture<Void> wait;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (S source : getSources()) {
+                source.close();
+            }
+            wait = waiting;
+            waiting = null;
+        }
+        if (wait != null) {
+            wait.cancel(false);
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Get whether new reads can be started, because the cursor has not been closed, failed or stopped by a limit.
+     * Called with the lock held.
+     * @return {@code true} if reading can continue
+     */
+    protected boolean canStartReads() {
+        return stopReason == null && failure == null && !closed;
+    }
+
+    /**
+     * Record that reading could not continue. Called with the lock held.
+     * @param err the cause, which the cursor will fail with
+     */
+    protected void fail(@Nonnull Throwable err) {
+        if (failure == null) {
+            failure = err;
+        }
+    }
+
+    /**
+     * Record that reading stopped because of a limit. Called with the lock held.
+     * @param reason the reason, which the cursor will stop with once the results already read are returned
+     */
+    protected void stop(@Nonnull NoNextReason reason) {
+        if (stopReason == null) {
+            stopReason = reason;
+        }
+    }
+
+    /**
+     * Run an action for an asynchronous read that has completed, with the lock held, and then wake up any
+     * {@link #onNext} waiting for it.
+     * @param action the action that records what was read
+     */
+    protected void whenReadCompletes(@Nonnull Runnable action) {
+        final CompletableFuture<Void> wait;
+        synchronized (lock) {
+            action.run();
+            wait = waiting;
+            waiting = null;
+        }
+        if (wait != null) {
+            wait.complete(null);
+        }
+    }
+
+    // Called with the lock held. Returns null if nothing can be returned until some read completes.
+    @Nullable
+    private RecordCursorResult<T> computeNextResult() {
+        while (true) {
+            startReads();
+            boolean progress = false;
+            boolean anyReading = false;
+            final List<S> sources = getSources();
+            final int size = sources.size();
+            for (int n = 0; n < size; n++) {
+                final int index = ordered ? n : (nextIndex + n) % size;
+                final S source = sources.get(index);
+                RecordCursorResult<T> result;
+                while ((result = source.buffer.poll()) != null) {
+                    if (result.hasNext()) {
+                        buffered--;
+                        source.lastContinuation = result.getContinuation();
+                        nextIndex = index + 1;
+                        return RecordCursorResult.withNextValue(result.get(), getCurrentContinuation());
+                    }
+                    progress = true;
+                    if (result.getNoNextReason().isSourceExhausted()) {
+                        source.exhausted = true;
+                        source.close();
+                    } else {
+                        source.lastContinuation = result.getContinuation();
+                    }
+                }
+                if (!source.exhausted) {
+                    anyReading |= source.reading;
+                    if (ordered) {
+                        break;
+                    }
+                }
+            }
+            sources.removeIf(source -> source.exhausted);
+            if (sources.isEmpty() && !mayAddSources() && stopReason == null) {
+                return RecordCursorResult.exhausted();
+            }
+            if (!ordered || sources.isEmpty()) {
+                anyReading |= isAddingSources();
+            }
+            if (!progress) {
+                if (anyReading || failure != null) {
+                    return null;
+                }
+                if (stopReason != null) {
+                    return RecordCursorResult.withoutNextValue(getCurrentContinuation(), stopReason);
+                }
+                throw new RecordCoreException("parallel cursor has no source to read")
+                        .addLogInfo("cursorClass", getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Start reading sources, up to {@code parallelism} of them, as the buffer budget allows. Called with the lock held.
+     */
+    protected void startReads() {
+        int active = 0;
+        for (S source : getSources()) {
+            if (!canStartReads() || active >= parallelism) {
+                return;
+            }
+            if (source.exhausted || source.ended) {
+                continue;
+            }
+            active++;
+            if (!source.reading && (source.buffer.isEmpty() || buffered < bufferSize)) {
+                read(source);
+            }
+        }
+        if (active < parallelism && canStartReads()) {
+            addSources();
+        }
+    }
+
+    // Called with the lock held. Reads batches for as long as they complete immediately and the budget allows.
+    private void read(@Nonnull S source) {
+        if (source.cursor == null) {
+            source.cursor = openCursor(source);
+        }
+        source.reading = true;
+        while (true) {
+            final int batchSize = Math.max(1, Math.min(RecordCursor.DEFAULT_BATCH_SIZE, bufferSize - buffered));
+            final CompletableFuture<List<RecordCursorResult<T>>> batchFuture = source.cursor.onNextBatch(batchSize);
+            if (!batchFuture.isDone()) {
+                batchFuture.whenComplete((batch, err) -> whenReadCompletes(() -> {
+                    source.reading = false;
+                    if (addBatch(source, batch, err)) {
+                        startReads();
+                    }
+                }));
+                return;
+            }
+            final List<RecordCursorResult<T>> batch;
+            try {
+                batch = batchFuture.join();
+            } catch (RuntimeException ex) {
+                addBatch(source, null, ex.getCause() == null ? ex : ex.getCause());
+                source.reading = false;
+                return;
+            }
+            if (!addBatch(source, batch, null) || source.ended || buffered >= bufferSize) {
+                source.reading = false;
+                return;
+            }
+        }
+    }
+
+    // Called with the lock held. Returns whether reading can continue.
+    private boolean addBatch(@Nonnull S source, @Nullable List<RecordCursorResult<T>> batch, @Nullable Throwable err) {
+        if (err != null) {
+            fail(err);
+            return false;
+        }
+        if (closed) {
+            return false;
+        }
+        for (RecordCursorResult<T> result : Objects.requireNonNull(batch)) {
+            source.buffer.add(result);
+            if (result.hasNext()) {
+                buffered++;
+            } else {
+                source.ended = true;
+                if (!result.getNoNextReason().isSourceExhausted()) {
+                    stop(result.getNoNextReason());
+                }
+            }
+        }
+        return stopReason == null;
+    }
+
+    /**
+     * The state of reading one child cursor of a {@link ParallelReadCursorBase}.
+     * @param <T> the type of elements of the cursor
+     */
+    public static class Source<T> {
+        @Nonnull
+        final Queue<RecordCursorResult<T>> buffer = new ArrayDeque<>();
+        @Nullable
+        RecordCursorContinuation lastContinuation;
+        @Nullable
+        RecordCursor<T> cursor;
+        boolean reading;
+        // The last result has been read (but maybe not returned yet).
+        boolean ended;
+        // The last result has been returned.
+        boolean exhausted;
+
+        /**
+         * Get the continuation of the last result returned from this source.
+         * @return the continuation or {@code null} if nothing has been returned yet
+         */
+        @Nullable
+        public RecordCursorContinuation getLastContinuation() {
+            return lastContinuation;
+        }
+
+        /**
+         * Get the cursor for this source.
+         * @return the cursor or {@code null} if it has not been read yet
+         */
+        @Nullable
+        public RecordCursor<T> getCursor() {
+            return cursor;
+        }
+
+        /**
+         * Get whether this source's cursor is in use, either by a read or with results buffered that have not been
+         * returned yet.
+         * @return {@code true} if the cursor is busy
+         */
+        public boolean isBusy() {
+            return reading || !buffer.isEmpty();
+        }
+
+        /**
+         * Get whether the last result from this source has been returned.
+         * @return {@code true} if this source is done
+         */
+        public boolean isExhausted() {
+            return exhausted;
+        }
+
+        /**
+         * Mark this source as already exhausted, such as when resuming from a continuation.
+         */
+        public void setExhausted() {
+            this.exhausted = true;
+        }
+
+        protected void close() {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+}
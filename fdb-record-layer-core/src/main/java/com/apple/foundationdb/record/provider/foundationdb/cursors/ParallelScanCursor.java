@@ -0,0 +1,492 @@
+/*
+ * ParallelScanCursor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.cursors;
+
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.EndpointType;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.TupleRange;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * A cursor that scans a {@link TupleRange} by dividing it into sub-ranges and reading several of those concurrently.
+ *
+ * <p>
+ * The range is divided at split points, typically the boundaries between key ranges stored on different servers,
+ * as returned by {@link com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore#getPrimaryKeyBoundaries}.
+ * These are obtained asynchronously the first time the cursor is advanced. Any that are not strictly inside the range
+ * are ignored and, if there are many of them, they are coalesced so
+ * that there are at most {@value #SUB_RANGES_PER_SCANNER} sub-ranges per concurrent scanner. Sub-ranges are then handed
+ * out to up to {@code parallelism} scanners as earlier ones finish, so that a scanner that gets a small or fast
+ * sub-range goes on to the next one without waiting for the others.
+ * </p>
+ *
+ * <p>
+ * Each scanner reads ahead in batches using {@link RecordCursor#onNextBatch}. The total number of results read but
+ * not yet returned is kept within a buffer budget, except that a scanner whose own buffer is empty is always allowed to
+ * read, so that the scan cannot stall.
+ * </p>
+ *
+ * <p>
+ * If the cursor is <em>ordered</em>, results are returned in the same order as a single scan of the whole range
+ * would return them: the sub-ranges after the current one are read ahead but not returned until it is finished. If
+ * it is not ordered, results are returned from whichever sub-ranges have them available.
+ * </p>
+ *
+ * <p>
+ * The continuation records the split points and the position reached within each sub-range, so a resumed scan
+ * continues with the same sub-ranges. If any sub-range stops because of an out-of-band limit, no more reads are started,
+ * the results already read are returned (only those from the current sub-range, if ordered) and then the cursor stops
+ * with the same reason. Because of this, the sub-range cursors should not have in-band limits, such as a returned row
+ * limit or skip, which should instead be applied to this cursor.
+ * </p>
+ *
+ * @param <T> the type of elements of the cursor
+ */
+@API(API.Status.EXPERIMENTAL)
+public class ParallelScanCursor<T> extends ParallelReadCursorBase<T, ParallelScanCursor<T>.SubRange> {
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final int DEFAULT_BUFFER_SIZE = 1000;
+    public static final int SUB_RANGES_PER_SCANNER = 4;
+
+    @Nonnull
+    private final Executor executor;
+    @Nonnull
+    private final TupleRange range;
+    @Nonnull
+    private final BiFunction<TupleRange, byte[], RecordCursor<T>> cursorFunction;
+    @Nonnull
+    private final Supplier<CompletableFuture<List<Tuple>>> splitPointsSupplier;
+    private final int parallelism;
+    private final boolean reverse;
+    @Nullable
+    private final byte[] continuation;
+
+    @Nullable
+    private CompletableFuture<Void> splitFuture;
+    @Nullable
+    private List<Tuple> splitPoints;
+    // In ascending key order.
+    @Nullable
+    private List<SubRange> subRanges;
+    // In the order in which they are scanned, without those already exhausted.
+    @Nullable
+    private List<SubRange> scanOrder;
+
+    @SuppressWarnings("squid:S00107") // Builder has many parameters
+    private ParallelScanCursor(@Nonnull Executor executor, @Nonnull TupleRange range,
+                               @Nonnull BiFunction<TupleRange, byte[], RecordCursor<T>> cursorFunction,
+                               @Nonnull Supplier<CompletableFuture<List<Tuple>>> splitPointsSupplier,
+                               int parallelism, int bufferSize, boolean ordered, boolean reverse,
+                               @Nullable byte[] continuation) {
+        super(parallelism, bufferSize, ordered);
+        this.executor = executor;
+        this.range = range;
+        this.cursorFunction = cursorFunction;
+        this.splitPointsSupplier = splitPointsSupplier;
+        this.parallelism = parallelism;
+        this.reverse = reverse;
+        this.continuation = continuation;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (splitFuture != null && !splitFuture.isDone()) {
+            splitFuture.cancel(false);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+        if (visitor.visitEnter(this)) {
+            final List<RecordCursor<T>> children = new ArrayList<>();
+            synchronized (lock) {
+                if (subRanges != null) {
+                    for (SubRange subRange : subRanges) {
+                        if (subRange.getCursor() != null) {
+                            children.add(subRange.getCursor());
+                        }
+                    }
+                }
+            }
+            for (RecordCursor<T> child : children) {
+                if (!child.accept(visitor)) {
+                    break;
+                }
+            }
+        }
+        return visitor.visitLeave(this);
+    }
+
+    /**
+     * Get the number of sub-ranges into which the range is divided. This is only known once the cursor has been
+     * advanced.
+     * @return the number of sub-ranges or {@code 0} if the range has not been divided yet
+     */
+    public int getSubRangeCount() {
+        synchronized (lock) {
+            return subRanges == null ? 0 : subRanges.size();
+        }
+    }
+
+    @Nonnull
+    @Override
+    protected List<SubRange> getSources() {
+        return scanOrder == null ? Collections.emptyList() : scanOrder;
+    }
+
+    @Nonnull
+    @Override
+    protected RecordCursor<T> openCursor(@Nonnull SubRange subRange) {
+        return cursorFunction.apply(subRange.range, subRange.startContinuation);
+    }
+
+    @Nonnull
+    @Override
+    protected RecordCursorContinuation getCurrentContinuation() {
+        return new ParallelScanContinuation(this);
+    }
+
+    @Nonnull
+    @Override
+    protected CompletableFuture<Void> prepare() {
+        if (splitFuture == null) {
+            if (continuation != null) {
+                initSubRanges(splitPointsFromContinuation(continuation));
+                splitFuture = AsyncUtil.DONE;
+            } else if (!isSplittable(range)) {
+                initSubRanges(Collections.emptyList());
+                splitFuture = AsyncUtil.DONE;
+            } else {
+                splitFuture = splitPointsSupplier.get().thenAccept(points -> initSubRanges(coalesce(points)));
+            }
+        }
+        return splitFuture;
+    }
+
+    private static boolean isSplittable(@Nonnull TupleRange range) {
+        return range.getLowEndpoint() != EndpointType.PREFIX_STRING && range.getHighEndpoint() != EndpointType.PREFIX_STRING;
+    }
+
+    // Keep only strictly ascending split points inside the range and no more than are needed for the maximum number
+    // of sub-ranges. Comparing packed keys rather than tuples takes account of the range's endpoint types.
+    @Nonnull
+    private List<Tuple> coalesce(@Nonnull List<Tuple> points) {
+        final Range keyRange = range.toRange();
+        final List<Tuple> ascending = new ArrayList<>(points.size());
+        byte[] lastKey = keyRange.begin;
+        for (Tuple point : points) {
+            final byte[] key = point.pack();
+            if (ByteArrayUtil.compareUnsigned(key, lastKey) > 0 && ByteArrayUtil.compareUnsigned(key, keyRange.end) < 0) {
+                ascending.add(point);
+                lastKey = key;
+            }
+        }
+        final int maxSplitPoints = parallelism * SUB_RANGES_PER_SCANNER - 1;
+        if (ascending.size() <= maxSplitPoints) {
+            return ascending;
+        }
+        final List<Tuple> result = new ArrayList<>(maxSplitPoints);
+        for (int i = 1; i <= maxSplitPoints; i++) {
+            result.add(ascending.get((int)((long)i * ascending.size() / (maxSplitPoints + 1))));
+        }
+        return result;
+    }
+
+    @Nonnull
+    private List<Tuple> splitPointsFromContinuation(@Nonnull byte[] bytes) {
+        final RecordCursorProto.ParallelScanContinuation parsed;
+        try {
+            parsed = RecordCursorProto.ParallelScanContinuation.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException ex) {
+            throw new RecordCoreException("Error parsing ParallelScanCursor continuation", ex)
+                    .addLogInfo("raw_bytes", ByteArrayUtil2.loggable(bytes));
+        }
+        if (parsed.getRangeStateCount() != parsed.getSplitPointCount() + 1) {
+            throw new RecordCoreException("ParallelScanCursor continuation has wrong number of range states")
+                    .addLogInfo("raw_bytes", ByteArrayUtil2.loggable(bytes));
+        }
+        final List<Tuple> points = new ArrayList<>(parsed.getSplitPointCount());
+        for (ByteString point : parsed.getSplitPointList()) {
+            points.add(Tuple.fromBytes(point.toByteArray()));
+        }
+        return points;
+    }
+
+    private void initSubRanges(@Nonnull List<Tuple> points) {
+        RecordCursorProto.ParallelScanContinuation parsed = null;
+        if (continuation != null) {
+            try {
+                parsed = RecordCursorProto.ParallelScanContinuation.parseFrom(continuation);
+            } catch (InvalidProtocolBufferException ex) {
+                throw new RecordCoreException("Error parsing ParallelScanCursor continuation", ex);
+            }
+        }
+        final List<SubRange> ranges = new ArrayList<>(points.size() + 1);
+        for (int i = 0; i <= points.size(); i++) {
+            final TupleRange subRange = new TupleRange(
+                    i == 0 ? range.getLow() : points.get(i - 1),
+                    i == points.size() ? range.getHigh() : points.get(i),
+                    i == 0 ? range.getLowEndpoint() : EndpointType.RANGE_INCLUSIVE,
+                    i == points.size() ? range.getHighEndpoint() : EndpointType.RANGE_EXCLUSIVE);
+            final SubRange state = new SubRange(subRange);
+            if (parsed != null) {
+                final RecordCursorProto.ParallelScanContinuation.RangeState rangeState = parsed.getRangeState(i);
+                if (rangeState.getExhausted()) {
+                    state.setExhausted();
+                }
+                if (rangeState.hasContinuation()) {
+                    state.startContinuation = rangeState.getContinuation().toByteArray();
+                }
+            }
+            ranges.add(state);
+        }
+        final List<SubRange> order = new ArrayList<>(ranges);
+        if (reverse) {
+            Collections.reverse(order);
+        }
+        synchronized (lock) {
+            splitPoints = points;
+            subRanges = ranges;
+            scanOrder = order;
+        }
+    }
+
+    final class SubRange extends ParallelReadCursorBase.Source<T> {
+        @Nonnull
+        private final TupleRange range;
+        @Nullable
+        private byte[] startContinuation;
+
+        private SubRange(@Nonnull TupleRange range) {
+            this.range = range;
+        }
+    }
+
+    /**
+     * The continuation of a {@link ParallelScanCursor}, a snapshot of how far each sub-range has been returned.
+     */
+    private static class ParallelScanContinuation implements RecordCursorContinuation {
+        @Nonnull
+        private final List<Tuple> splitPoints;
+        @Nonnull
+        private final byte[][] startContinuations;
+        @Nonnull
+        private final RecordCursorContinuation[] continuations;
+        @Nonnull
+        private final boolean[] exhausted;
+        @Nullable
+        private ByteString cachedByteString;
+
+        private ParallelScanContinuation(@Nonnull ParallelScanCursor<?> cursor) {
+            this.splitPoints = cursor.splitPoints;
+            final int size = cursor.subRanges.size();
+            this.startContinuations = new byte[size][];
+            this.continuations = new RecordCursorContinuation[size];
+            this.exhausted = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                final ParallelScanCursor<?>.SubRange subRange = cursor.subRanges.get(i);
+                startContinuations[i] = subRange.startContinuation;
+                continuations[i] = subRange.getLastContinuation();
+                exhausted[i] = subRange.isExhausted();
+            }
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            return toByteString().toByteArray();
+        }
+
+        @Nonnull
+        @Override
+        public ByteString toByteString() {
+            if (cachedByteString == null) {
+                final RecordCursorProto.ParallelScanContinuation.Builder builder = RecordCursorProto.ParallelScanContinuation.newBuilder();
+                for (Tuple splitPoint : splitPoints) {
+                    builder.addSplitPoint(ByteString.copyFrom(splitPoint.pack()));
+                }
+                for (int i = 0; i < exhausted.length; i++) {
+                    final RecordCursorProto.ParallelScanContinuation.RangeState.Builder rangeState = builder.addRangeStateBuilder();
+                    if (exhausted[i] || (continuations[i] != null && continuations[i].isEnd())) {
+                        rangeState.setExhausted(true);
+                    } else if (continuations[i] != null) {
+                        rangeState.setContinuation(continuations[i].toByteString());
+                    } else if (startContinuations[i] != null) {
+                        rangeState.setContinuation(ByteString.copyFrom(startContinuations[i]));
+                    }
+                }
+                cachedByteString = builder.build().toByteString();
+            }
+            return cachedByteString;
+        }
+
+        @Override
+        public boolean isEnd() {
+            return false;
+        }
+    }
+
+    /**
+     * A builder for {@link ParallelScanCursor}.
+     *
+     * @param <T> the type of elements of the cursor
+     */
+    public static class Builder<T> {
+        @Nonnull
+        private final Executor executor;
+        @Nonnull
+        private final TupleRange range;
+        @Nonnull
+        private final BiFunction<TupleRange, byte[], RecordCursor<T>> cursorFunction;
+        @Nonnull
+        private Supplier<CompletableFuture<List<Tuple>>> splitPointsSupplier = () -> CompletableFuture.completedFuture(Collections.emptyList());
+        private int parallelism = DEFAULT_PARALLELISM;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private boolean ordered;
+        private boolean reverse;
+        @Nullable
+        private byte[] continuation;
+
+        /**
+         * Create a new builder.
+         * @param executor the executor for the cursor
+         * @param range the range to be scanned
+         * @param cursorFunction a function to scan a sub-range of {@code range} from a continuation
+         */
+        public Builder(@Nonnull Executor executor, @Nonnull TupleRange range,
+                       @Nonnull BiFunction<TupleRange, byte[], RecordCursor<T>> cursorFunction) {
+            this.executor = executor;
+            this.range = range;
+            this.cursorFunction = cursorFunction;
+        }
+
+        /**
+         * Set how to find the points at which to divide the range. This is only used when not resuming from a
+         * continuation. The points should be within the range.
+         * @param splitPointsSupplier a supplier of a future list of split points, in ascending order
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> setSplitPoints(@Nonnull Supplier<CompletableFuture<List<Tuple>>> splitPointsSupplier) {
+            this.splitPointsSupplier = splitPointsSupplier;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of sub-ranges to scan at the same time.
+         * @param parallelism the number of concurrent scanners
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> setParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new RecordCoreArgumentException("parallelism must be positive")
+                        .addLogInfo("parallelism", parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Set the budget for results read ahead but not yet returned, across all sub-ranges.
+         * @param bufferSize the maximum number of buffered results
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> setBufferSize(int bufferSize) {
+            if (bufferSize < 1) {
+                throw new RecordCoreArgumentException("buffer size must be positive")
+                        .addLogInfo("bufferSize", bufferSize);
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Set whether results must be returned in the order of a single scan of the range.
+         * @param ordered {@code true} to preserve the order of the range
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> setOrdered(boolean ordered) {
+            this.ordered = ordered;
+            return this;
+        }
+
+        /**
+         * Set whether the sub-range cursors scan in reverse order. If the cursor is ordered, this makes the
+         * sub-ranges also be returned in reverse order.
+         * @param reverse {@code true} if the range is scanned from high to low
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> setReverse(boolean reverse) {
+            this.reverse = reverse;
+            return this;
+        }
+
+        /**
+         * Set the continuation from a previous scan of the same range.
+         * @param continuation the continuation or {@code null} to start from the beginning
+         * @return this builder
+         */
+        @Nonnull
+        public Builder<T> setContinuation(@Nullable byte[] continuation) {
+            this.continuation = continuation;
+            return this;
+        }
+
+        @Nonnull
+        public ParallelScanCursor<T> build() {
+            return new ParallelScanCursor<>(executor, range, cursorFunction, splitPointsSupplier,
+                    parallelism, bufferSize, ordered, reverse, continuation);
+        }
+    }
+}
@@ -0,0 +1,889 @@
+/*
+ * BitmapContainer.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.indexes;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * An immutable set of offsets within a fixed-size range, as stored in a single entry of a
+ * {@link com.apple.foundationdb.record.metadata.IndexTypes#BITMAP_VALUE BITMAP_VALUE} index.
+ *
+ * <p>
+ * Following <a href="https://roaringbitmap.org/">Roaring bitmaps</a>, a container has one of three representations:
+ * </p>
+ * <ul>
+ *     <li>a <em>bitmap</em> with one bit per offset, which is best for dense sets</li>
+ *     <li>a sorted <em>array</em> of the offsets that are set, which is best for sparse sets</li>
+ *     <li>a sorted list of <em>runs</em> of consecutive offsets, which is best for sets that are mostly contiguous</li>
+ * </ul>
+ *
+ * <p>
+ * Boolean operations pick an algorithm based on the representations of their operands, so that, for example,
+ * intersecting a small array with a large bitmap only probes the bitmap for the elements of the array. The result
+ * of an operation is not necessarily in the smallest representation; {@link #optimize()} converts a container to
+ * whichever representation encodes smallest.
+ * </p>
+ *
+ * <p>
+ * The {@linkplain #encode() encoding} starts with a header byte giving the representation, so that a bitmap
+ * container is a zero byte followed by the same bytes as an uncompressed bitmap. Array and run containers store
+ * their offsets as two-byte integers, or four-byte integers if the size is larger than {@code 65536}.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public abstract class BitmapContainer {
+    static final byte BITMAP_TYPE = 0x00;
+    static final byte ARRAY_TYPE = 0x01;
+    static final byte RUN_TYPE = 0x02;
+    static final byte WIDE_FLAG = 0x10;
+
+    private static final int NARROW_MAX_SIZE = 0x10000;
+
+    protected final int size;
+
+    protected BitmapContainer(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Get the number of offsets that this container covers, that is, one more than the largest offset that could be set.
+     * @return the size of this container
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get the number of offsets that are set.
+     * @return the cardinality of this container
+     */
+    public abstract int getCardinality();
+
+    /**
+     * Get whether no offsets are set.
+     * @return {@code true} if this container is empty
+     */
+    public abstract boolean isEmpty();
+
+    /**
+     * Get whether the given offset is set.
+     * @param offset an offset between {@code 0} and {@link #getSize()}
+     * @return {@code true} if the offset is set
+     */
+    public abstract boolean contains(int offset);
+
+    /**
+     * Get the offsets that are set, in ascending order.
+     * @return a new array of offsets
+     */
+    @Nonnull
+    public abstract int[] toArray();
+
+    /**
+     * Get the offsets that are set as an uncompressed bitmap, in which offset {@code i} is bit {@code i % 8} of byte
+     * {@code i / 8}.
+     * @return a new bitmap of {@code (getSize() + 7) / 8} bytes
+     */
+    @Nonnull
+    public abstract byte[] toBitmap();
+
+    /**
+     * Get the runs of consecutive offsets that are set, as pairs of start (inclusive) and end (exclusive) offsets.
+     * @return a new array of run boundaries
+     */
+    @Nonnull
+    abstract int[] toRuns();
+
+    abstract byte getType();
+
+    abstract int encodedSize();
+
+    /**
+     * Encode this container for storage.
+     * @return the encoded container
+     * @see #decode(byte[], int)
+     */
+    @Nonnull
+    public byte[] encode() {
+        final byte[] result = new byte[encodedSize()];
+        final boolean wide = isWide(size);
+        result[0] = getType() == BITMAP_TYPE ? BITMAP_TYPE : (byte)(getType() | (wide ? WIDE_FLAG : 0));
+        encodeBody(result, wide);
+        return result;
+    }
+
+    abstract void encodeBody(@Nonnull byte[] result, boolean wide);
+
+    /**
+     * Convert this container to whichever of the three representations has the smallest encoding.
+     * @return an equivalent container that encodes smallest
+     */
+    @Nonnull
+    public BitmapContainer optimize() {
+        final int width = isWide(size) ? 4 : 2;
+        final int bitmapSize = 1 + (size + 7) / 8;
+        final int arraySize = 1 + width * getCardinality();
+        final int[] runs = toRuns();
+        final int runSize = 1 + width * runs.length;
+        final BitmapContainer best;
+        if (runSize < arraySize && runSize < bitmapSize) {
+            best = getType() == RUN_TYPE ? this : new RunContainer(size, runs);
+        } else if (arraySize < bitmapSize) {
+            best = getType() == ARRAY_TYPE ? this : new ArrayContainer(size, toArray());
+        } else {
+            best = getType() == BITMAP_TYPE ? this : new BitsContainer(size, toBitmap());
+        }
+        return best;
+    }
+
+    /**
+     * Get the intersection of this container and another of the same size.
+     * @param other the other container
+     * @return a container with the offsets that are set in both containers
+     */
+    @Nonnull
+    public BitmapContainer and(@Nonnull BitmapContainer other) {
+        checkSameSize(other);
+        if (getType() == ARRAY_TYPE && other.getType() == ARRAY_TYPE) {
+            return new ArrayContainer(size, intersectArrays(toArray(), other.toArray()));
+        }
+        if (getType() == ARRAY_TYPE) {
+            return filter(other);
+        }
+        if (other.getType() == ARRAY_TYPE) {
+            return other.filter(this);
+        }
+        if (getType() == RUN_TYPE && other.getType() == RUN_TYPE) {
+            return new RunContainer(size, intersectRuns(toRuns(), other.toRuns()));
+        }
+        final byte[] result = toBitmap();
+        final byte[] otherBits = other.toBitmap();
+        for (int i = 0; i < result.length; i++) {
+            result[i] &= otherBits[i];
+        }
+        return new BitsContainer(size, result);
+    }
+
+    /**
+     * Get the union of this container and another of the same size.
+     * @param other the other container
+     * @return a container with the offsets that are set in either container
+     */
+    @Nonnull
+    public BitmapContainer or(@Nonnull BitmapContainer other) {
+        checkSameSize(other);
+        if (getType() == ARRAY_TYPE && other.getType() == ARRAY_TYPE) {
+            return new ArrayContainer(size, unionArrays(toArray(), other.toArray()));
+        }
+        if (getType() != BITMAP_TYPE && other.getType() != BITMAP_TYPE) {
+            return new RunContainer(size, unionRuns(toRuns(), other.toRuns()));
+        }
+        final byte[] result = toBitmap();
+        final byte[] otherBits = other.toBitmap();
+        for (int i = 0; i < result.length; i++) {
+            result[i] |= otherBits[i];
+        }
+        return new BitsContainer(size, result);
+    }
+
+    /**
+     * Get the symmetric difference of this container and another of the same size.
+     * @param other the other container
+     * @return a container with the offsets that are set in exactly one of the containers
+     */
+    @Nonnull
+    public BitmapContainer xor(@Nonnull BitmapContainer other) {
+        checkSameSize(other);
+        if (getType() == ARRAY_TYPE && other.getType() == ARRAY_TYPE) {
+            return new ArrayContainer(size, xorArrays(toArray(), other.toArray()));
+        }
+        final byte[] result = toBitmap();
+        final byte[] otherBits = other.toBitmap();
+        for (int i = 0; i < result.length; i++) {
+            result[i] ^= otherBits[i];
+        }
+        return new BitsContainer(size, result);
+    }
+
+    /**
+     * Get the complement of this container.
+     * @return a container with the offsets below {@link #getSize()} that are not set in this container
+     */
+    @Nonnull
+    public abstract BitmapContainer not();
+
+    /**
+     * Get the part of this container between two offsets.
+     * @param from the first offset to include
+     * @param to the offset after the last one to include
+     * @return a container of size {@code to - from} whose offset {@code i} is offset {@code from + i} of this container
+     */
+    @Nonnull
+    public abstract BitmapContainer slice(int from, int to);
+
+    /**
+     * Get a container with the given offset set in addition to those set in this container.
+     * @param offset the offset to set
+     * @return a container with the offset set
+     */
+    @Nonnull
+    public BitmapContainer add(int offset) {
+        return or(of(size, offset));
+    }
+
+    /**
+     * Get a container with the given offset cleared.
+     * @param offset the offset to clear
+     * @return a container without the offset set
+     */
+    @Nonnull
+    public BitmapContainer remove(int offset) {
+        return and(new RunContainer(size, complementRuns(new int[] {offset, offset + 1}, size)));
+    }
+
+    // Keep the elements of this container that are also in the other one.
+    @Nonnull
+    private BitmapContainer filter(@Nonnull BitmapContainer other) {
+        final int[] values = toArray();
+        int count = 0;
+        for (int value : values) {
+            if (other.contains(value)) {
+                values[count++] = value;
+            }
+        }
+        return new ArrayContainer(size, Arrays.copyOf(values, count));
+    }
+
+    private void checkSameSize(@Nonnull BitmapContainer other) {
+        if (size != other.size) {
+            throw new RecordCoreArgumentException("bitmap containers are not all the same size",
+                    LogMessageKeys.EXPECTED, size,
+                    LogMessageKeys.ACTUAL, other.size);
+        }
+    }
+
+    /**
+     * Get an empty container.
+     * @param size the size of the container
+     * @return a container of the given size with no offsets set
+     */
+    @Nonnull
+    public static BitmapContainer empty(int size) {
+        return new ArrayContainer(size, new int[0]);
+    }
+
+    /**
+     * Get a container with all offsets set.
+     * @param size the size of the container
+     * @return a container of the given size with all offsets set
+     */
+    @Nonnull
+    public static BitmapContainer full(int size) {
+        return new RunContainer(size, size == 0 ? new int[0] : new int[] {0, size});
+    }
+
+    /**
+     * Get a container with the given offsets set.
+     * @param size the size of the container
+     * @param offsets the offsets to set
+     * @return a container of the given size with the given offsets set
+     */
+    @Nonnull
+    public static BitmapContainer of(int size, int... offsets) {
+        final int[] values = Arrays.stream(offsets).sorted().distinct().toArray();
+        for (int value : values) {
+            checkOffset(value, size);
+        }
+        return new ArrayContainer(size, values);
+    }
+
+    /**
+     * Get a container backed by an uncompressed bitmap. The bitmap is not copied and so must not be modified
+     * afterwards.
+     * @param bitmap the bitmap, in the format returned by {@link #toBitmap()}
+     * @return a bitmap container whose size is eight times the length of the bitmap
+     */
+    @Nonnull
+    public static BitmapContainer fromBitmap(@Nonnull byte[] bitmap) {
+        return new BitsContainer(bitmap.length * 8, bitmap);
+    }
+
+    /**
+     * Decode a container that was encoded with {@link #encode()}.
+     * @param encoded the encoded container
+     * @param size the size of the encoded container
+     * @return the decoded container
+     */
+    @Nonnull
+    public static BitmapContainer decode(@Nonnull byte[] encoded, int size) {
+        if (encoded.length == 0) {
+            throw new RecordCoreException("bitmap container encoding is empty");
+        }
+        final byte header = encoded[0];
+        if (header == BITMAP_TYPE) {
+            return new BitsContainer(size, Arrays.copyOfRange(encoded, 1, 1 + (size + 7) / 8));
+        }
+        final boolean wide = (header & WIDE_FLAG) != 0;
+        final int width = wide ? 4 : 2;
+        final int[] values = new int[(encoded.length - 1) / width];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readInt(encoded, 1 + i * width, wide);
+        }
+        switch (header & ~WIDE_FLAG) {
+            case ARRAY_TYPE:
+                return new ArrayContainer(size, values);
+            case RUN_TYPE:
+                // Runs are stored as start and length minus one, so that a full run fits in the narrow width
+                for (int i = 0; i < values.length; i += 2) {
+                    values[i + 1] += values[i] + 1;
+                }
+                return new RunContainer(size, values);
+            default:
+                throw new RecordCoreException("unknown bitmap container type",
+                        LogMessageKeys.ACTUAL_TYPE, header);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BitmapContainer)) {
+            return false;
+        }
+        final BitmapContainer that = (BitmapContainer)o;
+        return size == that.size && Arrays.equals(toArray(), that.toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * size + Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{size=" + size + ", runs=" + Arrays.toString(toRuns()) + "}";
+    }
+
+    private static boolean isWide(int size) {
+        return size > NARROW_MAX_SIZE;
+    }
+
+    private static void checkOffset(int offset, int size) {
+        if (offset < 0 || offset >= size) {
+            throw new RecordCoreArgumentException("offset out of range for bitmap container",
+                    "offset", offset,
+                    "size", size);
+        }
+    }
+
+    private static int readInt(@Nonnull byte[] bytes, int pos, boolean wide) {
+        if (wide) {
+            return ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16) | ((bytes[pos + 2] & 0xFF) << 8) | (bytes[pos + 3] & 0xFF);
+        } else {
+            return ((bytes[pos] & 0xFF) << 8) | (bytes[pos + 1] & 0xFF);
+        }
+    }
+
+    private static void writeInt(@Nonnull byte[] bytes, int pos, int value, boolean wide) {
+        if (wide) {
+            bytes[pos++] = (byte)(value >>> 24);
+            bytes[pos++] = (byte)(value >>> 16);
+        }
+        bytes[pos++] = (byte)(value >>> 8);
+        bytes[pos] = (byte)value;
+    }
+
+    @Nonnull
+    private static int[] intersectArrays(@Nonnull int[] a, @Nonnull int[] b) {
+        final int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    @Nonnull
+    private static int[] unionArrays(@Nonnull int[] a, @Nonnull int[] b) {
+        final int[] result = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                result[count++] = a[i++];
+            } else if (i >= a.length || b[j] < a[i]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    @Nonnull
+    private static int[] xorArrays(@Nonnull int[] a, @Nonnull int[] b) {
+        final int[] result = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                result[count++] = a[i++];
+            } else if (i >= a.length || b[j] < a[i]) {
+                result[count++] = b[j++];
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    @Nonnull
+    private static int[] intersectRuns(@Nonnull int[] a, @Nonnull int[] b) {
+        final int[] result = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length && j < b.length) {
+            final int start = Math.max(a[i], b[j]);
+            final int end = Math.min(a[i + 1], b[j + 1]);
+            if (start < end) {
+                result[count++] = start;
+                result[count++] = end;
+            }
+            if (a[i + 1] < b[j + 1]) {
+                i += 2;
+            } else {
+                j += 2;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    @Nonnull
+    private static int[] unionRuns(@Nonnull int[] a, @Nonnull int[] b) {
+        final int[] result = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length || j < b.length) {
+            final int start;
+            final int end;
+            if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+                start = a[i];
+                end = a[i + 1];
+                i += 2;
+            } else {
+                start = b[j];
+                end = b[j + 1];
+                j += 2;
+            }
+            if (count > 0 && start <= result[count - 1]) {
+                result[count - 1] = Math.max(result[count - 1], end);
+            } else {
+                result[count++] = start;
+                result[count++] = end;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    @Nonnull
+    private static int[] complementRuns(@Nonnull int[] runs, int size) {
+        final int[] result = new int[runs.length + 2];
+        int count = 0;
+        int previousEnd = 0;
+        for (int i = 0; i < runs.length; i += 2) {
+            if (runs[i] > previousEnd) {
+                result[count++] = previousEnd;
+                result[count++] = runs[i];
+            }
+            previousEnd = runs[i + 1];
+        }
+        if (previousEnd < size) {
+            result[count++] = previousEnd;
+            result[count++] = size;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    @Nonnull
+    private static int[] runsOfArray(@Nonnull int[] values) {
+        final int[] result = new int[values.length * 2];
+        int count = 0;
+        for (int value : values) {
+            if (count > 0 && result[count - 1] == value) {
+                result[count - 1] = value + 1;
+            } else {
+                result[count++] = value;
+                result[count++] = value + 1;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * A container represented by an uncompressed bitmap.
+     */
+    private static final class BitsContainer extends BitmapContainer {
+        @Nonnull
+        private final byte[] bits;
+
+        private BitsContainer(int size, @Nonnull byte[] bits) {
+            super(size);
+            this.bits = bits;
+        }
+
+        @Override
+        public int getCardinality() {
+            int count = 0;
+            for (byte b : bits) {
+                count += Integer.bitCount(b & 0xFF);
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            for (byte b : bits) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean contains(int offset) {
+            return (bits[offset / 8] & (byte)(1 << (offset % 8))) != 0;
+        }
+
+        @Nonnull
+        @Override
+        public int[] toArray() {
+            final int[] result = new int[getCardinality()];
+            int count = 0;
+            for (int i = 0; i < bits.length; i++) {
+                int b = bits[i] & 0xFF;
+                while (b != 0) {
+                    final int bit = Integer.numberOfTrailingZeros(b);
+                    result[count++] = i * 8 + bit;
+                    b &= b - 1;
+                }
+            }
+            return result;
+        }
+
+        @Nonnull
+        @Override
+        public byte[] toBitmap() {
+            return Arrays.copyOf(bits, (size + 7) / 8);
+        }
+
+        @Nonnull
+        @Override
+        int[] toRuns() {
+            return runsOfArray(toArray());
+        }
+
+        @Override
+        byte getType() {
+            return BITMAP_TYPE;
+        }
+
+        @Override
+        int encodedSize() {
+            return 1 + (size + 7) / 8;
+        }
+
+        @Override
+        void encodeBody(@Nonnull byte[] result, boolean wide) {
+            System.arraycopy(bits, 0, result, 1, Math.min(bits.length, result.length - 1));
+        }
+
+        @Nonnull
+        @Override
+        public BitmapContainer not() {
+            final byte[] result = new byte[(size + 7) / 8];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = (byte)~bits[i];
+            }
+            if (size % 8 != 0) {
+                result[result.length - 1] &= (byte)((1 << (size % 8)) - 1);
+            }
+            return new BitsContainer(size, result);
+        }
+
+        @Nonnull
+        @Override
+        public BitmapContainer slice(int from, int to) {
+            final byte[] result = new byte[(to - from + 7) / 8];
+            if (from % 8 == 0) {
+                System.arraycopy(bits, from / 8, result, 0, result.length);
+                if ((to - from) % 8 != 0) {
+                    result[result.length - 1] &= (byte)((1 << ((to - from) % 8)) - 1);
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    if (contains(i)) {
+                        final int offset = i - from;
+                        result[offset / 8] |= (byte)(1 << (offset % 8));
+                    }
+                }
+            }
+            return new BitsContainer(to - from, result);
+        }
+    }
+
+    /**
+     * A container represented by a sorted array of the offsets that are set.
+     */
+    private static final class ArrayContainer extends BitmapContainer {
+        @Nonnull
+        private final int[] values;
+
+        private ArrayContainer(int size, @Nonnull int[] values) {
+            super(size);
+            this.values = values;
+        }
+
+        @Override
+        public int getCardinality() {
+            return values.length;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return values.length == 0;
+        }
+
+        @Override
+        public boolean contains(int offset) {
+            return Arrays.binarySearch(values, offset) >= 0;
+        }
+
+        @Nonnull
+        @Override
+        public int[] toArray() {
+            return values.clone();
+        }
+
+        @Nonnull
+        @Override
+        public byte[] toBitmap() {
+            final byte[] result = new byte[(size + 7) / 8];
+            for (int value : values) {
+                result[value / 8] |= (byte)(1 << (value % 8));
+            }
+            return result;
+        }
+
+        @Nonnull
+        @Override
+        int[] toRuns() {
+            return runsOfArray(values);
+        }
+
+        @Override
+        byte getType() {
+            return ARRAY_TYPE;
+        }
+
+        @Override
+        int encodedSize() {
+            return 1 + (isWide(size) ? 4 : 2) * values.length;
+        }
+
+        @Override
+        void encodeBody(@Nonnull byte[] result, boolean wide) {
+            final int width = wide ? 4 : 2;
+            for (int i = 0; i < values.length; i++) {
+                writeInt(result, 1 + i * width, values[i], wide);
+            }
+        }
+
+        @Nonnull
+        @Override
+        public BitmapContainer not() {
+            return new RunContainer(size, complementRuns(runsOfArray(values), size));
+        }
+
+        @Nonnull
+        @Override
+        public BitmapContainer slice(int from, int to) {
+            int start = Arrays.binarySearch(values, from);
+            if (start < 0) {
+                start = -start - 1;
+            }
+            int end = Arrays.binarySearch(values, to);
+            if (end < 0) {
+                end = -end - 1;
+            }
+            final int[] result = new int[end - start];
+            for (int i = start; i < end; i++) {
+                result[i - start] = values[i] - from;
+            }
+            return new ArrayContainer(to - from, result);
+        }
+    }
+
+    /**
+     * A container represented by runs of consecutive offsets.
+     */
+    private static final class RunContainer extends BitmapContainer {
+        @Nonnull
+        private final int[] runs;
+
+        private RunContainer(int size, @Nonnull int[] runs) {
+            super(size);
+            this.runs = runs;
+        }
+
+        @Override
+        public int getCardinality() {
+            int count = 0;
+            for (int i = 0; i < runs.length; i += 2) {
+                count += runs[i + 1] - runs[i];
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return runs.length == 0;
+        }
+
+        @Override
+        public boolean contains(int offset) {
+            // Find the last run starting at or before the offset.
+            int low = 0;
+            int high = runs.length / 2 - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (runs[mid * 2] <= offset) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high >= 0 && offset < runs[high * 2 + 1];
+        }
+
+        @Nonnull
+        @Override
+        public int[] toArray() {
+            final int[] result = new int[getCardinality()];
+            int count = 0;
+            for (int i = 0; i < runs.length; i += 2) {
+                for (int value = runs[i]; value < runs[i + 1]; value++) {
+                    result[count++] = value;
+                }
+            }
+            return result;
+        }
+
+        @Nonnull
+        @Override
+        public byte[] toBitmap() {
+            final byte[] result = new byte[(size + 7) / 8];
+            for (int i = 0; i < runs.length; i += 2) {
+                int value = runs[i];
+                final int end = runs[i + 1];
+                while (value < end && value % 8 != 0) {
+                    result[value / 8] |= (byte)(1 << (value % 8));
+                    value++;
+                }
+                while (value + 8 <= end) {
+                    result[value / 8] = (byte)0xFF;
+                    value += 8;
+                }
+                while (value < end) {
+                    result[value / 8] |= (byte)(1 << (value % 8));
+                    value++;
+                }
+            }
+            return result;
+        }
+
+        @Nonnull
+        @Override
+        int[] toRuns() {
+            return runs.clone();
+        }
+
+        @Override
+        byte getType() {
+            return RUN_TYPE;
+        }
+
+        @Override
+        int encodedSize() {
+            return 1 + (isWide(size) ? 4 : 2) * runs.length;
+        }
+
+        @Override
+        void encodeBody(@Nonnull byte[] result, boolean wide) {
+            final int width = wide ? 4 : 2;
+            for (int i = 0; i < runs.length; i += 2) {
+                writeInt(result, 1 + i * width, runs[i], wide);
+                writeInt(result, 1 + (i + 1) * width, runs[i + 1] - runs[i] - 1, wide);
+            }
+        }
+
+        @Nonnull
+        @Override
+        public BitmapContainer not() {
+            return new RunContainer(size, complementRuns(runs, size));
+        }
+
+        @Nonnull
+        @Override
+        public BitmapContainer slice(int from, int to) {
+            final int[] result = intersectRuns(runs, new int[] {from, to});
+            for (int i = 0; i < result.length; i++) {
+                result[i] -= from;
+            }
+            return new RunContainer(to - from, result);
+        }
+    }
+}
@@ -36,6 +36,7 @@ import com.apple.foundationdb.record.RecordIndexUniquenessViolation;
 import com.apple.foundationdb.record.ScanProperties;
 import com.apple.foundationdb.record.TupleRange;
 import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.metadata.Index;
 import com.apple.foundationdb.record.metadata.IndexAggregateFunction;
 import com.apple.foundationdb.record.metadata.IndexOptions;
 import com.apple.foundationdb.record.metadata.MetaDataException;
@@ -54,8 +55,10 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An index maintainer for storing bitmaps of which records meet a specific condition.
@@ -79,6 +82,19 @@ import java.util.concurrent.CompletableFuture;
  * </p>
  *
  * <p>
+ * With the {@value IndexOptions#BITMAP_VALUE_ENCODING_OPTION} option set to {@value #ROARING_ENCODING}, each bitmap
+ * is instead stored as a {@link BitmapContainer}: an array of set positions if there are few of them, a list of runs
+ * of consecutive positions if they are mostly contiguous, or a bitmap (with a one byte header) if it is dense.
+ * Updating an array or run container requires reading it, so concurrent updates to the same entry conflict.
+ * Once an entry has become a bitmap container, it is updated with atomic mutations like an uncompressed bitmap
+ * and remains a bitmap until all its bits are cleared.
+ * {@link IndexScanType#BY_GROUP} scans of such an index still return uncompressed bitmaps;
+ * {@link #BY_GROUP_CONTAINERS} scans return the encoded containers and their sizes, which is what
+ * {@link com.apple.foundationdb.record.query.plan.bitmap.ComposedBitmapIndexQueryPlan} uses to combine them without
+ * expanding them first.
+ * </p>
+ *
+ * <p>
  * A {@code unique} option means that the index <em>checks</em> uniqueness of the position, with the expense of an additional
  * read at update time. Also, when a uniqueness violation does occur, it is not possible to know what other record caused it.
  * A separate unique index on the position field, if it is not the primary key, is therefore generally preferable.
@@ -92,8 +108,29 @@ public class BitmapValueIndexMaintainer extends StandardIndexMaintainer {
     public static final int DEFAULT_ENTRY_SIZE = 10_000;
     public static final int MAX_ENTRY_SIZE = 250_000;
 
+    /**
+     * Value of {@link IndexOptions#BITMAP_VALUE_ENCODING_OPTION} for storing fixed-size uncompressed bitmaps.
+     */
+    public static final String UNCOMPRESSED_ENCODING = "uncompressed";
+    /**
+     * Value of {@link IndexOptions#BITMAP_VALUE_ENCODING_OPTION} for storing {@link BitmapContainer}s.
+     */
+    public static final String ROARING_ENCODING = "roaring";
+
+    /**
+     * Scan type that returns each entry's bitmap as an encoded {@link BitmapContainer} followed by its size.
+     * @see #getContainer(IndexEntry)
+     */
+    public static final IndexScanType BY_GROUP_CONTAINERS = new IndexScanType("BY_GROUP_CONTAINERS");
+
+    private static final String PENDING_UPDATES_SESSION_KEY_PREFIX = "BitmapValueIndexMaintainer.pendingUpdates:";
+    // Appended to an entry key to form a key that tracks changes to the container type of that entry.
+    // Distinct from position conflict keys, since positions within an entry are not negative.
+    private static final long CONTAINER_TYPE_CONFLICT_SUFFIX = -1L;
+
     private final int entrySize;
     private final boolean unique;
+    private final boolean roaring;
 
     public BitmapValueIndexMaintainer(IndexMaintainerState state) {
         super(state);
@@ -104,6 +141,33 @@ public class BitmapValueIndexMaintainer extends StandardIndexMaintainer {
                     .addLogInfo("entrySize", entrySize, "maxEntrySize", MAX_ENTRY_SIZE);
         }
         unique = state.index.isUnique();
+        roaring = isRoaring(state.index);
+    }
+
+    /**
+     * Get whether the given index stores its bitmaps as {@link BitmapContainer}s.
+     * @param index a {@code BITMAP_VALUE} index
+     * @return {@code true} if the index uses {@value #ROARING_ENCODING} encoding
+     */
+    public static boolean isRoaring(@Nonnull Index index) {
+        return ROARING_ENCODING.equals(index.getOption(IndexOptions.BITMAP_VALUE_ENCODING_OPTION));
+    }
+
+    /**
+     * Get the bitmap of an index entry returned by a {@link IndexScanType#BY_GROUP} or {@link #BY_GROUP_CONTAINERS}
+     * scan as a container.
+     * @param indexEntry an index entry from a scan of a {@code BITMAP_VALUE} index
+     * @return a container with the positions of the entry, relative to the entry's position key
+     */
+    @Nonnull
+    public static BitmapContainer getContainer(@Nonnull IndexEntry indexEntry) {
+        final Tuple value = indexEntry.getValue();
+        final byte[] bytes = value.getBytes(0);
+        if (value.size() > 1) {
+            return BitmapContainer.decode(bytes, (int)value.getLong(1));
+        } else {
+            return BitmapContainer.fromBitmap(bytes);
+        }
     }
 
     @Nonnull
@@ -112,7 +176,8 @@ public class BitmapValueIndexMaintainer extends StandardIndexMaintainer {
                                          @Nonnull TupleRange range,
                                          @Nullable byte[] continuation,
                                          @Nonnull ScanProperties scanProperties) {
-        if (!scanType.equals(IndexScanType.BY_GROUP)) {
+        final boolean containers = scanType.equals(BY_GROUP_CONTAINERS);
+        if (!scanType.equals(IndexScanType.BY_GROUP) && !containers) {
             throw new RecordCoreException("Can only scan bitmap index by group.");
         }
         final int groupPrefixSize = getGroupingCount();
@@ -145,34 +210,57 @@ public class BitmapValueIndexMaintainer extends StandardIndexMaintainer {
         } else {
             endPosition = Long.MAX_VALUE;
         }
+        if (!roaring && !containers) {
+            return scan(range, continuation, scanProperties).map(indexEntry -> trimBitmap(indexEntry, groupPrefixSize, startPosition, endPosition))
+                    .filter(Optional::isPresent).map(Optional::get);
+        }
         return scan(range, continuation, scanProperties).map(indexEntry -> {
-            final long entryStart = indexEntry.getKey().getLong(groupPrefixSize);
-            final byte[] entryBitmap = indexEntry.getValue().getBytes(0);
-            final long entryEnd = entryStart + entryBitmap.length * 8;
+            BitmapContainer container = roaring ? BitmapContainer.decode(indexEntry.getValue().getBytes(0), entrySize) : getContainer(indexEntry);
+            Tuple key = indexEntry.getKey();
+            final long entryStart = key.getLong(groupPrefixSize);
+            final long entryEnd = entryStart + container.getSize();
             if (entryStart < startPosition || entryEnd > endPosition) {
                 final long trimmedStart = Math.max(entryStart, startPosition);
                 final long trimmedEnd = Math.min(entryEnd, endPosition);
-                if (trimmedStart < trimmedEnd) {
-                    final Tuple trimmedKey = indexEntry.getKey().popBack().add(trimmedStart);
-                    final byte[] trimmedBitmap = new byte[((int)(trimmedEnd - trimmedStart) + 7) / 8];
-                    for (long i = trimmedStart; i < trimmedEnd; i++) {
-                        int offset = (int)(i - entryStart);
-                        if ((entryBitmap[offset / 8] & (byte)(1 << (offset % 8))) != 0) {
-                            int trimmedOffset = (int)(i - trimmedStart);
-                            trimmedBitmap[trimmedOffset / 8] |= (byte)(1 << (trimmedOffset % 8));
-                        }
-                    }
-                    final Tuple subValue = Tuple.from(trimmedBitmap);
-                    return Optional.of(new IndexEntry(indexEntry.getIndex(), trimmedKey, subValue));
-                } else {
+                if (trimmedStart >= trimmedEnd) {
                     return Optional.<IndexEntry>empty();
                 }
-            } else {
-                return Optional.of(indexEntry);
+                container = container.slice((int)(trimmedStart - entryStart), (int)(trimmedEnd - entryStart));
+                key = key.popBack().add(trimmedStart);
             }
+            final Tuple value = containers ? Tuple.from(container.encode(), container.getSize()) : Tuple.from((Object)container.toBitmap());
+            return Optional.of(new IndexEntry(indexEntry.getIndex(), key, value));
         }).filter(Optional::isPresent).map(Optional::get);
     }
 
+    @Nonnull
+    private static Optional<IndexEntry> trimBitmap(@Nonnull IndexEntry indexEntry, int groupPrefixSize, long startPosition, long endPosition) {
+        final long entryStart = indexEntry.getKey().getLong(groupPrefixSize);
+        final byte[] entryBitmap = indexEntry.getValue().getBytes(0);
+        final long entryEnd = entryStart + entryBitmap.length * 8;
+        if (entryStart < startPosition || entryEnd > endPosition) {
+            final long trimmedStart = Math.max(entryStart, startPosition);
+            final long trimmedEnd = Math.min(entryEnd, endPosition);
+            if (trimmedStart < trimmedEnd) {
+                final Tuple trimmedKey = indexEntry.getKey().popBack().add(trimmedStart);
+                final byte[] trimmedBitmap = new byte[((int)(trimmedEnd - trimmedStart) + 7) / 8];
+                for (long i = trimmedStart; i < trimmedEnd; i++) {
+                    int offset = (int)(i - entryStart);
+                    if ((entryBitmap[offset / 8] & (byte)(1 << (offset % 8))) != 0) {
+                        int trimmedOffset = (int)(i - trimmedStart);
+                        trimmedBitmap[trimmedOffset / 8] |= (byte)(1 << (trimmedOffset % 8));
+                    }
+                }
+                final Tuple subValue = Tuple.from(trimmedBitmap);
+                return Optional.of(new IndexEntry(indexEntry.getIndex(), trimmedKey, subValue));
+            } else {
+                return Optional.empty();
+            }
+        } else {
+            return Optional.of(indexEntry);
+        }
+    }
+
     @Override
     @Nonnull
     protected <M extends Message> CompletableFuture<Void> updateIndexKeys(@Nonnull final FDBIndexableRecord<M> savedRecord,
@@ -180,6 +268,7 @@ public class BitmapValueIndexMaintainer extends StandardIndexMaintainer {
                                                                           @Nonnull final List<IndexEntry> indexEntries) {
         final int groupPrefixSize = getGroupingCount();
         final List<CompletableFuture<Void>> futures = unique && !remove ? new ArrayList<>(indexEntries.size()) : null;
+        final List<CompletableFuture<Void>> containerFutures = new ArrayList<>();
         for (IndexEntry indexEntry : indexEntries) {
             final long startTime = System.nanoTime();
             final Tuple groupKey = TupleHelpers.subTuple(indexEntry.getKey(), 0, groupPrefixSize);
@@ -198,6 +287,14 @@ public class BitmapValueIndexMaintainer extends StandardIndexMaintainer {
             final int offset = (int)Math.floorMod(position, (long)entrySize);
             position -= offset;
             final byte[] key = state.indexSubspace.pack(groupKey.add(position));
+            if (roaring) {
+                final CompletableFuture<Void> future = updateContainer(savedRecord, indexEntry, key, offset, remove);
+                if (state.store.getTimer() != null) {
+                    future.whenComplete((vignore, errignore) -> state.store.getTimer().recordSinceNanoTime(FDBStoreTimer.Events.MUTATE_INDEX_ENTRY, startTime));
+                }
+                containerFutures.add(future);
+                continue;
+            }
             // This has to be the same size every time, with all the unset bits, or else it gets truncated.
             // We really could use a new mutation that took a linear bit position to set / clear and only did length extension or something like that.
             final byte[] bitmap = new byte[(entrySize + 7) / 8];
@@ -236,9 +333,80 @@ public class BitmapValueIndexMaintainer extends StandardIndexMaintainer {
                 state.store.getTimer().recordSinceNanoTime(FDBStoreTimer.Events.MUTATE_INDEX_ENTRY, startTime);
             }
         }
+        if (!containerFutures.isEmpty()) {
+            return AsyncUtil.whenAll(containerFutures);
+        }
         return futures != null ? AsyncUtil.whenAll(futures) : AsyncUtil.DONE;
     }
 
+    // Updates to the same container within a transaction are chained, since an update may need to read the result of
+    // the previous one.
+    @Nonnull
+    private <M extends Message> CompletableFuture<Void> updateContainer(@Nonnull final FDBIndexableRecord<M> savedRecord,
+                                                                       @Nonnull IndexEntry indexEntry, @Nonnull byte[] key,
+                                                                       int offset, boolean remove) {
+        final String sessionKey = PENDING_UPDATES_SESSION_KEY_PREFIX + state.index.getName();
+        state.context.putInSessionIfAbsent(sessionKey, new ConcurrentHashMap<ByteBuffer, CompletableFuture<Void>>());
+        @SuppressWarnings("unchecked")
+        final Map<ByteBuffer, CompletableFuture<Void>> pendingUpdates = state.context.getInSession(sessionKey, Map.class);
+        return pendingUpdates.compute(ByteBuffer.wrap(key), (ignore, previous) -> {
+            final CompletableFuture<Void> start = previous == null ? AsyncUtil.DONE : previous.handle((vignore, errignore) -> null);
+            return start.thenCompose(vignore -> state.transaction.snapshot().get(key))
+                    .thenAccept(existing -> updateContainer(savedRecord, indexEntry, key, offset, remove, existing));
+        });
+    }
+
+    private <M extends Message> void updateContainer(@Nonnull final FDBIndexableRecord<M> savedRecord,
+                                                     @Nonnull IndexEntry indexEntry, @Nonnull byte[] key,
+                                                     int offset, boolean remove, @Nullable byte[] existing) {
+        final byte[] containerTypeConflictKey = new Subspace(key).pack(CONTAINER_TYPE_CONFLICT_SUFFIX);
+        if (existing != null && existing[0] == BitmapContainer.BITMAP_TYPE) {
+            // A bitmap container can be updated with atomic mutations, as long as no one else changes its type.
+            state.transaction.addReadConflictKey(containerTypeConflictKey);
+            final byte[] bitmap = new byte[1 + (entrySize + 7) / 8];
+            final int index = 1 + offset / 8;
+            if (remove) {
+                // Make sure that the entry exists, in case it was cleared concurrently, before removing the bit.
+                state.transaction.mutate(MutationType.BIT_OR, key, bitmap);
+                Arrays.fill(bitmap, 1, bitmap.length, (byte)0xFF);
+                bitmap[index] &= ~(byte)(1 << (offset % 8));
+                state.transaction.mutate(MutationType.BIT_AND, key, bitmap);
+                Arrays.fill(bitmap, (byte)0x00);
+                state.transaction.mutate(MutationType.COMPARE_AND_CLEAR, key, bitmap);
+            } else {
+                if (unique) {
+                    if ((existing[index] & (byte)(1 << (offset % 8))) != 0) {
+                        throw new RecordIndexUniquenessViolation(state.index, indexEntry, savedRecord.getPrimaryKey(), null);
+                    }
+                    final byte[] conflictKey = new Subspace(key).pack(offset);
+                    state.transaction.addReadConflictKey(conflictKey);
+                    state.transaction.addWriteConflictKey(conflictKey);
+                }
+                bitmap[index] |= (byte)(1 << (offset % 8));
+                state.transaction.mutate(MutationType.BIT_OR, key, bitmap);
+            }
+        } else {
+            // Array and run containers need to be rewritten, so conflict with any concurrent change.
+            state.transaction.addReadConflictKey(key);
+            final BitmapContainer container = existing == null ? BitmapContainer.empty(entrySize) : BitmapContainer.decode(existing, entrySize);
+            final BitmapContainer updated;
+            if (remove) {
+                updated = container.remove(offset);
+            } else {
+                if (unique && container.contains(offset)) {
+                    throw new RecordIndexUniquenessViolation(state.index, indexEntry, savedRecord.getPrimaryKey(), null);
+                }
+                updated = container.add(offset);
+            }
+            if (updated.isEmpty()) {
+                state.transaction.clear(key);
+            } else {
+                state.transaction.set(key, updated.optimize().encode());
+            }
+            state.transaction.addWriteConflictKey(containerTypeConflictKey);
+        }
+    }
+
     @Override
     @Nonnull
     protected Tuple decodeValue(@Nonnull byte[] value) {
@@ -23,8 +23,10 @@ package com.apple.foundationdb.record.provider.foundationdb.indexes;
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.logging.LogMessageKeys;
 import com.apple.foundationdb.record.metadata.Index;
+import com.apple.foundationdb.record.metadata.IndexOptions;
 import com.apple.foundationdb.record.metadata.IndexTypes;
 import com.apple.foundationdb.record.metadata.IndexValidator;
+import com.apple.foundationdb.record.metadata.MetaDataException;
 import com.apple.foundationdb.record.metadata.MetaDataValidator;
 import com.apple.foundationdb.record.metadata.RecordType;
 import com.apple.foundationdb.record.metadata.expressions.GroupingKeyExpression;
@@ -69,6 +71,14 @@ public class BitmapValueIndexMaintainerFactory implements IndexMaintainerFactory
                                                                        LogMessageKeys.INDEX_KEY, index.getRootExpression());
                 }
                 validateNotVersion();
+                final String encoding = index.getOption(IndexOptions.BITMAP_VALUE_ENCODING_OPTION);
+                if (encoding != null && !encoding.equals(BitmapValueIndexMaintainer.UNCOMPRESSED_ENCODING) &&
+                        !encoding.equals(BitmapValueIndexMaintainer.ROARING_ENCODING)) {
+                    throw new MetaDataException(String.format("%s index has unknown bitmap encoding", index.getType()),
+                            LogMessageKeys.INDEX_NAME, index.getName(),
+                            LogMessageKeys.INDEX_OPTION, IndexOptions.BITMAP_VALUE_ENCODING_OPTION,
+                            LogMessageKeys.VALUE, encoding);
+                }
             }
 
             @Override
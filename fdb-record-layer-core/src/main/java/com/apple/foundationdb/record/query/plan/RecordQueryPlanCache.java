@@ -0,0 +1,217 @@
+/*
+ * RecordQueryPlanCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.IndexState;
+import com.apple.foundationdb.record.RecordMetaData;
+import com.apple.foundationdb.record.RecordStoreState;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.query.ParameterRelationshipGraph;
+import com.apple.foundationdb.record.query.RecordQuery;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A bounded cache of {@link RecordQueryPlan}s that allows plans to be reused across transactions.
+ *
+ * <p>
+ * A plan is only a function of the query, the meta-data, the readability of the indexes in the store and the
+ * planner configuration, so the cache key is made up of exactly those parts:
+ * </p>
+ * <ul>
+ *     <li>the {@link RecordQuery} together with its {@link ParameterRelationshipGraph}. Comparisons against
+ *     parameters (e.g., {@link com.apple.foundationdb.record.query.expressions.Field#equalsParameter(String)}) only
+ *     contribute the parameter name, so queries that differ only in the values bound to their parameters share a
+ *     single entry. Comparisons against literal values are part of the key, so clients that want plans to be reused
+ *     should express varying values as parameters.</li>
+ *     <li>the {@link RecordMetaData} and its {@linkplain RecordMetaData#getVersion() version}</li>
+ *     <li>the set of indexes that are not {@linkplain IndexState#READABLE readable} in the {@link RecordStoreState}</li>
+ *     <li>the {@link RecordQueryPlannerConfiguration}</li>
+ * </ul>
+ *
+ * <p>
+ * The meta-data is compared by identity. Different meta-data objects can share a version (for example, if they
+ * belong to different applications using the same database), so the version alone is not sufficient to guarantee
+ * the plan is valid. Clients that rebuild their {@link RecordMetaData} for every transaction will therefore not see
+ * any cache hits. Entries are evicted in least-recently-used order once the cache reaches its maximum size.
+ * </p>
+ *
+ * @see com.apple.foundationdb.record.provider.foundationdb.FDBDatabase#setQueryPlanCache(RecordQueryPlanCache)
+ */
+@API(API.Status.EXPERIMENTAL)
+public class RecordQueryPlanCache {
+    /**
+     * The default maximum number of plans to retain.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    @Nonnull
+    private final Cache<Key, RecordQueryPlan> cache;
+
+    public RecordQueryPlanCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public RecordQueryPlanCache(long maxSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Get a plan for the given query from the cache, or plan the query using the given planner and add it to the
+     * cache if there is no matching entry. The planner's {@linkplain QueryPlanner#getRecordMetaData() meta-data},
+     * {@linkplain QueryPlanner#getRecordStoreState() store state} and {@linkplain QueryPlanner#getConfiguration()
+     * configuration} are used to build the cache key.
+     *
+     * @param planner the planner to use on a cache miss
+     * @param query the query to plan
+     * @param parameterRelationshipGraph the parameter relationships to pass to the planner
+     * @param timer an optional timer used to count cache hits and misses
+     * @return a plan for the given query, possibly shared with other callers
+     */
+    @Nonnull
+    public RecordQueryPlan plan(@Nonnull QueryPlanner planner, @Nonnull RecordQuery query,
+                                @Nonnull ParameterRelationshipGraph parameterRelationshipGraph,
+                                @Nullable StoreTimer timer) {
+        final Key key = new Key(planner.getRecordMetaData(), nonReadableIndexes(planner.getRecordStoreState()),
+                planner.getConfiguration(), query, parameterRelationshipGraph);
+        final RecordQueryPlan cached = cache.getIfPresent(key);
+        if (cached != null) {
+            if (timer != null) {
+                timer.increment(FDBStoreTimer.Counts.PLAN_QUERY_CACHE_HIT);
+            }
+            return cached;
+        }
+        if (timer != null) {
+            timer.increment(FDBStoreTimer.Counts.PLAN_QUERY_CACHE_MISS);
+        }
+        final RecordQueryPlan plan = planner.plan(query, parameterRelationshipGraph);
+        cache.put(key, plan);
+        return plan;
+    }
+
+    /**
+     * Get the approximate number of plans in the cache.
+     * @return the number of cached plans
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the hit and miss statistics of this cache.
+     * @return the cache statistics
+     */
+    @Nonnull
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Remove all plans from the cache.
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    @Nonnull
+    private static Set<String> nonReadableIndexes(@Nonnull RecordStoreState recordStoreState) {
+        recordStoreState.beginRead();
+        try {
+            if (recordStoreState.allIndexesReadable()) {
+                return ImmutableSet.of();
+            }
+            final ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+            for (Map.Entry<String, IndexState> entry : recordStoreState.getIndexStates().entrySet()) {
+                if (entry.getValue() != IndexState.READABLE) {
+                    builder.add(entry.getKey());
+                }
+            }
+            return builder.build();
+        } finally {
+            recordStoreState.endRead();
+        }
+    }
+
+    private static final class Key {
+        @Nonnull
+        private final RecordMetaData metaData;
+        private final int metaDataVersion;
+        @Nonnull
+        private final Set<String> nonReadableIndexes;
+        @Nonnull
+        private final RecordQueryPlannerConfiguration configuration;
+        @Nonnull
+        private final RecordQuery query;
+        @Nonnull
+        private final ParameterRelationshipGraph parameterRelationshipGraph;
+        private final int hashCode;
+
+        private Key(@Nonnull RecordMetaData metaData, @Nonnull Set<String> nonReadableIndexes,
+                    @Nonnull RecordQueryPlannerConfiguration configuration, @Nonnull RecordQuery query,
+                    @Nonnull ParameterRelationshipGraph parameterRelationshipGraph) {
+            this.metaData = metaData;
+            this.metaDataVersion = metaData.getVersion();
+            this.nonReadableIndexes = nonReadableIndexes;
+            this.configuration = configuration;
+            this.query = query;
+            this.parameterRelationshipGraph = parameterRelationshipGraph;
+            this.hashCode = Objects.hash(System.identityHashCode(metaData), metaDataVersion, nonReadableIndexes,
+                    configuration, query, parameterRelationshipGraph);
+        }
+
+        @Override
+        @SuppressWarnings("PMD.CompareObjectsWithEquals")
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key that = (Key)o;
+            return metaData == that.metaData &&
+                   metaDataVersion == that.metaDataVersion &&
+                   nonReadableIndexes.equals(that.nonReadableIndexes) &&
+                   configuration.equals(that.configuration) &&
+                   query.equals(that.query) &&
+                   parameterRelationshipGraph.equals(that.parameterRelationshipGraph);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
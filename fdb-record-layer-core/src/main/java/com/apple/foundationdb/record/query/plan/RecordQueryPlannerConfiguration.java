@@ -33,6 +33,7 @@ import com.google.common.collect.Sets;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -329,6 +330,48 @@ public class RecordQueryPlannerConfiguration {
         return new Builder(this);
     }
 
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final RecordQueryPlannerConfiguration that = (RecordQueryPlannerConfiguration)o;
+        return attemptFailedInJoinAsOr == that.attemptFailedInJoinAsOr &&
+               attemptFailedInJoinAsUnionMaxSize == that.attemptFailedInJoinAsUnionMaxSize &&
+               complexityThreshold == that.complexityThreshold &&
+               checkForDuplicateConditions == that.checkForDuplicateConditions &&
+               deferFetchAfterUnionAndIntersection == that.deferFetchAfterUnionAndIntersection &&
+               deferFetchAfterInJoinAndInUnion == that.deferFetchAfterInJoinAndInUnion &&
+               optimizeForIndexFilters == that.optimizeForIndexFilters &&
+               optimizeForRequiredResults == that.optimizeForRequiredResults &&
+               maxTaskQueueSize == that.maxTaskQueueSize &&
+               maxTotalTaskCount == that.maxTotalTaskCount &&
+               useFullKeyForValueIndex == that.useFullKeyForValueIndex &&
+               maxNumMatchesPerRuleCall == that.maxNumMatchesPerRuleCall &&
+               deferCrossProducts == that.deferCrossProducts &&
+               planOtherAttemptWholeFilter == that.planOtherAttemptWholeFilter &&
+               maxNumReplansForInToJoin == that.maxNumReplansForInToJoin &&
+               orToUnionMaxNumConjuncts == that.orToUnionMaxNumConjuncts &&
+               indexScanPreference == that.indexScanPreference &&
+               indexFetchMethod == that.indexFetchMethod &&
+               Objects.equals(sortConfiguration, that.sortConfiguration) &&
+               disabledTransformationRules.equals(that.disabledTransformationRules) &&
+               valueIndexesOverScanNeeded.equals(that.valueIndexesOverScanNeeded);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(indexScanPreference, attemptFailedInJoinAsOr, attemptFailedInJoinAsUnionMaxSize,
+                complexityThreshold, checkForDuplicateConditions, deferFetchAfterUnionAndIntersection,
+                deferFetchAfterInJoinAndInUnion, optimizeForIndexFilters, optimizeForRequiredResults, maxTaskQueueSize,
+                maxTotalTaskCount, useFullKeyForValueIndex, maxNumMatchesPerRuleCall, sortConfiguration,
+                disabledTransformationRules, deferCrossProducts, indexFetchMethod, valueIndexesOverScanNeeded,
+                planOtherAttemptWholeFilter, maxNumReplansForInToJoin, orToUnionMaxNumConjuncts);
+    }
+
     @Nonnull
     public static Builder builder() {
         return new Builder();
@@ -30,6 +30,7 @@ import com.apple.foundationdb.record.logging.LogMessageKeys;
 import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
 import com.apple.foundationdb.record.provider.foundationdb.cursors.MergeCursor;
 import com.apple.foundationdb.record.provider.foundationdb.cursors.MergeCursorState;
+import com.apple.foundationdb.record.provider.foundationdb.indexes.BitmapContainer;
 import com.apple.foundationdb.record.provider.foundationdb.indexes.BitmapValueIndexMaintainer;
 import com.apple.foundationdb.tuple.Tuple;
 
@@ -61,11 +62,11 @@ class ComposedBitmapIndexCursor extends MergeCursor<IndexEntry, IndexEntry, Merg
         /**
          * Generate a bitmap from several others.
          * @param bitmaps a list of bitmaps or {@code null} if the corresponding input is absent / empty
-         * @param size the common size of the bitmaps
+         * @param size the common size of the bitmaps in bits
          * @return a new bitmap formed from the inputs or {@code null} to represent an empty (all zero) bitmap
          */
         @Nullable
-        byte[] compose(@Nonnull List<byte[]> bitmaps, int size);
+        BitmapContainer compose(@Nonnull List<BitmapContainer> bitmaps, int size);
     }
 
     protected ComposedBitmapIndexCursor(@Nonnull List<MergeCursorState<IndexEntry>> cursorStates, @Nullable FDBStoreTimer timer, @Nonnull Composer composer) {
@@ -119,21 +120,38 @@ class ComposedBitmapIndexCursor extends MergeCursor<IndexEntry, IndexEntry, Merg
     protected IndexEntry getNextResult(@Nonnull List<MergeCursorState<IndexEntry>> resultStates) {
         final List<MergeCursorState<IndexEntry>> cursorStates = getCursorStates();
         final IndexEntry firstEntry = resultStates.get(0).getResult().get();
-        final int size = firstEntry.getValue().getBytes(0).length;
-        final List<byte[]> bitmaps = new ArrayList<>(cursorStates.size());
+        final List<BitmapContainer> bitmaps = new ArrayList<>(cursorStates.size());
+        int size = -1;
+        boolean mixedSizes = false;
         for (MergeCursorState<IndexEntry> cursorState : cursorStates) {
             if (resultStates.contains(cursorState)) {
-                byte[] bitmap = cursorState.getResult().get().getValue().getBytes(0);
-                if (bitmap.length != size) {
-                    throw new RecordCoreException("Index bitmaps are not all the same size");
+                final BitmapContainer bitmap = BitmapValueIndexMaintainer.getContainer(cursorState.getResult().get());
+                if (size < 0) {
+                    size = bitmap.getSize();
+                } else if (bitmap.getSize() != size) {
+                    // An uncompressed bitmap is always a whole number of bytes, even if its entry size is not.
+                    if ((bitmap.getSize() + 7) / 8 != (size + 7) / 8) {
+                        throw new RecordCoreException("Index bitmaps are not all the same size");
+                    }
+                    mixedSizes = true;
                 }
                 bitmaps.add(bitmap);
             } else {
                 bitmaps.add(null);
             }
         }
-        final byte[] composed = composer.compose(bitmaps, size);
-        return new IndexEntry(firstEntry.getIndex(), firstEntry.getKey(), Tuple.fromList(Collections.singletonList(composed)));
+        if (mixedSizes) {
+            for (int i = 0; i < bitmaps.size(); i++) {
+                final BitmapContainer bitmap = bitmaps.get(i);
+                if (bitmap != null && bitmap.getSize() % 8 != 0) {
+                    bitmaps.set(i, BitmapContainer.fromBitmap(bitmap.toBitmap()));
+                }
+            }
+            size = (size + 7) / 8 * 8;
+        }
+        final BitmapContainer composed = composer.compose(bitmaps, size);
+        return new IndexEntry(firstEntry.getIndex(), firstEntry.getKey(),
+                Tuple.fromList(Collections.singletonList(composed == null ? null : composed.toBitmap())));
     }
 
     @Nonnull
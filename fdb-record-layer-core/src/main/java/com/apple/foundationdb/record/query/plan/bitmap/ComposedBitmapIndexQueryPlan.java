@@ -24,18 +24,26 @@ import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.EvaluationContext;
 import com.apple.foundationdb.record.ExecuteProperties;
 import com.apple.foundationdb.record.IndexEntry;
+import com.apple.foundationdb.record.IndexScanType;
 import com.apple.foundationdb.record.ObjectPlanHash;
 import com.apple.foundationdb.record.PlanHashable;
 import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.metadata.Index;
 import com.apple.foundationdb.record.provider.common.StoreTimer;
 import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStoreBase;
 import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.IndexScanBounds;
+import com.apple.foundationdb.record.provider.foundationdb.IndexScanRange;
+import com.apple.foundationdb.record.provider.foundationdb.indexes.BitmapContainer;
+import com.apple.foundationdb.record.provider.foundationdb.indexes.BitmapValueIndexMaintainer;
 import com.apple.foundationdb.record.query.plan.AvailableFields;
 import com.apple.foundationdb.record.query.plan.cascades.Quantifier;
 import com.apple.foundationdb.record.query.plan.cascades.TranslationMap;
 import com.apple.foundationdb.record.query.plan.plans.QueryResult;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryCoveringIndexPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryIndexPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlanWithIndex;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlanWithNoChildren;
 import com.apple.foundationdb.record.query.plan.cascades.AliasMap;
 import com.apple.foundationdb.record.query.plan.cascades.CorrelationIdentifier;
@@ -51,7 +59,6 @@ import com.google.protobuf.Message;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -96,7 +103,7 @@ public class ComposedBitmapIndexQueryPlan implements RecordQueryPlanWithNoChildr
         final ExecuteProperties scanExecuteProperties = executeProperties.getSkip() > 0 ? executeProperties.clearSkipAndAdjustLimit() : executeProperties;
         final List<Function<byte[], RecordCursor<IndexEntry>>> cursorFunctions = indexPlans.stream()
                 .map(RecordQueryCoveringIndexPlan::getIndexPlan)
-                .map(scan -> (Function<byte[], RecordCursor<IndexEntry>>) childContinuation -> scan.executeEntries(store, context, childContinuation, scanExecuteProperties))
+                .map(scan -> (Function<byte[], RecordCursor<IndexEntry>>) childContinuation -> executeEntries(scan, store, context, childContinuation, scanExecuteProperties))
                 .collect(Collectors.toList());
         return ComposedBitmapIndexCursor.create(cursorFunctions, composer, continuation, store.getTimer())
                 // Composers can return null bitmaps when empty, which is then left out of the result set.
@@ -105,6 +112,27 @@ public class ComposedBitmapIndexQueryPlan implements RecordQueryPlanWithNoChildr
                 .map(QueryResult::fromQueriedRecord);
     }
 
+    // Scan an index with encoded bitmap containers, if possible, so that they can be combined without expanding them.
+    @Nonnull
+    private static <M extends Message> RecordCursor<IndexEntry> executeEntries(@Nonnull RecordQueryPlanWithIndex scan,
+                                                                               @Nonnull FDBRecordStoreBase<M> store,
+                                                                               @Nonnull EvaluationContext context,
+                                                                               @Nullable byte[] continuation,
+                                                                               @Nonnull ExecuteProperties executeProperties) {
+        if (scan instanceof RecordQueryIndexPlan && IndexScanType.BY_GROUP.equals(scan.getScanType())) {
+            final Index index = store.getRecordMetaData().getIndex(scan.getIndexName());
+            if (BitmapValueIndexMaintainer.isRoaring(index)) {
+                final IndexScanBounds scanBounds = ((RecordQueryIndexPlan)scan).getScanParameters().bind(store, index, context);
+                if (scanBounds instanceof IndexScanRange) {
+                    final IndexScanRange containerScanRange = new IndexScanRange(BitmapValueIndexMaintainer.BY_GROUP_CONTAINERS,
+                            ((IndexScanRange)scanBounds).getScanRange());
+                    return store.scanIndex(index, containerScanRange, continuation, executeProperties.asScanProperties(scan.isReverse()));
+                }
+            }
+        }
+        return scan.executeEntries(store, context, continuation, executeProperties);
+    }
+
     @Override
     public boolean isReverse() {
         return false;
@@ -293,7 +321,7 @@ public class ComposedBitmapIndexQueryPlan implements RecordQueryPlanWithNoChildr
 
         @Nullable
         @Override
-        public byte[] compose(@Nonnull List<byte[]> bitmaps, int size) {
+        public BitmapContainer compose(@Nonnull List<BitmapContainer> bitmaps, int size) {
             return bitmaps.get(position);
         }
 
@@ -349,16 +377,16 @@ public class ComposedBitmapIndexQueryPlan implements RecordQueryPlanWithNoChildr
 
         @Nullable
         @Override
-        public byte[] compose(@Nonnull List<byte[]> bitmaps, int size) {
-            final List<byte[]> operands = new ArrayList<>(children.size());
+        public BitmapContainer compose(@Nonnull List<BitmapContainer> bitmaps, int size) {
+            final List<BitmapContainer> operands = new ArrayList<>(children.size());
             for (ComposerBase child : children) {
                 operands.add(child.compose(bitmaps, size));
             }
-            return operate(operands, new byte[size]);
+            return operate(operands);
         }
 
         @Nullable
-        abstract byte[] operate(@Nonnull List<byte[]> operands, @Nonnull byte[] result);
+        abstract BitmapContainer operate(@Nonnull List<BitmapContainer> operands);
 
         @Override
         public int planHash(@Nonnull final PlanHashKind hashKind) {
@@ -392,9 +420,9 @@ public class ComposedBitmapIndexQueryPlan implements RecordQueryPlanWithNoChildr
         }
     }
 
-    // The specific binary operators are mostly the same, except that AND bails out early on empty and they use a different
-    // bit operator in the inner loop. There could be an abstract method for that operation, but it would be invoked
-    // inside the loop, which seems to less the chances for the whole being compiled well.
+    // The specific binary operators are mostly the same, except that AND bails out early on empty. The operations on
+    // the containers themselves choose an algorithm suited to the representations of the operands, so that, for
+    // example, a sparse array is intersected with a bitmap by probing rather than by expanding it.
 
     static class AndComposer extends OperatorComposer {
         public AndComposer(@Nonnull List<ComposerBase> children) {
@@ -409,28 +437,18 @@ public class ComposedBitmapIndexQueryPlan implements RecordQueryPlanWithNoChildr
 
         @Nullable
         @Override
-        byte[] operate(@Nonnull List<byte[]> operands, @Nonnull byte[] result) {
-            boolean first = true;
-            boolean empty = true;
-            for (final byte[] operand : operands) {
+        BitmapContainer operate(@Nonnull List<BitmapContainer> operands) {
+            BitmapContainer result = null;
+            for (final BitmapContainer operand : operands) {
                 if (operand == null) {
                     return null;
                 }
-                if (first) {
-                    System.arraycopy(operand, 0, result, 0, result.length);
-                    empty = first = false;
-                } else {
-                    empty = true;
-                    for (int j = 0; j < result.length; j++) {
-                        final byte b = (byte) (result[j] & operand[j]);
-                        result[j] = b;
-                        if (empty && b != 0) {
-                            empty = false;
-                        }
-                    }
+                result = result == null ? operand : result.and(operand);
+                if (result.isEmpty()) {
+                    return null;
                 }
             }
-            return empty ? null : result;
+            return result == null || result.isEmpty() ? null : result;
         }
     }
 
@@ -447,28 +465,15 @@ public class ComposedBitmapIndexQueryPlan implements RecordQueryPlanWithNoChildr
 
         @Nullable
         @Override
-        byte[] operate(@Nonnull List<byte[]> operands, @Nonnull byte[] result) {
-            boolean first = true;
-            boolean empty = true;
-            for (final byte[] operand : operands) {
+        BitmapContainer operate(@Nonnull List<BitmapContainer> operands) {
+            BitmapContainer result = null;
+            for (final BitmapContainer operand : operands) {
                 if (operand == null) {
                     continue;
                 }
-                if (first) {
-                    System.arraycopy(operand, 0, result, 0, result.length);
-                    empty = first = false;
-                } else {
-                    empty = true;
-                    for (int j = 0; j < result.length; j++) {
-                        final byte b = (byte) (result[j] | operand[j]);
-                        result[j] = b;
-                        if (empty && b != 0) {
-                            empty = false;
-                        }
-                    }
-                }
+                result = result == null ? operand : result.or(operand);
             }
-            return empty ? null : result;
+            return result == null || result.isEmpty() ? null : result;
         }
     }
 
@@ -485,28 +490,15 @@ public class ComposedBitmapIndexQueryPlan implements RecordQueryPlanWithNoChildr
 
         @Nullable
         @Override
-        byte[] operate(@Nonnull List<byte[]> operands, @Nonnull byte[] result) {
-            boolean first = true;
-            boolean empty = true;
-            for (final byte[] operand : operands) {
+        BitmapContainer operate(@Nonnull List<BitmapContainer> operands) {
+            BitmapContainer result = null;
+            for (final BitmapContainer operand : operands) {
                 if (operand == null) {
                     continue;
                 }
-                if (first) {
-                    System.arraycopy(operand, 0, result, 0, result.length);
-                    empty = first = false;
-                } else {
-                    empty = true;
-                    for (int j = 0; j < result.length; j++) {
-                        final byte b = (byte) (result[j] ^ operand[j]);
-                        result[j] = b;
-                        if (empty && b != 0) {
-                            empty = false;
-                        }
-                    }
-                }
+                result = result == null ? operand : result.xor(operand);
             }
-            return empty ? null : result;
+            return result == null || result.isEmpty() ? null : result;
         }
     }
 
@@ -528,17 +520,9 @@ public class ComposedBitmapIndexQueryPlan implements RecordQueryPlanWithNoChildr
 
         @Nullable
         @Override
-        public byte[] compose(@Nonnull List<byte[]> bitmaps, int size) {
-            final byte[] operand = child.compose(bitmaps, size);
-            final byte[] result = new byte[size];
-            if (operand == null) {
-                Arrays.fill(result, (byte)0xFF);
-            } else {
-                for (int i = 0; i < result.length; i++) {
-                    result[i] = (byte)~operand[i];
-                }
-            }
-            return result;
+        public BitmapContainer compose(@Nonnull List<BitmapContainer> bitmaps, int size) {
+            final BitmapContainer operand = child.compose(bitmaps, size);
+            return operand == null ? BitmapContainer.full(size) : operand.not();
         }
 
         @Override
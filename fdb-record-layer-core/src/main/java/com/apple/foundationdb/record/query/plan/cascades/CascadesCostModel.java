@@ -22,9 +22,13 @@ package com.apple.foundationdb.record.query.plan.cascades;
 
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.PlanHashable;
+import com.apple.foundationdb.record.TupleRange;
+import com.apple.foundationdb.record.provider.foundationdb.IndexScanComparisons;
+import com.apple.foundationdb.record.provider.foundationdb.IndexStatistics;
 import com.apple.foundationdb.record.query.expressions.Comparisons;
 import com.apple.foundationdb.record.query.plan.QueryPlanner.IndexScanPreference;
 import com.apple.foundationdb.record.query.plan.RecordQueryPlannerConfiguration;
+import com.apple.foundationdb.record.query.plan.ScanComparisons;
 import com.apple.foundationdb.record.query.plan.cascades.expressions.RelationalExpression;
 import com.apple.foundationdb.record.query.plan.cascades.properties.CardinalitiesProperty;
 import com.apple.foundationdb.record.query.plan.cascades.properties.CardinalitiesProperty.Cardinalities;
@@ -37,17 +41,21 @@ import com.apple.foundationdb.record.query.plan.cascades.properties.TypeFilterCo
 import com.apple.foundationdb.record.query.plan.cascades.properties.UnmatchedFieldsCountProperty;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryCoveringIndexPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryFetchFromPartialRecordPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryIndexPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryInJoinPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryInUnionPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlanWithIndex;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryScanPlan;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
 import javax.annotation.Nonnull;
 import java.util.Comparator;
 import java.util.Map;
+import java.util.OptionalDouble;
 import java.util.OptionalInt;
 import java.util.Set;
 import java.util.function.Supplier;
@@ -56,6 +64,14 @@ import static com.apple.foundationdb.record.Bindings.Internal.CORRELATION;
 
 /**
  * A comparator implementing the current heuristic cost model for the {@link CascadesPlanner}.
+ *
+ * <p>
+ * If {@link IndexStatistics} are available for the indexes used by both plans being compared, the number of index
+ * bytes each plan is estimated to read, or the number of index entries if the statistics do not include sizes, is
+ * compared before any of the structural heuristics. Plans are only ordered by that estimate if it differs by at least
+ * {@link #STATISTICS_COST_RATIO}, as statistics are sampled and can be stale. Otherwise, or if statistics are missing
+ * for any of the data accesses, the heuristics decide.
+ * </p>
  */
 @API(API.Status.EXPERIMENTAL)
 public class CascadesCostModel implements Comparator<RelationalExpression> {
@@ -66,13 +82,34 @@ public class CascadesCostModel implements Comparator<RelationalExpression> {
                     RecordQueryPlanWithIndex.class,
                     RecordQueryCoveringIndexPlan.class,
                     RecordQueryFetchFromPartialRecordPlan.class,
-                    RecordQueryInJoinPlan.class);
+                    RecordQueryInJoinPlan.class,
+                    RecordQueryInUnionPlan.class);
+
+    /**
+     * The minimum ratio between the estimated numbers of index entries read by two plans for the estimate to
+     * decide between them.
+     */
+    public static final double STATISTICS_COST_RATIO = 2.0;
+
+    /**
+     * The fraction of entries assumed to match inequality comparisons whose range cannot be determined at
+     * planning time, e.g., because they compare against parameters.
+     */
+    private static final double DEFAULT_INEQUALITY_SELECTIVITY = 1.0 / 3.0;
 
     @Nonnull
     private final RecordQueryPlannerConfiguration configuration;
+    @Nonnull
+    private final Map<String, IndexStatistics> indexStatistics;
 
     public CascadesCostModel(@Nonnull RecordQueryPlannerConfiguration configuration) {
+        this(configuration, ImmutableMap.of());
+    }
+
+    public CascadesCostModel(@Nonnull RecordQueryPlannerConfiguration configuration,
+                             @Nonnull Map<String, IndexStatistics> indexStatistics) {
         this.configuration = configuration;
+        this.indexStatistics = indexStatistics;
     }
 
     @Override
@@ -118,6 +155,27 @@ public class CascadesCostModel implements Comparator<RelationalExpression> {
             }
         }
 
+        if (!indexStatistics.isEmpty()) {
+            OptionalDouble estimatedCostA = estimateIndexRead(planOpsMapA, true);
+            OptionalDouble estimatedCostB = estimateIndexRead(planOpsMapB, true);
+            if (!estimatedCostA.isPresent() || !estimatedCostB.isPresent() ||
+                    estimatedCostA.getAsDouble() <= 0.0 || estimatedCostB.getAsDouble() <= 0.0) {
+                // No sizes, so fall back to counting entries.
+                estimatedCostA = estimateIndexRead(planOpsMapA, false);
+                estimatedCostB = estimateIndexRead(planOpsMapB, false);
+            }
+            if (estimatedCostA.isPresent() && estimatedCostB.isPresent()) {
+                final double costA = Math.max(estimatedCostA.getAsDouble(), 1.0);
+                final double costB = Math.max(estimatedCostB.getAsDouble(), 1.0);
+                if (costA * STATISTICS_COST_RATIO <= costB) {
+                    return -1;
+                }
+                if (costB * STATISTICS_COST_RATIO <= costA) {
+                    return 1;
+                }
+            }
+        }
+
         int unsatisfiedFilterCompare = Long.compare(NormalizedResidualPredicateProperty.countNormalizedConjuncts(a),
                 NormalizedResidualPredicateProperty.countNormalizedConjuncts(b));
         if (unsatisfiedFilterCompare != 0) {
@@ -262,6 +320,72 @@ public class CascadesCostModel implements Comparator<RelationalExpression> {
                         });
     }
 
+    @Nonnull
+    @VisibleForTesting
+    OptionalDouble estimateIndexEntriesRead(@Nonnull final RelationalExpression expression) {
+        return estimateIndexRead(FindExpressionProperty.evaluate(interestingPlanClasses, expression), false);
+    }
+
+    @Nonnull
+    @VisibleForTesting
+    OptionalDouble estimateIndexBytesRead(@Nonnull final RelationalExpression expression) {
+        return estimateIndexRead(FindExpressionProperty.evaluate(interestingPlanClasses, expression), true);
+    }
+
+    /**
+     * Estimate the total number of index entries, or of bytes of index entries, read by the data accesses of a plan
+     * using the index statistics. An estimate is only returned if all the data accesses are index scans with known
+     * statistics and the plan does not repeat them for each value of an IN list, which would make the number of scans
+     * unknown. Bytes only cover the index entries themselves, not any records fetched for them.
+     * @param planOpsMap map of the interesting operators in the plan
+     * @param bytes whether to estimate the bytes read rather than the number of entries
+     * @return the estimated amount read or {@code OptionalDouble.empty()} if it cannot be estimated
+     */
+    @Nonnull
+    private OptionalDouble estimateIndexRead(@Nonnull final Map<Class<? extends RelationalExpression>, Set<RelationalExpression>> planOpsMap,
+                                             final boolean bytes) {
+        if (count(planOpsMap, RecordQueryScanPlan.class, RecordQueryInJoinPlan.class, RecordQueryInUnionPlan.class) > 0) {
+            return OptionalDouble.empty();
+        }
+        final Set<? extends RelationalExpression> dataAccesses =
+                FindExpressionProperty.slice(planOpsMap, RecordQueryPlanWithIndex.class, RecordQueryCoveringIndexPlan.class);
+        if (dataAccesses.isEmpty()) {
+            return OptionalDouble.empty();
+        }
+        double total = 0.0;
+        for (RelationalExpression dataAccess : dataAccesses) {
+            final RecordQueryPlanWithIndex planWithIndex = dataAccess instanceof RecordQueryCoveringIndexPlan
+                                                           ? ((RecordQueryCoveringIndexPlan)dataAccess).getIndexPlan()
+                                                           : (RecordQueryPlanWithIndex)dataAccess;
+            final IndexStatistics statistics = indexStatistics.get(planWithIndex.getIndexName());
+            if (statistics == null || !(planWithIndex instanceof RecordQueryIndexPlan)) {
+                return OptionalDouble.empty();
+            }
+            final RecordQueryIndexPlan indexPlan = (RecordQueryIndexPlan)planWithIndex;
+            if (!(indexPlan.getScanParameters() instanceof IndexScanComparisons)) {
+                return OptionalDouble.empty();
+            }
+            final ScanComparisons scanComparisons = ((IndexScanComparisons)indexPlan.getScanParameters()).getComparisons();
+            final double entries = statistics.getEntryCount() * estimateSelectivity(statistics, scanComparisons);
+            total += bytes ? entries * statistics.getAverageEntrySize() : entries;
+        }
+        return OptionalDouble.of(total);
+    }
+
+    private static double estimateSelectivity(@Nonnull IndexStatistics statistics, @Nonnull ScanComparisons scanComparisons) {
+        double selectivity = statistics.estimateEqualitySelectivity(scanComparisons.getEqualitySize());
+        if (!scanComparisons.getInequalityComparisons().isEmpty()) {
+            final TupleRange range = scanComparisons.toTupleRangeWithoutContext();
+            if (range == null) {
+                selectivity *= DEFAULT_INEQUALITY_SELECTIVITY;
+            } else {
+                // The histogram covers all key columns, so it also accounts for the equality prefix.
+                selectivity = Math.min(selectivity, statistics.estimateRangeSelectivity(range));
+            }
+        }
+        return selectivity;
+    }
+
     /**
      * Method to break a tie between a plan using singular index scan and one using a singular primary scan.
      * <br>
@@ -27,6 +27,7 @@ import com.apple.foundationdb.record.RecordCoreException;
 import com.apple.foundationdb.record.RecordMetaData;
 import com.apple.foundationdb.record.RecordStoreState;
 import com.apple.foundationdb.record.logging.KeyValueLogMessage;
+import com.apple.foundationdb.record.provider.foundationdb.IndexStatistics;
 import com.apple.foundationdb.record.query.IndexQueryabilityFilter;
 import com.apple.foundationdb.record.query.ParameterRelationshipGraph;
 import com.apple.foundationdb.record.query.RecordQuery;
@@ -50,6 +51,7 @@ import com.apple.foundationdb.record.query.plan.plans.QueryPlan;
 import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
 import com.google.common.base.Suppliers;
 import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +59,7 @@ import javax.annotation.Nonnull;
 import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -216,6 +219,8 @@ public class CascadesPlanner implements QueryPlanner {
     private int taskCount;
     // max size of the task queue encountered during the planning
     private int maxQueueSize;
+    @Nonnull
+    private Map<String, IndexStatistics> indexStatistics;
 
     public CascadesPlanner(@Nonnull RecordMetaData metaData, @Nonnull RecordStoreState recordStoreState) {
         this(metaData, recordStoreState, defaultPlannerRuleSet());
@@ -230,6 +235,7 @@ public class CascadesPlanner implements QueryPlanner {
         this.currentRoot = GroupExpressionRef.empty();
         this.traversal = ExpressionRefTraversal.withRoot(currentRoot);
         this.taskStack = new ArrayDeque<>();
+        this.indexStatistics = ImmutableMap.of();
     }
 
     @Nonnull
@@ -286,6 +292,21 @@ public class CascadesPlanner implements QueryPlanner {
                 .build();
     }
 
+    /**
+     * Set the statistics of the indexes in the record store that the cost model uses to estimate how many index
+     * entries a plan reads. Statistics can be loaded with
+     * {@link com.apple.foundationdb.record.provider.foundationdb.IndexStatisticsCollector#loadAllAsync}.
+     * @param indexStatistics map from index name to the statistics of that index
+     */
+    public void setIndexStatistics(@Nonnull Map<String, IndexStatistics> indexStatistics) {
+        this.indexStatistics = ImmutableMap.copyOf(indexStatistics);
+    }
+
+    @Nonnull
+    public Map<String, IndexStatistics> getIndexStatistics() {
+        return indexStatistics;
+    }
+
     @Nonnull
     @Override
     public RecordQueryPlannerConfiguration getConfiguration() {
@@ -549,7 +570,7 @@ public class CascadesPlanner implements QueryPlanner {
             } else {
                 RelationalExpression bestMember = null;
                 for (RelationalExpression member : group.getMembers()) {
-                    if (bestMember == null || new CascadesCostModel(configuration).compare(member, bestMember) < 0) {
+                    if (bestMember == null || new CascadesCostModel(configuration, indexStatistics).compare(member, bestMember) < 0) {
                         if (bestMember != null) {
                             // best member is being pruned
                             traversal.removeExpression(group, bestMember);
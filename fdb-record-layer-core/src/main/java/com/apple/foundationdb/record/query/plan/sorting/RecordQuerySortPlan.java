@@ -23,6 +23,7 @@ package com.apple.foundationdb.record.query.plan.sorting;
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.EvaluationContext;
 import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.FDBRecordStoreProperties;
 import com.apple.foundationdb.record.ObjectPlanHash;
 import com.apple.foundationdb.record.PlanHashable;
 import com.apple.foundationdb.record.RecordCursor;
@@ -101,7 +102,11 @@ public class RecordQuerySortPlan implements RecordQueryPlanWithChild {
         final FDBStoreTimer timer = store.getTimer();
         final RecordCursor<FDBQueriedRecord<M>> sorted;
         if (adapter.isMemoryOnly()) {
-            sorted = MemorySortCursor.createSort(adapter, innerCursor, timer, continuation).skipThenLimit(skip, limit);
+            if (Boolean.TRUE.equals(store.getContext().getPropertyStorage().getPropertyValue(FDBRecordStoreProperties.PARALLEL_MEMORY_SORT))) {
+                sorted = MemorySortCursor.createParallelSort(adapter, innerCursor, timer, store.getExecutor(), continuation).skipThenLimit(skip, limit);
+            } else {
+                sorted = MemorySortCursor.createSort(adapter, innerCursor, timer, continuation).skipThenLimit(skip, limit);
+            }
         } else {
             sorted = FileSortCursor.create(adapter, innerCursor, timer, continuation, skip, limit);
         }
@@ -0,0 +1,795 @@
+/*
+ * HashJoinedRecordCursor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.synthetic;
+
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.ByteArrayContinuation;
+import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorProto;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorStartContinuation;
+import com.apple.foundationdb.record.RecordCursorVisitor;
+import com.apple.foundationdb.record.RecordMetaData;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.provider.foundationdb.FDBQueriedRecord;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoredRecord;
+import com.apple.foundationdb.record.provider.foundationdb.FDBSyntheticRecord;
+import com.apple.foundationdb.tuple.ByteArrayUtil2;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * The cursor that executes a {@link HashJoinedRecordPlan}.
+ *
+ * <p>
+ * First the build side is scanned into partitioned tables, spilling the largest partition whenever there are too
+ * many records in memory. Then the probe side is scanned, returning joined records for keys in partitions that are
+ * still in memory and writing the rest to the spilled partitions' probe files. Finally, each spilled partition's
+ * build file is loaded back into memory and its probe file is read and joined against it.
+ * </p>
+ *
+ * <p>
+ * The build side is scanned with the same execute properties as the probe side, so it counts against the same
+ * limits. If it is stopped by one of them, or if the cursor is resumed from a continuation, the build table is not
+ * used. Instead, each remaining probe record is joined by running the plan's lookup query for it, as
+ * {@link SyntheticRecordScanPlan} does. So the build side is never read in more than one transaction and the spill
+ * files are only needed by a single cursor, which deletes them when it is closed.
+ * </p>
+ *
+ * <p>
+ * The continuation therefore describes which probe records are still to be joined, which relies on the probe side
+ * being scanned in primary key order: where to resume the probe scan, which partitions' records have all or none
+ * been joined from there on and, for the rest, the primary key before which they have been joined. The joined
+ * records for each probe record are returned in the order of the build record's primary key, so that those already
+ * returned can be skipped by position however they were found.
+ * </p>
+ *
+ * <p>
+ * Spill files hold the join key, the primary key, the record type and the record serialized by the store's
+ * {@link com.apple.foundationdb.record.provider.common.RecordSerializer}, so they are compressed and encrypted
+ * whenever the store's records are.
+ * </p>
+ */
+class HashJoinedRecordCursor implements RecordCursor<FDBSyntheticRecord> {
+    private static final String SPILL_FILE_PREFIX = "fdb-hash-join";
+    // The partition of probe records without a join key, which are joined without looking anything up.
+    private static final int NO_KEY_PARTITION = -1;
+
+    @Nonnull
+    private final HashJoinedRecordPlan plan;
+    @Nonnull
+    private final FDBRecordStore store;
+    @Nonnull
+    private final ExecuteProperties executeProperties;
+    @Nonnull
+    private final Comparator<FDBSyntheticRecord> matchOrder;
+    @Nonnull
+    private final Partition[] partitions;
+    @Nonnull
+    private final List<Partition> spilled;
+    private int recordsInMemory;
+    // Joining each probe record by a query, rather than with the build table.
+    private boolean lookup;
+
+    @Nullable
+    private CompletableFuture<Void> buildFuture;
+    @Nullable
+    private RecordCursor<FDBQueriedRecord<Message>> buildCursor;
+    @Nullable
+    private NoNextReason buildStopReason;
+
+    @Nullable
+    private RecordCursor<FDBQueriedRecord<Message>> probeCursor;
+    // The continuation of the probe scan after the last probe record read.
+    @Nonnull
+    private RecordCursorContinuation lastProbeContinuation;
+    // Before the first probe record written to a probe file, if any.
+    @Nullable
+    private RecordCursorContinuation firstDeferredContinuation;
+    private boolean probeExhausted;
+
+    // The position described by the continuation: see the class comment.
+    @Nonnull
+    private RecordCursorContinuation resumeContinuation;
+    @Nullable
+    private Tuple boundaryPrimaryKey;
+    private int boundaryMatchPosition;
+    @Nullable
+    private Tuple currentPrimaryKey;
+    // Into matches, which belong to the boundary probe record, except when joining by a query.
+    private int matchPosition;
+    @Nonnull
+    private final Set<Integer> pendingPartitions;
+    @Nonnull
+    private final Set<Integer> donePartitions;
+
+    private int spilledPosition;
+    @Nullable
+    private Map<Tuple, List<FDBStoredRecord<Message>>> spilledTable;
+    @Nullable
+    private SpillReader probeReader;
+
+    @Nullable
+    private List<FDBSyntheticRecord> matches;
+
+    @Nullable
+    private RecordCursorResult<FDBSyntheticRecord> nextResult;
+    private boolean closed;
+
+    HashJoinedRecordCursor(@Nonnull HashJoinedRecordPlan plan, @Nonnull FDBRecordStore store,
+                           @Nullable byte[] continuation, @Nonnull ExecuteProperties executeProperties) {
+        this.plan = plan;
+        this.store = store;
+        this.executeProperties = executeProperties;
+        this.matchOrder = Comparator.comparing(this::buildPrimaryKey, Comparator.nullsFirst(Comparator.naturalOrder()));
+        this.partitions = new Partition[plan.getPartitionCount()];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition(i);
+        }
+        this.spilled = new ArrayList<>();
+        this.resumeContinuation = RecordCursorStartContinuation.START;
+        this.pendingPartitions = new HashSet<>();
+        this.donePartitions = new HashSet<>();
+        if (continuation != null) {
+            final RecordCursorProto.HashJoinContinuation parsed;
+            try {
+                parsed = RecordCursorProto.HashJoinContinuation.parseFrom(continuation);
+            } catch (InvalidProtocolBufferException ex) {
+                throw new RecordCoreException("error parsing continuation", ex)
+                        .addLogInfo(LogMessageKeys.RAW_BYTES, ByteArrayUtil2.loggable(continuation));
+            }
+            lookup = true;
+            if (parsed.hasProbeContinuation()) {
+                resumeContinuation = ByteArrayContinuation.fromNullable(parsed.getProbeContinuation().toByteArray());
+            }
+            if (parsed.hasBoundaryPrimaryKey()) {
+                boundaryPrimaryKey = Tuple.fromBytes(parsed.getBoundaryPrimaryKey().toByteArray());
+                boundaryMatchPosition = parsed.getBoundaryMatchPosition();
+            }
+            if (parsed.hasCurrentPrimaryKey()) {
+                currentPrimaryKey = Tuple.fromBytes(parsed.getCurrentPrimaryKey().toByteArray());
+                matchPosition = parsed.getMatchPosition();
+            }
+            pendingPartitions.addAll(parsed.getPendingPartitionList());
+            donePartitions.addAll(parsed.getDonePartitionList());
+        }
+        this.lastProbeContinuation = resumeContinuation;
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<RecordCursorResult<FDBSyntheticRecord>> onNext() {
+        if (nextResult != null && !nextResult.hasNext()) {
+            return CompletableFuture.completedFuture(nextResult);
+        }
+        if (buildFuture == null) {
+            buildFuture = lookup ? AsyncUtil.DONE : build();
+        }
+        return buildFuture
+                .thenCompose(vignore -> AsyncUtil.whileTrue(this::advance, getExecutor()))
+                .thenApply(vignore -> nextResult);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (buildCursor != null) {
+            buildCursor.close();
+        }
+        if (probeCursor != null) {
+            probeCursor.close();
+        }
+        if (probeReader != null) {
+            probeReader.close();
+            probeReader = null;
+        }
+        deleteFiles();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Nonnull
+    @Override
+    public Executor getExecutor() {
+        return store.getExecutor();
+    }
+
+    @Override
+    public boolean accept(@Nonnull RecordCursorVisitor visitor) {
+        if (visitor.visitEnter(this)) {
+            if (probeCursor != null) {
+                probeCursor.accept(visitor);
+            }
+        }
+        return visitor.visitLeave(this);
+    }
+
+    @Nonnull
+    private CompletableFuture<Void> build() {
+        buildCursor = store.executeQuery(plan.getBuildPlan(), null, executeProperties);
+        return buildCursor.forEachResult(result -> addBuildRecord(result.get().getStoredRecord()))
+                .thenAccept(lastResult -> {
+                    for (Partition partition : spilled) {
+                        partition.closeWriters();
+                    }
+                    if (lastResult.getNoNextReason().isOutOfBand()) {
+                        // The build side does not fit within the limits, so it could only be completed in another
+                        // transaction, which would see different records. Join each probe record by a query instead.
+                        buildStopReason = lastResult.getNoNextReason();
+                        lookup = true;
+                        for (Partition partition : partitions) {
+                            partition.table = null;
+                        }
+                        deleteFiles();
+                        spilled.clear();
+                    }
+                })
+                .whenComplete((vignore, err) -> buildCursor.close());
+    }
+
+    private void addBuildRecord(@Nonnull FDBStoredRecord<Message> record) {
+        store.increment(FDBStoreTimer.Counts.HASH_JOIN_BUILD_RECORDS);
+        for (Tuple key : plan.buildKeys(record)) {
+            final Partition partition = partitions[plan.partition(key)];
+            if (partition.table != null) {
+                partition.table.computeIfAbsent(key, k -> new ArrayList<>()).add(record);
+                partition.size++;
+                recordsInMemory++;
+            } else {
+                partition.buildWriter.write(key, record);
+                store.increment(FDBStoreTimer.Counts.HASH_JOIN_SPILLED_RECORDS);
+            }
+        }
+        while (recordsInMemory > plan.getMaxBuildRecordsInMemory()) {
+            if (!spillLargestPartition()) {
+                break;
+            }
+        }
+    }
+
+    private boolean spillLargestPartition() {
+        Partition largest = null;
+        for (Partition partition : partitions) {
+            if (partition.table != null && partition.size > 0 && (largest == null || partition.size > largest.size)) {
+                largest = partition;
+            }
+        }
+        if (largest == null) {
+            return false;
+        }
+        // Added before the files are created, so that close deletes them whatever happens.
+        spilled.add(largest);
+        try {
+            largest.buildFile = File.createTempFile(SPILL_FILE_PREFIX, ".build");
+            largest.probeFile = File.createTempFile(SPILL_FILE_PREFIX, ".probe");
+        } catch (IOException ex) {
+            throw new RecordCoreException("error creating hash join spill file", ex);
+        }
+        largest.buildWriter = new SpillWriter(largest.buildFile);
+        for (Map.Entry<Tuple, List<FDBStoredRecord<Message>>> entry : largest.table.entrySet()) {
+            for (FDBStoredRecord<Message> record : entry.getValue()) {
+                largest.buildWriter.write(entry.getKey(), record);
+            }
+        }
+        store.increment(FDBStoreTimer.Counts.HASH_JOIN_SPILLED_PARTITIONS);
+        store.increment(FDBStoreTimer.Counts.HASH_JOIN_SPILLED_RECORDS, largest.size);
+        recordsInMemory -= largest.size;
+        largest.table = null;
+        largest.size = 0;
+        return true;
+    }
+
+    @Nonnull
+    private CompletableFuture<Boolean> advance() {
+        if (matches != null && matchPosition < matches.size()) {
+            final FDBSyntheticRecord record = matches.get(matchPosition++);
+            nextResult = RecordCursorResult.withNextValue(record, continuation());
+            return AsyncUtil.READY_FALSE;
+        }
+        matches = null;
+        if (buildStopReason != null) {
+            nextResult = RecordCursorResult.withoutNextValue(continuation(), buildStopReason);
+            return AsyncUtil.READY_FALSE;
+        }
+        if (!probeExhausted) {
+            return advanceProbe();
+        } else {
+            return CompletableFuture.completedFuture(advanceSpilled());
+        }
+    }
+
+    @Nonnull
+    private CompletableFuture<Boolean> advanceProbe() {
+        if (probeCursor == null) {
+            probeCursor = store.executeQuery(plan.getProbePlan(), resumeContinuation.toBytes(), executeProperties);
+        }
+        return probeCursor.onNext().thenCompose(result -> {
+            if (result.hasNext()) {
+                final RecordCursorContinuation before = lastProbeContinuation;
+                lastProbeContinuation = result.getContinuation();
+                final FDBStoredRecord<Message> record = result.get().getStoredRecord();
+                if (lookup) {
+                    return lookupProbe(record, before);
+                }
+                probe(record, before);
+                return AsyncUtil.READY_TRUE;
+            }
+            if (result.getNoNextReason().isSourceExhausted()) {
+                probeExhausted = true;
+                probeCursor.close();
+                for (Partition partition : spilled) {
+                    partition.closeWriters();
+                }
+                return AsyncUtil.READY_TRUE;
+            }
+            nextResult = RecordCursorResult.withoutNextValue(continuation(), result.getNoNextReason());
+            return AsyncUtil.READY_FALSE;
+        });
+    }
+
+    private void probe(@Nonnull FDBStoredRecord<Message> record, @Nonnull RecordCursorContinuation before) {
+        store.increment(FDBStoreTimer.Counts.HASH_JOIN_PROBE_RECORDS);
+        final Tuple key = plan.probeKey(record);
+        final Partition partition = key == null ? null : partitions[plan.partition(key)];
+        if (partition != null && partition.table == null) {
+            // Joined once the probe scan is done, so a continuation must go back to here.
+            if (firstDeferredContinuation == null) {
+                firstDeferredContinuation = before;
+            }
+            partition.writeProbe(key, record);
+            store.increment(FDBStoreTimer.Counts.HASH_JOIN_SPILLED_RECORDS);
+            return;
+        }
+        resumeContinuation = firstDeferredContinuation != null ? firstDeferredContinuation : before;
+        startMatches(record.getPrimaryKey(), join(record, partition == null ? null : partition.table.get(key)));
+    }
+
+    @Nonnull
+    private CompletableFuture<Boolean> lookupProbe(@Nonnull FDBStoredRecord<Message> record, @Nonnull RecordCursorContinuation before) {
+        final Tuple primaryKey = record.getPrimaryKey();
+        final Tuple key = plan.probeKey(record);
+        final int partition = key == null ? NO_KEY_PARTITION : plan.partition(key);
+        boolean joined = donePartitions.contains(partition);
+        int skip = 0;
+        if (!joined && !pendingPartitions.contains(partition) && boundaryPrimaryKey != null) {
+            final int comparison = primaryKey.compareTo(boundaryPrimaryKey);
+            joined = comparison < 0;
+            if (comparison == 0) {
+                skip = boundaryMatchPosition;
+            }
+        }
+        if (primaryKey.equals(currentPrimaryKey)) {
+            skip = matchPosition;
+        }
+        if (boundaryPrimaryKey != null && primaryKey.compareTo(boundaryPrimaryKey) >= 0) {
+            boundaryPrimaryKey = null;
+            boundaryMatchPosition = 0;
+        }
+        if (joined) {
+            resumeContinuation = lastProbeContinuation;
+            return AsyncUtil.READY_TRUE;
+        }
+        store.increment(FDBStoreTimer.Counts.HASH_JOIN_LOOKUPS);
+        resumeContinuation = before;
+        currentPrimaryKey = primaryKey;
+        matchPosition = skip;
+        final List<FDBSyntheticRecord> found = new ArrayList<>();
+        return plan.getLookupPlan().execute(store, record, null, executeProperties)
+                .forEachResult(result -> found.add(result.get()))
+                .thenApply(lastResult -> {
+                    if (lastResult.getNoNextReason().isOutOfBand()) {
+                        nextResult = RecordCursorResult.withoutNextValue(continuation(), lastResult.getNoNextReason());
+                        return false;
+                    }
+                    found.sort(matchOrder);
+                    if (!found.isEmpty() && buildPrimaryKey(found.get(0)) != null) {
+                        store.increment(FDBStoreTimer.Counts.HASH_JOIN_PROBE_HITS);
+                    }
+                    matches = found;
+                    return true;
+                });
+    }
+
+    private boolean advanceSpilled() {
+        if (spilledPosition >= spilled.size()) {
+            deleteFiles();
+            nextResult = RecordCursorResult.exhausted();
+            return false;
+        }
+        final Partition partition = spilled.get(spilledPosition);
+        if (spilledTable == null) {
+            spilledTable = loadBuildFile(partition);
+            probeReader = new SpillReader(partition.probeFile);
+        }
+        final SpillEntry entry = probeReader.read();
+        if (entry == null) {
+            probeReader.close();
+            probeReader = null;
+            spilledTable = null;
+            spilledPosition++;
+        } else {
+            startMatches(entry.record.getPrimaryKey(), join(entry.record, spilledTable.get(entry.key)));
+        }
+        return true;
+    }
+
+    @Nonnull
+    private Map<Tuple, List<FDBStoredRecord<Message>>> loadBuildFile(@Nonnull Partition partition) {
+        final Map<Tuple, List<FDBStoredRecord<Message>>> table = new HashMap<>();
+        try (SpillReader reader = new SpillReader(partition.buildFile)) {
+            while (true) {
+                final SpillEntry entry = reader.read();
+                if (entry == null) {
+                    break;
+                }
+                table.computeIfAbsent(entry.key, k -> new ArrayList<>()).add(entry.record);
+            }
+        }
+        return table;
+    }
+
+    @Nonnull
+    private List<FDBSyntheticRecord> join(@Nonnull FDBStoredRecord<Message> probeRecord, @Nullable List<FDBStoredRecord<Message>> buildRecords) {
+        if (buildRecords == null || buildRecords.isEmpty()) {
+            if (plan.getBuildConstituent().isOuterJoined()) {
+                return Collections.singletonList(plan.toSyntheticRecord(probeRecord, null));
+            } else {
+                return Collections.emptyList();
+            }
+        }
+        store.increment(FDBStoreTimer.Counts.HASH_JOIN_PROBE_HITS);
+        final List<FDBSyntheticRecord> result = new ArrayList<>(buildRecords.size());
+        for (FDBStoredRecord<Message> buildRecord : buildRecords) {
+            result.add(plan.toSyntheticRecord(probeRecord, buildRecord));
+        }
+        result.sort(matchOrder);
+        return result;
+    }
+
+    private void startMatches(@Nonnull Tuple primaryKey, @Nonnull List<FDBSyntheticRecord> matches) {
+        this.matches = matches;
+        boundaryPrimaryKey = primaryKey;
+        matchPosition = 0;
+    }
+
+    @Nullable
+    private Tuple buildPrimaryKey(@Nonnull FDBSyntheticRecord record) {
+        final FDBStoredRecord<? extends Message> buildRecord = record.getConstituent(plan.getBuildConstituent().getName());
+        return buildRecord == null ? null : buildRecord.getPrimaryKey();
+    }
+
+    @Nonnull
+    private RecordCursorContinuation continuation() {
+        final Collection<Integer> pending;
+        final Collection<Integer> done;
+        if (lookup || !probeExhausted) {
+            pending = new ArrayList<>(pendingPartitions);
+            for (Partition partition : spilled) {
+                pending.add(partition.number);
+            }
+            done = new ArrayList<>(donePartitions);
+        } else {
+            // Joining the spilled partitions in turn: the current one is up to the boundary, those before it are
+            // done, as are those that were never spilled, and those after it are pending.
+            pending = new ArrayList<>();
+            for (int i = spilledPosition + 1; i < spilled.size(); i++) {
+                pending.add(spilled.get(i).number);
+            }
+            done = new ArrayList<>();
+            done.add(NO_KEY_PARTITION);
+            for (Partition partition : partitions) {
+                if (partition.number != spilled.get(spilledPosition).number && !pending.contains(partition.number)) {
+                    done.add(partition.number);
+                }
+            }
+        }
+        if (lookup) {
+            return new HashJoinContinuation(resumeContinuation, boundaryPrimaryKey, boundaryMatchPosition,
+                    currentPrimaryKey, matchPosition, pending, done);
+        } else {
+            return new HashJoinContinuation(resumeContinuation, boundaryPrimaryKey, matchPosition, null, 0, pending, done);
+        }
+    }
+
+    private void deleteFiles() {
+        IOException failure = null;
+        for (Partition partition : spilled) {
+            partition.closeWriters();
+            for (File file : new File[] {partition.buildFile, partition.probeFile}) {
+                if (file != null) {
+                    try {
+                        Files.deleteIfExists(file.toPath());
+                    } catch (IOException ex) {
+                        failure = ex;
+                    }
+                }
+            }
+            partition.buildFile = null;
+            partition.probeFile = null;
+        }
+        if (failure != null) {
+            throw new RecordCoreException("error deleting hash join spill file", failure);
+        }
+    }
+
+    @Nonnull
+    private byte[] serialize(@Nonnull FDBStoredRecord<Message> record) {
+        return store.getSerializer().serialize(store.getRecordMetaData(), record.getRecordType(), record.getRecord(), store.getTimer());
+    }
+
+    @Nonnull
+    private FDBStoredRecord<Message> deserialize(@Nonnull Tuple primaryKey, @Nonnull String recordTypeName, @Nonnull byte[] serialized) {
+        final RecordMetaData metaData = store.getRecordMetaData();
+        final Message message = store.getSerializer().deserialize(metaData, primaryKey, serialized, store.getTimer());
+        return FDBStoredRecord.newBuilder(message)
+                .setPrimaryKey(primaryKey)
+                .setRecordType(metaData.getRecordType(recordTypeName))
+                .build();
+    }
+
+    /**
+     * One partition of the build table, by hash of the join key.
+     */
+    private final class Partition {
+        private final int number;
+        // null once spilled.
+        @Nullable
+        private Map<Tuple, List<FDBStoredRecord<Message>>> table = new HashMap<>();
+        private int size;
+        @Nullable
+        private File buildFile;
+        @Nullable
+        private File probeFile;
+        @Nullable
+        private SpillWriter buildWriter;
+        @Nullable
+        private SpillWriter probeWriter;
+
+        private Partition(int number) {
+            this.number = number;
+        }
+
+        private void writeProbe(@Nonnull Tuple key, @Nonnull FDBStoredRecord<Message> record) {
+            if (probeWriter == null) {
+                probeWriter = new SpillWriter(probeFile);
+            }
+            probeWriter.write(key, record);
+        }
+
+        private void closeWriters() {
+            if (buildWriter != null) {
+                buildWriter.close();
+                buildWriter = null;
+            }
+            if (probeWriter != null) {
+                probeWriter.close();
+                probeWriter = null;
+            }
+        }
+    }
+
+    /**
+     * A record read back from a spill file.
+     */
+    private static final class SpillEntry {
+        @Nonnull
+        private final Tuple key;
+        @Nonnull
+        private final FDBStoredRecord<Message> record;
+
+        private SpillEntry(@Nonnull Tuple key, @Nonnull FDBStoredRecord<Message> record) {
+            this.key = key;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Write records to a spill file.
+     */
+    private final class SpillWriter implements AutoCloseable {
+        @Nonnull
+        private final FileOutputStream fileStream;
+        @Nonnull
+        private final CodedOutputStream stream;
+
+        private SpillWriter(@Nonnull File file) {
+            try {
+                fileStream = new FileOutputStream(file);
+            } catch (IOException ex) {
+                throw new RecordCoreException("error opening hash join spill file", ex)
+                        .addLogInfo("file", file.getPath());
+            }
+            this.stream = CodedOutputStream.newInstance(fileStream);
+        }
+
+        private void write(@Nonnull Tuple key, @Nonnull FDBStoredRecord<Message> record) {
+            try {
+                stream.writeByteArrayNoTag(key.pack());
+                stream.writeByteArrayNoTag(record.getPrimaryKey().pack());
+                stream.writeStringNoTag(record.getRecordType().getName());
+                stream.writeByteArrayNoTag(serialize(record));
+            } catch (IOException ex) {
+                throw new RecordCoreException("error writing hash join spill file", ex);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                stream.flush();
+                fileStream.close();
+            } catch (IOException ex) {
+                throw new RecordCoreException("error closing hash join spill file", ex);
+            }
+        }
+    }
+
+    /**
+     * Read records from a spill file.
+     */
+    private final class SpillReader implements AutoCloseable {
+        @Nonnull
+        private final FileInputStream fileStream;
+        @Nonnull
+        private final CodedInputStream stream;
+
+        private SpillReader(@Nonnull File file) {
+            try {
+                fileStream = new FileInputStream(file);
+            } catch (IOException ex) {
+                throw new RecordCoreException("error opening hash join spill file", ex)
+                        .addLogInfo("file", file.getPath());
+            }
+            this.stream = CodedInputStream.newInstance(fileStream);
+        }
+
+        @Nullable
+        private SpillEntry read() {
+            try {
+                if (stream.isAtEnd()) {
+                    return null;
+                }
+                final Tuple key = Tuple.fromBytes(stream.readByteArray());
+                final Tuple primaryKey = Tuple.fromBytes(stream.readByteArray());
+                final String recordTypeName = stream.readString();
+                final byte[] serialized = stream.readByteArray();
+                return new SpillEntry(key, deserialize(primaryKey, recordTypeName, serialized));
+            } catch (IOException ex) {
+                throw new RecordCoreException("error reading hash join spill file", ex);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                fileStream.close();
+            } catch (IOException ex) {
+                throw new RecordCoreException("error closing hash join spill file", ex);
+            }
+        }
+    }
+
+    /**
+     * The continuation of a {@link HashJoinedRecordCursor}.
+     */
+    private static class HashJoinContinuation implements RecordCursorContinuation {
+        @Nonnull
+        private final RecordCursorContinuation probeContinuation;
+        @Nullable
+        private final Tuple boundaryPrimaryKey;
+        private final int boundaryMatchPosition;
+        @Nullable
+        private final Tuple currentPrimaryKey;
+        private final int matchPosition;
+        @Nonnull
+        private final Collection<Integer> pendingPartitions;
+        @Nonnull
+        private final Collection<Integer> donePartitions;
+        @Nullable
+        private ByteString cachedByteString;
+
+        @SuppressWarnings("squid:S00107") // Each is a separate part of the cursor's state.
+        private HashJoinContinuation(@Nonnull RecordCursorContinuation probeContinuation,
+                                     @Nullable Tuple boundaryPrimaryKey, int boundaryMatchPosition,
+                                     @Nullable Tuple currentPrimaryKey, int matchPosition,
+                                     @Nonnull Collection<Integer> pendingPartitions, @Nonnull Collection<Integer> donePartitions) {
+            this.probeContinuation = probeContinuation;
+            this.boundaryPrimaryKey = boundaryPrimaryKey;
+            this.boundaryMatchPosition = boundaryMatchPosition;
+            this.currentPrimaryKey = currentPrimaryKey;
+            this.matchPosition = matchPosition;
+            this.pendingPartitions = pendingPartitions;
+            this.donePartitions = donePartitions;
+        }
+
+        @Nullable
+        @Override
+        public byte[] toBytes() {
+            return toByteString().toByteArray();
+        }
+
+        @Nonnull
+        @Override
+        public ByteString toByteString() {
+            if (cachedByteString == null) {
+                final RecordCursorProto.HashJoinContinuation.Builder builder = RecordCursorProto.HashJoinContinuation.newBuilder();
+                if (probeContinuation.toBytes() != null) {
+                    builder.setProbeContinuation(probeContinuation.toByteString());
+                }
+                if (boundaryPrimaryKey != null) {
+                    builder.setBoundaryPrimaryKey(ByteString.copyFrom(boundaryPrimaryKey.pack()));
+                    if (boundaryMatchPosition > 0) {
+                        builder.setBoundaryMatchPosition(boundaryMatchPosition);
+                    }
+                }
+                if (currentPrimaryKey != null) {
+                    builder.setCurrentPrimaryKey(ByteString.copyFrom(currentPrimaryKey.pack()));
+                    if (matchPosition > 0) {
+                        builder.setMatchPosition(matchPosition);
+                    }
+                }
+                builder.addAllPendingPartition(pendingPartitions);
+                builder.addAllDonePartition(donePartitions);
+                cachedByteString = builder.build().toByteString();
+            }
+            return cachedByteString;
+        }
+
+        @Override
+        public boolean isEnd() {
+            return false;
+        }
+    }
+}
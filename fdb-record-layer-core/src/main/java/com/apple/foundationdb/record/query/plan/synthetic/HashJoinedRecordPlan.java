@@ -0,0 +1,295 @@
+/*
+ * HashJoinedRecordPlan.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.synthetic;
+
+import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.ObjectPlanHash;
+import com.apple.foundationdb.record.PlanHashable;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.metadata.JoinedRecordType;
+import com.apple.foundationdb.record.metadata.Key;
+import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoredRecord;
+import com.apple.foundationdb.record.provider.foundationdb.FDBSyntheticRecord;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Generate {@link JoinedRecordType} {@linkplain FDBSyntheticRecord records} of a type with two constituents by
+ * hashing one of them.
+ *
+ * <p>
+ * All the records of the <em>build</em> constituent are loaded into a table keyed by their join key values. The
+ * records of the <em>probe</em> constituent are then scanned and looked up in that table. So, unlike
+ * {@link JoinedRecordPlan}, which queries the other side of the join once for every record, the cost of the
+ * join is a single scan of each side.
+ * </p>
+ *
+ * <p>
+ * The table is divided into a number of partitions by the hash of the join key. When more than a given number of
+ * build records are in memory, the largest partition is written to a temporary file, as are any probe records
+ * whose key falls into it. These partitions are then joined one at a time, from their files, once the probe scan is
+ * done.
+ * </p>
+ *
+ * <p>
+ * The build side is scanned with the same execute properties as the probe side. If it does not finish within their
+ * limits, or when resuming from a continuation, the remaining probe records are joined one at a time by the
+ * <em>lookup</em> plan, as {@link JoinedRecordPlan} would, rather than reading the build side again in another
+ * transaction. The temporary files are deleted when the cursor is closed, and the continuation does not refer to them.
+ * </p>
+ *
+ * <p>
+ * The join key of a probe record must be a single value, which is why the probe constituent is one whose join
+ * expressions do not create duplicates. The build constituent is allowed to be outer-joined. The probe plan must
+ * return records in primary key order, which a scan of all the records of a type does.
+ * </p>
+ */
+class HashJoinedRecordPlan implements SyntheticRecordPlan {
+    private static final ObjectPlanHash BASE_HASH = new ObjectPlanHash("Hash-Joined-Record-Plan");
+
+    @Nonnull
+    private final JoinedRecordType joinedRecordType;
+    @Nonnull
+    private final JoinedRecordType.JoinConstituent probeConstituent;
+    @Nonnull
+    private final JoinedRecordType.JoinConstituent buildConstituent;
+    @Nonnull
+    private final RecordQueryPlan probePlan;
+    @Nonnull
+    private final RecordQueryPlan buildPlan;
+    @Nonnull
+    private final SyntheticRecordFromStoredRecordPlan lookupPlan;
+    @Nonnull
+    private final List<KeyExpression> probeExpressions;
+    @Nonnull
+    private final List<KeyExpression> buildExpressions;
+    private final int maxBuildRecordsInMemory;
+    private final int partitionCount;
+
+    @SuppressWarnings("squid:S00107") // There are just that many parts to the plan.
+    public HashJoinedRecordPlan(@Nonnull JoinedRecordType joinedRecordType,
+                                @Nonnull JoinedRecordType.JoinConstituent probeConstituent,
+                                @Nonnull JoinedRecordType.JoinConstituent buildConstituent,
+                                @Nonnull RecordQueryPlan probePlan, @Nonnull RecordQueryPlan buildPlan,
+                                @Nonnull SyntheticRecordFromStoredRecordPlan lookupPlan,
+                                @Nonnull List<KeyExpression> probeExpressions, @Nonnull List<KeyExpression> buildExpressions,
+                                int maxBuildRecordsInMemory, int partitionCount) {
+        this.joinedRecordType = joinedRecordType;
+        this.probeConstituent = probeConstituent;
+        this.buildConstituent = buildConstituent;
+        this.probePlan = probePlan;
+        this.buildPlan = buildPlan;
+        this.lookupPlan = lookupPlan;
+        this.probeExpressions = probeExpressions;
+        this.buildExpressions = buildExpressions;
+        this.maxBuildRecordsInMemory = maxBuildRecordsInMemory;
+        this.partitionCount = partitionCount;
+    }
+
+    @Nonnull
+    public JoinedRecordType getJoinedRecordType() {
+        return joinedRecordType;
+    }
+
+    @Nonnull
+    public JoinedRecordType.JoinConstituent getProbeConstituent() {
+        return probeConstituent;
+    }
+
+    @Nonnull
+    public JoinedRecordType.JoinConstituent getBuildConstituent() {
+        return buildConstituent;
+    }
+
+    @Nonnull
+    public RecordQueryPlan getProbePlan() {
+        return probePlan;
+    }
+
+    @Nonnull
+    public RecordQueryPlan getBuildPlan() {
+        return buildPlan;
+    }
+
+    /**
+     * Get the plan that generates the joined records for a single probe record, used when the build table is not.
+     * @return a plan for joining a probe record by querying for the build records that match it
+     */
+    @Nonnull
+    public SyntheticRecordFromStoredRecordPlan getLookupPlan() {
+        return lookupPlan;
+    }
+
+    public int getMaxBuildRecordsInMemory() {
+        return maxBuildRecordsInMemory;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    @Override
+    @Nonnull
+    @SuppressWarnings("PMD.CloseResource")
+    public RecordCursor<FDBSyntheticRecord> execute(@Nonnull FDBRecordStore store,
+                                                    @Nullable byte[] continuation,
+                                                    @Nonnull ExecuteProperties executeProperties) {
+        final RecordCursor<FDBSyntheticRecord> cursor = new HashJoinedRecordCursor(this, store, continuation, executeProperties.clearSkipAndLimit());
+        return cursor.skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
+    }
+
+    /**
+     * Get the join key of a probe record.
+     * @param record a record of the probe constituent
+     * @return the values of the join expressions or {@code null} if any of them is {@code null}
+     */
+    @Nullable
+    Tuple probeKey(@Nonnull FDBStoredRecord<Message> record) {
+        final List<Object> values = new ArrayList<>(probeExpressions.size());
+        for (KeyExpression expression : probeExpressions) {
+            if (!addValues(values, expression.evaluateSingleton(record))) {
+                return null;
+            }
+        }
+        return Tuple.fromList(values);
+    }
+
+    /**
+     * Get the join keys of a build record. If some join expressions create duplicates, this is every combination of
+     * their values.
+     * @param record a record of the build constituent
+     * @return the distinct keys under which the record should be found
+     */
+    @Nonnull
+    Set<Tuple> buildKeys(@Nonnull FDBStoredRecord<Message> record) {
+        List<List<Object>> keys = List.of(List.of());
+        for (KeyExpression expression : buildExpressions) {
+            final List<Key.Evaluated> evaluated = expression.evaluate(record);
+            final List<List<Object>> extended = new ArrayList<>(keys.size() * evaluated.size());
+            for (List<Object> key : keys) {
+                for (Key.Evaluated value : evaluated) {
+                    final List<Object> values = new ArrayList<>(key);
+                    if (addValues(values, value)) {
+                        extended.add(values);
+                    }
+                }
+            }
+            keys = extended;
+        }
+        final Set<Tuple> result = new LinkedHashSet<>();
+        for (List<Object> key : keys) {
+            result.add(Tuple.fromList(key));
+        }
+        return result;
+    }
+
+    // Null never matches in a join, as with the parameter comparisons of JoinedRecordPlan.
+    private static boolean addValues(@Nonnull List<Object> values, @Nonnull Key.Evaluated evaluated) {
+        final List<Object> list = evaluated.toTupleAppropriateList();
+        if (list.contains(null)) {
+            return false;
+        }
+        values.addAll(list);
+        return true;
+    }
+
+    /**
+     * Get the partition of the build table in which a key is found.
+     * @param key a join key
+     * @return the partition number
+     */
+    int partition(@Nonnull Tuple key) {
+        // Based on the packed form so that it is stable between executions that resume from a continuation.
+        return Math.floorMod(Arrays.hashCode(key.pack()), partitionCount);
+    }
+
+    @Nonnull
+    FDBSyntheticRecord toSyntheticRecord(@Nonnull FDBStoredRecord<Message> probeRecord, @Nullable FDBStoredRecord<Message> buildRecord) {
+        final Map<String, FDBStoredRecord<? extends Message>> records = new HashMap<>();
+        records.put(probeConstituent.getName(), probeRecord);
+        records.put(buildConstituent.getName(), buildRecord);
+        return FDBSyntheticRecord.of(joinedRecordType, records);
+    }
+
+    @Override
+    public String toString() {
+        return probeConstituent.getName() + ":" + probePlan + " HASH JOIN " + buildConstituent.getName() + ":" + buildPlan +
+               " ON " + probeExpressions + " = " + buildExpressions + " => " + joinedRecordType.getName();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        HashJoinedRecordPlan that = (HashJoinedRecordPlan)o;
+        return maxBuildRecordsInMemory == that.maxBuildRecordsInMemory &&
+               partitionCount == that.partitionCount &&
+               Objects.equals(joinedRecordType, that.joinedRecordType) &&
+               Objects.equals(probeConstituent, that.probeConstituent) &&
+               Objects.equals(buildConstituent, that.buildConstituent) &&
+               Objects.equals(probePlan, that.probePlan) &&
+               Objects.equals(buildPlan, that.buildPlan) &&
+               Objects.equals(lookupPlan, that.lookupPlan) &&
+               Objects.equals(probeExpressions, that.probeExpressions) &&
+               Objects.equals(buildExpressions, that.buildExpressions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(joinedRecordType, probeConstituent, buildConstituent, probePlan, buildPlan, lookupPlan,
+                probeExpressions, buildExpressions, maxBuildRecordsInMemory, partitionCount);
+    }
+
+    @Override
+    public int planHash(@Nonnull final PlanHashKind hashKind) {
+        switch (hashKind) {
+            case LEGACY:
+                return PlanHashable.objectsPlanHash(hashKind, joinedRecordType.getName(), probeConstituent.getName(), buildConstituent.getName(),
+                        probePlan, buildPlan, probeExpressions, buildExpressions);
+            case FOR_CONTINUATION:
+            case STRUCTURAL_WITHOUT_LITERALS:
+                // The memory limit and partition count only affect how the join is done, not what it returns.
+                // But the partition count does determine the meaning of the continuation.
+                return PlanHashable.objectsPlanHash(hashKind, BASE_HASH, joinedRecordType.getName(), probeConstituent.getName(), buildConstituent.getName(),
+                        probePlan, buildPlan, probeExpressions, buildExpressions, partitionCount);
+            default:
+                throw new UnsupportedOperationException("Hash kind " + hashKind.name() + " is not supported");
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * MergeJoinedRecordPlan.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.synthetic;
+
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.ExecuteState;
+import com.apple.foundationdb.record.IndexEntry;
+import com.apple.foundationdb.record.IndexScanType;
+import com.apple.foundationdb.record.ObjectPlanHash;
+import com.apple.foundationdb.record.PipelineOperation;
+import com.apple.foundationdb.record.PlanHashable;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.ScanProperties;
+import com.apple.foundationdb.record.TupleRange;
+import com.apple.foundationdb.record.cursors.LazyCursor;
+import com.apple.foundationdb.record.metadata.JoinedRecordType;
+import com.apple.foundationdb.record.provider.foundationdb.FDBIndexedRecord;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoredRecord;
+import com.apple.foundationdb.record.provider.foundationdb.FDBSyntheticRecord;
+import com.apple.foundationdb.record.provider.foundationdb.IndexOrphanBehavior;
+import com.apple.foundationdb.record.provider.foundationdb.cursors.MergeJoinCursor;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Generate {@link JoinedRecordType} {@linkplain FDBSyntheticRecord records} of a type with two constituents by
+ * merging value indexes on their join keys.
+ *
+ * <p>
+ * Each constituent has a {@code VALUE} index whose leading columns are its join expressions, in join order. Both
+ * indexes are scanned together with a {@link MergeJoinCursor}, so, unlike {@link JoinedRecordPlan}, which queries the
+ * other side of the join once for every record, the cost of the join is a single ordered scan of each index, and
+ * only one group of right index entries with equal join keys is held in memory at a time. The merge is done on the
+ * index entries alone, so only the records of entries that found a match are loaded.
+ * </p>
+ *
+ * <p>
+ * Both constituents must be inner-joined, since records without a match are skipped by the merge.
+ * </p>
+ */
+class MergeJoinedRecordPlan implements SyntheticRecordPlan {
+    private static final ObjectPlanHash BASE_HASH = new ObjectPlanHash("Merge-Joined-Record-Plan");
+
+    @Nonnull
+    private final JoinedRecordType joinedRecordType;
+    @Nonnull
+    private final JoinedRecordType.JoinConstituent leftConstituent;
+    @Nonnull
+    private final JoinedRecordType.JoinConstituent rightConstituent;
+    @Nonnull
+    private final String leftIndexName;
+    @Nonnull
+    private final String rightIndexName;
+    private final int joinColumnCount;
+
+    public MergeJoinedRecordPlan(@Nonnull JoinedRecordType joinedRecordType,
+                                 @Nonnull JoinedRecordType.JoinConstituent leftConstituent,
+                                 @Nonnull JoinedRecordType.JoinConstituent rightConstituent,
+                                 @Nonnull String leftIndexName, @Nonnull String rightIndexName,
+                                 int joinColumnCount) {
+        this.joinedRecordType = joinedRecordType;
+        this.leftConstituent = leftConstituent;
+        this.rightConstituent = rightConstituent;
+        this.leftIndexName = leftIndexName;
+        this.rightIndexName = rightIndexName;
+        this.joinColumnCount = joinColumnCount;
+    }
+
+    @Nonnull
+    public JoinedRecordType getJoinedRecordType() {
+        return joinedRecordType;
+    }
+
+    @Nonnull
+    public JoinedRecordType.JoinConstituent getLeftConstituent() {
+        return leftConstituent;
+    }
+
+    @Nonnull
+    public JoinedRecordType.JoinConstituent getRightConstituent() {
+        return rightConstituent;
+    }
+
+    @Nonnull
+    public String getLeftIndexName() {
+        return leftIndexName;
+    }
+
+    @Nonnull
+    public String getRightIndexName() {
+        return rightIndexName;
+    }
+
+    public int getJoinColumnCount() {
+        return joinColumnCount;
+    }
+
+    @Override
+    @Nonnull
+    @SuppressWarnings("PMD.CloseResource")
+    public RecordCursor<FDBSyntheticRecord> execute(@Nonnull FDBRecordStore store,
+                                                    @Nullable byte[] continuation,
+                                                    @Nonnull ExecuteProperties executeProperties) {
+        final ExecuteProperties baseProperties = executeProperties.clearSkipAndLimit();
+        final ScanProperties scanProperties = baseProperties.asScanProperties(false);
+        final RecordCursor<FDBSyntheticRecord> cursor = RecordCursor.flatMapPipelined(
+                outerContinuation -> MergeJoinCursor.create(this::joinKey, this::joinKey, false,
+                        leftContinuation -> store.scanIndex(store.getRecordMetaData().getIndex(leftIndexName), IndexScanType.BY_VALUE,
+                                TupleRange.ALL, leftContinuation, scanProperties),
+                        rightContinuation -> store.scanIndex(store.getRecordMetaData().getIndex(rightIndexName), IndexScanType.BY_VALUE,
+                                TupleRange.ALL, rightContinuation, scanProperties),
+                        outerContinuation, store.getTimer()),
+                (match, innerContinuation) -> new LazyCursor<>(
+                        loadSyntheticRecords(store, match, baseProperties.getState())
+                                .thenApply(records -> RecordCursor.fromList(store.getExecutor(), records, innerContinuation)),
+                        store.getExecutor()),
+                continuation,
+                store.getPipelineSize(PipelineOperation.SYNTHETIC_RECORD_JOIN));
+        return cursor.skipThenLimit(executeProperties.getSkip(), executeProperties.getReturnedRowLimit());
+    }
+
+    @Nonnull
+    private List<Object> joinKey(@Nonnull IndexEntry indexEntry) {
+        return indexEntry.getKey().getItems().subList(0, joinColumnCount);
+    }
+
+    @Nonnull
+    private CompletableFuture<List<FDBSyntheticRecord>> loadSyntheticRecords(@Nonnull FDBRecordStore store,
+                                                                            @Nonnull MergeJoinCursor.Match<IndexEntry> match,
+                                                                            @Nonnull ExecuteState executeState) {
+        final CompletableFuture<FDBIndexedRecord<Message>> leftFuture = store.loadIndexEntryRecord(match.getLeft(), IndexOrphanBehavior.ERROR, executeState);
+        final List<CompletableFuture<FDBIndexedRecord<Message>>> rightFutures = new ArrayList<>(match.getRight().size());
+        for (IndexEntry right : match.getRight()) {
+            rightFutures.add(store.loadIndexEntryRecord(right, IndexOrphanBehavior.ERROR, executeState));
+        }
+        return leftFuture.thenCombine(AsyncUtil.getAll(rightFutures), (left, rights) -> {
+            final List<FDBSyntheticRecord> result = new ArrayList<>(rights.size());
+            for (FDBIndexedRecord<Message> right : rights) {
+                final Map<String, FDBStoredRecord<? extends Message>> records = new HashMap<>();
+                records.put(leftConstituent.getName(), left.getStoredRecord());
+                records.put(rightConstituent.getName(), right.getStoredRecord());
+                result.add(FDBSyntheticRecord.of(joinedRecordType, records));
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return leftConstituent.getName() + ":Index(" + leftIndexName + ") MERGE JOIN " + rightConstituent.getName() + ":Index(" + rightIndexName +
+               ") ON " + joinColumnCount + " columns => " + joinedRecordType.getName();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        MergeJoinedRecordPlan that = (MergeJoinedRecordPlan)o;
+        return joinColumnCount == that.joinColumnCount &&
+               Objects.equals(joinedRecordType, that.joinedRecordType) &&
+               Objects.equals(leftConstituent, that.leftConstituent) &&
+               Objects.equals(rightConstituent, that.rightConstituent) &&
+               Objects.equals(leftIndexName, that.leftIndexName) &&
+               Objects.equals(rightIndexName, that.rightIndexName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(joinedRecordType, leftConstituent, rightConstituent, leftIndexName, rightIndexName, joinColumnCount);
+    }
+
+    @Override
+    public int planHash(@Nonnull final PlanHashKind hashKind) {
+        switch (hashKind) {
+            case LEGACY:
+                return PlanHashable.objectsPlanHash(hashKind, joinedRecordType.getName(), leftConstituent.getName(), rightConstituent.getName(),
+                        leftIndexName, rightIndexName, joinColumnCount);
+            case FOR_CONTINUATION:
+            case STRUCTURAL_WITHOUT_LITERALS:
+                return PlanHashable.objectsPlanHash(hashKind, BASE_HASH, joinedRecordType.getName(), leftConstituent.getName(), rightConstituent.getName(),
+                        leftIndexName, rightIndexName, joinColumnCount);
+            default:
+                throw new UnsupportedOperationException("Hash kind " + hashKind.name() + " is not supported");
+        }
+    }
+}
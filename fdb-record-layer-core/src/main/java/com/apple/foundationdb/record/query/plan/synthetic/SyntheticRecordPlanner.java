@@ -26,9 +26,11 @@ import com.apple.foundationdb.record.RecordCoreException;
 import com.apple.foundationdb.record.RecordMetaData;
 import com.apple.foundationdb.record.RecordStoreState;
 import com.apple.foundationdb.record.metadata.Index;
+import com.apple.foundationdb.record.metadata.IndexTypes;
 import com.apple.foundationdb.record.metadata.JoinedRecordType;
 import com.apple.foundationdb.record.metadata.RecordType;
 import com.apple.foundationdb.record.metadata.SyntheticRecordType;
+import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
 import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore;
 import com.apple.foundationdb.record.query.RecordQuery;
 import com.apple.foundationdb.record.query.plan.RecordQueryPlanner;
@@ -59,12 +61,24 @@ import java.util.Set;
  */
 @API(API.Status.INTERNAL)
 public class SyntheticRecordPlanner {
+    /** The default number of records above which {@link #scanForType(SyntheticRecordType, long)} prefers a hash join. */
+    public static final long DEFAULT_HASH_JOIN_THRESHOLD = 10_000;
+    /** The default number of build records a hash join keeps in memory before spilling to files. */
+    public static final int DEFAULT_HASH_JOIN_MAX_RECORDS_IN_MEMORY = 100_000;
+    /** The default number of partitions into which a hash join divides its build table. */
+    public static final int DEFAULT_HASH_JOIN_PARTITION_COUNT = 16;
 
     @Nonnull
     private final RecordMetaData recordMetaData;
     @Nonnull
+    private final RecordStoreState storeState;
+    @Nonnull
     private final RecordQueryPlanner queryPlanner;
 
+    private long hashJoinThreshold = DEFAULT_HASH_JOIN_THRESHOLD;
+    private int hashJoinMaxRecordsInMemory = DEFAULT_HASH_JOIN_MAX_RECORDS_IN_MEMORY;
+    private int hashJoinPartitionCount = DEFAULT_HASH_JOIN_PARTITION_COUNT;
+
     /**
      * Initialize a new planner.
      * @param recordMetaData meta-data to use for planning
@@ -72,6 +86,7 @@ public class SyntheticRecordPlanner {
      */
     public SyntheticRecordPlanner(@Nonnull RecordMetaData recordMetaData, @Nonnull RecordStoreState storeState) {
         this.recordMetaData = recordMetaData;
+        this.storeState = storeState;
         this.queryPlanner = new RecordQueryPlanner(recordMetaData, storeState);
     }
 
@@ -83,6 +98,64 @@ public class SyntheticRecordPlanner {
         this(store.getRecordMetaData(), store.getRecordStoreState());
     }
 
+    /**
+     * Get the number of records to be scanned at or above which {@link #scanForType(SyntheticRecordType, long)} uses a
+     * hash join instead of querying for the joined records of each one.
+     * @return the estimated record count that selects a hash join
+     */
+    public long getHashJoinThreshold() {
+        return hashJoinThreshold;
+    }
+
+    /**
+     * Set the number of records to be scanned at or above which {@link #scanForType(SyntheticRecordType, long)} uses a
+     * hash join instead of querying for the joined records of each one.
+     * @param hashJoinThreshold the estimated record count that selects a hash join
+     */
+    public void setHashJoinThreshold(long hashJoinThreshold) {
+        this.hashJoinThreshold = hashJoinThreshold;
+    }
+
+    /**
+     * Get the number of build records that a hash join keeps in memory before writing partitions to files.
+     * @return the maximum number of build records in memory
+     */
+    public int getHashJoinMaxRecordsInMemory() {
+        return hashJoinMaxRecordsInMemory;
+    }
+
+    /**
+     * Set the number of build records that a hash join keeps in memory before writing partitions to files.
+     * @param hashJoinMaxRecordsInMemory the maximum number of build records in memory
+     */
+    public void setHashJoinMaxRecordsInMemory(int hashJoinMaxRecordsInMemory) {
+        if (hashJoinMaxRecordsInMemory < 0) {
+            throw new RecordCoreArgumentException("hash join memory limit must not be negative");
+        }
+        this.hashJoinMaxRecordsInMemory = hashJoinMaxRecordsInMemory;
+    }
+
+    /**
+     * Get the number of partitions into which a hash join divides its build table, which are spilled to files
+     * individually.
+     * @return the number of hash join partitions
+     */
+    public int getHashJoinPartitionCount() {
+        return hashJoinPartitionCount;
+    }
+
+    /**
+     * Set the number of partitions into which a hash join divides its build table, which are spilled to files
+     * individually.
+     * @param hashJoinPartitionCount the number of hash join partitions
+     */
+    public void setHashJoinPartitionCount(int hashJoinPartitionCount) {
+        if (hashJoinPartitionCount < 1) {
+            throw new RecordCoreArgumentException("hash join must have at least one partition");
+        }
+        this.hashJoinPartitionCount = hashJoinPartitionCount;
+    }
+
     /**
      * Construct a plan for generating all synthetic records of a given type.
      *
@@ -98,6 +171,160 @@ public class SyntheticRecordPlanner {
         return new SyntheticRecordScanPlan(query, fromRecord, true); // TODO: better needDistinct calculation
     }
 
+    /**
+     * Construct a plan for generating all synthetic records of a given type, taking into account how many records
+     * there are to start from.
+     *
+     * If the estimate is at least the {@linkplain #getHashJoinThreshold hash join threshold} and the type is a
+     * joined record type for which {@link #mergeJoinForType} or, failing that, {@link #hashJoinForType} can make a plan,
+     * that is used. Otherwise, this is the same as {@link #scanForType(SyntheticRecordType)}.
+     * @param syntheticRecordType the synthetic record type
+     * @param estimatedRecordCount an estimate of the number of stored records from which the synthetic records will derive
+     * @return a plan that can be applied to a record store to generate synthetic records
+     */
+    @Nonnull
+    public SyntheticRecordPlan scanForType(@Nonnull SyntheticRecordType<?> syntheticRecordType, long estimatedRecordCount) {
+        if (estimatedRecordCount >= hashJoinThreshold && syntheticRecordType instanceof JoinedRecordType) {
+            final SyntheticRecordPlan mergeJoin = mergeJoinForType((JoinedRecordType)syntheticRecordType);
+            if (mergeJoin != null) {
+                return mergeJoin;
+            }
+            final SyntheticRecordPlan hashJoin = hashJoinForType((JoinedRecordType)syntheticRecordType);
+            if (hashJoin != null) {
+                return hashJoin;
+            }
+        }
+        return scanForType(syntheticRecordType);
+    }
+
+    /**
+     * Construct a plan for generating all joined records of a given type by scanning each constituent once and
+     * joining them in a hash table.
+     *
+     * This is only possible for a join of two constituents, at least one of which is not outer-joined and has join
+     * expressions that do not create duplicates. That constituent is scanned and looked up in a table of the other's
+     * records.
+     * @param joinedRecordType the joined record type
+     * @return a plan that can be applied to a record store to generate joined records or {@code null} if the type
+     * cannot be generated by a hash join
+     */
+    @Nullable
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
+    public SyntheticRecordPlan hashJoinForType(@Nonnull JoinedRecordType joinedRecordType) {
+        if (joinedRecordType.getRecordMetaData() != recordMetaData) {
+            throw mismatchedMetaData();
+        }
+        final List<JoinedRecordType.JoinConstituent> constituents = joinedRecordType.getConstituents();
+        if (constituents.size() != 2 || joinedRecordType.getJoins().isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < 2; i++) {
+            final JoinedRecordType.JoinConstituent probe = constituents.get(i);
+            final JoinedRecordType.JoinConstituent build = constituents.get(1 - i);
+            if (probe.isOuterJoined()) {
+                continue;
+            }
+            final List<KeyExpression> probeExpressions = new ArrayList<>();
+            final List<KeyExpression> buildExpressions = new ArrayList<>();
+            boolean eligible = true;
+            for (JoinedRecordType.Join join : joinedRecordType.getJoins()) {
+                if (join.getLeft() == probe && join.getRight() == build) {
+                    probeExpressions.add(join.getLeftExpression());
+                    buildExpressions.add(join.getRightExpression());
+                } else if (join.getLeft() == build && join.getRight() == probe) {
+                    probeExpressions.add(join.getRightExpression());
+                    buildExpressions.add(join.getLeftExpression());
+                } else {
+                    // Joins a constituent to itself.
+                    return null;
+                }
+                if (probeExpressions.get(probeExpressions.size() - 1).createsDuplicates()) {
+                    eligible = false;
+                    break;
+                }
+            }
+            if (eligible) {
+                final RecordQueryPlan probePlan = queryPlanner.plan(RecordQuery.newBuilder().setRecordType(probe.getRecordType().getName()).build());
+                final RecordQueryPlan buildPlan = queryPlanner.plan(RecordQuery.newBuilder().setRecordType(build.getRecordType().getName()).build());
+                return new HashJoinedRecordPlan(joinedRecordType, probe, build, probePlan, buildPlan, forJoinConstituent(joinedRecordType, probe),
+                        probeExpressions, buildExpressions, hashJoinMaxRecordsInMemory, hashJoinPartitionCount);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Construct a plan for generating all joined records of a given type by merging indexes on each constituent that are
+     * ordered by the join key.
+     *
+     * This is only possible for an inner join of two constituents whose join expressions do not create duplicates, each
+     * of which has a readable {@code VALUE} index whose leading columns are its join expressions, in the same order.
+     * The index must have exactly one entry for every record of the type, so filtered indexes and indexes that fan out
+     * are not used.
+     * @param joinedRecordType the joined record type
+     * @return a plan that can be applied to a record store to generate joined records or {@code null} if the type
+     * cannot be generated by a merge join
+     */
+    @Nullable
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
+    public SyntheticRecordPlan mergeJoinForType(@Nonnull JoinedRecordType joinedRecordType) {
+        if (joinedRecordType.getRecordMetaData() != recordMetaData) {
+            throw mismatchedMetaData();
+        }
+        final List<JoinedRecordType.JoinConstituent> constituents = joinedRecordType.getConstituents();
+        if (constituents.size() != 2 || joinedRecordType.getJoins().isEmpty()) {
+            return null;
+        }
+        final JoinedRecordType.JoinConstituent left = constituents.get(0);
+        final JoinedRecordType.JoinConstituent right = constituents.get(1);
+        if (left.isOuterJoined() || right.isOuterJoined()) {
+            return null;
+        }
+        final List<KeyExpression> leftExpressions = new ArrayList<>();
+        final List<KeyExpression> rightExpressions = new ArrayList<>();
+        for (JoinedRecordType.Join join : joinedRecordType.getJoins()) {
+            if (join.getLeft() == left && join.getRight() == right) {
+                leftExpressions.add(join.getLeftExpression());
+                rightExpressions.add(join.getRightExpression());
+            } else if (join.getLeft() == right && join.getRight() == left) {
+                leftExpressions.add(join.getRightExpression());
+                rightExpressions.add(join.getLeftExpression());
+            } else {
+                // Joins a constituent to itself.
+                return null;
+            }
+            if (join.getLeftExpression().createsDuplicates() || join.getRightExpression().createsDuplicates()) {
+                return null;
+            }
+        }
+        final Index leftIndex = findJoinIndex(left.getRecordType(), leftExpressions);
+        final Index rightIndex = findJoinIndex(right.getRecordType(), rightExpressions);
+        if (leftIndex == null || rightIndex == null) {
+            return null;
+        }
+        return new MergeJoinedRecordPlan(joinedRecordType, left, right, leftIndex.getName(), rightIndex.getName(), leftExpressions.size());
+    }
+
+    // Find a readable value index on just the given type, with one entry per record, whose entries are ordered by the given expressions.
+    @Nullable
+    private Index findJoinIndex(@Nonnull RecordType recordType, @Nonnull List<KeyExpression> joinExpressions) {
+        final List<KeyExpression> joinFields = new ArrayList<>();
+        for (KeyExpression joinExpression : joinExpressions) {
+            joinFields.addAll(joinExpression.normalizeKeyForPositions());
+        }
+        for (Index index : recordType.getIndexes()) {
+            if (!IndexTypes.VALUE.equals(index.getType()) || !storeState.isReadable(index)
+                    || index.hasPredicate() || index.getRootExpression().createsDuplicates()) {
+                continue;
+            }
+            final List<KeyExpression> indexFields = KeyExpression.getKeyFields(index.getRootExpression());
+            if (indexFields.size() >= joinFields.size() && indexFields.subList(0, joinFields.size()).equals(joinFields)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
     /**
      * Construct a plan for generating all synthetic records of a given type.
      *
@@ -94,6 +94,16 @@ public interface FileSortAdapter<K, V> extends MemorySortAdapter<K, V> {
 
     // TODO: Limit on number of records total?
 
+    /**
+     * Get whether files should be written in the block format, which is read using memory-mapped buffers.
+     * In this format, each section is compressed and encrypted as a single block, rather than through a stream.
+     * @return {@code true} if files use the block format
+     * @see MappedSortFileWriter
+     */
+    default boolean isMemoryMapped() {
+        return false;
+    }
+
     /**
      * Get whether files should be compressed.
      * @return {@code true} if files are compressed
@@ -76,6 +76,11 @@ import java.util.zip.InflaterInputStream;
  * Files can be optionally compressed and encrypted. This applies at the section level: the section
  * headers are cleartext and the keys and records are not individually compressed / encrypted.
  *
+ * If {@link FileSortAdapter#isMemoryMapped} is set, files are instead written by {@link MappedSortFileWriter}
+ * with each section as a single block, and read back from memory-mapped buffers by {@link MappedSortFileReader}.
+ *
+ * Files are merged using a {@link LoserTree}, so that the cost per record is logarithmic in the number of files.
+ *
  * If the input set is small enough, it can remain in memory in the tree map
  * and can be returned directly from there.
  * @param <K> type of key
@@ -84,6 +89,7 @@ import java.util.zip.InflaterInputStream;
 @API(API.Status.EXPERIMENTAL)
 public class FileSorter<K, V>  {
     public static final int SORT_FILE_VERSION = 1;
+    public static final int MAPPED_SORT_FILE_VERSION = 2;
 
     @Nonnull
     private final MemorySorter<K, V> mapSorter;
@@ -179,7 +185,9 @@ public class FileSorter<K, V>  {
         final boolean compress = adapter.isCompressed();
         final java.security.Key encryptionKey = adapter.getEncryptionKey();
         Cipher cipher = null;
-        if (!mapSorter.getMap().isEmpty()) {
+        if (adapter.isMemoryMapped() && !mapSorter.getMap().isEmpty()) {
+            saveToMappedFile(startTime);
+        } else if (!mapSorter.getMap().isEmpty()) {
             File file;
             try {
                 file = adapter.generateFilename();
@@ -270,6 +278,33 @@ public class FileSorter<K, V>  {
         }
     }
 
+    private void saveToMappedFile(long startTime) {
+        final File file;
+        try {
+            file = adapter.generateFilename();
+            try (MappedSortFileWriter<V> writer = new MappedSortFileWriter<>(file, adapter)) {
+                if (timer != null) {
+                    timer.recordSinceNanoTime(SortEvents.Events.FILE_SORT_OPEN_FILE, startTime);
+                }
+                for (Map.Entry<K, V> keyAndValue : mapSorter.getMap().entrySet()) {
+                    final long recordStartTime = System.nanoTime();
+                    writer.add(adapter.serializeKey(keyAndValue.getKey()), keyAndValue.getValue());
+                    if (timer != null) {
+                        timer.recordSinceNanoTime(SortEvents.Events.FILE_SORT_SAVE_RECORD, recordStartTime);
+                    }
+                }
+                writer.finish();
+                if (timer != null) {
+                    timer.increment(SortEvents.Counts.FILE_SORT_FILE_BYTES, (int)writer.getFileLength());
+                }
+            }
+        } catch (IOException | GeneralSecurityException ex) {
+            throw new RecordCoreException(ex);
+        }
+        files.add(file);
+        mapSorter.getMap().clear();
+    }
+
     static void initCipherEncrypt(@Nonnull Cipher cipher,
                                   @Nonnull java.security.Key encryptionKey,
                                   @Nonnull SecureRandom secureRandom,
@@ -330,7 +365,29 @@ public class FileSorter<K, V>  {
         }
     }
 
-    private static class InputState implements Closeable {
+    /**
+     * A sorted source of serialized keys and values being merged.
+     */
+    interface MergeInput extends Closeable {
+        void next() throws IOException, GeneralSecurityException;
+
+        @Nullable
+        byte[] getKey();
+
+        @Nullable
+        byte[] getValue();
+    }
+
+    /**
+     * A destination for merged serialized keys and values.
+     */
+    interface MergeOutput extends Closeable {
+        void next(@Nonnull byte[] key, @Nonnull byte[] value) throws IOException, GeneralSecurityException;
+
+        void finish() throws IOException, GeneralSecurityException;
+    }
+
+    private static class InputState implements MergeInput {
         @Nonnull
         final File file;
         @Nonnull
@@ -380,6 +437,7 @@ public class FileSorter<K, V>  {
             fileRecordEnd = builder.getNumberOfRecords();
         }
 
+        @Override
         @SuppressWarnings("PMD.CloseResource")
         public void next() throws IOException, GeneralSecurityException {
             while (recordPosition >= sectionRecordEnd) {
@@ -417,6 +475,18 @@ public class FileSorter<K, V>  {
             recordPosition++;
         }
 
+        @Nullable
+        @Override
+        public byte[] getKey() {
+            return key;
+        }
+
+        @Nullable
+        @Override
+        public byte[] getValue() {
+            return value;
+        }
+
         @Override
         public void close() throws IOException {
             if (cipher != null) {
@@ -426,7 +496,7 @@ public class FileSorter<K, V>  {
         }
     }
 
-    private static class OutputState implements Closeable {
+    private static class OutputState implements MergeOutput {
         @Nonnull
         final File file;
         final int recordsPerSection;
@@ -457,6 +527,7 @@ public class FileSorter<K, V>  {
         long fileHeaderEnd;
         long sectionHeaderPosition;
         long sectionRecordsPosition;
+        boolean closed;
 
         public OutputState(@Nonnull File file, @Nonnull FileSortAdapter<?, ?> adapter) throws IOException, GeneralSecurityException {
             this.file = file;
@@ -491,6 +562,7 @@ public class FileSorter<K, V>  {
             writeSectionHeader();
         }
 
+        @Override
         public void next(@Nonnull byte[] key, @Nonnull byte[] value) throws IOException, GeneralSecurityException {
             entryStream.writeByteArrayNoTag(key);
             entryStream.writeByteArrayNoTag(value);
@@ -506,6 +578,7 @@ public class FileSorter<K, V>  {
             }
         }
 
+        @Override
         public void finish() throws IOException {
             rewriteSectionHeader();
             final long fileLength = fileChannel.position();
@@ -518,8 +591,13 @@ public class FileSorter<K, V>  {
             fileChannel.position(fileLength);
         }
 
+        // Called once to check for errors and again during cleanup, so must only return the cipher once.
         @Override
         public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
             if (cipher != null) {
                 CipherPool.returnCipher(cipher);
             }
@@ -564,37 +642,28 @@ public class FileSorter<K, V>  {
     @SuppressWarnings({"PMD.EmptyCatchBlock", "PMD.CloseResource", "PMD.UseTryWithResources"})
     private void merge(@Nonnull Collection<File> inputFiles, @Nonnull File outputFile) throws IOException, GeneralSecurityException {
         final long startTime = System.nanoTime();
-        final List<InputState> inputs = new ArrayList<>(inputFiles.size());
-        OutputState output = null;
+        final List<MergeInput> inputs = new ArrayList<>(inputFiles.size());
+        MergeOutput output = null;
         boolean success = false;
         try {
             for (File file : inputFiles) {
-                InputState input = new InputState(file, adapter);
+                MergeInput input = adapter.isMemoryMapped() ?
+                                   new MappedSortFileReader<>(file, adapter, null, 0, Integer.MAX_VALUE) :
+                                   new InputState(file, adapter);
                 inputs.add(input);
                 input.next();
             }
-            output = new OutputState(outputFile, adapter);
+            output = adapter.isMemoryMapped() ? new MappedSortFileWriter<>(outputFile, adapter) : new OutputState(outputFile, adapter);
+            final LoserTree tree = new LoserTree(inputs.size(), (i1, i2) -> compareKeys(inputs.get(i1).getKey(), inputs.get(i2).getKey()));
             while (true) {
-                InputState minState = null;
-                for (InputState input : inputs) {
-                    if (input.key != null) {
-                        if (minState == null) {
-                            minState = input;
-                        } else {
-                            int comp = adapter.isSerializedOrderReversed() ?
-                                       ByteArrayUtil.compareUnsigned(input.key, minState.key) :
-                                       ByteArrayUtil.compareUnsigned(minState.key, input.key);
-                            if (comp > 0) {
-                                minState = input;
-                            }
-                        }
-                    }
-                }
-                if (minState == null) {
+                final MergeInput minInput = inputs.get(tree.getWinner());
+                final byte[] key = minInput.getKey();
+                if (key == null) {
                     break;
                 }
-                output.next(minState.key, minState.value);
-                minState.next();
+                output.next(key, minInput.getValue());
+                minInput.next();
+                tree.advanceWinner();
             }
             output.finish();
             output.close();
@@ -614,22 +683,38 @@ public class FileSorter<K, V>  {
                     }
                 }
             }
-            for (InputState input : inputs) {
+            for (MergeInput input : inputs) {
                 try {
                     input.close();
-                    if (success) {
-                        deleteFile(input.file);
-                    }
                 } catch (IOException ex) {
                     // swallow cleanup error
                 }
             }
+            if (success) {
+                for (File file : inputFiles) {
+                    try {
+                        deleteFile(file);
+                    } catch (IOException ex) {
+                        // swallow cleanup error
+                    }
+                }
+            }
             if (timer != null) {
                 timer.recordSinceNanoTime(SortEvents.Events.FILE_SORT_MERGE_FILES, startTime);
             }
         }
     }
 
+    // Exhausted inputs, with a null key, sort after all others.
+    private int compareKeys(@Nullable byte[] key1, @Nullable byte[] key2) {
+        if (key1 == null || key2 == null) {
+            return Boolean.compare(key1 == null, key2 == null);
+        }
+        return adapter.isSerializedOrderReversed() ?
+               ByteArrayUtil.compareUnsigned(key2, key1) :
+               ByteArrayUtil.compareUnsigned(key1, key2);
+    }
+
     public void deleteFiles() throws IOException {
         for (File file : files) {
             deleteFile(file);
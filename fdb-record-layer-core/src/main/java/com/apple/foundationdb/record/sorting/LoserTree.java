@@ -0,0 +1,104 @@
+/*
+ * LoserTree.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * A tournament tree of losers for merging {@code k} sorted sources.
+ *
+ * Each internal node remembers the source that lost the match played there, so that after the winning source
+ * advances, only the matches on the path from its leaf to the root need to be replayed. This takes
+ * {@code log k} comparisons per element, rather than the {@code k} of a linear scan for the minimum
+ * or the {@code 2 log k} of a binary heap.
+ */
+class LoserTree {
+    /**
+     * Compare the current elements of two sources.
+     */
+    @FunctionalInterface
+    interface SourceComparator {
+        /**
+         * Compare the current elements of two sources. An exhausted source must compare greater than any source
+         * that is not exhausted.
+         * @param source1 index of the first source
+         * @param source2 index of the second source
+         * @return a negative integer, zero, or a positive integer as the first source's element is less than, equal
+         * to, or greater than the second's
+         */
+        int compare(int source1, int source2);
+    }
+
+    private final int size;
+    @Nonnull
+    private final SourceComparator comparator;
+    // tree[0] is the overall winner; tree[1..size-1] are the losers at each internal node.
+    @Nonnull
+    private final int[] tree;
+
+    LoserTree(int size, @Nonnull SourceComparator comparator) {
+        this.size = size;
+        this.comparator = comparator;
+        this.tree = new int[Math.max(size, 1)];
+        // Start with a virtual source that beats everything, so that each real source gets played into place.
+        Arrays.fill(tree, size);
+        for (int i = size - 1; i >= 0; i--) {
+            replay(i);
+        }
+    }
+
+    /**
+     * Get the source whose current element is smallest.
+     * @return the index of the winning source
+     */
+    int getWinner() {
+        return tree[0];
+    }
+
+    /**
+     * Update the tree after the winning source has advanced to its next element.
+     */
+    void advanceWinner() {
+        replay(tree[0]);
+    }
+
+    private void replay(int source) {
+        int winner = source;
+        for (int node = (source + size) / 2; node > 0; node /= 2) {
+            if (beats(tree[node], winner)) {
+                final int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    private boolean beats(int source1, int source2) {
+        if (source1 == size || source2 == size) {
+            return source1 == size;
+        }
+        final int comp = comparator.compare(source1, source2);
+        // Ties go to the lower-numbered source, which keeps the merge stable.
+        return comp < 0 || (comp == 0 && source1 < source2);
+    }
+}
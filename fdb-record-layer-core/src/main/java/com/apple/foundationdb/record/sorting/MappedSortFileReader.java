@@ -0,0 +1,359 @@
+/*
+ * MappedSortFileReader.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordSortingProto;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.provider.common.CipherPool;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.Cipher;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read keys and values from files written by {@link MappedSortFileWriter}.
+ *
+ * The file is mapped into memory in segments, each of which starts at a section boundary. Sections that are neither
+ * compressed nor encrypted are parsed directly from the mapped buffer; otherwise, each section is decrypted and
+ * inflated as a whole block into a reused buffer.
+ * @param <V> type of value
+ */
+class MappedSortFileReader<V> implements FileSorter.MergeInput {
+    // Maximum size of a single mapping. A section must fit within one.
+    static final long MAX_SEGMENT_SIZE = 1L << 30;
+    // Upper bound on the size of a serialized section header, all of whose fields are fixed size.
+    private static final int MAX_SECTION_HEADER_SIZE = 64;
+
+    @Nonnull
+    private final FileSortAdapter<?, V> adapter;
+    @Nonnull
+    private final FileChannel fileChannel;
+    private final long fileSize;
+    private final long segmentSize;
+    @Nullable
+    private final StoreTimer timer;
+
+    @Nullable
+    private final Inflater inflater;
+    @Nullable
+    private final java.security.Key encryptionKey;
+    @Nullable
+    private final Cipher cipher;
+
+    @Nullable
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private long segmentEnd;
+
+    @Nonnull
+    private ByteBuffer decryptBuffer;
+    @Nonnull
+    private byte[] inflateBuffer;
+
+    @Nullable
+    private CodedInputStream entryStream;
+    private int sectionRecordEnd;
+    private int fileRecordEnd;
+    private int recordPosition;
+    private int recordSectionPosition;
+    private long sectionFileStart;
+    private long sectionFileEnd;
+
+    @Nullable
+    private byte[] key;
+    @Nullable
+    private byte[] value;
+    private boolean closed;
+
+    MappedSortFileReader(@Nonnull File file, @Nonnull FileSortAdapter<?, V> adapter, @Nullable StoreTimer timer,
+                         int skip, int limit) throws IOException, GeneralSecurityException {
+        this(file, adapter, timer, skip, limit, MAX_SEGMENT_SIZE);
+    }
+
+    @SuppressWarnings("PMD.CloseResource")
+    MappedSortFileReader(@Nonnull File file, @Nonnull FileSortAdapter<?, V> adapter, @Nullable StoreTimer timer,
+                         int skip, int limit, long segmentSize) throws IOException, GeneralSecurityException {
+        this.adapter = adapter;
+        this.timer = timer;
+        this.segmentSize = segmentSize;
+        fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        boolean success = false;
+        try {
+            fileSize = fileChannel.size();
+            inflater = adapter.isCompressed() ? new Inflater() : null;
+            encryptionKey = adapter.getEncryptionKey();
+            final String cipherName = adapter.getEncryptionCipherName();
+            if (encryptionKey != null && cipherName != null) {
+                cipher = CipherPool.borrowCipher(cipherName);
+            } else {
+                cipher = null;
+            }
+            decryptBuffer = ByteBuffer.allocate(0);
+            inflateBuffer = new byte[0];
+            skipLimit(skip, limit);
+            success = true;
+        } finally {
+            if (!success) {
+                close();
+            }
+        }
+    }
+
+    private void skipLimit(int skip, int limit) throws IOException, GeneralSecurityException {
+        final ByteBuffer headerBuffer = map(0, Math.min(fileSize, MAX_SECTION_HEADER_SIZE));
+        final CodedInputStream headerStream = CodedInputStream.newInstance(headerBuffer);
+        final RecordSortingProto.SortFileHeader.Builder fileHeader = RecordSortingProto.SortFileHeader.newBuilder();
+        headerStream.readMessage(fileHeader, ExtensionRegistryLite.getEmptyRegistry());
+        if (fileHeader.getVersion() != FileSorter.MAPPED_SORT_FILE_VERSION) {
+            throw new RecordCoreException("file header version mismatch")
+                    .addLogInfo(LogMessageKeys.EXPECTED, FileSorter.MAPPED_SORT_FILE_VERSION)
+                    .addLogInfo(LogMessageKeys.ACTUAL, fileHeader.getVersion());
+        }
+        if (fileHeader.getMetaDataVersion() != adapter.getMetaDataVersion()) {
+            throw new RecordCoreException("file meta-data version mismatch");
+        }
+        sectionFileStart = headerStream.getTotalBytesRead();
+        sectionFileEnd = sectionFileStart;  // As though end of previous one.
+        if (skip > 0) {
+            if (skip >= fileHeader.getNumberOfRecords()) {
+                // We don't need to try to skip when there aren't enough records.
+                sectionFileStart = sectionFileEnd = fileSize;
+                recordPosition = fileRecordEnd = fileHeader.getNumberOfRecords();
+                return;
+            }
+            while (true) {
+                // Skip whole sections, reading only their headers, until skip position within one.
+                final long startTime = System.nanoTime();
+                final RecordSortingProto.SortSectionHeader.Builder sectionHeader = readSectionHeader();
+                if (sectionRecordEnd > skip) {
+                    openSection(sectionHeader);
+                    break;
+                }
+                sectionFileStart = sectionFileEnd;
+                if (timer != null) {
+                    timer.recordSinceNanoTime(SortEvents.Events.FILE_SORT_SKIP_SECTION, startTime);
+                }
+            }
+            while (recordPosition < skip) {
+                // Skip initial keys and values in this section.
+                final long startTime = System.nanoTime();
+                entryStream.skipRawBytes(entryStream.readRawVarint32());
+                entryStream.skipRawBytes(entryStream.readRawVarint32());
+                recordPosition++;
+                recordSectionPosition++;
+                if (timer != null) {
+                    timer.recordSinceNanoTime(SortEvents.Events.FILE_SORT_SKIP_RECORD, startTime);
+                }
+            }
+            limit = (int)Math.min((long)limit + skip, Integer.MAX_VALUE);
+        }
+        fileRecordEnd = Math.min(limit, fileHeader.getNumberOfRecords());
+    }
+
+    /**
+     * Read the next value, skipping its key.
+     * @return the next value or {@code null} if there are no more
+     * @throws IOException if something fails reading from the file
+     * @throws GeneralSecurityException if something fails decrypting
+     */
+    @Nullable
+    public V read() throws IOException, GeneralSecurityException {
+        if (!nextSection()) {
+            return null;
+        }
+        final long startTime = System.nanoTime();
+        entryStream.skipRawBytes(entryStream.readRawVarint32());
+        final V record = adapter.readValue(entryStream);
+        recordPosition++;
+        recordSectionPosition++;
+        if (timer != null) {
+            timer.recordSinceNanoTime(SortEvents.Events.FILE_SORT_LOAD_RECORD, startTime);
+        }
+        return record;
+    }
+
+    /**
+     * Advance to the next serialized key and value, available from {@link #getKey} and {@link #getValue}.
+     * @throws IOException if something fails reading from the file
+     * @throws GeneralSecurityException if something fails decrypting
+     */
+    @Override
+    public void next() throws IOException, GeneralSecurityException {
+        if (!nextSection()) {
+            key = null;
+            value = null;
+            return;
+        }
+        key = entryStream.readByteArray();
+        value = entryStream.readByteArray();
+        recordPosition++;
+        recordSectionPosition++;
+    }
+
+    @Nullable
+    @Override
+    public byte[] getKey() {
+        return key;
+    }
+
+    @Nullable
+    @Override
+    public byte[] getValue() {
+        return value;
+    }
+
+    public int getRecordPosition() {
+        return recordPosition;
+    }
+
+    public long getFilePosition() {
+        return sectionFileStart;
+    }
+
+    public int getRecordSectionPosition() {
+        return recordSectionPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (cipher != null) {
+            CipherPool.returnCipher(cipher);
+        }
+        if (inflater != null) {
+            inflater.end();
+        }
+        segment = null;
+        fileChannel.close();
+    }
+
+    private boolean nextSection() throws IOException, GeneralSecurityException {
+        if (recordPosition >= fileRecordEnd) {
+            return false;
+        }
+        while (recordPosition >= sectionRecordEnd) {
+            sectionFileStart = sectionFileEnd;
+            openSection(readSectionHeader());
+        }
+        return true;
+    }
+
+    @Nonnull
+    private RecordSortingProto.SortSectionHeader.Builder readSectionHeader() throws IOException {
+        final ByteBuffer headerBuffer = map(sectionFileStart, Math.min(fileSize - sectionFileStart, MAX_SECTION_HEADER_SIZE));
+        final CodedInputStream headerStream = CodedInputStream.newInstance(headerBuffer);
+        final RecordSortingProto.SortSectionHeader.Builder sectionHeader = RecordSortingProto.SortSectionHeader.newBuilder();
+        headerStream.readMessage(sectionHeader, ExtensionRegistryLite.getEmptyRegistry());
+        sectionRecordEnd = sectionHeader.getStartRecordNumber() + sectionHeader.getNumberOfRecords();
+        sectionFileEnd = sectionFileStart + headerStream.getTotalBytesRead() + sectionHeader.getNumberOfBytes();
+        return sectionHeader;
+    }
+
+    private void openSection(@Nonnull RecordSortingProto.SortSectionHeader.Builder sectionHeader) throws IOException, GeneralSecurityException {
+        final long blockStart = sectionFileEnd - sectionHeader.getNumberOfBytes();
+        ByteBuffer block = map(blockStart, sectionHeader.getNumberOfBytes());
+        if (cipher != null) {
+            FileSorter.initCipherDecrypt(cipher, encryptionKey, sectionHeader);
+            block = decrypt(block);
+        }
+        if (inflater != null) {
+            block = inflate(block, (int)sectionHeader.getNumberOfUncompressedBytes());
+        }
+        entryStream = CodedInputStream.newInstance(block);
+        recordPosition = sectionHeader.getStartRecordNumber();
+        recordSectionPosition = 0;
+    }
+
+    @Nonnull
+    @SuppressWarnings("ConstantConditions")
+    private ByteBuffer decrypt(@Nonnull ByteBuffer block) throws GeneralSecurityException {
+        final int outputSize = cipher.getOutputSize(block.remaining());
+        if (decryptBuffer.capacity() < outputSize) {
+            decryptBuffer = ByteBuffer.allocate(outputSize);
+        }
+        decryptBuffer.clear();
+        cipher.doFinal(block, decryptBuffer);
+        decryptBuffer.flip();
+        return decryptBuffer;
+    }
+
+    @Nonnull
+    @SuppressWarnings("ConstantConditions")
+    private ByteBuffer inflate(@Nonnull ByteBuffer block, int uncompressedSize) throws IOException {
+        if (inflateBuffer.length < uncompressedSize) {
+            inflateBuffer = new byte[uncompressedSize];
+        }
+        inflater.reset();
+        inflater.setInput(block);
+        int length = 0;
+        try {
+            while (length < uncompressedSize && !inflater.finished()) {
+                final int inflated = inflater.inflate(inflateBuffer, length, uncompressedSize - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException(ex);
+        }
+        if (length != uncompressedSize) {
+            throw new RecordCoreException("section uncompressed size mismatch")
+                    .addLogInfo(LogMessageKeys.EXPECTED, uncompressedSize)
+                    .addLogInfo(LogMessageKeys.ACTUAL, length);
+        }
+        return ByteBuffer.wrap(inflateBuffer, 0, length);
+    }
+
+    // Get a buffer over the given range of the file, remapping the current segment if it does not cover the range.
+    @Nonnull
+    private ByteBuffer map(long position, long length) throws IOException {
+        if (segment == null || position < segmentStart || position + length > segmentEnd) {
+            if (length > segmentSize) {
+                throw new RecordCoreException("section too large to map")
+                        .addLogInfo(LogMessageKeys.VALUE_SIZE, length);
+            }
+            segmentStart = position;
+            segmentEnd = Math.min(fileSize, position + segmentSize);
+            segment = fileChannel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart);
+        }
+        final ByteBuffer buffer = segment.duplicate();
+        buffer.position((int)(position - segmentStart));
+        buffer.limit((int)(position - segmentStart + length));
+        return buffer.slice();
+    }
+}
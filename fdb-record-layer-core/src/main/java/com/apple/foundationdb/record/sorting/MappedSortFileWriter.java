@@ -0,0 +1,281 @@
+/*
+ * MappedSortFileWriter.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordSortingProto;
+import com.apple.foundationdb.record.provider.common.CipherPool;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.Cipher;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.zip.Deflater;
+
+/**
+ * Write sorted keys and values into a file in the block format read by {@link MappedSortFileReader}.
+ *
+ * The file and section headers are the same as for the stream format written by {@link FileSorter}, but
+ * the entries of each section are accumulated in memory and then compressed and encrypted as a single block,
+ * whose compressed and uncompressed sizes are recorded in the section header. This means that a reader can
+ * decode a whole section at once, straight from a mapped buffer, rather than through a stack of streams.
+ * @param <V> type of value
+ */
+class MappedSortFileWriter<V> implements FileSorter.MergeOutput {
+    @Nonnull
+    private final FileSortAdapter<?, V> adapter;
+    @Nonnull
+    private final FileChannel fileChannel;
+    private final int recordsPerSection;
+
+    @Nullable
+    private final Deflater deflater;
+    @Nullable
+    private final java.security.Key encryptionKey;
+    @Nullable
+    private final SecureRandom secureRandom;
+    @Nullable
+    private final Cipher cipher;
+
+    @Nonnull
+    private final RecordSortingProto.SortFileHeader.Builder fileHeader;
+    @Nonnull
+    private final RecordSortingProto.SortSectionHeader.Builder sectionHeader;
+    private final int fileHeaderSize;
+
+    @Nonnull
+    private final SectionBuffer sectionBuffer;
+    @Nonnull
+    private final CodedOutputStream entryStream;
+    @Nonnull
+    private byte[] compressBuffer;
+    @Nonnull
+    private ByteBuffer encryptBuffer;
+
+    private long fileLength;
+    private boolean closed;
+
+    @SuppressWarnings("PMD.CloseResource")
+    MappedSortFileWriter(@Nonnull File file, @Nonnull FileSortAdapter<?, V> adapter) throws IOException, GeneralSecurityException {
+        this.adapter = adapter;
+        this.recordsPerSection = adapter.getRecordCountPerSection();
+        fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        boolean success = false;
+        try {
+            deflater = adapter.isCompressed() ? new Deflater() : null;
+            encryptionKey = adapter.getEncryptionKey();
+            final String cipherName = adapter.getEncryptionCipherName();
+            if (encryptionKey != null && cipherName != null) {
+                secureRandom = adapter.getSecureRandom();
+                cipher = CipherPool.borrowCipher(cipherName);
+            } else {
+                secureRandom = null;
+                cipher = null;
+            }
+            // To stay the same size, field existence must not change.
+            fileHeader = RecordSortingProto.SortFileHeader.newBuilder()
+                    .setVersion(FileSorter.MAPPED_SORT_FILE_VERSION)
+                    .setMetaDataVersion(adapter.getMetaDataVersion())
+                    .setNumberOfSections(0)
+                    .setNumberOfRecords(0);
+            fileHeaderSize = writeDelimited(fileHeader.build(), 0);
+            fileLength = fileHeaderSize;
+            sectionHeader = RecordSortingProto.SortSectionHeader.newBuilder()
+                    .setSectionNumber(0)
+                    .setStartRecordNumber(0)
+                    .setNumberOfRecords(0);
+            sectionBuffer = new SectionBuffer();
+            entryStream = CodedOutputStream.newInstance(sectionBuffer);
+            compressBuffer = new byte[0];
+            encryptBuffer = ByteBuffer.allocate(0);
+            success = true;
+        } finally {
+            if (!success) {
+                fileChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Add a key and value to the file.
+     * @param key the serialized key
+     * @param value the value, which is serialized by the adapter
+     * @throws IOException if something fails writing to the file
+     * @throws GeneralSecurityException if something fails encrypting
+     */
+    public void add(@Nonnull byte[] key, @Nonnull V value) throws IOException, GeneralSecurityException {
+        entryStream.writeByteArrayNoTag(key);
+        adapter.writeValue(value, entryStream);
+        addedEntry();
+    }
+
+    /**
+     * Add an already serialized key and value to the file.
+     * @param key the serialized key
+     * @param value the serialized value
+     * @throws IOException if something fails writing to the file
+     * @throws GeneralSecurityException if something fails encrypting
+     */
+    @Override
+    public void next(@Nonnull byte[] key, @Nonnull byte[] value) throws IOException, GeneralSecurityException {
+        entryStream.writeByteArrayNoTag(key);
+        entryStream.writeByteArrayNoTag(value);
+        addedEntry();
+    }
+
+    private void addedEntry() throws IOException, GeneralSecurityException {
+        sectionHeader.setNumberOfRecords(sectionHeader.getNumberOfRecords() + 1);
+        if (sectionHeader.getNumberOfRecords() >= recordsPerSection) {
+            writeSection();
+        }
+    }
+
+    /**
+     * Write any partial section and the final file header.
+     * @throws IOException if something fails writing to the file
+     * @throws GeneralSecurityException if something fails encrypting
+     */
+    @Override
+    public void finish() throws IOException, GeneralSecurityException {
+        if (sectionHeader.getNumberOfRecords() > 0) {
+            writeSection();
+        }
+        if (writeDelimited(fileHeader.build(), 0) != fileHeaderSize) {
+            throw new RecordCoreException("header size changed");
+        }
+    }
+
+    /**
+     * Get the number of bytes written to the file so far.
+     * @return the file length
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (cipher != null) {
+            CipherPool.returnCipher(cipher);
+        }
+        if (deflater != null) {
+            deflater.end();
+        }
+        fileChannel.close();
+    }
+
+    private void writeSection() throws IOException, GeneralSecurityException {
+        entryStream.flush();
+        final int uncompressedSize = sectionBuffer.size();
+        ByteBuffer block = ByteBuffer.wrap(sectionBuffer.getBuffer(), 0, uncompressedSize);
+        if (deflater != null) {
+            block = compress(block);
+        }
+        if (cipher != null) {
+            FileSorter.initCipherEncrypt(cipher, encryptionKey, secureRandom, sectionHeader);
+            block = encrypt(block);
+        }
+        sectionHeader.setNumberOfBytes(block.remaining())
+                .setNumberOfUncompressedBytes(uncompressedSize);
+        fileLength += writeDelimited(sectionHeader.build(), fileLength);
+        fileLength += writeFully(block, fileLength);
+        fileHeader.setNumberOfSections(fileHeader.getNumberOfSections() + 1)
+                .setNumberOfRecords(fileHeader.getNumberOfRecords() + sectionHeader.getNumberOfRecords());
+        sectionHeader.setSectionNumber(fileHeader.getNumberOfSections())
+                .setStartRecordNumber(fileHeader.getNumberOfRecords())
+                .setNumberOfRecords(0);
+        sectionBuffer.reset();
+    }
+
+    @Nonnull
+    @SuppressWarnings("ConstantConditions")
+    private ByteBuffer compress(@Nonnull ByteBuffer block) {
+        deflater.reset();
+        deflater.setInput(block);
+        deflater.finish();
+        if (compressBuffer.length < block.remaining()) {
+            compressBuffer = new byte[block.remaining() + 64];
+        }
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressBuffer.length) {
+                final byte[] newBuffer = new byte[compressBuffer.length * 2];
+                System.arraycopy(compressBuffer, 0, newBuffer, 0, length);
+                compressBuffer = newBuffer;
+            }
+            length += deflater.deflate(compressBuffer, length, compressBuffer.length - length);
+        }
+        return ByteBuffer.wrap(compressBuffer, 0, length);
+    }
+
+    @Nonnull
+    @SuppressWarnings("ConstantConditions")
+    private ByteBuffer encrypt(@Nonnull ByteBuffer block) throws GeneralSecurityException {
+        final int outputSize = cipher.getOutputSize(block.remaining());
+        if (encryptBuffer.capacity() < outputSize) {
+            encryptBuffer = ByteBuffer.allocate(outputSize);
+        }
+        encryptBuffer.clear();
+        cipher.doFinal(block, encryptBuffer);
+        encryptBuffer.flip();
+        return encryptBuffer;
+    }
+
+    private int writeDelimited(@Nonnull Message message, long position) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        message.writeDelimitedTo(bytes);
+        return writeFully(ByteBuffer.wrap(bytes.toByteArray()), position);
+    }
+
+    private int writeFully(@Nonnull ByteBuffer buffer, long position) throws IOException {
+        final int length = buffer.remaining();
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += fileChannel.write(buffer, offset);
+        }
+        return length;
+    }
+
+    // Allow the accumulated section to be compressed, encrypted or written without copying it out first.
+    private static class SectionBuffer extends ByteArrayOutputStream {
+        SectionBuffer() {
+            super(8192);
+        }
+
+        @Nonnull
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
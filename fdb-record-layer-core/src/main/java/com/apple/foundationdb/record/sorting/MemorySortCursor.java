@@ -161,6 +161,15 @@ public class MemorySortCursor<K, V> implements RecordCursor<V> {
         return create(adapter, inputCursorFunction, timer, MemorySorter::new, continuation);
     }
 
+    @SuppressWarnings("PMD.CloseResource")
+    public static <K, V> MemorySortCursor<K, V> createParallelSort(@Nonnull MemorySortAdapter<K, V> adapter,
+                                                                   @Nonnull Function<byte[], RecordCursor<V>> inputCursorFunction,
+                                                                   @Nullable StoreTimer timer,
+                                                                   @Nullable Executor executor,
+                                                                   @Nullable byte[] continuation) {
+        return create(adapter, inputCursorFunction, timer, (a, t) -> new ParallelMemorySorter<>(a, t, executor), continuation);
+    }
+
     @SuppressWarnings("PMD.CloseResource")
     public static <K, V> MemorySortCursor<K, V> createDam(@Nonnull MemorySortAdapter<K, V> adapter,
                                                           @Nonnull Function<byte[], RecordCursor<V>> inputCursorFunction,
@@ -0,0 +1,417 @@
+/*
+ * ParallelMemorySorter.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCoreInterruptedException;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.google.common.base.Suppliers;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Collect keyed values into an array of entries that is sorted once all the values have been added.
+ *
+ * Unlike {@link MemorySorter}, which compares the keys themselves through the adapter for every insertion into a
+ * {@link java.util.TreeMap}, each key is serialized once with {@link MemorySortAdapter#serializeKey} and entries are
+ * ordered by unsigned comparison of those bytes, which the adapter guarantees to be congruent to its own order.
+ * The entries are only sorted when they are first iterated. If an {@link Executor} is given, a large array is split
+ * into chunks that are sorted on it and then merged; the calling thread takes part, so that it makes progress even
+ * when the executor is busy. Otherwise, the entries are sorted on the calling thread.
+ *
+ * When the adapter's limit mode is {@link RecordCountInMemoryLimitMode#DISCARD}, so that only the smallest
+ * {@link MemorySortAdapter#getMaxRecordCountInMemory} entries are wanted, they are instead kept in a bounded heap,
+ * from which the largest entry is removed as each new one pushes it out.
+ *
+ * As with {@link MemorySorter}, adding a key equal to one already present replaces its value, so the map's size
+ * is always the number of distinct keys.
+ * @param <K> type of key
+ * @param <V> type of value
+ */
+@API(API.Status.EXPERIMENTAL)
+public class ParallelMemorySorter<K, V> extends MemoryScratchpad<K, V, Map<K, V>> {
+    // Smallest number of entries worth sorting as a separate task.
+    private static final int MIN_PARALLEL_SORT_CHUNK = 1 << 13;
+
+    @Nonnull
+    private final EncodedKeyMap<K, V> entries;
+
+    public ParallelMemorySorter(@Nonnull final MemorySortAdapter<K, V> adapter, @Nullable final StoreTimer timer) {
+        this(adapter, timer, null);
+    }
+
+    public ParallelMemorySorter(@Nonnull final MemorySortAdapter<K, V> adapter, @Nullable final StoreTimer timer,
+                                @Nullable final Executor executor) {
+        this(adapter, new EncodedKeyMap<>(adapter, timer, executor), timer);
+    }
+
+    private ParallelMemorySorter(@Nonnull final MemorySortAdapter<K, V> adapter, @Nonnull final EncodedKeyMap<K, V> entries,
+                                 @Nullable final StoreTimer timer) {
+        super(adapter, entries, timer);
+        this.entries = entries;
+    }
+
+    @Override
+    public void removeLast(@Nonnull final K currentKey) {
+        entries.removeLast();
+    }
+
+    @Nonnull
+    @Override
+    public Collection<V> tailValues(@Nullable final K minimumKey) {
+        if (minimumKey == null) {
+            return entries.values();
+        }
+        // The cursor asks for this after every record, but it is only needed if the continuation is serialized.
+        return new AbstractCollection<>() {
+            private final Supplier<Integer> startSupplier = Suppliers.memoize(() -> entries.indexAfter(minimumKey));
+
+            @Override
+            public Iterator<V> iterator() {
+                return new ValueIterator<>(entries.sorted(), startSupplier.get(), entries.size());
+            }
+
+            @Override
+            public int size() {
+                final int start = startSupplier.get();
+                return entries.size() - start;
+            }
+        };
+    }
+
+    /**
+     * An entry with its key's serialized form.
+     * @param <K> type of key
+     * @param <V> type of value
+     */
+    private static class EncodedEntry<K, V> extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        @Nonnull
+        private final byte[] encodedKey;
+
+        EncodedEntry(@Nonnull byte[] encodedKey, K key, V value) {
+            super(key, value);
+            this.encodedKey = encodedKey;
+        }
+    }
+
+    /**
+     * A map that keeps its entries in an array, or in a heap when bounded, and sorts them by serialized key
+     * when they are iterated. Every entry is also indexed by its serialized key, to find equal keys as they are added.
+     * @param <K> type of key
+     * @param <V> type of value
+     */
+    private static class EncodedKeyMap<K, V> extends AbstractMap<K, V> {
+        @Nonnull
+        private final MemorySortAdapter<K, V> adapter;
+        @Nullable
+        private final StoreTimer timer;
+        @Nullable
+        private final Executor executor;
+        @Nonnull
+        private final Comparator<EncodedEntry<K, V>> order;
+        @Nonnull
+        private final Map<ByteBuffer, EncodedEntry<K, V>> keys;
+        // Only when bounded: largest entry first.
+        @Nullable
+        private final PriorityQueue<EncodedEntry<K, V>> heap;
+
+        @Nonnull
+        private EncodedEntry<K, V>[] array;
+        private int size;
+        private boolean sorted;
+
+        EncodedKeyMap(@Nonnull MemorySortAdapter<K, V> adapter, @Nullable StoreTimer timer, @Nullable Executor executor) {
+            this.adapter = adapter;
+            this.timer = timer;
+            this.executor = executor;
+            this.order = adapter.isSerializedOrderReversed() ?
+                         (e1, e2) -> ByteArrayUtil.compareUnsigned(e2.encodedKey, e1.encodedKey) :
+                         (e1, e2) -> ByteArrayUtil.compareUnsigned(e1.encodedKey, e2.encodedKey);
+            this.keys = new HashMap<>();
+            if (adapter.getRecordCountInMemoryLimitMode() == RecordCountInMemoryLimitMode.DISCARD) {
+                heap = new PriorityQueue<>(order.reversed());
+            } else {
+                heap = null;
+            }
+            array = newEntries(16);
+            sorted = true;
+        }
+
+        @Override
+        @Nullable
+        public V put(K key, V value) {
+            final EncodedEntry<K, V> entry = new EncodedEntry<>(adapter.serializeKey(key), key, value);
+            final EncodedEntry<K, V> existing = keys.putIfAbsent(ByteBuffer.wrap(entry.encodedKey), entry);
+            if (existing != null) {
+                // Replacing a value does not change the order.
+                return existing.setValue(value);
+            }
+            sorted = false;
+            if (heap != null) {
+                heap.add(entry);
+                return null;
+            }
+            if (size == array.length) {
+                array = Arrays.copyOf(array, Math.max(16, size * 2));
+            }
+            array[size++] = entry;
+            return null;
+        }
+
+        void removeLast() {
+            final EncodedEntry<K, V> last;
+            if (heap != null) {
+                last = heap.poll();
+                sorted = false;
+            } else {
+                sorted();
+                last = size > 0 ? array[--size] : null;
+                if (last != null) {
+                    array[size] = null;
+                }
+            }
+            if (last != null) {
+                keys.remove(ByteBuffer.wrap(last.encodedKey));
+            }
+        }
+
+        @Override
+        public int size() {
+            return heap != null ? heap.size() : size;
+        }
+
+        @Override
+        public void clear() {
+            if (heap != null) {
+                heap.clear();
+            }
+            keys.clear();
+            Arrays.fill(array, 0, size, null);
+            size = 0;
+            sorted = true;
+        }
+
+        @Nonnull
+        EncodedEntry<K, V>[] sorted() {
+            if (!sorted) {
+                final long startTime = System.nanoTime();
+                if (heap != null) {
+                    array = heap.toArray(array);
+                    size = heap.size();
+                }
+                sortArray();
+                sorted = true;
+                if (timer != null) {
+                    timer.recordSinceNanoTime(SortEvents.Events.MEMORY_SORT_SORT_RECORDS, startTime);
+                }
+            }
+            return array;
+        }
+
+        private void sortArray() {
+            if (executor == null || size < MIN_PARALLEL_SORT_CHUNK * 2) {
+                Arrays.sort(array, 0, size, order);
+                return;
+            }
+            final int parallelism = Math.max(2, Runtime.getRuntime().availableProcessors());
+            final int chunk = Math.max(MIN_PARALLEL_SORT_CHUNK, (size + parallelism - 1) / parallelism);
+            final List<Runnable> sorts = new ArrayList<>();
+            for (int start = 0; start < size; start += chunk) {
+                final int from = start;
+                final int to = Math.min(start + chunk, size);
+                sorts.add(() -> Arrays.sort(array, from, to, order));
+            }
+            runAll(sorts);
+            EncodedEntry<K, V>[] source = array;
+            EncodedEntry<K, V>[] target = newEntries(array.length);
+            for (int width = chunk; width < size; width *= 2) {
+                final List<Runnable> merges = new ArrayList<>();
+                for (int start = 0; start < size; start += width * 2) {
+                    final EncodedEntry<K, V>[] from = source;
+                    final EncodedEntry<K, V>[] to = target;
+                    final int low = start;
+                    final int mid = Math.min(start + width, size);
+                    final int high = Math.min(start + width * 2, size);
+                    merges.add(() -> merge(from, to, low, mid, high));
+                }
+                runAll(merges);
+                final EncodedEntry<K, V>[] swap = source;
+                source = target;
+                target = swap;
+            }
+            array = source;
+        }
+
+        @Nonnull
+        @SuppressWarnings("unchecked")
+        private static <K, V> EncodedEntry<K, V>[] newEntries(int length) {
+            return (EncodedEntry<K, V>[])new EncodedEntry<?, ?>[length];
+        }
+
+        private void merge(@Nonnull EncodedEntry<K, V>[] from, @Nonnull EncodedEntry<K, V>[] to, int low, int mid, int high) {
+            int left = low;
+            int right = mid;
+            for (int i = low; i < high; i++) {
+                if (right >= high || (left < mid && order.compare(from[left], from[right]) <= 0)) {
+                    to[i] = from[left++];
+                } else {
+                    to[i] = from[right++];
+                }
+            }
+        }
+
+        /**
+         * Run the given tasks on the executor and the calling thread, returning when they have all completed.
+         * Tasks are claimed in order, so any that the executor has not gotten to are run by the calling thread.
+         * @param tasks the tasks to run
+         */
+        private void runAll(@Nonnull List<Runnable> tasks) {
+            final AtomicInteger next = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(tasks.size());
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final Runnable worker = () -> {
+                int index;
+                while ((index = next.getAndIncrement()) < tasks.size()) {
+                    try {
+                        tasks.get(index).run();
+                    } catch (RuntimeException | Error ex) {
+                        failure.compareAndSet(null, ex);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            for (int i = 1; i < tasks.size(); i++) {
+                executor.execute(worker);
+            }
+            worker.run();
+            try {
+                done.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RecordCoreInterruptedException("interrupted while sorting", ex);
+            }
+            if (failure.get() != null) {
+                throw new RecordCoreException("failed while sorting", failure.get());
+            }
+        }
+
+        int indexAfter(@Nonnull K minimumKey) {
+            final EncodedEntry<K, V> probe = new EncodedEntry<>(adapter.serializeKey(minimumKey), minimumKey, null);
+            final EncodedEntry<K, V>[] entries = sorted();
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (order.compare(entries[mid], probe) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        @Nonnull
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    final EncodedEntry<K, V>[] entries = sorted();
+                    final int end = size;
+                    return new Iterator<>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < end;
+                        }
+
+                        @Override
+                        public Entry<K, V> next() {
+                            if (index >= end) {
+                                throw new NoSuchElementException();
+                            }
+                            return entries[index++];
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return EncodedKeyMap.this.size();
+                }
+            };
+        }
+    }
+
+    private static class ValueIterator<K, V> implements Iterator<V> {
+        @Nonnull
+        private final EncodedEntry<K, V>[] entries;
+        private final int end;
+        private int index;
+
+        ValueIterator(@Nonnull EncodedEntry<K, V>[] entries, int start, int end) {
+            this.entries = entries;
+            this.index = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < end;
+        }
+
+        @Override
+        public V next() {
+            if (index >= end) {
+                throw new NoSuchElementException();
+            }
+            return entries[index++].getValue();
+        }
+    }
+}
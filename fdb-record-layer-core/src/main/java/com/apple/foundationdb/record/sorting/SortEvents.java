@@ -40,6 +40,7 @@ public class SortEvents {
     public enum Events implements StoreTimer.Event {
         MEMORY_SORT_STORE_RECORD("memory sort store record"),
         MEMORY_SORT_LOAD_RECORD("memory sort load record"),
+        MEMORY_SORT_SORT_RECORDS("memory sort sort records"),
         FILE_SORT_OPEN_FILE("file sort open file"),
         FILE_SORT_SAVE_RECORD("file sort save record"),
         FILE_SORT_MERGE_FILES("file sort merge files"),
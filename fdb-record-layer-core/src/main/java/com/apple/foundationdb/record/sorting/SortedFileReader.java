@@ -40,12 +40,17 @@ import java.security.GeneralSecurityException;
 
 /**
  * Read values from files written by {@link FileSorter}. Keys are skipped.
+ *
+ * Files written in the block format, when {@link FileSortAdapter#isMemoryMapped} is set, are read using a
+ * {@link MappedSortFileReader}.
  * @param <V> type of value
  */
 @API(API.Status.EXPERIMENTAL)
 public class SortedFileReader<V> implements AutoCloseable {
-    @Nonnull
+    @Nullable
     private final FileInputStream fileStream;
+    @Nullable
+    private final MappedSortFileReader<V> mappedReader;
     @Nonnull
     private final FileSortAdapter<?, V> adapter;
 
@@ -65,26 +70,33 @@ public class SortedFileReader<V> implements AutoCloseable {
     private long sectionFileStart;
     private long sectionFileEnd;
 
-    @Nonnull
+    @Nullable
     private CodedInputStream headerStream;
-    @Nonnull
+    @Nullable
     private CodedInputStream entryStream;
 
     public SortedFileReader(@Nonnull File file, @Nonnull FileSortAdapter<?, V> adapter, @Nullable StoreTimer timer,
                             int skip, int limit) throws IOException, GeneralSecurityException {
-        fileStream = new FileInputStream(file);
         this.adapter = adapter;
-        headerStream = CodedInputStream.newInstance(fileStream);
-        entryStream = headerStream;
+        this.timer = timer;
         compressed = adapter.isCompressed();
         encryptionKey = adapter.getEncryptionKey();
+        if (adapter.isMemoryMapped()) {
+            mappedReader = new MappedSortFileReader<>(file, adapter, timer, skip, limit);
+            fileStream = null;
+            cipher = null;
+            return;
+        }
+        mappedReader = null;
+        fileStream = new FileInputStream(file);
+        headerStream = CodedInputStream.newInstance(fileStream);
+        entryStream = headerStream;
         final String cipherName = adapter.getEncryptionCipherName();
         if (encryptionKey != null && cipherName != null) {
             cipher = CipherPool.borrowCipher(cipherName);
         } else {
             cipher = null;
         }
-        this.timer = timer;
         skipLimit(skip, limit);
     }
 
@@ -161,6 +173,9 @@ public class SortedFileReader<V> implements AutoCloseable {
     @Nullable
     @SuppressWarnings("PMD.CloseResource")
     public V read() throws IOException, GeneralSecurityException {
+        if (mappedReader != null) {
+            return mappedReader.read();
+        }
         if (recordPosition >= fileRecordEnd) {
             return null;
         }
@@ -203,19 +218,23 @@ public class SortedFileReader<V> implements AutoCloseable {
     }
 
     public int getRecordPosition() {
-        return recordPosition;
+        return mappedReader != null ? mappedReader.getRecordPosition() : recordPosition;
     }
 
     public long getFilePosition() {
-        return sectionFileStart;
+        return mappedReader != null ? mappedReader.getFilePosition() : sectionFileStart;
     }
 
     public int getRecordSectionPosition() {
-        return recordSectionPosition;
+        return mappedReader != null ? mappedReader.getRecordSectionPosition() : recordSectionPosition;
     }
 
     @Override
     public void close() throws IOException {
-        fileStream.close();
+        if (mappedReader != null) {
+            mappedReader.close();
+        } else {
+            fileStream.close();
+        }
     }
 }
@@ -0,0 +1,186 @@
+/*
+ * CursorBatchTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Tests for {@link RecordCursor#onNextBatch(int)} through the cursors that process whole batches.
+ */
+public class CursorBatchTest {
+    static final List<Integer> ints = IntStream.range(0, 500).boxed().collect(Collectors.toList());
+
+    static Stream<Arguments> pipelines() {
+        final List<Function<RecordCursor<Integer>, RecordCursor<Integer>>> pipelines = List.of(
+                cursor -> cursor.map(i -> i * 3),
+                cursor -> cursor.filter(i -> i % 7 == 0),
+                cursor -> cursor.filter(i -> i > 1000),
+                cursor -> cursor.skip(13),
+                cursor -> cursor.limitRowsTo(42),
+                cursor -> cursor.mapPipelined(CompletableFuture::completedFuture, 10),
+                cursor -> cursor.mapPipelined(i -> CompletableFuture.supplyAsync(() -> i + 1), 10),
+                cursor -> cursor.filter(i -> i % 3 != 0).map(i -> i * 2).skip(5).limitRowsTo(100),
+                cursor -> cursor.mapPipelined(CompletableFuture::completedFuture, 4).filter(i -> i % 2 == 0).limitRowsTo(201));
+        final List<Arguments> arguments = new ArrayList<>();
+        for (int pipeline = 0; pipeline < pipelines.size(); pipeline++) {
+            for (int chunkSize : new int[] {1, 7, 100, 1000}) {
+                arguments.add(Arguments.of(pipeline, chunkSize, pipelines.get(pipeline)));
+            }
+        }
+        return arguments.stream();
+    }
+
+    @ParameterizedTest(name = "sameAsOnNext [pipeline = {0}, chunkSize = {1}]")
+    @MethodSource("pipelines")
+    void sameAsOnNext(int pipeline, int chunkSize, @Nonnull Function<RecordCursor<Integer>, RecordCursor<Integer>> pipelineFunction) {
+        final List<RecordCursorResult<Integer>> expected = collectWithOnNext(pipelineFunction.apply(RecordCursor.fromList(ints)));
+
+        final ChunkedListCursor<Integer> source = new ChunkedListCursor<>(ints, chunkSize);
+        final List<RecordCursorResult<Integer>> actual = new ArrayList<>();
+        final RecordCursor<Integer> cursor = pipelineFunction.apply(source);
+        RecordCursorResult<Integer> result;
+        do {
+            final List<RecordCursorResult<Integer>> batch = cursor.onNextBatch(50).join();
+            assertFalse(batch.isEmpty());
+            assertThat(batch.size(), lessThanOrEqualTo(50));
+            for (int i = 0; i < batch.size() - 1; i++) {
+                assertEquals(true, batch.get(i).hasNext());
+            }
+            actual.addAll(batch);
+            result = batch.get(batch.size() - 1);
+        } while (result.hasNext());
+        assertResultsEqual(expected, actual);
+        // Asking again repeats the same result without a value.
+        assertEquals(result.getNoNextReason(), cursor.onNext().join().getNoNextReason());
+    }
+
+    @ParameterizedTest(name = "forEachUsesBatches [pipeline = {0}, chunkSize = {1}]")
+    @MethodSource("pipelines")
+    void forEachUsesBatches(int pipeline, int chunkSize, @Nonnull Function<RecordCursor<Integer>, RecordCursor<Integer>> pipelineFunction) {
+        final AtomicReference<RecordCursorResult<Integer>> expectedEnd = new AtomicReference<>();
+        final List<Integer> expected = pipelineFunction.apply(RecordCursor.fromList(ints)).asList(expectedEnd).join();
+
+        final ChunkedListCursor<Integer> source = new ChunkedListCursor<>(ints, chunkSize);
+        final AtomicReference<RecordCursorResult<Integer>> actualEnd = new AtomicReference<>();
+        assertEquals(expected, pipelineFunction.apply(source).asList(actualEnd).join());
+        assertEquals(expectedEnd.get().getNoNextReason(), actualEnd.get().getNoNextReason());
+        assertArrayEquals(expectedEnd.get().getContinuation().toBytes(), actualEnd.get().getContinuation().toBytes());
+        // The source was read several records at a time, though pipelines and limits can make the batches smaller than a chunk.
+        if (chunkSize > 1) {
+            assertThat(source.batches, lessThanOrEqualTo(source.rows / 2 + 1));
+        }
+    }
+
+    @ParameterizedTest(name = "interleaved [pipeline = {0}, chunkSize = {1}]")
+    @MethodSource("pipelines")
+    void interleaved(int pipeline, int chunkSize, @Nonnull Function<RecordCursor<Integer>, RecordCursor<Integer>> pipelineFunction) {
+        final List<RecordCursorResult<Integer>> expected = collectWithOnNext(pipelineFunction.apply(RecordCursor.fromList(ints)));
+
+        final RecordCursor<Integer> cursor = pipelineFunction.apply(new ChunkedListCursor<>(ints, chunkSize));
+        final List<RecordCursorResult<Integer>> actual = new ArrayList<>();
+        RecordCursorResult<Integer> result;
+        int step = 0;
+        do {
+            if (step++ % 2 == 0) {
+                result = cursor.onNext().join();
+                actual.add(result);
+            } else {
+                final List<RecordCursorResult<Integer>> batch = cursor.onNextBatch(step).join();
+                actual.addAll(batch);
+                result = batch.get(batch.size() - 1);
+            }
+        } while (result.hasNext());
+        assertResultsEqual(expected, actual);
+    }
+
+    @Nonnull
+    private static List<RecordCursorResult<Integer>> collectWithOnNext(@Nonnull RecordCursor<Integer> cursor) {
+        final List<RecordCursorResult<Integer>> results = new ArrayList<>();
+        RecordCursorResult<Integer> result;
+        do {
+            result = cursor.onNext().join();
+            results.add(result);
+        } while (result.hasNext());
+        return results;
+    }
+
+    private static void assertResultsEqual(@Nonnull List<RecordCursorResult<Integer>> expected, @Nonnull List<RecordCursorResult<Integer>> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).hasNext(), actual.get(i).hasNext());
+            if (expected.get(i).hasNext()) {
+                assertEquals(expected.get(i).get(), actual.get(i).get());
+            } else {
+                assertEquals(expected.get(i).getNoNextReason(), actual.get(i).getNoNextReason());
+            }
+            assertArrayEquals(expected.get(i).getContinuation().toBytes(), actual.get(i).getContinuation().toBytes());
+        }
+    }
+
+    /**
+     * A list cursor that returns batches of a fixed size, like a scan returning range-read chunks.
+     * @param <T> the type of elements of the cursor
+     */
+    private static class ChunkedListCursor<T> extends ListCursor<T> {
+        private final int chunkSize;
+        private int batches;
+        private int rows;
+
+        ChunkedListCursor(@Nonnull List<T> list, int chunkSize) {
+            super(list, null);
+            this.chunkSize = chunkSize;
+        }
+
+        @Nonnull
+        @Override
+        public CompletableFuture<List<RecordCursorResult<T>>> onNextBatch(int maxBatchSize) {
+            batches++;
+            final List<RecordCursorResult<T>> results = new ArrayList<>();
+            RecordCursorResult<T> result;
+            do {
+                result = getNext();
+                results.add(result);
+                rows++;
+            } while (result.hasNext() && results.size() < Math.min(maxBatchSize, chunkSize));
+            return CompletableFuture.completedFuture(results);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * RecordCursorPublisherTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors;
+
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorContinuation;
+import com.apple.foundationdb.record.RecordCursorResult;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link RecordCursorPublisher} and {@link PublisherCursor}.
+ */
+public class RecordCursorPublisherTest {
+    static final List<Integer> ints = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+
+    @Test
+    public void publishAll() {
+        final RecordCursorPublisher<Integer> publisher = RecordCursor.fromList(ints).asPublisher();
+        final CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE, Integer.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        subscriber.done.join();
+        assertEquals(ints, subscriber.received);
+        assertTrue(publisher.getContinuation().join().isEnd());
+    }
+
+    @Test
+    public void publishOnDemand() {
+        final RecordCursorPublisher<Integer> publisher = RecordCursor.fromList(ints).asPublisher();
+        final CollectingSubscriber subscriber = new CollectingSubscriber(3, Integer.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        assertEquals(ints.subList(0, 3), subscriber.received);
+        subscriber.subscription.request(10);
+        assertEquals(ints.subList(0, 13), subscriber.received);
+        subscriber.subscription.request(1000);
+        subscriber.done.join();
+        assertEquals(ints, subscriber.received);
+    }
+
+    @Test
+    public void publishAsync() {
+        final RecordCursor<Integer> cursor = RecordCursor.fromList(ints)
+                .mapPipelined(i -> CompletableFuture.supplyAsync(() -> i * 2), 5);
+        final RecordCursorPublisher<Integer> publisher = cursor.asPublisher();
+        final CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE, Integer.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        subscriber.done.join();
+        assertEquals(ints.stream().map(i -> i * 2).collect(Collectors.toList()), subscriber.received);
+        assertTrue(publisher.getContinuation().join().isEnd());
+        assertTrue(cursor.isClosed());
+    }
+
+    @Test
+    public void cancelAndResume() {
+        final RecordCursor<Integer> cursor = RecordCursor.fromList(ints);
+        final RecordCursorPublisher<Integer> publisher = cursor.asPublisher();
+        final CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE, 10);
+        publisher.subscribe(subscriber);
+        assertEquals(ints.subList(0, 10), subscriber.received);
+        final RecordCursorContinuation continuation = publisher.getContinuation().join();
+        assertTrue(cursor.isClosed());
+        assertEquals(ints.subList(10, ints.size()), RecordCursor.fromList(ints, continuation.toBytes()).asList().join());
+    }
+
+    @Test
+    public void cancelBeforeAny() {
+        final RecordCursorPublisher<Integer> publisher = RecordCursor.fromList(ints).asPublisher();
+        final CollectingSubscriber subscriber = new CollectingSubscriber(0, Integer.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.cancel();
+        assertNull(publisher.getContinuation().join());
+        assertEquals(Collections.emptyList(), subscriber.received);
+    }
+
+    @Test
+    public void failure() {
+        final RecordCursor<Integer> cursor = RecordCursor.fromList(ints)
+                .map(i -> {
+                    if (i == 5) {
+                        throw new IllegalStateException("five");
+                    }
+                    return i;
+                });
+        final RecordCursorPublisher<Integer> publisher = cursor.asPublisher();
+        final CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE, Integer.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        final CompletionException ex = assertThrows(CompletionException.class, () -> subscriber.done.join());
+        assertThat(ex.getCause(), instanceOf(IllegalStateException.class));
+        assertEquals(ints.subList(0, 5), subscriber.received);
+        assertThrows(CompletionException.class, () -> publisher.getContinuation().join());
+    }
+
+    @Test
+    public void invalidRequest() {
+        final RecordCursorPublisher<Integer> publisher = RecordCursor.fromList(ints).asPublisher();
+        final CollectingSubscriber subscriber = new CollectingSubscriber(0, Integer.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        final CompletionException ex = assertThrows(CompletionException.class, () -> subscriber.done.join());
+        assertThat(ex.getCause(), instanceOf(IllegalArgumentException.class));
+    }
+
+    @Test
+    public void singleSubscriber() {
+        final RecordCursorPublisher<Integer> publisher = RecordCursor.fromList(ints).asPublisher();
+        publisher.subscribe(new CollectingSubscriber(0, Integer.MAX_VALUE));
+        final CollectingSubscriber second = new CollectingSubscriber(Long.MAX_VALUE, Integer.MAX_VALUE);
+        publisher.subscribe(second);
+        final CompletionException ex = assertThrows(CompletionException.class, () -> second.done.join());
+        assertThat(ex.getCause(), instanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    public void fromPublisher() {
+        final RecordCursor<Integer> cursor = RecordCursor.fromPublisher(RecordCursor.fromList(ints).asPublisher());
+        assertEquals(ints, cursor.asList().join());
+        assertTrue(cursor.getNext().getContinuation().isEnd());
+    }
+
+    @Test
+    public void fromSubmissionPublisher() {
+        // Closed by the producer to end the stream, and again in case the test fails first.
+        final SubmissionPublisher<Integer> submissionPublisher = new SubmissionPublisher<>();
+        try {
+            final RecordCursor<Integer> cursor = RecordCursor.fromPublisher(submissionPublisher)
+                    .mapPipelined(i -> CompletableFuture.supplyAsync(() -> i + 1), 10);
+            final CompletableFuture<List<Integer>> result = cursor.asList();
+            CompletableFuture.runAsync(() -> {
+                for (Integer i : ints) {
+                    submissionPublisher.submit(i);
+                }
+                submissionPublisher.close();
+            });
+            assertEquals(ints.stream().map(i -> i + 1).collect(Collectors.toList()), result.orTimeout(10, TimeUnit.SECONDS).join());
+        } finally {
+            submissionPublisher.close();
+        }
+    }
+
+    @Test
+    public void fromPublisherError() {
+        try (SubmissionPublisher<Integer> submissionPublisher = new SubmissionPublisher<>()) {
+            final RecordCursor<Integer> cursor = RecordCursor.fromPublisher(submissionPublisher);
+            final CompletableFuture<List<Integer>> result = cursor.asList();
+            submissionPublisher.closeExceptionally(new IllegalStateException("failed"));
+            final CompletionException ex = assertThrows(CompletionException.class, () -> result.orTimeout(10, TimeUnit.SECONDS).join());
+            assertThat(ex.getCause(), instanceOf(IllegalStateException.class));
+        }
+    }
+
+    @Test
+    public void closeCancels() {
+        final RecordCursorPublisher<Integer> publisher = RecordCursor.fromList(ints).asPublisher();
+        final RecordCursor<Integer> cursor = RecordCursor.fromPublisher(publisher);
+        assertEquals(0, cursor.getNext().get());
+        cursor.close();
+        final RecordCursorContinuation continuation = publisher.getContinuation().join();
+        // Elements delivered into the buffer, but not returned by the cursor, are after the continuation.
+        assertEquals(PublisherCursor.DEFAULT_BUFFER_SIZE, RecordCursor.fromList(ints, continuation.toBytes()).asList().join().get(0));
+    }
+
+    @Test
+    public void closeWhileWaiting() {
+        try (SubmissionPublisher<Integer> submissionPublisher = new SubmissionPublisher<>()) {
+            final RecordCursor<Integer> cursor = RecordCursor.fromPublisher(submissionPublisher);
+            final CompletableFuture<RecordCursorResult<Integer>> pending = cursor.onNext();
+            cursor.close();
+            final RecordCursorResult<Integer> result = pending.orTimeout(10, TimeUnit.SECONDS).join();
+            assertFalse(result.hasNext());
+            assertTrue(result.getContinuation().isEnd());
+        }
+    }
+
+    private static class CollectingSubscriber implements Flow.Subscriber<Integer> {
+        private final long initialRequest;
+        private final int cancelAfter;
+        private final List<Integer> received = new ArrayList<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        CollectingSubscriber(long initialRequest, int cancelAfter) {
+            this.initialRequest = initialRequest;
+            this.cancelAfter = cancelAfter;
+        }
+
+        @Override
+        public void onSubscribe(@Nonnull Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(@Nonnull Integer item) {
+            received.add(item);
+            if (received.size() == cancelAfter) {
+                subscription.cancel();
+            }
+        }
+
+        @Override
+        public void onError(@Nonnull Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * HashAggregateCursorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.cursors.aggregate;
+
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorTest;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.tuple.Tuple;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link HashAggregateCursor}.
+ */
+public class HashAggregateCursorTest {
+    private static final String[] REGIONS = {"east", "north", "south", "west"};
+
+    private static class Row {
+        private final long group;
+        private final String region;
+        @Nullable
+        private final Long value;
+        private final double amount;
+
+        private Row(long group, @Nonnull String region, @Nullable Long value, double amount) {
+            this.group = group;
+            this.region = region;
+            this.value = value;
+            this.amount = amount;
+        }
+    }
+
+    @Nonnull
+    private static List<Row> rows(int count, int groups) {
+        final Random random = new Random(count * 31L + groups);
+        final List<Row> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // Groups in no particular order.
+            final long group = random.nextInt(groups) * 1_000_000_007L;
+            rows.add(new Row(group, REGIONS[random.nextInt(REGIONS.length)],
+                    i % 7 == 0 ? null : (long)random.nextInt(1000) - 500, random.nextInt(100) / 4.0));
+        }
+        return rows;
+    }
+
+    @Nonnull
+    private static HashAggregateCursor.Builder<Row> longKeyBuilder(@Nonnull Function<byte[], RecordCursor<Row>> input) {
+        return HashAggregateCursor.newBuilder(input)
+                .setLongGroupKey(row -> row.group)
+                .addColumn(HashAggregateColumn.count())
+                .addColumn(HashAggregateColumn.ofNullableLong(HashAggregateColumn.Operation.COUNT, row -> row.value))
+                .addColumn(HashAggregateColumn.ofNullableLong(HashAggregateColumn.Operation.SUM, row -> row.value))
+                .addColumn(HashAggregateColumn.ofNullableLong(HashAggregateColumn.Operation.MIN, row -> row.value))
+                .addColumn(HashAggregateColumn.ofNullableLong(HashAggregateColumn.Operation.MAX, row -> row.value))
+                .addColumn(HashAggregateColumn.ofNullableLong(HashAggregateColumn.Operation.AVG, row -> row.value));
+    }
+
+    @Nonnull
+    private static Map<Tuple, Tuple> expectedByLongKey(@Nonnull List<Row> rows) {
+        final Map<Long, List<Row>> groups = new HashMap<>();
+        for (Row row : rows) {
+            groups.computeIfAbsent(row.group, k -> new ArrayList<>()).add(row);
+        }
+        final Map<Tuple, Tuple> expected = new HashMap<>();
+        for (Map.Entry<Long, List<Row>> entry : groups.entrySet()) {
+            long count = 0;
+            long sum = 0;
+            Long min = null;
+            Long max = null;
+            for (Row row : entry.getValue()) {
+                if (row.value != null) {
+                    count++;
+                    sum += row.value;
+                    min = min == null ? row.value : Math.min(min, row.value);
+                    max = max == null ? row.value : Math.max(max, row.value);
+                }
+            }
+            expected.put(Tuple.from(entry.getKey()), Tuple.from(entry.getKey(), (long)entry.getValue().size(), count,
+                    count == 0 ? null : sum, min, max, count == 0 ? null : (double)sum / count));
+        }
+        return expected;
+    }
+
+    @Nonnull
+    private static Map<Tuple, Tuple> byKey(@Nonnull List<Tuple> results, int keySize) {
+        final Map<Tuple, Tuple> map = new HashMap<>();
+        for (Tuple result : results) {
+            final Tuple key = Tuple.fromList(result.getItems().subList(0, keySize));
+            assertEquals(null, map.put(key, result), "duplicate group " + key);
+        }
+        return map;
+    }
+
+    @Nonnull
+    private static List<Tuple> drain(@Nonnull RecordCursor<Tuple> cursor) {
+        final List<Tuple> results = new ArrayList<>();
+        RecordCursorResult<Tuple> result;
+        while ((result = cursor.getNext()).hasNext()) {
+            results.add(result.get());
+        }
+        assertTrue(result.getNoNextReason().isSourceExhausted());
+        return results;
+    }
+
+    @Test
+    public void longKey() {
+        final List<Row> rows = rows(500, 40);
+        final FDBStoreTimer timer = new FDBStoreTimer();
+        final List<Tuple> results;
+        try (HashAggregateCursor<Row> cursor = longKeyBuilder(continuation -> RecordCursor.fromList(rows, continuation))
+                .setTimer(timer)
+                .build(null)) {
+            results = drain(cursor);
+        }
+        assertEquals(expectedByLongKey(rows), byKey(results, 1));
+        assertEquals(500, timer.getCount(FDBStoreTimer.Counts.HASH_AGGREGATE_INPUT_RECORDS));
+        assertEquals(40, timer.getCount(FDBStoreTimer.Counts.HASH_AGGREGATE_GROUPS));
+        assertEquals(0, timer.getCount(FDBStoreTimer.Counts.HASH_AGGREGATE_SPILLED_PARTITIONS));
+    }
+
+    @Test
+    public void tupleKeyDoubles() {
+        final List<Row> rows = rows(300, 5);
+        final List<Tuple> results;
+        try (HashAggregateCursor<Row> cursor = HashAggregateCursor.newBuilder((byte[] continuation) -> RecordCursor.fromList(rows, continuation))
+                .setGroupKey(row -> Tuple.from(row.region, row.group))
+                .addColumn(HashAggregateColumn.ofDouble(HashAggregateColumn.Operation.SUM, (Row row) -> row.amount))
+                .addColumn(HashAggregateColumn.ofDouble(HashAggregateColumn.Operation.MAX, (Row row) -> row.amount))
+                .addColumn(HashAggregateColumn.ofDouble(HashAggregateColumn.Operation.AVG, (Row row) -> row.amount))
+                .build(null)) {
+            results = drain(cursor);
+        }
+        final Map<Tuple, List<Row>> groups = new HashMap<>();
+        for (Row row : rows) {
+            groups.computeIfAbsent(Tuple.from(row.region, row.group), k -> new ArrayList<>()).add(row);
+        }
+        final Map<Tuple, Tuple> expected = new HashMap<>();
+        for (Map.Entry<Tuple, List<Row>> entry : groups.entrySet()) {
+            double sum = 0;
+            double max = Double.NEGATIVE_INFINITY;
+            for (Row row : entry.getValue()) {
+                sum += row.amount;
+                max = Math.max(max, row.amount);
+            }
+            expected.put(entry.getKey(), entry.getKey().add(sum).add(max).add(sum / entry.getValue().size()));
+        }
+        assertEquals(expected, byKey(results, 2));
+    }
+
+    @Test
+    public void noKey() {
+        final List<Row> rows = rows(100, 3);
+        final List<Tuple> results = drain(HashAggregateCursor.newBuilder((byte[] continuation) -> RecordCursor.fromList(rows, continuation))
+                .addColumn(HashAggregateColumn.count())
+                .addColumn(HashAggregateColumn.ofNullableLong(HashAggregateColumn.Operation.MAX, row -> row.value))
+                .build(null));
+        final long max = rows.stream().filter(row -> row.value != null).mapToLong(row -> row.value).max().getAsLong();
+        assertEquals(Collections.singletonList(Tuple.from(100L, max)), results);
+
+        // A single group even without input.
+        final List<Tuple> empty = drain(HashAggregateCursor.newBuilder((byte[] continuation) -> RecordCursor.<Row>fromList(Collections.emptyList(), continuation))
+                .addColumn(HashAggregateColumn.count())
+                .addColumn(HashAggregateColumn.ofNullableLong(HashAggregateColumn.Operation.MAX, row -> row.value))
+                .build(null));
+        assertEquals(Collections.singletonList(Tuple.from(0L, null)), empty);
+    }
+
+    @Test
+    public void spill() {
+        final List<Row> rows = rows(2000, 300);
+        final FDBStoreTimer timer = new FDBStoreTimer();
+        final List<Tuple> results;
+        try (HashAggregateCursor<Row> cursor = longKeyBuilder(continuation -> RecordCursor.fromList(rows, continuation))
+                .setMaxGroupsInMemory(50)
+                .setPartitionCount(8)
+                .setBatchSize(37)
+                .setTimer(timer)
+                .build(null)) {
+            results = drain(cursor);
+        }
+        assertEquals(expectedByLongKey(rows), byKey(results, 1));
+        assertTrue(timer.getCount(FDBStoreTimer.Counts.HASH_AGGREGATE_SPILLED_PARTITIONS) > 0);
+        assertTrue(timer.getCount(FDBStoreTimer.Counts.HASH_AGGREGATE_SPILLED_GROUPS) > 0);
+        assertEquals(300, timer.getCount(FDBStoreTimer.Counts.HASH_AGGREGATE_GROUPS));
+    }
+
+    @ParameterizedTest(name = "resume [maxGroupsInMemory = {0}]")
+    @ValueSource(ints = {1000, 50})
+    public void resume(int maxGroupsInMemory) {
+        final List<Row> rows = rows(2000, 300);
+        // Both input that stops every so often and output that is limited.
+        final Function<byte[], RecordCursor<Row>> input = continuation ->
+                new RecordCursorTest.FakeOutOfBandCursor<>(RecordCursor.fromList(rows, continuation), 170);
+        final List<Tuple> results = new ArrayList<>();
+        byte[] continuation = null;
+        int executions = 0;
+        do {
+            try (RecordCursor<Tuple> cursor = longKeyBuilder(input)
+                    .setMaxGroupsInMemory(maxGroupsInMemory)
+                    .setPartitionCount(8)
+                    .setBatchSize(37)
+                    .build(continuation)
+                    .limitRowsTo(45)) {
+                RecordCursorResult<Tuple> result;
+                while ((result = cursor.getNext()).hasNext()) {
+                    results.add(result.get());
+                }
+                continuation = result.getContinuation().toBytes();
+            }
+            executions++;
+        } while (continuation != null && executions < 100);
+        assertEquals(null, continuation);
+        assertEquals(expectedByLongKey(rows), byKey(results, 1));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * MessageFieldAccessorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.metadata.expressions;
+
+import com.apple.foundationdb.record.UnstoredRecord;
+import com.apple.foundationdb.record.metadata.ExpressionTestsProto.CollidingFieldNames;
+import com.apple.foundationdb.record.metadata.ExpressionTestsProto.NestedField;
+import com.apple.foundationdb.record.metadata.ExpressionTestsProto.TestScalarFieldAccess;
+import com.apple.foundationdb.record.metadata.Key;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static com.apple.foundationdb.record.metadata.Key.Expressions.concat;
+import static com.apple.foundationdb.record.metadata.Key.Expressions.field;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link MessageFieldAccessor} and for sharing nested evaluation through a {@link KeyExpressionEvaluationCache}.
+ */
+public class MessageFieldAccessorTest {
+
+    private static final NestedField NESTED = NestedField.newBuilder()
+            .setRegularOldField("outer")
+            .setRegularIntField(1)
+            .addRepeatedField("a")
+            .addRepeatedField("b")
+            .setNesty(NestedField.newBuilder()
+                    .setRegularOldField("inner")
+                    .setRegularIntField(2)
+                    .setNesty2(NestedField.OtherNested.newBuilder()
+                            .setNesty3(NestedField.OtherNested.ThirdNested.newBuilder().setLastField("last"))))
+            .addRepeatedNesty(NestedField.newBuilder().setRegularOldField("r1"))
+            .addRepeatedNesty(NestedField.newBuilder().setRegularOldField("r2").setRegularIntField(3))
+            .build();
+
+    private static final TestScalarFieldAccess SCALAR = TestScalarFieldAccess.newBuilder()
+            .setField("field")
+            .addRepeatMe("one")
+            .setBytesField(ByteString.copyFromUtf8("bytes"))
+            .setUuidField(TupleFieldsHelper.toProto(UUID.randomUUID()))
+            .build();
+
+    private static final CollidingFieldNames COLLIDING = CollidingFieldNames.newBuilder()
+            .setSerializedSize_(1000)
+            .setName("colliding")
+            .build();
+
+    static Stream<Message> messages() {
+        return Stream.of(NESTED, NESTED.getNesty(), NestedField.getDefaultInstance(), SCALAR, TestScalarFieldAccess.getDefaultInstance(),
+                COLLIDING, CollidingFieldNames.getDefaultInstance());
+    }
+
+    @ParameterizedTest
+    @MethodSource("messages")
+    void sameAsGetField(@Nonnull Message message) throws Exception {
+        final DynamicMessage dynamicMessage = DynamicMessage.parseFrom(message.getDescriptorForType(), message.toByteString());
+        for (Descriptors.FieldDescriptor fieldDescriptor : message.getDescriptorForType().getFields()) {
+            for (Message m : new Message[] {message, dynamicMessage}) {
+                final MessageFieldAccessor accessor = MessageFieldAccessor.of(m, fieldDescriptor.getName());
+                assertEquals(fieldDescriptor, accessor.getFieldDescriptor());
+                assertEquals(m.getField(fieldDescriptor), accessor.getField(m), fieldDescriptor.getName());
+                if (fieldDescriptor.isRepeated()) {
+                    assertEquals(m.getRepeatedFieldCount(fieldDescriptor), accessor.getRepeatedFieldCount(m));
+                } else {
+                    assertEquals(m.hasField(fieldDescriptor), accessor.hasField(m));
+                }
+            }
+        }
+    }
+
+    @Test
+    void javaName() {
+        assertEquals("RegularOldField", MessageFieldAccessor.javaName("regular_old_field"));
+        assertEquals("Nesty2", MessageFieldAccessor.javaName("nesty2"));
+        assertEquals("Field2Name", MessageFieldAccessor.javaName("field2name"));
+        assertEquals("RecNo", MessageFieldAccessor.javaName("rec_no"));
+    }
+
+    @Test
+    void collidingFieldName() {
+        // getSerializedSize() is the message's own size, not the serialized_size field.
+        assertEquals(1000, MessageFieldAccessor.of(COLLIDING, "serialized_size").getField(COLLIDING));
+        assertTrue(MessageFieldAccessor.of(COLLIDING, "serialized_size").hasField(COLLIDING));
+        assertFalse(MessageFieldAccessor.of(CollidingFieldNames.getDefaultInstance(), "serialized_size").hasField(CollidingFieldNames.getDefaultInstance()));
+        assertEquals(Collections.singletonList(Key.Evaluated.scalar(1000)), field("serialized_size").evaluateMessage(null, COLLIDING));
+        assertEquals(Collections.singletonList(Key.Evaluated.scalar("colliding")), field("name").evaluateMessage(null, COLLIDING));
+    }
+
+    @Test
+    void missingField() {
+        final MessageFieldAccessor accessor = MessageFieldAccessor.of(NESTED, "no_such_field");
+        assertNull(accessor.getFieldDescriptor());
+        assertEquals(Collections.singletonList(Key.Evaluated.NULL), field("no_such_field").evaluateMessage(null, NESTED));
+    }
+
+    @Test
+    void cachedForGeneratedClasses() throws Exception {
+        assertSame(MessageFieldAccessor.of(NESTED, "regular_old_field"), MessageFieldAccessor.of(NestedField.getDefaultInstance(), "regular_old_field"));
+        assertNotSame(MessageFieldAccessor.of(NESTED, "regular_old_field"), MessageFieldAccessor.of(NESTED, "regular_int_field"));
+        final Message dynamicMessage = DynamicMessage.parseFrom(NestedField.getDescriptor(), NESTED.toByteString());
+        assertNotSame(MessageFieldAccessor.of(dynamicMessage, "regular_old_field"), MessageFieldAccessor.of(dynamicMessage, "regular_old_field"));
+    }
+
+    @Test
+    void evaluateChangingTypes() throws Exception {
+        final KeyExpression expression = field("regular_old_field");
+        final Message dynamicMessage = DynamicMessage.parseFrom(NestedField.getDescriptor(), NESTED.toByteString());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Collections.singletonList(Key.Evaluated.scalar("outer")), expression.evaluateMessage(null, NESTED));
+            assertEquals(Collections.singletonList(Key.Evaluated.scalar("outer")), expression.evaluateMessage(null, dynamicMessage));
+        }
+    }
+
+    @Test
+    void shareNestedEvaluation() {
+        final List<KeyExpression> expressions = Arrays.asList(
+                field("nesty").nest("regular_old_field"),
+                field("nesty").nest(concat(field("regular_int_field"), field("nesty2").nest(field("nesty3").nest("last_field")))),
+                field("repeated_nesty", KeyExpression.FanType.FanOut).nest("regular_old_field"),
+                field("repeated_nesty", KeyExpression.FanType.FanOut).nest(concat(field("regular_old_field"), field("regular_int_field"))));
+        final CachingRecord cachingRecord = new CachingRecord(NESTED);
+        for (int i = 0; i < 2; i++) {
+            for (KeyExpression expression : expressions) {
+                final List<Key.Evaluated> expected = expression.evaluate(new UnstoredRecord<>(NESTED));
+                assertEquals(expected, expression.evaluate(cachingRecord));
+            }
+        }
+        // Each nesting expression once, plus the two distinct parents, plus the inner nestings of nesty2 and nesty3 and their parents.
+        assertEquals(expressions.size() + 6, cachingRecord.evaluations);
+    }
+
+    private static class CachingRecord extends UnstoredRecord<Message> implements KeyExpressionEvaluationCache {
+        private final Map<Message, Map<KeyExpression, List<Key.Evaluated>>> cache = new IdentityHashMap<>();
+        private int evaluations;
+
+        CachingRecord(@Nonnull Message record) {
+            super(record);
+        }
+
+        @Nonnull
+        @Override
+        public List<Key.Evaluated> computeIfAbsent(@Nonnull KeyExpression expression, @Nonnull Message message,
+                                                   @Nonnull Supplier<List<Key.Evaluated>> evaluation) {
+            final Map<KeyExpression, List<Key.Evaluated>> forMessage = cache.computeIfAbsent(message, m -> new HashMap<>());
+            List<Key.Evaluated> result = forMessage.get(expression);
+            if (result == null) {
+                evaluations++;
+                result = evaluation.get();
+                forMessage.put(expression, result);
+            }
+            return new ArrayList<>(result);
+        }
+    }
+}
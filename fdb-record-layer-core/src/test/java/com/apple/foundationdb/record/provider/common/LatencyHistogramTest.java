@@ -0,0 +1,119 @@
+/*
+ * LatencyHistogramTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link LatencyHistogram} and its use by {@link StoreTimer}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets() {
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT - 1; i++) {
+            final long upper = LatencyHistogram.bucketUpperBound(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(upper));
+            assertEquals(i + 1, LatencyHistogram.bucketIndex(upper + 1));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+        assertEquals(0, LatencyHistogram.bucketIndex(-1L));
+    }
+
+    @Test
+    public void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getValueAtPercentile(99.0));
+        final Random random = new Random(1066);
+        for (int i = 0; i < 100_000; i++) {
+            histogram.record(1_000L + random.nextInt(1_000_000));
+        }
+        assertEquals(100_000L, histogram.getCount());
+        assertApproximately(501_000L, histogram.getValueAtPercentile(50.0));
+        assertApproximately(991_000L, histogram.getValueAtPercentile(99.0));
+        assertApproximately(1_000_000L, histogram.getValueAtPercentile(100.0));
+        assertTrue(histogram.getValueAtPercentile(99.9) >= histogram.getValueAtPercentile(99.0));
+    }
+
+    private static void assertApproximately(long expected, long actual) {
+        assertTrue(Math.abs(expected - actual) <= expected / LatencyHistogram.SUB_BUCKET_COUNT,
+                () -> "expected about " + expected + " but was " + actual);
+    }
+
+    @Test
+    public void timerHistograms() {
+        final FDBStoreTimer timer = new FDBStoreTimer();
+        timer.record(FDBStoreTimer.Events.LOAD_RECORD, 5_000_000L);
+        assertNull(timer.getCounter(FDBStoreTimer.Events.LOAD_RECORD).getHistogram());
+        assertEquals(0L, timer.getTimeNanosAtPercentile(FDBStoreTimer.Events.LOAD_RECORD, 50.0));
+
+        timer.setHistogramsEnabled(true);
+        for (int i = 1; i <= 100; i++) {
+            timer.record(FDBStoreTimer.Events.LOAD_RECORD, i * 1_000_000L);
+        }
+        assertApproximately(50_000_000L, timer.getTimeNanosAtPercentile(FDBStoreTimer.Events.LOAD_RECORD, 50.0));
+        assertApproximately(99_000_000L, timer.getTimeNanosAtPercentile(FDBStoreTimer.Events.LOAD_RECORD, 99.0));
+        final Map<String, Number> keysAndValues = timer.getKeysAndValues();
+        assertTrue(keysAndValues.containsKey(FDBStoreTimer.Events.LOAD_RECORD.logKeyWithSuffix("_p99_micros")));
+        assertTrue(keysAndValues.containsKey(FDBStoreTimer.Events.LOAD_RECORD.logKeyWithSuffix("_p999_micros")));
+
+        timer.increment(FDBStoreTimer.Counts.LOAD_RECORD_KEY);
+        assertNull(timer.getCounter(FDBStoreTimer.Counts.LOAD_RECORD_KEY).getHistogram());
+        assertFalse(timer.getKeysAndValues().containsKey(FDBStoreTimer.Counts.LOAD_RECORD_KEY.logKeyWithSuffix("_p99_micros")));
+    }
+
+    @Test
+    public void mergeAndDifference() {
+        final FDBStoreTimer timer1 = new FDBStoreTimer();
+        timer1.setHistogramsEnabled(true);
+        for (int i = 0; i < 99; i++) {
+            timer1.record(FDBStoreTimer.Events.LOAD_RECORD, 1_000_000L);
+        }
+        final StoreTimerSnapshot snapshot = StoreTimerSnapshot.from(timer1);
+        timer1.record(FDBStoreTimer.Events.LOAD_RECORD, 100_000_000L);
+        assertNotNull(snapshot.getCounterSnapshot(FDBStoreTimer.Events.LOAD_RECORD).getHistogram());
+        assertEquals(99L, snapshot.getCounterSnapshot(FDBStoreTimer.Events.LOAD_RECORD).getHistogram().getCount());
+
+        final StoreTimer difference = StoreTimer.getDifference(timer1, snapshot);
+        final LatencyHistogram differenceHistogram = difference.getCounter(FDBStoreTimer.Events.LOAD_RECORD).getHistogram();
+        assertNotNull(differenceHistogram);
+        assertEquals(1L, differenceHistogram.getCount());
+        assertApproximately(100_000_000L, difference.getTimeNanosAtPercentile(FDBStoreTimer.Events.LOAD_RECORD, 50.0));
+
+        // Merging into a timer that does not itself keep histograms still keeps the distribution.
+        final FDBStoreTimer total = new FDBStoreTimer();
+        total.add(timer1);
+        total.add(difference);
+        assertEquals(101L, total.getCounter(FDBStoreTimer.Events.LOAD_RECORD).getHistogram().getCount());
+        assertApproximately(1_000_000L, total.getTimeNanosAtPercentile(FDBStoreTimer.Events.LOAD_RECORD, 50.0));
+        assertApproximately(100_000_000L, total.getTimeNanosAtPercentile(FDBStoreTimer.Events.LOAD_RECORD, 99.0));
+    }
+}
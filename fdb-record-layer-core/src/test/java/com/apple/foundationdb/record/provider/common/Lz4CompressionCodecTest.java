@@ -0,0 +1,108 @@
+/*
+ * Lz4CompressionCodecTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the {@link Lz4CompressionCodec}.
+ */
+public class Lz4CompressionCodecTest {
+
+    private static int compress(CompressionCodec codec, byte[] data, byte[] compressed) {
+        return codec.compress(data, 0, data.length, compressed, 0, compressed.length, null);
+    }
+
+    private static void roundTrip(CompressionCodec codec, byte[] data) throws DataFormatException {
+        final byte[] compressed = new byte[data.length + data.length / 255 + 32];
+        final int compressedLength = compress(codec, data, compressed);
+        assertTrue(compressedLength >= 0);
+        final byte[] decompressed = new byte[data.length];
+        codec.decompress(compressed, 0, compressedLength, decompressed, null);
+        assertArrayEquals(data, decompressed);
+    }
+
+    @Test
+    public void roundTrips() throws DataFormatException {
+        final Lz4CompressionCodec codec = new Lz4CompressionCodec();
+        final Random random = new Random(1066);
+        for (int length : new int[] {0, 1, 5, 12, 13, 100, 1000, 70_000}) {
+            final byte[] randomData = new byte[length];
+            random.nextBytes(randomData);
+            roundTrip(codec, randomData);
+            final byte[] repetitiveData = new byte[length];
+            for (int i = 0; i < length; i++) {
+                repetitiveData[i] = (byte)(i % 7 == 0 ? random.nextInt() : i % 13);
+            }
+            roundTrip(codec, repetitiveData);
+            final byte[] constantData = new byte[length];
+            Arrays.fill(constantData, (byte)'x');
+            roundTrip(codec, constantData);
+        }
+    }
+
+    @Test
+    public void outputTooSmall() {
+        final byte[] data = new byte[1000];
+        new Random(1066).nextBytes(data);
+        assertEquals(-1, compress(new Lz4CompressionCodec(), data, new byte[500]));
+    }
+
+    @Test
+    public void corruptInput() {
+        final Lz4CompressionCodec codec = new Lz4CompressionCodec();
+        final byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 10);
+        }
+        final byte[] compressed = new byte[data.length];
+        final int compressedLength = compress(codec, data, compressed);
+        assertThrows(DataFormatException.class,
+                () -> codec.decompress(compressed, 0, compressedLength - 1, new byte[data.length], null));
+        assertThrows(DataFormatException.class,
+                () -> codec.decompress(compressed, 0, compressedLength, new byte[data.length - 1], null));
+    }
+
+    @Test
+    public void dictionary() throws DataFormatException {
+        final byte[] dictionary = "a dictionary of common strings, which are found in most records".getBytes(StandardCharsets.UTF_8);
+        final Lz4CompressionCodec codec = new Lz4CompressionCodec(dictionary);
+        assertEquals(Lz4CompressionCodec.DICTIONARY_COMPRESSION_VERSION, codec.getCompressionVersion());
+        final byte[] data = "common strings are found in records".getBytes(StandardCharsets.UTF_8);
+        final byte[] compressed = new byte[data.length * 2];
+        final int compressedLength = compress(codec, data, compressed);
+        assertTrue(compressedLength < data.length);
+        roundTrip(codec, data);
+        final byte[] decompressed = new byte[data.length];
+        assertThrows(RecordSerializationException.class,
+                () -> new Lz4CompressionCodec(Arrays.copyOf(dictionary, 10)).decompress(compressed, 0, compressedLength, decompressed, null));
+    }
+}
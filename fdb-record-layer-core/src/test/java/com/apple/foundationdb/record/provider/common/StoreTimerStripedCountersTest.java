@@ -0,0 +1,79 @@
+/*
+ * StoreTimerStripedCountersTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link StoreTimer} with and without {@linkplain StoreTimer#isStripedCounters striped counters}.
+ */
+public class StoreTimerStripedCountersTest {
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void concurrentUpdates(boolean striped) throws Exception {
+        final FDBStoreTimer timer = new FDBStoreTimer(striped);
+        assertEquals(striped, timer.isStripedCounters());
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        timer.increment(FDBStoreTimer.Counts.LOAD_RECORD_KEY);
+                        timer.record(FDBStoreTimer.Events.LOAD_RECORD, 10L);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertEquals(80_000, timer.getCount(FDBStoreTimer.Counts.LOAD_RECORD_KEY));
+        assertEquals(80_000, timer.getCount(FDBStoreTimer.Events.LOAD_RECORD));
+        assertEquals(800_000L, timer.getTimeNanos(FDBStoreTimer.Events.LOAD_RECORD));
+        assertEquals(800L, timer.getKeysAndValues().get(FDBStoreTimer.Events.LOAD_RECORD.logKeyWithSuffix("_micros")));
+
+        // Snapshots, differences and merging work the same either way.
+        final StoreTimerSnapshot snapshot = StoreTimerSnapshot.from(timer);
+        timer.increment(FDBStoreTimer.Counts.LOAD_RECORD_KEY, 5);
+        final StoreTimer difference = StoreTimer.getDifference(timer, snapshot);
+        assertEquals(5, difference.getCount(FDBStoreTimer.Counts.LOAD_RECORD_KEY));
+        final FDBStoreTimer total = new FDBStoreTimer(!striped);
+        total.add(timer);
+        total.add(difference);
+        assertEquals(80_010, total.getCount(FDBStoreTimer.Counts.LOAD_RECORD_KEY));
+    }
+}
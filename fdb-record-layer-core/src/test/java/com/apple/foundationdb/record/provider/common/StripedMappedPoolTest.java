@@ -0,0 +1,156 @@
+/*
+ * StripedMappedPoolTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.common;
+
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the {@link StripedMappedPool}.
+ */
+public class StripedMappedPoolTest {
+
+    @Test
+    public void reuseFromStripe() {
+        final AtomicInteger created = new AtomicInteger();
+        final StripedMappedPool<String, Object, RuntimeException> pool = new StripedMappedPool<>(key -> {
+            created.incrementAndGet();
+            return new Object();
+        }, 4, 2, 3, 10);
+        final FDBStoreTimer timer = new FDBStoreTimer();
+        Object last = null;
+        for (int i = 0; i < 100; i++) {
+            final Object value = pool.poll("a", timer);
+            if (last != null) {
+                assertSame(last, value);
+            }
+            last = value;
+            assertTrue(pool.offer("a", value));
+        }
+        assertEquals(1, created.get());
+        assertEquals(1, pool.getPoolSize("a"));
+        assertEquals(1, timer.getCount(MappedPool.Counts.POOL_MISS));
+        assertEquals(100, timer.getCount(MappedPool.Events.BORROW_FROM_POOL));
+    }
+
+    @Test
+    public void boundedRetention() {
+        final StripedMappedPool<String, Object, RuntimeException> pool = new StripedMappedPool<>(key -> new Object(), 4, 2, 3, 10);
+        final List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            values.add(pool.poll("a"));
+        }
+        // Two slots in this thread's stripe, then three in the shared queue.
+        for (int i = 0; i < 5; i++) {
+            assertTrue(pool.offer("a", values.get(i)));
+        }
+        for (int i = 5; i < 20; i++) {
+            assertFalse(pool.offer("a", values.get(i)));
+        }
+        assertEquals(5, pool.getPoolSize("a"));
+        final Set<Object> polled = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 5; i++) {
+            polled.add(pool.poll("a"));
+        }
+        final Set<Object> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+        expected.addAll(values.subList(0, 5));
+        assertEquals(expected, polled);
+        assertEquals(0, pool.getPoolSize("a"));
+    }
+
+    @Test
+    public void concurrentBorrowers() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        final StripedMappedPool<String, AtomicInteger, RuntimeException> pool = new StripedMappedPool<>(key -> {
+            created.incrementAndGet();
+            return new AtomicInteger();
+        });
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        final AtomicInteger value = pool.poll("a");
+                        // Fails if a value is handed to two threads at once.
+                        assertEquals(1, value.incrementAndGet());
+                        value.decrementAndGet();
+                        pool.offer("a", value);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertTrue(created.get() < 100, "should mostly reuse values");
+    }
+
+    @Test
+    public void compressorRoundTrip() throws Exception {
+        final byte[] data = new byte[10_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 17);
+        }
+        for (int i = 0; i < 3; i++) {
+            final byte[] compressed = new byte[data.length];
+            final Deflater deflater = CompressorPool.borrowDeflater(Deflater.BEST_SPEED, null);
+            final int compressedLength;
+            try {
+                deflater.setInput(data);
+                compressedLength = deflater.deflate(compressed, 0, compressed.length, Deflater.FULL_FLUSH);
+            } finally {
+                CompressorPool.returnDeflater(Deflater.BEST_SPEED, deflater);
+            }
+            final byte[] decompressed = new byte[data.length];
+            final Inflater inflater = CompressorPool.borrowInflater(null);
+            try {
+                inflater.setInput(compressed, 0, compressedLength);
+                assertEquals(data.length, inflater.inflate(decompressed));
+            } finally {
+                CompressorPool.returnInflater(inflater);
+            }
+            assertArrayEquals(data, decompressed);
+        }
+    }
+}
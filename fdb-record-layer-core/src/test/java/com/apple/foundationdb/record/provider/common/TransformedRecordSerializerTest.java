@@ -42,6 +42,8 @@ import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.zip.Deflater;
@@ -192,13 +194,84 @@ public class TransformedRecordSerializerTest {
                 "raw_length", rawLength, "compressed_length", serialized.length);
     }
 
+    @Test
+    public void compressWithLz4() {
+        TransformedRecordSerializer<Message> serializer = TransformedRecordSerializer.newDefaultBuilder()
+                .setCompressWhenSerializing(true)
+                .setCompressionCodec(new Lz4CompressionCodec())
+                .build();
+
+        MySimpleRecord largeRecord = MySimpleRecord.newBuilder().setRecNo(1066L).setStrValueIndexed(Strings.repeat("foo", 1000)).build();
+        byte[] serialized = serialize(serializer, largeRecord);
+        assertEquals(TransformedRecordSerializer.ENCODING_COMPRESSED, serialized[0]);
+        assertEquals(Lz4CompressionCodec.COMPRESSION_VERSION, serialized[1]);
+        assertThat(storeTimer.getCount(RecordSerializer.Counts.RECORD_BYTES_BEFORE_COMPRESSION),
+                greaterThan(storeTimer.getCount(RecordSerializer.Counts.RECORD_BYTES_AFTER_COMPRESSION)));
+        assertEquals(largeRecord, deserialize(serializer, Tuple.from(1066L), serialized));
+
+        // Records compressed with either codec can be read by a serializer that compresses with the other.
+        TransformedRecordSerializer<Message> deflateSerializer = TransformedRecordSerializer.newDefaultBuilder()
+                .setCompressWhenSerializing(true)
+                .build();
+        assertEquals(largeRecord, deserialize(deflateSerializer, Tuple.from(1066L), serialized));
+        byte[] deflated = serialize(deflateSerializer, largeRecord);
+        assertEquals(DeflateCompressionCodec.COMPRESSION_VERSION, deflated[1]);
+        assertEquals(largeRecord, deserialize(serializer, Tuple.from(1066L), deflated));
+
+        MySimpleRecord mediumRecord = MySimpleRecord.newBuilder().setRecNo(1066L).setStrValueIndexed(SONNET_108).build();
+        serialized = serialize(serializer, mediumRecord);
+        assertEquals(mediumRecord, deserialize(serializer, Tuple.from(1066L), serialized));
+
+        logMetrics("metrics with LZ4 compression (sonnet 108)", "compressed_length", serialized.length);
+    }
+
+    @Test
+    public void compressWithDictionary() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            MySimpleRecord sample = MySimpleRecord.newBuilder().setRecNo(i).setStrValueIndexed("even or odd: " + (i % 2 == 0 ? "even" : "odd"))
+                    .setNumValue2(i * 1000).setNumValue3Indexed(i).build();
+            samples.add(RecordTypeUnion.newBuilder().setMySimpleRecord(sample).build().toByteArray());
+        }
+        byte[] dictionary = Lz4CompressionCodec.trainDictionary(samples, 1024);
+        assertThat(dictionary.length, greaterThan(0));
+        Lz4CompressionCodec codec = new Lz4CompressionCodec(dictionary);
+        TransformedRecordSerializer<Message> serializer = TransformedRecordSerializer.newDefaultBuilder()
+                .setCompressWhenSerializing(true)
+                .setCompressionCodec(codec)
+                .build();
+
+        // Too small to compress on its own, but mostly found in the dictionary.
+        MySimpleRecord smallRecord = MySimpleRecord.newBuilder().setRecNo(1066L).setStrValueIndexed("even or odd: even").build();
+        byte[] serialized = serialize(serializer, smallRecord);
+        assertEquals(TransformedRecordSerializer.ENCODING_COMPRESSED, serialized[0]);
+        assertEquals(Lz4CompressionCodec.DICTIONARY_COMPRESSION_VERSION, serialized[1]);
+        assertEquals(smallRecord, deserialize(serializer, Tuple.from(1066L), serialized));
+
+        // Reading requires the same dictionary.
+        TransformedRecordSerializer<Message> withoutDictionary = TransformedRecordSerializer.newDefaultBuilder().build();
+        RecordSerializationException e = assertThrows(RecordSerializationException.class,
+                () -> deserialize(withoutDictionary, Tuple.from(1066L), serialized));
+        assertThat(e.getMessage(), containsString("unknown compression version"));
+        TransformedRecordSerializer<Message> otherDictionary = TransformedRecordSerializer.newDefaultBuilder()
+                .addDecompressionCodec(new Lz4CompressionCodec("something else entirely".getBytes(StandardCharsets.UTF_8)))
+                .build();
+        e = assertThrows(RecordSerializationException.class,
+                () -> deserialize(otherDictionary, Tuple.from(1066L), serialized));
+        assertThat(e.getMessage(), containsString("unknown compression dictionary"));
+        TransformedRecordSerializer<Message> sameDictionary = TransformedRecordSerializer.newDefaultBuilder()
+                .addDecompressionCodec(new Lz4CompressionCodec(dictionary))
+                .build();
+        assertEquals(smallRecord, deserialize(sameDictionary, Tuple.from(1066L), serialized));
+    }
+
     @Test
     public void unknownCompressionVersion() {
         RecordSerializationException e = assertThrows(RecordSerializationException.class, () -> {
             TransformedRecordSerializer<Message> serializer = TransformedRecordSerializer.newDefaultBuilder().setCompressWhenSerializing(true).build();
             MySimpleRecord simpleRecord = MySimpleRecord.newBuilder().setRecNo(1066L).setStrValueIndexed(SONNET_108).build();
             byte[] serialized = serialize(serializer, simpleRecord);
-            serialized[1] += 1; // Bump the compression version to an unknown value.
+            serialized[1] = 0x7f; // Change the compression version to an unknown value.
             deserialize(serializer, Tuple.from(1066L), serialized);
         });
         assertThat(e.getMessage(), containsString("unknown compression version"));
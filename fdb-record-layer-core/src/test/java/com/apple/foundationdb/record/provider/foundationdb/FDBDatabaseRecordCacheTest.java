@@ -0,0 +1,267 @@
+/*
+ * FDBDatabaseRecordCacheTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordMetaData;
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.test.Tags;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link FDBDatabaseRecordCache}.
+ */
+@Tag(Tags.RequiresFDB)
+public class FDBDatabaseRecordCacheTest extends FDBRecordStoreTestBase {
+    // The cache compares meta-data by identity, so use the same one in every transaction.
+    private RecordMetaData metaData;
+    private FDBDatabaseRecordCache recordCache;
+
+    @BeforeEach
+    void setUpCache() {
+        metaData = simpleMetaData(NO_HOOK);
+        recordCache = new FDBDatabaseRecordCache();
+        fdb.setRecordCache(recordCache);
+    }
+
+    @AfterEach
+    void removeCache() {
+        fdb.setRecordCache(null);
+    }
+
+    @Test
+    void notCacheableByDefault() {
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            recordStore.saveRecord(simpleRecord(1066L, "first"));
+            commit(context);
+        }
+        for (int i = 0; i < 2; i++) {
+            try (FDBRecordContext context = openContext()) {
+                createOrOpenRecordStore(context, metaData);
+                assertNotNull(recordStore.loadRecord(Tuple.from(1066L)));
+                assertEquals(0, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_HIT));
+                assertEquals(0, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_MISS));
+                commit(context);
+            }
+        }
+        assertEquals(0, recordCache.size());
+    }
+
+    @Test
+    void cacheAcrossTransactions() {
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertTrue(recordStore.setRecordCacheability(true));
+            recordStore.saveRecord(simpleRecord(1066L, "first"));
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertLoaded(1066L, "first");
+            assertNull(recordStore.loadRecord(Tuple.from(1415L)));
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_HIT));
+            assertEquals(2, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_MISS));
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertLoaded(1066L, "first");
+            assertNull(recordStore.loadRecord(Tuple.from(1415L)));
+            assertEquals(2, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_HIT));
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_MISS));
+            commit(context);
+        }
+
+        // A change to any record invalidates all of the store's cached records.
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            recordStore.saveRecord(simpleRecord(1415L, "second"));
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertLoaded(1066L, "first");
+            assertLoaded(1415L, "second");
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_HIT));
+            assertEquals(2, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_MISS));
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            recordStore.deleteRecord(Tuple.from(1066L));
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertNull(recordStore.loadRecord(Tuple.from(1066L)));
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_HIT));
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            recordStore.deleteAllRecords();
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertNull(recordStore.loadRecord(Tuple.from(1415L)));
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_HIT));
+            commit(context);
+        }
+    }
+
+    @Test
+    void ownChangesNotShared() {
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            recordStore.setRecordCacheability(true);
+            recordStore.saveRecord(simpleRecord(1066L, "first"));
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertLoaded(1066L, "first");
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            recordStore.saveRecord(simpleRecord(1066L, "uncommitted"));
+            // Neither uses nor fills the cache after changing the store.
+            assertLoaded(1066L, "uncommitted");
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_HIT));
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_MISS));
+            // Do not commit.
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertLoaded(1066L, "first");
+            assertEquals(1, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_HIT));
+            commit(context);
+        }
+    }
+
+    @Test
+    void conflictWithConcurrentChange() {
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            recordStore.setRecordCacheability(true);
+            recordStore.saveRecord(simpleRecord(1066L, "first"));
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertLoaded(1066L, "first");
+            commit(context);
+        }
+        try (FDBRecordContext context1 = openContext(); FDBRecordContext context2 = openContext()) {
+            createOrOpenRecordStore(context1, metaData);
+            final FDBRecordStore recordStore1 = recordStore;
+            createOrOpenRecordStore(context2, metaData);
+            final FDBRecordStore recordStore2 = recordStore;
+
+            // A cached read of one record still conflicts with a change to another.
+            assertNotNull(recordStore1.loadRecord(Tuple.from(1066L)));
+            assertEquals(1, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_HIT));
+            recordStore1.saveRecord(simpleRecord(1707L, "third"));
+            recordStore2.saveRecord(simpleRecord(1415L, "second"));
+            context2.commit();
+            assertThrows(FDBExceptions.FDBStoreTransactionConflictException.class, context1::commit);
+        }
+    }
+
+    @Test
+    void turnOffCaching() {
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            recordStore.setRecordCacheability(true);
+            recordStore.saveRecord(simpleRecord(1066L, "first"));
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertLoaded(1066L, "first");
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertTrue(recordStore.setRecordCacheability(false));
+            assertFalse(recordStore.setRecordCacheability(false));
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            recordStore.saveRecord(simpleRecord(1066L, "changed"));
+            commit(context);
+        }
+        // Turning caching back on must not expose the record cached before the change.
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertTrue(recordStore.setRecordCacheability(true));
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData);
+            assertLoaded(1066L, "changed");
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.RECORD_CACHE_HIT));
+            commit(context);
+        }
+    }
+
+    @Test
+    void oldFormatVersion() {
+        try (FDBRecordContext context = openContext()) {
+            recordStore = getStoreBuilder(context, metaData)
+                    .setFormatVersion(FDBRecordStore.RECORD_CACHE_FORMAT_VERSION - 1)
+                    .create();
+            RecordCoreException err = assertThrows(RecordCoreException.class, () -> recordStore.setRecordCacheability(true));
+            assertEquals("cannot mark records cacheable at format version " + (FDBRecordStore.RECORD_CACHE_FORMAT_VERSION - 1),
+                    err.getMessage());
+        }
+    }
+
+    private void assertLoaded(long recNo, @Nonnull String strValue) {
+        final FDBStoredRecord<?> loaded = recordStore.loadRecord(Tuple.from(recNo));
+        assertNotNull(loaded);
+        assertEquals(simpleRecord(recNo, strValue), loaded.getRecord());
+    }
+
+    @Nonnull
+    private static TestRecords1Proto.MySimpleRecord simpleRecord(long recNo, @Nonnull String strValue) {
+        return TestRecords1Proto.MySimpleRecord.newBuilder()
+                .setRecNo(recNo)
+                .setStrValueIndexed(strValue)
+                .build();
+    }
+}
@@ -22,6 +22,7 @@ package com.apple.foundationdb.record.provider.foundationdb;
 
 import com.apple.foundationdb.FDBError;
 import com.apple.foundationdb.FDBException;
+import com.apple.foundationdb.record.ExecuteState;
 import com.apple.foundationdb.record.IsolationLevel;
 import com.apple.foundationdb.record.TestRecords1Proto;
 import com.apple.foundationdb.record.TestRecordsBytesProto;
@@ -29,10 +30,15 @@ import com.apple.foundationdb.record.TestRecordsWithUnionProto;
 import com.apple.foundationdb.record.metadata.MetaDataException;
 import com.apple.foundationdb.tuple.Tuple;
 import com.apple.test.Tags;
+import com.google.common.base.Strings;
 import com.google.protobuf.Message;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.List;
+
+import static com.apple.foundationdb.record.metadata.Key.Expressions.concatenateFields;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.core.Is.is;
@@ -362,4 +368,120 @@ public class FDBRecordStoreCrudTest extends FDBRecordStoreTestBase {
         }
     }
 
+    @Test
+    public void loadRecords() throws Exception {
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            for (long recNo = 1; recNo <= 10; recNo++) {
+                recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                        .setRecNo(recNo)
+                        .setNumValue2((int)recNo * 10)
+                        .build());
+            }
+            recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(20L).setNumValue2(200).build());
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            timer.reset();
+            final List<Tuple> primaryKeys = Arrays.asList(Tuple.from(7L), Tuple.from(20L), Tuple.from(3L), Tuple.from(30L),
+                    Tuple.from(4L), Tuple.from(5L), Tuple.from(3), Tuple.from(6L), Tuple.from(1L), Tuple.from(2L));
+            final List<FDBStoredRecord<Message>> records = recordStore.loadRecords(primaryKeys);
+            assertEquals(primaryKeys.size(), records.size());
+            for (int i = 0; i < primaryKeys.size(); i++) {
+                final long recNo = primaryKeys.get(i).getLong(0);
+                if (recNo == 30L) {
+                    assertNull(records.get(i));
+                } else {
+                    assertNotNull(records.get(i));
+                    assertEquals(primaryKeys.get(i), records.get(i).getPrimaryKey());
+                    TestRecords1Proto.MySimpleRecord.Builder myrec = TestRecords1Proto.MySimpleRecord.newBuilder();
+                    myrec.mergeFrom(records.get(i).getRecord());
+                    assertEquals(recNo * 10, myrec.getNumValue2());
+                }
+            }
+            // 1 to 7 are read in one range, leaving only 20 and 30 to be loaded individually.
+            assertEquals(2, timer.getCount(FDBStoreTimer.Events.LOAD_RECORD));
+            assertEquals(List.of(), recordStore.loadRecords(List.of()));
+            commit(context);
+        }
+    }
+
+    @Test
+    public void loadRecordsWithDifferentPrimaryKeyLengths() throws Exception {
+        // (2) and (3) differ by one, but (2, 0) would sort between them.
+        final RecordMetaDataHook hook = metaData -> metaData.getRecordType("MyOtherRecord")
+                .setPrimaryKey(concatenateFields("rec_no", "num_value_2"));
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, hook);
+            recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(2L).build());
+            recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(3L).build());
+            recordStore.saveRecord(TestRecords1Proto.MyOtherRecord.newBuilder().setRecNo(2L).setNumValue2(0).build());
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, hook);
+            timer.reset();
+            final List<Tuple> primaryKeys = Arrays.asList(Tuple.from(2L), Tuple.from(3L));
+            final List<FDBStoredRecord<Message>> records = recordStore.loadRecords(primaryKeys);
+            assertEquals(primaryKeys.get(0), records.get(0).getPrimaryKey());
+            assertEquals(primaryKeys.get(1), records.get(1).getPrimaryKey());
+            assertEquals(2, timer.getCount(FDBStoreTimer.Events.LOAD_RECORD));
+            commit(context);
+        }
+    }
+
+    @Test
+    public void loadRecordsCountsScannedBytes() throws Exception {
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            for (long recNo = 1; recNo <= 5; recNo++) {
+                recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(recNo).build());
+            }
+            recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder().setRecNo(10L).build());
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            final List<Tuple> primaryKeys = Arrays.asList(Tuple.from(1L), Tuple.from(2L), Tuple.from(3L), Tuple.from(4L),
+                    Tuple.from(5L), Tuple.from(10L));
+            final ExecuteState executeState = new ExecuteState();
+            final List<FDBStoredRecord<Message>> records = recordStore.loadRecordsInternal(primaryKeys, executeState, false).get();
+            long expectedBytes = 0;
+            for (FDBStoredRecord<Message> rec : records) {
+                expectedBytes += rec.getKeySize() + rec.getValueSize();
+            }
+            assertEquals(expectedBytes, executeState.getByteScanLimiter().getBytesScanned());
+            commit(context);
+        }
+    }
+
+    @Test
+    public void loadSplitRecords() throws Exception {
+        final String bigValue = Strings.repeat("x", SplitHelper.SPLIT_RECORD_SIZE * 2);
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, TEST_SPLIT_HOOK);
+            for (long recNo = 1; recNo <= 4; recNo++) {
+                recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                        .setRecNo(recNo)
+                        .setStrValueIndexed(recNo % 2 == 0 ? bigValue : "small")
+                        .build());
+            }
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, TEST_SPLIT_HOOK);
+            final List<Tuple> primaryKeys = Arrays.asList(Tuple.from(4L), Tuple.from(1L), Tuple.from(3L), Tuple.from(2L));
+            final List<FDBStoredRecord<Message>> records = recordStore.loadRecords(primaryKeys);
+            for (int i = 0; i < primaryKeys.size(); i++) {
+                final FDBStoredRecord<Message> loaded = recordStore.loadRecord(primaryKeys.get(i));
+                assertNotNull(loaded);
+                assertEquals(loaded.getRecord(), records.get(i).getRecord());
+                assertEquals(loaded.isSplit(), records.get(i).isSplit());
+                assertEquals(loaded.getKeyCount(), records.get(i).getKeyCount());
+            }
+            commit(context);
+        }
+    }
+
 }
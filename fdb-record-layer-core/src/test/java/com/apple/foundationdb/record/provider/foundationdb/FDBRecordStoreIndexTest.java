@@ -2841,6 +2841,58 @@ public class FDBRecordStoreIndexTest extends FDBRecordStoreTestBase {
         database.close();
     }
 
+    @Test
+    public void testParallelScan() {
+        runLocalityTest(() -> testParallelScanImpl());
+    }
+
+    public void testParallelScanImpl() {
+        final FDBDatabaseFactory factory = FDBDatabaseFactory.instance();
+        factory.setLocalityProvider(MockedLocalityUtil.instance());
+        FDBDatabase database = FDBDatabaseFactory.instance().getDatabase();
+
+        String bigOlString = Strings.repeat("x", SplitHelper.SPLIT_RECORD_SIZE + 2);
+        for (int i = 0; i < 50; i++) {
+            saveAndSplitSimpleRecord(i, bigOlString, 100 - i);
+        }
+
+        try (FDBRecordContext context = database.openContext()) {
+            openSimpleRecordStore(context, TEST_SPLIT_HOOK);
+            ArrayList<byte[]> keys = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                keys.add(recordStore.recordsSubspace().pack(Tuple.from(i, SplitHelper.START_SPLIT_RECORD + 1)));
+            }
+            MockedLocalityUtil.init(keys, 7);
+            final TupleRange range = TupleRange.between(Tuple.from(3), Tuple.from(45));
+            final List<Tuple> expected = recordStore.scanRecords(range, null, ScanProperties.FORWARD_SCAN)
+                    .map(FDBStoredRecord::getPrimaryKey).asList().join();
+            assertEquals(42, expected.size());
+            final List<Tuple> ordered = recordStore.scanRecordsParallel(range, null, ScanProperties.FORWARD_SCAN, 3, true)
+                    .map(FDBStoredRecord::getPrimaryKey).asList().join();
+            assertEquals(expected, ordered);
+            final List<Tuple> unordered = recordStore.scanRecordsParallel(range, null, ScanProperties.FORWARD_SCAN, 3, false)
+                    .map(FDBStoredRecord::getPrimaryKey).asList().join();
+            assertEquals(expected.size(), unordered.size());
+            assertEquals(new HashSet<>(expected), new HashSet<>(unordered));
+
+            final Index index = recordStore.getRecordMetaData().getIndex("MySimpleRecord$num_value_unique");
+            keys.clear();
+            for (int i = 51; i <= 100; i++) {
+                keys.add(recordStore.indexSubspace(index).pack(Tuple.from(i, 100 - i)));
+            }
+            MockedLocalityUtil.init(keys, 5);
+            final List<IndexEntry> expectedEntries = recordStore.scanIndex(index, IndexScanType.BY_VALUE, TupleRange.ALL, null, ScanProperties.REVERSE_SCAN)
+                    .asList().join();
+            assertEquals(50, expectedEntries.size());
+            final List<IndexEntry> entries = recordStore.scanIndexParallel(index, TupleRange.ALL, null,
+                    new ScanProperties(ExecuteProperties.newBuilder().setReturnedRowLimit(20).build(), true), 2, true)
+                    .asList().join();
+            assertEquals(expectedEntries.subList(0, 20), entries);
+            commit(context);
+        }
+        database.close();
+    }
+
     private List<Pair<Tuple, Tuple>> getOneRangePerSplit(TupleRange tupleRange, List<Tuple> boundaries) {
         List<Tuple> newBoundaries = new ArrayList<>(boundaries);
         if (tupleRange.getLow().compareTo(boundaries.get(0)) < 0) {
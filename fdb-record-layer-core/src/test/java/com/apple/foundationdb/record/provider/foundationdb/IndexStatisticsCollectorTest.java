@@ -0,0 +1,118 @@
+/*
+ * IndexStatisticsCollectorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.metadata.Index;
+import com.apple.foundationdb.record.metadata.IndexTypes;
+import com.apple.foundationdb.record.metadata.Key;
+import com.apple.test.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link IndexStatisticsCollector}.
+ */
+@Tag(Tags.RequiresFDB)
+public class IndexStatisticsCollectorTest extends FDBRecordStoreTestBase {
+
+    private void saveRecords(int count) throws Exception {
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            for (int i = 0; i < count; i++) {
+                recordStore.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                        .setRecNo(i)
+                        .setNumValue3Indexed(i % 3)
+                        .setStrValueIndexed(i % 2 == 0 ? "even" : "odd")
+                        .build());
+            }
+            commit(context);
+        }
+    }
+
+    @Test
+    public void collectAndLoad() throws Exception {
+        saveRecords(100);
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            final Index index = recordStore.getRecordMetaData().getIndex("MySimpleRecord$num_value_3_indexed");
+            assertNull(IndexStatisticsCollector.loadAsync(recordStore, index).join());
+
+            final IndexStatistics statistics = new IndexStatisticsCollector(recordStore, index).collectAndSaveAsync().join();
+            assertTrue(statistics.isExact());
+            assertEquals(100L, statistics.getEntryCount());
+            assertEquals(3L, statistics.getDistinctPrefixCounts().get(0));
+            assertEquals(1, timer.getCount(FDBStoreTimer.Events.COLLECT_INDEX_STATISTICS));
+            assertEquals(statistics, IndexStatisticsCollector.loadAsync(recordStore, index).join());
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            final Map<String, IndexStatistics> all = IndexStatisticsCollector.loadAllAsync(recordStore).join();
+            assertEquals(1, all.size());
+            assertNotNull(all.get("MySimpleRecord$num_value_3_indexed"));
+        }
+    }
+
+    @Test
+    public void sampled() throws Exception {
+        saveRecords(200);
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            final Index index = recordStore.getRecordMetaData().getIndex("MySimpleRecord$str_value_indexed");
+            final IndexStatistics statistics = new IndexStatisticsCollector(recordStore, index, 50, 5).collectAsync().join();
+            assertFalse(statistics.isExact());
+            assertTrue(statistics.getEntryCount() >= 50L);
+            assertTrue(statistics.getHistogramBoundaries().size() <= 6);
+        }
+    }
+
+    @Test
+    public void clearedWithIndexData() throws Exception {
+        saveRecords(10);
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            final Index index = recordStore.getRecordMetaData().getIndex("MySimpleRecord$num_value_3_indexed");
+            new IndexStatisticsCollector(recordStore, index).collectAndSaveAsync().join();
+            recordStore.clearAndMarkIndexWriteOnly(index).join();
+            assertNull(IndexStatisticsCollector.loadAsync(recordStore, index).join());
+        }
+    }
+
+    @Test
+    public void onlyValueIndexes() throws Exception {
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            final Index index = new Index("rank", Key.Expressions.field("num_value_unique").ungrouped(), IndexTypes.RANK);
+            assertThrows(RecordCoreArgumentException.class, () -> new IndexStatisticsCollector(recordStore, index));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * IndexStatisticsTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.record.EndpointType;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.TupleRange;
+import com.apple.foundationdb.tuple.Tuple;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link IndexStatistics} and the estimation done by {@link IndexStatisticsCollector}.
+ */
+public class IndexStatisticsTest {
+
+    @Test
+    public void serialization() {
+        final IndexStatistics statistics = new IndexStatistics("index", 1000L, 64000L, false,
+                Arrays.asList(10L, 1000L), Arrays.asList(Tuple.from("a", 1L), Tuple.from("m", 2L), Tuple.from("z", 3L)));
+        assertEquals(statistics, IndexStatistics.fromBytes(statistics.toBytes()));
+        assertEquals(64.0, statistics.getAverageEntrySize());
+    }
+
+    @Test
+    public void unknownFormatVersion() {
+        final byte[] bytes = Tuple.from(99L, "index").pack();
+        assertThrows(RecordCoreException.class, () -> IndexStatistics.fromBytes(bytes));
+    }
+
+    @Test
+    public void selectivity() {
+        final List<Tuple> boundaries = new ArrayList<>();
+        for (long i = 0; i <= 100; i += 10) {
+            boundaries.add(Tuple.from(i));
+        }
+        final IndexStatistics statistics = new IndexStatistics("index", 1000L, 10000L, true, Arrays.asList(100L), boundaries);
+        assertEquals(0.01, statistics.estimateEqualitySelectivity(1));
+        assertEquals(1.0, statistics.estimateEqualitySelectivity(0));
+        // [20, 50] contains the buckets [20, 30], [30, 40] and [40, 50] and only overlaps [50, 60] at its boundary
+        assertEquals(0.35, statistics.estimateRangeSelectivity(new TupleRange(Tuple.from(20L), Tuple.from(50L),
+                EndpointType.RANGE_INCLUSIVE, EndpointType.RANGE_INCLUSIVE)), 1e-9);
+        // [25, 55) partly overlaps [20, 30] and [50, 60] and contains [30, 40] and [40, 50]
+        assertEquals(0.3, statistics.estimateRangeSelectivity(new TupleRange(Tuple.from(25L), Tuple.from(55L),
+                EndpointType.RANGE_INCLUSIVE, EndpointType.RANGE_EXCLUSIVE)), 1e-9);
+        // (21, 29) is within a single bucket and so is estimated at half a bucket
+        assertEquals(0.05, statistics.estimateRangeSelectivity(new TupleRange(Tuple.from(21L), Tuple.from(29L),
+                EndpointType.RANGE_EXCLUSIVE, EndpointType.RANGE_EXCLUSIVE)), 1e-9);
+        // > 100 is beyond all buckets but is still assumed to match half a bucket
+        assertEquals(0.05, statistics.estimateRangeSelectivity(new TupleRange(Tuple.from(100L), null,
+                EndpointType.RANGE_EXCLUSIVE, EndpointType.TREE_END)), 1e-9);
+        assertEquals(1.0, statistics.estimateRangeSelectivity(TupleRange.ALL));
+    }
+
+    @Test
+    public void exactFromSample() {
+        final List<Tuple> keys = new ArrayList<>();
+        for (long i = 0; i < 100; i++) {
+            keys.add(Tuple.from(i / 10, i));
+        }
+        final IndexStatistics statistics = IndexStatisticsCollector.fromSample("index", 2, keys, 2000L, 0L, true, 4);
+        assertTrue(statistics.isExact());
+        assertEquals(100L, statistics.getEntryCount());
+        assertEquals(2000L, statistics.getSizeBytes());
+        assertEquals(Arrays.asList(10L, 100L), statistics.getDistinctPrefixCounts());
+        assertEquals(Arrays.asList(Tuple.from(0L, 0L), Tuple.from(2L, 24L), Tuple.from(4L, 49L), Tuple.from(7L, 74L), Tuple.from(9L, 99L)),
+                statistics.getHistogramBoundaries());
+    }
+
+    @Test
+    public void extrapolatedFromSample() {
+        // A sample of 100 out of 10000 entries, of which the first column only has 5 values
+        final List<Tuple> keys = new ArrayList<>();
+        for (long i = 0; i < 100; i++) {
+            keys.add(Tuple.from(i / 20, i * 100));
+        }
+        final IndexStatistics statistics = IndexStatisticsCollector.fromSample("index", 2, keys, 1000L, 100000L, false, 10);
+        assertFalse(statistics.isExact());
+        assertEquals(10000L, statistics.getEntryCount());
+        // Values seen more than once are assumed to have been seen already
+        assertEquals(5L, statistics.getDistinctPrefixCounts().get(0));
+        // Values only seen once are scaled up by the square root of the inverse sampling fraction
+        assertEquals(1000L, statistics.getDistinctPrefixCounts().get(1));
+        assertEquals(11, statistics.getHistogramBoundaries().size());
+    }
+
+    @Test
+    public void emptySample() {
+        final IndexStatistics statistics = IndexStatisticsCollector.fromSample("index", 1, new ArrayList<>(), 0L, 0L, true, 10);
+        assertEquals(0L, statistics.getEntryCount());
+        assertEquals(Arrays.asList(0L), statistics.getDistinctPrefixCounts());
+        assertTrue(statistics.getHistogramBoundaries().isEmpty());
+        assertEquals(1.0, statistics.estimateEqualitySelectivity(1));
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * MultiStoreQueryExecutorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb;
+
+import com.apple.foundationdb.record.ExecuteProperties;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.ScanProperties;
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.provider.foundationdb.keyspace.KeySpacePath;
+import com.apple.foundationdb.record.provider.foundationdb.keyspace.ResolvedKeySpacePath;
+import com.apple.foundationdb.record.query.RecordQuery;
+import com.apple.foundationdb.record.query.expressions.Query;
+import com.apple.test.Tags;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link MultiStoreQueryExecutor}.
+ */
+@Tag(Tags.RequiresFDB)
+public class MultiStoreQueryExecutorTest extends FDBRecordStoreTestBase {
+    private static final int STORE_COUNT = 10;
+    private final KeySpacePath multiStoreRoot = TestKeySpace.getKeyspacePath("record-test", "unit", "multiRecordStore");
+    private final RecordQuery query = RecordQuery.newBuilder()
+            .setRecordType("MySimpleRecord")
+            .setFilter(Query.field("num_value_2").equalsValue(0))
+            .build();
+
+    @BeforeEach
+    public void createStores() {
+        try (FDBRecordContext context = openContext()) {
+            multiStoreRoot.deleteAllData(context);
+            openSimpleRecordStore(context, NO_HOOK);
+            for (int i = 0; i < STORE_COUNT; i++) {
+                final FDBRecordStore store = recordStore.asBuilder()
+                        .setKeySpacePath(multiStoreRoot.add("storePath", "store_" + i))
+                        .createOrOpen();
+                for (int j = 0; j < 10; j++) {
+                    store.saveRecord(TestRecords1Proto.MySimpleRecord.newBuilder()
+                            .setRecNo(j)
+                            .setNumValue2(j % 3)
+                            .setStrValueIndexed("store_" + i)
+                            .build());
+                }
+            }
+            commit(context);
+        }
+    }
+
+    @AfterEach
+    public void deleteStores() {
+        try (FDBRecordContext context = openContext()) {
+            multiStoreRoot.deleteAllData(context);
+            commit(context);
+        }
+    }
+
+    @Nonnull
+    private MultiStoreQueryExecutor.Builder executorBuilder() {
+        return MultiStoreQueryExecutor.newBuilder()
+                .setStoreBuilder(recordStore.asBuilder())
+                .setPath(multiStoreRoot, "storePath")
+                .setQuery(query);
+    }
+
+    @Nonnull
+    private static String describe(@Nonnull MultiStoreQueryExecutor.StoreRecord storeRecord) {
+        final TestRecords1Proto.MySimpleRecord record = TestRecords1Proto.MySimpleRecord.newBuilder()
+                .mergeFrom(storeRecord.getRecord().getRecord())
+                .build();
+        assertEquals(storeRecord.getPath().getValue(), record.getStrValueIndexed());
+        return record.getStrValueIndexed() + "/" + record.getRecNo();
+    }
+
+    @Nonnull
+    private List<String> expectedInListingOrder(@Nonnull FDBRecordContext context) {
+        final List<String> expected = new ArrayList<>();
+        for (ResolvedKeySpacePath storePath : multiStoreRoot.listSubdirectory(context, "storePath", ScanProperties.FORWARD_SCAN)) {
+            for (int j = 0; j < 10; j += 3) {
+                expected.add(storePath.getLogicalValue() + "/" + j);
+            }
+        }
+        return expected;
+    }
+
+    @ParameterizedTest(name = "allStores [ordered = {0}]")
+    @ValueSource(booleans = {false, true})
+    public void allStores(boolean ordered) {
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, NO_HOOK);
+            final MultiStoreQueryExecutor executor = executorBuilder()
+                    .setParallelism(3)
+                    .setOrdered(ordered)
+                    .build();
+            final List<String> results = executor.execute(context, null, ExecuteProperties.SERIAL_EXECUTE)
+                    .map(MultiStoreQueryExecutorTest::describe)
+                    .asList().join();
+            final List<String> expected = expectedInListingOrder(context);
+            if (ordered) {
+                assertEquals(expected, results);
+            } else {
+                assertEquals(expected.size(), results.size());
+                assertEquals(new HashSet<>(expected), new HashSet<>(results));
+            }
+            assertEquals(1, executor.getPlanCount());
+        }
+    }
+
+    @ParameterizedTest(name = "resume [ordered = {0}]")
+    @ValueSource(booleans = {false, true})
+    public void resume(boolean ordered) {
+        final MultiStoreQueryExecutor executor;
+        final List<String> expected;
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, NO_HOOK);
+            executor = executorBuilder()
+                    .setParallelism(4)
+                    .setBufferSize(5)
+                    .setOrdered(ordered)
+                    .build();
+            expected = expectedInListingOrder(context);
+        }
+        final List<String> results = new ArrayList<>();
+        byte[] continuation = null;
+        do {
+            try (FDBRecordContext context = openContext()) {
+                final RecordCursor<MultiStoreQueryExecutor.StoreRecord> cursor = executor.execute(context, continuation,
+                        ExecuteProperties.newBuilder().setReturnedRowLimit(7).build());
+                RecordCursorResult<MultiStoreQueryExecutor.StoreRecord> result;
+                while ((result = cursor.getNext()).hasNext()) {
+                    results.add(describe(result.get()));
+                }
+                continuation = result.getContinuation().toBytes();
+            }
+        } while (continuation != null);
+        if (ordered) {
+            assertEquals(expected, results);
+        } else {
+            assertEquals(expected.size(), results.size());
+            assertEquals(new HashSet<>(expected), new HashSet<>(results));
+        }
+        assertEquals(1, executor.getPlanCount());
+    }
+
+    @Test
+    public void planPerIndexStates() {
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, NO_HOOK);
+            final FDBRecordStore store = recordStore.asBuilder()
+                    .setKeySpacePath(multiStoreRoot.add("storePath", "store_3"))
+                    .open();
+            store.markIndexDisabled("MySimpleRecord$str_value_indexed").join();
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context, NO_HOOK);
+            final MultiStoreQueryExecutor executor = executorBuilder().build();
+            final List<String> results = executor.execute(context, null, ExecuteProperties.SERIAL_EXECUTE)
+                    .map(MultiStoreQueryExecutorTest::describe)
+                    .asList().join();
+            assertEquals(STORE_COUNT * 4, results.size());
+            assertEquals(2, executor.getPlanCount());
+            assertEquals(List.of("store_3/0", "store_3/3", "store_3/6", "store_3/9"),
+                    results.stream().filter(result -> result.startsWith("store_3/")).collect(Collectors.toList()));
+        }
+    }
+}
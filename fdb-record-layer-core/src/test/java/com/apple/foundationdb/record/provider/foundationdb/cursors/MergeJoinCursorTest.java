@@ -0,0 +1,176 @@
+/*
+ * MergeJoinCursorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.cursors;
+
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorTest;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.tuple.Tuple;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link MergeJoinCursor}.
+ */
+public class MergeJoinCursorTest {
+    private static final List<Tuple> LEFT = Arrays.asList(
+            Tuple.from(1, "a"), Tuple.from(2, "b"), Tuple.from(2, "c"), Tuple.from(3, "d"), Tuple.from(5, "e"));
+    private static final List<Tuple> RIGHT = Arrays.asList(
+            Tuple.from(0, "x"), Tuple.from(2, "y"), Tuple.from(2, "z"), Tuple.from(3, "w"), Tuple.from(4, "v"),
+            Tuple.from(5, "u"), Tuple.from(5, "t"));
+    private static final List<String> EXPECTED = Arrays.asList("b-y", "b-z", "c-y", "c-z", "d-w", "e-u", "e-t");
+
+    @Nonnull
+    private static List<Object> joinKey(@Nonnull Tuple tuple) {
+        return tuple.getItems().subList(0, 1);
+    }
+
+    @Nonnull
+    private static MergeJoinCursor<Tuple> join(@Nonnull Function<byte[], RecordCursor<Tuple>> left,
+                                               @Nonnull Function<byte[], RecordCursor<Tuple>> right,
+                                               boolean reverse, @Nullable byte[] continuation,
+                                               @Nullable FDBStoreTimer timer) {
+        return MergeJoinCursor.create(MergeJoinCursorTest::joinKey, MergeJoinCursorTest::joinKey, reverse,
+                left, right, continuation, timer);
+    }
+
+    @Nonnull
+    private static Function<byte[], RecordCursor<Tuple>> listCursor(@Nonnull List<Tuple> list) {
+        return continuation -> RecordCursor.fromList(list, continuation);
+    }
+
+    private static void addPairs(@Nonnull List<String> pairs, @Nonnull MergeJoinCursor.Match<Tuple> match) {
+        for (Tuple right : match.getRight()) {
+            pairs.add(match.getLeft().getString(1) + "-" + right.getString(1));
+        }
+    }
+
+    @Test
+    public void manyToMany() {
+        final FDBStoreTimer timer = new FDBStoreTimer();
+        final List<String> pairs = new ArrayList<>();
+        try (MergeJoinCursor<Tuple> cursor = join(listCursor(LEFT), listCursor(RIGHT), false, null, timer)) {
+            RecordCursorResult<MergeJoinCursor.Match<Tuple>> result;
+            while ((result = cursor.getNext()).hasNext()) {
+                addPairs(pairs, result.get());
+            }
+            assertTrue(result.getNoNextReason().isSourceExhausted());
+            assertTrue(result.getContinuation().isEnd());
+        }
+        assertEquals(EXPECTED, pairs);
+        assertEquals(4, timer.getCount(FDBStoreTimer.Counts.QUERY_MERGE_JOIN_MATCHES));
+        // a from the left and x and v from the right.
+        assertEquals(3, timer.getCount(FDBStoreTimer.Counts.QUERY_MERGE_JOIN_NONMATCHES));
+    }
+
+    @Test
+    public void reverse() {
+        final List<Tuple> left = new ArrayList<>(LEFT);
+        Collections.reverse(left);
+        final List<Tuple> right = new ArrayList<>(RIGHT);
+        Collections.reverse(right);
+        final List<String> pairs = join(listCursor(left), listCursor(right), true, null, null)
+                .asList().join().stream()
+                .collect(ArrayList::new, MergeJoinCursorTest::addPairs, ArrayList::addAll);
+        assertEquals(Arrays.asList("e-t", "e-u", "d-w", "c-z", "c-y", "b-z", "b-y"), pairs);
+    }
+
+    @Test
+    public void nullsDoNotMatch() {
+        final List<Tuple> left = Arrays.asList(Tuple.from(null, "a"), Tuple.from(null, "b"), Tuple.from(1, "c"));
+        final List<Tuple> right = Arrays.asList(Tuple.from(null, "x"), Tuple.from(1, "y"));
+        final List<String> pairs = join(listCursor(left), listCursor(right), false, null, null)
+                .asList().join().stream()
+                .collect(ArrayList::new, MergeJoinCursorTest::addPairs, ArrayList::addAll);
+        assertEquals(Collections.singletonList("c-y"), pairs);
+    }
+
+    @Test
+    public void noMatches() {
+        final List<Tuple> left = Arrays.asList(Tuple.from(1, "a"), Tuple.from(3, "b"));
+        final List<Tuple> right = Arrays.asList(Tuple.from(2, "x"), Tuple.from(4, "y"));
+        try (MergeJoinCursor<Tuple> cursor = join(listCursor(left), listCursor(right), false, null, null)) {
+            final RecordCursorResult<MergeJoinCursor.Match<Tuple>> result = cursor.getNext();
+            assertFalse(result.hasNext());
+            assertTrue(result.getContinuation().isEnd());
+        }
+    }
+
+    @Test
+    public void resumeWithRowLimit() {
+        for (int limit = 1; limit <= 5; limit++) {
+            final List<String> pairs = new ArrayList<>();
+            byte[] continuation = null;
+            int executions = 0;
+            do {
+                try (RecordCursor<MergeJoinCursor.Match<Tuple>> cursor = join(listCursor(LEFT), listCursor(RIGHT), false, continuation, null)
+                        .limitRowsTo(limit)) {
+                    RecordCursorResult<MergeJoinCursor.Match<Tuple>> result;
+                    while ((result = cursor.getNext()).hasNext()) {
+                        addPairs(pairs, result.get());
+                    }
+                    continuation = result.getContinuation().toBytes();
+                }
+                executions++;
+            } while (continuation != null && executions < 20);
+            assertNull(continuation);
+            assertEquals(EXPECTED, pairs, "limit " + limit);
+        }
+    }
+
+    @Test
+    public void resumeAfterOutOfBandLimits() {
+        // Three is enough to read a whole group of two plus the following element.
+        final Function<byte[], RecordCursor<Tuple>> left = listCursor(LEFT).andThen(cursor -> new RecordCursorTest.FakeOutOfBandCursor<>(cursor, 3));
+        final Function<byte[], RecordCursor<Tuple>> right = listCursor(RIGHT).andThen(cursor -> new RecordCursorTest.FakeOutOfBandCursor<>(cursor, 3));
+        final List<String> pairs = new ArrayList<>();
+        byte[] continuation = null;
+        int executions = 0;
+        do {
+            try (MergeJoinCursor<Tuple> cursor = join(left, right, false, continuation, null)) {
+                RecordCursorResult<MergeJoinCursor.Match<Tuple>> result;
+                while ((result = cursor.getNext()).hasNext()) {
+                    addPairs(pairs, result.get());
+                }
+                if (!result.getContinuation().isEnd()) {
+                    assertTrue(result.getNoNextReason().isOutOfBand());
+                }
+                continuation = result.getContinuation().toBytes();
+            }
+            executions++;
+        } while (continuation != null && executions < 20);
+        assertNull(continuation);
+        assertEquals(EXPECTED, pairs);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * ParallelScanCursorTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.cursors;
+
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.record.EndpointType;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.RecordCursorResult;
+import com.apple.foundationdb.record.RecordCursorTest;
+import com.apple.foundationdb.record.TupleRange;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ParallelScanCursor}.
+ */
+public class ParallelScanCursorTest {
+    private static final List<Tuple> keys = IntStream.range(0, 200).mapToObj(Tuple::from).collect(Collectors.toList());
+    private static final List<Tuple> splitPoints = List.of(Tuple.from(-5), Tuple.from(17), Tuple.from(50), Tuple.from(50),
+            Tuple.from(51), Tuple.from(120), Tuple.from(199), Tuple.from(500));
+
+    @Nonnull
+    private static List<Tuple> keysIn(@Nonnull TupleRange range, boolean reverse) {
+        final Range keyRange = range.toRange();
+        final List<Tuple> result = keys.stream()
+                .filter(key -> ByteArrayUtil.compareUnsigned(key.pack(), keyRange.begin) >= 0 && ByteArrayUtil.compareUnsigned(key.pack(), keyRange.end) < 0)
+                .collect(Collectors.toList());
+        if (reverse) {
+            Collections.reverse(result);
+        }
+        return result;
+    }
+
+    @Nonnull
+    private static BiFunction<TupleRange, byte[], RecordCursor<Tuple>> scan(boolean reverse, boolean async) {
+        return (range, continuation) -> {
+            final RecordCursor<Tuple> cursor = RecordCursor.fromList(ForkJoinPool.commonPool(), keysIn(range, reverse), continuation);
+            return async ? cursor.mapPipelined(key -> CompletableFuture.supplyAsync(() -> key), 3) : cursor;
+        };
+    }
+
+    @Nonnull
+    private static ParallelScanCursor.Builder<Tuple> builder(@Nonnull TupleRange range, boolean reverse, boolean async) {
+        return new ParallelScanCursor.Builder<>(ForkJoinPool.commonPool(), range, scan(reverse, async))
+                .setSplitPoints(() -> CompletableFuture.completedFuture(splitPoints))
+                .setReverse(reverse);
+    }
+
+    static Stream<Arguments> scans() {
+        final List<Arguments> arguments = new ArrayList<>();
+        for (boolean reverse : new boolean[] {false, true}) {
+            for (boolean async : new boolean[] {false, true}) {
+                for (int parallelism : new int[] {1, 3, 10}) {
+                    for (int bufferSize : new int[] {1, 10, 1000}) {
+                        arguments.add(Arguments.of(reverse, async, parallelism, bufferSize));
+                    }
+                }
+            }
+        }
+        return arguments.stream();
+    }
+
+    @ParameterizedTest(name = "ordered [reverse = {0}, async = {1}, parallelism = {2}, bufferSize = {3}]")
+    @MethodSource("scans")
+    void ordered(boolean reverse, boolean async, int parallelism, int bufferSize) {
+        final TupleRange range = new TupleRange(Tuple.from(3), Tuple.from(180), EndpointType.RANGE_EXCLUSIVE, EndpointType.RANGE_INCLUSIVE);
+        final List<Tuple> results = builder(range, reverse, async)
+                .setParallelism(parallelism)
+                .setBufferSize(bufferSize)
+                .setOrdered(true)
+                .build()
+                .asList().join();
+        assertEquals(keysIn(range, reverse), results);
+    }
+
+    @ParameterizedTest(name = "unordered [reverse = {0}, async = {1}, parallelism = {2}, bufferSize = {3}]")
+    @MethodSource("scans")
+    void unordered(boolean reverse, boolean async, int parallelism, int bufferSize) {
+        final List<Tuple> results = builder(TupleRange.ALL, reverse, async)
+                .setParallelism(parallelism)
+                .setBufferSize(bufferSize)
+                .build()
+                .asList().join();
+        assertEquals(keys.size(), results.size());
+        assertEquals(new HashSet<>(keys), new HashSet<>(results));
+    }
+
+    @ParameterizedTest(name = "resume [reverse = {0}, async = {1}, parallelism = {2}, bufferSize = {3}]")
+    @MethodSource("scans")
+    void resume(boolean reverse, boolean async, int parallelism, int bufferSize) {
+        for (boolean ordered : new boolean[] {false, true}) {
+            final List<Tuple> results = new ArrayList<>();
+            byte[] continuation = null;
+            do {
+                final RecordCursor<Tuple> cursor = builder(TupleRange.ALL, reverse, async)
+                        .setParallelism(parallelism)
+                        .setBufferSize(bufferSize)
+                        .setOrdered(ordered)
+                        .setContinuation(continuation)
+                        .build()
+                        .limitRowsTo(23);
+                RecordCursorResult<Tuple> result;
+                while ((result = cursor.getNext()).hasNext()) {
+                    results.add(result.get());
+                }
+                continuation = result.getContinuation().toBytes();
+            } while (continuation != null);
+            if (ordered) {
+                assertEquals(keysIn(TupleRange.ALL, reverse), results);
+            } else {
+                assertEquals(keys.size(), results.size());
+                assertEquals(new HashSet<>(keys), new HashSet<>(results));
+            }
+        }
+    }
+
+    @Test
+    void outOfBandLimit() {
+        for (boolean ordered : new boolean[] {false, true}) {
+            final List<Tuple> results = new ArrayList<>();
+            byte[] continuation = null;
+            int stops = 0;
+            do {
+                final RecordCursor<Tuple> cursor = new ParallelScanCursor.Builder<>(ForkJoinPool.commonPool(), TupleRange.ALL,
+                        (range, subRangeContinuation) -> new RecordCursorTest.FakeOutOfBandCursor<>(scan(false, true).apply(range, subRangeContinuation), 11))
+                        .setSplitPoints(() -> CompletableFuture.completedFuture(splitPoints))
+                        .setParallelism(3)
+                        .setOrdered(ordered)
+                        .setContinuation(continuation)
+                        .build();
+                RecordCursorResult<Tuple> result;
+                while ((result = cursor.getNext()).hasNext()) {
+                    results.add(result.get());
+                }
+                if (!result.getNoNextReason().isSourceExhausted()) {
+                    assertEquals(RecordCursor.NoNextReason.TIME_LIMIT_REACHED, result.getNoNextReason());
+                    assertNotNull(result.getContinuation().toBytes());
+                    stops++;
+                }
+                continuation = result.getContinuation().toBytes();
+            } while (continuation != null);
+            assertTrue(stops > 0);
+            if (ordered) {
+                assertEquals(keys, results);
+            } else {
+                assertEquals(keys.size(), results.size());
+                assertEquals(new HashSet<>(keys), new HashSet<>(results));
+            }
+        }
+    }
+
+    @Test
+    void coalesceSplitPoints() {
+        final List<Tuple> manySplitPoints = keys.subList(1, keys.size());
+        final ParallelScanCursor<Tuple> cursor = new ParallelScanCursor.Builder<>(ForkJoinPool.commonPool(), TupleRange.ALL, scan(false, false))
+                .setSplitPoints(() -> CompletableFuture.completedFuture(manySplitPoints))
+                .setParallelism(2)
+                .setOrdered(true)
+                .build();
+        assertEquals(0, cursor.getSubRangeCount());
+        assertEquals(keys, cursor.asList().join());
+        assertEquals(2 * ParallelScanCursor.SUB_RANGES_PER_SCANNER, cursor.getSubRangeCount());
+    }
+
+    @Test
+    void splitPointsNotNeededToResume() {
+        final AtomicInteger splits = new AtomicInteger();
+        final RecordCursorResult<Tuple> first = new ParallelScanCursor.Builder<>(ForkJoinPool.commonPool(), TupleRange.ALL, scan(false, false))
+                .setSplitPoints(() -> {
+                    splits.incrementAndGet();
+                    return CompletableFuture.completedFuture(splitPoints);
+                })
+                .setOrdered(true)
+                .build()
+                .getNext();
+        assertEquals(keys.get(0), first.get());
+        final ParallelScanCursor<Tuple> resumed = new ParallelScanCursor.Builder<>(ForkJoinPool.commonPool(), TupleRange.ALL, scan(false, false))
+                .setSplitPoints(() -> {
+                    splits.incrementAndGet();
+                    return CompletableFuture.completedFuture(Collections.emptyList());
+                })
+                .setOrdered(true)
+                .setContinuation(first.getContinuation().toBytes())
+                .build();
+        assertEquals(keys.subList(1, keys.size()), resumed.asList().join());
+        assertEquals(1, splits.get());
+        assertEquals(8, resumed.getSubRangeCount());
+    }
+
+    @Test
+    void failure() {
+        final RecordCursor<Tuple> cursor = new ParallelScanCursor.Builder<>(ForkJoinPool.commonPool(), TupleRange.ALL,
+                (range, continuation) -> scan(false, true).apply(range, continuation).map(key -> failOn(key, Tuple.from(130))))
+                .setSplitPoints(() -> CompletableFuture.completedFuture(splitPoints))
+                .build();
+        final CompletionException err = assertThrows(CompletionException.class, () -> cursor.asList().join());
+        assertEquals("failed", err.getCause().getMessage());
+    }
+
+    @Nullable
+    private static Tuple failOn(@Nonnull Tuple key, @Nonnull Tuple failing) {
+        if (key.equals(failing)) {
+            throw new RecordCoreException("failed");
+        }
+        return key;
+    }
+}
@@ -392,6 +392,10 @@ public class SortCursorTests extends FDBRecordStoreTestBase {
     }
 
     private FileSortAdapterBase fileSortEncryptedAdapter() throws Exception {
+        return fileSortEncryptedAdapter(false);
+    }
+
+    private FileSortAdapterBase fileSortEncryptedAdapter(boolean memoryMapped) throws Exception {
         final SecureRandom secureRandom = new SecureRandom();
         final KeyGenerator keyGen = KeyGenerator.getInstance("AES");
         keyGen.init(128, secureRandom);
@@ -417,6 +421,11 @@ public class SortCursorTests extends FDBRecordStoreTestBase {
                 return 10;
             }
 
+            @Override
+            public boolean isMemoryMapped() {
+                return memoryMapped;
+            }
+
             @Override
             public boolean isCompressed() {
                 return true;
@@ -498,4 +507,18 @@ public class SortCursorTests extends FDBRecordStoreTestBase {
         assertEquals(sortedNums, resultNums);
     }
 
+    @Test
+    public void fileSortEncryptedMemoryMapped() throws Exception {
+        final Function<byte[], RecordCursor<FDBQueriedRecord<Message>>> scanRecords =
+                continuation -> recordStore.scanRecords(null, null, EndpointType.TREE_START, EndpointType.TREE_END, continuation, ScanProperties.FORWARD_SCAN).map(FDBQueriedRecord::stored);
+        List<Integer> resultNums;
+        try (FDBRecordContext context = openContext()) {
+            openSimpleRecordStore(context);
+            try (RecordCursor<FDBQueriedRecord<Message>> cursor = FileSortCursor.create(fileSortEncryptedAdapter(true), scanRecords, timer, null, 13, 8)) {
+                resultNums = cursor.map(r -> TestRecords1Proto.MySimpleRecord.newBuilder().mergeFrom(r.getRecord()).getNumValue2()).asList().get();
+            }
+        }
+        assertEquals(sortedNums.subList(13, 21), resultNums);
+    }
+
 }
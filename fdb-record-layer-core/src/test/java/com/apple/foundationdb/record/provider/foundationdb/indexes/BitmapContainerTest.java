@@ -0,0 +1,178 @@
+/*
+ * BitmapContainerTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.provider.foundationdb.indexes;
+
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link BitmapContainer}.
+ */
+public class BitmapContainerTest {
+
+    @Nonnull
+    private static BitSet toBitSet(@Nonnull BitmapContainer container) {
+        final BitSet result = new BitSet(container.getSize());
+        for (int offset : container.toArray()) {
+            result.set(offset);
+        }
+        return result;
+    }
+
+    // Equivalent containers in each of the representations, built in different ways.
+    @Nonnull
+    private static List<BitmapContainer> representations(int size, @Nonnull BitSet bits) {
+        final BitmapContainer array = BitmapContainer.of(size, bits.stream().toArray());
+        final byte[] bitmap = new byte[(size + 7) / 8];
+        bits.stream().forEach(i -> bitmap[i / 8] |= (byte)(1 << (i % 8)));
+        final List<BitmapContainer> result = new ArrayList<>();
+        result.add(array);
+        result.add(BitmapContainer.decode(array.encode(), size));
+        final byte[] encodedBitmap = new byte[bitmap.length + 1];
+        System.arraycopy(bitmap, 0, encodedBitmap, 1, bitmap.length);
+        result.add(BitmapContainer.decode(encodedBitmap, size));
+        result.add(BitmapContainer.full(size).and(array));
+        return result;
+    }
+
+    @Nonnull
+    private static BitSet randomBits(@Nonnull Random random, int size, double density, boolean clustered) {
+        final BitSet bits = new BitSet(size);
+        if (clustered) {
+            int offset = 0;
+            while (offset < size) {
+                final int length = 1 + random.nextInt(50);
+                if (random.nextDouble() < density) {
+                    bits.set(offset, Math.min(size, offset + length));
+                }
+                offset += length;
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (random.nextDouble() < density) {
+                    bits.set(i);
+                }
+            }
+        }
+        return bits;
+    }
+
+    @ParameterizedTest(name = "operations [size = {0}]")
+    @ValueSource(ints = {16, 100, 10_000, 100_000})
+    void operations(int size) {
+        final Random random = new Random(size);
+        for (int iter = 0; iter < 20; iter++) {
+            final BitSet bits1 = randomBits(random, size, random.nextDouble(), random.nextBoolean());
+            final BitSet bits2 = randomBits(random, size, random.nextDouble() / 10, random.nextBoolean());
+            final BitSet and = (BitSet)bits1.clone();
+            and.and(bits2);
+            final BitSet or = (BitSet)bits1.clone();
+            or.or(bits2);
+            final BitSet xor = (BitSet)bits1.clone();
+            xor.xor(bits2);
+            final BitSet not = (BitSet)bits1.clone();
+            not.flip(0, size);
+            for (BitmapContainer container1 : representations(size, bits1)) {
+                assertEquals(bits1, toBitSet(container1));
+                assertEquals(bits1.cardinality(), container1.getCardinality());
+                assertEquals(not, toBitSet(container1.not()));
+                for (BitmapContainer container2 : representations(size, bits2)) {
+                    assertEquals(and, toBitSet(container1.and(container2)));
+                    assertEquals(or, toBitSet(container1.or(container2)));
+                    assertEquals(xor, toBitSet(container1.xor(container2)));
+                }
+            }
+        }
+    }
+
+    @ParameterizedTest(name = "encoding [size = {0}]")
+    @ValueSource(ints = {16, 100, 10_000, 100_000})
+    void encoding(int size) {
+        final Random random = new Random(size);
+        for (int iter = 0; iter < 20; iter++) {
+            final BitSet bits = randomBits(random, size, random.nextDouble() / (1 + iter), random.nextBoolean());
+            for (BitmapContainer container : representations(size, bits)) {
+                final BitmapContainer optimized = container.optimize();
+                assertEquals(container, optimized);
+                assertEquals(optimized, BitmapContainer.decode(optimized.encode(), size));
+                assertTrue(optimized.encode().length <= container.encode().length);
+                assertTrue(optimized.encode().length <= 1 + (size + 7) / 8);
+            }
+        }
+    }
+
+    @Test
+    void encodingChoice() {
+        assertEquals(BitmapContainer.ARRAY_TYPE, BitmapContainer.of(1000, 1, 500, 999).optimize().encode()[0]);
+        assertEquals(BitmapContainer.RUN_TYPE, BitmapContainer.full(1000).remove(500).optimize().encode()[0]);
+        final BitSet alternating = new BitSet();
+        for (int i = 0; i < 1000; i += 2) {
+            alternating.set(i);
+        }
+        assertEquals(BitmapContainer.BITMAP_TYPE, BitmapContainer.of(1000, alternating.stream().toArray()).optimize().encode()[0]);
+        // A full container fits in a single narrow run.
+        assertEquals(5, BitmapContainer.full(65536).optimize().encode().length);
+        assertEquals(BitmapContainer.RUN_TYPE | BitmapContainer.WIDE_FLAG, BitmapContainer.full(100_000).optimize().encode()[0]);
+    }
+
+    @Test
+    void bitmapEncodingMatchesUncompressed() {
+        final byte[] bitmap = new byte[] {(byte)0x81, 0x00, 0x10};
+        final BitmapContainer container = BitmapContainer.fromBitmap(bitmap);
+        assertArrayEquals(new int[] {0, 7, 20}, container.toArray());
+        assertArrayEquals(new byte[] {BitmapContainer.BITMAP_TYPE, (byte)0x81, 0x00, 0x10}, container.encode());
+        assertArrayEquals(bitmap, BitmapContainer.of(24, 0, 7, 20).toBitmap());
+    }
+
+    @Test
+    void addRemoveSlice() {
+        BitmapContainer container = BitmapContainer.empty(100);
+        assertTrue(container.isEmpty());
+        container = container.add(10).add(11).add(12).add(50);
+        assertArrayEquals(new int[] {10, 11, 12, 50}, container.toArray());
+        assertTrue(container.contains(11));
+        container = container.remove(11);
+        assertArrayEquals(new int[] {10, 12, 50}, container.toArray());
+        assertArrayEquals(new int[] {0, 2, 40}, container.slice(10, 60).toArray());
+        assertEquals(50, container.slice(10, 60).getSize());
+        assertArrayEquals(new int[] {0, 1}, BitmapContainer.full(100).slice(98, 100).toArray());
+        assertTrue(container.remove(10).remove(12).remove(50).isEmpty());
+    }
+
+    @Test
+    void invalid() {
+        assertThrows(RecordCoreArgumentException.class, () -> BitmapContainer.of(10, 10));
+        assertThrows(RecordCoreArgumentException.class, () -> BitmapContainer.of(10, 1).and(BitmapContainer.of(20, 1)));
+    }
+}
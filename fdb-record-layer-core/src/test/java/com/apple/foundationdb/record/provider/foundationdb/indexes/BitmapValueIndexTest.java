@@ -644,6 +644,122 @@ class BitmapValueIndexTest extends FDBRecordStoreTestBase {
         }
     }
 
+    @Test
+    void roaring() {
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData(ROARING_REC_NO_BY_STR_NUMS_HOOK));
+            saveRecords(100, 200);
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData(ROARING_REC_NO_BY_STR_NUMS_HOOK));
+            final Index index = recordStore.getRecordMetaData().getIndex("rec_no_by_str_num3");
+            assertThat(
+                    collectOnBits(recordStore.scanIndex(index, IndexScanType.BY_GROUP,
+                            TupleRange.allOf(Tuple.from("odd", 1)),
+                            null, ScanProperties.FORWARD_SCAN)),
+                    equalTo(IntStream.range(100, 200).boxed()
+                            .filter(i -> (i & 1) == 1)
+                            .filter(i -> (i % 5) == 1)
+                            .collect(Collectors.toList())));
+            assertThat(
+                    collectOnBits(recordStore.scanIndex(index, IndexScanType.BY_GROUP,
+                            TupleRange.between(Tuple.from("odd", 1, 150), Tuple.from("odd", 1, 175)),
+                            null, ScanProperties.FORWARD_SCAN)),
+                    equalTo(IntStream.range(150, 175).boxed()
+                            .filter(i -> (i & 1) == 1)
+                            .filter(i -> (i % 5) == 1)
+                            .collect(Collectors.toList())));
+            // Sparse entries are stored as arrays.
+            final List<IndexEntry> entries = recordStore.scanIndex(index, BitmapValueIndexMaintainer.BY_GROUP_CONTAINERS,
+                    TupleRange.allOf(Tuple.from("odd", 1)), null, ScanProperties.FORWARD_SCAN).asList().join();
+            assertEquals(2, entries.size());
+            for (IndexEntry entry : entries) {
+                assertEquals(BitmapContainer.ARRAY_TYPE, entry.getValue().getBytes(0)[0]);
+                assertEquals(128L, entry.getValue().getLong(1));
+            }
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData(ROARING_REC_NO_BY_STR_NUMS_HOOK));
+            for (int recNo = 100; recNo < 200; recNo++) {
+                if ((recNo & 1) == 1 && (recNo % 5) == 1 && recNo != 151) {
+                    recordStore.deleteRecord(Tuple.from(recNo));
+                }
+            }
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData(ROARING_REC_NO_BY_STR_NUMS_HOOK));
+            final Index index = recordStore.getRecordMetaData().getIndex("rec_no_by_str_num3");
+            assertThat(
+                    collectOnBits(recordStore.scanIndex(index, IndexScanType.BY_GROUP,
+                            TupleRange.allOf(Tuple.from("odd", 1)),
+                            null, ScanProperties.FORWARD_SCAN)),
+                    equalTo(Collections.singletonList(151)));
+            recordStore.deleteRecord(Tuple.from(151));
+            // Empty containers are removed.
+            assertEquals(Collections.emptyList(), recordStore.scanIndex(index, BitmapValueIndexMaintainer.BY_GROUP_CONTAINERS,
+                    TupleRange.allOf(Tuple.from("odd", 1)), null, ScanProperties.FORWARD_SCAN).asList().join());
+        }
+    }
+
+    @Test
+    void roaringDense() {
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData(ROARING_REC_NO_BY_STR_NUMS_HOOK));
+            saveRecords(0, 100);
+            for (int recNo = 0; recNo < 100; recNo += 10) {
+                recordStore.deleteRecord(Tuple.from(recNo));
+            }
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData(ROARING_REC_NO_BY_STR_NUMS_HOOK));
+            final Index index = recordStore.getRecordMetaData().getIndex("rec_no_by_str");
+            final List<IndexEntry> entries = recordStore.scanIndex(index, BitmapValueIndexMaintainer.BY_GROUP_CONTAINERS,
+                    TupleRange.allOf(Tuple.from("even")), null, ScanProperties.FORWARD_SCAN).asList().join();
+            assertEquals(1, entries.size());
+            assertEquals(BitmapContainer.BITMAP_TYPE, entries.get(0).getValue().getBytes(0)[0]);
+            // From now on, updated with atomic mutations.
+            recordStore.deleteRecord(Tuple.from(2));
+            saveRecords(0, 1);
+            assertThat(
+                    collectOnBits(recordStore.scanIndex(index, IndexScanType.BY_GROUP,
+                            TupleRange.allOf(Tuple.from("even")),
+                            null, ScanProperties.FORWARD_SCAN)),
+                    equalTo(IntStream.range(0, 100).boxed()
+                            .filter(i -> (i & 1) == 0)
+                            .filter(i -> i == 0 || (i % 10 != 0 && i != 2))
+                            .collect(Collectors.toList())));
+        }
+    }
+
+    @Test
+    void roaringAndNotQuery() {
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData(ROARING_REC_NO_BY_STR_NUMS_HOOK));
+            saveRecords(100, 200);
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            createOrOpenRecordStore(context, metaData(ROARING_REC_NO_BY_STR_NUMS_HOOK));
+            setupPlanner(null);
+            final RecordQueryPlan queryPlan = plan(BITMAP_VALUE_REC_NO_BY_STR, Query.and(
+                    Query.field("str_value").equalsValue("odd"),
+                    Query.field("num_value_2").equalsValue(1),
+                    Query.not(Query.field("num_value_3").equalsValue(2))));
+            assertThat(queryPlan, compositeBitmap(hasToString("[0] BITAND BITNOT [1]"), Arrays.asList(
+                    coveringIndexScan(indexScan(allOf(indexName("rec_no_by_str_num2"), indexScanType(IndexScanType.BY_GROUP), bounds(hasTupleString("[[odd, 1],[odd, 1]]"))))),
+                    coveringIndexScan(indexScan(allOf(indexName("rec_no_by_str_num3"), indexScanType(IndexScanType.BY_GROUP), bounds(hasTupleString("[[odd, 2],[odd, 2]]"))))))));
+            assertThat(
+                    collectOnBits(queryPlan.execute(recordStore).map(FDBQueriedRecord::getIndexEntry)),
+                    equalTo(IntStream.range(100, 200).boxed()
+                            .filter(i -> (i & 1) == 1)
+                            .filter(i -> (i % 7) == 1 && !((i % 5) == 2))
+                            .collect(Collectors.toList())));
+        }
+    }
+
     protected static final GroupingKeyExpression REC_NO_BY_STR = concatenateFields("str_value", "rec_no").group(1);
     protected static final GroupingKeyExpression REC_NO_BY_STR_NUM2 = concatenateFields("str_value", "num_value_2", "rec_no").group(1);
     protected static final GroupingKeyExpression REC_NO_BY_STR_NUM3 = concatenateFields("str_value", "num_value_3", "rec_no").group(1);
@@ -654,6 +770,17 @@ class BitmapValueIndexTest extends FDBRecordStoreTestBase {
         metadata.addIndex(recordType, new Index("rec_no_by_str_num3", REC_NO_BY_STR_NUM3, IndexTypes.BITMAP_VALUE, SMALL_BITMAP_OPTIONS));
     };
 
+    // Mixes encodings, with the entries of the uncompressed index being a whole number of bytes like the roaring ones.
+    protected static final RecordMetaDataHook ROARING_REC_NO_BY_STR_NUMS_HOOK = metadata -> {
+        final RecordTypeBuilder recordType = metadata.getRecordType("MySimpleRecord");
+        final Map<String, String> roaringOptions = ImmutableMap.of(IndexOptions.BITMAP_VALUE_ENTRY_SIZE_OPTION, "128",
+                IndexOptions.BITMAP_VALUE_ENCODING_OPTION, BitmapValueIndexMaintainer.ROARING_ENCODING);
+        metadata.addIndex(recordType, new Index("rec_no_by_str", REC_NO_BY_STR, IndexTypes.BITMAP_VALUE, roaringOptions));
+        metadata.addIndex(recordType, new Index("rec_no_by_str_num2", REC_NO_BY_STR_NUM2, IndexTypes.BITMAP_VALUE,
+                Collections.singletonMap(IndexOptions.BITMAP_VALUE_ENTRY_SIZE_OPTION, "128")));
+        metadata.addIndex(recordType, new Index("rec_no_by_str_num3", REC_NO_BY_STR_NUM3, IndexTypes.BITMAP_VALUE, roaringOptions));
+    };
+
     protected static final IndexAggregateFunctionCall BITMAP_VALUE_REC_NO_BY_STR = new IndexAggregateFunctionCall(FunctionNames.BITMAP_VALUE, REC_NO_BY_STR);
 
     protected RecordMetaData metaData(@Nullable RecordMetaDataHook hook) {
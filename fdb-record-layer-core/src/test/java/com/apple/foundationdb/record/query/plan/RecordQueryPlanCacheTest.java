@@ -0,0 +1,153 @@
+/*
+ * RecordQueryPlanCacheTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan;
+
+import com.apple.foundationdb.record.IndexState;
+import com.apple.foundationdb.record.RecordMetaData;
+import com.apple.foundationdb.record.RecordStoreState;
+import com.apple.foundationdb.record.TestRecords1Proto;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.record.query.ParameterRelationshipGraph;
+import com.apple.foundationdb.record.query.RecordQuery;
+import com.apple.foundationdb.record.query.expressions.Query;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for {@link RecordQueryPlanCache}.
+ */
+public class RecordQueryPlanCacheTest {
+    private static final RecordMetaData META_DATA = RecordMetaData.build(TestRecords1Proto.getDescriptor());
+
+    @Nonnull
+    private static RecordQueryPlanner planner(@Nonnull RecordStoreState recordStoreState) {
+        return new RecordQueryPlanner(META_DATA, recordStoreState);
+    }
+
+    @Nonnull
+    private static RecordQuery parameterQuery() {
+        return RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord")
+                .setFilter(Query.field("str_value_indexed").equalsParameter("p"))
+                .build();
+    }
+
+    @Test
+    public void reuseAcrossPlanners() {
+        final RecordQueryPlanCache cache = new RecordQueryPlanCache();
+        final FDBStoreTimer timer = new FDBStoreTimer();
+        final RecordQueryPlan plan1 = cache.plan(planner(new RecordStoreState(null, null)), parameterQuery(),
+                ParameterRelationshipGraph.empty(), timer);
+        final RecordQueryPlan plan2 = cache.plan(planner(new RecordStoreState(null, null)), parameterQuery(),
+                ParameterRelationshipGraph.empty(), timer);
+        assertSame(plan1, plan2);
+        assertEquals(1, timer.getCount(FDBStoreTimer.Counts.PLAN_QUERY_CACHE_MISS));
+        assertEquals(1, timer.getCount(FDBStoreTimer.Counts.PLAN_QUERY_CACHE_HIT));
+        assertEquals(1L, cache.size());
+    }
+
+    @Test
+    public void literalValuesAreNotErased() {
+        final RecordQueryPlanCache cache = new RecordQueryPlanCache();
+        final RecordQuery query1 = RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord")
+                .setFilter(Query.field("str_value_indexed").equalsValue("a"))
+                .build();
+        final RecordQuery query2 = RecordQuery.newBuilder()
+                .setRecordType("MySimpleRecord")
+                .setFilter(Query.field("str_value_indexed").equalsValue("b"))
+                .build();
+        final RecordQueryPlan plan1 = cache.plan(planner(new RecordStoreState(null, null)), query1, ParameterRelationshipGraph.empty(), null);
+        final RecordQueryPlan plan2 = cache.plan(planner(new RecordStoreState(null, null)), query2, ParameterRelationshipGraph.empty(), null);
+        assertNotSame(plan1, plan2);
+        assertEquals(2L, cache.size());
+    }
+
+    @Test
+    public void indexReadabilityChangesKey() {
+        final RecordQueryPlanCache cache = new RecordQueryPlanCache();
+        final RecordQueryPlan readablePlan = cache.plan(planner(new RecordStoreState(null, null)), parameterQuery(),
+                ParameterRelationshipGraph.empty(), null);
+        final RecordStoreState writeOnly = new RecordStoreState(null,
+                ImmutableMap.of("MySimpleRecord$str_value_indexed", IndexState.WRITE_ONLY));
+        final RecordQueryPlan writeOnlyPlan = cache.plan(planner(writeOnly), parameterQuery(),
+                ParameterRelationshipGraph.empty(), null);
+        assertNotSame(readablePlan, writeOnlyPlan);
+        assertEquals(2L, cache.size());
+
+        // Write-only and disabled indexes are equally unusable by the planner
+        final RecordStoreState disabled = new RecordStoreState(null,
+                ImmutableMap.of("MySimpleRecord$str_value_indexed", IndexState.DISABLED));
+        assertSame(writeOnlyPlan, cache.plan(planner(disabled), parameterQuery(), ParameterRelationshipGraph.empty(), null));
+    }
+
+    @Test
+    public void configurationChangesKey() {
+        final RecordQueryPlanCache cache = new RecordQueryPlanCache();
+        final RecordQueryPlanner planner1 = planner(new RecordStoreState(null, null));
+        final RecordQueryPlanner planner2 = planner(new RecordStoreState(null, null));
+        planner2.setConfiguration(RecordQueryPlannerConfiguration.builder()
+                .setIndexScanPreference(QueryPlanner.IndexScanPreference.PREFER_INDEX)
+                .build());
+        final RecordQueryPlanner planner3 = planner(new RecordStoreState(null, null));
+        planner3.setConfiguration(RecordQueryPlannerConfiguration.builder()
+                .setIndexScanPreference(QueryPlanner.IndexScanPreference.PREFER_INDEX)
+                .build());
+        final RecordQueryPlan plan1 = cache.plan(planner1, parameterQuery(), ParameterRelationshipGraph.empty(), null);
+        final RecordQueryPlan plan2 = cache.plan(planner2, parameterQuery(), ParameterRelationshipGraph.empty(), null);
+        final RecordQueryPlan plan3 = cache.plan(planner3, parameterQuery(), ParameterRelationshipGraph.empty(), null);
+        assertNotSame(plan1, plan2);
+        assertSame(plan2, plan3);
+    }
+
+    @Test
+    public void metaDataIdentityChangesKey() {
+        final RecordQueryPlanCache cache = new RecordQueryPlanCache();
+        final RecordMetaData otherMetaData = RecordMetaData.build(TestRecords1Proto.getDescriptor());
+        final RecordQueryPlan plan1 = cache.plan(planner(new RecordStoreState(null, null)), parameterQuery(),
+                ParameterRelationshipGraph.empty(), null);
+        final RecordQueryPlan plan2 = cache.plan(new RecordQueryPlanner(otherMetaData, new RecordStoreState(null, null)),
+                parameterQuery(), ParameterRelationshipGraph.empty(), null);
+        assertNotSame(plan1, plan2);
+    }
+
+    @Test
+    public void bounded() {
+        final RecordQueryPlanCache cache = new RecordQueryPlanCache(2);
+        for (int i = 0; i < 10; i++) {
+            final RecordQuery query = RecordQuery.newBuilder()
+                    .setRecordType("MySimpleRecord")
+                    .setFilter(Query.field("num_value_unique").equalsValue(i))
+                    .build();
+            cache.plan(planner(new RecordStoreState(null, null)), query, ParameterRelationshipGraph.empty(), null);
+        }
+        assertEquals(2L, cache.size());
+        cache.clear();
+        assertEquals(0L, cache.size());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * CascadesCostModelTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.query.plan.cascades;
+
+import com.apple.foundationdb.record.provider.foundationdb.IndexScanComparisons;
+import com.apple.foundationdb.record.provider.foundationdb.IndexStatistics;
+import com.apple.foundationdb.record.query.expressions.Comparisons;
+import com.apple.foundationdb.record.query.plan.RecordQueryPlannerConfiguration;
+import com.apple.foundationdb.record.query.plan.ScanComparisons;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryIndexPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryPlan;
+import com.apple.foundationdb.record.query.plan.plans.RecordQueryScanPlan;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.OptionalDouble;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the use of {@link IndexStatistics} by the {@link CascadesCostModel}.
+ */
+public class CascadesCostModelTest {
+    private static final RecordQueryPlannerConfiguration CONFIGURATION = RecordQueryPlannerConfiguration.builder().build();
+
+    @Nonnull
+    private static RecordQueryPlan equalityScan(@Nonnull String indexName, @Nonnull Object value) {
+        return new RecordQueryIndexPlan(indexName, IndexScanComparisons.byValue(new ScanComparisons(
+                ImmutableList.of(new Comparisons.SimpleComparison(Comparisons.Type.EQUALS, value)), ImmutableSet.of())), false);
+    }
+
+    @Nonnull
+    private static IndexStatistics statistics(@Nonnull String indexName, long entryCount, long distinct) {
+        return new IndexStatistics(indexName, entryCount, entryCount * 20, false, ImmutableList.of(distinct),
+                ImmutableList.of(Tuple.from(0L), Tuple.from(100L)));
+    }
+
+    @Test
+    public void preferMoreSelectiveIndex() {
+        final RecordQueryPlan planA = equalityScan("a", 1L);
+        final RecordQueryPlan planB = equalityScan("b", 1L);
+        // a has 10 entries per value, b has 1000 entries per value
+        final Map<String, IndexStatistics> indexStatistics = ImmutableMap.of(
+                "a", statistics("a", 10_000L, 1_000L),
+                "b", statistics("b", 10_000L, 10L));
+        final CascadesCostModel costModel = new CascadesCostModel(CONFIGURATION, indexStatistics);
+        assertTrue(costModel.compare(planA, planB) < 0);
+        assertTrue(costModel.compare(planB, planA) > 0);
+    }
+
+    @Test
+    public void estimateIndexEntriesRead() {
+        final Map<String, IndexStatistics> indexStatistics = ImmutableMap.of("a", statistics("a", 10_000L, 100L));
+        final CascadesCostModel costModel = new CascadesCostModel(CONFIGURATION, indexStatistics);
+        assertEquals(OptionalDouble.of(100.0), costModel.estimateIndexEntriesRead(equalityScan("a", 1L)));
+        // Inequalities against parameters are not known until execution
+        final RecordQueryPlan parameterRange = new RecordQueryIndexPlan("a", IndexScanComparisons.byValue(new ScanComparisons(
+                ImmutableList.of(), ImmutableSet.of(new Comparisons.ParameterComparison(Comparisons.Type.GREATER_THAN, "p")))), false);
+        assertEquals(10_000.0 / 3, costModel.estimateIndexEntriesRead(parameterRange).getAsDouble(), 1e-6);
+        // Without statistics or for record scans there is no estimate
+        assertEquals(OptionalDouble.empty(), costModel.estimateIndexEntriesRead(equalityScan("b", 1L)));
+        assertEquals(OptionalDouble.empty(), costModel.estimateIndexEntriesRead(new RecordQueryScanPlan(ScanComparisons.EMPTY, false)));
+    }
+
+    @Test
+    public void preferFewerBytesRead() {
+        final RecordQueryPlan planA = equalityScan("a", 1L);
+        final RecordQueryPlan planB = equalityScan("b", 1L);
+        // Both read 100 entries, but the entries of b are five times as large
+        final Map<String, IndexStatistics> indexStatistics = ImmutableMap.of(
+                "a", statistics("a", 10_000L, 100L),
+                "b", new IndexStatistics("b", 10_000L, 10_000L * 100, false, ImmutableList.of(100L),
+                        ImmutableList.of(Tuple.from(0L), Tuple.from(100L))));
+        final CascadesCostModel costModel = new CascadesCostModel(CONFIGURATION, indexStatistics);
+        assertEquals(OptionalDouble.of(2_000.0), costModel.estimateIndexBytesRead(planA));
+        assertEquals(OptionalDouble.of(10_000.0), costModel.estimateIndexBytesRead(planB));
+        assertTrue(costModel.compare(planA, planB) < 0);
+        assertTrue(costModel.compare(planB, planA) > 0);
+    }
+
+    @Test
+    public void similarEstimatesDoNotDecide() {
+        final Map<String, IndexStatistics> indexStatistics = ImmutableMap.of(
+                "a", statistics("a", 10_000L, 100L),
+                "b", statistics("b", 15_000L, 100L));
+        final CascadesCostModel costModel = new CascadesCostModel(CONFIGURATION, indexStatistics);
+        final double entriesA = costModel.estimateIndexEntriesRead(equalityScan("a", 1L)).getAsDouble();
+        final double entriesB = costModel.estimateIndexEntriesRead(equalityScan("b", 1L)).getAsDouble();
+        assertTrue(entriesA < entriesB && entriesB < entriesA * CascadesCostModel.STATISTICS_COST_RATIO);
+    }
+}
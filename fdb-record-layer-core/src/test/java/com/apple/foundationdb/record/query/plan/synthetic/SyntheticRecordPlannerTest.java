@@ -22,6 +22,7 @@ package com.apple.foundationdb.record.query.plan.synthetic;
 
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.EvaluationContext;
+import com.apple.foundationdb.record.ExecuteProperties;
 import com.apple.foundationdb.record.FunctionNames;
 import com.apple.foundationdb.record.IndexEntry;
 import com.apple.foundationdb.record.IndexScanType;
@@ -36,12 +37,15 @@ import com.apple.foundationdb.record.TestRecordsJoinIndexProto;
 import com.apple.foundationdb.record.TupleRange;
 import com.apple.foundationdb.record.metadata.Index;
 import com.apple.foundationdb.record.metadata.IndexAggregateFunction;
+import com.apple.foundationdb.record.metadata.IndexComparison;
 import com.apple.foundationdb.record.metadata.IndexOptions;
+import com.apple.foundationdb.record.metadata.IndexPredicate;
 import com.apple.foundationdb.record.metadata.IndexRecordFunction;
 import com.apple.foundationdb.record.metadata.IndexTypes;
 import com.apple.foundationdb.record.metadata.JoinedRecordType;
 import com.apple.foundationdb.record.metadata.JoinedRecordTypeBuilder;
 import com.apple.foundationdb.record.metadata.Key;
+import com.apple.foundationdb.record.metadata.SyntheticRecordType;
 import com.apple.foundationdb.record.metadata.expressions.AbsoluteValueFunctionKeyExpression;
 import com.apple.foundationdb.record.metadata.expressions.GroupingKeyExpression;
 import com.apple.foundationdb.record.metadata.expressions.IntWrappingFunction;
@@ -86,6 +90,10 @@ import org.junit.jupiter.api.Test;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -95,6 +103,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static com.apple.foundationdb.record.metadata.Key.Expressions.concat;
 import static com.apple.foundationdb.record.metadata.Key.Expressions.concatenateFields;
@@ -109,6 +118,8 @@ import static com.apple.foundationdb.record.query.plan.cascades.matching.structu
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 /**
  * Tests for {@link SyntheticRecordPlanner}.
@@ -452,6 +463,275 @@ public class SyntheticRecordPlannerTest {
         }
     }
 
+    @Test
+    void hashJoin() throws Exception {
+        final JoinedRecordTypeBuilder joined = metaDataBuilder.addJoinedRecordType("ByNumValue");
+        joined.addConstituent("simple", "MySimpleRecord");
+        joined.addConstituent("other", metaDataBuilder.getRecordType("MyOtherRecord"), true);
+        joined.addJoin("simple", "num_value", "other", "num_value");
+
+        try (FDBRecordContext context = openContext()) {
+            final FDBRecordStore recordStore = recordStoreBuilder.setContext(context).create();
+
+            for (int i = 0; i < 20; i++) {
+                TestRecordsJoinIndexProto.MySimpleRecord.Builder simple = TestRecordsJoinIndexProto.MySimpleRecord.newBuilder();
+                simple.setRecNo(i);
+                if (i < 18) {
+                    simple.setNumValue(i % 5);
+                }
+                recordStore.saveRecord(simple.build());
+            }
+            for (int i = 0; i < 10; i++) {
+                TestRecordsJoinIndexProto.MyOtherRecord.Builder other = TestRecordsJoinIndexProto.MyOtherRecord.newBuilder();
+                other.setRecNo(1000 + i).setNumValue(i % 4);
+                recordStore.saveRecord(other.build());
+            }
+
+            context.commit();
+        }
+
+        try (FDBRecordContext context = openContext()) {
+            final FDBRecordStore recordStore = recordStoreBuilder.setContext(context).open();
+            final SyntheticRecordPlanner planner = new SyntheticRecordPlanner(recordStore);
+            // Small enough that most partitions are spilled.
+            planner.setHashJoinMaxRecordsInMemory(3);
+            planner.setHashJoinPartitionCount(4);
+            final SyntheticRecordType<?> joinedType = recordStore.getRecordMetaData().getSyntheticRecordType("ByNumValue");
+
+            final SyntheticRecordPlan nestedPlan = planner.scanForType(joinedType);
+            assertEquals(nestedPlan, planner.scanForType(joinedType, planner.getHashJoinThreshold() - 1));
+            final SyntheticRecordPlan hashPlan = planner.scanForType(joinedType, planner.getHashJoinThreshold());
+            assertThat(hashPlan, Matchers.instanceOf(HashJoinedRecordPlan.class));
+            assertEquals("simple", ((HashJoinedRecordPlan)hashPlan).getProbeConstituent().getName());
+
+            final Multiset<Tuple> expected = HashMultiset.create(nestedPlan.execute(recordStore).map(FDBSyntheticRecord::getPrimaryKey).asList().join());
+            assertEquals(43, expected.size());
+            assertThat(expected, Matchers.hasItem(Tuple.from(-1, Tuple.from(19), null)));
+
+            timer.reset();
+            final long spillFiles = countHashJoinSpillFiles();
+            final Multiset<Tuple> results;
+            try (RecordCursor<FDBSyntheticRecord> cursor = hashPlan.execute(recordStore)) {
+                results = HashMultiset.create(cursor.map(FDBSyntheticRecord::getPrimaryKey).asList().join());
+            }
+            assertEquals(spillFiles, countHashJoinSpillFiles());
+            assertEquals(expected, results);
+            assertEquals(10, timer.getCount(FDBStoreTimer.Counts.HASH_JOIN_BUILD_RECORDS));
+            assertEquals(20, timer.getCount(FDBStoreTimer.Counts.HASH_JOIN_PROBE_RECORDS));
+            assertEquals(15, timer.getCount(FDBStoreTimer.Counts.HASH_JOIN_PROBE_HITS));
+            assertThat(timer.getCount(FDBStoreTimer.Counts.HASH_JOIN_SPILLED_PARTITIONS), Matchers.greaterThan(0));
+
+            final Multiset<Tuple> resumed = HashMultiset.create();
+            byte[] continuation = null;
+            do {
+                try (RecordCursor<FDBSyntheticRecord> cursor = hashPlan.execute(recordStore, continuation, ExecuteProperties.newBuilder().setReturnedRowLimit(4).build())) {
+                    RecordCursorResult<FDBSyntheticRecord> result;
+                    while ((result = cursor.getNext()).hasNext()) {
+                        resumed.add(result.get().getPrimaryKey());
+                    }
+                    continuation = result.getContinuation().toBytes();
+                }
+            } while (continuation != null);
+            assertEquals(expected, resumed);
+            assertEquals(spillFiles, countHashJoinSpillFiles());
+        }
+    }
+
+    @Test
+    void hashJoinBuildOverLimit() throws Exception {
+        metaDataBuilder.addIndex("MyOtherRecord", "num_value");
+        final JoinedRecordTypeBuilder joined = metaDataBuilder.addJoinedRecordType("ByNumValue");
+        joined.addConstituent("simple", "MySimpleRecord");
+        joined.addConstituent("other", "MyOtherRecord");
+        joined.addJoin("simple", "num_value", "other", "num_value");
+
+        try (FDBRecordContext context = openContext()) {
+            final FDBRecordStore recordStore = recordStoreBuilder.setContext(context).create();
+
+            for (int i = 0; i < 20; i++) {
+                TestRecordsJoinIndexProto.MySimpleRecord.Builder simple = TestRecordsJoinIndexProto.MySimpleRecord.newBuilder();
+                simple.setRecNo(i).setNumValue(i % 5);
+                recordStore.saveRecord(simple.build());
+            }
+            for (int i = 0; i < 10; i++) {
+                TestRecordsJoinIndexProto.MyOtherRecord.Builder other = TestRecordsJoinIndexProto.MyOtherRecord.newBuilder();
+                other.setRecNo(1000 + i).setNumValue(i % 4);
+                recordStore.saveRecord(other.build());
+            }
+
+            context.commit();
+        }
+
+        try (FDBRecordContext context = openContext()) {
+            final FDBRecordStore recordStore = recordStoreBuilder.setContext(context).open();
+            final SyntheticRecordPlanner planner = new SyntheticRecordPlanner(recordStore);
+            final JoinedRecordType joinedType = (JoinedRecordType)recordStore.getRecordMetaData().getSyntheticRecordType("ByNumValue");
+            final SyntheticRecordPlan hashPlan = planner.hashJoinForType(joinedType);
+            assertNotNull(hashPlan);
+            assertEquals("simple", ((HashJoinedRecordPlan)hashPlan).getProbeConstituent().getName());
+
+            final Multiset<Tuple> expected = HashMultiset.create(planner.scanForType(joinedType).execute(recordStore)
+                    .map(FDBSyntheticRecord::getPrimaryKey).asList().join());
+            assertEquals(40, expected.size());
+
+            // The build side scans more records than the limit, so each execution joins probe records by lookups.
+            timer.reset();
+            final Multiset<Tuple> results = HashMultiset.create();
+            byte[] continuation = null;
+            int executions = 0;
+            do {
+                try (RecordCursor<FDBSyntheticRecord> cursor = hashPlan.execute(recordStore, continuation, ExecuteProperties.newBuilder().setScannedRecordsLimit(20).build())) {
+                    RecordCursorResult<FDBSyntheticRecord> result;
+                    while ((result = cursor.getNext()).hasNext()) {
+                        results.add(result.get().getPrimaryKey());
+                    }
+                    continuation = result.getContinuation().toBytes();
+                }
+                executions++;
+            } while (continuation != null);
+            assertEquals(expected, results);
+            assertThat(executions, Matchers.greaterThan(1));
+            assertEquals(0, timer.getCount(FDBStoreTimer.Counts.HASH_JOIN_PROBE_RECORDS));
+            assertThat(timer.getCount(FDBStoreTimer.Counts.HASH_JOIN_LOOKUPS), Matchers.greaterThanOrEqualTo(20));
+        }
+    }
+
+    private static long countHashJoinSpillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("fdb-hash-join")).count();
+        }
+    }
+
+    @Test
+    void mergeJoin() throws Exception {
+        metaDataBuilder.addIndex("MySimpleRecord", "num_value");
+        metaDataBuilder.addIndex("MyOtherRecord", "num_value");
+        final JoinedRecordTypeBuilder joined = metaDataBuilder.addJoinedRecordType("ByNumValue");
+        joined.addConstituent("simple", "MySimpleRecord");
+        joined.addConstituent("other", "MyOtherRecord");
+        joined.addJoin("simple", "num_value", "other", "num_value");
+
+        try (FDBRecordContext context = openContext()) {
+            final FDBRecordStore recordStore = recordStoreBuilder.setContext(context).create();
+
+            for (int i = 0; i < 20; i++) {
+                TestRecordsJoinIndexProto.MySimpleRecord.Builder simple = TestRecordsJoinIndexProto.MySimpleRecord.newBuilder();
+                simple.setRecNo(i);
+                if (i < 18) {
+                    simple.setNumValue(i % 5);
+                }
+                recordStore.saveRecord(simple.build());
+            }
+            for (int i = 0; i < 10; i++) {
+                TestRecordsJoinIndexProto.MyOtherRecord.Builder other = TestRecordsJoinIndexProto.MyOtherRecord.newBuilder();
+                other.setRecNo(1000 + i).setNumValue(i % 4);
+                recordStore.saveRecord(other.build());
+            }
+
+            context.commit();
+        }
+
+        try (FDBRecordContext context = openContext()) {
+            final FDBRecordStore recordStore = recordStoreBuilder.setContext(context).open();
+            final SyntheticRecordPlanner planner = new SyntheticRecordPlanner(recordStore);
+            final SyntheticRecordType<?> joinedType = recordStore.getRecordMetaData().getSyntheticRecordType("ByNumValue");
+
+            final SyntheticRecordPlan nestedPlan = planner.scanForType(joinedType);
+            assertEquals(nestedPlan, planner.scanForType(joinedType, planner.getHashJoinThreshold() - 1));
+            final SyntheticRecordPlan mergePlan = planner.scanForType(joinedType, planner.getHashJoinThreshold());
+            assertThat(mergePlan, Matchers.instanceOf(MergeJoinedRecordPlan.class));
+            assertEquals("MySimpleRecord$num_value", ((MergeJoinedRecordPlan)mergePlan).getLeftIndexName());
+            assertEquals("MyOtherRecord$num_value", ((MergeJoinedRecordPlan)mergePlan).getRightIndexName());
+
+            final Multiset<Tuple> expected = HashMultiset.create(nestedPlan.execute(recordStore).map(FDBSyntheticRecord::getPrimaryKey).asList().join());
+            assertEquals(38, expected.size());
+
+            timer.reset();
+            final Multiset<Tuple> results = HashMultiset.create(mergePlan.execute(recordStore).map(FDBSyntheticRecord::getPrimaryKey).asList().join());
+            assertEquals(expected, results);
+            assertEquals(15, timer.getCount(FDBStoreTimer.Counts.QUERY_MERGE_JOIN_MATCHES));
+
+            final Multiset<Tuple> resumed = HashMultiset.create();
+            byte[] continuation = null;
+            do {
+                try (RecordCursor<FDBSyntheticRecord> cursor = mergePlan.execute(recordStore, continuation, ExecuteProperties.newBuilder().setReturnedRowLimit(4).build())) {
+                    RecordCursorResult<FDBSyntheticRecord> result;
+                    while ((result = cursor.getNext()).hasNext()) {
+                        resumed.add(result.get().getPrimaryKey());
+                    }
+                    continuation = result.getContinuation().toBytes();
+                }
+            } while (continuation != null);
+            assertEquals(expected, resumed);
+        }
+    }
+
+    @Test
+    void mergeJoinSkipsFilteredIndex() throws Exception {
+        // Only records with num_value > 1 are in this index, so merging on it would lose the others.
+        metaDataBuilder.addIndex("MySimpleRecord", new Index("MySimpleRecord$num_value", field("num_value"), IndexTypes.VALUE, Collections.emptyMap(),
+                new IndexPredicate.ValuePredicate(List.of("num_value"),
+                        IndexComparison.fromComparison(new Comparisons.SimpleComparison(Comparisons.Type.GREATER_THAN, 1)))));
+        metaDataBuilder.addIndex("MyOtherRecord", "num_value");
+        final JoinedRecordTypeBuilder joined = metaDataBuilder.addJoinedRecordType("ByNumValue");
+        joined.addConstituent("simple", "MySimpleRecord");
+        joined.addConstituent("other", "MyOtherRecord");
+        joined.addJoin("simple", "num_value", "other", "num_value");
+
+        try (FDBRecordContext context = openContext()) {
+            final FDBRecordStore recordStore = recordStoreBuilder.setContext(context).create();
+            for (int i = 0; i < 10; i++) {
+                recordStore.saveRecord(TestRecordsJoinIndexProto.MySimpleRecord.newBuilder().setRecNo(i).setNumValue(i % 4).build());
+                recordStore.saveRecord(TestRecordsJoinIndexProto.MyOtherRecord.newBuilder().setRecNo(1000 + i).setNumValue(i % 4).build());
+            }
+            context.commit();
+        }
+
+        assertMergeJoinFallsBack("ByNumValue", 26);
+    }
+
+    @Test
+    void mergeJoinSkipsFanOutIndex() throws Exception {
+        // This index has an entry for each of a record's nums, so merging on it would repeat joined records.
+        metaDataBuilder.addIndex("NestedA", "rec_no_nums", concat(field("rec_no"),
+                field("repeated", KeyExpression.FanType.FanOut).nest("nums", KeyExpression.FanType.FanOut)));
+        metaDataBuilder.addIndex("NestedB", "rec_no");
+        final JoinedRecordTypeBuilder joined = metaDataBuilder.addJoinedRecordType("ByRecNo");
+        joined.addConstituent("nested_a", "NestedA");
+        joined.addConstituent("nested_b", "NestedB");
+        joined.addJoin("nested_a", "rec_no", "nested_b", "rec_no");
+
+        try (FDBRecordContext context = openContext()) {
+            final FDBRecordStore recordStore = recordStoreBuilder.setContext(context).create();
+            for (int i = 0; i < 5; i++) {
+                final TestRecordsJoinIndexProto.NestedA.Builder nestedA = TestRecordsJoinIndexProto.NestedA.newBuilder().setRecNo(i);
+                nestedA.addRepeatedBuilder().addNums(i).addNums(i + 1);
+                nestedA.addRepeatedBuilder().addNums(i + 2);
+                recordStore.saveRecord(nestedA.build());
+                recordStore.saveRecord(TestRecordsJoinIndexProto.NestedB.newBuilder().setRecNo(i).build());
+            }
+            context.commit();
+        }
+
+        assertMergeJoinFallsBack("ByRecNo", 5);
+    }
+
+    private void assertMergeJoinFallsBack(@Nonnull String joinedTypeName, int expectedCount) {
+        try (FDBRecordContext context = openContext()) {
+            final FDBRecordStore recordStore = recordStoreBuilder.setContext(context).open();
+            final SyntheticRecordPlanner planner = new SyntheticRecordPlanner(recordStore);
+            final JoinedRecordType joinedType = (JoinedRecordType)recordStore.getRecordMetaData().getSyntheticRecordType(joinedTypeName);
+            assertNull(planner.mergeJoinForType(joinedType));
+
+            final SyntheticRecordPlan plan = planner.scanForType(joinedType, planner.getHashJoinThreshold());
+            assertThat(plan, Matchers.not(Matchers.instanceOf(MergeJoinedRecordPlan.class)));
+            final Multiset<Tuple> expected = HashMultiset.create(planner.scanForType(joinedType).execute(recordStore)
+                    .map(FDBSyntheticRecord::getPrimaryKey).asList().join());
+            assertEquals(expectedCount, expected.size());
+            assertEquals(expected, HashMultiset.create(plan.execute(recordStore).map(FDBSyntheticRecord::getPrimaryKey).asList().join()));
+        }
+    }
+
     @Test
     public void indexScansOverOuterJoins() throws Exception {
         metaDataBuilder.addIndex("MySimpleRecord", "other_rec_no");
@@ -0,0 +1,359 @@
+/*
+ * MappedSortFileTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.provider.common.CipherPool;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.KeyGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link MappedSortFileWriter}, {@link MappedSortFileReader} and {@link LoserTree}.
+ */
+public class MappedSortFileTest {
+    @Nonnull
+    private final List<File> tempFiles = new ArrayList<>();
+
+    @AfterEach
+    void deleteTempFiles() throws IOException {
+        for (File file : tempFiles) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    static Stream<Arguments> formats() {
+        return Stream.of(false, true).flatMap(compressed -> Stream.of(false, true).map(encrypted -> Arguments.of(compressed, encrypted)));
+    }
+
+    @ParameterizedTest(name = "writeAndRead [compressed = {0}, encrypted = {1}]")
+    @MethodSource("formats")
+    void writeAndRead(boolean compressed, boolean encrypted) throws Exception {
+        final TestAdapter adapter = new TestAdapter(true, compressed, encrypted, 7);
+        final File file = adapter.generateFilename();
+        final List<Tuple> values = IntStream.range(0, 100).mapToObj(i -> Tuple.from(i, "value-" + i)).collect(Collectors.toList());
+        try (MappedSortFileWriter<Tuple> writer = new MappedSortFileWriter<>(file, adapter)) {
+            for (Tuple value : values) {
+                writer.add(adapter.serializeKey(adapter.generateKey(value)), value);
+            }
+            writer.finish();
+            assertEquals(file.length(), writer.getFileLength());
+        }
+        assertEquals(values, readAll(file, adapter, 0, Integer.MAX_VALUE));
+        assertEquals(values.subList(20, 30), readAll(file, adapter, 20, 10));
+        assertEquals(values.subList(95, 100), readAll(file, adapter, 95, 10));
+        assertEquals(Collections.emptyList(), readAll(file, adapter, 100, 10));
+        try (MappedSortFileReader<Tuple> reader = new MappedSortFileReader<>(file, adapter, null, 23, Integer.MAX_VALUE)) {
+            assertEquals(23, reader.getRecordPosition());
+            assertEquals(2, reader.getRecordSectionPosition());
+            assertEquals(values.get(23), reader.read());
+        }
+    }
+
+    @Test
+    void smallSegments() throws Exception {
+        final TestAdapter adapter = new TestAdapter(true, false, false, 3);
+        final File file = adapter.generateFilename();
+        final List<Tuple> values = IntStream.range(0, 50).mapToObj(i -> Tuple.from(i, "value-" + i)).collect(Collectors.toList());
+        try (MappedSortFileWriter<Tuple> writer = new MappedSortFileWriter<>(file, adapter)) {
+            for (Tuple value : values) {
+                writer.add(adapter.serializeKey(adapter.generateKey(value)), value);
+            }
+            writer.finish();
+        }
+        // Force a remapping every few sections.
+        final List<Tuple> result = new ArrayList<>();
+        try (MappedSortFileReader<Tuple> reader = new MappedSortFileReader<>(file, adapter, null, 0, Integer.MAX_VALUE, 256)) {
+            for (Tuple value = reader.read(); value != null; value = reader.read()) {
+                result.add(value);
+            }
+        }
+        assertEquals(values, result);
+        assertThrows(RecordCoreException.class, () -> new MappedSortFileReader<>(file, adapter, null, 0, Integer.MAX_VALUE, 16));
+    }
+
+    @Test
+    void formatMismatch() throws Exception {
+        final TestAdapter streamAdapter = new TestAdapter(false, false, false, 10);
+        final FileSorter<Tuple, Tuple> sorter = sort(streamAdapter, 10);
+        final File file = sorter.getFiles().get(0);
+        final TestAdapter mappedAdapter = new TestAdapter(true, false, false, 10);
+        assertThrows(RecordCoreException.class, () -> new MappedSortFileReader<>(file, mappedAdapter, null, 0, Integer.MAX_VALUE));
+    }
+
+    @ParameterizedTest(name = "sortAndMerge [compressed = {0}, encrypted = {1}]")
+    @MethodSource("formats")
+    void sortAndMerge(boolean compressed, boolean encrypted) throws Exception {
+        for (boolean memoryMapped : new boolean[] {false, true}) {
+            final TestAdapter adapter = new TestAdapter(memoryMapped, compressed, encrypted, 10);
+            final FileSorter<Tuple, Tuple> sorter = sort(adapter, 500);
+            assertEquals(1, sorter.getFiles().size());
+            final List<Tuple> result = new ArrayList<>();
+            try (SortedFileReader<Tuple> reader = new SortedFileReader<>(sorter.getFiles().get(0), adapter, null, 0, Integer.MAX_VALUE)) {
+                for (Tuple value = reader.read(); value != null; value = reader.read()) {
+                    result.add(value);
+                }
+            }
+            assertEquals(IntStream.range(0, 500).boxed().collect(Collectors.toList()),
+                    result.stream().map(value -> (int)value.getLong(0)).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void loserTree() {
+        final Random random = new Random(1066);
+        for (int size = 1; size <= 17; size++) {
+            final List<List<Integer>> sources = new ArrayList<>();
+            final List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                final List<Integer> source = new ArrayList<>();
+                final int count = random.nextInt(20);
+                for (int j = 0; j < count; j++) {
+                    source.add(random.nextInt(50));
+                }
+                Collections.sort(source);
+                sources.add(source);
+                expected.addAll(source);
+            }
+            Collections.sort(expected);
+            final int[] positions = new int[size];
+            final LoserTree tree = new LoserTree(size, (s1, s2) -> {
+                final boolean done1 = positions[s1] >= sources.get(s1).size();
+                final boolean done2 = positions[s2] >= sources.get(s2).size();
+                if (done1 || done2) {
+                    return Boolean.compare(done1, done2);
+                }
+                return Integer.compare(sources.get(s1).get(positions[s1]), sources.get(s2).get(positions[s2]));
+            });
+            final List<Integer> merged = new ArrayList<>();
+            while (true) {
+                final int winner = tree.getWinner();
+                if (positions[winner] >= sources.get(winner).size()) {
+                    break;
+                }
+                merged.add(sources.get(winner).get(positions[winner]++));
+                tree.advanceWinner();
+            }
+            assertEquals(expected, merged);
+        }
+    }
+
+    @Nonnull
+    private FileSorter<Tuple, Tuple> sort(@Nonnull TestAdapter adapter, int count) {
+        final List<Tuple> values = IntStream.range(0, count)
+                .mapToObj(i -> Tuple.from(i, "value-" + i))
+                .collect(Collectors.toList());
+        Collections.shuffle(values, new Random(count));
+        final FileSorter<Tuple, Tuple> sorter = new FileSorter<>(adapter, null, ForkJoinPool.commonPool());
+        final FileSorter.LoadResult loadResult = sorter.load(RecordCursor.fromList(values)).join();
+        assertEquals(true, loadResult.isLoadComplete());
+        assertEquals(false, loadResult.isInMemory());
+        return sorter;
+    }
+
+    @Nonnull
+    private static List<Tuple> readAll(@Nonnull File file, @Nonnull TestAdapter adapter, int skip, int limit) throws IOException, GeneralSecurityException {
+        final List<Tuple> result = new ArrayList<>();
+        try (MappedSortFileReader<Tuple> reader = new MappedSortFileReader<>(file, adapter, null, skip, limit)) {
+            for (Tuple value = reader.read(); value != null; value = reader.read()) {
+                result.add(value);
+            }
+            assertNull(reader.read());
+        }
+        return result;
+    }
+
+    private class TestAdapter implements FileSortAdapter<Tuple, Tuple> {
+        private final boolean memoryMapped;
+        private final boolean compressed;
+        @Nullable
+        private final Key encryptionKey;
+        @Nonnull
+        private final SecureRandom secureRandom;
+        private final int recordCountPerSection;
+
+        TestAdapter(boolean memoryMapped, boolean compressed, boolean encrypted, int recordCountPerSection) throws GeneralSecurityException {
+            this.memoryMapped = memoryMapped;
+            this.compressed = compressed;
+            this.secureRandom = new SecureRandom();
+            if (encrypted) {
+                final KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+                keyGen.init(128, secureRandom);
+                encryptionKey = keyGen.generateKey();
+            } else {
+                encryptionKey = null;
+            }
+            this.recordCountPerSection = recordCountPerSection;
+        }
+
+        @Override
+        public int compare(Tuple o1, Tuple o2) {
+            return o1.compareTo(o2);
+        }
+
+        @Nonnull
+        @Override
+        public Tuple generateKey(Tuple value) {
+            return Tuple.from(value.get(0));
+        }
+
+        @Nonnull
+        @Override
+        public byte[] serializeKey(Tuple key) {
+            return key.pack();
+        }
+
+        @Override
+        public boolean isSerializedOrderReversed() {
+            return false;
+        }
+
+        @Nonnull
+        @Override
+        public Tuple deserializeKey(@Nonnull byte[] key) {
+            return Tuple.fromBytes(key);
+        }
+
+        @Nonnull
+        @Override
+        public byte[] serializeValue(Tuple value) {
+            return value.pack();
+        }
+
+        @Nonnull
+        @Override
+        public Tuple deserializeValue(@Nonnull byte[] value) {
+            return Tuple.fromBytes(value);
+        }
+
+        @Override
+        public int getMaxRecordCountInMemory() {
+            return 10;
+        }
+
+        @Nonnull
+        @Override
+        public MemorySorter.RecordCountInMemoryLimitMode getRecordCountInMemoryLimitMode() {
+            return MemorySorter.RecordCountInMemoryLimitMode.STOP;
+        }
+
+        @Nonnull
+        @Override
+        public MemorySortComparator<Tuple> getComparator(@Nullable Tuple minimumKey) {
+            return new OrderComparator<>(this, minimumKey);
+        }
+
+        @Nonnull
+        @Override
+        public File generateFilename() throws IOException {
+            final File file = File.createTempFile("fdb", ".bin");
+            tempFiles.add(file);
+            return file;
+        }
+
+        @Override
+        public int getMetaDataVersion() {
+            return 1;
+        }
+
+        @Override
+        public void writeValue(@Nonnull Tuple value, @Nonnull CodedOutputStream stream) throws IOException {
+            stream.writeByteArrayNoTag(value.pack());
+        }
+
+        @Nonnull
+        @Override
+        public Tuple readValue(@Nonnull CodedInputStream stream) throws IOException {
+            return Tuple.fromBytes(stream.readByteArray());
+        }
+
+        @Override
+        public int getMinFileRecordCount() {
+            return 5;
+        }
+
+        @Override
+        public int getMaxFileCount() {
+            return 5;
+        }
+
+        @Override
+        public int getRecordCountPerSection() {
+            return recordCountPerSection;
+        }
+
+        @Override
+        public boolean isMemoryMapped() {
+            return memoryMapped;
+        }
+
+        @Override
+        public boolean isCompressed() {
+            return compressed;
+        }
+
+        @Nullable
+        @Override
+        public String getEncryptionCipherName() {
+            return encryptionKey == null ? null : CipherPool.DEFAULT_CIPHER;
+        }
+
+        @Nullable
+        @Override
+        public Key getEncryptionKey() {
+            return encryptionKey;
+        }
+
+        @Nullable
+        @Override
+        public SecureRandom getSecureRandom() {
+            return secureRandom;
+        }
+    }
+}
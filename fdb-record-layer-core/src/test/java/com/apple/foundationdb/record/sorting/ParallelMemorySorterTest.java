@@ -0,0 +1,187 @@
+/*
+ * ParallelMemorySorterTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.sorting;
+
+import com.apple.foundationdb.tuple.Tuple;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link ParallelMemorySorter}, checking that it orders entries the same as {@link MemorySorter}.
+ */
+public class ParallelMemorySorterTest {
+    static Stream<Arguments> modes() {
+        return Stream.of(MemoryScratchpad.RecordCountInMemoryLimitMode.values())
+                .flatMap(mode -> Stream.of(false, true).flatMap(reverse -> Stream.of(10, 100_000)
+                        .map(limit -> Arguments.of(mode, reverse, limit))));
+    }
+
+    @ParameterizedTest(name = "sameAsMemorySorter [mode = {0}, reverse = {1}, limit = {2}]")
+    @MethodSource("modes")
+    void sameAsMemorySorter(MemoryScratchpad.RecordCountInMemoryLimitMode mode, boolean reverse, int limit) {
+        final TestAdapter adapter = new TestAdapter(mode, reverse, limit);
+        final MemorySorter<Tuple, Tuple> expected = new MemorySorter<>(adapter, null);
+        final ParallelMemorySorter<Tuple, Tuple> actual = new ParallelMemorySorter<>(adapter, null, ForkJoinPool.commonPool());
+        final Random random = new Random(limit);
+        // Enough values to be split for the parallel sort, with keys repeated so that later values replace earlier ones.
+        for (int i = 0; i < 50_000; i++) {
+            final Tuple value = Tuple.from(random.nextInt(25_000), "value-" + i);
+            add(expected, value);
+            add(actual, value);
+            assertEquals(expected.getMap().size(), actual.getMap().size());
+            if (expected.getMap().size() > limit) {
+                break;
+            }
+        }
+        assertEquals(new ArrayList<>(expected.getMap().entrySet()), new ArrayList<>(actual.getMap().entrySet()));
+        assertEquals(expected.getMap().size(), actual.getMap().size());
+
+        final List<Tuple> keys = new ArrayList<>(expected.getMap().keySet());
+        for (Tuple minimumKey : new Tuple[] {keys.get(0), keys.get(keys.size() / 2), keys.get(keys.size() - 1), Tuple.from(12_500)}) {
+            assertEquals(new ArrayList<>(expected.tailValues(minimumKey)), new ArrayList<>(actual.tailValues(minimumKey)));
+            assertEquals(expected.tailValues(minimumKey).size(), actual.tailValues(minimumKey).size());
+        }
+    }
+
+    @Test
+    void addAfterIterating() {
+        final TestAdapter adapter = new TestAdapter(MemoryScratchpad.RecordCountInMemoryLimitMode.STOP, false, 100);
+        final ParallelMemorySorter<Tuple, Tuple> sorter = new ParallelMemorySorter<>(adapter, null);
+        sorter.addValue(Tuple.from(3, "c"));
+        sorter.addValue(Tuple.from(1, "a"));
+        assertEquals(List.of(Tuple.from(1, "a"), Tuple.from(3, "c")), new ArrayList<>(sorter.getMap().values()));
+        sorter.addValue(Tuple.from(2, "b"));
+        sorter.addValue(Tuple.from(1, "d"));
+        assertEquals(List.of(Tuple.from(1, "d"), Tuple.from(2, "b"), Tuple.from(3, "c")), new ArrayList<>(sorter.getMap().values()));
+        assertEquals(List.of(Tuple.from(2, "b"), Tuple.from(3, "c")), new ArrayList<>(sorter.tailValues(Tuple.from(1))));
+        sorter.removeLast(Tuple.from(3));
+        assertEquals(List.of(Tuple.from(1, "d"), Tuple.from(2, "b")), new ArrayList<>(sorter.getMap().values()));
+        sorter.getMap().clear();
+        assertEquals(List.of(), new ArrayList<>(sorter.getMap().values()));
+    }
+
+    @Test
+    void sizeCountsDistinctKeys() {
+        final TestAdapter adapter = new TestAdapter(MemoryScratchpad.RecordCountInMemoryLimitMode.STOP, false, 100);
+        final ParallelMemorySorter<Tuple, Tuple> sorter = new ParallelMemorySorter<>(adapter, null);
+        sorter.addValue(Tuple.from(1, "a"));
+        sorter.addValue(Tuple.from(1, "b"));
+        sorter.addValue(Tuple.from(2, "c"));
+        assertEquals(2, sorter.getMap().size());
+        assertEquals(List.of(Tuple.from(1, "b"), Tuple.from(2, "c")), new ArrayList<>(sorter.getMap().values()));
+        sorter.removeLast(Tuple.from(2));
+        sorter.addValue(Tuple.from(2, "d"));
+        assertEquals(2, sorter.getMap().size());
+    }
+
+    // Does the same as MemoryScratchpad.load, without needing a cursor.
+    private static void add(@Nonnull MemoryScratchpad<Tuple, Tuple, ? extends Map<Tuple, Tuple>> scratchpad, @Nonnull Tuple value) {
+        final Tuple key = scratchpad.getAdapter().generateKey(value);
+        scratchpad.addKeyValue(key, value);
+        if (scratchpad.getMap().size() > scratchpad.getAdapter().getMaxRecordCountInMemory() &&
+                scratchpad.getAdapter().getRecordCountInMemoryLimitMode() == MemoryScratchpad.RecordCountInMemoryLimitMode.DISCARD) {
+            scratchpad.removeLast(key);
+        }
+    }
+
+    private static class TestAdapter implements MemorySortAdapter<Tuple, Tuple> {
+        @Nonnull
+        private final MemoryScratchpad.RecordCountInMemoryLimitMode mode;
+        private final boolean reverse;
+        private final int limit;
+
+        TestAdapter(@Nonnull MemoryScratchpad.RecordCountInMemoryLimitMode mode, boolean reverse, int limit) {
+            this.mode = mode;
+            this.reverse = reverse;
+            this.limit = limit;
+        }
+
+        @Override
+        public int compare(Tuple o1, Tuple o2) {
+            return reverse ? o2.compareTo(o1) : o1.compareTo(o2);
+        }
+
+        @Nonnull
+        @Override
+        public Tuple generateKey(Tuple value) {
+            return Tuple.from(value.get(0));
+        }
+
+        @Nonnull
+        @Override
+        public byte[] serializeKey(Tuple key) {
+            return key.pack();
+        }
+
+        @Override
+        public boolean isSerializedOrderReversed() {
+            return reverse;
+        }
+
+        @Nonnull
+        @Override
+        public Tuple deserializeKey(@Nonnull byte[] key) {
+            return Tuple.fromBytes(key);
+        }
+
+        @Nonnull
+        @Override
+        public byte[] serializeValue(Tuple value) {
+            return value.pack();
+        }
+
+        @Nonnull
+        @Override
+        public Tuple deserializeValue(@Nonnull byte[] value) {
+            return Tuple.fromBytes(value);
+        }
+
+        @Override
+        public int getMaxRecordCountInMemory() {
+            return limit;
+        }
+
+        @Nonnull
+        @Override
+        public MemoryScratchpad.RecordCountInMemoryLimitMode getRecordCountInMemoryLimitMode() {
+            return mode;
+        }
+
+        @Nonnull
+        @Override
+        public MemorySortComparator<Tuple> getComparator(@Nullable Tuple minimumKey) {
+            return new OrderComparator<>(this, minimumKey);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * FileSortBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.benchmark;
+
+import com.apple.foundationdb.record.RecordCursor;
+import com.apple.foundationdb.record.provider.common.CipherPool;
+import com.apple.foundationdb.record.sorting.FileSortAdapter;
+import com.apple.foundationdb.record.sorting.FileSorter;
+import com.apple.foundationdb.record.sorting.MemorySorter;
+import com.apple.foundationdb.record.sorting.SortedFileReader;
+import com.apple.foundationdb.tuple.Tuple;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.KeyGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compare the stream and memory-mapped block formats for {@link FileSorter} runs, by sorting through files
+ * and reading back the result.
+ */
+public class FileSortBenchmark {
+    /**
+     * Sort options and input.
+     */
+    @State(Scope.Benchmark)
+    public static class SortState implements FileSortAdapter<Tuple, Tuple> {
+        @Param({"false", "true"})
+        public boolean memoryMapped;
+        @Param({"false", "true"})
+        public boolean compressed;
+        @Param({"false", "true"})
+        public boolean encrypted;
+        @Param({"100000"})
+        public int numberOfRecords;
+
+        List<Tuple> values;
+        Key encryptionKey;
+        SecureRandom secureRandom;
+
+        @Setup
+        public void setup() throws GeneralSecurityException {
+            final Random random = new Random(numberOfRecords);
+            values = new ArrayList<>(numberOfRecords);
+            final byte[] payload = new byte[100];
+            for (int i = 0; i < numberOfRecords; i++) {
+                random.nextBytes(payload);
+                values.add(Tuple.from(i, payload.clone()));
+            }
+            Collections.shuffle(values, random);
+            secureRandom = new SecureRandom();
+            if (encrypted) {
+                final KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+                keyGen.init(128, secureRandom);
+                encryptionKey = keyGen.generateKey();
+            }
+        }
+
+        @Override
+        public int compare(Tuple o1, Tuple o2) {
+            return o1.compareTo(o2);
+        }
+
+        @Nonnull
+        @Override
+        public Tuple generateKey(Tuple value) {
+            return Tuple.from(value.get(0));
+        }
+
+        @Nonnull
+        @Override
+        public byte[] serializeKey(Tuple key) {
+            return key.pack();
+        }
+
+        @Override
+        public boolean isSerializedOrderReversed() {
+            return false;
+        }
+
+        @Nonnull
+        @Override
+        public Tuple deserializeKey(@Nonnull byte[] key) {
+            return Tuple.fromBytes(key);
+        }
+
+        @Nonnull
+        @Override
+        public byte[] serializeValue(Tuple value) {
+            return value.pack();
+        }
+
+        @Nonnull
+        @Override
+        public Tuple deserializeValue(@Nonnull byte[] value) {
+            return Tuple.fromBytes(value);
+        }
+
+        @Override
+        public int getMaxRecordCountInMemory() {
+            return 10_000;
+        }
+
+        @Nonnull
+        @Override
+        public MemorySorter.RecordCountInMemoryLimitMode getRecordCountInMemoryLimitMode() {
+            return MemorySorter.RecordCountInMemoryLimitMode.STOP;
+        }
+
+        @Nonnull
+        @Override
+        public MemorySortComparator<Tuple> getComparator(@Nullable Tuple minimumKey) {
+            return new OrderComparator<>(this, minimumKey);
+        }
+
+        @Nonnull
+        @Override
+        public File generateFilename() throws IOException {
+            final File file = File.createTempFile("fdb", ".bin");
+            file.deleteOnExit();
+            return file;
+        }
+
+        @Override
+        public int getMetaDataVersion() {
+            return 1;
+        }
+
+        @Override
+        public void writeValue(@Nonnull Tuple value, @Nonnull CodedOutputStream stream) throws IOException {
+            stream.writeByteArrayNoTag(value.pack());
+        }
+
+        @Nonnull
+        @Override
+        public Tuple readValue(@Nonnull CodedInputStream stream) throws IOException {
+            return Tuple.fromBytes(stream.readByteArray());
+        }
+
+        @Override
+        public int getMinFileRecordCount() {
+            return 1;
+        }
+
+        @Override
+        public int getMaxFileCount() {
+            return 4;
+        }
+
+        @Override
+        public int getRecordCountPerSection() {
+            return 100;
+        }
+
+        @Override
+        public boolean isMemoryMapped() {
+            return memoryMapped;
+        }
+
+        @Override
+        public boolean isCompressed() {
+            return compressed;
+        }
+
+        @Nullable
+        @Override
+        public String getEncryptionCipherName() {
+            return encrypted ? CipherPool.DEFAULT_CIPHER : null;
+        }
+
+        @Nullable
+        @Override
+        public Key getEncryptionKey() {
+            return encryptionKey;
+        }
+
+        @Nullable
+        @Override
+        public SecureRandom getSecureRandom() {
+            return secureRandom;
+        }
+    }
+
+    @Benchmark
+    public void sortAndRead(SortState state, Blackhole blackhole) throws IOException, GeneralSecurityException {
+        final FileSorter<Tuple, Tuple> sorter = new FileSorter<>(state, null, ForkJoinPool.commonPool());
+        sorter.load(RecordCursor.fromList(state.values)).join();
+        try (SortedFileReader<Tuple> reader = new SortedFileReader<>(sorter.getFiles().get(0), state, null, 0, Integer.MAX_VALUE)) {
+            for (Tuple value = reader.read(); value != null; value = reader.read()) {
+                blackhole.consume(value);
+            }
+        } finally {
+            sorter.deleteFiles();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(FileSortBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * LuceneSegmentSearchBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.benchmark;
+
+import com.apple.foundationdb.record.lucene.search.LuceneOptimizedIndexSearcher;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare searching the segments of a Lucene index one after another with searching them concurrently through
+ * {@link LuceneOptimizedIndexSearcher}, over an in-memory directory that adds a simulated read latency to the first
+ * access of each block, standing in for {@link com.apple.foundationdb.record.lucene.directory.FDBDirectory}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LuceneSegmentSearchBenchmark {
+    /**
+     * Index and search options.
+     */
+    @State(Scope.Benchmark)
+    public static class SearchState {
+        @Param({"false", "true"})
+        public boolean concurrent;
+        @Param({"40"})
+        public int numberOfSegments;
+        @Param({"500"})
+        public int documentsPerSegment;
+        @Param({"200"})
+        public int latencyMicros;
+
+        LatencyDirectory directory;
+        DirectoryReader reader;
+        ExecutorService executor;
+        Query query;
+
+        @Setup
+        public void setup() throws IOException {
+            directory = new LatencyDirectory(new ByteBuffersDirectory(), TimeUnit.MICROSECONDS.toNanos(latencyMicros));
+            final IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer())
+                    .setMergePolicy(NoMergePolicy.INSTANCE);
+            final Random random = new Random(1066);
+            try (IndexWriter writer = new IndexWriter(directory, config)) {
+                for (int i = 0; i < numberOfSegments; i++) {
+                    for (int j = 0; j < documentsPerSegment; j++) {
+                        final StringBuilder text = new StringBuilder();
+                        for (int k = 0; k < 20; k++) {
+                            text.append(" w").append(random.nextInt(1000));
+                        }
+                        final Document document = new Document();
+                        document.add(new TextField("text", text.toString(), Field.Store.NO));
+                        writer.addDocument(document);
+                    }
+                    // Commit each batch so that it stays a separate segment.
+                    writer.commit();
+                }
+            }
+            reader = DirectoryReader.open(directory);
+            executor = Executors.newFixedThreadPool(numberOfSegments);
+            query = new BooleanQuery.Builder()
+                    .add(new TermQuery(new Term("text", "w17")), BooleanClause.Occur.SHOULD)
+                    .add(new TermQuery(new Term("text", "w421")), BooleanClause.Occur.SHOULD)
+                    .add(new TermQuery(new Term("text", "w803")), BooleanClause.Occur.SHOULD)
+                    .build();
+        }
+
+        @Setup(Level.Invocation)
+        public void clearBlocks() {
+            // Every search starts cold, the way a new transaction has an empty block cache.
+            directory.clearBlocks();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            reader.close();
+            directory.close();
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void search(SearchState state, Blackhole blackhole) throws IOException {
+        final LuceneOptimizedIndexSearcher searcher = new LuceneOptimizedIndexSearcher(state.reader, state.concurrent ? state.executor : null);
+        blackhole.consume(searcher.search(state.query, 20));
+    }
+
+    /**
+     * A directory whose files are read from memory, but whose blocks each cost a round trip the first time that they
+     * are needed. As with {@code FDBIndexInput}, moving to a block starts its read and only reading bytes waits for it.
+     */
+    static class LatencyDirectory extends FilterDirectory {
+        static final int BLOCK_SIZE = 16_384;
+
+        private final long latencyNanos;
+        @Nonnull
+        private final Map<String, CompletableFuture<Void>> blocks = new ConcurrentHashMap<>();
+        @Nonnull
+        private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+
+        LatencyDirectory(@Nonnull ByteBuffersDirectory in, long latencyNanos) {
+            super(in);
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        public IndexInput openInput(String name, IOContext context) throws IOException {
+            return new LatencyIndexInput(name, name, in.openInput(name, context), this, 0);
+        }
+
+        @Nonnull
+        CompletableFuture<Void> readBlock(@Nonnull String fileName, long block) {
+            return blocks.computeIfAbsent(fileName + "@" + block, key -> {
+                final CompletableFuture<Void> future = new CompletableFuture<>();
+                scheduler.schedule(() -> future.complete(null), latencyNanos, TimeUnit.NANOSECONDS);
+                return future;
+            });
+        }
+
+        void clearBlocks() {
+            blocks.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            scheduler.shutdown();
+            super.close();
+        }
+    }
+
+    /**
+     * Input for a {@link LatencyDirectory} file, or a slice of one.
+     */
+    static class LatencyIndexInput extends IndexInput {
+        @Nonnull
+        private final String fileName;
+        @Nonnull
+        private final LatencyDirectory directory;
+        private final long offset;
+        @Nonnull
+        private IndexInput delegate;
+        private long currentBlock = -1;
+        private CompletableFuture<Void> currentBlockFuture;
+
+        LatencyIndexInput(@Nonnull String resourceDescription, @Nonnull String fileName, @Nonnull IndexInput delegate,
+                          @Nonnull LatencyDirectory directory, long offset) {
+            super(resourceDescription);
+            this.fileName = fileName;
+            this.delegate = delegate;
+            this.directory = directory;
+            this.offset = offset;
+        }
+
+        private void moveTo(long position) {
+            final long block = (offset + position) / LatencyDirectory.BLOCK_SIZE;
+            if (block != currentBlock) {
+                currentBlock = block;
+                currentBlockFuture = directory.readBlock(fileName, block);
+            }
+        }
+
+        private void await(long position) {
+            moveTo(position);
+            currentBlockFuture.join();
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            await(delegate.getFilePointer());
+            return delegate.readByte();
+        }
+
+        @Override
+        public void readBytes(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                final long position = delegate.getFilePointer();
+                for (long next = position; next < position + len; next = ((offset + next) / LatencyDirectory.BLOCK_SIZE + 1) * LatencyDirectory.BLOCK_SIZE - offset) {
+                    await(next);
+                }
+            }
+            delegate.readBytes(b, off, len);
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            delegate.seek(pos);
+            moveTo(pos);
+        }
+
+        @Override
+        public long getFilePointer() {
+            return delegate.getFilePointer();
+        }
+
+        @Override
+        public long length() {
+            return delegate.length();
+        }
+
+        @Override
+        public IndexInput slice(String sliceDescription, long sliceOffset, long length) throws IOException {
+            return new LatencyIndexInput(sliceDescription, fileName, delegate.slice(sliceDescription, sliceOffset, length), directory, offset + sliceOffset);
+        }
+
+        @Override
+        public LatencyIndexInput clone() {
+            final LatencyIndexInput clone = (LatencyIndexInput)super.clone();
+            clone.delegate = delegate.clone();
+            return clone;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(LuceneSegmentSearchBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * StoreTimerBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.benchmark;
+
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare plain and striped counters in an {@link FDBStoreTimer} shared by many threads, which all update the
+ * same few events. Run {@link #main} to measure at each of 1 to 64 threads.
+ */
+public class StoreTimerBenchmark {
+    /**
+     * The shared timer.
+     */
+    @State(Scope.Benchmark)
+    public static class TimerState {
+        @Param({"false", "true"})
+        public boolean striped;
+
+        FDBStoreTimer timer;
+
+        @Setup
+        public void setup() {
+            timer = new FDBStoreTimer(striped);
+        }
+    }
+
+    @Benchmark
+    public void increment(TimerState state) {
+        state.timer.increment(FDBStoreTimer.Counts.LOAD_RECORD_KEY);
+    }
+
+    @Benchmark
+    public void record(TimerState state) {
+        state.timer.record(FDBStoreTimer.Events.LOAD_RECORD, 1000L);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            Options opt = new OptionsBuilder()
+                    .include(StoreTimerBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+
+            new Runner(opt).run();
+        }
+    }
+}
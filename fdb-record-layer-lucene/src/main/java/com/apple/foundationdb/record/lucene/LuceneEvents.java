@@ -44,6 +44,8 @@ public class LuceneEvents {
         LUCENE_READ_SCHEMA("lucene schema read"),
         /** Time to read a lucene block from FBB loader. */
         LUCENE_FDB_READ_BLOCK("lucene read from fdb"),
+        /** Time to read a run of consecutive lucene blocks from FDB ahead of their being needed. */
+        LUCENE_FDB_READ_AHEAD("lucene read ahead from fdb"),
         /** Time to list all files from Lucene's FDBDirectory. */
         LUCENE_LIST_ALL("lucene list all"),
         /** Time to load the file cache for Lucene's FDBDirectory. */
@@ -139,7 +141,11 @@ public class LuceneEvents {
         /** Wait for lucene to load the file cache. */
         WAIT_LUCENE_LOAD_FILE_CACHE("lucene load file cache"),
         /** Create a file from FDBDirectory. */
-        WAIT_LUCENE_CREATE_OUTPUT("lucene create output")
+        WAIT_LUCENE_CREATE_OUTPUT("lucene create output"),
+        /** Wait to read the partition metadata of a partitioned Lucene index. */
+        WAIT_LUCENE_GET_PARTITION_META("lucene get partition metadata"),
+        /** Wait to load the records of pending writes not yet drained into a Lucene index with deferred writes. */
+        WAIT_LUCENE_LOAD_PENDING_WRITES("lucene load pending writes")
         ;
 
         private final String title;
@@ -194,12 +200,36 @@ public class LuceneEvents {
         LUCENE_SHARED_CACHE_HITS("lucene shared cache hits", false),
         /** Block to read came not in shared cache. **/
         LUCENE_SHARED_CACHE_MISSES("lucene shared cache misses", false),
+        /** Total size of blocks evicted from the shared block cache to make room for a block read. **/
+        LUCENE_BLOCK_CACHE_EVICTED_BYTES("lucene block cache evicted bytes", true),
+        /** Block read not added to the shared block cache because its directory is over quota. **/
+        LUCENE_BLOCK_CACHE_QUOTA_REJECTIONS("lucene block cache quota rejections", false),
         /** Plan contains highlight operator. **/
         PLAN_HIGHLIGHT_TERMS("lucene highlight plans", false),
         /** Number of file delete operations on the FDBDirectory. */
         LUCENE_DELETE_FILE("lucene delete file", false),
         /** Number of file delete operations on the FDBDirectory. */
         LUCENE_RENAME_FILE("lucene rename file", false),
+        /** Number of partitions of a partitioned Lucene index searched by a scan. */
+        LUCENE_PARTITIONS_SEARCHED("lucene partitions searched", false),
+        /** Number of partitions of a partitioned Lucene index skipped by a scan because of its range predicate or sort. */
+        LUCENE_PARTITIONS_PRUNED("lucene partitions pruned", false),
+        /** Number of new partitions started for a partitioned Lucene index. */
+        LUCENE_PARTITIONS_CREATED("lucene partitions created", false),
+        /** Number of documents moved from one partition to another by rebalancing. */
+        LUCENE_PARTITION_REBALANCE_DOCUMENTS("lucene partition rebalance documents", false),
+        /** Number of document changes queued for a Lucene index with deferred writes. */
+        LUCENE_PENDING_WRITES_QUEUED("lucene pending writes queued", false),
+        /** Number of queued document changes written into a Lucene index with deferred writes. */
+        LUCENE_PENDING_WRITES_DRAINED("lucene pending writes drained", false),
+        /** Number of queued document changes merged into the results of a scan of a Lucene index with deferred writes. */
+        LUCENE_PENDING_WRITES_MERGED("lucene pending writes merged", false),
+        /** Number of blocks read from FDB ahead of their being needed because a file was being read sequentially. */
+        LUCENE_READ_AHEAD_BLOCKS("lucene read ahead blocks", false),
+        /** Number of blocks read ahead that were then read. */
+        LUCENE_READ_AHEAD_HITS("lucene read ahead hits", false),
+        /** Number of blocks read ahead that were evicted from the block cache or left when the directory was closed without being read. */
+        LUCENE_READ_AHEAD_WASTE("lucene read ahead waste", false),
         ;
 
         private final String title;
@@ -32,6 +32,7 @@ import com.apple.foundationdb.record.RecordCoreException;
 import com.apple.foundationdb.record.RecordCursor;
 import com.apple.foundationdb.record.ScanProperties;
 import com.apple.foundationdb.record.TupleRange;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
 import com.apple.foundationdb.record.lucene.directory.FDBDirectoryManager;
 import com.apple.foundationdb.record.lucene.idformat.LuceneIndexKeySerializer;
 import com.apple.foundationdb.record.lucene.idformat.RecordCoreFormatException;
@@ -50,6 +51,7 @@ import com.apple.foundationdb.record.provider.foundationdb.indexes.InvalidIndexE
 import com.apple.foundationdb.record.provider.foundationdb.indexes.StandardIndexMaintainer;
 import com.apple.foundationdb.record.query.QueryToKeyMatcher;
 import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleHelpers;
 import com.google.protobuf.Message;
 import org.apache.lucene.document.BinaryPoint;
 import org.apache.lucene.document.Document;
@@ -63,9 +65,17 @@ import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.NumericUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,6 +85,7 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -94,11 +105,15 @@ public class LuceneIndexMaintainer extends StandardIndexMaintainer {
     private static final Logger LOG = LoggerFactory.getLogger(LuceneIndexMaintainer.class);
 
     private final FDBDirectoryManager directoryManager;
+    private final LucenePartitioner partitioner;
+    @Nullable
+    private final LucenePendingWriteQueue pendingWriteQueue;
     private final LuceneAnalyzerCombinationProvider indexAnalyzerSelector;
     private final LuceneAnalyzerCombinationProvider autoCompleteAnalyzerSelector;
     protected static final String PRIMARY_KEY_FIELD_NAME = "_p";
     protected static final String PRIMARY_KEY_SEARCH_NAME = "_s";
     protected static final String PRIMARY_KEY_BINARY_POINT_NAME = "_b";
+    protected static final String PRIMARY_KEY_TERM_NAME = "_k";
     private final Executor executor;
     LuceneIndexKeySerializer keySerializer;
     private boolean serializerErrorLogged = false;
@@ -107,6 +122,8 @@ public class LuceneIndexMaintainer extends StandardIndexMaintainer {
         super(state);
         this.executor = executor;
         this.directoryManager = FDBDirectoryManager.getManager(state);
+        this.partitioner = new LucenePartitioner(state);
+        this.pendingWriteQueue = LucenePendingWriteQueue.isDeferredWritesEnabled(state) ? new LucenePendingWriteQueue(state) : null;
         final var fieldInfos = LuceneIndexExpressions.getDocumentFieldDerivations(state.index, state.store.getRecordMetaData());
         this.indexAnalyzerSelector = LuceneAnalyzerRegistryImpl.instance().getLuceneAnalyzerCombinationProvider(state.index, LuceneAnalyzerType.FULL_TEXT, fieldInfos);
         this.autoCompleteAnalyzerSelector = LuceneAnalyzerRegistryImpl.instance().getLuceneAnalyzerCombinationProvider(state.index, LuceneAnalyzerType.AUTO_COMPLETE, fieldInfos);
@@ -145,13 +162,17 @@ public class LuceneIndexMaintainer extends StandardIndexMaintainer {
                     state.context.getPropertyStorage().getPropertyValue(LuceneRecordContextProperties.LUCENE_INDEX_CURSOR_PAGE_SIZE),
                     scanProperties, state, scanQuery.getQuery(), scanQuery.getSort(), continuation,
                     scanQuery.getGroupKey(), scanQuery.getLuceneQueryHighlightParameters(),
-                    scanQuery.getStoredFields(), scanQuery.getStoredFieldTypes(), indexAnalyzerSelector, autoCompleteAnalyzerSelector);
+                    scanQuery.getStoredFields(), scanQuery.getStoredFieldTypes(), indexAnalyzerSelector, autoCompleteAnalyzerSelector,
+                    partitioner, pendingWriteQueue == null ? null : this::loadPendingDocuments);
         }
 
         if (scanType.equals(LuceneScanTypes.BY_LUCENE_SPELL_CHECK)) {
             if (continuation != null) {
                 throw new RecordCoreArgumentException("Spellcheck does not currently support continuation scanning");
             }
+            if (partitioner.isPartitioningEnabled()) {
+                throw new RecordCoreArgumentException("Spellcheck is not supported for partitioned Lucene indexes");
+            }
             LuceneScanSpellCheck scanSpellcheck = (LuceneScanSpellCheck)scanBounds;
             return new LuceneSpellCheckRecordCursor(scanSpellcheck.getFields(), scanSpellcheck.getWord(),
                     executor, scanProperties, state, scanSpellcheck.getGroupKey());
@@ -219,16 +240,30 @@ public class LuceneIndexMaintainer extends StandardIndexMaintainer {
     private void writeDocument(@Nonnull List<LuceneDocumentFromRecord.DocumentField> fields,
                                Tuple groupingKey,
                                Tuple primaryKey) throws IOException {
-        final List<String> texts = fields.stream()
+        final IndexWriter newWriter = directoryManager.getIndexWriter(groupingKey, indexAnalyzerSelector.provideIndexAnalyzer(getTexts(fields)));
+        // with deferred writes, scans need to find the documents for queued primary keys to exclude them
+        newWriter.addDocument(buildDocument(fields, primaryKey, pendingWriteQueue != null));
+    }
+
+    @Nonnull
+    private static List<String> getTexts(@Nonnull List<LuceneDocumentFromRecord.DocumentField> fields) {
+        return fields.stream()
                 .filter(f -> f.getType().equals(LuceneIndexExpressions.DocumentFieldType.TEXT))
                 .map(f -> (String) f.getValue()).collect(Collectors.toList());
-        Document document = new Document();
-        final IndexWriter newWriter = directoryManager.getIndexWriter(groupingKey, indexAnalyzerSelector.provideIndexAnalyzer(texts));
+    }
 
+    @Nonnull
+    private Document buildDocument(@Nonnull List<LuceneDocumentFromRecord.DocumentField> fields,
+                                   @Nonnull Tuple primaryKey,
+                                   boolean withPrimaryKeyTerm) {
+        Document document = new Document();
         BytesRef ref = new BytesRef(keySerializer.asPackedByteArray(primaryKey));
         // use packed Tuple for the Stored and Sorted fields
         document.add(new StoredField(PRIMARY_KEY_FIELD_NAME, ref));
         document.add(new SortedDocValuesField(PRIMARY_KEY_SEARCH_NAME, ref));
+        if (withPrimaryKeyTerm) {
+            document.add(new StringField(PRIMARY_KEY_TERM_NAME, ref, Field.Store.NO));
+        }
         if (keySerializer.hasFormat()) {
             try {
                 // Use BinaryPoint for fast lookup of ID when enabled
@@ -246,7 +281,7 @@ public class LuceneIndexMaintainer extends StandardIndexMaintainer {
                 insertField(field, document);
             }
         }
-        newWriter.addDocument(document);
+        return document;
     }
 
     @Nonnull
@@ -307,6 +342,24 @@ public class LuceneIndexMaintainer extends StandardIndexMaintainer {
 
         LOG.trace("update oldFields={}, newFields{}", oldRecordFields, newRecordFields);
 
+        // while the index is being built nothing scans it, so write directly rather than leave the build's
+        // documents queued for scans to merge once it is readable
+        if (pendingWriteQueue != null && !state.store.isIndexWriteOnly(state.index)) {
+            final Set<Tuple> changed = new HashSet<>(oldRecordFields.keySet());
+            changed.addAll(newRecordFields.keySet());
+            if (!changed.isEmpty()) {
+                final Tuple primaryKey = newRecord != null ? newRecord.getPrimaryKey() : Objects.requireNonNull(oldRecord).getPrimaryKey();
+                for (Tuple t : changed) {
+                    pendingWriteQueue.enqueue(t, primaryKey);
+                }
+            }
+            return AsyncUtil.DONE;
+        }
+
+        if (partitioner.isPartitioningEnabled()) {
+            return updatePartitioned(oldRecord, newRecord, oldRecordFields, newRecordFields);
+        }
+
         // delete old
         try {
             for (Tuple t : oldRecordFields.keySet()) {
@@ -331,6 +384,213 @@ public class LuceneIndexMaintainer extends StandardIndexMaintainer {
         return AsyncUtil.DONE;
     }
 
+    /**
+     * Update the documents of a partitioned index. Each document goes to the directory of the partition that its
+     * partition field value routes it to, and the partition metadata is updated one document at a time so that
+     * several documents for the same partition count correctly.
+     */
+    @Nonnull
+    private <M extends Message> CompletableFuture<Void> updatePartitioned(@Nullable FDBIndexableRecord<M> oldRecord,
+                                                                          @Nullable FDBIndexableRecord<M> newRecord,
+                                                                          @Nonnull Map<Tuple, List<LuceneDocumentFromRecord.DocumentField>> oldRecordFields,
+                                                                          @Nonnull Map<Tuple, List<LuceneDocumentFromRecord.DocumentField>> newRecordFields) {
+        CompletableFuture<Void> future = AsyncUtil.DONE;
+        for (Map.Entry<Tuple, List<LuceneDocumentFromRecord.DocumentField>> entry : oldRecordFields.entrySet()) {
+            final long value = partitioner.getPartitionFieldValue(entry.getValue());
+            future = future.thenCompose(vignore -> partitioner.removeFromPartition(entry.getKey(), value)).thenAccept(partition -> {
+                if (partition == null) {
+                    return;
+                }
+                try {
+                    deleteDocument(LucenePartitioner.getPartitionDirectoryKey(entry.getKey(), partition.getId()), Objects.requireNonNull(oldRecord).getPrimaryKey());
+                } catch (IOException e) {
+                    throw new RecordCoreException("Issue deleting old index keys", "oldRecord", oldRecord, e);
+                }
+            });
+        }
+        for (Map.Entry<Tuple, List<LuceneDocumentFromRecord.DocumentField>> entry : newRecordFields.entrySet()) {
+            final long value = partitioner.getPartitionFieldValue(entry.getValue());
+            future = future.thenCompose(vignore -> partitioner.addToPartition(entry.getKey(), value)).thenAccept(partition -> {
+                try {
+                    writeDocument(entry.getValue(), LucenePartitioner.getPartitionDirectoryKey(entry.getKey(), partition.getId()), Objects.requireNonNull(newRecord).getPrimaryKey());
+                } catch (IOException e) {
+                    throw new RecordCoreException("Issue updating new index keys", e)
+                            .addLogInfo("newRecord", newRecord);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Split the first over-full partition of a group by moving the documents with the highest partition field values
+     * into a new partition. The split point is chosen by bisecting the partition's value range with document counts
+     * so that no more than half the partition, and no more than the requested limit, is moved.
+     */
+    @Nonnull
+    private CompletableFuture<IndexOperationResult> rebalancePartitions(@Nonnull LucenePartitionRebalance rebalance) {
+        if (!partitioner.isPartitioningEnabled()) {
+            throw new RecordCoreArgumentException("Lucene index is not partitioned",
+                    LogMessageKeys.INDEX_NAME, state.index.getName());
+        }
+        final Tuple groupingKey = rebalance.getGroupingKey() == null ? TupleHelpers.EMPTY : rebalance.getGroupingKey();
+        return partitioner.getAllPartitionMetaInfo(groupingKey).thenCompose(partitions -> {
+            for (LuceneIndexProto.LucenePartitionInfo partition : partitions) {
+                if (partition.getCount() <= partitioner.getHighWatermark() || partition.getTo() <= partition.getFrom()) {
+                    continue;
+                }
+                final Tuple directoryKey = LucenePartitioner.getPartitionDirectoryKey(groupingKey, partition.getId());
+                final List<Tuple> primaryKeys;
+                final long splitValue;
+                try (IndexReader reader = directoryManager.getIndexReader(directoryKey)) {
+                    final IndexSearcher searcher = new IndexSearcher(reader);
+                    final int target = Math.min(reader.numDocs() / 2, rebalance.getMaxDocumentsToMove());
+                    long low = partition.getFrom() + 1;
+                    long high = partition.getTo();
+                    if (target <= 0 || searcher.count(partitioner.newPartitionFieldRangeQuery(high, Long.MAX_VALUE)) > target) {
+                        continue;
+                    }
+                    while (low < high) {
+                        final long mid = (low >> 1) + (high >> 1) + (low & high & 1);
+                        if (searcher.count(partitioner.newPartitionFieldRangeQuery(mid, Long.MAX_VALUE)) <= target) {
+                            high = mid;
+                        } else {
+                            low = mid + 1;
+                        }
+                    }
+                    splitValue = low;
+                    final TopDocs moving = searcher.search(partitioner.newPartitionFieldRangeQuery(splitValue, Long.MAX_VALUE), target);
+                    primaryKeys = new ArrayList<>(moving.scoreDocs.length);
+                    for (ScoreDoc scoreDoc : moving.scoreDocs) {
+                        final BytesRef pk = searcher.doc(scoreDoc.doc, Set.of(PRIMARY_KEY_FIELD_NAME)).getField(PRIMARY_KEY_FIELD_NAME).binaryValue();
+                        primaryKeys.add(Tuple.fromBytes(pk.bytes, pk.offset, pk.length));
+                    }
+                } catch (IOException e) {
+                    throw new RecordCoreException("Issue reading partition to rebalance", e)
+                            .addLogInfo(LogMessageKeys.INDEX_NAME, state.index.getName())
+                            .addLogInfo("partition", partition.getId());
+                }
+                if (primaryKeys.isEmpty()) {
+                    continue;
+                }
+                return partitioner.splitPartition(groupingKey, partition, splitValue, primaryKeys.size())
+                        .thenCompose(created -> moveDocuments(groupingKey, directoryKey,
+                                LucenePartitioner.getPartitionDirectoryKey(groupingKey, created.getId()), primaryKeys))
+                        .thenApply(vignore -> new LucenePartitionRebalanceResult(primaryKeys.size()));
+            }
+            return CompletableFuture.completedFuture(new LucenePartitionRebalanceResult(0));
+        });
+    }
+
+    @Nonnull
+    private CompletableFuture<Void> moveDocuments(@Nonnull Tuple groupingKey, @Nonnull Tuple fromDirectoryKey,
+                                                  @Nonnull Tuple toDirectoryKey, @Nonnull List<Tuple> primaryKeys) {
+        final KeyExpression root = state.index.getRootExpression();
+        // Load the records concurrently, but write the documents one at a time, since the writer may be replaced
+        // when the analyzer changes.
+        return AsyncUtil.getAll(primaryKeys.stream().map(state.store::loadRecordAsync).collect(Collectors.toList()))
+                .thenAccept(records -> {
+                    for (int i = 0; i < primaryKeys.size(); i++) {
+                        final Tuple primaryKey = primaryKeys.get(i);
+                        try {
+                            deleteDocument(fromDirectoryKey, primaryKey);
+                            final List<LuceneDocumentFromRecord.DocumentField> fields = LuceneDocumentFromRecord.getRecordFields(root, records.get(i)).get(groupingKey);
+                            if (fields != null) {
+                                writeDocument(fields, toDirectoryKey, primaryKey);
+                            }
+                        } catch (IOException e) {
+                            throw new RecordCoreException("Issue moving document between partitions", e)
+                                    .addLogInfo(LogMessageKeys.PRIMARY_KEY, primaryKey);
+                        }
+                    }
+                    if (state.context.getTimer() != null) {
+                        state.context.getTimer().increment(LuceneEvents.Counts.LUCENE_PARTITION_REBALANCE_DOCUMENTS, primaryKeys.size());
+                    }
+                });
+    }
+
+    /**
+     * Write queued document changes for an index with deferred writes. Each queued primary key's old document is
+     * deleted and its current document, if the record still has one in the group, is added, all with the same writers.
+     */
+    @Nonnull
+    private CompletableFuture<IndexOperationResult> drainPendingWrites(@Nonnull LucenePendingWriteDrain drain) {
+        if (pendingWriteQueue == null) {
+            throw new RecordCoreArgumentException("Lucene index does not have deferred writes",
+                    LogMessageKeys.INDEX_NAME, state.index.getName());
+        }
+        final KeyExpression root = state.index.getRootExpression();
+        return pendingWriteQueue.getEntries(drain.getMaxDocuments()).thenCompose(entries ->
+                AsyncUtil.getAll(entries.stream().map(entry -> state.store.loadRecordAsync(entry.getPrimaryKey())).collect(Collectors.toList()))
+                        .thenApply(records -> {
+                            for (int i = 0; i < entries.size(); i++) {
+                                final LucenePendingWriteQueue.Entry entry = entries.get(i);
+                                try {
+                                    deleteDocument(entry.getGroupingKey(), entry.getPrimaryKey());
+                                    final List<LuceneDocumentFromRecord.DocumentField> fields = LuceneDocumentFromRecord.getRecordFields(root, records.get(i)).get(entry.getGroupingKey());
+                                    if (fields != null) {
+                                        writeDocument(fields, entry.getGroupingKey(), entry.getPrimaryKey());
+                                    }
+                                } catch (IOException e) {
+                                    throw new RecordCoreException("Issue writing queued index document", e)
+                                            .addLogInfo(LogMessageKeys.PRIMARY_KEY, entry.getPrimaryKey());
+                                }
+                                pendingWriteQueue.dequeue(entry.getGroupingKey(), entry.getPrimaryKey());
+                            }
+                            if (state.context.getTimer() != null) {
+                                state.context.getTimer().increment(LuceneEvents.Counts.LUCENE_PENDING_WRITES_DRAINED, entries.size());
+                            }
+                            return new LucenePendingWriteDrainResult(entries.size());
+                        }));
+    }
+
+    /**
+     * Index the queued changes of a group into in-memory directories, so that a scan can include them. This fails if
+     * the group has more than {@link LuceneRecordContextProperties#LUCENE_PENDING_WRITES_MERGE_LIMIT} queued changes.
+     */
+    @Nonnull
+    @SuppressWarnings("PMD.CloseResource")
+    private CompletableFuture<LucenePendingWriteQueue.PendingDocuments> loadPendingDocuments(@Nullable Tuple groupingKey) {
+        final Tuple group = groupingKey == null ? TupleHelpers.EMPTY : groupingKey;
+        final KeyExpression root = state.index.getRootExpression();
+        final int limit = state.context.getPropertyStorage().getPropertyValue(LuceneRecordContextProperties.LUCENE_PENDING_WRITES_MERGE_LIMIT);
+        return Objects.requireNonNull(pendingWriteQueue).getPrimaryKeys(group, limit).thenCompose(primaryKeys ->
+                AsyncUtil.getAll(primaryKeys.stream().map(state.store::loadRecordAsync).collect(Collectors.toList()))
+                        .thenApply(records -> {
+                            final List<BytesRef> primaryKeyTerms = new ArrayList<>(primaryKeys.size());
+                            // one directory per analyzer, as with the directory manager's writers
+                            final Map<String, IndexWriter> writers = new HashMap<>();
+                            final List<Directory> directories = new ArrayList<>();
+                            try {
+                                for (int i = 0; i < primaryKeys.size(); i++) {
+                                    primaryKeyTerms.add(new BytesRef(keySerializer.asPackedByteArray(primaryKeys.get(i))));
+                                    final List<LuceneDocumentFromRecord.DocumentField> fields = LuceneDocumentFromRecord.getRecordFields(root, records.get(i)).get(group);
+                                    if (fields == null) {
+                                        continue;
+                                    }
+                                    final LuceneAnalyzerWrapper analyzer = indexAnalyzerSelector.provideIndexAnalyzer(getTexts(fields));
+                                    IndexWriter writer = writers.get(analyzer.getUniqueIdentifier());
+                                    if (writer == null) {
+                                        final Directory directory = new ByteBuffersDirectory();
+                                        directories.add(directory);
+                                        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer.getAnalyzer()));
+                                        writers.put(analyzer.getUniqueIdentifier(), writer);
+                                    }
+                                    writer.addDocument(buildDocument(fields, primaryKeys.get(i), false));
+                                }
+                                IOUtils.close(writers.values());
+                            } catch (IOException e) {
+                                IOUtils.closeWhileHandlingException(writers.values());
+                                throw new RecordCoreException("Issue indexing queued documents", e)
+                                        .addLogInfo(LogMessageKeys.INDEX_NAME, state.index.getName());
+                            }
+                            if (state.context.getTimer() != null) {
+                                state.context.getTimer().increment(LuceneEvents.Counts.LUCENE_PENDING_WRITES_MERGED, primaryKeys.size());
+                            }
+                            return new LucenePendingWriteQueue.PendingDocuments(primaryKeyTerms, directories);
+                        }));
+    }
+
     private FieldType getTextFieldType(LuceneDocumentFromRecord.DocumentField field) {
         FieldType ft = new FieldType();
 
@@ -426,6 +686,9 @@ public class LuceneIndexMaintainer extends StandardIndexMaintainer {
     public CompletableFuture<Void> deleteWhere(Transaction tr, @Nonnull Tuple prefix) {
         LOG.trace("deleteWhere transaction={}, prefix={}", tr, prefix);
         directoryManager.invalidatePrefix(prefix);
+        if (pendingWriteQueue != null) {
+            pendingWriteQueue.clear(prefix);
+        }
         return super.deleteWhere(tr, prefix);
     }
 
@@ -433,6 +696,12 @@ public class LuceneIndexMaintainer extends StandardIndexMaintainer {
     @Nonnull
     public CompletableFuture<IndexOperationResult> performOperation(@Nonnull IndexOperation operation) {
         LOG.trace("performOperation operation={}", operation);
+        if (operation instanceof LucenePartitionRebalance) {
+            return rebalancePartitions((LucenePartitionRebalance)operation);
+        }
+        if (operation instanceof LucenePendingWriteDrain) {
+            return drainPendingWrites((LucenePendingWriteDrain)operation);
+        }
         return CompletableFuture.completedFuture(new IndexOperationResult() {
         });
     }
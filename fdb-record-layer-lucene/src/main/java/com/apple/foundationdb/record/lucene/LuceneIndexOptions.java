@@ -70,6 +70,23 @@ public class LuceneIndexOptions {
      */
     public static final String TEXT_SYNONYM_SET_NAME_OPTION = "textSynonymSetName";
     public static final String PRIMARY_KEY_SERIALIZATION_FORMAT = "primaryKeySerializationFormat";
+    /**
+     * The name of an {@code INT} or {@code LONG} document field (such as a timestamp) by which the documents of each group
+     * are split into bounded partitions, each of which is a separate Lucene directory.
+     * If not set, the index is not partitioned.
+     */
+    public static final String INDEX_PARTITION_BY_FIELD_NAME = "partitionFieldName";
+    /**
+     * The number of documents above which a partition is considered full. New documents past the end of a full partition
+     * start a new partition, and a {@link LucenePartitionRebalance} splits partitions that have grown beyond it.
+     */
+    public static final String INDEX_PARTITION_HIGH_WATERMARK = "partitionHighWatermark";
+    /**
+     * Whether record saves only queue the changed primary key, leaving the Lucene document to be written later
+     * by a {@link LucenePendingWriteDrain}. Scans still see the queued changes. While the index is being built,
+     * documents are written directly.
+     */
+    public static final String INDEX_DEFERRED_WRITES = "deferredWrites";
 
     private LuceneIndexOptions() {
     }
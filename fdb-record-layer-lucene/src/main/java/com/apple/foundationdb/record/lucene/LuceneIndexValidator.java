@@ -22,6 +22,7 @@ package com.apple.foundationdb.record.lucene;
 
 import com.apple.foundationdb.annotation.API;
 import com.apple.foundationdb.record.RecordMetaData;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
 import com.apple.foundationdb.record.metadata.Index;
 import com.apple.foundationdb.record.metadata.IndexValidator;
 import com.apple.foundationdb.record.metadata.MetaDataException;
@@ -30,6 +31,7 @@ import com.apple.foundationdb.record.metadata.RecordType;
 import com.google.common.annotations.VisibleForTesting;
 
 import javax.annotation.Nonnull;
+import java.util.Set;
 
 /**
  * Validator for Lucene indexes.
@@ -52,10 +54,83 @@ public class LuceneIndexValidator extends IndexValidator {
         validateIndexOptions(index, recordMetadata);
     }
 
+    @Override
+    protected void validateChangedOptions(@Nonnull Index oldIndex, @Nonnull Set<String> changedOptions) {
+        if (changedOptions.contains(LuceneIndexOptions.INDEX_DEFERRED_WRITES)) {
+            // Documents written before deferred writes were turned on lack the primary key term that a scan uses to
+            // hide the stale documents of queued changes, and turning them off would strand the queued changes, so
+            // either way the index must be rebuilt.
+            if (isDeferredWrites(oldIndex) != isDeferredWrites(index)) {
+                throw new MetaDataException("index deferred writes option changed",
+                        LogMessageKeys.INDEX_NAME, index.getName(),
+                        LogMessageKeys.INDEX_OPTION, LuceneIndexOptions.INDEX_DEFERRED_WRITES,
+                        LogMessageKeys.OLD_OPTION, oldIndex.getOption(LuceneIndexOptions.INDEX_DEFERRED_WRITES),
+                        LogMessageKeys.NEW_OPTION, index.getOption(LuceneIndexOptions.INDEX_DEFERRED_WRITES));
+            }
+            changedOptions.remove(LuceneIndexOptions.INDEX_DEFERRED_WRITES);
+        }
+        super.validateChangedOptions(oldIndex, changedOptions);
+    }
+
+    private static boolean isDeferredWrites(@Nonnull Index index) {
+        final String deferredWrites = index.getOption(LuceneIndexOptions.INDEX_DEFERRED_WRITES);
+        return deferredWrites != null && Boolean.parseBoolean(deferredWrites.strip());
+    }
+
     @VisibleForTesting
     public static void validateIndexOptions(@Nonnull Index index, @Nonnull RecordMetaData recordMetaData) {
         validateAnalyzerNamePerFieldOption(LuceneIndexOptions.LUCENE_ANALYZER_NAME_PER_FIELD_OPTION, index);
         validateAnalyzerNamePerFieldOption(LuceneIndexOptions.AUTO_COMPLETE_ANALYZER_NAME_PER_FIELD_OPTION, index);
+        validatePartitionOptions(index, recordMetaData);
+        validateDeferredWritesOption(index);
+    }
+
+    private static void validateDeferredWritesOption(@Nonnull Index index) {
+        final String deferredWrites = index.getOption(LuceneIndexOptions.INDEX_DEFERRED_WRITES);
+        if (deferredWrites == null) {
+            return;
+        }
+        if (!"true".equalsIgnoreCase(deferredWrites.strip()) && !"false".equalsIgnoreCase(deferredWrites.strip())) {
+            throw new MetaDataException(String.format("Index %s has invalid option value for %s: %s",
+                    index.getName(), LuceneIndexOptions.INDEX_DEFERRED_WRITES, deferredWrites));
+        }
+        // A queued change does not record the document's old partition field value, so draining it could not find
+        // the partition to delete it from.
+        if (Boolean.parseBoolean(deferredWrites.strip()) && index.getOption(LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME) != null) {
+            throw new MetaDataException(String.format("Index %s has option %s with %s",
+                    index.getName(), LuceneIndexOptions.INDEX_DEFERRED_WRITES, LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME));
+        }
+    }
+
+    private static void validatePartitionOptions(@Nonnull Index index, @Nonnull RecordMetaData recordMetaData) {
+        final String partitionFieldName = index.getOption(LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME);
+        final String highWatermark = index.getOption(LuceneIndexOptions.INDEX_PARTITION_HIGH_WATERMARK);
+        if (partitionFieldName == null) {
+            if (highWatermark != null) {
+                throw new MetaDataException(String.format("Index %s has option %s without %s",
+                        index.getName(), LuceneIndexOptions.INDEX_PARTITION_HIGH_WATERMARK, LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME));
+            }
+            return;
+        }
+        final LuceneIndexExpressions.DocumentFieldDerivation derivation =
+                LuceneIndexExpressions.getDocumentFieldDerivations(index, recordMetaData).get(partitionFieldName);
+        if (derivation == null || (derivation.getType() != LuceneIndexExpressions.DocumentFieldType.INT
+                                   && derivation.getType() != LuceneIndexExpressions.DocumentFieldType.LONG)) {
+            throw new MetaDataException(String.format("Index %s has invalid option value for %s: %s is not an int or long field of the index",
+                    index.getName(), LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME, partitionFieldName));
+        }
+        if (highWatermark != null) {
+            boolean valid;
+            try {
+                valid = Integer.parseInt(highWatermark.strip()) > 0;
+            } catch (NumberFormatException ex) {
+                valid = false;
+            }
+            if (!valid) {
+                throw new MetaDataException(String.format("Index %s has invalid option value for %s: %s",
+                        index.getName(), LuceneIndexOptions.INDEX_PARTITION_HIGH_WATERMARK, highWatermark));
+            }
+        }
     }
 
     private static void validateAnalyzerNamePerFieldOption(@Nonnull String optionKey, @Nonnull Index index) {
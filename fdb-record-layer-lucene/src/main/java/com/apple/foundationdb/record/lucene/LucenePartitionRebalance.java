@@ -0,0 +1,55 @@
+/*
+ * LucenePartitionRebalance.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.lucene;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.provider.foundationdb.IndexOperation;
+import com.apple.foundationdb.tuple.Tuple;
+
+import javax.annotation.Nullable;
+
+/**
+ * Split one over-full partition of a partitioned Lucene index.
+ *
+ * The documents with the highest partition field values are moved into a new partition, at most
+ * {@link #getMaxDocumentsToMove()} of them. The number moved is returned in {@link LucenePartitionRebalanceResult};
+ * callers can repeat the operation in new transactions until it reports that nothing was moved.
+ */
+@API(API.Status.EXPERIMENTAL)
+public class LucenePartitionRebalance extends IndexOperation {
+    @Nullable
+    private final Tuple groupingKey;
+    private final int maxDocumentsToMove;
+
+    public LucenePartitionRebalance(@Nullable Tuple groupingKey, int maxDocumentsToMove) {
+        this.groupingKey = groupingKey;
+        this.maxDocumentsToMove = maxDocumentsToMove;
+    }
+
+    @Nullable
+    public Tuple getGroupingKey() {
+        return groupingKey;
+    }
+
+    public int getMaxDocumentsToMove() {
+        return maxDocumentsToMove;
+    }
+}
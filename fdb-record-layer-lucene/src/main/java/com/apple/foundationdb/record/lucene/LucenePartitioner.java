@@ -0,0 +1,427 @@
+/*
+ * LucenePartitioner.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.lucene;
+
+import com.apple.foundationdb.KeySelector;
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCoreStorageException;
+import com.apple.foundationdb.record.provider.foundationdb.IndexMaintainerState;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleHelpers;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.PointRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Routes the documents of a Lucene index with the {@link LuceneIndexOptions#INDEX_PARTITION_BY_FIELD_NAME} option
+ * to bounded partitions and maintains the metadata for those partitions.
+ *
+ * <p>
+ * Each group of the index has its own partitions, each of which is a separate Lucene directory. A partition covers
+ * the partition field values from the lowest value routed to it up to the start of the next partition, so that
+ * the partitions of a group split the value space into disjoint ranges. The metadata of a partition is a
+ * {@link LuceneIndexProto.LucenePartitionInfo} kept under the grouping key at {@code (PARTITION_META_SUBSPACE, from)},
+ * and its directory is kept under the grouping key at {@code (PARTITION_DATA_SUBSPACE, id)}.
+ * </p>
+ *
+ * <p>
+ * Since the partitions are disjoint, a scan whose query restricts the partition field to a range only needs to
+ * search the partitions overlapping that range, and a scan sorted by the partition field can search the partitions
+ * one at a time in order, stopping as soon as it has enough results.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class LucenePartitioner {
+    public static final int DEFAULT_PARTITION_HIGH_WATERMARK = 400_000;
+    static final int PARTITION_META_SUBSPACE = 0;
+    static final int PARTITION_DATA_SUBSPACE = 1;
+
+    @Nonnull
+    private final IndexMaintainerState state;
+    @Nullable
+    private final String partitionFieldName;
+    private final int highWatermark;
+    @Nullable
+    private LuceneIndexExpressions.DocumentFieldType partitionFieldType;
+
+    public LucenePartitioner(@Nonnull IndexMaintainerState state) {
+        this.state = state;
+        this.partitionFieldName = state.index.getOption(LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME);
+        final String highWatermarkOption = state.index.getOption(LuceneIndexOptions.INDEX_PARTITION_HIGH_WATERMARK);
+        this.highWatermark = highWatermarkOption == null ? DEFAULT_PARTITION_HIGH_WATERMARK : Integer.parseInt(highWatermarkOption.strip());
+    }
+
+    public boolean isPartitioningEnabled() {
+        return partitionFieldName != null;
+    }
+
+    @Nullable
+    public String getPartitionFieldName() {
+        return partitionFieldName;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Get the key, relative to the index subspace, of the directory holding a partition's documents.
+     * @param groupingKey the grouping key of the partition
+     * @param partitionId the id of the partition
+     * @return the directory key to use with the {@link com.apple.foundationdb.record.lucene.directory.FDBDirectoryManager}
+     */
+    @Nonnull
+    public static Tuple getPartitionDirectoryKey(@Nullable Tuple groupingKey, int partitionId) {
+        return (groupingKey == null ? TupleHelpers.EMPTY : groupingKey).add(PARTITION_DATA_SUBSPACE).add(partitionId);
+    }
+
+    @Nonnull
+    private Subspace getMetaSubspace(@Nullable Tuple groupingKey) {
+        return state.indexSubspace.subspace((groupingKey == null ? TupleHelpers.EMPTY : groupingKey).add(PARTITION_META_SUBSPACE));
+    }
+
+    /**
+     * Get the metadata of all the partitions of a group.
+     * @param groupingKey the grouping key
+     * @return a future with the partitions in order of the partition field values they cover
+     */
+    @Nonnull
+    public CompletableFuture<List<LuceneIndexProto.LucenePartitionInfo>> getAllPartitionMetaInfo(@Nullable Tuple groupingKey) {
+        return state.transaction.getRange(getMetaSubspace(groupingKey).range()).asList()
+                .thenApply(keyValues -> keyValues.stream()
+                        .map(keyValue -> parsePartitionInfo(keyValue.getValue()))
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * Get the partition covering a value: the one starting at the greatest value not above it, or else the first.
+     */
+    @Nonnull
+    private CompletableFuture<LuceneIndexProto.LucenePartitionInfo> findPartitionInfo(@Nullable Tuple groupingKey, long value) {
+        final Subspace metaSubspace = getMetaSubspace(groupingKey);
+        final Range range = metaSubspace.range();
+        return state.transaction.getRange(KeySelector.firstGreaterOrEqual(range.begin),
+                        KeySelector.firstGreaterThan(metaSubspace.pack(Tuple.from(value))), 1, true).asList()
+                .thenCompose(below -> {
+                    if (!below.isEmpty()) {
+                        return CompletableFuture.completedFuture(parsePartitionInfo(below.get(0).getValue()));
+                    }
+                    return state.transaction.getRange(range, 1, false).asList()
+                            .thenApply(first -> first.isEmpty() ? null : parsePartitionInfo(first.get(0).getValue()));
+                });
+    }
+
+    @Nonnull
+    private static LuceneIndexProto.LucenePartitionInfo parsePartitionInfo(@Nonnull byte[] value) {
+        try {
+            return LuceneIndexProto.LucenePartitionInfo.parseFrom(value);
+        } catch (InvalidProtocolBufferException ex) {
+            throw new RecordCoreStorageException("invalid Lucene partition metadata", ex);
+        }
+    }
+
+    private void savePartitionInfo(@Nullable Tuple groupingKey, @Nonnull LuceneIndexProto.LucenePartitionInfo partition) {
+        state.transaction.set(getMetaSubspace(groupingKey).pack(Tuple.from(partition.getFrom())), partition.toByteArray());
+    }
+
+    private void clearPartitionInfo(@Nullable Tuple groupingKey, @Nonnull LuceneIndexProto.LucenePartitionInfo partition) {
+        state.transaction.clear(getMetaSubspace(groupingKey).pack(Tuple.from(partition.getFrom())));
+    }
+
+    @Nonnull
+    private CompletableFuture<Integer> getNextPartitionId(@Nullable Tuple groupingKey) {
+        return getAllPartitionMetaInfo(groupingKey)
+                .thenApply(partitions -> partitions.stream().mapToInt(LuceneIndexProto.LucenePartitionInfo::getId).max().orElse(-1) + 1);
+    }
+
+    /**
+     * Get the partition field value of a document. A document whose record does not set the partition field is
+     * routed as if its value were {@link #getMissingPartitionFieldValue}, so that such documents all sort before any
+     * real value and end up together in the lowest partition.
+     * @param fields the document's fields
+     * @return the value of the partition field
+     */
+    long getPartitionFieldValue(@Nonnull List<LuceneDocumentFromRecord.DocumentField> fields) {
+        for (LuceneDocumentFromRecord.DocumentField field : fields) {
+            if (field.getFieldName().equals(partitionFieldName) && field.getValue() instanceof Number) {
+                return ((Number)field.getValue()).longValue();
+            }
+        }
+        return getMissingPartitionFieldValue();
+    }
+
+    /**
+     * Get the partition field value used for documents whose record does not set the partition field. This is the
+     * smallest value of the field's type, which is also what a scan sorted by the partition field
+     * {@linkplain #withMissingPartitionFieldValue sorts} such documents as.
+     * @return the value for a missing partition field
+     */
+    public long getMissingPartitionFieldValue() {
+        return getPartitionFieldType() == LuceneIndexExpressions.DocumentFieldType.INT ? Integer.MIN_VALUE : Long.MIN_VALUE;
+    }
+
+    /**
+     * Make a sort led by the partition field sort documents without that field where they are partitioned, rather
+     * than as {@code 0}, which is Lucene's default. Otherwise, the partitions would not be in sort order and resuming
+     * from a continuation could skip the partition of such documents.
+     * @param sort the sort of a scan
+     * @return a sort whose first field has the {@linkplain #getMissingPartitionFieldValue missing value} set or the
+     * given sort if it is not led by the partition field
+     */
+    @Nullable
+    Sort withMissingPartitionFieldValue(@Nullable Sort sort) {
+        if (!isSortedByPartitionField(sort)) {
+            return sort;
+        }
+        final SortField[] sortFields = sort.getSort().clone();
+        final SortField first = sortFields[0];
+        final SortField replacement = new SortField(first.getField(), first.getType(), first.getReverse());
+        if (first.getType() == SortField.Type.INT) {
+            replacement.setMissingValue((int)getMissingPartitionFieldValue());
+        } else {
+            replacement.setMissingValue(getMissingPartitionFieldValue());
+        }
+        sortFields[0] = replacement;
+        return new Sort(sortFields);
+    }
+
+    /**
+     * Count a new document in the partition that its partition field value routes it to. If that partition is full
+     * and the value lies past either end of it, as happens when appending in time order, a new partition starting at
+     * the value is created instead. A value inside a full partition still goes to it and is left for
+     * {@link LucenePartitionRebalance} to split off.
+     * @param groupingKey the grouping key of the document
+     * @param value the document's partition field value
+     * @return a future with the partition to add the document to
+     */
+    @Nonnull
+    CompletableFuture<LuceneIndexProto.LucenePartitionInfo> addToPartition(@Nullable Tuple groupingKey, long value) {
+        return findPartitionInfo(groupingKey, value).thenCompose(existing -> {
+            if (existing != null && (existing.getCount() < highWatermark || (value >= existing.getFrom() && value <= existing.getTo()))) {
+                final LuceneIndexProto.LucenePartitionInfo updated = existing.toBuilder()
+                        .setCount(existing.getCount() + 1)
+                        .setFrom(Math.min(existing.getFrom(), value))
+                        .setTo(Math.max(existing.getTo(), value))
+                        .build();
+                if (updated.getFrom() != existing.getFrom()) {
+                    clearPartitionInfo(groupingKey, existing);
+                }
+                savePartitionInfo(groupingKey, updated);
+                return CompletableFuture.completedFuture(updated);
+            }
+            return getNextPartitionId(groupingKey).thenApply(id -> {
+                final LuceneIndexProto.LucenePartitionInfo created = LuceneIndexProto.LucenePartitionInfo.newBuilder()
+                        .setId(id)
+                        .setCount(1)
+                        .setFrom(value)
+                        .setTo(value)
+                        .build();
+                savePartitionInfo(groupingKey, created);
+                if (state.context.getTimer() != null) {
+                    state.context.getTimer().increment(LuceneEvents.Counts.LUCENE_PARTITIONS_CREATED);
+                }
+                return created;
+            });
+        });
+    }
+
+    /**
+     * Uncount a removed document from the partition that its partition field value routes it to.
+     * @param groupingKey the grouping key of the document
+     * @param value the document's partition field value
+     * @return a future with the partition to remove the document from or {@code null} if the group has no partitions
+     */
+    @Nonnull
+    CompletableFuture<LuceneIndexProto.LucenePartitionInfo> removeFromPartition(@Nullable Tuple groupingKey, long value) {
+        return findPartitionInfo(groupingKey, value).thenApply(existing -> {
+            if (existing != null) {
+                savePartitionInfo(groupingKey, existing.toBuilder().setCount(Math.max(0, existing.getCount() - 1)).build());
+            }
+            return existing;
+        });
+    }
+
+    /**
+     * Record that the documents of a partition with values from {@code splitValue} up have been moved into a new partition.
+     * @param groupingKey the grouping key of the partition
+     * @param partition the partition that was split
+     * @param splitValue the lowest value of the new partition
+     * @param moved the number of documents moved
+     * @return a future with the new partition
+     */
+    @Nonnull
+    CompletableFuture<LuceneIndexProto.LucenePartitionInfo> splitPartition(@Nullable Tuple groupingKey,
+                                                                           @Nonnull LuceneIndexProto.LucenePartitionInfo partition,
+                                                                           long splitValue, int moved) {
+        return getNextPartitionId(groupingKey).thenApply(id -> {
+            savePartitionInfo(groupingKey, partition.toBuilder()
+                    .setCount(Math.max(0, partition.getCount() - moved))
+                    .setTo(splitValue - 1)
+                    .build());
+            final LuceneIndexProto.LucenePartitionInfo created = LuceneIndexProto.LucenePartitionInfo.newBuilder()
+                    .setId(id)
+                    .setCount(moved)
+                    .setFrom(splitValue)
+                    .setTo(partition.getTo())
+                    .build();
+            savePartitionInfo(groupingKey, created);
+            if (state.context.getTimer() != null) {
+                state.context.getTimer().increment(LuceneEvents.Counts.LUCENE_PARTITIONS_CREATED);
+            }
+            return created;
+        });
+    }
+
+    /**
+     * Get a query matching the documents whose partition field value is in a range.
+     * @param lower the inclusive lower bound
+     * @param upper the inclusive upper bound
+     * @return a point range query on the partition field
+     */
+    @Nonnull
+    Query newPartitionFieldRangeQuery(long lower, long upper) {
+        if (getPartitionFieldType() == LuceneIndexExpressions.DocumentFieldType.INT) {
+            return IntPoint.newRangeQuery(partitionFieldName,
+                    (int)Math.max(lower, Integer.MIN_VALUE), (int)Math.min(upper, Integer.MAX_VALUE));
+        }
+        return LongPoint.newRangeQuery(partitionFieldName, lower, upper);
+    }
+
+    @Nonnull
+    private LuceneIndexExpressions.DocumentFieldType getPartitionFieldType() {
+        if (partitionFieldType == null) {
+            final LuceneIndexExpressions.DocumentFieldDerivation derivation = LuceneIndexExpressions
+                    .getDocumentFieldDerivations(state.index, state.store.getRecordMetaData()).get(partitionFieldName);
+            partitionFieldType = derivation == null ? LuceneIndexExpressions.DocumentFieldType.LONG : derivation.getType();
+        }
+        return partitionFieldType;
+    }
+
+    /**
+     * Whether a sort is led by the partition field, so that the partitions can be searched one after another.
+     * @param sort the sort of a scan
+     * @return {@code true} if the first sort field is the partition field
+     */
+    boolean isSortedByPartitionField(@Nullable Sort sort) {
+        if (sort == null || sort.getSort().length == 0) {
+            return false;
+        }
+        final SortField first = sort.getSort()[0];
+        return first.getField() != null && first.getField().equals(partitionFieldName);
+    }
+
+    /**
+     * Get the partitions that a scan needs to search, in the order to search them. Partitions outside the range
+     * that the query requires of the partition field are dropped. When the scan is sorted by the partition field, the
+     * partitions are put in sort order and those wholly before the continuation's position are dropped as well.
+     * @param partitions all the partitions of the group
+     * @param query the query of the scan
+     * @param sort the sort of the scan
+     * @param searchAfter the position to continue from, if any
+     * @return the partitions to search
+     */
+    @Nonnull
+    List<LuceneIndexProto.LucenePartitionInfo> selectQueryPartitions(@Nonnull List<LuceneIndexProto.LucenePartitionInfo> partitions,
+                                                                     @Nonnull Query query, @Nullable Sort sort,
+                                                                     @Nullable ScoreDoc searchAfter) {
+        final long[] bounds = getPartitionFieldBounds(query);
+        final boolean sortedByPartition = isSortedByPartitionField(sort);
+        final boolean reverse = sortedByPartition && sort.getSort()[0].getReverse();
+        final Object after = sortedByPartition && searchAfter instanceof FieldDoc ? ((FieldDoc)searchAfter).fields[0] : null;
+        final List<LuceneIndexProto.LucenePartitionInfo> selected = new ArrayList<>(partitions.size());
+        for (LuceneIndexProto.LucenePartitionInfo partition : partitions) {
+            if (partition.getFrom() > bounds[1] || partition.getTo() < bounds[0]) {
+                continue;
+            }
+            if (after instanceof Number) {
+                final long afterValue = ((Number)after).longValue();
+                if (reverse ? partition.getFrom() > afterValue : partition.getTo() < afterValue) {
+                    continue;
+                }
+            }
+            selected.add(partition);
+        }
+        if (reverse) {
+            selected.sort(Comparator.comparingLong(LuceneIndexProto.LucenePartitionInfo::getFrom).reversed());
+        }
+        if (state.context.getTimer() != null) {
+            state.context.getTimer().increment(LuceneEvents.Counts.LUCENE_PARTITIONS_PRUNED, partitions.size() - selected.size());
+        }
+        return selected;
+    }
+
+    /**
+     * Get the range of partition field values that a query requires, from the point range queries on the partition
+     * field among its required clauses.
+     * @param query the query
+     * @return the inclusive lower and upper bounds
+     */
+    @Nonnull
+    long[] getPartitionFieldBounds(@Nonnull Query query) {
+        final long[] bounds = {Long.MIN_VALUE, Long.MAX_VALUE};
+        addPartitionFieldBounds(query, bounds);
+        return bounds;
+    }
+
+    private void addPartitionFieldBounds(@Nonnull Query query, @Nonnull long[] bounds) {
+        if (query instanceof PointRangeQuery) {
+            final PointRangeQuery rangeQuery = (PointRangeQuery)query;
+            if (rangeQuery.getField().equals(partitionFieldName) && rangeQuery.getNumDims() == 1) {
+                bounds[0] = Math.max(bounds[0], decodePoint(rangeQuery.getLowerPoint()));
+                bounds[1] = Math.min(bounds[1], decodePoint(rangeQuery.getUpperPoint()));
+            }
+        } else if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery)query).clauses()) {
+                if (clause.isRequired()) {
+                    addPartitionFieldBounds(clause.getQuery(), bounds);
+                }
+            }
+        } else if (query instanceof BoostQuery) {
+            addPartitionFieldBounds(((BoostQuery)query).getQuery(), bounds);
+        } else if (query instanceof ConstantScoreQuery) {
+            addPartitionFieldBounds(((ConstantScoreQuery)query).getQuery(), bounds);
+        }
+    }
+
+    private static long decodePoint(@Nonnull byte[] point) {
+        return point.length == Integer.BYTES ? IntPoint.decodeDimension(point, 0) : LongPoint.decodeDimension(point, 0);
+    }
+}
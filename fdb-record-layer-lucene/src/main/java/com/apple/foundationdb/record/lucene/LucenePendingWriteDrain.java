@@ -0,0 +1,45 @@
+/*
+ * LucenePendingWriteDrain.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.lucene;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.provider.foundationdb.IndexOperation;
+
+/**
+ * Write queued document changes into a Lucene index with the {@link LuceneIndexOptions#INDEX_DEFERRED_WRITES} option.
+ *
+ * At most {@link #getMaxDocuments()} queued changes are written, all with one index writer, so that they are flushed
+ * into a single segment when the transaction commits. The number written is returned in
+ * {@link LucenePendingWriteDrainResult}; see {@link LucenePendingWriteDrainer} for repeating the operation until the
+ * queue is empty.
+ */
+@API(API.Status.EXPERIMENTAL)
+public class LucenePendingWriteDrain extends IndexOperation {
+    private final int maxDocuments;
+
+    public LucenePendingWriteDrain(int maxDocuments) {
+        this.maxDocuments = maxDocuments;
+    }
+
+    public int getMaxDocuments() {
+        return maxDocuments;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * LucenePendingWriteDrainResult.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.lucene;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.provider.foundationdb.IndexOperationResult;
+
+/**
+ * Number of queued document changes written by a {@link LucenePendingWriteDrain}.
+ */
+@API(API.Status.EXPERIMENTAL)
+public class LucenePendingWriteDrainResult extends IndexOperationResult {
+    private final int documentsDrained;
+
+    public LucenePendingWriteDrainResult(int documentsDrained) {
+        this.documentsDrained = documentsDrained;
+    }
+
+    public int getDocumentsDrained() {
+        return documentsDrained;
+    }
+}
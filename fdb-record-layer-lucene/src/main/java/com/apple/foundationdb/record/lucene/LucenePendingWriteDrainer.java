@@ -0,0 +1,91 @@
+/*
+ * LucenePendingWriteDrainer.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.lucene;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.record.provider.foundationdb.FDBDatabaseRunner;
+import com.apple.foundationdb.record.provider.foundationdb.FDBRecordStore;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drains the queue of a Lucene index with the {@link LuceneIndexOptions#INDEX_DEFERRED_WRITES} option, one
+ * {@link LucenePendingWriteDrain} per transaction, until it is empty.
+ *
+ * <p>
+ * This is meant to be run in the background, for example periodically, or after a burst of saves. The batch size
+ * trades the number of segments created, which must later be merged, against the size and duration of each
+ * transaction.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+public class LucenePendingWriteDrainer {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    @Nonnull
+    private final FDBDatabaseRunner runner;
+    @Nonnull
+    private final FDBRecordStore.Builder storeBuilder;
+    @Nonnull
+    private final String indexName;
+    private final int batchSize;
+
+    public LucenePendingWriteDrainer(@Nonnull FDBDatabaseRunner runner, @Nonnull FDBRecordStore.Builder storeBuilder,
+                                     @Nonnull String indexName, int batchSize) {
+        this.runner = runner;
+        this.storeBuilder = storeBuilder;
+        this.indexName = indexName;
+        this.batchSize = batchSize;
+    }
+
+    public LucenePendingWriteDrainer(@Nonnull FDBDatabaseRunner runner, @Nonnull FDBRecordStore.Builder storeBuilder,
+                                     @Nonnull String indexName) {
+        this(runner, storeBuilder, indexName, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Write one batch of queued changes in a new transaction.
+     * @return a future with the number of changes written
+     */
+    @Nonnull
+    public CompletableFuture<Integer> drainBatchAsync() {
+        return runner.runAsync(context -> storeBuilder.copyBuilder().setContext(context).openAsync()
+                .thenCompose(store -> store.performIndexOperationAsync(indexName, new LucenePendingWriteDrain(batchSize)))
+                .thenApply(result -> ((LucenePendingWriteDrainResult)result).getDocumentsDrained()));
+    }
+
+    /**
+     * Write batches of queued changes until a batch comes back short.
+     * Changes queued concurrently may still be left for another call.
+     * @return a future with the total number of changes written
+     */
+    @Nonnull
+    public CompletableFuture<Integer> drainAsync() {
+        final AtomicInteger total = new AtomicInteger();
+        return AsyncUtil.whileTrue(() -> drainBatchAsync().thenApply(drained -> {
+            total.addAndGet(drained);
+            return drained >= batchSize;
+        }), runner.getExecutor()).thenApply(vignore -> total.get());
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * LucenePendingWriteQueue.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.lucene;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCoreException;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.metadata.expressions.GroupingKeyExpression;
+import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
+import com.apple.foundationdb.record.provider.foundationdb.IndexMaintainerState;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleHelpers;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * The queue of document changes not yet written to a Lucene index with the
+ * {@link LuceneIndexOptions#INDEX_DEFERRED_WRITES} option.
+ *
+ * <p>
+ * Saving or deleting a record only adds an entry for the record's primary key, under the index's secondary subspace
+ * at {@code (PENDING_WRITE_QUEUE_SUBSPACE, groupingKey..., primaryKey...)}. Since the entry does not say what changed,
+ * several changes to the same record collapse into one, and whoever drains it re-reads the record to find its current
+ * document, or to find that it is gone. A {@link LucenePendingWriteDrain} then writes many queued documents in a single
+ * transaction, and so in a single segment flush, rather than one small flush per saving transaction.
+ * </p>
+ */
+@API(API.Status.INTERNAL)
+public class LucenePendingWriteQueue {
+    static final int PENDING_WRITE_QUEUE_SUBSPACE = 0;
+
+    @Nonnull
+    private final IndexMaintainerState state;
+    @Nonnull
+    private final Subspace queueSubspace;
+    private final int groupingCount;
+
+    public LucenePendingWriteQueue(@Nonnull IndexMaintainerState state) {
+        this.state = state;
+        this.queueSubspace = state.store.indexSecondarySubspace(state.index).subspace(Tuple.from(PENDING_WRITE_QUEUE_SUBSPACE));
+        final KeyExpression root = state.index.getRootExpression();
+        this.groupingCount = root instanceof GroupingKeyExpression ? ((GroupingKeyExpression)root).getGroupingCount() : 0;
+    }
+
+    public static boolean isDeferredWritesEnabled(@Nonnull IndexMaintainerState state) {
+        final String deferredWrites = state.index.getOption(LuceneIndexOptions.INDEX_DEFERRED_WRITES);
+        return deferredWrites != null && Boolean.parseBoolean(deferredWrites.strip());
+    }
+
+    /**
+     * Queue a change to the document of a record in a group.
+     * @param groupingKey the grouping key of the document
+     * @param primaryKey the primary key of the record
+     */
+    public void enqueue(@Nonnull Tuple groupingKey, @Nonnull Tuple primaryKey) {
+        state.transaction.set(queueSubspace.pack(groupingKey.addAll(primaryKey)), TupleHelpers.EMPTY.pack());
+        if (state.context.getTimer() != null) {
+            state.context.getTimer().increment(LuceneEvents.Counts.LUCENE_PENDING_WRITES_QUEUED);
+        }
+    }
+
+    /**
+     * Remove a change from the queue, once its document has been written. Since {@link #getEntries} reads at snapshot
+     * isolation, this adds a read conflict on the change's key, so that the drain conflicts with a transaction that
+     * queues the same record again, rather than clearing its newer change unwritten.
+     * @param groupingKey the grouping key of the document
+     * @param primaryKey the primary key of the record
+     */
+    public void dequeue(@Nonnull Tuple groupingKey, @Nonnull Tuple primaryKey) {
+        final byte[] key = queueSubspace.pack(groupingKey.addAll(primaryKey));
+        state.transaction.addReadConflictKey(key);
+        state.transaction.clear(key);
+    }
+
+    /**
+     * Remove all the queued changes for groups starting with the given prefix.
+     * @param prefix a prefix of the grouping key
+     */
+    public void clear(@Nonnull Tuple prefix) {
+        state.transaction.clear(queueSubspace.subspace(prefix).range());
+    }
+
+    /**
+     * Get the oldest-keyed queued changes, across all groups. The range is read at snapshot isolation, so that
+     * changes queued concurrently elsewhere in it do not conflict with a drain; {@link #dequeue} adds a conflict for
+     * just the changes that are drained.
+     * @param limit the maximum number of changes to return
+     * @return a future with the grouping key and primary key of each change
+     */
+    @Nonnull
+    public CompletableFuture<List<Entry>> getEntries(int limit) {
+        return state.transaction.snapshot().getRange(queueSubspace.range(), limit).asList()
+                .thenApply(keyValues -> keyValues.stream()
+                        .map(keyValue -> {
+                            final Tuple key = queueSubspace.unpack(keyValue.getKey());
+                            return new Entry(TupleHelpers.subTuple(key, 0, groupingCount), TupleHelpers.subTuple(key, groupingCount, key.size()));
+                        })
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * Get the primary keys of the records in a group with queued changes.
+     * @param groupingKey the grouping key
+     * @param limit the maximum number of primary keys that the caller will accept
+     * @return a future with the primary keys
+     * @throws RecordCoreException if the group has more than {@code limit} queued changes
+     */
+    @Nonnull
+    public CompletableFuture<List<Tuple>> getPrimaryKeys(@Nonnull Tuple groupingKey, int limit) {
+        final Subspace groupSubspace = queueSubspace.subspace(groupingKey);
+        return state.transaction.getRange(groupSubspace.range(), limit + 1).asList()
+                .thenApply(keyValues -> {
+                    if (keyValues.size() > limit) {
+                        throw new RecordCoreException("too many pending writes to merge into a Lucene scan")
+                                .addLogInfo(LogMessageKeys.INDEX_NAME, state.index.getName())
+                                .addLogInfo("groupingKey", groupingKey)
+                                .addLogInfo(LogMessageKeys.LIMIT, limit);
+                    }
+                    return keyValues.stream()
+                            .map(keyValue -> groupSubspace.unpack(keyValue.getKey()))
+                            .collect(Collectors.toList());
+                });
+    }
+
+    /**
+     * One queued change.
+     */
+    public static class Entry {
+        @Nonnull
+        private final Tuple groupingKey;
+        @Nonnull
+        private final Tuple primaryKey;
+
+        public Entry(@Nonnull Tuple groupingKey, @Nonnull Tuple primaryKey) {
+            this.groupingKey = groupingKey;
+            this.primaryKey = primaryKey;
+        }
+
+        @Nonnull
+        public Tuple getGroupingKey() {
+            return groupingKey;
+        }
+
+        @Nonnull
+        public Tuple getPrimaryKey() {
+            return primaryKey;
+        }
+    }
+
+    /**
+     * The queued changes of a group, indexed into in-memory directories so that a scan can search them alongside the
+     * index. Documents in the index for the same primary keys are stale and must be excluded from the search, which
+     * {@link #exclude} does using the primary key term that is only added to documents written with deferred writes.
+     */
+    static class PendingDocuments {
+        @Nonnull
+        private final List<BytesRef> primaryKeyTerms;
+        @Nonnull
+        private final List<Directory> directories;
+
+        PendingDocuments(@Nonnull List<BytesRef> primaryKeyTerms, @Nonnull List<Directory> directories) {
+            this.primaryKeyTerms = primaryKeyTerms;
+            this.directories = directories;
+        }
+
+        public boolean isEmpty() {
+            return primaryKeyTerms.isEmpty();
+        }
+
+        public int size() {
+            return primaryKeyTerms.size();
+        }
+
+        @Nonnull
+        Query exclude(@Nonnull Query query) {
+            if (primaryKeyTerms.isEmpty()) {
+                return query;
+            }
+            return new BooleanQuery.Builder()
+                    .add(query, BooleanClause.Occur.MUST)
+                    .add(new TermInSetQuery(LuceneIndexMaintainer.PRIMARY_KEY_TERM_NAME, primaryKeyTerms), BooleanClause.Occur.MUST_NOT)
+                    .build();
+        }
+
+        @Nonnull
+        @SuppressWarnings("PMD.CloseResource")
+        List<IndexReader> openReaders() throws IOException {
+            final List<IndexReader> readers = new ArrayList<>(directories.size());
+            try {
+                for (Directory directory : directories) {
+                    readers.add(DirectoryReader.open(directory));
+                }
+            } catch (IOException ex) {
+                IOUtils.closeWhileHandlingException(readers);
+                throw ex;
+            }
+            return readers;
+        }
+    }
+}
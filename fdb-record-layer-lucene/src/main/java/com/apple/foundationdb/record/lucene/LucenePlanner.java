@@ -574,10 +574,17 @@ public class LucenePlanner extends RecordQueryPlanner {
         return true;
     }
 
+    /**
+     * Find the index fields whose values can be read back from a matching document, so that a query needing only those
+     * fields can be satisfied by a covering scan without loading the record. That is the case for stored fields and also
+     * for sorted fields, whose doc values hold the field's value for each document.
+     * Text fields are never written as doc values, so they only count if stored.
+     */
     private void getStoredFields(@Nonnull LucenePlanState state) {
         final List<KeyExpression> fields = state.index.getRootExpression().normalizeKeyForPositions();
         for (LuceneIndexExpressions.DocumentFieldDerivation documentField : state.documentFields.values()) {
-            if (documentField.isStored()) {
+            if (documentField.isStored() ||
+                    (documentField.isSorted() && documentField.getType() != LuceneIndexExpressions.DocumentFieldType.TEXT)) {
                 if (state.storedFields == null) {
                     state.storedFields = new ArrayList<>(Collections.nCopies(fields.size(), null));
                     state.storedFieldTypes = new ArrayList<>(Collections.nCopies(fields.size(), null));
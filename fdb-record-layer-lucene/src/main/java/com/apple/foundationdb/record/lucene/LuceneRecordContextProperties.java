@@ -70,4 +70,18 @@ public final class LuceneRecordContextProperties {
      * This controls the page size to scan the basic Lucene index.
      */
     public static final RecordLayerPropertyKey<Integer> LUCENE_INDEX_CURSOR_PAGE_SIZE = RecordLayerPropertyKey.integerPropertyKey("com.apple.foundationdb.record.lucene.cursor.pageSize", 201);
+
+    /**
+     * The largest number of blocks that a file being read sequentially is read ahead, with a single range read, of
+     * where it is being read. The amount read ahead starts small and doubles up to this as long as the file continues
+     * to be read sequentially. Set to {@code 0} to disable read-ahead.
+     */
+    public static final RecordLayerPropertyKey<Integer> LUCENE_READ_AHEAD_MAX_BLOCKS = RecordLayerPropertyKey.integerPropertyKey("com.apple.foundationdb.record.lucene.readAhead.maxBlocks", 32);
+
+    /**
+     * The largest number of queued document changes that a scan of an index with deferred writes will load and merge
+     * into its results. A scan of a group with more fails instead, and the queue needs to be drained with a
+     * {@link LucenePendingWriteDrain} before the group can be searched.
+     */
+    public static final RecordLayerPropertyKey<Integer> LUCENE_PENDING_WRITES_MERGE_LIMIT = RecordLayerPropertyKey.integerPropertyKey("com.apple.foundationdb.record.lucene.pendingWrites.mergeLimit", 1000);
 }
@@ -35,6 +35,7 @@ import com.apple.foundationdb.record.cursors.CursorLimitManager;
 import com.apple.foundationdb.record.logging.LogMessageKeys;
 import com.apple.foundationdb.record.lucene.directory.FDBDirectoryManager;
 import com.apple.foundationdb.record.lucene.query.BitSetQuery;
+import com.apple.foundationdb.record.lucene.search.BooleanPointsConfig;
 import com.apple.foundationdb.record.lucene.search.LuceneOptimizedIndexSearcher;
 import com.apple.foundationdb.record.metadata.Index;
 import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
@@ -48,6 +49,11 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexNotFoundException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
@@ -62,18 +68,21 @@ import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SynonymQuery;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
 import org.apache.lucene.search.spans.SpanNearQuery;
 import org.apache.lucene.search.spans.SpanOrQuery;
 import org.apache.lucene.search.spans.SpanQuery;
 import org.apache.lucene.search.spans.SpanTermQuery;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.NumericUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -119,6 +128,10 @@ public class LuceneRecordCursor implements BaseCursor<IndexEntry> {
     final IndexMaintainerState state;
     private IndexReader indexReader;
     private final Query query;
+    /**
+     * The query actually searched, which is {@link #query} unless stale documents for queued changes are excluded.
+     */
+    private Query searchQuery;
     private final Sort sort;
     private IndexSearcher searcher;
     private RecordCursor<IndexEntry> lookupResults = null;
@@ -143,6 +156,30 @@ public class LuceneRecordCursor implements BaseCursor<IndexEntry> {
     @Nonnull
     private final LuceneAnalyzerCombinationProvider autoCompleteAnalyzerSelector;
     private boolean closed;
+    @Nonnull
+    private final LucenePartitioner partitioner;
+    /**
+     * For a partitioned index, the partitions to search, in search order.
+     */
+    @Nullable
+    private List<LuceneIndexProto.LucenePartitionInfo> partitions;
+    /**
+     * For a partitioned index sorted by the partition field, the position in {@link #partitions} being searched.
+     */
+    private int partitionPosition;
+    /**
+     * For a partitioned index sorted by the partition field, the searcher for each partition searched by the current
+     * page, by partition id. Results carry that id as their {@link ScoreDoc#shardIndex}.
+     */
+    @Nonnull
+    private final Map<Integer, IndexSearcher> partitionSearchers = new HashMap<>();
+    /**
+     * For an index with deferred writes, how to index the queued changes of the group being scanned.
+     */
+    @Nullable
+    private final Function<Tuple, CompletableFuture<LucenePendingWriteQueue.PendingDocuments>> pendingDocumentsLoader;
+    @Nullable
+    private LucenePendingWriteQueue.PendingDocuments pendingDocuments;
 
     //TODO: once we fix the available fields logic for lucene to take into account which fields are
     // stored there should be no need to pass in a list of fields, or we could only pass in the store field values.
@@ -160,7 +197,9 @@ public class LuceneRecordCursor implements BaseCursor<IndexEntry> {
                        @Nullable final List<String> storedFields,
                        @Nullable final List<LuceneIndexExpressions.DocumentFieldType> storedFieldTypes,
                        @Nonnull LuceneAnalyzerCombinationProvider analyzerSelector,
-                       @Nonnull LuceneAnalyzerCombinationProvider autoCompleteAnalyzerSelector) {
+                       @Nonnull LuceneAnalyzerCombinationProvider autoCompleteAnalyzerSelector,
+                       @Nonnull LucenePartitioner partitioner,
+                       @Nullable Function<Tuple, CompletableFuture<LucenePendingWriteQueue.PendingDocuments>> pendingDocumentsLoader) {
         this.state = state;
         this.executor = executor;
         this.pageSize = pageSize;
@@ -177,7 +216,8 @@ public class LuceneRecordCursor implements BaseCursor<IndexEntry> {
         this.leftToSkip = scanProperties.getExecuteProperties().getSkip();
         this.timer = state.context.getTimer();
         this.query = query;
-        this.sort = sort;
+        this.searchQuery = query;
+        this.sort = partitioner.isPartitioningEnabled() ? partitioner.withMissingPartitionFieldValue(sort) : sort;
         if (continuation != null) {
             try {
                 LuceneContinuationProto.LuceneIndexContinuation parsed = LuceneContinuationProto.LuceneIndexContinuation.parseFrom(continuation);
@@ -191,6 +231,8 @@ public class LuceneRecordCursor implements BaseCursor<IndexEntry> {
         this.luceneQueryHighlightParameters = luceneQueryHighlightParameters;
         this.analyzerSelector = analyzerSelector;
         this.autoCompleteAnalyzerSelector = autoCompleteAnalyzerSelector;
+        this.partitioner = partitioner;
+        this.pendingDocumentsLoader = pendingDocumentsLoader;
         closed = false;
     }
 
@@ -248,6 +290,7 @@ public class LuceneRecordCursor implements BaseCursor<IndexEntry> {
         if (indexReader != null) {
             IOUtils.closeWhileHandlingException(indexReader);
         }
+        closePartitionSearchers();
         closed = true;
     }
 
@@ -272,6 +315,32 @@ public class LuceneRecordCursor implements BaseCursor<IndexEntry> {
         return FDBDirectoryManager.getManager(state).getIndexReader(groupingKey);
     }
 
+    /**
+     * Open the reader to search. For an index with deferred writes, this also includes the queued changes, so that
+     * a scan sees the records saved before it even if they have not been drained into the index yet.
+     */
+    @SuppressWarnings("PMD.CloseResource")
+    private IndexReader openIndexReader() throws IOException {
+        if (pendingDocumentsLoader == null) {
+            return getIndexReader();
+        }
+        if (pendingDocuments == null) {
+            pendingDocuments = state.context.asyncToSync(LuceneEvents.Waits.WAIT_LUCENE_LOAD_PENDING_WRITES, pendingDocumentsLoader.apply(groupingKey));
+            searchQuery = pendingDocuments.exclude(query);
+        }
+        if (pendingDocuments.isEmpty()) {
+            return getIndexReader();
+        }
+        final List<IndexReader> readers = new ArrayList<>();
+        try {
+            readers.add(getIndexReader());
+        } catch (IndexNotFoundException ex) {
+            // nothing has been drained into the index yet
+        }
+        readers.addAll(pendingDocuments.openReaders());
+        return new MultiReader(readers.toArray(new IndexReader[0]), true);
+    }
+
     private void maybePerformScan() throws IOException {
         if (lookupResults != null) {
             lookupResults.close();
@@ -310,17 +379,13 @@ public class LuceneRecordCursor implements BaseCursor<IndexEntry> {
 
     private TopDocs searchForTopDocs(int limit) throws IOException {
         long startTime = System.nanoTime();
-        indexReader = getIndexReader();
-        searcher = new LuceneOptimizedIndexSearcher(indexReader, executorService);
         TopDocs newTopDocs;
-        if (searchAfter != null && sort != null) {
-            newTopDocs = searcher.searchAfter(searchAfter, query, limit, sort);
-        } else if (searchAfter != null) {
-            newTopDocs = searcher.searchAfter(searchAfter, query, limit);
-        } else if (sort != null) {
-            newTopDocs = searcher.search(query,  limit, sort);
+        if (partitioner.isPartitioningEnabled()) {
+            newTopDocs = searchPartitionsForTopDocs(limit);
         } else {
-            newTopDocs = searcher.search(query, limit);
+            indexReader = openIndexReader();
+            searcher = new LuceneOptimizedIndexSearcher(indexReader, executorService);
+            newTopDocs = search(searcher, searchAfter, limit);
         }
         if (newTopDocs.scoreDocs.length < limit) {
             exhausted = true;
@@ -335,10 +400,96 @@ public class LuceneRecordCursor implements BaseCursor<IndexEntry> {
         return newTopDocs;
     }
 
+    private TopDocs search(@Nonnull IndexSearcher indexSearcher, @Nullable ScoreDoc after, int limit) throws IOException {
+        if (after != null && sort != null) {
+            return indexSearcher.searchAfter(after, searchQuery, limit, sort);
+        } else if (after != null) {
+            return indexSearcher.searchAfter(after, searchQuery, limit);
+        } else if (sort != null) {
+            return indexSearcher.search(searchQuery,  limit, sort);
+        } else {
+            return indexSearcher.search(searchQuery, limit);
+        }
+    }
+
+    /**
+     * Search the partitions of a partitioned index. Partitions that cannot match the query's range on the partition
+     * field are skipped. If the scan is sorted by the partition field, the partitions are disjoint in sort order, so
+     * they are searched one at a time until the page is full, leaving later partitions unopened. Otherwise, all the
+     * remaining partitions are searched together.
+     */
+    @SuppressWarnings("PMD.CloseResource")
+    private TopDocs searchPartitionsForTopDocs(int limit) throws IOException {
+        final FDBDirectoryManager manager = FDBDirectoryManager.getManager(state);
+        if (partitions == null) {
+            partitions = partitioner.selectQueryPartitions(
+                    state.context.asyncToSync(LuceneEvents.Waits.WAIT_LUCENE_GET_PARTITION_META, partitioner.getAllPartitionMetaInfo(groupingKey)),
+                    query, sort, searchAfter);
+        }
+        if (!partitioner.isSortedByPartitionField(sort)) {
+            if (partitions.isEmpty()) {
+                throw new IndexNotFoundException("no partitions to search");
+            }
+            final IndexReader[] readers = new IndexReader[partitions.size()];
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = manager.getIndexReader(LucenePartitioner.getPartitionDirectoryKey(groupingKey, partitions.get(i).getId()));
+            }
+            if (timer != null) {
+                timer.increment(LuceneEvents.Counts.LUCENE_PARTITIONS_SEARCHED, readers.length);
+            }
+            indexReader = new MultiReader(readers, true);
+            searcher = new LuceneOptimizedIndexSearcher(indexReader, executorService);
+            return search(searcher, searchAfter, limit);
+        }
+        closePartitionSearchers();
+        final Set<Integer> partitionIds = new HashSet<>();
+        for (LuceneIndexProto.LucenePartitionInfo partition : partitions) {
+            partitionIds.add(partition.getId());
+        }
+        final List<ScoreDoc> scoreDocs = new ArrayList<>(limit);
+        while (scoreDocs.size() < limit && partitionPosition < partitions.size()) {
+            final int partitionId = partitions.get(partitionPosition).getId();
+            // Doc ids are only meaningful within the partition that returned them; if that partition is gone, say
+            // because it was rebalanced since the continuation was made, the sort values alone still give the position.
+            final ScoreDoc after = searchAfter != null && (searchAfter.shardIndex == partitionId || !partitionIds.contains(searchAfter.shardIndex))
+                                   ? searchAfter : null;
+            final int wanted = limit - scoreDocs.size();
+            final TopDocs partitionTopDocs;
+            try {
+                final IndexSearcher partitionSearcher = new LuceneOptimizedIndexSearcher(
+                        manager.getIndexReader(LucenePartitioner.getPartitionDirectoryKey(groupingKey, partitionId)), executorService);
+                partitionSearchers.put(partitionId, partitionSearcher);
+                partitionTopDocs = search(partitionSearcher, after, wanted);
+            } catch (IndexNotFoundException ex) {
+                partitionPosition++;
+                continue;
+            }
+            if (timer != null) {
+                timer.increment(LuceneEvents.Counts.LUCENE_PARTITIONS_SEARCHED);
+            }
+            for (ScoreDoc scoreDoc : partitionTopDocs.scoreDocs) {
+                scoreDoc.shardIndex = partitionId;
+                scoreDocs.add(scoreDoc);
+            }
+            if (partitionTopDocs.scoreDocs.length < wanted) {
+                partitionPosition++;
+            }
+        }
+        return new TopDocs(new TotalHits(scoreDocs.size(), TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO), scoreDocs.toArray(new ScoreDoc[0]));
+    }
+
+    private void closePartitionSearchers() {
+        for (IndexSearcher partitionSearcher : partitionSearchers.values()) {
+            IOUtils.closeWhileHandlingException(partitionSearcher.getIndexReader());
+        }
+        partitionSearchers.clear();
+    }
+
     private CompletableFuture<ScoreDocIndexEntry> buildIndexEntryFromScoreDocAsync(@Nonnull ScoreDoc scoreDoc) {
         return CompletableFuture.supplyAsync(() -> {
             try {
-                Document document = searcher.doc(scoreDoc.doc, storedFieldsToReturn);
+                final IndexSearcher docSearcher = partitionSearchers.isEmpty() ? searcher : partitionSearchers.get(scoreDoc.shardIndex);
+                Document document = docSearcher.doc(scoreDoc.doc, storedFieldsToReturn);
                 IndexableField primaryKey = document.getField(LuceneIndexMaintainer.PRIMARY_KEY_FIELD_NAME);
                 BytesRef pk = primaryKey.binaryValue();
                 if (LOGGER.isTraceEnabled()) {
@@ -364,13 +515,17 @@ public class LuceneRecordCursor implements BaseCursor<IndexEntry> {
                         }
                         Object value = null;
                         IndexableField docField = document.getField(storedFields.get(i));
-                        if (docField != null) {
+                        if (docField == null) {
+                            // Not stored, but may be sorted.
+                            value = getDocValue(docSearcher.getIndexReader(), scoreDoc.doc, storedFields.get(i), storedFieldTypes.get(i));
+                        } else {
                             switch (storedFieldTypes.get(i)) {
+                                case TEXT:
                                 case STRING:
                                     value = docField.stringValue();
                                     break;
                                 case BOOLEAN:
-                                    value = Boolean.valueOf(docField.stringValue());
+                                    value = isTrue(docField.binaryValue());
                                     break;
                                 case INT:
                                 case LONG:
@@ -407,6 +562,55 @@ public class LuceneRecordCursor implements BaseCursor<IndexEntry> {
         }, executor);
     }
 
+    /**
+     * Get the value of a sorted field for a document from the field's doc values, as written by
+     * {@link LuceneIndexMaintainer} for each type.
+     * @param indexReader the reader being searched
+     * @param doc the document number within that reader
+     * @param field the name of the document field
+     * @param type the type of the document field
+     * @return the field's value or {@code null} if the document has none or the field does not have doc values
+     * @throws IOException if reading the doc values fails
+     */
+    @Nullable
+    private static Object getDocValue(@Nonnull IndexReader indexReader, int doc, @Nonnull String field,
+                                      @Nonnull LuceneIndexExpressions.DocumentFieldType type) throws IOException {
+        final List<LeafReaderContext> leaves = indexReader.leaves();
+        final LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        final int leafDoc = doc - leaf.docBase;
+        switch (type) {
+            case STRING:
+            case BOOLEAN:
+                final SortedDocValues sortedValues = leaf.reader().getSortedDocValues(field);
+                if (sortedValues == null || !sortedValues.advanceExact(leafDoc)) {
+                    return null;
+                }
+                final BytesRef bytes = sortedValues.binaryValue();
+                return type == LuceneIndexExpressions.DocumentFieldType.STRING ? bytes.utf8ToString() : isTrue(bytes);
+            case INT:
+            case LONG:
+            case DOUBLE:
+                final NumericDocValues numericValues = leaf.reader().getNumericDocValues(field);
+                if (numericValues == null || !numericValues.advanceExact(leafDoc)) {
+                    return null;
+                }
+                final long value = numericValues.longValue();
+                if (type == LuceneIndexExpressions.DocumentFieldType.INT) {
+                    return (int)value;
+                } else if (type == LuceneIndexExpressions.DocumentFieldType.DOUBLE) {
+                    return NumericUtils.sortableLongToDouble(value);
+                } else {
+                    return value;
+                }
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isTrue(@Nonnull BytesRef bytes) {
+        return bytes.length == 1 && bytes.bytes[bytes.offset] == BooleanPointsConfig.TRUE_BYTES[0];
+    }
+
     // Parse the Lucene query to get all the mapping from field to terms
     private static void getTerms(Query query, Map<String, Set<String>> map) {
         if (query instanceof BooleanQuery) {
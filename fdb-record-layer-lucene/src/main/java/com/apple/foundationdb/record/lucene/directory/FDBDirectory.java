@@ -43,6 +43,7 @@ import com.google.common.base.Suppliers;
 import com.google.common.base.Verify;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.lucene.index.IndexFileNames;
@@ -66,6 +67,7 @@ import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -136,6 +138,11 @@ public class FDBDirectory extends Directory  {
 
     private final AtomicLong fileSequenceCounter;
     private final Cache<Pair<Long, Integer>, CompletableFuture<byte[]>> blockCache;
+    /**
+     * Blocks put in the {@link #blockCache} by {@link #readAhead} that have not been read yet.
+     */
+    private final Set<Pair<Long, Integer>> readAheadBlocks;
+    private final int readAheadMaxBlocks;
 
     private final boolean compressionEnabled;
     private final boolean encryptionEnabled;
@@ -185,16 +192,19 @@ public class FDBDirectory extends Directory  {
         this.lockFactory = lockFactory;
         this.blockSize = blockSize;
         this.fileReferenceCache = new AtomicReference<>();
+        this.readAheadBlocks = ConcurrentHashMap.newKeySet();
         this.blockCache = CacheBuilder.newBuilder()
                 .concurrencyLevel(concurrencyLevel)
                 .initialCapacity(initialCapacity)
                 .maximumSize(maximumSize)
                 .recordStats()
+                .removalListener(this::onBlockRemoval)
                 .build();
         this.fieldInfosDataMap = new ConcurrentHashMap<>();
         this.fileSequenceCounter = new AtomicLong(-1);
         this.compressionEnabled = Objects.requireNonNullElse(context.getPropertyStorage().getPropertyValue(LuceneRecordContextProperties.LUCENE_INDEX_COMPRESSION_ENABLED), false);
         this.encryptionEnabled = Objects.requireNonNullElse(context.getPropertyStorage().getPropertyValue(LuceneRecordContextProperties.LUCENE_INDEX_ENCRYPTION_ENABLED), false);
+        this.readAheadMaxBlocks = Objects.requireNonNullElse(context.getPropertyStorage().getPropertyValue(LuceneRecordContextProperties.LUCENE_READ_AHEAD_MAX_BLOCKS), 0);
         this.fileReferenceMapSupplier = Suppliers.memoize(this::loadFileReferenceCacheForMemoization);
         this.sharedCacheManager = sharedCacheManager;
         this.sharedCacheKey = sharedCacheKey;
@@ -444,7 +454,11 @@ public class FDBDirectory extends Directory  {
             return exceptionalFuture;
         }
         final long id = reference.getId();
-        return context.instrument(LuceneEvents.Events.LUCENE_READ_BLOCK, blockCache.asMap().computeIfAbsent(Pair.of(id, block), ignore -> {
+        final Pair<Long, Integer> key = Pair.of(id, block);
+        if (!readAheadBlocks.isEmpty() && readAheadBlocks.remove(key)) {
+            context.increment(LuceneEvents.Counts.LUCENE_READ_AHEAD_HITS);
+        }
+        return context.instrument(LuceneEvents.Events.LUCENE_READ_BLOCK, blockCache.asMap().computeIfAbsent(key, ignore -> {
                     if (sharedCache == null) {
                         return readData(id, block);
                     }
@@ -455,7 +469,7 @@ public class FDBDirectory extends Directory  {
                     } else {
                         context.increment(LuceneEvents.Counts.LUCENE_SHARED_CACHE_MISSES);
                         return readData(id, block).thenApply(data -> {
-                            sharedCache.putBlockIfAbsent(id, block, data);
+                            sharedCache.putBlockIfAbsent(id, block, data, context.getTimer());
                             return data;
                         });
                     }
@@ -463,6 +477,113 @@ public class FDBDirectory extends Directory  {
         ));
     }
 
+    /**
+     * Read a run of consecutive blocks of a file with a single range read and add them to the block cache, so that
+     * subsequent {@link #readBlock} calls for them do not each need their own read. Blocks at either end of the run
+     * that are already cached are left out, and any block in the middle that is already cached or being read is kept.
+     * A block that is read ahead and then evicted or left unread when the directory is closed is counted as waste.
+     * @param reference the file to read
+     * @param beginBlock the first block to read
+     * @param endBlock the block after the last one to read
+     * @return the number of blocks actually being read
+     */
+    @API(API.Status.INTERNAL)
+    public int readAhead(@Nonnull FDBLuceneFileReference reference, int beginBlock, int endBlock) {
+        final long id = reference.getId();
+        while (beginBlock < endBlock && isBlockCached(id, beginBlock)) {
+            beginBlock++;
+        }
+        while (endBlock > beginBlock && isBlockCached(id, endBlock - 1)) {
+            endBlock--;
+        }
+        if (beginBlock >= endBlock) {
+            return 0;
+        }
+        final Map<Integer, CompletableFuture<byte[]>> pending = new HashMap<>();
+        for (int block = beginBlock; block < endBlock; block++) {
+            final CompletableFuture<byte[]> future = new CompletableFuture<>();
+            if (blockCache.asMap().putIfAbsent(Pair.of(id, block), future) == null) {
+                pending.put(block, future);
+                readAheadBlocks.add(Pair.of(id, block));
+            }
+        }
+        final int requested = pending.size();
+        context.increment(LuceneEvents.Counts.LUCENE_READ_AHEAD_BLOCKS, requested);
+        context.instrument(LuceneEvents.Events.LUCENE_FDB_READ_AHEAD,
+                context.ensureActive().getRange(dataSubspace.pack(Tuple.from(id, beginBlock)), dataSubspace.pack(Tuple.from(id, endBlock)),
+                        ReadTransaction.ROW_LIMIT_UNLIMITED, false, StreamingMode.WANT_ALL).asList())
+                .whenComplete((keyValues, err) -> {
+                    if (err == null) {
+                        for (KeyValue keyValue : keyValues) {
+                            final int block = (int)dataSubspace.unpack(keyValue.getKey()).getLong(1);
+                            final CompletableFuture<byte[]> future = pending.remove(block);
+                            if (future != null) {
+                                completeReadAhead(id, block, future, keyValue.getValue());
+                            }
+                        }
+                    }
+                    // Anything not returned, say because the read failed, is dropped so that readBlock reads it itself.
+                    for (Map.Entry<Integer, CompletableFuture<byte[]>> entry : pending.entrySet()) {
+                        final Pair<Long, Integer> key = Pair.of(id, entry.getKey());
+                        blockCache.asMap().remove(key, entry.getValue());
+                        readAheadBlocks.remove(key);
+                        try {
+                            readData(id, entry.getKey()).whenComplete((data, readErr) -> {
+                                if (readErr != null) {
+                                    entry.getValue().completeExceptionally(readErr);
+                                } else {
+                                    entry.getValue().complete(data);
+                                }
+                            });
+                        } catch (RuntimeException ex) {
+                            entry.getValue().completeExceptionally(ex);
+                        }
+                    }
+                });
+        return requested;
+    }
+
+    private boolean isBlockCached(long id, int block) {
+        if (blockCache.asMap().containsKey(Pair.of(id, block))) {
+            return true;
+        }
+        if (sharedCache != null) {
+            final byte[] fromShared = sharedCache.getBlockIfPresent(id, block);
+            if (fromShared != null) {
+                blockCache.asMap().putIfAbsent(Pair.of(id, block), CompletableFuture.completedFuture(fromShared));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void completeReadAhead(long id, int block, @Nonnull CompletableFuture<byte[]> future, @Nonnull byte[] value) {
+        try {
+            final byte[] data = LuceneSerializer.decode(value);
+            if (sharedCache != null) {
+                sharedCache.putBlockIfAbsent(id, block, data, context.getTimer());
+            }
+            future.complete(data);
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+        }
+    }
+
+    private void onBlockRemoval(@Nonnull RemovalNotification<Pair<Long, Integer>, CompletableFuture<byte[]>> notification) {
+        if (notification.wasEvicted() && readAheadBlocks.remove(notification.getKey())) {
+            context.increment(LuceneEvents.Counts.LUCENE_READ_AHEAD_WASTE);
+        }
+    }
+
+    /**
+     * Get the largest number of blocks that an {@link FDBIndexInput} reading sequentially should read ahead of its position.
+     * @return the read-ahead limit, where {@code 0} means that read-ahead is disabled
+     * @see LuceneRecordContextProperties#LUCENE_READ_AHEAD_MAX_BLOCKS
+     */
+    public int getReadAheadMaxBlocks() {
+        return readAheadMaxBlocks;
+    }
+
     private CompletableFuture<byte[]> readData(long id, int block) {
         return context.instrument(LuceneEvents.Events.LUCENE_FDB_READ_BLOCK,
                 context.ensureActive().get(dataSubspace.pack(Tuple.from(id, block)))
@@ -776,10 +897,14 @@ public class FDBDirectory extends Directory  {
     }
 
     /**
-     * No Op that reports in debug mode the block and file reference cache stats.
+     * Counts any blocks that were read ahead but never read and reports in debug mode the block and file reference cache stats.
      */
     @Override
     public void close() {
+        if (!readAheadBlocks.isEmpty()) {
+            context.increment(LuceneEvents.Counts.LUCENE_READ_AHEAD_WASTE, readAheadBlocks.size());
+            readAheadBlocks.clear();
+        }
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug(getLogMessage("close called",
                     LuceneLogMessageKeys.BLOCK_CACHE_STATS, blockCache.stats()));
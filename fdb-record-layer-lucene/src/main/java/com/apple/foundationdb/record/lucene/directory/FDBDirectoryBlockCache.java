@@ -0,0 +1,472 @@
+/*
+ * FDBDirectoryBlockCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.lucene.directory;
+
+import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.RecordCoreArgumentException;
+import com.apple.foundationdb.record.logging.LogMessageKeys;
+import com.apple.foundationdb.record.lucene.LuceneEvents;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A byte-weighted cache of {@link FDBDirectory} blocks that can be shared by any number of directories, and so
+ * by many {@link FDBDirectorySharedCacheManager}s, to give the whole process a single memory budget.
+ *
+ * <p>
+ * Eviction is segmented LRU: a newly added block goes into a probationary segment and is only promoted to the
+ * protected segment when read again, so that a single scan of a large file cannot flush out the blocks that
+ * are read repeatedly. Entries are weighed by the length of the block plus a fixed per-entry overhead.
+ * The cache is divided into independently locked shards, each with an equal share of the budget.
+ * </p>
+ *
+ * <p>
+ * Optionally, each directory can be given a quota of the total, past which new blocks from that directory
+ * are not added until some of its existing blocks have been evicted. This keeps one busy index from
+ * evicting everything else. The quota is per owner, that is, per sequence number of the directory, so blocks
+ * left behind by an older sequence number never keep the current one from being cached. They can also be
+ * {@linkplain #invalidate removed} as soon as the owner is replaced.
+ * </p>
+ */
+@API(API.Status.EXPERIMENTAL)
+@ThreadSafe
+public class FDBDirectoryBlockCache {
+    /**
+     * Approximate memory used by an entry in addition to the block itself.
+     */
+    public static final int ENTRY_OVERHEAD = 96;
+    /**
+     * The fraction of each shard reserved for blocks that have been read more than once.
+     */
+    public static final double PROTECTED_FRACTION = 0.8;
+
+    private final long maximumWeight;
+    private final long directoryQuota;
+    @Nonnull
+    private final Shard[] shards;
+    // Weight per owner, updated only by compute methods, so that checking the quota and adding to it are atomic.
+    @Nonnull
+    private final Map<Object, Long> quotaUsage;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder evictedWeight = new LongAdder();
+    private final LongAdder quotaRejectionCount = new LongAdder();
+
+    protected FDBDirectoryBlockCache(long maximumWeight, long directoryQuota, int concurrencyLevel) {
+        if (maximumWeight <= 0) {
+            throw new RecordCoreArgumentException("block cache maximum weight must be positive")
+                    .addLogInfo(LogMessageKeys.VALUE_SIZE, maximumWeight);
+        }
+        this.maximumWeight = maximumWeight;
+        this.directoryQuota = directoryQuota;
+        int shardCount = 1;
+        while (shardCount < concurrencyLevel && maximumWeight / (shardCount * 2) >= ENTRY_OVERHEAD) {
+            shardCount *= 2;
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(maximumWeight / shardCount);
+        }
+        this.quotaUsage = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the maximum total weight of the cache in bytes.
+     * @return the maximum weight
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Get the maximum weight in bytes that a single directory can occupy or {@code 0} if directories are not limited.
+     * @return the per-directory quota
+     */
+    public long getDirectoryQuota() {
+        return directoryQuota;
+    }
+
+    /**
+     * Get the current total weight of the cache in bytes.
+     * @return the current weight
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Shard shard : shards) {
+            weight += shard.getWeight();
+        }
+        return weight;
+    }
+
+    /**
+     * Get the current weight in bytes of the blocks cached for a directory.
+     * @param owner the cache of the directory
+     * @return the weight for that directory
+     */
+    public long getWeight(@Nonnull Object owner) {
+        return quotaUsage.getOrDefault(owner, 0L);
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Get the fraction of lookups that found a cached block.
+     * @return the hit rate, or {@code 1.0} if there have not been any lookups
+     */
+    public double getHitRate() {
+        final long hits = hitCount.sum();
+        final long total = hits + missCount.sum();
+        return total == 0 ? 1.0 : (double)hits / total;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long getEvictedWeight() {
+        return evictedWeight.sum();
+    }
+
+    public long getQuotaRejectionCount() {
+        return quotaRejectionCount.sum();
+    }
+
+    /**
+     * Get a block if present in the cache.
+     * @param owner the cache of the directory containing the block
+     * @param id file id
+     * @param blockNumber block number in the file
+     * @return the cached block or {@code null} if not cached
+     */
+    @Nullable
+    public byte[] getIfPresent(@Nonnull Object owner, long id, int blockNumber) {
+        final BlockKey key = new BlockKey(owner, id, blockNumber);
+        final byte[] block = shardFor(key).get(key);
+        if (block == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return block;
+    }
+
+    /**
+     * Add a block to the cache, evicting others if the cache is full.
+     * @param owner the cache of the directory containing the block, against which it is counted for any quota
+     * @param id file id
+     * @param blockNumber block number in the file
+     * @param block the block to be cached
+     * @param timer timer in which to count evictions or {@code null}
+     */
+    public void putIfAbsent(@Nonnull Object owner, long id, int blockNumber,
+                            @Nonnull byte[] block, @Nullable StoreTimer timer) {
+        final BlockKey key = new BlockKey(owner, id, blockNumber);
+        final Entry entry = new Entry(block);
+        if (!reserveUsage(owner, entry.weight)) {
+            quotaRejectionCount.increment();
+            if (timer != null) {
+                timer.increment(LuceneEvents.Counts.LUCENE_BLOCK_CACHE_QUOTA_REJECTIONS);
+            }
+            return;
+        }
+        final long evicted = shardFor(key).put(key, entry);
+        if (evicted < 0) {
+            // Not added after all.
+            removeUsage(owner, entry.weight);
+            return;
+        }
+        if (evicted > 0 && timer != null) {
+            timer.increment(LuceneEvents.Counts.LUCENE_BLOCK_CACHE_EVICTED_BYTES, (int)Math.min(evicted, Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     * Remove all the blocks of a directory cache, such as when it has been replaced by one for a newer sequence number.
+     * This only visits the blocks of that directory cache, so it is cheap enough to do on every write.
+     * @param owner the cache of the directory
+     */
+    public void invalidate(@Nonnull Object owner) {
+        if (!quotaUsage.containsKey(owner)) {
+            // Nothing cached.
+            return;
+        }
+        for (Shard shard : shards) {
+            shard.removeOwner(owner);
+        }
+    }
+
+    /**
+     * Remove all blocks from the cache.
+     */
+    public void invalidateAll() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    @Nonnull
+    private Shard shardFor(@Nonnull BlockKey key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return shards[hash & (shards.length - 1)];
+    }
+
+    private boolean reserveUsage(@Nonnull Object owner, long weight) {
+        final boolean[] reserved = {false};
+        quotaUsage.compute(owner, (k, usage) -> {
+            final long current = usage == null ? 0 : usage;
+            if (directoryQuota > 0 && current + weight > directoryQuota) {
+                return usage;
+            }
+            reserved[0] = true;
+            return current + weight;
+        });
+        return reserved[0];
+    }
+
+    private void removeUsage(@Nonnull Object owner, long weight) {
+        quotaUsage.computeIfPresent(owner, (k, usage) -> usage - weight <= 0 ? null : usage - weight);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private static final class BlockKey {
+        @Nonnull
+        private final Object owner;
+        private final long id;
+        private final int blockNumber;
+
+        BlockKey(@Nonnull Object owner, long id, int blockNumber) {
+            this.owner = owner;
+            this.id = id;
+            this.blockNumber = blockNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final BlockKey that = (BlockKey)o;
+            return id == that.id && blockNumber == that.blockNumber && owner.equals(that.owner);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(owner, id, blockNumber);
+        }
+    }
+
+    private static final class Entry {
+        @Nonnull
+        private final byte[] block;
+        private final int weight;
+
+        Entry(@Nonnull byte[] block) {
+            this.block = block;
+            this.weight = block.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    private final class Shard {
+        private final long capacity;
+        private final long protectedCapacity;
+        // Guarded by this. Both maps are in access order, so the first entry is the least recently used.
+        private final LinkedHashMap<BlockKey, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<BlockKey, Entry> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+        // Guarded by this. The keys in either map for each owner, so that an owner's blocks can be removed without a scan.
+        private final Map<Object, Set<BlockKey>> ownerKeys = new HashMap<>();
+        private long probationWeight;
+        private long protectedWeight;
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = (long)(capacity * PROTECTED_FRACTION);
+        }
+
+        synchronized long getWeight() {
+            return probationWeight + protectedWeight;
+        }
+
+        @Nullable
+        synchronized byte[] get(@Nonnull BlockKey key) {
+            Entry entry = protectedEntries.get(key);
+            if (entry != null) {
+                return entry.block;
+            }
+            entry = probation.remove(key);
+            if (entry == null) {
+                return null;
+            }
+            // Second access: promote, demoting the least recently used protected entries to make room.
+            probationWeight -= entry.weight;
+            protectedEntries.put(key, entry);
+            protectedWeight += entry.weight;
+            final Iterator<Map.Entry<BlockKey, Entry>> iter = protectedEntries.entrySet().iterator();
+            while (protectedWeight > protectedCapacity && iter.hasNext()) {
+                final Map.Entry<BlockKey, Entry> demoted = iter.next();
+                if (demoted.getValue() == entry) {
+                    break;
+                }
+                iter.remove();
+                protectedWeight -= demoted.getValue().weight;
+                probation.put(demoted.getKey(), demoted.getValue());
+                probationWeight += demoted.getValue().weight;
+            }
+            return entry.block;
+        }
+
+        /**
+         * Add an entry, whose weight has already been counted against its owner.
+         * @return the weight evicted to make room or {@code -1} if the entry was not added
+         */
+        synchronized long put(@Nonnull BlockKey key, @Nonnull Entry entry) {
+            if (entry.weight > capacity || protectedEntries.containsKey(key) || probation.containsKey(key)) {
+                return -1;
+            }
+            probation.put(key, entry);
+            probationWeight += entry.weight;
+            ownerKeys.computeIfAbsent(key.owner, k -> new HashSet<>()).add(key);
+            long evicted = 0;
+            while (probationWeight + protectedWeight > capacity) {
+                final LinkedHashMap<BlockKey, Entry> victims = probation.size() > 1 || protectedEntries.isEmpty() ? probation : protectedEntries;
+                final Iterator<Map.Entry<BlockKey, Entry>> iter = victims.entrySet().iterator();
+                final Map.Entry<BlockKey, Entry> victim = iter.next();
+                iter.remove();
+                if (victims == probation) {
+                    probationWeight -= victim.getValue().weight;
+                } else {
+                    protectedWeight -= victim.getValue().weight;
+                }
+                removeOwnerKey(victim.getKey());
+                removeUsage(victim.getKey().owner, victim.getValue().weight);
+                evicted += victim.getValue().weight;
+                evictionCount.increment();
+            }
+            evictedWeight.add(evicted);
+            return evicted;
+        }
+
+        private void removeOwnerKey(@Nonnull BlockKey key) {
+            final Set<BlockKey> keys = ownerKeys.get(key.owner);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                ownerKeys.remove(key.owner);
+            }
+        }
+
+        synchronized void removeOwner(@Nonnull Object owner) {
+            final Set<BlockKey> keys = ownerKeys.remove(owner);
+            if (keys == null) {
+                return;
+            }
+            for (BlockKey key : keys) {
+                Entry entry = probation.remove(key);
+                if (entry != null) {
+                    probationWeight -= entry.weight;
+                } else {
+                    entry = protectedEntries.remove(key);
+                    protectedWeight -= entry.weight;
+                }
+                removeUsage(owner, entry.weight);
+            }
+        }
+
+        synchronized void clear() {
+            for (Map.Entry<BlockKey, Entry> entry : probation.entrySet()) {
+                removeUsage(entry.getKey().owner, entry.getValue().weight);
+            }
+            for (Map.Entry<BlockKey, Entry> entry : protectedEntries.entrySet()) {
+                removeUsage(entry.getKey().owner, entry.getValue().weight);
+            }
+            probation.clear();
+            protectedEntries.clear();
+            ownerKeys.clear();
+            probationWeight = 0;
+            protectedWeight = 0;
+        }
+    }
+
+    /**
+     * Builder for {@code FDBDirectoryBlockCache}.
+     */
+    public static class Builder {
+        private long maximumWeight = 256L * 1024 * 1024;
+        private long directoryQuota = 0;
+        private int concurrencyLevel = 16;
+
+        protected Builder() {
+        }
+
+        /**
+         * Set the maximum total weight of the cache in bytes.
+         * @param maximumWeight the maximum weight
+         * @return this builder
+         */
+        public Builder setMaximumWeight(final long maximumWeight) {
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * Set the maximum weight in bytes that a single directory can occupy.
+         * @param directoryQuota the per-directory quota or {@code 0} to not limit directories
+         * @return this builder
+         */
+        public Builder setDirectoryQuota(final long directoryQuota) {
+            this.directoryQuota = directoryQuota;
+            return this;
+        }
+
+        public Builder setConcurrencyLevel(final int concurrencyLevel) {
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        public FDBDirectoryBlockCache build() {
+            return new FDBDirectoryBlockCache(maximumWeight, directoryQuota, concurrencyLevel);
+        }
+    }
+}
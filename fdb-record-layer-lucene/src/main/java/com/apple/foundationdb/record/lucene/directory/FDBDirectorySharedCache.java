@@ -21,6 +21,7 @@
 package com.apple.foundationdb.record.lucene.directory;
 
 import com.apple.foundationdb.annotation.API;
+import com.apple.foundationdb.record.provider.common.StoreTimer;
 import com.apple.foundationdb.tuple.Tuple;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
@@ -34,6 +35,9 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A shared cache for a single {@link FDBDirectory}.
+ *
+ * Blocks are kept either in a cache of a fixed number of blocks just for this directory or, when the manager has one,
+ * in a {@link FDBDirectoryBlockCache} shared with other directories.
  */
 @API(API.Status.EXPERIMENTAL)
 @ThreadSafe
@@ -44,8 +48,10 @@ public class FDBDirectorySharedCache {
     private final long sequenceNumber;
     @Nonnull
     private final AtomicReference<Map<String, FDBLuceneFileReference>> fileReferences;
-    @Nonnull
+    @Nullable
     private final Cache<Pair<Long, Integer>, byte[]> blocks;
+    @Nullable
+    private final FDBDirectoryBlockCache blockCache;
 
     public FDBDirectorySharedCache(@Nonnull Tuple key, long sequenceNumber,
                                    int maximumSize, int concurrencyLevel, int initialCapacity) {
@@ -58,6 +64,22 @@ public class FDBDirectorySharedCache {
                 .maximumSize(maximumSize)
                 .recordStats()
                 .build();
+        this.blockCache = null;
+    }
+
+    /**
+     * Create a directory cache that keeps its blocks in a shared block cache.
+     * @param key the key for this directory cache
+     * @param sequenceNumber the sequence number of this directory cache
+     * @param blockCache the shared block cache, in which this directory cache's blocks are counted against any quota
+     */
+    public FDBDirectorySharedCache(@Nonnull Tuple key, long sequenceNumber,
+                                   @Nonnull FDBDirectoryBlockCache blockCache) {
+        this.key = key;
+        this.sequenceNumber = sequenceNumber;
+        this.fileReferences = new AtomicReference<>();
+        this.blocks = null;
+        this.blockCache = blockCache;
     }
 
     /**
@@ -104,6 +126,9 @@ public class FDBDirectorySharedCache {
      */
     @Nullable
     public byte[] getBlockIfPresent(long id, int blockNumber) {
+        if (blockCache != null) {
+            return blockCache.getIfPresent(this, id, blockNumber);
+        }
         return blocks.getIfPresent(Pair.of(id, blockNumber));
     }
 
@@ -114,6 +139,21 @@ public class FDBDirectorySharedCache {
      * @param block the block to be cached
      */
     public void putBlockIfAbsent(long id, int blockNumber, @Nonnull byte[] block) {
-        blocks.asMap().putIfAbsent(Pair.of(id, blockNumber), block);
+        putBlockIfAbsent(id, blockNumber, block, null);
+    }
+
+    /**
+     * Add a block from a file to the cache.
+     * @param id file id
+     * @param blockNumber block number in the file
+     * @param block the block to be cached
+     * @param timer timer in which to count any evictions from a shared block cache or {@code null}
+     */
+    public void putBlockIfAbsent(long id, int blockNumber, @Nonnull byte[] block, @Nullable StoreTimer timer) {
+        if (blockCache != null) {
+            blockCache.putIfAbsent(this, id, blockNumber, block, timer);
+        } else {
+            blocks.asMap().putIfAbsent(Pair.of(id, blockNumber), block);
+        }
     }
 }
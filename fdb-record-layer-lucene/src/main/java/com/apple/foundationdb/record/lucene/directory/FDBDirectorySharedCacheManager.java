@@ -39,6 +39,11 @@ import java.util.concurrent.ConcurrentHashMap;
  * Additionally, the cache is per directory sequence number. Any transaction that changes the directory must also advance this
  * counter. Only the latest sequence number's cache is retained by this manager, although it is possible that multiple older
  * transactions continue to share one.
+ *
+ * By default, each directory cache holds up to {@link #getMaximumSize} blocks. If a {@link FDBDirectoryBlockCache} is given,
+ * blocks are instead kept there, so that a single one can bound the memory used by the caches of many managers. Any per-directory
+ * quota in that block cache applies to the directory cache for each sequence number, and the blocks of a directory cache are
+ * removed from the block cache when it is replaced by one for a newer sequence number.
  */
 @API(API.Status.EXPERIMENTAL)
 @ThreadSafe
@@ -51,6 +56,8 @@ public class FDBDirectorySharedCacheManager {
     private final int maximumSize;
     private final int concurrencyLevel;
     private final int initialCapacity;
+    @Nullable
+    private final FDBDirectoryBlockCache blockCache;
 
     @Nullable
     public Subspace getSubspace() {
@@ -69,6 +76,15 @@ public class FDBDirectorySharedCacheManager {
         return initialCapacity;
     }
 
+    /**
+     * Get the block cache shared with other managers, if any.
+     * @return the shared block cache or {@code null} if each directory cache has its own blocks
+     */
+    @Nullable
+    public FDBDirectoryBlockCache getBlockCache() {
+        return blockCache;
+    }
+
     /**
      * Get any shared cache manager for the given context.
      *
@@ -92,10 +108,16 @@ public class FDBDirectorySharedCacheManager {
     }
 
     protected FDBDirectorySharedCacheManager(@Nullable Subspace subspace, int maximumSize, int concurrencyLevel, int initialCapacity) {
+        this(subspace, maximumSize, concurrencyLevel, initialCapacity, null);
+    }
+
+    protected FDBDirectorySharedCacheManager(@Nullable Subspace subspace, int maximumSize, int concurrencyLevel, int initialCapacity,
+                                             @Nullable FDBDirectoryBlockCache blockCache) {
         this.subspace = subspace;
         this.maximumSize = maximumSize;
         this.concurrencyLevel = concurrencyLevel;
         this.initialCapacity = initialCapacity;
+        this.blockCache = blockCache;
         this.caches = new ConcurrentHashMap<>();
     }
 
@@ -109,8 +131,16 @@ public class FDBDirectorySharedCacheManager {
     public FDBDirectorySharedCache getCache(@Nonnull Tuple key, long sequenceNumber) {
         FDBDirectorySharedCache storedCache = caches.compute(key, (ckey, cache) -> {
             if (cache == null || cache.getSequenceNumber() < sequenceNumber) {
-                cache = new FDBDirectorySharedCache(ckey, sequenceNumber,
-                        maximumSize, concurrencyLevel, initialCapacity);
+                if (blockCache != null) {
+                    if (cache != null) {
+                        // No later transaction can use these blocks.
+                        blockCache.invalidate(cache);
+                    }
+                    cache = new FDBDirectorySharedCache(ckey, sequenceNumber, blockCache);
+                } else {
+                    cache = new FDBDirectorySharedCache(ckey, sequenceNumber,
+                            maximumSize, concurrencyLevel, initialCapacity);
+                }
             }
             return cache;
         });
@@ -133,6 +163,7 @@ public class FDBDirectorySharedCacheManager {
         private int maximumSize = 1024;
         private int concurrencyLevel = 16;
         private int initialCapacity = 128;
+        private FDBDirectoryBlockCache blockCache;
 
         protected Builder() {
         }
@@ -157,8 +188,19 @@ public class FDBDirectorySharedCacheManager {
             return this;
         }
 
+        /**
+         * Set a block cache, possibly shared with other managers, in which to keep blocks instead of
+         * a separate cache of {@link #setMaximumSize maximumSize} blocks for each directory.
+         * @param blockCache the shared block cache
+         * @return this builder
+         */
+        public Builder setBlockCache(final FDBDirectoryBlockCache blockCache) {
+            this.blockCache = blockCache;
+            return this;
+        }
+
         public FDBDirectorySharedCacheManager build() {
-            return new FDBDirectorySharedCacheManager(subspace, maximumSize, concurrencyLevel, initialCapacity);
+            return new FDBDirectorySharedCacheManager(subspace, maximumSize, concurrencyLevel, initialCapacity, blockCache);
         }
     }
 }
@@ -44,6 +44,14 @@ import static com.google.common.base.Verify.verify;
 @API(API.Status.EXPERIMENTAL)
 public class FDBIndexInput extends IndexInput {
     private static final Logger LOGGER = LoggerFactory.getLogger(FDBIndexInput.class);
+    /**
+     * The number of blocks that must be read one after another before the input starts reading ahead.
+     */
+    static final int SEQUENTIAL_BLOCKS_BEFORE_READ_AHEAD = 2;
+    /**
+     * The number of blocks in the first read-ahead, which doubles with each further read-ahead.
+     */
+    static final int INITIAL_READ_AHEAD_BLOCKS = 4;
     private final String resourceDescription;
     private final String nestedResourceDescription;
     private final FDBDirectory fdbDirectory;
@@ -59,6 +67,14 @@ public class FDBIndexInput extends IndexInput {
     // These actual values are added to remove a hotspot during byte reads.
     private byte[] actualCurrentData;
     private FDBLuceneFileReference actualReference;
+    /*
+     * Read-ahead state: the last block read, the number of blocks read in order before it, the size of the latest
+     * read-ahead and the block after the last one read ahead
+     */
+    private int lastBlockRead = -1;
+    private int sequentialBlocks;
+    private int readAheadBlocks;
+    private int readAheadEnd;
 
     /**
      * Constructor to create an FDBIndexInput from a file referenced in the metadata keyspace.
@@ -160,10 +176,47 @@ public class FDBIndexInput extends IndexInput {
      *
      */
     private void readBlock() {
+        maybeReadAhead();
         this.currentData = fdbDirectory.readBlock(nestedResourceDescription, resourceDescription, reference, currentBlock);
         this.actualCurrentData = null;
     }
 
+    /**
+     * Detect sequential access and read blocks ahead of the current one while it continues. Once enough blocks
+     * have been read in order, the following blocks are read with a single range read into the directory's block
+     * cache. Each time half of the blocks read ahead have been reached, another run twice as long, up to
+     * {@link FDBDirectory#getReadAheadMaxBlocks()}, is read, so that it is likely to have arrived by the time it is
+     * needed. Any other access starts over.
+     */
+    private void maybeReadAhead() {
+        if (currentBlock == lastBlockRead + 1) {
+            sequentialBlocks++;
+        } else if (currentBlock != lastBlockRead) {
+            sequentialBlocks = 0;
+            readAheadBlocks = 0;
+            readAheadEnd = 0;
+        }
+        lastBlockRead = currentBlock;
+        final int maxBlocks = fdbDirectory.getReadAheadMaxBlocks();
+        // Only read ahead once the reference is known, rather than waiting for it here.
+        if (maxBlocks <= 0 || sequentialBlocks < SEQUENTIAL_BLOCKS_BEFORE_READ_AHEAD || actualReference == null
+                || currentBlock + readAheadBlocks / 2 < readAheadEnd) {
+            return;
+        }
+        readAheadBlocks = Math.min(readAheadBlocks == 0 ? INITIAL_READ_AHEAD_BLOCKS : readAheadBlocks * 2, maxBlocks);
+        final int begin = Math.max(currentBlock + 1, readAheadEnd);
+        final int end = Math.min(begin + readAheadBlocks, getBlock(actualReference.getSize() - 1) + 1);
+        if (begin < end) {
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace(getLogMessage("read ahead",
+                        LuceneLogMessageKeys.CURRENT_BLOCK, currentBlock,
+                        LuceneLogMessageKeys.BLOCK_NUMBER, begin,
+                        LuceneLogMessageKeys.LENGTH, end - begin));
+            }
+            fdbDirectory.readAhead(actualReference, begin, end);
+            readAheadEnd = end;
+        }
+    }
 
     /**
      *
@@ -24,6 +24,7 @@ import com.apple.foundationdb.async.AsyncUtil;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
@@ -57,7 +58,13 @@ import static org.apache.lucene.search.QueryHelper.getQueriesTerms;
  * This class optimizes the current IndexSearcher and attempts to perform operations in parallel in places where
  * data access can occur.
  *
- *
+ * <p>
+ * When given an executor, each segment is searched as its own slice, since searching a segment stored in FDB is
+ * bound by the latency of reading its blocks rather than by CPU. Before creating the query's weight, the searcher looks
+ * up the query's terms in all the segments concurrently and positions their postings, which starts reading the first
+ * postings block of each term as an asynchronous {@link com.apple.foundationdb.record.lucene.directory.FDBDirectory#readBlock} future.
+ * The search as a whole then takes about as long as its slowest segment instead of the sum over all the segments.
+ * </p>
  */
 public class LuceneOptimizedIndexSearcher extends IndexSearcher {
 
@@ -69,6 +76,20 @@ public class LuceneOptimizedIndexSearcher extends IndexSearcher {
         super(r, executor);
     }
 
+    /**
+     * Search each segment as a separate slice, rather than grouping small segments together.
+     * @param leaves the segments of the index
+     * @return one slice per segment
+     */
+    @Override
+    protected LeafSlice[] slices(final List<LeafReaderContext> leaves) {
+        final LeafSlice[] slices = new LeafSlice[leaves.size()];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = new LeafSlice(leaves.get(i));
+        }
+        return slices;
+    }
+
     /** Lower-level search API.
      *
      * <p>{@link LeafCollector#collect(int)} is called for every matching document.
@@ -81,6 +102,9 @@ public class LuceneOptimizedIndexSearcher extends IndexSearcher {
             throws IOException {
         query = rewrite(query);
         final var executor = getExecutor();
+        if (executor != null) {
+            prefetchPostings(executor, query);
+        }
         final var weight = createWeight(query, results.scoreMode(), 1);
         if (executor == null) {
             search(leafContexts, weight, results);
@@ -141,6 +165,7 @@ public class LuceneOptimizedIndexSearcher extends IndexSearcher {
                 scoreMode = ScoreMode.COMPLETE;
             }
             query = rewrite(query);
+            prefetchPostings(executor, query);
             final Weight weight = createWeight(query, scoreMode, 1);
             final List<Future<C>> topDocsFutures = new ArrayList<>(leafSlices.length);
 
@@ -236,40 +261,42 @@ public class LuceneOptimizedIndexSearcher extends IndexSearcher {
     }
 
     /**
-     * This overridden call will attempt to cache the relevant terms low level blocks in the case where we need scores.
+     * Look up each of the query's terms in each segment concurrently and wait for them all. Creating the query's weight
+     * looks up its terms in one segment after another, which would otherwise wait for each term dictionary block in turn,
+     * and positioning the postings starts reading their first block so that it is ready by the time that the segment is scored.
      *
-     * @param query query implementation
-     * @param scoreMode mode for scoring
-     * @param boost boost for scores
-     * @return Weight of query
-     * @throws IOException IOException
+     * @param executor The task executor.
+     * @param query the rewritten query
      */
-    @SuppressWarnings("PMD")
-    @Override
-    public Weight createWeight(final Query query, final ScoreMode scoreMode, final float boost) throws IOException {
-        if (scoreMode.needsScores() && getExecutor() != null) {
-            List<Term> terms = getQueriesTerms(query);
-            for (Term term : terms) {
-                for (final LeafReaderContext ctx : getTopReaderContext().leaves()) {
-                    // Do not block on these pre-fetches...
-                    CompletableFuture.runAsync(() -> {
-                        try {
-                            cacheTermsEnum(ctx, term);
-                        } catch (Exception e) {
-                            // No Op Swallow since this is for pre-caching
-                        }
-                    }, getExecutor());
-                }
+    @SuppressWarnings("PMD.EmptyCatchBlock")
+    private void prefetchPostings(@Nonnull final Executor executor, @Nonnull final Query query) {
+        final List<Term> terms = getQueriesTerms(query);
+        if (terms.isEmpty()) {
+            return;
+        }
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(terms.size() * leafContexts.size());
+        for (final LeafReaderContext ctx : leafContexts) {
+            for (final Term term : terms) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        prefetchPostings(ctx, term);
+                    } catch (Exception e) {
+                        // No Op Swallow since this is for pre-caching
+                    }
+                }, executor));
             }
         }
-        return super.createWeight(query, scoreMode, boost);
+        AsyncUtil.whenAll(futures).join();
     }
 
-    private static void cacheTermsEnum(LeafReaderContext ctx, Term term) throws IOException {
+    private static void prefetchPostings(LeafReaderContext ctx, Term term) throws IOException {
         final Terms terms = ctx.reader().terms(term.field());
         if (terms != null) {
             final TermsEnum termsEnum = terms.iterator();
-            termsEnum.seekExact(term.bytes());
+            if (termsEnum.seekExact(term.bytes())) {
+                // Positioning the postings starts the read of their first block without waiting for it.
+                termsEnum.postings(null, PostingsEnum.FREQS);
+            }
         }
     }
 
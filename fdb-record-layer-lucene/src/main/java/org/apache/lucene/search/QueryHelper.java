@@ -22,6 +22,7 @@ package org.apache.lucene.search;
 
 import com.google.common.collect.Lists;
 import org.apache.lucene.index.Term;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -48,6 +49,14 @@ public class QueryHelper {
             return getQueriesTerms(((BoostQuery)query).getQuery());
         } else if (query instanceof MultiTermQueryConstantScoreWrapper) {
             return getQueriesTerms(((MultiTermQueryConstantScoreWrapper)query).getQuery());
+        } else if (query instanceof ConstantScoreQuery) {
+            return getQueriesTerms(((ConstantScoreQuery)query).getQuery());
+        } else if (query instanceof BooleanQuery) {
+            final List<Term> terms = new ArrayList<>();
+            for (BooleanClause clause : (BooleanQuery)query) {
+                terms.addAll(getQueriesTerms(clause.getQuery()));
+            }
+            return terms;
         } else {
             return Collections.emptyList();
         }
@@ -193,6 +193,10 @@ public class FDBLuceneQueryTest extends FDBRecordStoreQueryTestBase {
             function(LuceneFunctionNames.LUCENE_TEXT, field("text")),
             function(LuceneFunctionNames.LUCENE_STORED, function(LuceneFunctionNames.LUCENE_SORTED, field("group")))),
             LuceneIndexTypes.LUCENE, ImmutableMap.of(IndexOptions.TEXT_TOKENIZER_NAME_OPTION, AllSuffixesTextTokenizer.NAME));
+    private static final Index TEXT_AND_SORTED_GROUP = new Index("text_and_sorted_group", concat(
+            function(LuceneFunctionNames.LUCENE_TEXT, field("text")),
+            function(LuceneFunctionNames.LUCENE_SORTED, field("group"))),
+            LuceneIndexTypes.LUCENE, ImmutableMap.of(IndexOptions.TEXT_TOKENIZER_NAME_OPTION, AllSuffixesTextTokenizer.NAME));
     private static final List<KeyExpression> keys = List.of(field("key"), function(LuceneFunctionNames.LUCENE_TEXT, field("value")));
     private static final KeyExpression mainExpression = field("entry", KeyExpression.FanType.FanOut).nest(concat(keys));
 
@@ -1054,6 +1058,45 @@ public class FDBLuceneQueryTest extends FDBRecordStoreQueryTestBase {
         }
     }
 
+    @Test
+    void coveringFromDocValues() throws Exception {
+        try (FDBRecordContext context = openContext()) {
+            openRecordStore(context, md -> {
+            }, TEXT_AND_SORTED_GROUP);
+            DOCUMENTS.forEach(recordStore::saveRecord);
+            commit(context);
+        }
+        try (FDBRecordContext context = openContext()) {
+            openRecordStore(context, md -> {
+            }, TEXT_AND_SORTED_GROUP);
+            final QueryComponent filter1 = new LuceneQueryComponent("parents", Lists.newArrayList("text"), true);
+            // The group is only sorted, not stored, so it comes from its doc values
+            RecordQuery query = RecordQuery.newBuilder()
+                    .setRecordType(TextIndexTestUtils.SIMPLE_DOC)
+                    .setFilter(filter1)
+                    .setRequiredResults(List.of(field("group")))
+                    .build();
+            RecordQueryPlan plan = planner.plan(query);
+            Matcher<RecordQueryPlan> matcher = coveringIndexScan(indexScan(allOf(
+                    indexScanType(LuceneScanTypes.BY_LUCENE),
+                    indexName(TEXT_AND_SORTED_GROUP.getName()),
+                    scanParams(query(hasToString("MULTI parents")))
+            )));
+            assertThat(plan, matcher);
+            try (RecordCursor<FDBQueriedRecord<Message>> recordCursor = recordStore.executeQuery(plan)) {
+                List<Pair<Long, Long>> results = recordCursor.map(qr -> {
+                    long pk = qr.getPrimaryKey().getLong(0);
+                    TestRecordsTextProto.SimpleDocument.Builder builder = TestRecordsTextProto.SimpleDocument.newBuilder();
+                    builder.mergeFrom(qr.getRecord());
+                    long gr = builder.getGroup();
+                    return Pair.of(pk, gr);
+                }).asList().get();
+                assertEquals(Set.of(Pair.of(2L, 0L), Pair.of(4L, 0L), Pair.of(5L, 1L)), Set.copyOf(results));
+                assertLoadRecord(0, context);
+            }
+        }
+    }
+
     @Test
     void fullGroupScan() {
         try (FDBRecordContext context = openContext()) {
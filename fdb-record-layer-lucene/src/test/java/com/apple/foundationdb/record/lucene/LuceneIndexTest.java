@@ -75,10 +75,13 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Streams;
 import com.google.protobuf.Descriptors;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Disabled;
@@ -94,9 +97,11 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
@@ -223,6 +228,19 @@ public class LuceneIndexTest extends FDBRecordStoreTestBase {
             LuceneIndexTypes.LUCENE,
             Collections.emptyMap());
 
+    private static final Index PARTITIONED_INDEX = new Index(
+            "partitioned_idx",
+            concat(function(LuceneFunctionNames.LUCENE_TEXT, field("text")), function(LuceneFunctionNames.LUCENE_SORTED, field("group"))),
+            LuceneIndexTypes.LUCENE,
+            ImmutableMap.of(LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME, "group",
+                    LuceneIndexOptions.INDEX_PARTITION_HIGH_WATERMARK, "3"));
+
+    private static final Index DEFERRED_WRITES_INDEX = new Index(
+            "deferred_writes_idx",
+            concat(function(LuceneFunctionNames.LUCENE_TEXT, field("text")), function(LuceneFunctionNames.LUCENE_STORED, field("group"))),
+            LuceneIndexTypes.LUCENE,
+            ImmutableMap.of(LuceneIndexOptions.INDEX_DEFERRED_WRITES, "true"));
+
     private static final Index TEXT_AND_BOOLEAN_INDEX = new Index(
             "text_and_number_idx",
             concat(function(LuceneFunctionNames.LUCENE_TEXT, field("text")), function(LuceneFunctionNames.LUCENE_STORED, field("is_seen"))),
@@ -719,6 +737,252 @@ public class LuceneIndexTest extends FDBRecordStoreTestBase {
         }
     }
 
+    @Test
+    void partitionedIndexPrunesPartitions() {
+        try (FDBRecordContext context = openContext()) {
+            rebuildIndexMetaData(context, SIMPLE_DOC, PARTITIONED_INDEX);
+            // appended in order, three to a partition: [0, 20], [30, 50], [60, 80], [90]
+            for (int i = 0; i < 10; i++) {
+                recordStore.saveRecord(createSimpleDocument(1000L + i, ENGINEER_JOKE, i * 10));
+            }
+            assertEquals(4, getPartitions(PARTITIONED_INDEX).size());
+
+            assertEquals(Set.of(1004L, 1005L, 1006L), primaryKeySet(recordStore.scanIndex(PARTITIONED_INDEX,
+                    fullTextSearch(PARTITIONED_INDEX, "\"propose a Vision\" AND group:[40 TO 60]"), null, ScanProperties.FORWARD_SCAN)));
+            assertEquals(2, getCounter(context, LuceneEvents.Counts.LUCENE_PARTITIONS_PRUNED).getCount());
+            assertEquals(2, getCounter(context, LuceneEvents.Counts.LUCENE_PARTITIONS_SEARCHED).getCount());
+
+            // sorted by the partition field, a page only opens the partitions it needs
+            context.getTimer().reset();
+            final LuceneScanBounds sortedByGroup = new LuceneScanQueryParameters(ScanComparisons.EMPTY,
+                    new LuceneQuerySearchClause("\"propose a Vision\"", false),
+                    new Sort(new SortField("group", SortField.Type.LONG, true)), null, null, null)
+                    .bind(recordStore, PARTITIONED_INDEX, EvaluationContext.EMPTY);
+            final ScanProperties limitFour = ExecuteProperties.newBuilder().setReturnedRowLimit(4).build().asScanProperties(false);
+            final RecordCursor<IndexEntry> firstPage = recordStore.scanIndex(PARTITIONED_INDEX, sortedByGroup, null, limitFour);
+            final List<IndexEntry> firstEntries = firstPage.asList().join();
+            assertEquals(List.of(Tuple.from(1009L), Tuple.from(1008L), Tuple.from(1007L), Tuple.from(1006L)),
+                    firstEntries.stream().map(IndexEntry::getPrimaryKey).collect(Collectors.toList()));
+            assertEquals(2, getCounter(context, LuceneEvents.Counts.LUCENE_PARTITIONS_SEARCHED).getCount());
+
+            final byte[] continuation = firstPage.getNext().getContinuation().toBytes();
+            assertIndexEntryPrimaryKeys(List.of(1005L, 1004L, 1003L, 1002L, 1001L, 1000L),
+                    recordStore.scanIndex(PARTITIONED_INDEX, sortedByGroup, continuation, ScanProperties.FORWARD_SCAN));
+        }
+    }
+
+    @Test
+    void partitionedIndexRebalance() {
+        try (FDBRecordContext context = openContext()) {
+            rebuildIndexMetaData(context, SIMPLE_DOC, PARTITIONED_INDEX);
+            for (int i = 0; i < 10; i++) {
+                recordStore.saveRecord(createSimpleDocument(1000L + i, ENGINEER_JOKE, i * 10));
+            }
+            // out of order values go to the full partition that covers them
+            for (int i = 1; i <= 5; i++) {
+                recordStore.saveRecord(createSimpleDocument(2000L + i, ENGINEER_JOKE, 30 + i));
+            }
+            List<LuceneIndexProto.LucenePartitionInfo> partitions = getPartitions(PARTITIONED_INDEX);
+            assertEquals(4, partitions.size());
+            assertEquals(8, partitions.get(1).getCount());
+
+            // 30, 31, 32, 33 stay; 34, 35, 40, 50 move
+            LucenePartitionRebalanceResult result = (LucenePartitionRebalanceResult)recordStore.performIndexOperation(
+                    PARTITIONED_INDEX.getName(), new LucenePartitionRebalance(null, 100));
+            assertEquals(4, result.getDocumentsMoved());
+            partitions = getPartitions(PARTITIONED_INDEX);
+            assertEquals(5, partitions.size());
+            assertEquals(List.of(30L, 33L, 4), List.of(partitions.get(1).getFrom(), partitions.get(1).getTo(), partitions.get(1).getCount()));
+            assertEquals(List.of(34L, 50L, 4), List.of(partitions.get(2).getFrom(), partitions.get(2).getTo(), partitions.get(2).getCount()));
+
+            assertEquals(Set.of(2004L, 2005L, 1004L, 1005L), primaryKeySet(recordStore.scanIndex(PARTITIONED_INDEX,
+                    fullTextSearch(PARTITIONED_INDEX, "\"propose a Vision\" AND group:[34 TO 50]"), null, ScanProperties.FORWARD_SCAN)));
+            assertEquals(15, primaryKeySet(recordStore.scanIndex(PARTITIONED_INDEX,
+                    fullTextSearch(PARTITIONED_INDEX, "\"propose a Vision\""), null, ScanProperties.FORWARD_SCAN)).size());
+
+            // both halves are still over budget and split again: 32, 33 move; then 40, 50 move; then all are within budget
+            for (int expectedMoved : List.of(2, 2, 0)) {
+                result = (LucenePartitionRebalanceResult)recordStore.performIndexOperation(
+                        PARTITIONED_INDEX.getName(), new LucenePartitionRebalance(null, 100));
+                assertEquals(expectedMoved, result.getDocumentsMoved());
+            }
+            assertEquals(7, getPartitions(PARTITIONED_INDEX).size());
+            assertEquals(15, primaryKeySet(recordStore.scanIndex(PARTITIONED_INDEX,
+                    fullTextSearch(PARTITIONED_INDEX, "\"propose a Vision\""), null, ScanProperties.FORWARD_SCAN)).size());
+        }
+    }
+
+    @Test
+    void partitionedIndexMissingPartitionField() {
+        try (FDBRecordContext context = openContext()) {
+            rebuildIndexMetaData(context, SIMPLE_DOC, PARTITIONED_INDEX);
+            for (int i = 0; i < 3; i++) {
+                recordStore.saveRecord(createSimpleDocument(1000L + i, ENGINEER_JOKE, i * 10));
+            }
+            // records without the partition field all go to a partition below any real value
+            recordStore.saveRecord(createSimpleDocument(1003L, ENGINEER_JOKE, null));
+            recordStore.saveRecord(createSimpleDocument(1004L, ENGINEER_JOKE, null));
+            List<LuceneIndexProto.LucenePartitionInfo> partitions = getPartitions(PARTITIONED_INDEX);
+            assertEquals(2, partitions.size());
+            assertEquals(List.of(Long.MIN_VALUE, Long.MIN_VALUE, 2),
+                    List.of(partitions.get(0).getFrom(), partitions.get(0).getTo(), partitions.get(0).getCount()));
+            assertEquals(List.of(0L, 20L, 3), List.of(partitions.get(1).getFrom(), partitions.get(1).getTo(), partitions.get(1).getCount()));
+
+            assertEquals(Set.of(1000L, 1001L, 1002L, 1003L, 1004L), primaryKeySet(recordStore.scanIndex(PARTITIONED_INDEX,
+                    fullTextSearch(PARTITIONED_INDEX, "\"propose a Vision\""), null, ScanProperties.FORWARD_SCAN)));
+            context.getTimer().reset();
+            assertEquals(Set.of(1000L, 1001L, 1002L), primaryKeySet(recordStore.scanIndex(PARTITIONED_INDEX,
+                    fullTextSearch(PARTITIONED_INDEX, "\"propose a Vision\" AND group:[0 TO 20]"), null, ScanProperties.FORWARD_SCAN)));
+            assertEquals(1, getCounter(context, LuceneEvents.Counts.LUCENE_PARTITIONS_PRUNED).getCount());
+
+            recordStore.deleteRecord(Tuple.from(1003L));
+            assertEquals(1, getPartitions(PARTITIONED_INDEX).get(0).getCount());
+            assertEquals(Set.of(1004L), primaryKeySet(recordStore.scanIndex(PARTITIONED_INDEX,
+                    fullTextSearch(PARTITIONED_INDEX, "\"propose a Vision\" AND NOT group:[0 TO 20]"), null, ScanProperties.FORWARD_SCAN)));
+        }
+    }
+
+    @Test
+    void partitionedIndexMissingPartitionFieldContinuation() {
+        try (FDBRecordContext context = openContext()) {
+            rebuildIndexMetaData(context, SIMPLE_DOC, PARTITIONED_INDEX);
+            for (int i = 0; i < 3; i++) {
+                recordStore.saveRecord(createSimpleDocument(1000L + i, ENGINEER_JOKE, i * 10));
+            }
+            for (int i = 0; i < 5; i++) {
+                recordStore.saveRecord(createSimpleDocument(2000L + i, ENGINEER_JOKE, null));
+            }
+            final Set<Long> missing = Set.of(2000L, 2001L, 2002L, 2003L, 2004L);
+            for (boolean reverse : List.of(false, true)) {
+                final LuceneScanBounds sortedByGroup = new LuceneScanQueryParameters(ScanComparisons.EMPTY,
+                        new LuceneQuerySearchClause("\"propose a Vision\"", false),
+                        new Sort(new SortField("group", SortField.Type.LONG, reverse)), null, null, null)
+                        .bind(recordStore, PARTITIONED_INDEX, EvaluationContext.EMPTY);
+                // pages end inside the partition of the documents without the field, which sort as its lowest value
+                final ScanProperties limitTwo = ExecuteProperties.newBuilder().setReturnedRowLimit(2).build().asScanProperties(false);
+                final List<Long> primaryKeys = new ArrayList<>();
+                byte[] continuation = null;
+                do {
+                    final RecordCursor<IndexEntry> page = recordStore.scanIndex(PARTITIONED_INDEX, sortedByGroup, continuation, limitTwo);
+                    primaryKeys.addAll(page.map(entry -> entry.getPrimaryKey().getLong(0)).asList().join());
+                    continuation = page.getNext().getContinuation().toBytes();
+                } while (continuation != null);
+                assertEquals(8, primaryKeys.size());
+                final List<Long> withGroup = reverse ? List.of(1002L, 1001L, 1000L) : List.of(1000L, 1001L, 1002L);
+                final int missingStart = reverse ? 3 : 0;
+                assertEquals(missing, Set.copyOf(primaryKeys.subList(missingStart, missingStart + 5)));
+                assertEquals(withGroup, reverse ? primaryKeys.subList(0, 3) : primaryKeys.subList(5, 8));
+            }
+        }
+    }
+
+    @Test
+    void deferredWritesReadYourWrites() {
+        try (FDBRecordContext context = openContext()) {
+            rebuildIndexMetaData(context, SIMPLE_DOC, DEFERRED_WRITES_INDEX);
+            recordStore.saveRecord(createSimpleDocument(1623L, ENGINEER_JOKE, 2));
+            recordStore.saveRecord(createSimpleDocument(1624L, WAYLON, 2));
+            recordStore.saveRecord(createSimpleDocument(1547L, ENGINEER_JOKE, 2));
+            assertEquals(3, getCounter(context, LuceneEvents.Counts.LUCENE_PENDING_WRITES_QUEUED).getCount());
+
+            // nothing is in the index yet, but the queued documents are searched
+            assertEquals(Set.of(1623L, 1547L), primaryKeySet(recordStore.scanIndex(DEFERRED_WRITES_INDEX,
+                    fullTextSearch(DEFERRED_WRITES_INDEX, "Vision"), null, ScanProperties.FORWARD_SCAN)));
+            assertEquals(3, getCounter(context, LuceneEvents.Counts.LUCENE_PENDING_WRITES_MERGED).getCount());
+
+            for (int expectedDrained : List.of(2, 1, 0)) {
+                LucenePendingWriteDrainResult result = (LucenePendingWriteDrainResult)recordStore.performIndexOperation(
+                        DEFERRED_WRITES_INDEX.getName(), new LucenePendingWriteDrain(2));
+                assertEquals(expectedDrained, result.getDocumentsDrained());
+            }
+            context.getTimer().reset();
+            assertEquals(Set.of(1623L, 1547L), primaryKeySet(recordStore.scanIndex(DEFERRED_WRITES_INDEX,
+                    fullTextSearch(DEFERRED_WRITES_INDEX, "Vision"), null, ScanProperties.FORWARD_SCAN)));
+            assertNull(context.getTimer().getCounter(LuceneEvents.Counts.LUCENE_PENDING_WRITES_MERGED));
+
+            // queued changes hide the stale documents already in the index
+            recordStore.saveRecord(createSimpleDocument(1623L, WAYLON, 2));
+            recordStore.deleteRecord(Tuple.from(1547L));
+            assertEquals(Set.of(), primaryKeySet(recordStore.scanIndex(DEFERRED_WRITES_INDEX,
+                    fullTextSearch(DEFERRED_WRITES_INDEX, "Vision"), null, ScanProperties.FORWARD_SCAN)));
+            assertEquals(Set.of(1623L, 1624L), primaryKeySet(recordStore.scanIndex(DEFERRED_WRITES_INDEX,
+                    fullTextSearch(DEFERRED_WRITES_INDEX, "\"right to try\""), null, ScanProperties.FORWARD_SCAN)));
+
+            LucenePendingWriteDrainResult result = (LucenePendingWriteDrainResult)recordStore.performIndexOperation(
+                    DEFERRED_WRITES_INDEX.getName(), new LucenePendingWriteDrain(100));
+            assertEquals(2, result.getDocumentsDrained());
+            assertEquals(Set.of(), primaryKeySet(recordStore.scanIndex(DEFERRED_WRITES_INDEX,
+                    fullTextSearch(DEFERRED_WRITES_INDEX, "Vision"), null, ScanProperties.FORWARD_SCAN)));
+            assertEquals(Set.of(1623L, 1624L), primaryKeySet(recordStore.scanIndex(DEFERRED_WRITES_INDEX,
+                    fullTextSearch(DEFERRED_WRITES_INDEX, "\"right to try\""), null, ScanProperties.FORWARD_SCAN)));
+        }
+    }
+
+    @Test
+    void deferredWritesMergeLimit() {
+        final RecordLayerPropertyStorage.Builder storageBuilder = RecordLayerPropertyStorage.newBuilder()
+                .addProp(LuceneRecordContextProperties.LUCENE_PENDING_WRITES_MERGE_LIMIT, 2);
+        try (FDBRecordContext context = openContext(storageBuilder)) {
+            rebuildIndexMetaData(context, SIMPLE_DOC, DEFERRED_WRITES_INDEX);
+            recordStore.saveRecord(createSimpleDocument(1623L, ENGINEER_JOKE, 2));
+            recordStore.saveRecord(createSimpleDocument(1624L, WAYLON, 2));
+            assertEquals(Set.of(1623L), primaryKeySet(recordStore.scanIndex(DEFERRED_WRITES_INDEX,
+                    fullTextSearch(DEFERRED_WRITES_INDEX, "Vision"), null, ScanProperties.FORWARD_SCAN)));
+
+            // past the limit, the scan fails rather than merging the whole queue
+            recordStore.saveRecord(createSimpleDocument(1547L, ENGINEER_JOKE, 2));
+            assertThrows(RecordCoreException.class, () -> primaryKeySet(recordStore.scanIndex(DEFERRED_WRITES_INDEX,
+                    fullTextSearch(DEFERRED_WRITES_INDEX, "Vision"), null, ScanProperties.FORWARD_SCAN)));
+
+            LucenePendingWriteDrainResult result = (LucenePendingWriteDrainResult)recordStore.performIndexOperation(
+                    DEFERRED_WRITES_INDEX.getName(), new LucenePendingWriteDrain(100));
+            assertEquals(3, result.getDocumentsDrained());
+            assertEquals(Set.of(1623L, 1547L), primaryKeySet(recordStore.scanIndex(DEFERRED_WRITES_INDEX,
+                    fullTextSearch(DEFERRED_WRITES_INDEX, "Vision"), null, ScanProperties.FORWARD_SCAN)));
+        }
+    }
+
+    @Test
+    void deferredWritesIndexBuild() {
+        final RecordLayerPropertyStorage.Builder storageBuilder = RecordLayerPropertyStorage.newBuilder()
+                .addProp(LuceneRecordContextProperties.LUCENE_PENDING_WRITES_MERGE_LIMIT, 2);
+        try (FDBRecordContext context = openContext(storageBuilder)) {
+            rebuildIndexMetaData(context, SIMPLE_DOC, DEFERRED_WRITES_INDEX);
+            recordStore.markIndexDisabled(DEFERRED_WRITES_INDEX).join();
+            recordStore.saveRecord(createSimpleDocument(1623L, ENGINEER_JOKE, 2));
+            recordStore.saveRecord(createSimpleDocument(1624L, WAYLON, 2));
+            recordStore.saveRecord(createSimpleDocument(1547L, ENGINEER_JOKE, 2));
+
+            // the build writes its documents directly, so the readable index has no queue past the merge limit
+            recordStore.rebuildIndex(DEFERRED_WRITES_INDEX).join();
+            assertNull(context.getTimer().getCounter(LuceneEvents.Counts.LUCENE_PENDING_WRITES_QUEUED));
+            assertEquals(Set.of(1623L, 1547L), primaryKeySet(recordStore.scanIndex(DEFERRED_WRITES_INDEX,
+                    fullTextSearch(DEFERRED_WRITES_INDEX, "Vision"), null, ScanProperties.FORWARD_SCAN)));
+            LucenePendingWriteDrainResult result = (LucenePendingWriteDrainResult)recordStore.performIndexOperation(
+                    DEFERRED_WRITES_INDEX.getName(), new LucenePendingWriteDrain(100));
+            assertEquals(0, result.getDocumentsDrained());
+        }
+    }
+
+    @Nonnull
+    private List<LuceneIndexProto.LucenePartitionInfo> getPartitions(@Nonnull Index index) {
+        final Subspace metaSubspace = recordStore.indexSubspace(index).subspace(Tuple.from(LucenePartitioner.PARTITION_META_SUBSPACE));
+        return recordStore.getContext().ensureActive().getRange(metaSubspace.range()).asList().join().stream()
+                .map(keyValue -> {
+                    try {
+                        return LuceneIndexProto.LucenePartitionInfo.parseFrom(keyValue.getValue());
+                    } catch (InvalidProtocolBufferException e) {
+                        throw new IllegalStateException(e);
+                    }
+                })
+                .collect(Collectors.toList());
+    }
+
+    @Nonnull
+    private static Set<Long> primaryKeySet(@Nonnull RecordCursor<IndexEntry> cursor) {
+        return cursor.map(entry -> entry.getPrimaryKey().getLong(0)).asList().join().stream().collect(Collectors.toSet());
+    }
+
     @Test
     void searchTextWithEmailPrefix() {
         /*
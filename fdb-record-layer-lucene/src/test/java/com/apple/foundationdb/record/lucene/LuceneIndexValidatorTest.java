@@ -24,6 +24,7 @@ import com.apple.foundationdb.record.RecordMetaData;
 import com.apple.foundationdb.record.TestRecordsTextProto;
 import com.apple.foundationdb.record.metadata.Index;
 import com.apple.foundationdb.record.metadata.MetaDataException;
+import com.apple.foundationdb.record.metadata.expressions.KeyExpression;
 import com.apple.foundationdb.record.provider.foundationdb.indexes.TextIndexTestUtils;
 import com.google.common.collect.ImmutableMap;
 import org.junit.jupiter.api.Test;
@@ -74,6 +75,56 @@ public class LuceneIndexValidatorTest {
                 () -> validateIndexOptions(options7));
     }
 
+    @Test
+    void testPartitionIndexOptions() {
+        final Index index = new Index("Complex$partitioned",
+                concat(function(LuceneFunctionNames.LUCENE_TEXT, field("text")), function(LuceneFunctionNames.LUCENE_SORTED, field("group")),
+                        function(LuceneFunctionNames.LUCENE_STORED, field("text2"))),
+                LuceneIndexTypes.LUCENE,
+                ImmutableMap.of(LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME, "group", LuceneIndexOptions.INDEX_PARTITION_HIGH_WATERMARK, "1000"));
+        assertDoesNotThrow(() -> validateIndex(index));
+
+        // partition field must be a numeric field of the index
+        assertThrows(MetaDataException.class, () -> validateIndex(new Index("Complex$partitioned", index.getRootExpression(), LuceneIndexTypes.LUCENE,
+                ImmutableMap.of(LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME, "text2"))));
+        assertThrows(MetaDataException.class, () -> validateIndex(new Index("Complex$partitioned", index.getRootExpression(), LuceneIndexTypes.LUCENE,
+                ImmutableMap.of(LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME, "score"))));
+
+        // high watermark must be a positive integer and requires a partition field
+        assertThrows(MetaDataException.class, () -> validateIndex(new Index("Complex$partitioned", index.getRootExpression(), LuceneIndexTypes.LUCENE,
+                ImmutableMap.of(LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME, "group", LuceneIndexOptions.INDEX_PARTITION_HIGH_WATERMARK, "0"))));
+        assertThrows(MetaDataException.class, () -> validateIndex(new Index("Complex$partitioned", index.getRootExpression(), LuceneIndexTypes.LUCENE,
+                ImmutableMap.of(LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME, "group", LuceneIndexOptions.INDEX_PARTITION_HIGH_WATERMARK, "many"))));
+        assertThrows(MetaDataException.class, () -> validateIndex(new Index("Complex$partitioned", index.getRootExpression(), LuceneIndexTypes.LUCENE,
+                ImmutableMap.of(LuceneIndexOptions.INDEX_PARTITION_HIGH_WATERMARK, "1000"))));
+    }
+
+    @Test
+    void testDeferredWritesIndexOption() {
+        final KeyExpression root = concat(function(LuceneFunctionNames.LUCENE_TEXT, field("text")), function(LuceneFunctionNames.LUCENE_SORTED, field("group")));
+        assertDoesNotThrow(() -> validateIndex(new Index("Complex$deferred", root, LuceneIndexTypes.LUCENE,
+                ImmutableMap.of(LuceneIndexOptions.INDEX_DEFERRED_WRITES, "true"))));
+        assertThrows(MetaDataException.class, () -> validateIndex(new Index("Complex$deferred", root, LuceneIndexTypes.LUCENE,
+                ImmutableMap.of(LuceneIndexOptions.INDEX_DEFERRED_WRITES, "yes"))));
+        // deferred writes cannot be combined with partitioning
+        assertThrows(MetaDataException.class, () -> validateIndex(new Index("Complex$deferred", root, LuceneIndexTypes.LUCENE,
+                ImmutableMap.of(LuceneIndexOptions.INDEX_DEFERRED_WRITES, "true", LuceneIndexOptions.INDEX_PARTITION_BY_FIELD_NAME, "group"))));
+    }
+
+    @Test
+    void testDeferredWritesOptionChange() {
+        final KeyExpression root = concat(function(LuceneFunctionNames.LUCENE_TEXT, field("text")), function(LuceneFunctionNames.LUCENE_SORTED, field("group")));
+        final Index plain = new Index("Complex$deferred", root, LuceneIndexTypes.LUCENE, ImmutableMap.of());
+        final Index deferred = new Index("Complex$deferred", root, LuceneIndexTypes.LUCENE,
+                ImmutableMap.of(LuceneIndexOptions.INDEX_DEFERRED_WRITES, "true"));
+        // turning deferred writes on or off requires rebuilding the index
+        assertThrows(MetaDataException.class, () -> new LuceneIndexValidator(deferred).validateChangedOptions(plain));
+        assertThrows(MetaDataException.class, () -> new LuceneIndexValidator(plain).validateChangedOptions(deferred));
+        // spelling out the default is not a change
+        assertDoesNotThrow(() -> new LuceneIndexValidator(plain).validateChangedOptions(new Index("Complex$deferred", root, LuceneIndexTypes.LUCENE,
+                ImmutableMap.of(LuceneIndexOptions.INDEX_DEFERRED_WRITES, "false"))));
+    }
+
     void validateIndexOptions(@Nonnull Map<String, String> indexOptions) {
         Index index = new Index("Complex$text_index",
                 concat(function(LuceneFunctionNames.LUCENE_TEXT, field("text")), function(LuceneFunctionNames.LUCENE_TEXT, field("text2"))),
@@ -84,4 +135,11 @@ public class LuceneIndexValidatorTest {
         metadataBuilder.addIndex(TextIndexTestUtils.COMPLEX_DOC, index);
         LuceneIndexValidator.validateIndexOptions(index, metadataBuilder.getRecordMetaData());
     }
+
+    void validateIndex(@Nonnull Index index) {
+        final var metadataBuilder = RecordMetaData.newBuilder().setRecords(TestRecordsTextProto.getDescriptor());
+        metadataBuilder.getRecordType(TextIndexTestUtils.COMPLEX_DOC).setPrimaryKey(field("doc_id"));
+        metadataBuilder.addIndex(TextIndexTestUtils.COMPLEX_DOC, index);
+        LuceneIndexValidator.validateIndexOptions(index, metadataBuilder.getRecordMetaData());
+    }
 }
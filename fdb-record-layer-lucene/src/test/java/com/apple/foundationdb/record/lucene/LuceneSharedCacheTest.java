@@ -24,6 +24,7 @@ import com.apple.foundationdb.record.EvaluationContext;
 import com.apple.foundationdb.record.RecordMetaData;
 import com.apple.foundationdb.record.RecordMetaDataBuilder;
 import com.apple.foundationdb.record.TestRecordsTextProto;
+import com.apple.foundationdb.record.lucene.directory.FDBDirectoryBlockCache;
 import com.apple.foundationdb.record.lucene.directory.FDBDirectorySharedCache;
 import com.apple.foundationdb.record.lucene.directory.FDBDirectorySharedCacheManager;
 import com.apple.foundationdb.record.metadata.Index;
@@ -232,4 +233,51 @@ public class LuceneSharedCacheTest extends FDBRecordStoreQueryTestBase {
         }
     }
 
+
+    @Test
+    void sharedBlockCache() throws Exception {
+        initializeRecords();
+
+        final FDBDirectoryBlockCache blockCache = FDBDirectoryBlockCache.newBuilder().setMaximumWeight(1024 * 1024).build();
+        // Two managers, as for two record stores or two clients of one, with a single memory budget.
+        final FDBDirectorySharedCacheManager manager1 = FDBDirectorySharedCacheManager.newBuilder().setBlockCache(blockCache).build();
+        final FDBDirectorySharedCacheManager manager2 = FDBDirectorySharedCacheManager.newBuilder().setBlockCache(blockCache).build();
+        final QueryComponent filter = Query.and(
+                Query.field("group").equalsParameter("g"),
+                new LuceneQueryComponent("text:mutiny", List.of("text")));
+        final RecordQuery query = RecordQuery.newBuilder()
+                .setRecordType(TextIndexTestUtils.SIMPLE_DOC)
+                .setFilter(filter)
+                .build();
+
+        try (FDBRecordContext context = openContext()) {
+            openRecordStore(context);
+            manager1.setForContext(context);
+            timer.reset();
+            assertEquals(Set.of(4L), groupQueryForPrimaryKeys(query, 0));
+            assertThat("no hits", timer.getCount(LuceneEvents.Counts.LUCENE_SHARED_CACHE_HITS), equalTo(0));
+            assertThat("some misses", timer.getCount(LuceneEvents.Counts.LUCENE_SHARED_CACHE_MISSES), greaterThan(0));
+        }
+        final long weight = blockCache.getWeight();
+        assertThat("blocks cached", weight, greaterThan(0L));
+
+        try (FDBRecordContext context = openContext()) {
+            openRecordStore(context);
+            manager1.setForContext(context);
+            timer.reset();
+            assertEquals(Set.of(4L), groupQueryForPrimaryKeys(query, 0));
+            assertThat("some hits", timer.getCount(LuceneEvents.Counts.LUCENE_SHARED_CACHE_HITS), greaterThan(0));
+            assertThat("no misses", timer.getCount(LuceneEvents.Counts.LUCENE_SHARED_CACHE_MISSES), equalTo(0));
+        }
+
+        try (FDBRecordContext context = openContext()) {
+            openRecordStore(context);
+            manager2.setForContext(context);
+            timer.reset();
+            assertEquals(Set.of(4L), groupQueryForPrimaryKeys(query, 0));
+            assertThat("not shared between managers", timer.getCount(LuceneEvents.Counts.LUCENE_SHARED_CACHE_HITS), equalTo(0));
+        }
+        assertThat("both managers' blocks counted", blockCache.getWeight(), greaterThan(weight));
+        assertThat(blockCache.getHitCount(), greaterThan(0L));
+    }
 }
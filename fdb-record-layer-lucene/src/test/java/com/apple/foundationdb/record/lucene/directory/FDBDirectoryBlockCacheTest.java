@@ -0,0 +1,204 @@
+/*
+ * FDBDirectoryBlockCacheTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.lucene.directory;
+
+import com.apple.foundationdb.record.lucene.LuceneEvents;
+import com.apple.foundationdb.record.provider.foundationdb.FDBStoreTimer;
+import com.apple.foundationdb.tuple.Tuple;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link FDBDirectoryBlockCache}.
+ */
+public class FDBDirectoryBlockCacheTest {
+    private static final int BLOCK_SIZE = 1000;
+    private static final int WEIGHT = BLOCK_SIZE + FDBDirectoryBlockCache.ENTRY_OVERHEAD;
+
+    private static FDBDirectoryBlockCache newCache(int blocks, long quota) {
+        return FDBDirectoryBlockCache.newBuilder()
+                .setMaximumWeight((long)blocks * WEIGHT)
+                .setDirectoryQuota(quota)
+                .setConcurrencyLevel(1)
+                .build();
+    }
+
+    @Test
+    void weightedEviction() {
+        final FDBDirectoryBlockCache cache = newCache(10, 0);
+        final FDBStoreTimer timer = new FDBStoreTimer();
+        final Object owner = new Object();
+        final byte[] block = new byte[BLOCK_SIZE];
+        for (int i = 0; i < 10; i++) {
+            cache.putIfAbsent(owner, 1, i, block, timer);
+        }
+        assertEquals(10L * WEIGHT, cache.getWeight());
+        assertEquals(0, timer.getCount(LuceneEvents.Counts.LUCENE_BLOCK_CACHE_EVICTED_BYTES));
+        // A block twice the size needs two others to go.
+        cache.putIfAbsent(owner, 2, 0, new byte[BLOCK_SIZE * 2 + FDBDirectoryBlockCache.ENTRY_OVERHEAD], timer);
+        assertTrue(cache.getWeight() <= cache.getMaximumWeight());
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(2 * WEIGHT, timer.getCount(LuceneEvents.Counts.LUCENE_BLOCK_CACHE_EVICTED_BYTES));
+        assertNull(cache.getIfPresent(owner, 1, 0));
+        assertNull(cache.getIfPresent(owner, 1, 1));
+        assertNotNull(cache.getIfPresent(owner, 1, 2));
+        assertEquals(cache.getWeight(), cache.getWeight(owner));
+    }
+
+    @Test
+    void scanResistance() {
+        final FDBDirectoryBlockCache cache = newCache(10, 0);
+        final Object owner = new Object();
+        final byte[] hot = new byte[BLOCK_SIZE];
+        cache.putIfAbsent(owner, 1, 0, hot, null);
+        assertSame(hot, cache.getIfPresent(owner, 1, 0));
+        // Reading many blocks once each does not displace the block that was read twice.
+        for (int i = 0; i < 100; i++) {
+            cache.putIfAbsent(owner, 2, i, new byte[BLOCK_SIZE], null);
+        }
+        assertSame(hot, cache.getIfPresent(owner, 1, 0));
+        assertNotNull(cache.getIfPresent(owner, 2, 99));
+        assertNull(cache.getIfPresent(owner, 2, 0));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void directoryQuota() {
+        final FDBDirectoryBlockCache cache = newCache(10, 3L * WEIGHT);
+        final FDBStoreTimer timer = new FDBStoreTimer();
+        final Object owner1 = new Object();
+        final Object owner2 = new Object();
+        for (int i = 0; i < 5; i++) {
+            cache.putIfAbsent(owner1, 1, i, new byte[BLOCK_SIZE], timer);
+            cache.putIfAbsent(owner2, 1, i, new byte[BLOCK_SIZE], timer);
+        }
+        assertEquals(3L * WEIGHT, cache.getWeight(owner1));
+        assertEquals(3L * WEIGHT, cache.getWeight(owner2));
+        assertEquals(4, cache.getQuotaRejectionCount());
+        assertEquals(4, timer.getCount(LuceneEvents.Counts.LUCENE_BLOCK_CACHE_QUOTA_REJECTIONS));
+        assertNotNull(cache.getIfPresent(owner1, 1, 2));
+        assertNull(cache.getIfPresent(owner1, 1, 3));
+        assertNull(cache.getIfPresent(owner2, 1, 3));
+        cache.invalidateAll();
+        assertEquals(0, cache.getWeight());
+        assertEquals(0, cache.getWeight(owner1));
+    }
+
+    @Test
+    void concurrentQuota() throws Exception {
+        final FDBDirectoryBlockCache cache = newCache(100, 10L * WEIGHT);
+        final Object owner = new Object();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int file = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        cache.putIfAbsent(owner, file, i, new byte[BLOCK_SIZE], null);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(10L * WEIGHT, cache.getWeight(owner));
+        assertEquals(10L * WEIGHT, cache.getWeight());
+        assertEquals(390, cache.getQuotaRejectionCount());
+    }
+
+    @Test
+    void invalidateOwner() {
+        final FDBDirectoryBlockCache cache = FDBDirectoryBlockCache.newBuilder()
+                .setMaximumWeight(40L * WEIGHT)
+                .setConcurrencyLevel(4)
+                .build();
+        final Object owner1 = new Object();
+        final Object owner2 = new Object();
+        for (int i = 0; i < 8; i++) {
+            cache.putIfAbsent(owner1, 1, i, new byte[BLOCK_SIZE], null);
+            cache.putIfAbsent(owner2, 1, i, new byte[BLOCK_SIZE], null);
+        }
+        // Promote some so that both segments hold blocks of each owner.
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(cache.getIfPresent(owner1, 1, i));
+            assertNotNull(cache.getIfPresent(owner2, 1, i));
+        }
+        cache.invalidate(owner1);
+        assertEquals(0, cache.getWeight(owner1));
+        assertEquals(8L * WEIGHT, cache.getWeight(owner2));
+        assertEquals(8L * WEIGHT, cache.getWeight());
+        for (int i = 0; i < 8; i++) {
+            assertNull(cache.getIfPresent(owner1, 1, i));
+            assertNotNull(cache.getIfPresent(owner2, 1, i));
+        }
+        // Blocks that were evicted are no longer the owner's to remove.
+        for (int i = 0; i < 100; i++) {
+            cache.putIfAbsent(owner1, 2, i, new byte[BLOCK_SIZE], null);
+        }
+        cache.invalidate(owner1);
+        assertEquals(0, cache.getWeight(owner1));
+        assertEquals(cache.getWeight(), cache.getWeight(owner2));
+        // Nothing is left to remove for an owner with no blocks.
+        cache.invalidate(new Object());
+    }
+
+    @Test
+    void newSequenceNumber() {
+        final FDBDirectoryBlockCache blockCache = newCache(10, 3L * WEIGHT);
+        final FDBDirectorySharedCacheManager manager = FDBDirectorySharedCacheManager.newBuilder()
+                .setBlockCache(blockCache)
+                .build();
+        final Tuple key = Tuple.from("dir");
+        final FDBDirectorySharedCache cache1 = manager.getCache(key, 1);
+        assertNotNull(cache1);
+        for (int i = 0; i < 5; i++) {
+            cache1.putBlockIfAbsent(1, i, new byte[BLOCK_SIZE]);
+        }
+        assertEquals(3L * WEIGHT, blockCache.getWeight(cache1));
+        // The older blocks are dropped, and do not count against the newer cache's quota.
+        final FDBDirectorySharedCache cache2 = manager.getCache(key, 2);
+        assertNotNull(cache2);
+        assertEquals(0, blockCache.getWeight(cache1));
+        assertEquals(0, blockCache.getWeight());
+        assertNull(cache1.getBlockIfPresent(1, 0));
+        for (int i = 0; i < 3; i++) {
+            cache2.putBlockIfAbsent(1, i, new byte[BLOCK_SIZE]);
+        }
+        assertEquals(3L * WEIGHT, blockCache.getWeight(cache2));
+        assertNotNull(cache2.getBlockIfPresent(1, 2));
+    }
+}
@@ -20,13 +20,16 @@
 
 package com.apple.foundationdb.record.lucene.directory;
 
+import com.apple.foundationdb.record.lucene.LuceneEvents;
 import com.apple.test.Tags;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 /**
  * Test to FDBIndexInput functionality.
@@ -65,4 +68,47 @@ public class FDBIndexInputTest extends FDBDirectoryBaseTest {
         assertArrayEquals(expectedAfterSeek, actual);
     }
 
+    @Test
+    public void testSequentialReadAhead() throws Exception {
+        final int blocks = 40;
+        byte[] expected = writeBlocks(blocks);
+        FDBIndexInput input = new FDBIndexInput(FILE_NAME, directory);
+        byte[] actual = new byte[expected.length];
+        for (int i = 0; i < blocks; i++) {
+            input.readBytes(actual, i * directory.getBlockSize(), directory.getBlockSize());
+        }
+        assertArrayEquals(expected, actual);
+        // all but the first two blocks were read ahead, and then read
+        assertEquals(blocks - FDBIndexInput.SEQUENTIAL_BLOCKS_BEFORE_READ_AHEAD, timer.getCount(LuceneEvents.Counts.LUCENE_READ_AHEAD_BLOCKS));
+        assertEquals(blocks - FDBIndexInput.SEQUENTIAL_BLOCKS_BEFORE_READ_AHEAD, timer.getCount(LuceneEvents.Counts.LUCENE_READ_AHEAD_HITS));
+        directory.close();
+        assertEquals(0, timer.getCount(LuceneEvents.Counts.LUCENE_READ_AHEAD_WASTE));
+    }
+
+    @Test
+    public void testReadAheadWaste() throws Exception {
+        final byte[] expected = writeBlocks(20);
+        FDBIndexInput input = new FDBIndexInput(FILE_NAME, directory);
+        byte[] actual = new byte[directory.getBlockSize()];
+        // reading to the end of the first block moves on to the second, which starts reading ahead
+        input.readBytes(actual, 0, actual.length);
+        // a seek elsewhere stops reading ahead, leaving the blocks already read ahead unread
+        input.seek(15L * directory.getBlockSize());
+        input.readBytes(actual, 0, actual.length);
+        assertArrayEquals(Arrays.copyOfRange(expected, 15 * directory.getBlockSize(), 16 * directory.getBlockSize()), actual);
+        assertEquals(FDBIndexInput.INITIAL_READ_AHEAD_BLOCKS, timer.getCount(LuceneEvents.Counts.LUCENE_READ_AHEAD_BLOCKS));
+        assertEquals(0, timer.getCount(LuceneEvents.Counts.LUCENE_READ_AHEAD_HITS));
+        directory.close();
+        assertEquals(FDBIndexInput.INITIAL_READ_AHEAD_BLOCKS, timer.getCount(LuceneEvents.Counts.LUCENE_READ_AHEAD_WASTE));
+    }
+
+    private byte[] writeBlocks(int blocks) throws Exception {
+        FDBIndexOutput output = new FDBIndexOutput(FILE_NAME, directory);
+        byte[] expected = new byte[blocks * directory.getBlockSize()];
+        random.nextBytes(expected);
+        output.writeBytes(expected, expected.length);
+        output.close();
+        return expected;
+    }
+
 }
@@ -0,0 +1,155 @@
+/*
+ * LuceneOptimizedIndexSearcherTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2015-2023 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.record.lucene.search;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link LuceneOptimizedIndexSearcher} with an executor finds the same documents as a sequential search.
+ */
+class LuceneOptimizedIndexSearcherTest {
+    private static final int SEGMENTS = 4;
+    private static final int DOCUMENTS_PER_SEGMENT = 25;
+    private static final String FIELD = "text";
+    private static final List<String> WORDS = List.of("alpha", "bravo", "charlie", "delta", "echo");
+
+    private static Directory directory;
+    private static DirectoryReader reader;
+    private static ExecutorService executorService;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        directory = new ByteBuffersDirectory();
+        final IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer()).setMergePolicy(NoMergePolicy.INSTANCE);
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int segment = 0; segment < SEGMENTS; segment++) {
+                for (int i = 0; i < DOCUMENTS_PER_SEGMENT; i++) {
+                    final int n = segment * DOCUMENTS_PER_SEGMENT + i;
+                    final Document document = new Document();
+                    // the last segment has no "echo", so some segments do not have all of a query's terms
+                    final String word = WORDS.get(n % (segment == SEGMENTS - 1 ? WORDS.size() - 1 : WORDS.size()));
+                    document.add(new TextField(FIELD, word + " " + WORDS.get(n % 3) + " " + word, Field.Store.NO));
+                    writer.addDocument(document);
+                }
+                writer.commit();
+            }
+        }
+        reader = DirectoryReader.open(directory);
+        executorService = Executors.newFixedThreadPool(SEGMENTS);
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        executorService.shutdown();
+        reader.close();
+        directory.close();
+    }
+
+    static Stream<Query> queries() {
+        return Stream.of(
+                new TermQuery(new Term(FIELD, "alpha")),
+                new TermQuery(new Term(FIELD, "echo")),
+                new TermQuery(new Term(FIELD, "missing")),
+                new BooleanQuery.Builder()
+                        .add(new TermQuery(new Term(FIELD, "bravo")), BooleanClause.Occur.SHOULD)
+                        .add(new TermQuery(new Term(FIELD, "echo")), BooleanClause.Occur.SHOULD)
+                        .build(),
+                new BooleanQuery.Builder()
+                        .add(new TermQuery(new Term(FIELD, "alpha")), BooleanClause.Occur.MUST)
+                        .add(new TermQuery(new Term(FIELD, "charlie")), BooleanClause.Occur.MUST_NOT)
+                        .build());
+    }
+
+    @ParameterizedTest
+    @MethodSource("queries")
+    void sameResultsAsSequentialSearch(Query query) throws IOException {
+        final AtomicInteger tasks = new AtomicInteger();
+        final LuceneOptimizedIndexSearcher searcher = new LuceneOptimizedIndexSearcher(reader, command -> {
+            tasks.incrementAndGet();
+            executorService.execute(command);
+        });
+        final IndexSearcher sequential = new IndexSearcher(reader);
+
+        // each segment is its own slice, however few documents it has
+        assertEquals(SEGMENTS, reader.leaves().size());
+        assertEquals(SEGMENTS, searcher.getSlices().length);
+
+        final TopDocs expected = sequential.search(query, SEGMENTS * DOCUMENTS_PER_SEGMENT);
+        final TopDocs actual = searcher.search(query, SEGMENTS * DOCUMENTS_PER_SEGMENT);
+        assertEquals(expected.totalHits, actual.totalHits);
+        assertArrayEquals(docs(expected), docs(actual));
+        assertArrayEquals(scores(expected), scores(actual));
+        assertTrue(tasks.get() > 0, "search should run on the executor");
+
+        final TotalHitCountCollector expectedCount = new TotalHitCountCollector();
+        sequential.search(query, expectedCount);
+        final TotalHitCountCollector actualCount = new TotalHitCountCollector();
+        searcher.search(query, actualCount);
+        assertEquals(expectedCount.getTotalHits(), actualCount.getTotalHits());
+    }
+
+    private static int[] docs(TopDocs topDocs) {
+        return Arrays.stream(topDocs.scoreDocs).mapToInt(scoreDoc -> scoreDoc.doc).toArray();
+    }
+
+    private static float[] scores(TopDocs topDocs) {
+        final ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+        final float[] scores = new float[scoreDocs.length];
+        for (int i = 0; i < scoreDocs.length; i++) {
+            scores[i] = scoreDocs[i].score;
+        }
+        return scores;
+    }
+}